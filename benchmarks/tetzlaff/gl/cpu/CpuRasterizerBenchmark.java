@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import tetzlaff.gl.core.*;
+import tetzlaff.gl.nativebuffer.NativeVectorBufferFactory;
+import tetzlaff.gl.vecmath.Matrix4;
+
+/**
+ * Measures a draw call of the CPU rasterizer: a displaced, textured grid seen in perspective,
+ * rendered with depth testing into a framebuffer with a fixed-point and a floating-point color attachment.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx16g" })
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CpuRasterizerBenchmark
+{
+    @Param({ "200000", "2000000" })
+    public int faceCount;
+
+    @Param({ "1024", "4096" })
+    public int resolution;
+
+    private CpuContext context;
+    private FramebufferObject<CpuContext> framebuffer;
+    private Drawable<CpuContext> drawable;
+
+    /**
+     * Transforms positions by a matrix and outputs a texture sample and the interpolated normal.
+     */
+    private static class TexturedShader implements CpuShader
+    {
+        private Matrix4 modelViewProjection;
+        private CpuTexture2D texture;
+
+        @Override
+        public int getVaryingCount()
+        {
+            return 5;
+        }
+
+        @Override
+        public void prepare(CpuProgram program)
+        {
+            modelViewProjection = program.getMatrix4("model_view_projection");
+            texture = (CpuTexture2D)program.getTexture("diffuseMap");
+        }
+
+        @Override
+        public void shadeVertex(CpuVertexInput input, float[] position, float[] varyings)
+        {
+            float x = input.getFloat(0, 0);
+            float y = input.getFloat(0, 1);
+            float z = input.getFloat(0, 2);
+
+            for (int row = 0; row < 4; row++)
+            {
+                position[row] = modelViewProjection.get(row, 0) * x + modelViewProjection.get(row, 1) * y
+                    + modelViewProjection.get(row, 2) * z + modelViewProjection.get(row, 3);
+            }
+
+            varyings[0] = input.getFloat(1, 0);
+            varyings[1] = input.getFloat(1, 1);
+            varyings[2] = input.getFloat(2, 0);
+            varyings[3] = input.getFloat(2, 1);
+            varyings[4] = input.getFloat(2, 2);
+        }
+
+        @Override
+        public boolean shadeFragment(float[] varyings, CpuFragment fragment)
+        {
+            float[] color = new float[4];
+            texture.sample(varyings[0], varyings[1], color);
+
+            float length = (float)Math.sqrt(varyings[2] * varyings[2] + varyings[3] * varyings[3] + varyings[4] * varyings[4]);
+            float shading = Math.max(0.0f, varyings[4] / length);
+
+            fragment.setColor(0, color[0] * shading, color[1] * shading, color[2] * shading, 1.0f);
+            fragment.setColor(1, varyings[2] / length, varyings[3] / length, varyings[4] / length, fragment.getDepth());
+            return true;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createScene()
+    {
+        context = new CpuContext(resolution, resolution);
+        framebuffer = context.buildFramebufferObject(resolution, resolution)
+            .addColorAttachment(ColorFormat.RGBA8)
+            .addColorAttachment(ColorFormat.RGBA32F)
+            .addDepthAttachment()
+            .createFramebufferObject();
+
+        int gridSize = (int)Math.ceil(Math.sqrt(faceCount / 2.0)) + 1;
+        Random random = new Random(0);
+
+        float[] positions = new float[gridSize * gridSize * 3];
+        float[] texCoords = new float[gridSize * gridSize * 2];
+        float[] normals = new float[gridSize * gridSize * 3];
+
+        for (int i = 0; i < gridSize; i++)
+        {
+            for (int j = 0; j < gridSize; j++)
+            {
+                int k = i * gridSize + j;
+                positions[3 * k] = 2.0f * i / (gridSize - 1) - 1.0f;
+                positions[3 * k + 1] = 2.0f * j / (gridSize - 1) - 1.0f;
+                positions[3 * k + 2] = random.nextFloat() * 0.02f;
+                texCoords[2 * k] = (float)i / (gridSize - 1);
+                texCoords[2 * k + 1] = (float)j / (gridSize - 1);
+                normals[3 * k] = random.nextFloat() * 0.2f - 0.1f;
+                normals[3 * k + 1] = random.nextFloat() * 0.2f - 0.1f;
+                normals[3 * k + 2] = 1.0f;
+            }
+        }
+
+        int[] indices = new int[(gridSize - 1) * (gridSize - 1) * 6];
+        int written = 0;
+        for (int i = 0; i < gridSize - 1; i++)
+        {
+            for (int j = 0; j < gridSize - 1; j++)
+            {
+                int v00 = i * gridSize + j;
+                int v01 = v00 + 1;
+                int v10 = v00 + gridSize;
+                int v11 = v10 + 1;
+
+                indices[written++] = v00;
+                indices[written++] = v10;
+                indices[written++] = v11;
+                indices[written++] = v00;
+                indices[written++] = v11;
+                indices[written++] = v01;
+            }
+        }
+
+        float[] textureData = new float[512 * 512 * 4];
+        for (int i = 0; i < textureData.length; i++)
+        {
+            textureData[i] = random.nextFloat();
+        }
+
+        Texture2D<CpuContext> texture = context.getTextureFactory()
+            .build2DColorTextureFromBuffer(512, 512, NativeVectorBufferFactory.getInstance().createFromFloatArray(4, 512 * 512, textureData))
+            .setInternalFormat(ColorFormat.RGBA8)
+            .setLinearFilteringEnabled(true)
+            .createTexture();
+
+        CpuProgram program = context.createProgram(new TexturedShader());
+        program.setUniform("model_view_projection",
+            Matrix4.perspective((float)Math.PI / 3, 1.0f, 0.1f, 10.0f).times(Matrix4.lookAt(0.0f, -1.5f, 1.2f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f)));
+        program.setTexture("diffuseMap", texture);
+
+        drawable = context.createDrawable(program);
+        drawable.addVertexBuffer(0, context.createVertexBuffer()
+            .setData(NativeVectorBufferFactory.getInstance().createFromFloatArray(3, gridSize * gridSize, positions)));
+        drawable.addVertexBuffer(1, context.createVertexBuffer()
+            .setData(NativeVectorBufferFactory.getInstance().createFromFloatArray(2, gridSize * gridSize, texCoords)));
+        drawable.addVertexBuffer(2, context.createVertexBuffer()
+            .setData(NativeVectorBufferFactory.getInstance().createFromFloatArray(3, gridSize * gridSize, normals)));
+        drawable.setIndexBuffer(context.createIndexBuffer().setData(indices));
+
+        context.getState().enableDepthTest();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext()
+    {
+        framebuffer.close();
+        context.close();
+    }
+
+    @Benchmark
+    public FramebufferObject<CpuContext> draw()
+    {
+        framebuffer.clearColorBuffer(0, 0.0f, 0.0f, 0.0f, 0.0f);
+        framebuffer.clearColorBuffer(1, 0.0f, 0.0f, 0.0f, 0.0f);
+        framebuffer.clearDepthBuffer();
+        drawable.draw(PrimitiveMode.TRIANGLES, framebuffer);
+        return framebuffer;
+    }
+}
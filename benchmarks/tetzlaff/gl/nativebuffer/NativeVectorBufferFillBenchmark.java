@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.nativebuffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares filling a native vector buffer through the boxed set(int, int, Number) accessor
+ * against the primitive accessors and the bulk transfer operations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NativeVectorBufferFillBenchmark
+{
+    private static final int DIMENSIONS = 4;
+
+    @Param({ "10000000" })
+    public int elementCount;
+
+    @Param({ "FLOAT", "INT" })
+    public NativeDataType dataType;
+
+    private NativeVectorBuffer buffer;
+    private float[] values;
+
+    @Setup(Level.Trial)
+    public void allocate()
+    {
+        buffer = NativeVectorBufferFactory.getInstance().createEmpty(dataType, DIMENSIONS, elementCount / DIMENSIONS);
+        values = new float[elementCount];
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = i * 0.25f;
+        }
+    }
+
+    @Benchmark
+    public NativeVectorBuffer boxed()
+    {
+        int count = buffer.getCount();
+        for (int i = 0; i < count; i++)
+        {
+            for (int d = 0; d < DIMENSIONS; d++)
+            {
+                buffer.set(i, d, values[i * DIMENSIONS + d]);
+            }
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public NativeVectorBuffer primitive()
+    {
+        int count = buffer.getCount();
+        for (int i = 0; i < count; i++)
+        {
+            for (int d = 0; d < DIMENSIONS; d++)
+            {
+                buffer.setFloat(i, d, values[i * DIMENSIONS + d]);
+            }
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public NativeVectorBuffer rows()
+    {
+        int count = buffer.getCount();
+        for (int i = 0; i < count; i++)
+        {
+            buffer.putRow(i, values, i * DIMENSIONS);
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public NativeVectorBuffer bulk()
+    {
+        buffer.put(0, values, 0, values.length);
+        return buffer;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.util;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the streaming OBJ parser against the original Scanner-based parser and the binary mesh cache on a generated mesh.
+ * The mesh is a randomly displaced grid with positions, texture coordinates and normals, written the way typical exporters write them.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx16g" })
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class OBJParsingBenchmark
+{
+    @Param({ "2000000" })
+    public int faceCount;
+
+    private File objFile;
+
+    @Setup(Level.Trial)
+    public void generateMesh() throws IOException
+    {
+        objFile = File.createTempFile("benchmark", ".obj");
+        objFile.deleteOnExit();
+
+        int gridSize = (int)Math.ceil(Math.sqrt(faceCount / 2.0)) + 1;
+        Random random = new Random(0);
+
+        try(PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(objFile), 1 << 20)))
+        {
+            for (int i = 0; i < gridSize; i++)
+            {
+                for (int j = 0; j < gridSize; j++)
+                {
+                    out.printf("v %.6f %.6f %.6f\n", (float)i / gridSize, (float)j / gridSize, random.nextFloat() * 0.01f);
+                }
+            }
+
+            for (int i = 0; i < gridSize; i++)
+            {
+                for (int j = 0; j < gridSize; j++)
+                {
+                    out.printf("vt %.6f %.6f\n", (float)i / (gridSize - 1), (float)j / (gridSize - 1));
+                }
+            }
+
+            for (int i = 0; i < gridSize; i++)
+            {
+                for (int j = 0; j < gridSize; j++)
+                {
+                    out.printf("vn %.6f %.6f %.6f\n", random.nextFloat() * 0.1f, random.nextFloat() * 0.1f, 1.0f);
+                }
+            }
+
+            int written = 0;
+            for (int i = 0; i < gridSize - 1 && written < faceCount; i++)
+            {
+                for (int j = 0; j < gridSize - 1 && written < faceCount; j++)
+                {
+                    int v00 = i * gridSize + j + 1;
+                    int v01 = v00 + 1;
+                    int v10 = v00 + gridSize;
+                    int v11 = v10 + 1;
+
+                    out.printf("f %d/%d/%d %d/%d/%d %d/%d/%d\n", v00, v00, v00, v10, v10, v10, v11, v11, v11);
+                    out.printf("f %d/%d/%d %d/%d/%d %d/%d/%d\n", v00, v00, v00, v11, v11, v11, v01, v01, v01);
+                    written += 2;
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteMesh()
+    {
+        objFile.delete();
+        VertexGeometryCache.getCacheFile(objFile).delete();
+    }
+
+    @Benchmark
+    public VertexGeometry scanner() throws FileNotFoundException
+    {
+        return VertexGeometry.createFromOBJFileWithScanner(objFile);
+    }
+
+    @Benchmark
+    public VertexGeometry streaming() throws FileNotFoundException
+    {
+        return VertexGeometry.createFromOBJFile(objFile, false, false);
+    }
+
+    @Benchmark
+    public VertexGeometry streamingIndexed() throws FileNotFoundException
+    {
+        return VertexGeometry.createFromOBJFile(objFile, true, false);
+    }
+
+    @Benchmark
+    public VertexGeometry cached() throws FileNotFoundException
+    {
+        // The first invocation (during warmup) parses the file and writes the cache.
+        return VertexGeometry.createIndexedFromOBJFile(objFile);
+    }
+}
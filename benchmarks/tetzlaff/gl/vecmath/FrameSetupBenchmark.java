@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.vecmath;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Emulates the per-frame matrix work of the renderer: the light and view matrix chains, uploading each matrix as a uniform,
+ * and computing view weights against every camera pose.
+ * Compares the immutable Matrix4 / Vector3 operations against the same work done with MutableMatrix4 / MutableVector3 scratch objects.
+ * Run with "-prof gc" to see the allocation rate per frame (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FrameSetupBenchmark
+{
+    private static final int LIGHT_COUNT = 4;
+
+    @Param({ "256" })
+    public int viewCount;
+
+    private Matrix4[] cameraPoses;
+    private Matrix4[] lightMatrices;
+    private Matrix4 model;
+    private Matrix4 look;
+    private Matrix4 projection;
+    private Vector3 centroid;
+    private float scale;
+
+    private float[] viewWeights;
+
+    // Scratch objects for the mutable variant, allocated once.
+    private final MutableMatrix4 modelView = new MutableMatrix4();
+    private final MutableMatrix4 product = new MutableMatrix4();
+    private final MutableMatrix4 targetInverse = new MutableMatrix4();
+    private final MutableVector3 viewDir = new MutableVector3();
+    private final MutableVector3 targetDir = new MutableVector3();
+    private FloatBuffer uniformBuffer;
+
+    private static Matrix4 randomPose(Random random)
+    {
+        Vector3 axis = new Vector3(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f).normalized();
+        return Matrix4.rotateAxis(axis, random.nextDouble() * 2 * Math.PI)
+            .times(Matrix4.translate(random.nextFloat(), random.nextFloat(), 5.0f + random.nextFloat()));
+    }
+
+    @Setup(Level.Trial)
+    public void generateScene()
+    {
+        Random random = new Random(0);
+
+        cameraPoses = new Matrix4[viewCount];
+        for (int i = 0; i < viewCount; i++)
+        {
+            cameraPoses[i] = randomPose(random);
+        }
+
+        lightMatrices = new Matrix4[LIGHT_COUNT];
+        for (int i = 0; i < LIGHT_COUNT; i++)
+        {
+            lightMatrices[i] = randomPose(random);
+        }
+
+        model = Matrix4.rotateY(0.25).times(Matrix4.translate(0.1f, 0.2f, 0.3f));
+        look = randomPose(random);
+        projection = Matrix4.perspective((float)Math.PI / 4, 1.5f, 0.1f, 100.0f);
+        centroid = new Vector3(0.1f, 0.2f, 0.3f);
+        scale = 2.5f;
+
+        viewWeights = new float[viewCount];
+        uniformBuffer = BufferUtils.createFloatBuffer(16);
+    }
+
+    private void upload(Matrix4 matrix)
+    {
+        // What OpenGLProgram.setUniform(int, Matrix4) does.
+        uniformBuffer.clear();
+        matrix.writeColumnMajor(uniformBuffer);
+        uniformBuffer.flip();
+    }
+
+    private void upload(MutableMatrix4 matrix)
+    {
+        uniformBuffer.clear();
+        matrix.writeColumnMajor(uniformBuffer);
+        uniformBuffer.flip();
+    }
+
+    @Benchmark
+    public float immutable()
+    {
+        Matrix4 view = Matrix4.scale(scale)
+            .times(look)
+            .times(Matrix4.scale(1.0f / scale))
+            .times(Matrix4.translate(centroid.negated()));
+
+        Matrix4 modelViewMatrix = view.times(model);
+        upload(modelViewMatrix);
+        upload(projection.times(modelViewMatrix));
+
+        for (Matrix4 lightMatrix : lightMatrices)
+        {
+            Matrix4 light = Matrix4.scale(scale)
+                .times(lightMatrix)
+                .times(model)
+                .times(Matrix4.scale(1.0f / scale))
+                .times(Matrix4.translate(centroid.negated()));
+            upload(light);
+            upload(projection.times(light));
+        }
+
+        float viewWeightSum = 0.0f;
+        for (int i = 0; i < viewCount; i++)
+        {
+            Vector3 viewDirection = cameraPoses[i].times(centroid.asPosition())
+                .getXYZ().negated().normalized();
+
+            Vector3 targetDirection = cameraPoses[i].times(
+                    modelViewMatrix.quickInverse(0.01f).getColumn(3).minus(centroid.asPosition()))
+                .getXYZ().normalized();
+
+            viewWeights[i] = 1.0f / (float)Math.max(0.000001, 1.0 - targetDirection.dot(viewDirection)) - 1.0f;
+            viewWeightSum += viewWeights[i];
+        }
+
+        return viewWeightSum;
+    }
+
+    @Benchmark
+    public float mutable()
+    {
+        Matrix4 preScale = Matrix4.scale(scale);
+        Matrix4 postScale = Matrix4.scale(1.0f / scale);
+        Matrix4 centroidTranslation = Matrix4.translate(-centroid.x, -centroid.y, -centroid.z);
+
+        preScale.mulInto(look, modelView)
+            .mul(postScale)
+            .mul(centroidTranslation)
+            .mul(model);
+        upload(modelView);
+        projection.mulInto(modelView, product);
+        upload(product);
+
+        for (Matrix4 lightMatrix : lightMatrices)
+        {
+            preScale.mulInto(lightMatrix, product)
+                .mul(model)
+                .mul(postScale)
+                .mul(centroidTranslation);
+            upload(product);
+            projection.mulInto(product, product);
+            upload(product);
+        }
+
+        modelView.invertAffineInto(targetInverse);
+        float targetX = targetInverse.get(0, 3) - centroid.x;
+        float targetY = targetInverse.get(1, 3) - centroid.y;
+        float targetZ = targetInverse.get(2, 3) - centroid.z;
+
+        float viewWeightSum = 0.0f;
+        for (int i = 0; i < viewCount; i++)
+        {
+            cameraPoses[i].transformPointInto(centroid.x, centroid.y, centroid.z, viewDir).negate().normalize();
+            cameraPoses[i].transformDirectionInto(targetX, targetY, targetZ, targetDir).normalize();
+
+            viewWeights[i] = 1.0f / (float)Math.max(0.000001, 1.0 - targetDir.dot(viewDir)) - 1.0f;
+            viewWeightSum += viewWeights[i];
+        }
+
+        return viewWeightSum;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.vecmath;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks individual Matrix4 and Vector3 operations, immutable and in-place, on a batch of random rigid transformations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class VectorArithmeticBenchmark
+{
+    private static final int COUNT = 1024;
+
+    private Matrix4[] matrices;
+    private Vector3[] vectors;
+
+    private final MutableMatrix4 scratchMatrix = new MutableMatrix4();
+    private final MutableVector3 scratchVector = new MutableVector3();
+
+    @Setup(Level.Trial)
+    public void generateOperands()
+    {
+        Random random = new Random(0);
+
+        matrices = new Matrix4[COUNT];
+        vectors = new Vector3[COUNT];
+
+        for (int i = 0; i < COUNT; i++)
+        {
+            Vector3 axis = new Vector3(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f).normalized();
+            matrices[i] = Matrix4.rotateAxis(axis, random.nextDouble() * 2 * Math.PI)
+                .times(Matrix4.translate(random.nextFloat(), random.nextFloat(), random.nextFloat()));
+            vectors[i] = new Vector3(random.nextFloat(), random.nextFloat(), random.nextFloat());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void matrixTimesMatrix(Blackhole blackhole)
+    {
+        for (int i = 0; i < COUNT; i++)
+        {
+            blackhole.consume(matrices[i].times(matrices[(i + 1) % COUNT]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void matrixMulInto(Blackhole blackhole)
+    {
+        for (int i = 0; i < COUNT; i++)
+        {
+            blackhole.consume(matrices[i].mulInto(matrices[(i + 1) % COUNT], scratchMatrix).get(0, 0));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void matrixTimesVector(Blackhole blackhole)
+    {
+        for (int i = 0; i < COUNT; i++)
+        {
+            blackhole.consume(matrices[i].times(vectors[i].asPosition()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void transformPointInto(Blackhole blackhole)
+    {
+        for (int i = 0; i < COUNT; i++)
+        {
+            Vector3 v = vectors[i];
+            blackhole.consume(matrices[i].transformPointInto(v.x, v.y, v.z, scratchVector).x);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void quickInverse(Blackhole blackhole)
+    {
+        for (int i = 0; i < COUNT; i++)
+        {
+            blackhole.consume(matrices[i].quickInverse(0.01f));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void invertAffineInto(Blackhole blackhole)
+    {
+        for (int i = 0; i < COUNT; i++)
+        {
+            blackhole.consume(matrices[i].invertAffineInto(scratchMatrix).get(0, 0));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void vectorCrossNormalized(Blackhole blackhole)
+    {
+        for (int i = 0; i < COUNT; i++)
+        {
+            blackhole.consume(vectors[i].cross(vectors[(i + 1) % COUNT]).normalized());
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.core;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the ByteTokenizer-based VSET parser against the original Scanner-based parser and the binary companion file,
+ * and measures the Agisoft PhotoScan XML parser, on generated view sets with many cameras.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class ViewSetLoadingBenchmark
+{
+    private static final int SENSOR_COUNT = 4;
+    private static final int LIGHT_COUNT = 8;
+
+    @Param({ "20000" })
+    public int cameraCount;
+
+    private File vsetFile;
+    private File xmlFile;
+
+    @Setup(Level.Trial)
+    public void generateViewSets() throws IOException
+    {
+        vsetFile = File.createTempFile("benchmark", ".vset");
+        vsetFile.deleteOnExit();
+        writeVSETFile(vsetFile, cameraCount);
+
+        xmlFile = File.createTempFile("benchmark", ".xml");
+        xmlFile.deleteOnExit();
+        writeAgisoftXMLFile(xmlFile, cameraCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteViewSets()
+    {
+        vsetFile.delete();
+        ViewSetBinaryFile.getBinaryFile(vsetFile).delete();
+        xmlFile.delete();
+    }
+
+    /**
+     * Writes a VSET file with cameras on a randomly perturbed sphere around the origin.
+     * Half of the poses are written as quaternions and half as matrices, and the same number of views as poses refer to them.
+     */
+    static void writeVSETFile(File file, int cameraCount) throws IOException
+    {
+        Random random = new Random(0);
+
+        try(PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20)))
+        {
+            out.print("# Generated view set\n");
+            out.print("c 0.100000 100.000000\n");
+            out.print("m manifold.obj\n");
+            out.print("i images\n");
+            out.print("g 2.200000\n");
+
+            out.print("\n# Luminance encoding\n");
+            for (int i = 0; i < 6; i++)
+            {
+                out.printf("e %.6f %d\n", Math.pow(i / 5.0, 2.2), i * 51);
+            }
+
+            out.print("\n# Camera projections\n");
+            for (int i = 0; i < SENSOR_COUNT; i++)
+            {
+                out.printf("D 0 0 %.6f %.6f %.6f %.6e %.6e %.6e\n", 1.5f, 50.0f + i, 36.0f,
+                    random.nextFloat() * 0.01f, random.nextFloat() * 0.001f, random.nextFloat() * 0.0001f);
+            }
+
+            out.print("\n# Camera poses\n");
+            for (int i = 0; i < cameraCount; i++)
+            {
+                float theta = (float)(random.nextFloat() * 2 * Math.PI);
+                float phi = (float)(random.nextFloat() * Math.PI);
+                float x = (float)(10 * Math.sin(phi) * Math.cos(theta));
+                float y = (float)(10 * Math.cos(phi));
+                float z = (float)(10 * Math.sin(phi) * Math.sin(theta));
+
+                float qx = random.nextFloat() - 0.5f;
+                float qy = random.nextFloat() - 0.5f;
+                float qz = random.nextFloat() - 0.5f;
+                float qw = random.nextFloat() - 0.5f;
+                float length = (float)Math.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+
+                if (i % 2 == 0)
+                {
+                    out.printf("p %.8f %.8f %.8f %.8f %.8f %.8f %.8f\n", x, y, z, qx / length, qy / length, qz / length, qw / length);
+                }
+                else
+                {
+                    out.print("P");
+                    Matrix4Rows rows = new Matrix4Rows(qx / length, qy / length, qz / length, qw / length, x, y, z);
+                    for (float value : rows.values)
+                    {
+                        out.printf(" %.8f", value);
+                    }
+                    out.print('\n');
+                }
+            }
+
+            out.print("\n# Lights\n");
+            for (int i = 0; i < LIGHT_COUNT; i++)
+            {
+                out.printf("l %.6f %.6f %.6f %.6f %.6f %.6f\n", 0.0f, 0.0f, 0.0f, 1.0f + i, 1.0f + i, 1.0f + i);
+            }
+
+            out.print("\n# Views\n");
+            for (int i = 0; i < cameraCount; i++)
+            {
+                out.printf("v %d %d %d IMG_%05d.png\n", i, i % SENSOR_COUNT, i % LIGHT_COUNT, i);
+            }
+        }
+    }
+
+    /**
+     * Writes an Agisoft PhotoScan XML camera file in the 1.4 format with one camera transform per image.
+     */
+    static void writeAgisoftXMLFile(File file, int cameraCount) throws IOException
+    {
+        Random random = new Random(1);
+
+        try(PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20)))
+        {
+            out.print("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.print("<document version=\"1.4.0\">\n");
+            out.print("  <chunk label=\"Chunk 1\" enabled=\"true\">\n");
+
+            out.print("    <sensors next_id=\"" + SENSOR_COUNT + "\">\n");
+            for (int i = 0; i < SENSOR_COUNT; i++)
+            {
+                out.printf("      <sensor id=\"%d\" label=\"sensor %d\" type=\"frame\">\n", i, i);
+                out.print("        <resolution width=\"6000\" height=\"4000\"/>\n");
+                out.print("        <property name=\"pixel_width\" value=\"0.006\"/>\n");
+                out.print("        <property name=\"pixel_height\" value=\"0.006\"/>\n");
+                out.print("        <calibration type=\"frame\" class=\"adjusted\">\n");
+                out.print("          <resolution width=\"6000\" height=\"4000\"/>\n");
+                out.printf("          <f>%.6f</f>\n", 8000.0f + 100 * i);
+                out.printf("          <cx>%.6f</cx>\n", random.nextFloat() * 10);
+                out.printf("          <cy>%.6f</cy>\n", random.nextFloat() * 10);
+                out.printf("          <k1>%.6e</k1>\n", random.nextFloat() * 0.01f);
+                out.printf("          <k2>%.6e</k2>\n", random.nextFloat() * 0.001f);
+                out.printf("          <p1>%.6e</p1>\n", random.nextFloat() * 0.0001f);
+                out.print("        </calibration>\n");
+                out.print("      </sensor>\n");
+            }
+            out.print("    </sensors>\n");
+
+            out.print("    <cameras next_id=\"" + cameraCount + "\" next_group_id=\"0\">\n");
+            for (int i = 0; i < cameraCount; i++)
+            {
+                float theta = (float)(random.nextFloat() * 2 * Math.PI);
+                float phi = (float)(random.nextFloat() * Math.PI);
+                float qx = random.nextFloat() - 0.5f;
+                float qy = random.nextFloat() - 0.5f;
+                float qz = random.nextFloat() - 0.5f;
+                float qw = random.nextFloat() - 0.5f;
+                float length = (float)Math.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+
+                Matrix4Rows rows = new Matrix4Rows(qx / length, qy / length, qz / length, qw / length,
+                    (float)(10 * Math.sin(phi) * Math.cos(theta)), (float)(10 * Math.cos(phi)), (float)(10 * Math.sin(phi) * Math.sin(theta)));
+
+                out.printf("      <camera id=\"%d\" sensor_id=\"%d\" label=\"IMG_%05d\">\n", i, i % SENSOR_COUNT, i);
+                out.print("        <transform>");
+                for (int k = 0; k < 16; k++)
+                {
+                    out.printf(k == 0 ? "%.8e" : " %.8e", rows.values[k]);
+                }
+                out.print("</transform>\n");
+                out.print("        <orientation>1</orientation>\n");
+                out.print("      </camera>\n");
+            }
+            out.print("    </cameras>\n");
+
+            out.print("    <transform>\n");
+            out.print("      <rotation>1 0 0 0 1 0 0 0 1</rotation>\n");
+            out.print("      <translation>0.5 -0.25 0.125</translation>\n");
+            out.print("      <scale>2</scale>\n");
+            out.print("    </transform>\n");
+            out.print("  </chunk>\n");
+            out.print("</document>\n");
+        }
+    }
+
+    /**
+     * The row-major elements of a rigid transformation given by a unit quaternion and a translation.
+     */
+    private static class Matrix4Rows
+    {
+        final float[] values = new float[16];
+
+        Matrix4Rows(float x, float y, float z, float w, float tx, float ty, float tz)
+        {
+            float[] r =
+            {
+                1 - 2 * (y * y + z * z), 2 * (x * y - z * w), 2 * (x * z + y * w),
+                2 * (x * y + z * w), 1 - 2 * (x * x + z * z), 2 * (y * z - x * w),
+                2 * (x * z - y * w), 2 * (y * z + x * w), 1 - 2 * (x * x + y * y)
+            };
+
+            for (int row = 0; row < 3; row++)
+            {
+                for (int col = 0; col < 3; col++)
+                {
+                    values[row * 4 + col] = r[row * 3 + col];
+                }
+            }
+
+            values[3] = tx;
+            values[7] = ty;
+            values[11] = tz;
+            values[15] = 1.0f;
+        }
+    }
+
+    @Benchmark
+    public ViewSet scanner() throws FileNotFoundException
+    {
+        return ViewSet.loadFromVSETFileWithScanner(vsetFile);
+    }
+
+    @Benchmark
+    public ViewSet tokenizer() throws FileNotFoundException
+    {
+        return ViewSet.loadFromVSETFile(vsetFile, false);
+    }
+
+    @Benchmark
+    public ViewSet binary() throws FileNotFoundException
+    {
+        // The first invocation (during warmup) parses the file and writes the binary companion.
+        return ViewSet.loadFromVSETFile(vsetFile, true);
+    }
+
+    @Benchmark
+    public ViewSet agisoftXML() throws FileNotFoundException, XMLStreamException
+    {
+        return ViewSet.loadFromAgisoftXMLFile(xmlFile);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.export.nam2018;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import tetzlaff.gl.vecmath.DoubleVector3;
+
+/**
+ * Compares k-means|| seeding of the weight clusters against the serial k-means++ seeding previously used by Nam2018Request,
+ * and measures how it scales with the number of threads.
+ * The colors are drawn from a mixture of noisy clusters, with some texels left invalid as they would be outside of the texture atlas.
+ * The parallel seeding is submitted to a ForkJoinPool of the requested size so that its parallel streams run on that pool.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class KMeansClusteringBenchmark
+{
+    private static final int CLUSTER_COUNT = Nam2018Request.BASIS_COUNT;
+
+    @Param({ "2048" })
+    public int textureSize;
+
+    @Param({ "1", "2", "4", "8", "16", "32" })
+    public int threads;
+
+    private float[] averages;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void generateColors()
+    {
+        averages = generateColors(textureSize, 0);
+        pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Generates the colors of a texture with a few distinct materials.
+     */
+    static float[] generateColors(int textureSize, long seed)
+    {
+        Random random = new Random(seed);
+
+        int materialCount = 2 * CLUSTER_COUNT;
+        float[][] materials = new float[materialCount][3];
+        for (float[] material : materials)
+        {
+            for (int c = 0; c < 3; c++)
+            {
+                material[c] = random.nextFloat();
+            }
+        }
+
+        float[] averages = new float[4 * textureSize * textureSize];
+        for (int p = 0; p < textureSize * textureSize; p++)
+        {
+            if (random.nextInt(5) != 0) // About a fifth of texels are invalid
+            {
+                float[] material = materials[random.nextInt(materialCount)];
+                for (int c = 0; c < 3; c++)
+                {
+                    averages[4 * p + c] = material[c] + 0.05f * (float) random.nextGaussian();
+                }
+                averages[4 * p + 3] = 1.0f;
+            }
+        }
+
+        return averages;
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdownPool()
+    {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public double[] kMeansParallel() throws ExecutionException, InterruptedException
+    {
+        return pool.submit(() -> new KMeansClustering(averages).initializeCenters(CLUSTER_COUNT, new SplittableRandom(0))).get();
+    }
+
+    @Benchmark
+    public DoubleVector3[] kMeansPlusPlus()
+    {
+        return seedSerially(averages, textureSize * textureSize, new Random(0));
+    }
+
+    /**
+     * The k-means++ seeding previously used by Nam2018Request (with a seeded Random in place of SecureRandom).
+     */
+    static DoubleVector3[] seedSerially(float[] averages, int texelCount, Random random)
+    {
+        int firstCenterIndex;
+
+        do
+        {
+            firstCenterIndex = random.nextInt(texelCount);
+        }
+        while(averages[4 * firstCenterIndex + 3] < 1.0);
+
+        DoubleVector3[] centers = new DoubleVector3[CLUSTER_COUNT];
+        centers[0] = new DoubleVector3(averages[4 * firstCenterIndex], averages[4 * firstCenterIndex + 1], averages[4 * firstCenterIndex + 2]);
+
+        double[] cdf = new double[texelCount + 1];
+
+        for (int b = 1; b < CLUSTER_COUNT; b++)
+        {
+            cdf[0] = 0.0;
+
+            for (int p = 0; p < texelCount; p++)
+            {
+                if (averages[4 * p + 3] > 0.0)
+                {
+                    double minDistance = Double.MAX_VALUE;
+
+                    for (int b2 = 0; b2 < b; b2++)
+                    {
+                        minDistance = Math.min(minDistance, centers[b2].distance(new DoubleVector3(averages[4 * p], averages[4 * p + 1], averages[4 * p + 2])));
+                    }
+
+                    cdf[p + 1] = cdf[p] + minDistance * minDistance;
+                }
+            }
+
+            double x = random.nextDouble() * cdf[texelCount - 1];
+
+            //noinspection FloatingPointEquality
+            if (x >= cdf[texelCount - 1])
+            {
+                x = 0.0;
+            }
+
+            int index = Arrays.binarySearch(cdf, x);
+
+            if (index < 0)
+            {
+                index = -index - 2;
+            }
+
+            while (index < 0 || averages[4 * index + 3] == 0.0)
+            {
+                index++;
+            }
+
+            centers[b] = new DoubleVector3(averages[4 * index], averages[4 * index + 1], averages[4 * index + 2]);
+        }
+
+        return centers;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.export.nam2018;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.*;
+import tetzlaff.util.NonNegativeLeastSquaresBatch;
+
+/**
+ * Benchmarks building the reflectance matrix contribution of a single view, as done for each view by Nam2018Request.
+ * The samples are random but laid out the same way as the texture readback: four floats per texel for color and visibility,
+ * and four for the halfway angle and geometric factors.
+ * At 4096x4096 the weight solutions are kept in a memory-mapped file, as Nam2018Request does for large textures.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ReflectanceMatrixBuilderBenchmark
+{
+    private static final int BRDF_MATRIX_SIZE = Nam2018Request.BASIS_COUNT * (Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION + 1);
+
+    @Param({ "512", "4096" })
+    public int textureSize;
+
+    private float[] colorAndVisibility;
+    private float[] halfwayAndGeom;
+    private NonNegativeLeastSquaresBatch weightSystems;
+    private File weightFile;
+
+    @Setup(Level.Trial)
+    public void generateSamples() throws IOException
+    {
+        Random random = new Random(0);
+        int texelCount = textureSize * textureSize;
+
+        colorAndVisibility = new float[4 * texelCount];
+        halfwayAndGeom = new float[4 * texelCount];
+
+        if (NonNegativeLeastSquaresBatch.getByteCount(texelCount, Nam2018Request.BASIS_COUNT, 1) > Runtime.getRuntime().maxMemory() / 4)
+        {
+            weightFile = File.createTempFile("benchmark", ".bin");
+            weightFile.deleteOnExit();
+            weightSystems = NonNegativeLeastSquaresBatch.createMemoryMapped(texelCount, Nam2018Request.BASIS_COUNT, 1, weightFile);
+        }
+        else
+        {
+            weightSystems = NonNegativeLeastSquaresBatch.createOnHeap(texelCount, Nam2018Request.BASIS_COUNT, 1);
+        }
+        double[] weights = new double[Nam2018Request.BASIS_COUNT];
+
+        for (int p = 0; p < texelCount; p++)
+        {
+            colorAndVisibility[4 * p] = random.nextFloat();
+            colorAndVisibility[4 * p + 1] = random.nextFloat();
+            colorAndVisibility[4 * p + 2] = random.nextFloat();
+            colorAndVisibility[4 * p + 3] = random.nextInt(4) == 0 ? 0.0f : 1.0f; // About a quarter of texels aren't visible
+
+            halfwayAndGeom[4 * p] = random.nextFloat() * 1.1f; // Some samples go past the end of the microfacet distribution
+            halfwayAndGeom[4 * p + 1] = random.nextFloat();
+            halfwayAndGeom[4 * p + 2] = random.nextFloat();
+
+            double weightSum = 0.0;
+            for (int b = 0; b < Nam2018Request.BASIS_COUNT; b++)
+            {
+                double weight = random.nextDouble();
+                weights[b] = weight;
+                weightSum += weight;
+            }
+
+            for (int b = 0; b < Nam2018Request.BASIS_COUNT; b++)
+            {
+                weightSystems.setSolutionElement(p, b, weights[b] / weightSum);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteWeights()
+    {
+        weightSystems = null;
+
+        if (weightFile != null)
+        {
+            weightFile.delete();
+        }
+    }
+
+    @Benchmark
+    public SimpleMatrix execute()
+    {
+        // Nam2018Request allocates the contribution matrices for each view as well.
+        SimpleMatrix contributionATA = new SimpleMatrix(BRDF_MATRIX_SIZE, BRDF_MATRIX_SIZE, DMatrixRMaj.class);
+        SimpleMatrix contributionATyRed = new SimpleMatrix(BRDF_MATRIX_SIZE, 1, DMatrixRMaj.class);
+        SimpleMatrix contributionATyGreen = new SimpleMatrix(BRDF_MATRIX_SIZE, 1, DMatrixRMaj.class);
+        SimpleMatrix contributionATyBlue = new SimpleMatrix(BRDF_MATRIX_SIZE, 1, DMatrixRMaj.class);
+
+        new ReflectanceMatrixBuilder(colorAndVisibility, halfwayAndGeom, weightSystems, contributionATA,
+            contributionATyRed, contributionATyGreen, contributionATyBlue, 0.0).execute();
+
+        return contributionATA;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.export.nam2018;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.*;
+import tetzlaff.gl.vecmath.DoubleVector3;
+import tetzlaff.util.NonNegativeLeastSquaresBatch;
+
+import static java.lang.Math.PI;
+
+/**
+ * Benchmarks adding a single view to the per-texel weight systems, as done for each view by Nam2018Request.buildWeightMatrices().
+ * A full iteration of the weight fitting adds every view, so the time per iteration is roughly the time per view times the number of views.
+ * Compares WeightMatrixBuilder against the previous implementation, which evaluated the basis BRDFs with DoubleVector3.
+ * At 4096x4096 the weight systems are kept in a memory-mapped file, as Nam2018Request does for large textures.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class WeightMatrixBuilderBenchmark
+{
+    @Param({ "1024", "4096" })
+    public int textureSize;
+
+    private final DoubleVector3[] diffuseAlbedos = new DoubleVector3[Nam2018Request.BASIS_COUNT];
+    private final SimpleMatrix specularRed =
+        new SimpleMatrix(Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION + 1, Nam2018Request.BASIS_COUNT, DMatrixRMaj.class);
+    private final SimpleMatrix specularGreen =
+        new SimpleMatrix(Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION + 1, Nam2018Request.BASIS_COUNT, DMatrixRMaj.class);
+    private final SimpleMatrix specularBlue =
+        new SimpleMatrix(Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION + 1, Nam2018Request.BASIS_COUNT, DMatrixRMaj.class);
+
+    private float[] colorAndVisibility;
+    private float[] halfwayAndGeomAndWeights;
+    private NonNegativeLeastSquaresBatch weightSystems;
+    private boolean[] weightsValidity;
+    private File weightFile;
+
+    @Setup(Level.Trial)
+    public void generateSamples() throws IOException
+    {
+        Random random = new Random(0);
+        int texelCount = textureSize * textureSize;
+
+        for (int b = 0; b < Nam2018Request.BASIS_COUNT; b++)
+        {
+            diffuseAlbedos[b] = new DoubleVector3(random.nextDouble(), random.nextDouble(), random.nextDouble());
+
+            // Specular reflectance decreases with m.
+            for (int m = Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION - 1; m >= 0; m--)
+            {
+                specularRed.set(m, b, specularRed.get(m + 1, b) + random.nextDouble());
+                specularGreen.set(m, b, specularGreen.get(m + 1, b) + random.nextDouble());
+                specularBlue.set(m, b, specularBlue.get(m + 1, b) + random.nextDouble());
+            }
+        }
+
+        colorAndVisibility = new float[4 * texelCount];
+        halfwayAndGeomAndWeights = new float[4 * texelCount];
+
+        for (int p = 0; p < texelCount; p++)
+        {
+            colorAndVisibility[4 * p] = random.nextFloat();
+            colorAndVisibility[4 * p + 1] = random.nextFloat();
+            colorAndVisibility[4 * p + 2] = random.nextFloat();
+            colorAndVisibility[4 * p + 3] = random.nextInt(4) == 0 ? 0.0f : 1.0f; // About a quarter of texels aren't visible
+
+            halfwayAndGeomAndWeights[4 * p] = random.nextFloat() * 1.1f; // Some samples go past the end of the microfacet distribution
+            halfwayAndGeomAndWeights[4 * p + 1] = random.nextFloat();
+            halfwayAndGeomAndWeights[4 * p + 2] = random.nextFloat();
+            halfwayAndGeomAndWeights[4 * p + 3] = random.nextFloat();
+        }
+
+        if (NonNegativeLeastSquaresBatch.getByteCount(texelCount, Nam2018Request.BASIS_COUNT, 1) > Runtime.getRuntime().maxMemory() / 4)
+        {
+            weightFile = File.createTempFile("benchmark", ".bin");
+            weightFile.deleteOnExit();
+            weightSystems = NonNegativeLeastSquaresBatch.createMemoryMapped(texelCount, Nam2018Request.BASIS_COUNT, 1, weightFile);
+        }
+        else
+        {
+            weightSystems = NonNegativeLeastSquaresBatch.createOnHeap(texelCount, Nam2018Request.BASIS_COUNT, 1);
+        }
+
+        weightsValidity = new boolean[texelCount];
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteWeights()
+    {
+        weightSystems = null;
+
+        if (weightFile != null)
+        {
+            weightFile.delete();
+        }
+    }
+
+    @Benchmark
+    public NonNegativeLeastSquaresBatch flat()
+    {
+        new WeightMatrixBuilder(diffuseAlbedos, specularRed, specularGreen, specularBlue, 0.0, weightSystems, weightsValidity)
+            .addView(colorAndVisibility, halfwayAndGeomAndWeights);
+
+        return weightSystems;
+    }
+
+    @Benchmark
+    public NonNegativeLeastSquaresBatch reference()
+    {
+        IntStream.range(0, textureSize * textureSize).parallel().forEach(p ->
+        {
+            if (colorAndVisibility[4 * p + 3] > 0)
+            {
+                weightsValidity[p] = true;
+
+                double nDotLSquared = halfwayAndGeomAndWeights[4 * p + 3] * halfwayAndGeomAndWeights[4 * p + 3];
+                double weightSquared = halfwayAndGeomAndWeights[4 * p + 2] * halfwayAndGeomAndWeights[4 * p + 2];
+                double geomFactor = halfwayAndGeomAndWeights[4 * p + 1];
+                double mExact = halfwayAndGeomAndWeights[4 * p] * Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION;
+                int m1 = (int)Math.floor(mExact);
+                int m2 = m1 + 1;
+                double t = mExact - m1;
+                DoubleVector3 fActual = new DoubleVector3(colorAndVisibility[4 * p], colorAndVisibility[4 * p + 1], colorAndVisibility[4 * p + 2]);
+
+                double[] contributionQTr = new double[Nam2018Request.BASIS_COUNT];
+                double[] contributionQTQ = new double[Nam2018Request.WEIGHT_SYSTEM_SIZE * (Nam2018Request.WEIGHT_SYSTEM_SIZE + 1) / 2];
+
+                for (int b1 = 0; b1 < Nam2018Request.BASIS_COUNT; b1++)
+                {
+                    DoubleVector3 f1 = diffuseAlbedos[b1].dividedBy(PI);
+
+                    if (m1 < Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION)
+                    {
+                        f1 = f1.plus(new DoubleVector3(specularRed.get(m1, b1), specularGreen.get(m1, b1), specularBlue.get(m1, b1))
+                            .times(1.0 - t)
+                            .plus(new DoubleVector3(specularRed.get(m2, b1), specularGreen.get(m2, b1), specularBlue.get(m2, b1))
+                                .times(t))
+                            .times(geomFactor));
+                    }
+
+                    contributionQTr[b1] = weightSquared * nDotLSquared * f1.dot(fActual);
+
+                    for (int b2 = b1; b2 < Nam2018Request.BASIS_COUNT; b2++)
+                    {
+                        DoubleVector3 f2 = diffuseAlbedos[b2].dividedBy(PI);
+
+                        if (m1 < Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION)
+                        {
+                            f2 = f2.plus(new DoubleVector3(specularRed.get(m1, b2), specularGreen.get(m1, b2), specularBlue.get(m1, b2))
+                                .times(1.0 - t)
+                                .plus(new DoubleVector3(specularRed.get(m2, b2), specularGreen.get(m2, b2), specularBlue.get(m2, b2))
+                                    .times(t))
+                                .times(geomFactor));
+                        }
+
+                        contributionQTQ[NonNegativeLeastSquaresBatch.getTriangleIndex(Nam2018Request.WEIGHT_SYSTEM_SIZE, b1, b2)] =
+                            weightSquared * nDotLSquared * f1.dot(f2);
+                    }
+                }
+
+                weightSystems.addToVector(p, contributionQTr);
+                weightSystems.addToMatrix(p, contributionQTQ);
+            }
+        });
+
+        return weightSystems;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.*;
+
+import tetzlaff.gl.vecmath.Matrix4;
+import tetzlaff.gl.vecmath.Vector3;
+import tetzlaff.ibrelight.core.ViewSet;
+
+/**
+ * Benchmarks generating view weights for a single target view against a view set of cameras distributed evenly over a sphere,
+ * generated the same way as MakeViewSet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ViewWeightGeneratorBenchmark
+{
+    @Param({ "256" })
+    public int viewCount;
+
+    private ViewSet viewSet;
+    private Vector3 centroid;
+    private List<Integer> activeViewIndexList;
+    private Matrix4 targetView;
+
+    private final KNNViewWeightGenerator knn = new KNNViewWeightGenerator(4);
+    private final PowerViewWeightGenerator power = new PowerViewWeightGenerator(16.0f);
+
+    @Setup(Level.Trial)
+    public void generateViewSet()
+    {
+        List<Vector3> viewDirections = new ArrayList<>(viewCount);
+
+        double densityFactor = Math.sqrt(Math.PI * viewCount);
+        int sampleRows = (int)Math.ceil(densityFactor / 2) + 1;
+
+        for (int i = 0; i < sampleRows; i++)
+        {
+            double r = Math.sin(0.001 + (Math.PI - 0.002) * (double)i / (double)(sampleRows-1));
+            int sampleColumns = Math.max(1, (int)Math.ceil(densityFactor * r));
+
+            for (int j = 0; j < sampleColumns; j++)
+            {
+                viewDirections.add(new Vector3(
+                    (float)(r * Math.cos(2 * Math.PI * (double)j / (double)sampleColumns)),
+                    (float) Math.cos(Math.PI * (double)i / (double)(sampleRows-1)),
+                    (float)(r * Math.sin(2 * Math.PI * (double)j / (double)sampleColumns))));
+            }
+        }
+
+        viewSet = ViewSet.createFromLookAt(viewDirections, Vector3.ZERO, new Vector3(0.0f, 1.0f, 0.0f), 10.0f,
+            0.1f, 1.5f, 32.0f, 50.0f);
+        centroid = new Vector3(0.1f, 0.2f, 0.3f);
+        activeViewIndexList = IntStream.range(0, viewSet.getCameraPoseCount()).boxed().collect(Collectors.toList());
+        targetView = Matrix4.lookAt(new Vector3(3.0f, 4.0f, 8.0f), Vector3.ZERO, new Vector3(0.0f, 1.0f, 0.0f));
+    }
+
+    @Benchmark
+    public float[] knn()
+    {
+        return knn.generateWeights(viewSet, centroid, activeViewIndexList, targetView);
+    }
+
+    @Benchmark
+    public float[] power()
+    {
+        return power.generateWeights(viewSet, centroid, activeViewIndexList, targetView);
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the benchmarks jar.  Runs JMH (headless, since none of the benchmarks need a GL context) with JSON results,
+ * and optionally compares the results against a baseline from an earlier run, exiting with status 1 if anything regressed.
+ *
+ * Usage:
+ *   java -jar benchmarks.jar [--baseline baseline.json] [--threshold percent] [JMH options...]
+ *   java -jar benchmarks.jar --compare current.json baseline.json [--threshold percent]
+ *
+ * Results are written to benchmark-results.json unless the JMH -rff option is given.
+ * The threshold defaults to 10 percent.  Scores are compared using each benchmark's mode:
+ * higher is better for throughput and lower is better for everything else.
+ */
+public final class BenchmarkRunner
+{
+    private static final String DEFAULT_RESULTS_FILE = "benchmark-results.json";
+    private static final double DEFAULT_THRESHOLD = 10.0;
+
+    private BenchmarkRunner()
+    {
+    }
+
+    private static final class Score
+    {
+        final String mode;
+        final double value;
+        final double error;
+        final String unit;
+
+        Score(String mode, double value, double error, String unit)
+        {
+            this.mode = mode;
+            this.value = value;
+            this.error = error;
+            this.unit = unit;
+        }
+    }
+
+    public static void main(String... args) throws IOException, RunnerException, CommandLineOptionException
+    {
+        File baselineFile = null;
+        File currentFile = null;
+        double threshold = DEFAULT_THRESHOLD;
+        List<String> jmhArgs = new ArrayList<>(args.length);
+
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "--baseline":
+                    baselineFile = new File(args[++i]);
+                    break;
+                case "--threshold":
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                case "--compare":
+                    currentFile = new File(args[++i]);
+                    baselineFile = new File(args[++i]);
+                    break;
+                default:
+                    jmhArgs.add(args[i]);
+                    break;
+            }
+        }
+
+        if (currentFile == null)
+        {
+            System.setProperty("java.awt.headless", "true");
+
+            CommandLineOptions commandLineOptions = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+            if (commandLineOptions.shouldHelp())
+            {
+                commandLineOptions.showHelp();
+                return;
+            }
+
+            OptionsBuilder builder = new OptionsBuilder();
+            builder.parent(commandLineOptions);
+            builder.jvmArgsAppend("-Djava.awt.headless=true");
+            builder.resultFormat(ResultFormatType.JSON);
+
+            String resultsPath = commandLineOptions.getResult().orElse(DEFAULT_RESULTS_FILE);
+            builder.result(resultsPath);
+
+            Options options = builder.build();
+            new Runner(options).run();
+            currentFile = new File(resultsPath);
+        }
+
+        if (baselineFile != null)
+        {
+            int regressionCount = compare(readScores(currentFile), readScores(baselineFile), threshold);
+            if (regressionCount > 0)
+            {
+                System.out.println(regressionCount + " benchmark(s) regressed by more than " + threshold + "%.");
+                System.exit(1);
+            }
+            else
+            {
+                System.out.println("No regressions beyond " + threshold + "%.");
+            }
+        }
+    }
+
+    /**
+     * Prints a comparison of two sets of results and returns the number of regressions beyond the threshold (in percent).
+     */
+    private static int compare(Map<String, Score> current, Map<String, Score> baseline, double threshold)
+    {
+        int regressionCount = 0;
+
+        System.out.println();
+        System.out.printf("%-90s %22s %22s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+
+        for (Map.Entry<String, Score> entry : current.entrySet())
+        {
+            Score now = entry.getValue();
+            Score before = baseline.get(entry.getKey());
+
+            if (before == null || !before.mode.equals(now.mode) || !before.unit.equals(now.unit))
+            {
+                System.out.printf("%-90s %22s %22s %9s%n", entry.getKey(), "-",
+                    String.format("%.3f", now.value), "new");
+                continue;
+            }
+
+            double change = 100.0 * (now.value - before.value) / before.value;
+
+            // For throughput, a lower score is worse; for every other mode (times), a higher score is worse.
+            double worsening = "thrpt".equals(now.mode) ? -change : change;
+
+            String flag;
+            if (worsening > threshold)
+            {
+                flag = "  REGRESSION";
+                regressionCount++;
+            }
+            else if (worsening < -threshold)
+            {
+                flag = "  improved";
+            }
+            else
+            {
+                flag = "";
+            }
+
+            System.out.printf("%-90s %22s %22s %+8.1f%%%s%n", entry.getKey(),
+                String.format("%.3f+-%.3f", before.value, before.error),
+                String.format("%.3f+-%.3f", now.value, now.error),
+                change, flag);
+        }
+
+        for (String key : baseline.keySet())
+        {
+            if (!current.containsKey(key))
+            {
+                System.out.printf("%-90s %22s %22s %9s%n", key, String.format("%.3f", baseline.get(key).value), "-", "missing");
+            }
+        }
+
+        System.out.println();
+        return regressionCount;
+    }
+
+    /**
+     * Reads the primary scores from a JMH JSON results file, keyed by benchmark name, parameters and mode.
+     */
+    private static Map<String, Score> readScores(File resultsFile) throws IOException
+    {
+        Object root = new JSONReader(new String(Files.readAllBytes(resultsFile.toPath()), StandardCharsets.UTF_8)).readValue();
+        Map<String, Score> scores = new LinkedHashMap<>();
+
+        for (Object result : (List<?>) root)
+        {
+            Map<?, ?> resultMap = (Map<?, ?>) result;
+            Map<?, ?> primaryMetric = (Map<?, ?>) resultMap.get("primaryMetric");
+            String mode = (String) resultMap.get("mode");
+
+            StringBuilder key = new StringBuilder((String) resultMap.get("benchmark"));
+            Object params = resultMap.get("params");
+            if (params != null)
+            {
+                new TreeMap<>((Map<?, ?>) params).forEach((name, value) -> key.append(':').append(name).append('=').append(value));
+            }
+            key.append(" (").append(mode).append(')');
+
+            scores.put(key.toString(), new Score(mode, toDouble(primaryMetric.get("score")),
+                toDouble(primaryMetric.get("scoreError")), (String) primaryMetric.get("scoreUnit")));
+        }
+
+        return scores;
+    }
+
+    private static double toDouble(Object value)
+    {
+        // JMH writes "NaN" as a string (for instance, the error of a single measurement).
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Just enough of a JSON parser to read JMH results: objects become maps, arrays become lists, and numbers become doubles.
+     */
+    private static final class JSONReader
+    {
+        private final String text;
+        private int position;
+
+        JSONReader(String text)
+        {
+            this.text = text;
+        }
+
+        Object readValue()
+        {
+            skipWhitespace();
+            char c = text.charAt(position);
+            switch (c)
+            {
+                case '{':
+                    return readObject();
+                case '[':
+                    return readArray();
+                case '"':
+                    return readString();
+                case 't':
+                    return readLiteral("true", Boolean.TRUE);
+                case 'f':
+                    return readLiteral("false", Boolean.FALSE);
+                case 'n':
+                    return readLiteral("null", null);
+                default:
+                    return readNumber();
+            }
+        }
+
+        private Map<String, Object> readObject()
+        {
+            Map<String, Object> map = new LinkedHashMap<>();
+            position++;
+            skipWhitespace();
+            if (text.charAt(position) == '}')
+            {
+                position++;
+                return map;
+            }
+
+            while (true)
+            {
+                skipWhitespace();
+                String name = readString();
+                skipWhitespace();
+                expect(':');
+                map.put(name, readValue());
+                skipWhitespace();
+                if (text.charAt(position) == ',')
+                {
+                    position++;
+                }
+                else
+                {
+                    expect('}');
+                    return map;
+                }
+            }
+        }
+
+        private List<Object> readArray()
+        {
+            List<Object> list = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            if (text.charAt(position) == ']')
+            {
+                position++;
+                return list;
+            }
+
+            while (true)
+            {
+                list.add(readValue());
+                skipWhitespace();
+                if (text.charAt(position) == ',')
+                {
+                    position++;
+                }
+                else
+                {
+                    expect(']');
+                    return list;
+                }
+            }
+        }
+
+        private String readString()
+        {
+            expect('"');
+            StringBuilder builder = new StringBuilder();
+            while (true)
+            {
+                char c = text.charAt(position++);
+                if (c == '"')
+                {
+                    return builder.toString();
+                }
+                else if (c == '\\')
+                {
+                    char escaped = text.charAt(position++);
+                    switch (escaped)
+                    {
+                        case 'n':
+                            builder.append('\n');
+                            break;
+                        case 't':
+                            builder.append('\t');
+                            break;
+                        case 'r':
+                            builder.append('\r');
+                            break;
+                        case 'b':
+                            builder.append('\b');
+                            break;
+                        case 'f':
+                            builder.append('\f');
+                            break;
+                        case 'u':
+                            builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                            position += 4;
+                            break;
+                        default:
+                            builder.append(escaped);
+                            break;
+                    }
+                }
+                else
+                {
+                    builder.append(c);
+                }
+            }
+        }
+
+        private Double readNumber()
+        {
+            int start = position;
+            while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0)
+            {
+                position++;
+            }
+
+            if (start == position)
+            {
+                throw new IllegalStateException("Unexpected character '" + text.charAt(position) + "' at position " + position);
+            }
+
+            return Double.valueOf(text.substring(start, position));
+        }
+
+        private Object readLiteral(String literal, Object value)
+        {
+            if (!text.startsWith(literal, position))
+            {
+                throw new IllegalStateException("Expected " + literal + " at position " + position);
+            }
+            position += literal.length();
+            return value;
+        }
+
+        private void expect(char c)
+        {
+            if (text.charAt(position) != c)
+            {
+                throw new IllegalStateException("Expected '" + c + "' at position " + position);
+            }
+            position++;
+        }
+
+        private void skipWhitespace()
+        {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+            {
+                position++;
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks evaluating a monotone cubic Hermite spline, as used for decoding tonemapped luminance,
+ * at one value per pixel of a 1024x1024 image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CubicHermiteSplineBenchmark
+{
+    private static final int SAMPLE_COUNT = 1024 * 1024;
+
+    @Param({ "8", "256" })
+    public int knotCount;
+
+    private CubicHermiteSpline spline;
+    private double[] samples;
+    private double[] results;
+
+    @Setup(Level.Trial)
+    public void generateSpline()
+    {
+        Random random = new Random(0);
+
+        double[] x = new double[knotCount];
+        double[] y = new double[knotCount];
+        for (int k = 0; k < knotCount; k++)
+        {
+            x[k] = (double)k / (knotCount - 1);
+            y[k] = Math.pow(x[k], 2.2);
+        }
+
+        spline = new CubicHermiteSpline(x, y, true);
+
+        samples = new double[SAMPLE_COUNT];
+        for (int i = 0; i < SAMPLE_COUNT; i++)
+        {
+            samples[i] = random.nextDouble();
+        }
+
+        results = new double[SAMPLE_COUNT];
+    }
+
+    @Benchmark
+    public double[] applyAsDouble()
+    {
+        for (int i = 0; i < SAMPLE_COUNT; i++)
+        {
+            results[i] = spline.applyAsDouble(samples[i]);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package tetzlaff.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import tetzlaff.gl.vecmath.DoubleVector3;
+import tetzlaff.util.RadianceImageLoader.Image;
+
+/**
+ * Compares panorama to cube map conversion (and back) against the original per-texel implementation,
+ * both with the sample tables already built (as when switching between environments of the same resolution) and without.
+ * The cube map side is a quarter of the panorama width, as in EnvironmentMap.createFromHDRFile().
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx24g" })
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class EnvironmentMapConversionBenchmark
+{
+    @Param({ "2048", "8192", "16384" })
+    public int panoramaWidth;
+
+    private Image panorama;
+    private int side;
+    private float[][] cubeMap;
+
+    @Setup(Level.Trial)
+    public void generateEnvironment()
+    {
+        int panoramaHeight = panoramaWidth / 2;
+        float[] data = new float[panoramaWidth * panoramaHeight * 3];
+        Random random = new Random(0);
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = random.nextFloat();
+        }
+
+        panorama = new Image(panoramaWidth, panoramaHeight, data);
+        side = panoramaWidth / 4;
+        cubeMap = new float[6][side * side * 3];
+    }
+
+    @TearDown(Level.Trial)
+    public void clearTables()
+    {
+        EnvironmentMap.clearSampleTables();
+    }
+
+    @Benchmark
+    public float[][] panoramaToCubeMapReference()
+    {
+        DoubleVector3 dir;
+        double[] p = new double[2];
+        for (int i = 0; i < 6; i++)
+        {
+            for (int y = 0; y < side; y++)
+            {
+                for (int x = 0; x < side; x++)
+                {
+                    dir = EnvironmentMap.toVectorFromCubeMap(i, x, y, side);
+                    EnvironmentMap.toPanoramaCoord(dir, panorama.width, panorama.height, p);
+
+                    double ax = p[0] - Math.floor(p[0]);
+                    double ay = p[1] - Math.floor(p[1]);
+                    int x0 = (int) Math.max(0, Math.min(panorama.width - 1, Math.floor(p[0])));
+                    int x1 = (int) Math.max(0, Math.min(panorama.width - 1, Math.floor(p[0] + 1)));
+                    int y0 = (int) Math.max(0, Math.min(panorama.height - 1, Math.floor(p[1])));
+                    int y1 = (int) Math.max(0, Math.min(panorama.height - 1, Math.floor(p[1] + 1)));
+
+                    for (int c = 0; c < 3; c++)
+                    {
+                        cubeMap[i][3 * (y * side + x) + c] = (float) (
+                            (1.0 - ay) * ((1.0 - ax) * panorama.data[3 * (y0 * panorama.width + x0) + c] + ax * panorama.data[3 * (y0 * panorama.width + x1) + c])
+                                + ay * ((1.0 - ax) * panorama.data[3 * (y1 * panorama.width + x0) + c] + ax * panorama.data[3 * (y1 * panorama.width + x1) + c]));
+                    }
+                }
+            }
+        }
+
+        return cubeMap;
+    }
+
+    @Benchmark
+    public float[][] panoramaToCubeMap()
+    {
+        EnvironmentMap.convertPanorama(side, cubeMap, panorama);
+        return cubeMap;
+    }
+
+    @Benchmark
+    public float[][] panoramaToCubeMapWithoutTable()
+    {
+        EnvironmentMap.clearSampleTables();
+        EnvironmentMap.convertPanorama(side, cubeMap, panorama);
+        return cubeMap;
+    }
+
+    @Benchmark
+    public float[] cubeMapToPanoramaReference()
+    {
+        int width = side * 4;
+        int height = side * 2;
+        float[] result = new float[width * height * 3];
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                DoubleVector3 color = EnvironmentMap.sample(cubeMap, side, EnvironmentMap.toVectorFromPanorama(x, y, width, height));
+                result[3 * (y * width + x)] = (float) color.x;
+                result[3 * (y * width + x) + 1] = (float) color.y;
+                result[3 * (y * width + x) + 2] = (float) color.z;
+            }
+        }
+
+        return result;
+    }
+
+    @Benchmark
+    public float[] cubeMapToPanorama()
+    {
+        return EnvironmentMap.toPanorama(cubeMap, side, side * 4, side * 2);
+    }
+
+    @Benchmark
+    public float[] cubeMapToPanoramaWithoutTable()
+    {
+        EnvironmentMap.clearSampleTables();
+        return EnvironmentMap.toPanorama(cubeMap, side, side * 4, side * 2);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ejml.data.FMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the partial SVD of one block of the SVD export: one row per pixel in a 32x32 block, three columns (RGB) per view,
+ * with the same parameters that SVDRequest uses.
+ * The input is a low-rank matrix plus noise, which is roughly what a block of surface reflectance looks like.
+ * The randomized variants find all 16 singular vectors at once with the default oversampling and power iterations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FastPartialSVDBenchmark
+{
+    private static final int PIXEL_COUNT = 32 * 32;
+    private static final int RANK = 24;
+
+    @Param({ "128" })
+    public int viewCount;
+
+    private SimpleMatrix block;
+
+    @Setup(Level.Trial)
+    public void generateBlock()
+    {
+        Random random = new Random(0);
+        int columnCount = 3 * viewCount;
+
+        SimpleMatrix left = new SimpleMatrix(PIXEL_COUNT, RANK, FMatrixRMaj.class);
+        SimpleMatrix right = new SimpleMatrix(RANK, columnCount, FMatrixRMaj.class);
+
+        for (int r = 0; r < RANK; r++)
+        {
+            // Decaying singular values
+            double scale = Math.pow(0.7, r);
+            for (int i = 0; i < PIXEL_COUNT; i++)
+            {
+                left.set(i, r, scale * random.nextGaussian());
+            }
+            for (int j = 0; j < columnCount; j++)
+            {
+                right.set(r, j, random.nextGaussian());
+            }
+        }
+
+        block = left.mult(right);
+        for (int i = 0; i < PIXEL_COUNT; i++)
+        {
+            for (int j = 0; j < columnCount; j++)
+            {
+                block.set(i, j, block.get(i, j) + 0.001 * random.nextGaussian());
+            }
+        }
+    }
+
+    @Benchmark
+    public FastPartialSVD compute()
+    {
+        // FastPartialSVD deflates the matrix it is given, so each invocation needs its own copy (which is cheap by comparison).
+        return FastPartialSVD.compute(block.copy(), 16, 0.05f, 16, 3);
+    }
+
+    @Benchmark
+    public FastPartialSVD computeRandomized()
+    {
+        return FastPartialSVD.computeRandomized(block.copy(), 16);
+    }
+
+    @Benchmark
+    public FastPartialSVD computeRandomizedNonDestructive()
+    {
+        FastPartialSVD svd = FastPartialSVD.computeRandomized(block, 16, FastPartialSVD.DEFAULT_OVERSAMPLING,
+            FastPartialSVD.DEFAULT_POWER_ITERATIONS, 0L, false, false);
+        svd.getError();
+        return svd;
+    }
+
+    @Benchmark
+    public FastPartialSVD computeRandomizedParallel()
+    {
+        return FastPartialSVD.computeRandomized(block.copy(), 16, FastPartialSVD.DEFAULT_OVERSAMPLING,
+            FastPartialSVD.DEFAULT_POWER_ITERATIONS, 0L, true, true);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how NonNegativeLeastSquaresBatch.solve() (the per-texel weight solve in the Nam 2018 fit) scales with the number of threads,
+ * compared to solving each texel in turn.
+ * The batch is submitted to a ForkJoinPool of the requested size so that its parallel stream runs on that pool.
+ *
+ * To measure scaling from 1 to 32 cores, run on a machine with at least 32 cores:
+ *   mvn -P benchmark package
+ *   java -jar target/benchmarks.jar NonNegativeLeastSquaresBatchBenchmark
+ * and compare the batch score for each value of the threads parameter against threads=1 and against the sequential score.
+ * Thread counts above the number of available cores only measure oversubscription;
+ * use "-p threads=1,2,4" (for example) to restrict the run to the cores that are actually available.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class NonNegativeLeastSquaresBatchBenchmark
+{
+    private static final int BASIS_COUNT = 8;
+    private static final int SIZE = BASIS_COUNT + 1;
+    private static final int SAMPLE_COUNT = 16;
+    private static final double TOLERANCE_SCALE = 1.0e-12;
+
+    @Param({ "262144" })
+    public int texelCount;
+
+    @Param({ "1", "2", "4", "8", "16", "32" })
+    public int threads;
+
+    private double[] packedATA;
+    private double[] packedATb;
+    private boolean[] validity;
+    private double[] solutions;
+
+    private NonNegativeLeastSquaresBatch weightSystems;
+
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void generateProblems()
+    {
+        Random random = new Random(0);
+
+        packedATA = new double[texelCount * SIZE * SIZE];
+        packedATb = new double[texelCount * SIZE];
+        validity = new boolean[texelCount];
+        solutions = new double[texelCount * SIZE];
+
+        double[] row = new double[BASIS_COUNT];
+
+        for (int p = 0; p < texelCount; p++)
+        {
+            validity[p] = random.nextInt(8) != 0; // Some texels are never seen
+
+            // Accumulate the normal equations one sample at a time, as Nam2018Request does.
+            for (int k = 0; k < SAMPLE_COUNT; k++)
+            {
+                double observed = 0.0;
+                for (int b = 0; b < BASIS_COUNT; b++)
+                {
+                    row[b] = random.nextDouble();
+                    observed += (b % 3 == 0 ? 0.3 : 0.0) * row[b];
+                }
+                observed += 0.05 * random.nextGaussian();
+
+                for (int b1 = 0; b1 < BASIS_COUNT; b1++)
+                {
+                    packedATb[p * SIZE + b1] += row[b1] * observed;
+                    for (int b2 = 0; b2 < BASIS_COUNT; b2++)
+                    {
+                        packedATA[(p * SIZE + b1) * SIZE + b2] += row[b1] * row[b2];
+                    }
+                }
+            }
+
+            // Sum-to-one constraint
+            for (int b = 0; b < BASIS_COUNT; b++)
+            {
+                packedATA[(p * SIZE + b) * SIZE + BASIS_COUNT] = 1.0;
+                packedATA[(p * SIZE + BASIS_COUNT) * SIZE + b] = 1.0;
+            }
+            packedATb[p * SIZE + BASIS_COUNT] = 1.0;
+        }
+
+        // The same problems, in the packed storage used by Nam2018Request.
+        weightSystems = NonNegativeLeastSquaresBatch.createOnHeap(texelCount, BASIS_COUNT, 1);
+        for (int p = 0; p < texelCount; p++)
+        {
+            for (int i = 0; i < SIZE; i++)
+            {
+                weightSystems.setVectorElement(p, i, packedATb[p * SIZE + i]);
+                for (int j = i; j < SIZE; j++)
+                {
+                    weightSystems.setMatrixElement(p, i, j, packedATA[(p * SIZE + i) * SIZE + j]);
+                }
+            }
+        }
+
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdownPool()
+    {
+        pool.shutdown();
+        weightSystems.close();
+    }
+
+    @Benchmark
+    public NonNegativeLeastSquaresBatch batch() throws ExecutionException, InterruptedException
+    {
+        pool.submit(() -> weightSystems.solve(validity, TOLERANCE_SCALE)).get();
+        return weightSystems;
+    }
+
+    /**
+     * The previous approach: one texel at a time on the calling thread, with the median computed by a stream.
+     * Doesn't depend on the thread count.
+     */
+    @Benchmark
+    public double[] sequential()
+    {
+        NonNegativeLeastSquaresSolver solver = new NonNegativeLeastSquaresSolver(BASIS_COUNT, 1);
+        for (int p = 0; p < texelCount; p++)
+        {
+            if (validity[p])
+            {
+                int start = p * SIZE;
+                double median = IntStream.range(0, SIZE).mapToDouble(i -> packedATb[start + i])
+                    .sorted().skip(SIZE / 2).filter(x -> x > 0).findFirst().orElse(1.0);
+                solver.solve(packedATA, start * SIZE, packedATb, start, median * TOLERANCE_SCALE, solutions, start);
+            }
+        }
+        return solutions;
+    }
+}
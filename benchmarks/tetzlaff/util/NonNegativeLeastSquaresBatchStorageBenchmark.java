@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares ways of storing the per-texel weight fitting systems while accumulating a view's contribution to every texel:
+ * one SimpleMatrix per texel (the original layout), a packed NonNegativeLeastSquaresBatch on the heap, off the heap,
+ * and in a memory-mapped file.  Run with "-prof gc" to compare allocation and GC time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class NonNegativeLeastSquaresBatchStorageBenchmark
+{
+    private static final int BASIS_COUNT = 8;
+    private static final int SIZE = BASIS_COUNT + 1;
+    private static final int TRIANGLE_SIZE = SIZE * (SIZE + 1) / 2;
+
+    @Param({ "1048576" })
+    public int texelCount;
+
+    @Param({ "simpleMatrix", "heap", "offHeap", "mapped" })
+    public String storage;
+
+    private SimpleMatrix[] matrices;
+    private SimpleMatrix[] vectors;
+
+    private NonNegativeLeastSquaresBatch batch;
+    private File mappedFile;
+
+    private int view;
+
+    @Setup(Level.Iteration)
+    public void allocate() throws IOException
+    {
+        view = 0;
+
+        switch (storage)
+        {
+            case "simpleMatrix":
+                matrices = IntStream.range(0, texelCount)
+                    .mapToObj(p -> new SimpleMatrix(SIZE, SIZE, DMatrixRMaj.class))
+                    .toArray(SimpleMatrix[]::new);
+                vectors = IntStream.range(0, texelCount)
+                    .mapToObj(p -> new SimpleMatrix(SIZE, 1, DMatrixRMaj.class))
+                    .toArray(SimpleMatrix[]::new);
+                break;
+            case "heap":
+                batch = NonNegativeLeastSquaresBatch.createOnHeap(texelCount, BASIS_COUNT, 1);
+                break;
+            case "offHeap":
+                batch = NonNegativeLeastSquaresBatch.createOffHeap(texelCount, BASIS_COUNT, 1);
+                break;
+            case "mapped":
+                mappedFile = File.createTempFile("benchmark", ".bin");
+                mappedFile.deleteOnExit();
+                batch = NonNegativeLeastSquaresBatch.createMemoryMapped(texelCount, BASIS_COUNT, 1, mappedFile);
+                break;
+            default:
+                throw new IllegalArgumentException(storage);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void release()
+    {
+        matrices = null;
+        vectors = null;
+        batch = null;
+
+        if (mappedFile != null)
+        {
+            mappedFile.delete();
+            mappedFile = null;
+        }
+    }
+
+    /**
+     * Adds one view's worth of samples to every texel; each invocation is a different view.
+     */
+    @Benchmark
+    public void accumulateView()
+    {
+        int currentView = view++;
+
+        IntStream.range(0, texelCount).parallel().forEach(p ->
+        {
+            // Synthetic basis function values, cheap enough that the storage dominates.
+            double[] f = new double[BASIS_COUNT];
+            for (int b = 0; b < BASIS_COUNT; b++)
+            {
+                f[b] = ((p + 31 * currentView + 7 * b) & 255) / 255.0;
+            }
+
+            double actual = ((p ^ currentView) & 255) / 255.0;
+
+            if (batch == null)
+            {
+                for (int b1 = 0; b1 < BASIS_COUNT; b1++)
+                {
+                    vectors[p].set(b1, vectors[p].get(b1) + f[b1] * actual);
+
+                    for (int b2 = 0; b2 < BASIS_COUNT; b2++)
+                    {
+                        matrices[p].set(b1, b2, matrices[p].get(b1, b2) + f[b1] * f[b2]);
+                    }
+                }
+            }
+            else
+            {
+                double[] contributionVector = new double[BASIS_COUNT];
+                double[] contributionMatrix = new double[TRIANGLE_SIZE];
+
+                for (int b1 = 0; b1 < BASIS_COUNT; b1++)
+                {
+                    contributionVector[b1] = f[b1] * actual;
+
+                    for (int b2 = b1; b2 < BASIS_COUNT; b2++)
+                    {
+                        contributionMatrix[NonNegativeLeastSquaresBatch.getTriangleIndex(SIZE, b1, b2)] = f[b1] * f[b2];
+                    }
+                }
+
+                batch.addToVector(p, contributionVector);
+                batch.addToMatrix(p, contributionMatrix);
+            }
+        });
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.*;
+
+import static org.ejml.dense.row.CommonOps_DDRM.multTransA;
+
+/**
+ * Benchmarks the two shapes of NNLS problem solved when fitting the Nam 2018 model:
+ * a batch of small per-texel basis weight problems with a sum-to-one equality constraint,
+ * and a single large BRDF problem with 8 basis functions and 90 microfacet distribution samples each.
+ * The "UsingLU" variants use the original implementation, which solves every passive subproblem from scratch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class NonNegativeLeastSquaresBenchmark
+{
+    private static final int BASIS_COUNT = 8;
+    private static final int BRDF_MATRIX_SIZE = BASIS_COUNT * 91;
+
+    @Param({ "4096" })
+    public int texelCount;
+
+    private SimpleMatrix[] weightsATA;
+    private SimpleMatrix[] weightsATb;
+
+    private SimpleMatrix brdfATA;
+    private SimpleMatrix brdfATb;
+
+    /**
+     * Generates the premultiplied form of a random problem with a sparse non-negative solution, so that some constraints are active.
+     */
+    private static SimpleMatrix[] generateProblem(Random random, int rowCount, int columnCount)
+    {
+        SimpleMatrix mA = new SimpleMatrix(rowCount, columnCount, DMatrixRMaj.class);
+        for (int i = 0; i < rowCount; i++)
+        {
+            for (int j = 0; j < columnCount; j++)
+            {
+                mA.set(i, j, random.nextDouble());
+            }
+        }
+
+        SimpleMatrix x = new SimpleMatrix(columnCount, 1, DMatrixRMaj.class);
+        for (int j = 0; j < columnCount; j++)
+        {
+            x.set(j, random.nextInt(3) == 0 ? random.nextDouble() : 0.0);
+        }
+
+        SimpleMatrix b = mA.mult(x);
+        for (int i = 0; i < rowCount; i++)
+        {
+            b.set(i, b.get(i) + 0.05 * random.nextGaussian());
+        }
+
+        SimpleMatrix mATA = new SimpleMatrix(columnCount, columnCount, DMatrixRMaj.class);
+        SimpleMatrix vATb = new SimpleMatrix(columnCount, 1, DMatrixRMaj.class);
+        multTransA(mA.getMatrix(), mA.getMatrix(), mATA.getMatrix());
+        multTransA(mA.getMatrix(), b.getMatrix(), vATb.getMatrix());
+        return new SimpleMatrix[] { mATA, vATb };
+    }
+
+    @Setup(Level.Trial)
+    public void generateProblems()
+    {
+        Random random = new Random(0);
+
+        weightsATA = new SimpleMatrix[texelCount];
+        weightsATb = new SimpleMatrix[texelCount];
+
+        for (int p = 0; p < texelCount; p++)
+        {
+            SimpleMatrix[] problem = generateProblem(random, 64, BASIS_COUNT);
+
+            // Augment with the constraint that the weights sum to one, the same way that Nam2018Request does.
+            SimpleMatrix augmentedATA = new SimpleMatrix(BASIS_COUNT + 1, BASIS_COUNT + 1, DMatrixRMaj.class);
+            SimpleMatrix augmentedATb = new SimpleMatrix(BASIS_COUNT + 1, 1, DMatrixRMaj.class);
+            augmentedATA.insertIntoThis(0, 0, problem[0]);
+            augmentedATb.insertIntoThis(0, 0, problem[1]);
+            for (int b = 0; b < BASIS_COUNT; b++)
+            {
+                augmentedATA.set(b, BASIS_COUNT, 1.0);
+                augmentedATA.set(BASIS_COUNT, b, 1.0);
+            }
+            augmentedATb.set(BASIS_COUNT, 1.0);
+
+            weightsATA[p] = augmentedATA;
+            weightsATb[p] = augmentedATb;
+        }
+
+        SimpleMatrix[] brdfProblem = generateProblem(random, 2 * BRDF_MATRIX_SIZE, BRDF_MATRIX_SIZE);
+        brdfATA = brdfProblem[0];
+        brdfATb = brdfProblem[1];
+    }
+
+    @Benchmark
+    public double[][] weights()
+    {
+        NonNegativeLeastSquaresSolver solver = new NonNegativeLeastSquaresSolver(BASIS_COUNT, 1);
+        double[][] solutions = new double[texelCount][BASIS_COUNT + 1];
+        for (int p = 0; p < texelCount; p++)
+        {
+            DMatrixRMaj mATA = weightsATA[p].getMatrix();
+            DMatrixRMaj vATb = weightsATb[p].getMatrix();
+            solver.solve(mATA.data, vATb.data, 1e-12, solutions[p]);
+        }
+        return solutions;
+    }
+
+    @Benchmark
+    public SimpleMatrix[] weightsUsingLU()
+    {
+        SimpleMatrix[] solutions = new SimpleMatrix[texelCount];
+        for (int p = 0; p < texelCount; p++)
+        {
+            solutions[p] = NonNegativeLeastSquares.solvePremultipliedWithEqualityConstraintsUsingLU(weightsATA[p], weightsATb[p], 1e-12, 1);
+        }
+        return solutions;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public SimpleMatrix brdf()
+    {
+        return NonNegativeLeastSquares.solvePremultiplied(brdfATA, brdfATb, 1e-12);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public SimpleMatrix brdfUsingLU()
+    {
+        return NonNegativeLeastSquares.solvePremultipliedWithEqualityConstraintsUsingLU(brdfATA, brdfATb, 1e-12, 0);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package tetzlaff.util;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import tetzlaff.util.RadianceImageLoader.Image;
+
+/**
+ * Measures Radiance (.hdr) decoding from a stream and from a memory-mapped file, as well as run-length encoded writing.
+ * The image is a smooth gradient with noise, which resembles a photographed environment map more closely than pure noise.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = { "-Xmx8g" })
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class RadianceImageBenchmark
+{
+    @Param({ "4096" })
+    public int width;
+
+    private File hdrFile;
+    private Image image;
+
+    @Setup(Level.Trial)
+    public void generateImage() throws IOException
+    {
+        int height = width / 2;
+        float[] data = new float[width * height * 3];
+        Random random = new Random(0);
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                float base = (float)Math.exp(8.0 * y / height - 4.0);
+                int k = (y * width + x) * 3;
+                data[k] = base * (1.0f + 0.1f * random.nextFloat());
+                data[k + 1] = base * (0.8f + 0.1f * random.nextFloat());
+                data[k + 2] = base * (0.6f + 0.1f * random.nextFloat());
+            }
+        }
+
+        hdrFile = File.createTempFile("benchmark", ".hdr");
+        hdrFile.deleteOnExit();
+
+        try(OutputStream out = new FileOutputStream(hdrFile))
+        {
+            new RadianceImageWriter().write(width, height, data, 3, out, true);
+        }
+
+        image = new RadianceImageLoader().read(hdrFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteImage()
+    {
+        hdrFile.delete();
+    }
+
+    @Benchmark
+    public Image readStream() throws IOException
+    {
+        try(BufferedInputStream stream = new BufferedInputStream(new FileInputStream(hdrFile)))
+        {
+            return new RadianceImageLoader().read(stream);
+        }
+    }
+
+    @Benchmark
+    public Image readFile() throws IOException
+    {
+        return new RadianceImageLoader().read(hdrFile);
+    }
+
+    @Benchmark
+    public long write() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.width * image.height * 4);
+        new RadianceImageWriter().write(image, out);
+        return out.size();
+    }
+}
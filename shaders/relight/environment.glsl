@@ -19,6 +19,10 @@
 #define ENVIRONMENT_TEXTURE_ENABLED 0
 #endif
 
+#ifndef PREFILTERED_ENVIRONMENT_ENABLED
+#define PREFILTERED_ENVIRONMENT_ENABLED 0
+#endif
+
 #ifndef SCREEN_SPACE_RAY_TRACING_ENABLED
 #define SCREEN_SPACE_RAY_TRACING_ENABLED SHADOWS_ENABLED
 #endif
@@ -30,6 +34,13 @@ uniform samplerCube environmentMap;
 uniform mat4 envMapMatrix;
 uniform float environmentMipMapLevel;
 uniform int diffuseEnvironmentMipMapLevel;
+
+#if PREFILTERED_ENVIRONMENT_ENABLED
+// Computed on the CPU by EnvironmentMap: the diffuse irradiance divided by pi,
+// and the environment prefiltered with a Phong lobe that covers about the same solid angle as each view.
+uniform samplerCube diffuseEnvironmentMap;
+uniform samplerCube specularEnvironmentMap;
+#endif
 #endif
 
 #if SCREEN_SPACE_RAY_TRACING_ENABLED
@@ -171,7 +182,13 @@ vec3 getEnvironmentLod(vec3 lightPosition, vec3 lightDirection, float lod)
 
 vec3 getEnvironment(vec3 lightPosition, vec3 lightDirection)
 {
-#if ENVIRONMENT_TEXTURE_ENABLED
+#if ENVIRONMENT_TEXTURE_ENABLED && PREFILTERED_ENVIRONMENT_ENABLED
+    vec3 result = ambientColor * textureLod(specularEnvironmentMap, mat3(envMapMatrix) * lightDirection, 0).rgb;
+#if SCREEN_SPACE_RAY_TRACING_ENABLED
+    result *= (1 - shadowTest(lightPosition, lightDirection));
+#endif
+    return result;
+#elif ENVIRONMENT_TEXTURE_ENABLED
     return getEnvironmentLod(lightPosition, lightDirection, environmentMipMapLevel);
 #else
     return getEnvironmentLod(lightPosition, lightDirection, 0);
@@ -202,7 +219,9 @@ vec3 getEnvironmentSpecular(vec3 lightDirection)
 vec3 getEnvironmentDiffuse(vec3 normalDirection)
 {    vec3 result;
 
-#if ENVIRONMENT_TEXTURE_ENABLED
+#if ENVIRONMENT_TEXTURE_ENABLED && PREFILTERED_ENVIRONMENT_ENABLED
+    result = ambientColor * texture(diffuseEnvironmentMap, mat3(envMapMatrix) * normalDirection).rgb;
+#elif ENVIRONMENT_TEXTURE_ENABLED
     result = ambientColor * textureLod(environmentMap, mat3(envMapMatrix) * normalDirection, 
     diffuseEnvironmentMipMapLevel).rgb / 2; // Why divide by 2?  This doesn't seem right.
     // https://www.wolframalpha.com/input/?i=2+*+pi+*+%28integrate+sine+theta+*+cosine+theta+%2F+pi%3B+theta+from+0+to+pi%2F2%29
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.core;
+
+/**
+ * An interface for pixel data that has been read from an image file and converted into the form expected by a texture,
+ * but that has not yet been sent to the GPU.
+ * Decoding an image does not require the GL context, so decoded images may be created on any thread,
+ * which allows image files to be decoded in parallel while the context's thread uploads images that are already decoded.
+ * @author Michael Tetzlaff
+ *
+ * @param <ContextType> The type of the GL context that the image will be uploaded to.
+ */
+public interface DecodedImage<ContextType extends Context<ContextType>>
+{
+    /**
+     * Gets the width of the image.
+     * @return The width of the image.
+     */
+    int getWidth();
+
+    /**
+     * Gets the height of the image.
+     * @return The height of the image.
+     */
+    int getHeight();
+}
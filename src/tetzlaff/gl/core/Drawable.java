@@ -94,4 +94,11 @@ public interface Drawable<ContextType extends Context<ContextType>> extends Cont
     boolean addVertexBuffer(int location, VertexBuffer<ContextType> buffer);
 
     boolean addVertexBuffer(String name, VertexBuffer<ContextType> buffer);
+
+    /**
+     * Sets an index buffer to be used to assemble primitives from the vertex buffers.
+     * When an index buffer is set, the number of vertices drawn is the number of indices rather than the size of the vertex buffers.
+     * @param indexBuffer The index buffer to use, or null to draw the vertex buffers in order without indexing.
+     */
+    void setIndexBuffer(IndexBuffer<ContextType> indexBuffer);
 }
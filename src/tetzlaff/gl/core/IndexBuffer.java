@@ -12,6 +12,8 @@
 
 package tetzlaff.gl.core;
 
+import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
+
 /**
  * An interface for a buffer object that can serve as an "index buffer" or "element array buffer" in conjunction with one or more vertex buffer objects (VBOs).
  * This buffer specifies the order in which vertices in VBOs should be processed during a draw call.
@@ -23,4 +25,12 @@ public interface IndexBuffer<ContextType extends Context<ContextType>> extends R
 {
     int count();
     IndexBuffer<ContextType> setData(int... data);
+
+    /**
+     * Sets the contents of the index buffer directly from a native buffer, without copying to an intermediate array.
+     * @param data A buffer of 32-bit integers (either signed or unsigned).
+     *             Every element of the buffer is treated as an index, regardless of how many dimensions it has.
+     * @return The calling object.
+     */
+    IndexBuffer<ContextType> setData(NativeVectorBuffer data);
 }
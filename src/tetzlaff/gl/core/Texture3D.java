@@ -17,6 +17,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
 
 import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
 import tetzlaff.gl.types.AbstractDataType;
@@ -154,6 +155,63 @@ public interface Texture3D<ContextType extends Context<ContextType>> extends Tex
      */
     void loadLayer(int layerIndex, NativeVectorBuffer data);
 
+    /**
+     * Loads pixel data and sends it to the GPU for a specific layer of the 3D texture, replacing whatever pixel data was there before.
+     * Each pixel is passed to the mapping function as a packed ARGB integer, which avoids creating a Color object for every pixel.
+     * @param layerIndex The index of the layer where the pixel data should go.
+     * @param file The image file.
+     * @param flipVertical Whether or not to flip the image vertically.
+     * @param mappedType The type of the mapped pixel data, which must be 1, 2 or 4 bytes in size.
+     * @param mappingFunction Maps each ARGB pixel to a value of the mapped type,
+     *                        stored in the low-order bits of the integer returned (in native byte order for multi-byte types).
+     * @throws IOException
+     */
+    void loadMappedLayer(int layerIndex, File file, boolean flipVertical,
+        AbstractDataType<?> mappedType, IntUnaryOperator mappingFunction) throws IOException;
+
+    /**
+     * Loads pixel data and sends it to the GPU for a specific layer of the 3D texture, replacing whatever pixel data was there before.
+     * Each pixel is passed to the mapping function as a packed ARGB integer, with the green channel of the mask in the alpha channel.
+     * @param layerIndex The index of the layer where the pixel data should go.
+     * @param imageFile The image file.
+     * @param maskFile The mask file.
+     * @param flipVertical Whether or not to flip the image vertically.
+     * @param mappedType The type of the mapped pixel data, which must be 1, 2 or 4 bytes in size.
+     * @param mappingFunction Maps each ARGB pixel to a value of the mapped type,
+     *                        stored in the low-order bits of the integer returned (in native byte order for multi-byte types).
+     * @throws IOException
+     */
+    void loadMappedLayer(int layerIndex, File imageFile, File maskFile, boolean flipVertical,
+        AbstractDataType<?> mappedType, IntUnaryOperator mappingFunction) throws IOException;
+
+    /**
+     * Reads an image file and converts it into the form expected by this texture, without sending it to the GPU.
+     * Unlike loadLayer(), this does not use the GL context and may be called from any thread.
+     * @param file The image file.
+     * @param flipVertical Whether or not to flip the image vertically.
+     * @return The decoded image, which can be sent to the GPU using loadLayer(int, DecodedImage).
+     * @throws IOException If the image could not be read.
+     */
+    DecodedImage<ContextType> decodeLayer(File file, boolean flipVertical) throws IOException;
+
+    /**
+     * Reads an image file and a mask and converts them into the form expected by this texture, without sending them to the GPU.
+     * Unlike loadLayer(), this does not use the GL context and may be called from any thread.
+     * @param imageFile The image file.
+     * @param maskFile The mask file, the green channel of which will be used as the alpha channel.
+     * @param flipVertical Whether or not to flip the image vertically.
+     * @return The decoded image, which can be sent to the GPU using loadLayer(int, DecodedImage).
+     * @throws IOException If either image could not be read.
+     */
+    DecodedImage<ContextType> decodeLayer(File imageFile, File maskFile, boolean flipVertical) throws IOException;
+
+    /**
+     * Sends a decoded image to the GPU for a specific layer of the 3D texture, replacing whatever pixel data was there before.
+     * @param layerIndex The index of the layer where the pixel data should go.
+     * @param image The decoded image, which must have been created by decodeLayer() on a texture of the same size.
+     */
+    void loadLayer(int layerIndex, DecodedImage<ContextType> image);
+
     /**
      * Gets a single layer of this texture for use as a framebuffer attachment.
      * @param layerIndex The layer to use as a framebuffer attachment.
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+
+import tetzlaff.gl.builders.ProgramBuilder;
+import tetzlaff.gl.builders.framebuffer.DefaultFramebufferFactory;
+import tetzlaff.gl.builders.framebuffer.FramebufferObjectBuilder;
+import tetzlaff.gl.core.*;
+import tetzlaff.gl.cpu.CpuFramebufferObject.CpuFramebufferObjectBuilder;
+import tetzlaff.gl.cpu.CpuProgram.CpuProgramBuilder;
+
+/**
+ * A graphics context that renders on the CPU, for running export requests on machines without OpenGL
+ * (such as headless render nodes and continuous integration servers).
+ * Triangles are rasterized into tiles of the framebuffer in parallel on the common fork-join pool,
+ * with depth testing, perspective-correct interpolation, blending and any number of float, fixed-point and integer color attachments.
+ *
+ * GLSL cannot be run on the CPU, so each program must have a Java implementation of its shaders (a CpuShader)
+ * registered with registerShader() under the shader files that the program is built from.
+ * Programs are otherwise built and used exactly as with an OpenGL context.
+ * Features that have no CPU implementation (cubemaps, stencil buffers, one-dimensional textures, mipmaps,
+ * and primitives other than triangles) throw UnsupportedOperationException.
+ */
+public final class CpuContext implements Context<CpuContext>
+{
+    private final CpuContextState state;
+    private final CpuTextureFactory textureFactory;
+    private final Map<Set<Path>, Function<Map<String, Object>, CpuShader>> shaderRegistry;
+    private final DoubleFramebufferObject<CpuContext> defaultFramebuffer;
+
+    /**
+     * Creates a new context.
+     * @param width The width of the default framebuffer.
+     * @param height The height of the default framebuffer.
+     */
+    public CpuContext(int width, int height)
+    {
+        this.state = new CpuContextState();
+        this.textureFactory = new CpuTextureFactory(this);
+        this.shaderRegistry = new HashMap<>(32);
+        this.defaultFramebuffer = DefaultFramebufferFactory.create(this, width, height);
+    }
+
+    /**
+     * Registers the Java implementation of a program's shaders.
+     * @param shaderFactory Creates the shader for a program, given the preprocessor definitions that the program was built with.
+     * @param shaderFiles The GLSL shader files of the program (typically a vertex shader and a fragment shader).
+     *                    A program built from exactly these files, in any order, will use the shader created by shaderFactory.
+     */
+    public void registerShader(Function<Map<String, Object>, CpuShader> shaderFactory, File... shaderFiles)
+    {
+        Set<Path> key = new HashSet<>(shaderFiles.length);
+        for (File file : shaderFiles)
+        {
+            key.add(CpuShaderFile.getKey(file));
+        }
+        shaderRegistry.put(key, shaderFactory);
+    }
+
+    CpuShader createRegisteredShader(Set<Path> shaderFiles, Map<String, Object> defines)
+    {
+        Function<Map<String, Object>, CpuShader> shaderFactory = shaderRegistry.get(shaderFiles);
+        if (shaderFactory == null)
+        {
+            throw new UnsupportedOperationException("No CPU shader has been registered for the shader files " + shaderFiles + '.');
+        }
+        else
+        {
+            return shaderFactory.apply(Collections.unmodifiableMap(defines));
+        }
+    }
+
+    /**
+     * Creates a program directly from a shader, without going through the shader registry.
+     * @param shader The shader.
+     * @return The new program.
+     */
+    public CpuProgram createProgram(CpuShader shader)
+    {
+        return new CpuProgram(this, shader, new HashMap<>(0));
+    }
+
+    @Override
+    public void makeContextCurrent()
+    {
+        // A CPU context is not bound to any thread.
+    }
+
+    @Override
+    public void flush()
+    {
+        // Draw calls and clears complete before they return, so there is never any pending work.
+    }
+
+    @Override
+    public void finish()
+    {
+    }
+
+    @Override
+    public void close()
+    {
+        defaultFramebuffer.close();
+    }
+
+    @Override
+    public CpuContextState getState()
+    {
+        return state;
+    }
+
+    @Override
+    public DoubleFramebuffer<CpuContext> getDefaultFramebuffer()
+    {
+        return defaultFramebuffer;
+    }
+
+    @Override
+    public Shader<CpuContext> createShader(ShaderType type, String source)
+    {
+        throw new UnsupportedOperationException("The CPU rasterizer cannot compile GLSL source; register a CpuShader for the shader files instead.");
+    }
+
+    @Override
+    public Shader<CpuContext> createShader(ShaderType type, File file, Map<String, Object> defines)
+    {
+        return new CpuShaderFile(this, type, file);
+    }
+
+    @Override
+    public ProgramBuilder<CpuContext> getShaderProgramBuilder()
+    {
+        return new CpuProgramBuilder(this);
+    }
+
+    @Override
+    public FramebufferObjectBuilder<CpuContext> buildFramebufferObject(int width, int height)
+    {
+        return new CpuFramebufferObjectBuilder(this, width, height);
+    }
+
+    @Override
+    public VertexBuffer<CpuContext> createVertexBuffer()
+    {
+        return new CpuVertexBuffer(this);
+    }
+
+    @Override
+    public IndexBuffer<CpuContext> createIndexBuffer()
+    {
+        return new CpuIndexBuffer(this);
+    }
+
+    @Override
+    public UniformBuffer<CpuContext> createUniformBuffer()
+    {
+        return new CpuUniformBuffer(this);
+    }
+
+    @Override
+    public Drawable<CpuContext> createDrawable(Program<CpuContext> program)
+    {
+        if (program instanceof CpuProgram)
+        {
+            return new CpuDrawable(this, (CpuProgram)program);
+        }
+        else
+        {
+            throw new IllegalArgumentException("'program' must be of type CpuProgram.");
+        }
+    }
+
+    @Override
+    public TextureFactory<CpuContext> getTextureFactory()
+    {
+        return textureFactory;
+    }
+}
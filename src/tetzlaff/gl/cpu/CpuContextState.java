@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import tetzlaff.gl.core.AlphaBlendingFunction;
+import tetzlaff.gl.core.ContextState;
+
+/**
+ * The fixed-function state of a CpuContext.  The initial state matches OpenGL:
+ * depth testing, back-face culling and blending are disabled, and depth writes are enabled.
+ * The CPU rasterizer has no resource limits other than memory, so the limit queries return Integer.MAX_VALUE.
+ */
+public class CpuContextState implements ContextState
+{
+    private boolean depthTestEnabled = false;
+    private boolean depthWriteEnabled = true;
+    private boolean backFaceCullingEnabled = false;
+    private AlphaBlendingFunction alphaBlendingFunction = null;
+
+    CpuContextState()
+    {
+    }
+
+    boolean isDepthTestEnabled()
+    {
+        return depthTestEnabled;
+    }
+
+    boolean isDepthWriteEnabled()
+    {
+        return depthWriteEnabled;
+    }
+
+    boolean isBackFaceCullingEnabled()
+    {
+        return backFaceCullingEnabled;
+    }
+
+    AlphaBlendingFunction getAlphaBlendingFunction()
+    {
+        return alphaBlendingFunction;
+    }
+
+    @Override
+    public void enableDepthTest()
+    {
+        depthTestEnabled = true;
+    }
+
+    @Override
+    public void disableDepthTest()
+    {
+        depthTestEnabled = false;
+    }
+
+    @Override
+    public void enableDepthWrite()
+    {
+        depthWriteEnabled = true;
+    }
+
+    @Override
+    public void disableDepthWrite()
+    {
+        depthWriteEnabled = false;
+    }
+
+    @Override
+    public void enableMultisampling()
+    {
+        // Multisampling is not supported; each fragment is sampled once at its center.
+    }
+
+    @Override
+    public void disableMultisampling()
+    {
+    }
+
+    @Override
+    public void enableBackFaceCulling()
+    {
+        backFaceCullingEnabled = true;
+    }
+
+    @Override
+    public void disableBackFaceCulling()
+    {
+        backFaceCullingEnabled = false;
+    }
+
+    @Override
+    public void setAlphaBlendingFunction(AlphaBlendingFunction func)
+    {
+        alphaBlendingFunction = func;
+    }
+
+    @Override
+    public void disableAlphaBlending()
+    {
+        alphaBlendingFunction = null;
+    }
+
+    @Override
+    public int getMaxCombinedVertexUniformComponents()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMaxCombinedFragmentUniformComponents()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMaxUniformBlockSize()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMaxVertexUniformComponents()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMaxFragmentUniformComponents()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMaxArrayTextureLayers()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMaxCombinedTextureImageUnits()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getMaxCombinedUniformBlocks()
+    {
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.awt.image.BufferedImage;
+
+import tetzlaff.gl.core.DecodedImage;
+
+/**
+ * An image that has been read from a file and scaled to the size of a texture, waiting to be copied into a layer of a CpuTexture3D.
+ */
+final class CpuDecodedImage implements DecodedImage<CpuContext>
+{
+    private final BufferedImage colorImage;
+    private final BufferedImage maskImage;
+    private final boolean flipVertical;
+
+    CpuDecodedImage(BufferedImage colorImage, BufferedImage maskImage, boolean flipVertical)
+    {
+        this.colorImage = colorImage;
+        this.maskImage = maskImage;
+        this.flipVertical = flipVertical;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return colorImage.getWidth();
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return colorImage.getHeight();
+    }
+
+    BufferedImage getColorImage()
+    {
+        return colorImage;
+    }
+
+    /**
+     * @return The mask, or null if the alpha channel of the color image should be used.
+     */
+    BufferedImage getMaskImage()
+    {
+        return maskImage;
+    }
+
+    boolean isFlipVertical()
+    {
+        return flipVertical;
+    }
+}
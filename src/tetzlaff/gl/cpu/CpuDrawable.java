@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.util.Arrays;
+
+import tetzlaff.gl.core.*;
+import tetzlaff.gl.exceptions.NoSpecifiedVertexBuffersException;
+import tetzlaff.gl.vecmath.*;
+
+final class CpuDrawable implements Drawable<CpuContext>
+{
+    private static final class ConstantAttribute implements CpuVertexAttribute
+    {
+        private final float[] floatValue;
+        private final int[] intValue;
+
+        ConstantAttribute(float x, float y, float z, float w)
+        {
+            this.floatValue = new float[] { x, y, z, w };
+            this.intValue = new int[] { (int)x, (int)y, (int)z, (int)w };
+        }
+
+        ConstantAttribute(int x, int y, int z, int w)
+        {
+            this.floatValue = new float[] { x, y, z, w };
+            this.intValue = new int[] { x, y, z, w };
+        }
+
+        @Override
+        public float getFloat(int vertex, int component)
+        {
+            return floatValue[component];
+        }
+
+        @Override
+        public int getInt(int vertex, int component)
+        {
+            return intValue[component];
+        }
+    }
+
+    private final CpuContext context;
+    private final CpuProgram program;
+
+    // Indexed by attribute location.  Vertex buffers take precedence over constant values.
+    private CpuVertexBuffer[] vertexBuffers = new CpuVertexBuffer[0];
+    private ConstantAttribute[] constantAttributes = new ConstantAttribute[0];
+    private CpuIndexBuffer indexBuffer;
+
+    CpuDrawable(CpuContext context, CpuProgram program)
+    {
+        this.context = context;
+        this.program = program;
+    }
+
+    @Override
+    public CpuContext getContext()
+    {
+        return context;
+    }
+
+    @Override
+    public CpuProgram program()
+    {
+        return program;
+    }
+
+    @Override
+    public void draw(PrimitiveMode primitiveMode, Framebuffer<CpuContext> framebuffer)
+    {
+        FramebufferSize size = framebuffer.getSize();
+        this.draw(primitiveMode, framebuffer, 0, 0, size.width, size.height);
+    }
+
+    @Override
+    public void draw(PrimitiveMode primitiveMode, Framebuffer<CpuContext> framebuffer, int x, int y, int width, int height)
+    {
+        if (framebuffer.getContentsForWrite() instanceof CpuFramebufferObject)
+        {
+            int attributeCount = Math.max(vertexBuffers.length, constantAttributes.length);
+            CpuVertexAttribute[] attributes = new CpuVertexAttribute[attributeCount];
+            int vertexCount = Integer.MAX_VALUE;
+
+            for (int i = 0; i < attributeCount; i++)
+            {
+                if (i < vertexBuffers.length && vertexBuffers[i] != null)
+                {
+                    attributes[i] = vertexBuffers[i];
+                    vertexCount = Math.min(vertexCount, vertexBuffers[i].count());
+                }
+                else if (i < constantAttributes.length)
+                {
+                    attributes[i] = constantAttributes[i];
+                }
+            }
+
+            if (vertexCount == Integer.MAX_VALUE)
+            {
+                throw new NoSpecifiedVertexBuffersException("No vertex buffers were specified for the drawable.");
+            }
+
+            CpuShader shader = program.getShader();
+            shader.prepare(program);
+
+            new CpuRasterizer(context.getState(), (CpuFramebufferObject)framebuffer.getContentsForWrite(), x, y, width, height)
+                .draw(shader, attributes, vertexCount, indexBuffer == null ? null : indexBuffer.getIndices(), primitiveMode);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Contents of 'framebuffer' must be of type CpuFramebufferObject.");
+        }
+    }
+
+    @Override
+    public void draw(PrimitiveMode primitiveMode, Framebuffer<CpuContext> framebuffer, int width, int height)
+    {
+        this.draw(primitiveMode, framebuffer, 0, 0, width, height);
+    }
+
+    @Override
+    public void draw(PrimitiveMode primitiveMode, CpuContext context)
+    {
+        this.draw(primitiveMode, context.getDefaultFramebuffer());
+    }
+
+    @Override
+    public void draw(PrimitiveMode primitiveMode, CpuContext context, int width, int height)
+    {
+        this.draw(primitiveMode, context.getDefaultFramebuffer(), width, height);
+    }
+
+    @Override
+    public void draw(PrimitiveMode primitiveMode, CpuContext context, int x, int y, int width, int height)
+    {
+        this.draw(primitiveMode, context.getDefaultFramebuffer(), x, y, width, height);
+    }
+
+    @Override
+    public boolean addVertexBuffer(int location, VertexBuffer<CpuContext> buffer)
+    {
+        if (buffer instanceof CpuVertexBuffer)
+        {
+            if (location >= 0)
+            {
+                if (location >= vertexBuffers.length)
+                {
+                    vertexBuffers = Arrays.copyOf(vertexBuffers, location + 1);
+                }
+                vertexBuffers[location] = (CpuVertexBuffer)buffer;
+                return true;
+            }
+            else
+            {
+                return false;
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("'buffer' must be of type CpuVertexBuffer.");
+        }
+    }
+
+    @Override
+    public boolean addVertexBuffer(String name, VertexBuffer<CpuContext> buffer)
+    {
+        return this.addVertexBuffer(program.getVertexAttribLocation(name), buffer);
+    }
+
+    @Override
+    public void setIndexBuffer(IndexBuffer<CpuContext> indexBuffer)
+    {
+        if (indexBuffer == null || indexBuffer instanceof CpuIndexBuffer)
+        {
+            this.indexBuffer = (CpuIndexBuffer)indexBuffer;
+        }
+        else
+        {
+            throw new IllegalArgumentException("'indexBuffer' must be of type CpuIndexBuffer.");
+        }
+    }
+
+    private boolean setConstantAttribute(int location, ConstantAttribute value)
+    {
+        if (location >= 0)
+        {
+            if (location >= constantAttributes.length)
+            {
+                constantAttributes = Arrays.copyOf(constantAttributes, location + 1);
+            }
+            constantAttributes[location] = value;
+            return true;
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, int value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute(value, 0, 0, 1));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, IntVector2 value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute(value.x, value.y, 0, 1));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, IntVector3 value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute(value.x, value.y, value.z, 1));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, IntVector4 value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute(value.x, value.y, value.z, value.w));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, float value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute(value, 0.0f, 0.0f, 1.0f));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, Vector2 value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute(value.x, value.y, 0.0f, 1.0f));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, Vector3 value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute(value.x, value.y, value.z, 1.0f));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, Vector4 value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute(value.x, value.y, value.z, value.w));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, double value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute((float)value, 0.0f, 0.0f, 1.0f));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, DoubleVector2 value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute((float)value.x, (float)value.y, 0.0f, 1.0f));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, DoubleVector3 value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute((float)value.x, (float)value.y, (float)value.z, 1.0f));
+    }
+
+    @Override
+    public boolean setVertexAttrib(int location, DoubleVector4 value)
+    {
+        return setConstantAttribute(location, new ConstantAttribute((float)value.x, (float)value.y, (float)value.z, (float)value.w));
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, int value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, IntVector2 value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, IntVector3 value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, IntVector4 value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, float value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, Vector2 value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, Vector3 value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, Vector4 value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, double value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, DoubleVector2 value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, DoubleVector3 value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+
+    @Override
+    public boolean setVertexAttrib(String name, DoubleVector4 value)
+    {
+        return this.setVertexAttrib(program.getVertexAttribLocation(name), value);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import tetzlaff.gl.core.ColorFormat;
+import tetzlaff.gl.core.ColorFormat.DataType;
+import tetzlaff.gl.core.TextureWrapMode;
+import tetzlaff.gl.nativebuffer.NativeDataType;
+
+/**
+ * Conversions between native data, internal formats and texel coordinates, following the rules of the OpenGL specification.
+ */
+final class CpuFormats
+{
+    private CpuFormats()
+    {
+    }
+
+    /**
+     * Gets the factor that converts an integer of the specified type to a normalized value
+     * (i.e. the reciprocal of the largest value of the type).
+     */
+    static float getNormalizationScale(NativeDataType dataType)
+    {
+        switch (dataType)
+        {
+            case UNSIGNED_BYTE: return 1.0f / 255.0f;
+            case BYTE: return 1.0f / 127.0f;
+            case UNSIGNED_SHORT: return 1.0f / 65535.0f;
+            case SHORT: return 1.0f / 32767.0f;
+            case UNSIGNED_INT: return (float)(1.0 / 4294967295.0);
+            case INT: return (float)(1.0 / 2147483647.0);
+            default: return 1.0f;
+        }
+    }
+
+    static boolean isFloatingPoint(NativeDataType dataType)
+    {
+        return dataType == NativeDataType.FLOAT || dataType == NativeDataType.DOUBLE;
+    }
+
+    static boolean isInteger(ColorFormat format)
+    {
+        return format.dataType == DataType.SIGNED_INTEGER || format.dataType == DataType.UNSIGNED_INTEGER;
+    }
+
+    static int getChannelCount(ColorFormat format)
+    {
+        if (format.alphaBits > 0)
+        {
+            return 4;
+        }
+        else if (format.blueBits > 0)
+        {
+            return 3;
+        }
+        else if (format.greenBits > 0)
+        {
+            return 2;
+        }
+        else
+        {
+            return 1;
+        }
+    }
+
+    static int getChannelBits(ColorFormat format, int channel)
+    {
+        switch (channel)
+        {
+            case 0: return format.redBits;
+            case 1: return format.greenBits;
+            case 2: return format.blueBits;
+            default: return format.alphaBits;
+        }
+    }
+
+    /**
+     * Maps a texel coordinate that may be outside of the texture to a texel inside of the texture.
+     */
+    static int wrap(int coordinate, int size, TextureWrapMode wrapMode)
+    {
+        switch (wrapMode)
+        {
+            case Repeat:
+                return Math.floorMod(coordinate, size);
+            case MirroredRepeat:
+                int mirrored = Math.floorMod(coordinate, 2 * size);
+                return mirrored < size ? mirrored : 2 * size - 1 - mirrored;
+            case MirrorOnce:
+                return Math.min(coordinate < 0 ? -1 - coordinate : coordinate, size - 1);
+            case None:
+            default:
+                return Math.max(0, Math.min(coordinate, size - 1));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.util.Arrays;
+
+/**
+ * A fragment being shaded by a CpuShader.
+ * The shader writes one color per framebuffer attachment (the equivalent of the fragment shader's out variables);
+ * attachments that are not written by the shader are left unchanged, and colors for attachments that the framebuffer
+ * does not have are ignored.
+ */
+public final class CpuFragment
+{
+    private final float[][] colors;
+    private final int[][] integerColors;
+    private final boolean[] written;
+
+    private int x;
+    private int y;
+    private float depth;
+
+    CpuFragment(int attachmentCount)
+    {
+        this.colors = new float[attachmentCount][4];
+        this.integerColors = new int[attachmentCount][4];
+        this.written = new boolean[attachmentCount];
+    }
+
+    void reset(int x, int y, float depth)
+    {
+        this.x = x;
+        this.y = y;
+        this.depth = depth;
+        Arrays.fill(written, false);
+    }
+
+    boolean isWritten(int attachmentIndex)
+    {
+        return written[attachmentIndex];
+    }
+
+    float[] getColor(int attachmentIndex)
+    {
+        return colors[attachmentIndex];
+    }
+
+    int[] getIntegerColor(int attachmentIndex)
+    {
+        return integerColors[attachmentIndex];
+    }
+
+    /**
+     * @return The column of the fragment in the framebuffer.  The center of the fragment is at getX() + 0.5.
+     */
+    public int getX()
+    {
+        return x;
+    }
+
+    /**
+     * @return The row of the fragment in the framebuffer, counting from the bottom.  The center of the fragment is at getY() + 0.5.
+     */
+    public int getY()
+    {
+        return y;
+    }
+
+    /**
+     * @return The window-space depth of the fragment, between 0 and 1 (the equivalent of gl_FragCoord.z).
+     */
+    public float getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Sets the output color for a floating-point or fixed-point attachment.
+     */
+    public void setColor(int attachmentIndex, float r, float g, float b, float a)
+    {
+        if (attachmentIndex < colors.length)
+        {
+            float[] color = colors[attachmentIndex];
+            color[0] = r;
+            color[1] = g;
+            color[2] = b;
+            color[3] = a;
+            written[attachmentIndex] = true;
+        }
+    }
+
+    /**
+     * Sets the output color for an integer attachment.
+     */
+    public void setIntegerColor(int attachmentIndex, int r, int g, int b, int a)
+    {
+        if (attachmentIndex < integerColors.length)
+        {
+            int[] color = integerColors[attachmentIndex];
+            color[0] = r;
+            color[1] = g;
+            color[2] = b;
+            color[3] = a;
+            written[attachmentIndex] = true;
+        }
+    }
+}
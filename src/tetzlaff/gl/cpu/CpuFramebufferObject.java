@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+import tetzlaff.gl.builders.base.FramebufferObjectBuilderBase;
+import tetzlaff.gl.core.*;
+
+/**
+ * A framebuffer object whose attachments are CpuTexture2D objects.
+ * Pixels are read back in the same layouts as from an OpenGL framebuffer: row by row starting from the bottom row,
+ * with ARGB colors packed into integers and depth scaled to unsigned 16-bit integers.
+ */
+final class CpuFramebufferObject implements FramebufferObject<CpuContext>
+{
+    private final CpuContext context;
+    private final int width;
+    private final int height;
+    private final List<CpuTexture2D> colorAttachments;
+    private CpuTexture2D depthAttachment;
+
+    static class CpuFramebufferObjectBuilder extends FramebufferObjectBuilderBase<CpuContext>
+    {
+        CpuFramebufferObjectBuilder(CpuContext context, int width, int height)
+        {
+            super(context, width, height);
+        }
+
+        @Override
+        public CpuFramebufferObject createFramebufferObject()
+        {
+            CpuFramebufferObject framebuffer = new CpuFramebufferObject(context, width, height);
+
+            for (int i = 0; i < this.getColorAttachmentCount(); i++)
+            {
+                if (this.getColorAttachmentBuilder(i) == null)
+                {
+                    framebuffer.colorAttachments.add(null);
+                }
+                else
+                {
+                    framebuffer.colorAttachments.add((CpuTexture2D)this.getColorAttachmentBuilder(i).createTexture());
+                }
+            }
+
+            if (this.hasDepthAttachment())
+            {
+                framebuffer.depthAttachment = (CpuTexture2D)this.getDepthAttachmentBuilder().createTexture();
+            }
+
+            return framebuffer;
+        }
+    }
+
+    private CpuFramebufferObject(CpuContext context, int width, int height)
+    {
+        this.context = context;
+        this.width = width;
+        this.height = height;
+        this.colorAttachments = new ArrayList<>(8);
+    }
+
+    @Override
+    public CpuContext getContext()
+    {
+        return context;
+    }
+
+    @Override
+    public CpuFramebufferObject getContentsForRead()
+    {
+        return this;
+    }
+
+    @Override
+    public CpuFramebufferObject getContentsForWrite()
+    {
+        return this;
+    }
+
+    @Override
+    public FramebufferSize getSize()
+    {
+        return new FramebufferSize(width, height);
+    }
+
+    int getColorAttachmentCount()
+    {
+        return colorAttachments.size();
+    }
+
+    CpuTexture2D getDepthAttachment()
+    {
+        return depthAttachment;
+    }
+
+    @Override
+    public CpuTexture2D getColorAttachmentTexture(int index)
+    {
+        return index < colorAttachments.size() ? colorAttachments.get(index) : null;
+    }
+
+    @Override
+    public CpuTexture2D getDepthAttachmentTexture()
+    {
+        return depthAttachment;
+    }
+
+    @Override
+    public Texture2D<CpuContext> getStencilAttachmentTexture()
+    {
+        return null;
+    }
+
+    @Override
+    public Texture2D<CpuContext> getDepthStencilAttachmentTexture()
+    {
+        return null;
+    }
+
+    private CpuTexture2D checkAttachment(FramebufferAttachment<CpuContext> attachment)
+    {
+        if (attachment instanceof CpuTexture2D)
+        {
+            CpuTexture2D texture = (CpuTexture2D)attachment;
+            if (texture.getWidth() != width || texture.getHeight() != height)
+            {
+                throw new IllegalArgumentException("The attachment must have the same size as the framebuffer.");
+            }
+            return texture;
+        }
+        else
+        {
+            throw new IllegalArgumentException("'attachment' must be of type CpuTexture2D.");
+        }
+    }
+
+    @Override
+    public void setColorAttachment(int index, FramebufferAttachment<CpuContext> attachment)
+    {
+        CpuTexture2D texture = checkAttachment(attachment);
+        if (texture.isDepthFormat())
+        {
+            throw new IllegalArgumentException("A depth texture cannot be used as a color attachment.");
+        }
+
+        while (colorAttachments.size() <= index)
+        {
+            colorAttachments.add(null);
+        }
+        colorAttachments.set(index, texture);
+    }
+
+    @Override
+    public void setDepthAttachment(FramebufferAttachment<CpuContext> attachment)
+    {
+        CpuTexture2D texture = checkAttachment(attachment);
+        if (!texture.isDepthFormat())
+        {
+            throw new IllegalArgumentException("A color texture cannot be used as a depth attachment.");
+        }
+        depthAttachment = texture;
+    }
+
+    @Override
+    public void setStencilAttachment(FramebufferAttachment<CpuContext> attachment)
+    {
+        throw new UnsupportedOperationException("Stencil attachments are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public void setDepthStencilAttachment(FramebufferAttachment<CpuContext> attachment)
+    {
+        throw new UnsupportedOperationException("Stencil attachments are not supported by the CPU rasterizer.");
+    }
+
+    private CpuTexture2D getReadableColorAttachment(int attachmentIndex)
+    {
+        CpuTexture2D attachment = getColorAttachmentTexture(attachmentIndex);
+        if (attachment == null)
+        {
+            throw new IllegalArgumentException("The framebuffer does not have a color attachment at index " + attachmentIndex + '.');
+        }
+        return attachment;
+    }
+
+    private static int toByte(float value)
+    {
+        return Math.round(Math.max(0.0f, Math.min(value, 1.0f)) * 255.0f);
+    }
+
+    @Override
+    public int[] readColorBufferARGB(int attachmentIndex, int x, int y, int width, int height)
+    {
+        CpuTexture2D attachment = getReadableColorAttachment(attachmentIndex);
+        int[] pixelArray = new int[width * height];
+        float[] rgba = new float[4];
+
+        for (int row = 0; row < height; row++)
+        {
+            for (int column = 0; column < width; column++)
+            {
+                attachment.getTexel((y + row) * this.width + x + column, rgba);
+                pixelArray[row * width + column] = toByte(rgba[3]) << 24 | toByte(rgba[0]) << 16 | toByte(rgba[1]) << 8 | toByte(rgba[2]);
+            }
+        }
+
+        return pixelArray;
+    }
+
+    @Override
+    public int[] readColorBufferARGB(int attachmentIndex)
+    {
+        return this.readColorBufferARGB(attachmentIndex, 0, 0, width, height);
+    }
+
+    @Override
+    public void readColorBufferARGB(int attachmentIndex, ByteBuffer destination, int x, int y, int width, int height)
+    {
+        if (destination.remaining() < width * height * 4)
+        {
+            throw new IllegalArgumentException("The destination buffer is not big enough to hold the requested data.");
+        }
+
+        // Written in BGRA byte order, like the OpenGL implementation, so that each pixel reads back as ARGB on little-endian platforms.
+        for (int pixel : this.readColorBufferARGB(attachmentIndex, x, y, width, height))
+        {
+            destination.put((byte)pixel);
+            destination.put((byte)(pixel >>> 8));
+            destination.put((byte)(pixel >>> 16));
+            destination.put((byte)(pixel >>> 24));
+        }
+    }
+
+    @Override
+    public void readColorBufferARGB(int attachmentIndex, ByteBuffer destination)
+    {
+        this.readColorBufferARGB(attachmentIndex, destination, 0, 0, width, height);
+    }
+
+    @Override
+    public float[] readFloatingPointColorBufferRGBA(int attachmentIndex, int x, int y, int width, int height)
+    {
+        CpuTexture2D attachment = getReadableColorAttachment(attachmentIndex);
+        float[] pixelArray = new float[width * height * 4];
+        float[] rgba = new float[4];
+
+        for (int row = 0; row < height; row++)
+        {
+            for (int column = 0; column < width; column++)
+            {
+                attachment.getTexel((y + row) * this.width + x + column, rgba);
+                System.arraycopy(rgba, 0, pixelArray, (row * width + column) * 4, 4);
+            }
+        }
+
+        return pixelArray;
+    }
+
+    @Override
+    public float[] readFloatingPointColorBufferRGBA(int attachmentIndex)
+    {
+        return this.readFloatingPointColorBufferRGBA(attachmentIndex, 0, 0, width, height);
+    }
+
+    @Override
+    public void readFloatingPointColorBufferRGBA(int attachmentIndex, FloatBuffer destination, int x, int y, int width, int height)
+    {
+        if (destination.remaining() < width * height * 4)
+        {
+            throw new IllegalArgumentException("The destination buffer is not big enough to hold the requested data.");
+        }
+
+        destination.put(this.readFloatingPointColorBufferRGBA(attachmentIndex, x, y, width, height));
+    }
+
+    @Override
+    public void readFloatingPointColorBufferRGBA(int attachmentIndex, FloatBuffer destination)
+    {
+        this.readFloatingPointColorBufferRGBA(attachmentIndex, destination, 0, 0, width, height);
+    }
+
+    @Override
+    public int[] readIntegerColorBufferRGBA(int attachmentIndex, int x, int y, int width, int height)
+    {
+        CpuTexture2D attachment = getReadableColorAttachment(attachmentIndex);
+        int[] pixelArray = new int[width * height * 4];
+        int[] rgba = new int[4];
+
+        for (int row = 0; row < height; row++)
+        {
+            for (int column = 0; column < width; column++)
+            {
+                attachment.fetchInteger(x + column, y + row, rgba);
+                System.arraycopy(rgba, 0, pixelArray, (row * width + column) * 4, 4);
+            }
+        }
+
+        return pixelArray;
+    }
+
+    @Override
+    public int[] readIntegerColorBufferRGBA(int attachmentIndex)
+    {
+        return this.readIntegerColorBufferRGBA(attachmentIndex, 0, 0, width, height);
+    }
+
+    @Override
+    public void readIntegerColorBufferRGBA(int attachmentIndex, IntBuffer destination, int x, int y, int width, int height)
+    {
+        if (destination.remaining() < width * height * 4)
+        {
+            throw new IllegalArgumentException("The destination buffer is not big enough to hold the requested data.");
+        }
+
+        destination.put(this.readIntegerColorBufferRGBA(attachmentIndex, x, y, width, height));
+    }
+
+    @Override
+    public void readIntegerColorBufferRGBA(int attachmentIndex, IntBuffer destination)
+    {
+        this.readIntegerColorBufferRGBA(attachmentIndex, destination, 0, 0, width, height);
+    }
+
+    @Override
+    public short[] readDepthBuffer(int x, int y, int width, int height)
+    {
+        if (depthAttachment == null)
+        {
+            throw new IllegalStateException("The framebuffer does not have a depth attachment.");
+        }
+
+        short[] pixelArray = new short[width * height];
+        for (int row = 0; row < height; row++)
+        {
+            for (int column = 0; column < width; column++)
+            {
+                pixelArray[row * width + column] = (short)Math.round(depthAttachment.getDepth((y + row) * this.width + x + column) * 65535.0f);
+            }
+        }
+        return pixelArray;
+    }
+
+    @Override
+    public short[] readDepthBuffer()
+    {
+        return this.readDepthBuffer(0, 0, width, height);
+    }
+
+    @Override
+    public void readDepthBuffer(ShortBuffer destination, int x, int y, int width, int height)
+    {
+        if (destination.remaining() < width * height)
+        {
+            throw new IllegalArgumentException("The destination buffer is not big enough to hold the requested data.");
+        }
+
+        destination.put(this.readDepthBuffer(x, y, width, height));
+    }
+
+    @Override
+    public void readDepthBuffer(ShortBuffer destination)
+    {
+        this.readDepthBuffer(destination, 0, 0, width, height);
+    }
+
+    @Override
+    public void saveColorBufferToFile(int attachmentIndex, String fileFormat, File file) throws IOException
+    {
+        this.saveColorBufferToFile(attachmentIndex, 0, 0, width, height, fileFormat, file);
+    }
+
+    @Override
+    public void saveColorBufferToFile(int attachmentIndex, int x, int y, int width, int height, String fileFormat, File file) throws IOException
+    {
+        int[] pixels = this.readColorBufferARGB(attachmentIndex, x, y, width, height);
+
+        // Flip the array vertically
+        for (int row = 0; row < height / 2; row++)
+        {
+            int limit = (row + 1) * width;
+            for (int i1 = row * width, i2 = (height - row - 1) * width; i1 < limit; i1++, i2++)
+            {
+                int tmp = pixels[i1];
+                pixels[i1] = pixels[i2];
+                pixels[i2] = tmp;
+            }
+        }
+
+        BufferedImage outImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        outImg.setRGB(0, 0, width, height, pixels, 0, width);
+        ImageIO.write(outImg, fileFormat, file);
+    }
+
+    @Override
+    public void clearColorBuffer(int attachmentIndex, float r, float g, float b, float a)
+    {
+        getReadableColorAttachment(attachmentIndex).clear(r, g, b, a);
+    }
+
+    @Override
+    public void clearIntegerColorBuffer(int attachmentIndex, int r, int g, int b, int a)
+    {
+        getReadableColorAttachment(attachmentIndex).clear(r, g, b, a);
+    }
+
+    @Override
+    public void clearDepthBuffer(float depth)
+    {
+        if (depthAttachment != null)
+        {
+            depthAttachment.clearDepth(depth);
+        }
+    }
+
+    @Override
+    public void clearDepthBuffer()
+    {
+        this.clearDepthBuffer(1.0f);
+    }
+
+    @Override
+    public void clearStencilBuffer(int stencilIndex)
+    {
+        throw new UnsupportedOperationException("Stencil attachments are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public void close()
+    {
+        for (CpuTexture2D attachment : colorAttachments)
+        {
+            if (attachment != null)
+            {
+                attachment.close();
+            }
+        }
+
+        if (depthAttachment != null)
+        {
+            depthAttachment.close();
+        }
+    }
+}
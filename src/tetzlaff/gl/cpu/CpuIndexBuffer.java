@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import tetzlaff.gl.core.IndexBuffer;
+import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
+
+final class CpuIndexBuffer implements IndexBuffer<CpuContext>
+{
+    private final CpuContext context;
+    private int[] indices;
+
+    CpuIndexBuffer(CpuContext context)
+    {
+        this.context = context;
+        this.indices = new int[0];
+    }
+
+    @Override
+    public CpuContext getContext()
+    {
+        return context;
+    }
+
+    int[] getIndices()
+    {
+        return indices;
+    }
+
+    @Override
+    public int count()
+    {
+        return indices.length;
+    }
+
+    @Override
+    public CpuIndexBuffer setData(int... data)
+    {
+        this.indices = data.clone();
+        return this;
+    }
+
+    @Override
+    public CpuIndexBuffer setData(NativeVectorBuffer data)
+    {
+        int[] newIndices = new int[data.getCount() * data.getDimensions()];
+        data.get(0, newIndices, 0, newIndices.length);
+        this.indices = newIndices;
+        return this;
+    }
+
+    @Override
+    public void close()
+    {
+        indices = new int[0];
+    }
+}
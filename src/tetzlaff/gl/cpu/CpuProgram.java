@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+
+import tetzlaff.gl.builders.base.ProgramBuilderBase;
+import tetzlaff.gl.core.*;
+import tetzlaff.gl.vecmath.*;
+
+/**
+ * A program for the CPU rasterizer: a CpuShader together with the uniforms, textures and uniform buffers that it reads.
+ * Uniform, uniform block and vertex attribute locations are assigned the first time each name is looked up,
+ * so every name is valid; uniforms that have never been set read as zero, as in OpenGL.
+ */
+public final class CpuProgram implements Program<CpuContext>
+{
+    private final CpuContext context;
+    private final CpuShader shader;
+    private final Map<String, Object> defines;
+
+    private final Map<String, Integer> uniformLocations = new HashMap<>(32);
+    private final List<Object> uniformValues = new ArrayList<>(32);
+    private final Map<String, Integer> uniformBlockIndices = new HashMap<>(8);
+    private final List<CpuUniformBuffer> uniformBuffers = new ArrayList<>(8);
+    private final Map<String, Integer> vertexAttribLocations = new HashMap<>(8);
+
+    static class CpuProgramBuilder extends ProgramBuilderBase<CpuContext>
+    {
+        CpuProgramBuilder(CpuContext context)
+        {
+            super(context);
+        }
+
+        @Override
+        public CpuProgram createProgram() throws FileNotFoundException
+        {
+            Set<Path> shaderFiles = new HashSet<>(4);
+            for (Shader<CpuContext> shader : this.compileShaders())
+            {
+                if (shader instanceof CpuShaderFile)
+                {
+                    shaderFiles.add(((CpuShaderFile)shader).getPath());
+                }
+                else
+                {
+                    throw new IllegalArgumentException("'shader' must be of type CpuShaderFile.");
+                }
+            }
+
+            Map<String, Object> defines = new HashMap<>(this.getDefines());
+            return new CpuProgram(this.context, this.context.createRegisteredShader(shaderFiles, defines), defines);
+        }
+    }
+
+    CpuProgram(CpuContext context, CpuShader shader, Map<String, Object> defines)
+    {
+        this.context = context;
+        this.shader = shader;
+        this.defines = defines;
+    }
+
+    @Override
+    public CpuContext getContext()
+    {
+        return context;
+    }
+
+    CpuShader getShader()
+    {
+        return shader;
+    }
+
+    @Override
+    public boolean hasDefine(String key)
+    {
+        return defines.containsKey(key);
+    }
+
+    @Override
+    public Optional<Object> getDefine(String key)
+    {
+        return defines.containsKey(key) ? Optional.of(defines.get(key)) : Optional.empty();
+    }
+
+    @Override
+    public int getUniformLocation(String name)
+    {
+        return uniformLocations.computeIfAbsent(name, n ->
+        {
+            uniformValues.add(null);
+            return uniformValues.size() - 1;
+        });
+    }
+
+    @Override
+    public int getUniformBlockIndex(String name)
+    {
+        return uniformBlockIndices.computeIfAbsent(name, n ->
+        {
+            uniformBuffers.add(null);
+            return uniformBuffers.size() - 1;
+        });
+    }
+
+    @Override
+    public int getVertexAttribLocation(String name)
+    {
+        return vertexAttribLocations.computeIfAbsent(name, n -> vertexAttribLocations.size());
+    }
+
+    private boolean setUniformValue(int location, Object value)
+    {
+        if (location >= 0)
+        {
+            while (uniformValues.size() <= location)
+            {
+                uniformValues.add(null);
+            }
+            uniformValues.set(location, value);
+            return true;
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the current value of a uniform, as the object that was passed to setUniform() or setTexture().
+     * @param location The location of the uniform.
+     * @return The value, or null if the uniform has not been set.
+     */
+    public Object getUniform(int location)
+    {
+        return location >= 0 && location < uniformValues.size() ? uniformValues.get(location) : null;
+    }
+
+    public Object getUniform(String name)
+    {
+        return getUniform(getUniformLocation(name));
+    }
+
+    public float getFloat(String name)
+    {
+        Object value = getUniform(name);
+        if (value instanceof Number)
+        {
+            return ((Number) value).floatValue();
+        }
+        else if (value instanceof Boolean)
+        {
+            return (Boolean) value ? 1.0f : 0.0f;
+        }
+        else
+        {
+            return 0.0f;
+        }
+    }
+
+    public int getInt(String name)
+    {
+        Object value = getUniform(name);
+        if (value instanceof Number)
+        {
+            return ((Number) value).intValue();
+        }
+        else if (value instanceof Boolean)
+        {
+            return (Boolean) value ? 1 : 0;
+        }
+        else
+        {
+            return 0;
+        }
+    }
+
+    public boolean getBoolean(String name)
+    {
+        Object value = getUniform(name);
+        if (value instanceof Boolean)
+        {
+            return (Boolean) value;
+        }
+        else if (value instanceof Number)
+        {
+            return ((Number) value).floatValue() != 0.0f;
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    public Vector2 getVector2(String name)
+    {
+        Object value = getUniform(name);
+        return value instanceof Vector2 ? (Vector2) value : Vector2.ZERO;
+    }
+
+    public Vector3 getVector3(String name)
+    {
+        Object value = getUniform(name);
+        return value instanceof Vector3 ? (Vector3) value : Vector3.ZERO;
+    }
+
+    public Vector4 getVector4(String name)
+    {
+        Object value = getUniform(name);
+        return value instanceof Vector4 ? (Vector4) value : Vector4.ZERO;
+    }
+
+    public Matrix4 getMatrix4(String name)
+    {
+        Object value = getUniform(name);
+        return value instanceof Matrix4 ? (Matrix4) value : Matrix4.scale(0.0f);
+    }
+
+    /**
+     * Gets the texture bound to a sampler uniform.
+     * @return The texture (a CpuTexture2D or CpuTexture3D), or null if no texture has been bound.
+     */
+    public Texture<CpuContext> getTexture(String name)
+    {
+        Object value = getUniform(name);
+        if (value instanceof Texture)
+        {
+            @SuppressWarnings("unchecked")
+            Texture<CpuContext> texture = (Texture<CpuContext>) value;
+            return texture;
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the contents of the uniform buffer bound to a uniform block.
+     * @return A read-only view of the buffer contents in native byte order, or null if no buffer has been bound.
+     */
+    public ByteBuffer getUniformBuffer(String name)
+    {
+        int index = getUniformBlockIndex(name);
+        CpuUniformBuffer buffer = uniformBuffers.get(index);
+        return buffer == null ? null : buffer.getData();
+    }
+
+    @Override
+    public boolean setUniform(int location, boolean value)
+    {
+        return setUniformValue(location, value);
+    }
+
+    @Override
+    public boolean setUniform(int location, Vector4 value)
+    {
+        return setUniformValue(location, value);
+    }
+
+    @Override
+    public boolean setUniform(int location, Vector3 value)
+    {
+        return setUniformValue(location, value);
+    }
+
+    @Override
+    public boolean setUniform(int location, Vector2 value)
+    {
+        return setUniformValue(location, value);
+    }
+
+    @Override
+    public boolean setUniform(int location, float value)
+    {
+        return setUniformValue(location, value);
+    }
+
+    @Override
+    public boolean setUniform(int location, IntVector4 value)
+    {
+        return setUniformValue(location, value);
+    }
+
+    @Override
+    public boolean setUniform(int location, IntVector3 value)
+    {
+        return setUniformValue(location, value);
+    }
+
+    @Override
+    public boolean setUniform(int location, IntVector2 value)
+    {
+        return setUniformValue(location, value);
+    }
+
+    @Override
+    public boolean setUniform(int location, int value)
+    {
+        return setUniformValue(location, value);
+    }
+
+    @Override
+    public boolean setUniform(int location, Matrix4 value)
+    {
+        return setUniformValue(location, value);
+    }
+
+    @Override
+    public boolean setUniform(String name, boolean value)
+    {
+        return this.setUniform(this.getUniformLocation(name), value);
+    }
+
+    @Override
+    public boolean setUniform(String name, Vector4 value)
+    {
+        return this.setUniform(this.getUniformLocation(name), value);
+    }
+
+    @Override
+    public boolean setUniform(String name, Vector3 value)
+    {
+        return this.setUniform(this.getUniformLocation(name), value);
+    }
+
+    @Override
+    public boolean setUniform(String name, Vector2 value)
+    {
+        return this.setUniform(this.getUniformLocation(name), value);
+    }
+
+    @Override
+    public boolean setUniform(String name, float value)
+    {
+        return this.setUniform(this.getUniformLocation(name), value);
+    }
+
+    @Override
+    public boolean setUniform(String name, IntVector4 value)
+    {
+        return this.setUniform(this.getUniformLocation(name), value);
+    }
+
+    @Override
+    public boolean setUniform(String name, IntVector3 value)
+    {
+        return this.setUniform(this.getUniformLocation(name), value);
+    }
+
+    @Override
+    public boolean setUniform(String name, IntVector2 value)
+    {
+        return this.setUniform(this.getUniformLocation(name), value);
+    }
+
+    @Override
+    public boolean setUniform(String name, int value)
+    {
+        return this.setUniform(this.getUniformLocation(name), value);
+    }
+
+    @Override
+    public boolean setUniform(String name, Matrix4 value)
+    {
+        return this.setUniform(this.getUniformLocation(name), value);
+    }
+
+    @Override
+    public boolean setTexture(int location, Texture<CpuContext> texture)
+    {
+        if (texture instanceof CpuTexture2D || texture instanceof CpuTexture3D)
+        {
+            return setUniformValue(location, texture);
+        }
+        else
+        {
+            throw new IllegalArgumentException("'texture' must be of type CpuTexture2D or CpuTexture3D.");
+        }
+    }
+
+    @Override
+    public boolean setTexture(String name, Texture<CpuContext> texture)
+    {
+        return this.setTexture(this.getUniformLocation(name), texture);
+    }
+
+    @Override
+    public boolean setUniformBuffer(int index, UniformBuffer<CpuContext> buffer)
+    {
+        if (buffer instanceof CpuUniformBuffer)
+        {
+            if (index >= 0)
+            {
+                while (uniformBuffers.size() <= index)
+                {
+                    uniformBuffers.add(null);
+                }
+                uniformBuffers.set(index, (CpuUniformBuffer)buffer);
+                return true;
+            }
+            else
+            {
+                return false;
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("'buffer' must be of type CpuUniformBuffer.");
+        }
+    }
+
+    @Override
+    public boolean setUniformBuffer(String name, UniformBuffer<CpuContext> buffer)
+    {
+        return this.setUniformBuffer(this.getUniformBlockIndex(name), buffer);
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
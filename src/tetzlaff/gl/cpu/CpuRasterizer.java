@@ -0,0 +1,608 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import tetzlaff.gl.core.AlphaBlendingFunction;
+import tetzlaff.gl.core.AlphaBlendingFunction.Weight;
+import tetzlaff.gl.core.PrimitiveMode;
+
+/**
+ * Executes a single draw call of the CPU rasterizer.
+ *
+ * Vertices are shaded in parallel, then assembled into triangles, which are clipped against the near and far planes,
+ * projected into the viewport, culled, and sorted into square tiles of the framebuffer, again in parallel batches.
+ * Finally the tiles are rasterized in parallel.  Each tile is rasterized by a single task that visits its triangles
+ * in submission order, so the result (including depth testing and blending) does not depend on the number of threads.
+ *
+ * Pixel centers are at half-integer coordinates, coverage follows the top-left rule, and the edge functions of an
+ * edge shared by two triangles are evaluated identically for both, so adjacent triangles never leave gaps or overlap.
+ * Triangles are not clipped against the sides of the view volume; fragments are restricted to the viewport instead.
+ */
+final class CpuRasterizer
+{
+    static final int TILE_SIZE = 64;
+
+    private static final int VERTICES_PER_TASK = 1024;
+    private static final int TRIANGLES_PER_TASK = 1024;
+
+    /**
+     * The maximum number of vertices of a triangle after clipping against two planes, with room to spare.
+     */
+    private static final int MAX_CLIPPED_VERTICES = 8;
+
+    private final boolean depthTestEnabled;
+    private final boolean depthWriteEnabled;
+    private final boolean backFaceCullingEnabled;
+    private final AlphaBlendingFunction alphaBlendingFunction;
+
+    private final CpuTexture2D[] colorAttachments;
+    private final CpuTexture2D depthAttachment;
+    private final int framebufferWidth;
+
+    private final float viewportX;
+    private final float viewportY;
+    private final float viewportWidth;
+    private final float viewportHeight;
+
+    // The pixels that may be written: the intersection of the viewport and the framebuffer, with exclusive upper bounds.
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+
+    private final int tilesX;
+    private final int tilesY;
+
+    CpuRasterizer(CpuContextState state, CpuFramebufferObject framebuffer, int x, int y, int width, int height)
+    {
+        this.depthTestEnabled = state.isDepthTestEnabled();
+        this.depthWriteEnabled = state.isDepthWriteEnabled();
+        this.backFaceCullingEnabled = state.isBackFaceCullingEnabled();
+        this.alphaBlendingFunction = state.getAlphaBlendingFunction();
+
+        this.colorAttachments = new CpuTexture2D[framebuffer.getColorAttachmentCount()];
+        for (int i = 0; i < colorAttachments.length; i++)
+        {
+            colorAttachments[i] = framebuffer.getColorAttachmentTexture(i);
+        }
+        this.depthAttachment = framebuffer.getDepthAttachment();
+        this.framebufferWidth = framebuffer.getSize().width;
+
+        this.viewportX = x;
+        this.viewportY = y;
+        this.viewportWidth = width;
+        this.viewportHeight = height;
+
+        this.minX = Math.max(0, x);
+        this.minY = Math.max(0, y);
+        this.maxX = Math.min(framebuffer.getSize().width, x + width);
+        this.maxY = Math.min(framebuffer.getSize().height, y + height);
+
+        this.tilesX = Math.max(0, (maxX - minX + TILE_SIZE - 1) / TILE_SIZE);
+        this.tilesY = Math.max(0, (maxY - minY + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    void draw(CpuShader shader, CpuVertexAttribute[] attributes, int vertexCount, int[] indices, PrimitiveMode primitiveMode)
+    {
+        int[] triangles = assembleTriangles(primitiveMode, indices, vertexCount);
+
+        if (tilesX == 0 || tilesY == 0 || triangles.length == 0)
+        {
+            return;
+        }
+
+        int varyingCount = shader.getVaryingCount();
+        float[] positions = new float[vertexCount * 4];
+        float[] varyings = new float[vertexCount * varyingCount];
+
+        IntStream.range(0, (vertexCount + VERTICES_PER_TASK - 1) / VERTICES_PER_TASK).parallel().forEach(task ->
+        {
+            CpuVertexInput input = new CpuVertexInput(attributes);
+            float[] position = new float[4];
+            float[] vertexVaryings = new float[varyingCount];
+
+            int end = Math.min(vertexCount, (task + 1) * VERTICES_PER_TASK);
+            for (int v = task * VERTICES_PER_TASK; v < end; v++)
+            {
+                input.setVertexIndex(v);
+                Arrays.fill(position, 0.0f);
+                shader.shadeVertex(input, position, vertexVaryings);
+                System.arraycopy(position, 0, positions, v * 4, 4);
+                System.arraycopy(vertexVaryings, 0, varyings, v * varyingCount, varyingCount);
+            }
+        });
+
+        int triangleCount = triangles.length / 3;
+        TriangleBatch[] batches = new TriangleBatch[(triangleCount + TRIANGLES_PER_TASK - 1) / TRIANGLES_PER_TASK];
+
+        IntStream.range(0, batches.length).parallel().forEach(task ->
+        {
+            TriangleBatch batch = new TriangleBatch(varyingCount, tilesX * tilesY);
+            float[][] corners = new float[3][4 + varyingCount];
+            float[][] clipped = new float[MAX_CLIPPED_VERTICES][4 + varyingCount];
+            float[][] clippedTwice = new float[MAX_CLIPPED_VERTICES][4 + varyingCount];
+
+            int end = Math.min(triangleCount, (task + 1) * TRIANGLES_PER_TASK);
+            for (int t = task * TRIANGLES_PER_TASK; t < end; t++)
+            {
+                for (int k = 0; k < 3; k++)
+                {
+                    int vertex = triangles[3 * t + k];
+                    System.arraycopy(positions, vertex * 4, corners[k], 0, 4);
+                    System.arraycopy(varyings, vertex * varyingCount, corners[k], 4, varyingCount);
+                }
+
+                setUpTriangle(batch, corners, clipped, clippedTwice);
+            }
+
+            batches[task] = batch;
+        });
+
+        IntStream.range(0, tilesX * tilesY).parallel().forEach(tile -> new TileRasterizer(shader, varyingCount).rasterize(tile, batches));
+    }
+
+    private static int[] assembleTriangles(PrimitiveMode primitiveMode, int[] indices, int vertexCount)
+    {
+        int elementCount = indices == null ? vertexCount : indices.length;
+        int[] triangles;
+
+        switch (primitiveMode)
+        {
+            case TRIANGLES:
+                triangles = new int[elementCount / 3 * 3];
+                for (int i = 0; i < triangles.length; i++)
+                {
+                    triangles[i] = i;
+                }
+                break;
+            case TRIANGLE_STRIP:
+                triangles = new int[Math.max(0, elementCount - 2) * 3];
+                for (int i = 0; i < triangles.length / 3; i++)
+                {
+                    // Every other triangle is reversed so that all triangles of the strip have the same winding.
+                    triangles[3 * i] = i % 2 == 0 ? i : i + 1;
+                    triangles[3 * i + 1] = i % 2 == 0 ? i + 1 : i;
+                    triangles[3 * i + 2] = i + 2;
+                }
+                break;
+            case TRIANGLE_FAN:
+                triangles = new int[Math.max(0, elementCount - 2) * 3];
+                for (int i = 0; i < triangles.length / 3; i++)
+                {
+                    triangles[3 * i] = 0;
+                    triangles[3 * i + 1] = i + 1;
+                    triangles[3 * i + 2] = i + 2;
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("The CPU rasterizer only supports triangle primitives, not " + primitiveMode + '.');
+        }
+
+        if (indices != null)
+        {
+            for (int i = 0; i < triangles.length; i++)
+            {
+                triangles[i] = indices[triangles[i]];
+            }
+        }
+
+        return triangles;
+    }
+
+    /**
+     * The triangles set up by one task, in submission order, along with the triangles that overlap each tile.
+     */
+    private static final class TriangleBatch
+    {
+        // Per triangle, for each of its three vertices: window-space x, y and z, 1/w, and the varyings.
+        final int stride;
+        float[] vertexData;
+
+        // Per triangle: the first and last columns and rows of the pixels that it may cover.
+        int[] bounds;
+
+        int count;
+
+        final int[][] tileTriangles;
+        final int[] tileTriangleCounts;
+
+        TriangleBatch(int varyingCount, int tileCount)
+        {
+            this.stride = 3 * (4 + varyingCount);
+            this.vertexData = new float[stride * 64];
+            this.bounds = new int[4 * 64];
+            this.tileTriangles = new int[tileCount][];
+            this.tileTriangleCounts = new int[tileCount];
+        }
+
+        int add()
+        {
+            if (count * 4 == bounds.length)
+            {
+                vertexData = Arrays.copyOf(vertexData, vertexData.length * 2);
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            return count++;
+        }
+
+        void addToTile(int tile, int triangle)
+        {
+            if (tileTriangles[tile] == null)
+            {
+                tileTriangles[tile] = new int[16];
+            }
+            else if (tileTriangleCounts[tile] == tileTriangles[tile].length)
+            {
+                tileTriangles[tile] = Arrays.copyOf(tileTriangles[tile], tileTriangles[tile].length * 2);
+            }
+            tileTriangles[tile][tileTriangleCounts[tile]++] = triangle;
+        }
+    }
+
+    private static boolean allOutside(float[][] corners, int coordinate, float sign)
+    {
+        for (float[] corner : corners)
+        {
+            if (sign * corner[coordinate] <= corner[3])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static float clipDistance(float[] vertex, float sign)
+    {
+        // sign = 1 for the near plane (z >= -w), or -1 for the far plane (z <= w)
+        return vertex[3] + sign * vertex[2];
+    }
+
+    /**
+     * Clips a convex polygon in clip space against the near or far plane.
+     * @return The number of vertices of the clipped polygon.
+     */
+    private static int clipPolygon(float[][] polygon, int vertexCount, float sign, float[][] result)
+    {
+        int resultCount = 0;
+        for (int i = 0; i < vertexCount; i++)
+        {
+            float[] a = polygon[i];
+            float[] b = polygon[(i + 1) % vertexCount];
+            float distanceA = clipDistance(a, sign);
+            float distanceB = clipDistance(b, sign);
+
+            if (distanceA >= 0)
+            {
+                System.arraycopy(a, 0, result[resultCount++], 0, a.length);
+            }
+
+            if ((distanceA >= 0) != (distanceB >= 0))
+            {
+                // Always interpolate from the inside vertex so that an edge shared by two triangles is clipped at the same point.
+                float[] inside = distanceA >= 0 ? a : b;
+                float[] outside = distanceA >= 0 ? b : a;
+                float distanceInside = distanceA >= 0 ? distanceA : distanceB;
+                float distanceOutside = distanceA >= 0 ? distanceB : distanceA;
+                float t = distanceInside / (distanceInside - distanceOutside);
+
+                float[] intersection = result[resultCount++];
+                for (int k = 0; k < a.length; k++)
+                {
+                    intersection[k] = inside[k] + t * (outside[k] - inside[k]);
+                }
+            }
+        }
+        return resultCount;
+    }
+
+    private void setUpTriangle(TriangleBatch batch, float[][] corners, float[][] clipped, float[][] clippedTwice)
+    {
+        for (int coordinate = 0; coordinate < 3; coordinate++)
+        {
+            if (allOutside(corners, coordinate, 1.0f) || allOutside(corners, coordinate, -1.0f))
+            {
+                return;
+            }
+        }
+
+        boolean insideDepthRange = true;
+        for (float[] corner : corners)
+        {
+            insideDepthRange = insideDepthRange && clipDistance(corner, 1.0f) >= 0 && clipDistance(corner, -1.0f) >= 0;
+        }
+
+        if (insideDepthRange)
+        {
+            setUpClippedTriangle(batch, corners[0], corners[1], corners[2]);
+        }
+        else
+        {
+            int count = clipPolygon(corners, 3, 1.0f, clipped);
+            count = clipPolygon(clipped, count, -1.0f, clippedTwice);
+            for (int k = 1; k < count - 1; k++)
+            {
+                setUpClippedTriangle(batch, clippedTwice[0], clippedTwice[k], clippedTwice[k + 1]);
+            }
+        }
+    }
+
+    private void setUpClippedTriangle(TriangleBatch batch, float[] a, float[] b, float[] c)
+    {
+        if (!(a[3] > 0 && b[3] > 0 && c[3] > 0))
+        {
+            // Only possible for degenerate triangles on the plane w = 0.
+            return;
+        }
+
+        float ax = viewportX + (a[0] / a[3] + 1) * 0.5f * viewportWidth;
+        float ay = viewportY + (a[1] / a[3] + 1) * 0.5f * viewportHeight;
+        float bx = viewportX + (b[0] / b[3] + 1) * 0.5f * viewportWidth;
+        float by = viewportY + (b[1] / b[3] + 1) * 0.5f * viewportHeight;
+        float cx = viewportX + (c[0] / c[3] + 1) * 0.5f * viewportWidth;
+        float cy = viewportY + (c[1] / c[3] + 1) * 0.5f * viewportHeight;
+
+        double area = ((double)bx - ax) * ((double)cy - ay) - ((double)cx - ax) * ((double)by - ay);
+
+        if (!(area > 0 || area < 0) || backFaceCullingEnabled && area < 0)
+        {
+            // Degenerate or culled (counter-clockwise triangles are front-facing).
+            return;
+        }
+
+        int minPixelX = Math.max(minX, (int)Math.ceil(Math.min(ax, Math.min(bx, cx)) - 0.5));
+        int minPixelY = Math.max(minY, (int)Math.ceil(Math.min(ay, Math.min(by, cy)) - 0.5));
+        int maxPixelX = Math.min(maxX - 1, (int)Math.floor(Math.max(ax, Math.max(bx, cx)) - 0.5));
+        int maxPixelY = Math.min(maxY - 1, (int)Math.floor(Math.max(ay, Math.max(by, cy)) - 0.5));
+
+        if (minPixelX > maxPixelX || minPixelY > maxPixelY)
+        {
+            return;
+        }
+
+        int triangle = batch.add();
+
+        // Clockwise triangles are stored in counter-clockwise order so that the rasterizer only needs to handle one winding.
+        int offset = triangle * batch.stride;
+        int vertexStride = batch.stride / 3;
+        storeVertex(batch.vertexData, offset, a, ax, ay);
+        storeVertex(batch.vertexData, offset + (area > 0 ? 1 : 2) * vertexStride, b, bx, by);
+        storeVertex(batch.vertexData, offset + (area > 0 ? 2 : 1) * vertexStride, c, cx, cy);
+
+        batch.bounds[4 * triangle] = minPixelX;
+        batch.bounds[4 * triangle + 1] = minPixelY;
+        batch.bounds[4 * triangle + 2] = maxPixelX;
+        batch.bounds[4 * triangle + 3] = maxPixelY;
+
+        for (int tileY = (minPixelY - minY) / TILE_SIZE; tileY <= (maxPixelY - minY) / TILE_SIZE; tileY++)
+        {
+            for (int tileX = (minPixelX - minX) / TILE_SIZE; tileX <= (maxPixelX - minX) / TILE_SIZE; tileX++)
+            {
+                batch.addToTile(tileY * tilesX + tileX, triangle);
+            }
+        }
+    }
+
+    private static void storeVertex(float[] vertexData, int offset, float[] clipVertex, float windowX, float windowY)
+    {
+        float inverseW = 1.0f / clipVertex[3];
+        vertexData[offset] = windowX;
+        vertexData[offset + 1] = windowY;
+        vertexData[offset + 2] = (clipVertex[2] * inverseW + 1) * 0.5f;
+        vertexData[offset + 3] = inverseW;
+        System.arraycopy(clipVertex, 4, vertexData, offset + 4, clipVertex.length - 4);
+    }
+
+    private static float getBlendingWeight(Weight weight, float[] source, float[] destination, int channel)
+    {
+        switch (weight)
+        {
+            case ZERO: return 0.0f;
+            case ONE: return 1.0f;
+            case SRC_COLOR: return source[channel];
+            case ONE_MINUS_SRC_COLOR: return 1.0f - source[channel];
+            case DST_COLOR: return destination[channel];
+            case ONE_MINUS_DST_COLOR: return 1.0f - destination[channel];
+            case SRC_ALPHA: return source[3];
+            case ONE_MINUS_SRC_ALPHA: return 1.0f - source[3];
+            case DST_ALPHA: return destination[3];
+            case ONE_MINUS_DST_ALPHA: return 1.0f - destination[3];
+            default: throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Rasterizes the triangles of a single tile, with its own scratch space.
+     */
+    private final class TileRasterizer
+    {
+        private final CpuShader shader;
+        private final int varyingCount;
+        private final CpuFragment fragment;
+        private final float[] varyings;
+        private final float[] destinationColor = new float[4];
+        private final float[] blendedColor = new float[4];
+
+        // For each edge: the origin and direction in a canonical order, the sign that corrects for that order,
+        // and whether the edge is a top or left edge.
+        private final double[] edgeOriginX = new double[3];
+        private final double[] edgeOriginY = new double[3];
+        private final double[] edgeDeltaX = new double[3];
+        private final double[] edgeDeltaY = new double[3];
+        private final double[] edgeSign = new double[3];
+        private final boolean[] edgeTopLeft = new boolean[3];
+
+        TileRasterizer(CpuShader shader, int varyingCount)
+        {
+            this.shader = shader;
+            this.varyingCount = varyingCount;
+            this.fragment = new CpuFragment(colorAttachments.length);
+            this.varyings = new float[varyingCount];
+        }
+
+        void rasterize(int tile, TriangleBatch[] batches)
+        {
+            int tileMinX = minX + tile % tilesX * TILE_SIZE;
+            int tileMinY = minY + tile / tilesX * TILE_SIZE;
+            int tileMaxX = Math.min(maxX, tileMinX + TILE_SIZE) - 1;
+            int tileMaxY = Math.min(maxY, tileMinY + TILE_SIZE) - 1;
+
+            for (TriangleBatch batch : batches)
+            {
+                int[] triangles = batch.tileTriangles[tile];
+                for (int i = 0; i < batch.tileTriangleCounts[tile]; i++)
+                {
+                    rasterizeTriangle(batch, triangles[i], tileMinX, tileMinY, tileMaxX, tileMaxY);
+                }
+            }
+        }
+
+        private void setUpEdge(int edge, double fromX, double fromY, double toX, double toY)
+        {
+            // The edge is always evaluated from its lexicographically smaller endpoint,
+            // so that the two triangles sharing an edge compute exactly opposite values.
+            boolean reversed = toX < fromX || toX == fromX && toY < fromY;
+            edgeOriginX[edge] = reversed ? toX : fromX;
+            edgeOriginY[edge] = reversed ? toY : fromY;
+            edgeDeltaX[edge] = reversed ? fromX - toX : toX - fromX;
+            edgeDeltaY[edge] = reversed ? fromY - toY : toY - fromY;
+            edgeSign[edge] = reversed ? -1.0 : 1.0;
+
+            // With y pointing up and counter-clockwise winding, left edges point down and top edges point left.
+            edgeTopLeft[edge] = toY < fromY || toY == fromY && toX < fromX;
+        }
+
+        private void rasterizeTriangle(TriangleBatch batch, int triangle, int tileMinX, int tileMinY, int tileMaxX, int tileMaxY)
+        {
+            int firstX = Math.max(tileMinX, batch.bounds[4 * triangle]);
+            int firstY = Math.max(tileMinY, batch.bounds[4 * triangle + 1]);
+            int lastX = Math.min(tileMaxX, batch.bounds[4 * triangle + 2]);
+            int lastY = Math.min(tileMaxY, batch.bounds[4 * triangle + 3]);
+
+            float[] data = batch.vertexData;
+            int a = triangle * batch.stride;
+            int b = a + batch.stride / 3;
+            int c = b + batch.stride / 3;
+
+            // Edge k is opposite vertex k, so its edge function is proportional to the barycentric coordinate of vertex k.
+            setUpEdge(0, data[b], data[b + 1], data[c], data[c + 1]);
+            setUpEdge(1, data[c], data[c + 1], data[a], data[a + 1]);
+            setUpEdge(2, data[a], data[a + 1], data[b], data[b + 1]);
+
+            for (int y = firstY; y <= lastY; y++)
+            {
+                double centerY = y + 0.5;
+                double row0 = edgeDeltaX[0] * (centerY - edgeOriginY[0]);
+                double row1 = edgeDeltaX[1] * (centerY - edgeOriginY[1]);
+                double row2 = edgeDeltaX[2] * (centerY - edgeOriginY[2]);
+
+                for (int x = firstX; x <= lastX; x++)
+                {
+                    double centerX = x + 0.5;
+
+                    double e0 = edgeSign[0] * (row0 - edgeDeltaY[0] * (centerX - edgeOriginX[0]));
+                    if (e0 < 0 || e0 == 0 && !edgeTopLeft[0])
+                    {
+                        continue;
+                    }
+
+                    double e1 = edgeSign[1] * (row1 - edgeDeltaY[1] * (centerX - edgeOriginX[1]));
+                    if (e1 < 0 || e1 == 0 && !edgeTopLeft[1])
+                    {
+                        continue;
+                    }
+
+                    double e2 = edgeSign[2] * (row2 - edgeDeltaY[2] * (centerX - edgeOriginX[2]));
+                    if (e2 < 0 || e2 == 0 && !edgeTopLeft[2])
+                    {
+                        continue;
+                    }
+
+                    double sum = e0 + e1 + e2;
+                    if (!(sum > 0))
+                    {
+                        continue;
+                    }
+
+                    shadeFragment(data, a, b, c, x, y, (float)(e0 / sum), (float)(e1 / sum), (float)(e2 / sum));
+                }
+            }
+        }
+
+        private void shadeFragment(float[] data, int a, int b, int c, int x, int y, float weightA, float weightB, float weightC)
+        {
+            int pixel = y * framebufferWidth + x;
+
+            // Depth is interpolated linearly in window space.
+            // Interpolating relative to the first vertex reproduces attributes that are constant across the triangle exactly.
+            float depth = data[a + 2] + weightB * (data[b + 2] - data[a + 2]) + weightC * (data[c + 2] - data[a + 2]);
+            depth = Math.max(0.0f, Math.min(depth, 1.0f));
+
+            boolean depthTest = depthTestEnabled && depthAttachment != null;
+            if (depthTest && !(depth < depthAttachment.getDepth(pixel)))
+            {
+                return;
+            }
+
+            // Varyings are interpolated in clip space, with the window-space weights scaled by 1/w and renormalized.
+            float inverseW = weightA * data[a + 3] + weightB * data[b + 3] + weightC * data[c + 3];
+            float perspectiveWeightB = weightB * data[b + 3] / inverseW;
+            float perspectiveWeightC = weightC * data[c + 3] / inverseW;
+            for (int k = 4; k < 4 + varyingCount; k++)
+            {
+                varyings[k - 4] = data[a + k] + perspectiveWeightB * (data[b + k] - data[a + k]) + perspectiveWeightC * (data[c + k] - data[a + k]);
+            }
+
+            fragment.reset(x, y, depth);
+            if (!shader.shadeFragment(varyings, fragment))
+            {
+                return;
+            }
+
+            if (depthTest && depthWriteEnabled)
+            {
+                depthAttachment.setDepth(pixel, depth);
+            }
+
+            for (int i = 0; i < colorAttachments.length; i++)
+            {
+                CpuTexture2D attachment = colorAttachments[i];
+                if (attachment != null && fragment.isWritten(i))
+                {
+                    if (attachment.isIntegerFormat())
+                    {
+                        attachment.setTexel(pixel, fragment.getIntegerColor(i));
+                    }
+                    else if (alphaBlendingFunction != null)
+                    {
+                        float[] sourceColor = fragment.getColor(i);
+                        attachment.getTexel(pixel, destinationColor);
+                        for (int channel = 0; channel < 4; channel++)
+                        {
+                            blendedColor[channel] =
+                                sourceColor[channel] * getBlendingWeight(alphaBlendingFunction.sourceWeightFunction, sourceColor, destinationColor, channel)
+                                + destinationColor[channel] * getBlendingWeight(alphaBlendingFunction.destinationWeightFunction, sourceColor, destinationColor, channel);
+                        }
+                        attachment.setTexel(pixel, blendedColor);
+                    }
+                    else
+                    {
+                        attachment.setTexel(pixel, fragment.getColor(i));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+/**
+ * A vertex and fragment shader pair implemented in Java, for use with the CPU rasterizer.
+ * The CPU rasterizer cannot run GLSL, so each program that is to be drawn headlessly needs a Java port of its shaders,
+ * registered with CpuContext.registerShader() under the same shader files that the OpenGL version of the program is built from.
+ * The shading methods are called concurrently from many threads during a draw call, so they must not modify any state
+ * other than their arguments; per-draw state should be resolved in prepare(), which is called once before the draw starts.
+ */
+public interface CpuShader
+{
+    /**
+     * Gets the number of values that are passed from each vertex to the fragments and interpolated across each triangle.
+     * @return The number of varyings.
+     */
+    int getVaryingCount();
+
+    /**
+     * Called on the drawing thread at the start of each draw call so that the shader can look up the
+     * current uniforms, textures and vertex attribute locations of the program.
+     * @param program The program being drawn.
+     */
+    default void prepare(CpuProgram program)
+    {
+    }
+
+    /**
+     * Transforms a single vertex.
+     * @param input The vertex attributes of the vertex.
+     * @param position An array of length four to receive the clip-space position of the vertex (the equivalent of gl_Position).
+     * @param varyings An array of length getVaryingCount() to receive the values to be interpolated.
+     */
+    void shadeVertex(CpuVertexInput input, float[] position, float[] varyings);
+
+    /**
+     * Shades a single fragment.
+     * @param varyings The perspective-correct interpolated varyings at the center of the fragment.
+     * @param fragment The fragment, which receives the output colors.
+     * @return true if the fragment should be written, or false if it should be discarded.
+     */
+    boolean shadeFragment(float[] varyings, CpuFragment fragment);
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import tetzlaff.gl.core.Shader;
+import tetzlaff.gl.core.ShaderType;
+
+/**
+ * Identifies one of the GLSL shader files that a program is built from.
+ * The CPU rasterizer never compiles the file; the files of a program only select the CpuShader registered for them.
+ */
+final class CpuShaderFile implements Shader<CpuContext>
+{
+    private final CpuContext context;
+    private final ShaderType type;
+    private final Path path;
+
+    CpuShaderFile(CpuContext context, ShaderType type, File file)
+    {
+        this.context = context;
+        this.type = type;
+        this.path = getKey(file);
+    }
+
+    /**
+     * Gets the path under which a shader file is registered, so that different relative paths to the same file match.
+     */
+    static Path getKey(File file)
+    {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+
+    @Override
+    public CpuContext getContext()
+    {
+        return context;
+    }
+
+    ShaderType getType()
+    {
+        return type;
+    }
+
+    Path getPath()
+    {
+        return path;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
@@ -0,0 +1,572 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import tetzlaff.gl.builders.base.ColorTextureBuilderBase;
+import tetzlaff.gl.builders.base.DepthTextureBuilderBase;
+import tetzlaff.gl.core.*;
+import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
+
+/**
+ * A two-dimensional texture stored in main memory, which can be sampled by a CpuShader and used as a framebuffer attachment.
+ * Texels are stored row by row starting from the bottom row, as in OpenGL, with only as many channels as the internal format has.
+ * Values written to fixed-point formats are clamped and quantized to the precision of the format so that they read back
+ * as they would from an OpenGL texture; floating-point formats and depth are stored at single precision regardless of their size.
+ * Only the base level is stored, so mipmapping and anisotropic filtering are not supported.
+ */
+public final class CpuTexture2D implements Texture2D<CpuContext>
+{
+    private final CpuContext context;
+    private final TextureType textureType;
+    private final ColorFormat format;
+    private final int width;
+    private final int height;
+    private final int channelCount;
+    private final boolean linearFilteringEnabled;
+
+    // Exactly one of these is non-null: integer formats are stored as ints, and everything else (including depth) as floats.
+    private final float[] floatData;
+    private final int[] intData;
+
+    // Per channel: the number of quantization steps between 0 and 1 for fixed-point formats (0 if not quantized),
+    // and the range of representable values.
+    private final float[] quantizationSteps;
+    private final float[] minValues;
+    private final float[] maxValues;
+    private final int[] minIntValues;
+    private final int[] maxIntValues;
+
+    private TextureWrapMode wrapS = TextureWrapMode.None;
+    private TextureWrapMode wrapT = TextureWrapMode.None;
+
+    CpuTexture2D(CpuContext context, ColorFormat format, int width, int height, boolean linearFilteringEnabled)
+    {
+        this.context = context;
+        this.textureType = TextureType.COLOR;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.channelCount = CpuFormats.getChannelCount(format);
+        this.linearFilteringEnabled = linearFilteringEnabled && !CpuFormats.isInteger(format);
+
+        this.quantizationSteps = new float[channelCount];
+        this.minValues = new float[channelCount];
+        this.maxValues = new float[channelCount];
+        this.minIntValues = new int[channelCount];
+        this.maxIntValues = new int[channelCount];
+
+        for (int i = 0; i < channelCount; i++)
+        {
+            int bits = Math.min(31, CpuFormats.getChannelBits(format, i));
+
+            switch (format.dataType)
+            {
+                case NORMALIZED_FIXED_POINT:
+                case SRGB_FIXED_POINT:
+                    quantizationSteps[i] = (float)((1L << bits) - 1);
+                    minValues[i] = 0.0f;
+                    maxValues[i] = 1.0f;
+                    break;
+                case SIGNED_FIXED_POINT:
+                    quantizationSteps[i] = (float)((1L << (bits - 1)) - 1);
+                    minValues[i] = -1.0f;
+                    maxValues[i] = 1.0f;
+                    break;
+                case UNSIGNED_INTEGER:
+                    minIntValues[i] = 0;
+                    maxIntValues[i] = (int)((1L << bits) - 1);
+                    break;
+                case SIGNED_INTEGER:
+                    minIntValues[i] = (int)-(1L << (bits - 1));
+                    maxIntValues[i] = (int)((1L << (bits - 1)) - 1);
+                    break;
+                case FLOATING_POINT:
+                default:
+                    minValues[i] = Float.NEGATIVE_INFINITY;
+                    maxValues[i] = Float.POSITIVE_INFINITY;
+                    break;
+            }
+        }
+
+        if (CpuFormats.isInteger(format))
+        {
+            this.floatData = null;
+            this.intData = new int[width * height * channelCount];
+        }
+        else
+        {
+            this.floatData = new float[width * height * channelCount];
+            this.intData = null;
+        }
+    }
+
+    CpuTexture2D(CpuContext context, boolean floatingPointDepth, int width, int height, boolean linearFilteringEnabled)
+    {
+        this.context = context;
+        this.textureType = floatingPointDepth ? TextureType.FLOATING_POINT_DEPTH : TextureType.DEPTH;
+        this.format = null;
+        this.width = width;
+        this.height = height;
+        this.channelCount = 1;
+        this.linearFilteringEnabled = linearFilteringEnabled;
+        this.quantizationSteps = new float[1];
+        this.minValues = new float[] { 0.0f };
+        this.maxValues = new float[] { 1.0f };
+        this.minIntValues = new int[1];
+        this.maxIntValues = new int[1];
+        this.floatData = new float[width * height];
+        this.intData = null;
+
+        Arrays.fill(this.floatData, 1.0f);
+    }
+
+    static class ColorBuilder extends ColorTextureBuilderBase<CpuContext, CpuTexture2D>
+    {
+        private final int width;
+        private final int height;
+        private final NativeVectorBuffer data;
+        private final BufferedImage colorImage;
+        private final BufferedImage maskImage;
+        private final boolean flipVertical;
+
+        ColorBuilder(CpuContext context, int width, int height, NativeVectorBuffer data)
+        {
+            super(context);
+            this.width = width;
+            this.height = height;
+            this.data = data;
+            this.colorImage = null;
+            this.maskImage = null;
+            this.flipVertical = false;
+        }
+
+        ColorBuilder(CpuContext context, BufferedImage colorImage, BufferedImage maskImage, boolean flipVertical)
+        {
+            super(context);
+            this.width = colorImage.getWidth();
+            this.height = colorImage.getHeight();
+            this.data = null;
+            this.colorImage = colorImage;
+            this.maskImage = maskImage;
+            this.flipVertical = flipVertical;
+        }
+
+        @Override
+        public CpuTexture2D createTexture()
+        {
+            if (this.isInternalFormatCompressed())
+            {
+                throw new UnsupportedOperationException("Compressed textures are not supported by the CPU rasterizer.");
+            }
+
+            CpuTexture2D texture = new CpuTexture2D(context, this.getInternalColorFormat(), width, height, this.isLinearFilteringEnabled());
+
+            if (data != null)
+            {
+                texture.load(data);
+            }
+            else if (colorImage != null)
+            {
+                texture.loadImage(colorImage, maskImage, flipVertical);
+            }
+
+            return texture;
+        }
+    }
+
+    static class DepthBuilder extends DepthTextureBuilderBase<CpuContext, CpuTexture2D>
+    {
+        private final int width;
+        private final int height;
+
+        DepthBuilder(CpuContext context, int width, int height)
+        {
+            super(context);
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public CpuTexture2D createTexture()
+        {
+            return new CpuTexture2D(context, this.isFloatingPointEnabled(), width, height, this.isLinearFilteringEnabled());
+        }
+    }
+
+    @Override
+    public CpuContext getContext()
+    {
+        return context;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return width;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return height;
+    }
+
+    @Override
+    public int getMipmapLevelCount()
+    {
+        return 1;
+    }
+
+    @Override
+    public ColorFormat getInternalUncompressedColorFormat()
+    {
+        return format;
+    }
+
+    @Override
+    public CompressionFormat getInternalCompressedColorFormat()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean isInternalFormatCompressed()
+    {
+        return false;
+    }
+
+    @Override
+    public TextureType getTextureType()
+    {
+        return textureType;
+    }
+
+    boolean isIntegerFormat()
+    {
+        return intData != null;
+    }
+
+    boolean isDepthFormat()
+    {
+        return format == null;
+    }
+
+    @Override
+    public void setTextureWrap(TextureWrapMode wrapS, TextureWrapMode wrapT)
+    {
+        this.wrapS = wrapS;
+        this.wrapT = wrapT;
+    }
+
+    private float getChannel(int texelIndex, int channel)
+    {
+        if (channel < channelCount)
+        {
+            return floatData != null ? floatData[texelIndex * channelCount + channel] : intData[texelIndex * channelCount + channel];
+        }
+        else
+        {
+            return channel == 3 ? 1.0f : 0.0f;
+        }
+    }
+
+    /**
+     * Reads a single texel without filtering (the equivalent of texelFetch()).
+     * Channels that the format does not have read as 0, except for alpha, which reads as 1.
+     * Depth textures read as (depth, 0, 0, 1).
+     * @param x The column of the texel.
+     * @param y The row of the texel, counting from the bottom.
+     * @param result An array of length four to receive the texel.
+     */
+    public void fetch(int x, int y, float[] result)
+    {
+        int texelIndex = y * width + x;
+        for (int i = 0; i < 4; i++)
+        {
+            result[i] = getChannel(texelIndex, i);
+        }
+    }
+
+    /**
+     * Reads a single texel of an integer texture without filtering.
+     * @param x The column of the texel.
+     * @param y The row of the texel, counting from the bottom.
+     * @param result An array of length four to receive the texel.
+     */
+    public void fetchInteger(int x, int y, int[] result)
+    {
+        int texelIndex = y * width + x;
+        for (int i = 0; i < 4; i++)
+        {
+            if (i < channelCount)
+            {
+                result[i] = intData != null ? intData[texelIndex * channelCount + i] : (int)floatData[texelIndex * channelCount + i];
+            }
+            else
+            {
+                result[i] = i == 3 ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * Samples the texture at normalized texture coordinates, using bilinear filtering if linear filtering was enabled
+     * when the texture was built, and the texture's wrap modes for coordinates outside of [0, 1].
+     * @param s The horizontal texture coordinate.
+     * @param t The vertical texture coordinate.
+     * @param result An array of length four to receive the filtered color.
+     */
+    public void sample(float s, float t, float[] result)
+    {
+        if (linearFilteringEnabled)
+        {
+            float u = s * width - 0.5f;
+            float v = t * height - 0.5f;
+            int x0 = (int)Math.floor(u);
+            int y0 = (int)Math.floor(v);
+            float fx = u - x0;
+            float fy = v - y0;
+
+            int xa = CpuFormats.wrap(x0, width, wrapS);
+            int xb = CpuFormats.wrap(x0 + 1, width, wrapS);
+            int ya = CpuFormats.wrap(y0, height, wrapT) * width;
+            int yb = CpuFormats.wrap(y0 + 1, height, wrapT) * width;
+
+            for (int i = 0; i < 4; i++)
+            {
+                float bottom = getChannel(ya + xa, i) * (1 - fx) + getChannel(ya + xb, i) * fx;
+                float top = getChannel(yb + xa, i) * (1 - fx) + getChannel(yb + xb, i) * fx;
+                result[i] = bottom * (1 - fy) + top * fy;
+            }
+        }
+        else
+        {
+            int x = CpuFormats.wrap((int)Math.floor(s * width), width, wrapS);
+            int y = CpuFormats.wrap((int)Math.floor(t * height), height, wrapT);
+            fetch(x, y, result);
+        }
+    }
+
+    void getTexel(int texelIndex, float[] rgba)
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            rgba[i] = getChannel(texelIndex, i);
+        }
+    }
+
+    void setTexel(int texelIndex, float[] rgba)
+    {
+        if (floatData != null)
+        {
+            for (int i = 0; i < channelCount; i++)
+            {
+                floatData[texelIndex * channelCount + i] = quantize(rgba[i], i);
+            }
+        }
+        else
+        {
+            for (int i = 0; i < channelCount; i++)
+            {
+                intData[texelIndex * channelCount + i] = clampInteger((long)rgba[i], i);
+            }
+        }
+    }
+
+    void setTexel(int texelIndex, int[] rgba)
+    {
+        if (intData != null)
+        {
+            for (int i = 0; i < channelCount; i++)
+            {
+                intData[texelIndex * channelCount + i] = clampInteger(rgba[i], i);
+            }
+        }
+        else
+        {
+            for (int i = 0; i < channelCount; i++)
+            {
+                floatData[texelIndex * channelCount + i] = quantize(rgba[i], i);
+            }
+        }
+    }
+
+    float getDepth(int texelIndex)
+    {
+        return floatData[texelIndex];
+    }
+
+    void setDepth(int texelIndex, float depth)
+    {
+        floatData[texelIndex] = depth;
+    }
+
+    private float quantize(float value, int channel)
+    {
+        float clamped = Math.max(minValues[channel], Math.min(value, maxValues[channel]));
+        float steps = quantizationSteps[channel];
+        return steps > 0 ? Math.round(clamped * steps) / steps : clamped;
+    }
+
+    private int clampInteger(long value, int channel)
+    {
+        return (int)Math.max(minIntValues[channel], Math.min(value, maxIntValues[channel]));
+    }
+
+    void clear(float r, float g, float b, float a)
+    {
+        float[] rgba = { r, g, b, a };
+        IntStream.range(0, height).parallel().forEach(y ->
+        {
+            for (int x = 0; x < width; x++)
+            {
+                setTexel(y * width + x, rgba);
+            }
+        });
+    }
+
+    void clear(int r, int g, int b, int a)
+    {
+        int[] rgba = { r, g, b, a };
+        IntStream.range(0, height).parallel().forEach(y ->
+        {
+            for (int x = 0; x < width; x++)
+            {
+                setTexel(y * width + x, rgba);
+            }
+        });
+    }
+
+    void clearDepth(float depth)
+    {
+        Arrays.fill(floatData, Math.max(0.0f, Math.min(depth, 1.0f)));
+    }
+
+    @Override
+    public void load(NativeVectorBuffer data)
+    {
+        if (data.getCount() != width * height)
+        {
+            throw new IllegalArgumentException("The buffer must contain exactly one vector per texel.");
+        }
+
+        int dimensions = data.getDimensions();
+
+        if (intData != null)
+        {
+            IntStream.range(0, height).parallel().forEach(y ->
+            {
+                int[] rgba = new int[4];
+                for (int x = 0; x < width; x++)
+                {
+                    int texelIndex = y * width + x;
+                    for (int i = 0; i < 4; i++)
+                    {
+                        rgba[i] = i < dimensions ? data.getInt(texelIndex, i) : i == 3 ? 1 : 0;
+                    }
+                    setTexel(texelIndex, rgba);
+                }
+            });
+        }
+        else
+        {
+            // Integer data is normalized when it is loaded into a fixed-point or floating-point texture.
+            boolean normalize = !CpuFormats.isFloatingPoint(data.getDataType());
+            float scale = CpuFormats.getNormalizationScale(data.getDataType());
+
+            IntStream.range(0, height).parallel().forEach(y ->
+            {
+                float[] rgba = new float[4];
+                for (int x = 0; x < width; x++)
+                {
+                    int texelIndex = y * width + x;
+                    for (int i = 0; i < 4; i++)
+                    {
+                        if (i < dimensions)
+                        {
+                            rgba[i] = normalize ? Math.max(-1.0f, data.getInt(texelIndex, i) * scale) : data.getFloat(texelIndex, i);
+                        }
+                        else
+                        {
+                            rgba[i] = i == 3 ? 1.0f : 0.0f;
+                        }
+                    }
+
+                    if (isDepthFormat())
+                    {
+                        setDepth(texelIndex, rgba[0]);
+                    }
+                    else
+                    {
+                        setTexel(texelIndex, rgba);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads an image into the texture.
+     * @param colorImage The image, which must have the same size as the texture.
+     * @param maskImage An optional mask, the green channel of which replaces the alpha channel of the image.  May be null.
+     * @param flipVertical Whether the top row of the image should become the bottom row of the texture.
+     */
+    void loadImage(BufferedImage colorImage, BufferedImage maskImage, boolean flipVertical)
+    {
+        if (colorImage.getWidth() != width || colorImage.getHeight() != height)
+        {
+            throw new IllegalArgumentException("The image must have the same size as the texture.");
+        }
+
+        IntStream.range(0, height).parallel().forEach(y ->
+        {
+            int imageRow = flipVertical ? height - 1 - y : y;
+            int[] colorRow = colorImage.getRGB(0, imageRow, width, 1, null, 0, width);
+            int[] maskRow = maskImage == null ? null : maskImage.getRGB(0, imageRow, width, 1, null, 0, width);
+
+            float[] rgba = new float[4];
+            int[] integerRGBA = new int[4];
+            for (int x = 0; x < width; x++)
+            {
+                int argb = colorRow[x];
+                integerRGBA[0] = (argb >>> 16) & 0xFF;
+                integerRGBA[1] = (argb >>> 8) & 0xFF;
+                integerRGBA[2] = argb & 0xFF;
+                integerRGBA[3] = maskRow == null ? argb >>> 24 : (maskRow[x] >>> 8) & 0xFF;
+
+                if (intData != null)
+                {
+                    setTexel(y * width + x, integerRGBA);
+                }
+                else
+                {
+                    for (int i = 0; i < 4; i++)
+                    {
+                        rgba[i] = integerRGBA[i] / 255.0f;
+                    }
+                    setTexel(y * width + x, rgba);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close()
+    {
+        // The texture's memory is reclaimed by the garbage collector.
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+import javax.imageio.ImageIO;
+
+import tetzlaff.gl.builders.base.ColorTextureBuilderBase;
+import tetzlaff.gl.builders.base.DepthTextureBuilderBase;
+import tetzlaff.gl.core.*;
+import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
+import tetzlaff.gl.types.AbstractDataType;
+
+/**
+ * A two-dimensional texture array stored in main memory, as a list of CpuTexture2D layers that share a format.
+ * Each layer can be attached to a framebuffer directly.
+ * Images can be loaded into layers from files or streams, including images decoded ahead of time (as by ParallelLayerLoader),
+ * but mapped loading is not supported.  Images that are not the same size as the texture are scaled to fit, as with OpenGLTexture3D.
+ */
+public final class CpuTexture3D implements Texture3D<CpuContext>
+{
+    private final CpuContext context;
+    private final CpuTexture2D[] layers;
+
+    private CpuTexture3D(CpuContext context, CpuTexture2D[] layers)
+    {
+        this.context = context;
+        this.layers = layers;
+    }
+
+    static class ColorBuilder extends ColorTextureBuilderBase<CpuContext, CpuTexture3D>
+    {
+        private final int width;
+        private final int height;
+        private final int depth;
+
+        ColorBuilder(CpuContext context, int width, int height, int depth)
+        {
+            super(context);
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+        }
+
+        @Override
+        public CpuTexture3D createTexture()
+        {
+            if (this.isInternalFormatCompressed())
+            {
+                throw new UnsupportedOperationException("Compressed textures are not supported by the CPU rasterizer.");
+            }
+
+            CpuTexture2D[] layers = new CpuTexture2D[depth];
+            for (int i = 0; i < depth; i++)
+            {
+                layers[i] = new CpuTexture2D(context, this.getInternalColorFormat(), width, height, this.isLinearFilteringEnabled());
+            }
+            return new CpuTexture3D(context, layers);
+        }
+    }
+
+    static class DepthBuilder extends DepthTextureBuilderBase<CpuContext, CpuTexture3D>
+    {
+        private final int width;
+        private final int height;
+        private final int depth;
+
+        DepthBuilder(CpuContext context, int width, int height, int depth)
+        {
+            super(context);
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+        }
+
+        @Override
+        public CpuTexture3D createTexture()
+        {
+            CpuTexture2D[] layers = new CpuTexture2D[depth];
+            for (int i = 0; i < depth; i++)
+            {
+                layers[i] = new CpuTexture2D(context, this.isFloatingPointEnabled(), width, height, this.isLinearFilteringEnabled());
+            }
+            return new CpuTexture3D(context, layers);
+        }
+    }
+
+    @Override
+    public CpuContext getContext()
+    {
+        return context;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return layers[0].getWidth();
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return layers[0].getHeight();
+    }
+
+    @Override
+    public int getDepth()
+    {
+        return layers.length;
+    }
+
+    @Override
+    public int getMipmapLevelCount()
+    {
+        return 1;
+    }
+
+    @Override
+    public ColorFormat getInternalUncompressedColorFormat()
+    {
+        return layers[0].getInternalUncompressedColorFormat();
+    }
+
+    @Override
+    public CompressionFormat getInternalCompressedColorFormat()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean isInternalFormatCompressed()
+    {
+        return false;
+    }
+
+    @Override
+    public TextureType getTextureType()
+    {
+        return layers[0].getTextureType();
+    }
+
+    /**
+     * @param layerIndex The index of the layer.
+     * @return The layer, which can be sampled like any other two-dimensional texture.
+     */
+    public CpuTexture2D getLayer(int layerIndex)
+    {
+        return layers[layerIndex];
+    }
+
+    /**
+     * Samples a layer of the texture at normalized texture coordinates (the equivalent of sampling a sampler2DArray).
+     * @param s The horizontal texture coordinate.
+     * @param t The vertical texture coordinate.
+     * @param layer The layer, which is rounded to the nearest integer and clamped to the range of layers.
+     * @param result An array of length four to receive the filtered color.
+     */
+    public void sample(float s, float t, float layer, float[] result)
+    {
+        int layerIndex = Math.max(0, Math.min(Math.round(layer), layers.length - 1));
+        layers[layerIndex].sample(s, t, result);
+    }
+
+    @Override
+    public void setTextureWrap(TextureWrapMode wrapS, TextureWrapMode wrapT, TextureWrapMode wrapR)
+    {
+        // Layers are selected by index, so the wrap mode in the third dimension has no effect.
+        for (CpuTexture2D layer : layers)
+        {
+            layer.setTextureWrap(wrapS, wrapT);
+        }
+    }
+
+    /**
+     * Reads an image and scales it to the size of the texture if necessary.  Doesn't modify the texture, so it can be called from any thread.
+     */
+    private BufferedImage readImage(InputStream stream) throws IOException
+    {
+        BufferedImage image = ImageIO.read(stream);
+        if (image == null)
+        {
+            throw new IOException("Unsupported image format.");
+        }
+
+        int width = getWidth();
+        int height = getHeight();
+
+        if (image.getWidth() == width && image.getHeight() == height)
+        {
+            return image;
+        }
+        else
+        {
+            BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics resizedGraphics = resized.createGraphics();
+            resizedGraphics.drawImage(image.getScaledInstance(width, height, Image.SCALE_SMOOTH), 0, 0, null);
+            resizedGraphics.dispose();
+            return resized;
+        }
+    }
+
+    @Override
+    public void loadLayer(int layerIndex, InputStream fileStream, boolean flipVertical) throws IOException
+    {
+        layers[layerIndex].loadImage(readImage(fileStream), null, flipVertical);
+    }
+
+    @Override
+    public void loadLayer(int layerIndex, File file, boolean flipVertical) throws IOException
+    {
+        try(InputStream stream = new FileInputStream(file))
+        {
+            this.loadLayer(layerIndex, stream, flipVertical);
+        }
+    }
+
+    @Override
+    public void loadLayer(int layerIndex, InputStream imageStream, InputStream maskStream, boolean flipVertical) throws IOException
+    {
+        layers[layerIndex].loadImage(readImage(imageStream), maskStream == null ? null : readImage(maskStream), flipVertical);
+    }
+
+    @Override
+    public void loadLayer(int layerIndex, File imageFile, File maskFile, boolean flipVertical) throws IOException
+    {
+        try(InputStream imageStream = new FileInputStream(imageFile);
+            InputStream maskStream = maskFile == null ? null : new FileInputStream(maskFile))
+        {
+            this.loadLayer(layerIndex, imageStream, maskStream, flipVertical);
+        }
+    }
+
+    @Override
+    public <MappedType> void loadLayer(int layerIndex, InputStream fileStream, boolean flipVertical,
+        AbstractDataType<? super MappedType> mappedType, Function<Color, MappedType> mappingFunction)
+    {
+        throw new UnsupportedOperationException("Mapped textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public <MappedType> void loadLayer(int layerIndex, File file, boolean flipVertical,
+        AbstractDataType<? super MappedType> mappedType, Function<Color, MappedType> mappingFunction)
+    {
+        throw new UnsupportedOperationException("Mapped textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public <MappedType> void loadLayer(int layerIndex, InputStream imageStream, InputStream maskStream, boolean flipVertical,
+        AbstractDataType<? super MappedType> mappedType, Function<Color, MappedType> mappingFunction)
+    {
+        throw new UnsupportedOperationException("Mapped textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public <MappedType> void loadLayer(int layerIndex, File imageFile, File maskFile, boolean flipVertical,
+        AbstractDataType<? super MappedType> mappedType, Function<Color, MappedType> mappingFunction)
+    {
+        throw new UnsupportedOperationException("Mapped textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public void loadLayer(int layerIndex, NativeVectorBuffer data)
+    {
+        layers[layerIndex].load(data);
+    }
+
+    @Override
+    public void loadMappedLayer(int layerIndex, File file, boolean flipVertical,
+        AbstractDataType<?> mappedType, IntUnaryOperator mappingFunction)
+    {
+        throw new UnsupportedOperationException("Mapped textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public void loadMappedLayer(int layerIndex, File imageFile, File maskFile, boolean flipVertical,
+        AbstractDataType<?> mappedType, IntUnaryOperator mappingFunction)
+    {
+        throw new UnsupportedOperationException("Mapped textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public DecodedImage<CpuContext> decodeLayer(File file, boolean flipVertical) throws IOException
+    {
+        try(InputStream stream = new FileInputStream(file))
+        {
+            return new CpuDecodedImage(readImage(stream), null, flipVertical);
+        }
+    }
+
+    @Override
+    public DecodedImage<CpuContext> decodeLayer(File imageFile, File maskFile, boolean flipVertical) throws IOException
+    {
+        try(InputStream imageStream = new FileInputStream(imageFile);
+            InputStream maskStream = new FileInputStream(maskFile))
+        {
+            return new CpuDecodedImage(readImage(imageStream), readImage(maskStream), flipVertical);
+        }
+    }
+
+    @Override
+    public void loadLayer(int layerIndex, DecodedImage<CpuContext> image)
+    {
+        if (!(image instanceof CpuDecodedImage))
+        {
+            throw new IllegalArgumentException("The decoded image must have been created by a CPU texture.");
+        }
+
+        CpuDecodedImage decodedImage = (CpuDecodedImage) image;
+        layers[layerIndex].loadImage(decodedImage.getColorImage(), decodedImage.getMaskImage(), decodedImage.isFlipVertical());
+    }
+
+    @Override
+    public FramebufferAttachment<CpuContext> getLayerAsFramebufferAttachment(int layerIndex)
+    {
+        return layers[layerIndex];
+    }
+
+    @Override
+    public void close()
+    {
+        for (CpuTexture2D layer : layers)
+        {
+            layer.close();
+        }
+    }
+}
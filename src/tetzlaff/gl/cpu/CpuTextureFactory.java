@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Function;
+import javax.imageio.ImageIO;
+
+import tetzlaff.gl.builders.*;
+import tetzlaff.gl.core.*;
+import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
+import tetzlaff.gl.types.AbstractDataType;
+
+/**
+ * Builds textures for the CPU rasterizer.
+ * Two-dimensional textures and texture arrays are supported with color and depth formats;
+ * one-dimensional textures, cubemaps, stencil formats, mapped and HDR images and noise textures are not.
+ */
+final class CpuTextureFactory implements TextureFactory<CpuContext>
+{
+    private final CpuContext context;
+    private final Map<SamplerType, Texture<CpuContext>> nullTextures = new EnumMap<>(SamplerType.class);
+
+    CpuTextureFactory(CpuContext context)
+    {
+        this.context = context;
+    }
+
+    private static BufferedImage readImage(InputStream stream) throws IOException
+    {
+        BufferedImage image = ImageIO.read(stream);
+        if (image == null)
+        {
+            throw new IOException("Unsupported image format.");
+        }
+        return image;
+    }
+
+    @Override
+    public ColorTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build2DColorTextureFromStreamWithMask(
+        InputStream imageStream, InputStream maskStream, boolean flipVertical) throws IOException
+    {
+        return new CpuTexture2D.ColorBuilder(context, readImage(imageStream), maskStream == null ? null : readImage(maskStream), flipVertical);
+    }
+
+    @Override
+    public <MappedType> ColorTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build2DColorTextureFromStreamWithMask(
+        InputStream imageStream, InputStream maskStream, boolean flipVertical,
+        AbstractDataType<? super MappedType> mappedType, Function<Color, MappedType> mappingFunction)
+    {
+        throw new UnsupportedOperationException("Mapped textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public ColorTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build2DColorHDRTextureFromStreamWithMask(
+        BufferedInputStream imageStream, InputStream maskStream, boolean flipVertical)
+    {
+        throw new UnsupportedOperationException("HDR textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public ColorTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build2DColorTextureFromImageWithMask(
+        BufferedImage colorImage, BufferedImage maskImage, boolean flipVertical)
+    {
+        return new CpuTexture2D.ColorBuilder(context, colorImage, maskImage, flipVertical);
+    }
+
+    @Override
+    public <MappedType> ColorTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build2DColorTextureFromImageWithMask(
+        BufferedImage colorImage, BufferedImage maskImage, boolean flipVertical,
+        AbstractDataType<? super MappedType> mappedType, Function<Color, MappedType> mappingFunction)
+    {
+        throw new UnsupportedOperationException("Mapped textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public ColorTextureBuilder<CpuContext, ? extends Texture1D<CpuContext>> build1DColorTexture(NativeVectorBuffer data)
+    {
+        throw new UnsupportedOperationException("One-dimensional textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public ColorTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build2DColorTextureFromBuffer(int width, int height, NativeVectorBuffer data)
+    {
+        return new CpuTexture2D.ColorBuilder(context, width, height, data);
+    }
+
+    @Override
+    public ColorTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build2DColorTexture(int width, int height)
+    {
+        return new CpuTexture2D.ColorBuilder(context, width, height, null);
+    }
+
+    @Override
+    public ColorTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build1DColorTextureArray(int width, int height)
+    {
+        throw new UnsupportedOperationException("One-dimensional textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public DepthTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build2DDepthTexture(int width, int height)
+    {
+        return new CpuTexture2D.DepthBuilder(context, width, height);
+    }
+
+    @Override
+    public StencilTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build2DStencilTexture(int width, int height)
+    {
+        throw new UnsupportedOperationException("Stencil textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public DepthStencilTextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> build2DDepthStencilTexture(int width, int height)
+    {
+        throw new UnsupportedOperationException("Stencil textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public TextureBuilder<CpuContext, ? extends Texture2D<CpuContext>> buildPerlinNoiseTexture()
+    {
+        throw new UnsupportedOperationException("Noise textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public ColorTextureBuilder<CpuContext, ? extends Texture3D<CpuContext>> build2DColorTextureArray(int width, int height, int length)
+    {
+        return new CpuTexture3D.ColorBuilder(context, width, height, length);
+    }
+
+    @Override
+    public DepthTextureBuilder<CpuContext, ? extends Texture3D<CpuContext>> build2DDepthTextureArray(int width, int height, int length)
+    {
+        return new CpuTexture3D.DepthBuilder(context, width, height, length);
+    }
+
+    @Override
+    public StencilTextureBuilder<CpuContext, ? extends Texture3D<CpuContext>> build2DStencilTextureArray(int width, int height, int length)
+    {
+        throw new UnsupportedOperationException("Stencil textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public DepthStencilTextureBuilder<CpuContext, ? extends Texture3D<CpuContext>> build2DDepthStencilTextureArray(int width, int height, int length)
+    {
+        throw new UnsupportedOperationException("Stencil textures are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public ColorCubemapBuilder<CpuContext, ? extends Cubemap<CpuContext>> buildColorCubemap(int faceSize)
+    {
+        throw new UnsupportedOperationException("Cubemaps are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public DepthTextureBuilder<CpuContext, ? extends Cubemap<CpuContext>> buildDepthCubemap(int faceSize)
+    {
+        throw new UnsupportedOperationException("Cubemaps are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public StencilTextureBuilder<CpuContext, ? extends Cubemap<CpuContext>> buildStencilCubemap(int faceSize)
+    {
+        throw new UnsupportedOperationException("Cubemaps are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public DepthStencilTextureBuilder<CpuContext, ? extends Cubemap<CpuContext>> buildDepthStencilCubemap(int faceSize)
+    {
+        throw new UnsupportedOperationException("Cubemaps are not supported by the CPU rasterizer.");
+    }
+
+    @Override
+    public Texture<CpuContext> getNullTexture(SamplerType samplerType)
+    {
+        if (nullTextures.containsKey(samplerType))
+        {
+            return nullTextures.get(samplerType);
+        }
+        else
+        {
+            // Like an incomplete OpenGL texture, a null texture samples as (0, 0, 0, 1).
+            Texture<CpuContext> nullTex;
+            switch (samplerType)
+            {
+                case FLOAT_2D_ARRAY:
+                case INTEGER_2D_ARRAY:
+                case UNSIGNED_INTEGER_2D_ARRAY:
+                    CpuTexture3D array = new CpuTexture3D.ColorBuilder(context, 1, 1, 1).createTexture();
+                    array.getLayer(0).clear(0.0f, 0.0f, 0.0f, 1.0f);
+                    nullTex = array;
+                    break;
+                default:
+                    CpuTexture2D texture = new CpuTexture2D(context, ColorFormat.RGBA8, 1, 1, false);
+                    texture.clear(0.0f, 0.0f, 0.0f, 1.0f);
+                    nullTex = texture;
+                    break;
+            }
+
+            nullTextures.put(samplerType, nullTex);
+            return nullTex;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import tetzlaff.gl.core.UniformBuffer;
+import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
+
+final class CpuUniformBuffer implements UniformBuffer<CpuContext>
+{
+    private final CpuContext context;
+    private ByteBuffer data;
+
+    CpuUniformBuffer(CpuContext context)
+    {
+        this.context = context;
+        this.data = ByteBuffer.allocate(0);
+    }
+
+    @Override
+    public CpuContext getContext()
+    {
+        return context;
+    }
+
+    /**
+     * @return A read-only view of the contents of the buffer, in native byte order (the order used by native vector buffers).
+     */
+    ByteBuffer getData()
+    {
+        return data.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public CpuUniformBuffer setData(ByteBuffer data)
+    {
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate());
+        copy.flip();
+        this.data = copy;
+        return this;
+    }
+
+    @Override
+    public CpuUniformBuffer setData(NativeVectorBuffer data)
+    {
+        return this.setData(data.getBuffer());
+    }
+
+    @Override
+    public void close()
+    {
+        data = ByteBuffer.allocate(0);
+    }
+}
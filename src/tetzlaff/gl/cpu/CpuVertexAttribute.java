@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+/**
+ * A source of values for one vertex attribute location: either a vertex buffer or a constant value.
+ */
+interface CpuVertexAttribute
+{
+    /**
+     * @param vertex The index of the vertex.
+     * @param component The component, from 0 to 3.  Components beyond those stored default to 0, except for w, which defaults to 1.
+     * @return The component as a floating-point value.
+     */
+    float getFloat(int vertex, int component);
+
+    /**
+     * @param vertex The index of the vertex.
+     * @param component The component, from 0 to 3.  Components beyond those stored default to 0, except for w, which defaults to 1.
+     * @return The component as an integer value.
+     */
+    int getInt(int vertex, int component);
+}
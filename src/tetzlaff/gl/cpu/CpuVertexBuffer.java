@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import tetzlaff.gl.core.VertexBuffer;
+import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
+
+final class CpuVertexBuffer implements VertexBuffer<CpuContext>, CpuVertexAttribute
+{
+    private final CpuContext context;
+
+    private int count;
+    private int dimensions;
+
+    // Floating-point data is stored as floats, and integer data as ints, like the attribute pointers of the OpenGL implementation.
+    private float[] floatData;
+    private int[] intData;
+    private boolean normalize;
+    private float normalizationScale;
+
+    CpuVertexBuffer(CpuContext context)
+    {
+        this.context = context;
+        this.count = 0;
+        this.dimensions = 0;
+    }
+
+    @Override
+    public CpuContext getContext()
+    {
+        return context;
+    }
+
+    @Override
+    public int count()
+    {
+        return count;
+    }
+
+    @Override
+    public CpuVertexBuffer setData(NativeVectorBuffer data, boolean normalize)
+    {
+        int elementCount = data.getCount() * data.getDimensions();
+
+        if (CpuFormats.isFloatingPoint(data.getDataType()))
+        {
+            float[] newData = new float[elementCount];
+            data.get(0, newData, 0, elementCount);
+            this.floatData = newData;
+            this.intData = null;
+        }
+        else
+        {
+            int[] newData = new int[elementCount];
+            data.get(0, newData, 0, elementCount);
+            this.intData = newData;
+            this.floatData = null;
+        }
+
+        this.count = data.getCount();
+        this.dimensions = data.getDimensions();
+        this.normalize = normalize;
+        this.normalizationScale = normalize ? CpuFormats.getNormalizationScale(data.getDataType()) : 1.0f;
+        return this;
+    }
+
+    @Override
+    public float getFloat(int vertex, int component)
+    {
+        if (component < dimensions)
+        {
+            if (floatData != null)
+            {
+                return floatData[vertex * dimensions + component];
+            }
+            else if (normalize)
+            {
+                // Signed normalized values are clamped so that both -127 and -128 map to -1.
+                return Math.max(-1.0f, intData[vertex * dimensions + component] * normalizationScale);
+            }
+            else
+            {
+                return intData[vertex * dimensions + component];
+            }
+        }
+        else
+        {
+            return component == 3 ? 1.0f : 0.0f;
+        }
+    }
+
+    @Override
+    public int getInt(int vertex, int component)
+    {
+        if (component < dimensions)
+        {
+            return intData != null ? intData[vertex * dimensions + component] : (int)floatData[vertex * dimensions + component];
+        }
+        else
+        {
+            return component == 3 ? 1 : 0;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        floatData = null;
+        intData = null;
+        count = 0;
+    }
+}
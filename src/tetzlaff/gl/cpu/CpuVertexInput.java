@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+/**
+ * The vertex attributes of the vertex currently being shaded by a CpuShader.
+ * Attributes are addressed by location, as returned by CpuProgram.getVertexAttribLocation().
+ * Locations without a vertex buffer or a constant value read as (0, 0, 0, 1), as in OpenGL.
+ */
+public final class CpuVertexInput
+{
+    private final CpuVertexAttribute[] attributes;
+    private int vertexIndex;
+
+    CpuVertexInput(CpuVertexAttribute[] attributes)
+    {
+        this.attributes = attributes;
+    }
+
+    void setVertexIndex(int vertexIndex)
+    {
+        this.vertexIndex = vertexIndex;
+    }
+
+    /**
+     * @return The index of the vertex in the vertex buffers (the equivalent of gl_VertexID).
+     */
+    public int getVertexIndex()
+    {
+        return vertexIndex;
+    }
+
+    public float getFloat(int location, int component)
+    {
+        if (location >= 0 && location < attributes.length && attributes[location] != null)
+        {
+            return attributes[location].getFloat(vertexIndex, component);
+        }
+        else
+        {
+            return component == 3 ? 1.0f : 0.0f;
+        }
+    }
+
+    public int getInt(int location, int component)
+    {
+        if (location >= 0 && location < attributes.length && attributes[location] != null)
+        {
+            return attributes[location].getInt(vertexIndex, component);
+        }
+        else
+        {
+            return component == 3 ? 1 : 0;
+        }
+    }
+
+    /**
+     * Reads all four components of an attribute.
+     * @param location The attribute location.
+     * @param destination An array of length four to receive the components.
+     */
+    public void getFloats(int location, float[] destination)
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            destination[i] = getFloat(location, i);
+        }
+    }
+}
@@ -14,6 +14,7 @@ package tetzlaff.gl.nativebuffer;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.Objects;
 
 import org.lwjgl.*;
@@ -91,8 +92,23 @@ class NativeFloatVectorBuffer implements NativeVectorBuffer
         return count;
     }
 
-    @Override
-    public Float get(int index, int dimension)
+    private int getElementIndex(int index, int dimension)
+    {
+        checkIndex(index);
+        checkDimension(dimension);
+        return index * this.dimensions + dimension;
+    }
+
+    private void checkRange(int firstElement, int length)
+    {
+        if (firstElement < 0 || length < 0 || (long) firstElement + length > (long) this.dimensions * this.count)
+        {
+            throw new IndexOutOfBoundsException("Elements " + firstElement + " through " + ((long) firstElement + length - 1)
+                + " are not in the vertex list (" + this.count + " vertices with " + this.dimensions + " dimensions).");
+        }
+    }
+
+    private void checkIndex(int index)
     {
         if (index < 0)
         {
@@ -102,6 +118,10 @@ class NativeFloatVectorBuffer implements NativeVectorBuffer
         {
             throw new IndexOutOfBoundsException("Index (" + index + ") is greater than the size of the vertex list (" + this.count + ").");
         }
+    }
+
+    private void checkDimension(int dimension)
+    {
         if (dimension < 0)
         {
             throw new IndexOutOfBoundsException("Dimension cannot be negative.");
@@ -110,34 +130,159 @@ class NativeFloatVectorBuffer implements NativeVectorBuffer
         {
             throw new IndexOutOfBoundsException("Dimension (" + dimension + ") is greater than the dimensions of the vertex list (" + this.dimensions + ").");
         }
-        return this.buffer.asFloatBuffer().get(index * this.dimensions + dimension);
+    }
+
+    @Override
+    public Float get(int index, int dimension)
+    {
+        return this.buffer.getFloat(getElementIndex(index, dimension) * 4);
     }
 
     public void set(int index, int dimension, float value)
     {
-        if (index < 0)
+        this.buffer.putFloat(getElementIndex(index, dimension) * 4, value);
+    }
+
+    @Override
+    public void set(int index, int dimension, Number value)
+    {
+        this.set(index, dimension, value.floatValue());
+    }
+
+    @Override
+    public float getFloat(int index, int dimension)
+    {
+        return this.buffer.getFloat(getElementIndex(index, dimension) * 4);
+    }
+
+    @Override
+    public void setFloat(int index, int dimension, float value)
+    {
+        this.buffer.putFloat(getElementIndex(index, dimension) * 4, value);
+    }
+
+    @Override
+    public int getInt(int index, int dimension)
+    {
+        return (int) this.buffer.getFloat(getElementIndex(index, dimension) * 4);
+    }
+
+    @Override
+    public void setInt(int index, int dimension, int value)
+    {
+        this.buffer.putFloat(getElementIndex(index, dimension) * 4, (float) value);
+    }
+
+    @Override
+    public double getDouble(int index, int dimension)
+    {
+        return this.buffer.getFloat(getElementIndex(index, dimension) * 4);
+    }
+
+    @Override
+    public void setDouble(int index, int dimension, double value)
+    {
+        this.buffer.putFloat(getElementIndex(index, dimension) * 4, (float) value);
+    }
+
+    @Override
+    public void put(int firstElement, float[] src, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        FloatBuffer view = this.buffer.asFloatBuffer();
+        view.position(firstElement);
+        view.put(src, offset, length);
+    }
+
+    @Override
+    public void get(int firstElement, float[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        FloatBuffer view = this.buffer.asFloatBuffer();
+        view.position(firstElement);
+        view.get(dst, offset, length);
+    }
+
+    @Override
+    public void put(int firstElement, int[] src, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Index cannot be negative.");
+            this.buffer.putFloat((firstElement + i) * 4, (float) src[offset + i]);
         }
-        if (index >= this.count)
+    }
+
+    @Override
+    public void get(int firstElement, int[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Index (" + index + ") is greater than the size of the vertex list (" + this.count + ").");
+            dst[offset + i] = (int) this.buffer.getFloat((firstElement + i) * 4);
         }
-        if (dimension < 0)
+    }
+
+    @Override
+    public void put(int firstElement, double[] src, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Dimension cannot be negative.");
+            this.buffer.putFloat((firstElement + i) * 4, (float) src[offset + i]);
         }
-        if (dimension >= this.dimensions)
+    }
+
+    @Override
+    public void get(int firstElement, double[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Dimension (" + dimension + ") is greater than the dimensions of the vertex list (" + this.dimensions + ").");
+            dst[offset + i] = this.buffer.getFloat((firstElement + i) * 4);
         }
-        this.buffer.asFloatBuffer().put(index * this.dimensions + dimension, value);
     }
 
     @Override
-    public void set(int index, int dimension, Number value)
+    public void putRow(int index, float[] src, int offset)
     {
-        this.set(index, dimension, value.floatValue());
+        checkIndex(index);
+        int firstElement = index * this.dimensions;
+        for (int d = 0; d < this.dimensions; d++)
+        {
+            this.buffer.putFloat((firstElement + d) * 4, src[offset + d]);
+        }
+    }
+
+    @Override
+    public void getRow(int index, float[] dst, int offset)
+    {
+        checkIndex(index);
+        int firstElement = index * this.dimensions;
+        for (int d = 0; d < this.dimensions; d++)
+        {
+            dst[offset + d] = this.buffer.getFloat((firstElement + d) * 4);
+        }
+    }
+
+    @Override
+    public void putColumn(int dimension, float[] src, int offset)
+    {
+        checkDimension(dimension);
+        for (int i = 0; i < this.count; i++)
+        {
+            this.buffer.putFloat((i * this.dimensions + dimension) * 4, src[offset + i]);
+        }
+    }
+
+    @Override
+    public void getColumn(int dimension, float[] dst, int offset)
+    {
+        checkDimension(dimension);
+        for (int i = 0; i < this.count; i++)
+        {
+            dst[offset + i] = this.buffer.getFloat((i * this.dimensions + dimension) * 4);
+        }
     }
 
     @Override
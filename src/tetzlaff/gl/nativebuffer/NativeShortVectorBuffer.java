@@ -91,8 +91,23 @@ class NativeShortVectorBuffer implements NativeVectorBuffer
         return count;
     }
 
-    @Override
-    public Short get(int index, int dimension)
+    private int getElementIndex(int index, int dimension)
+    {
+        checkIndex(index);
+        checkDimension(dimension);
+        return index * this.dimensions + dimension;
+    }
+
+    private void checkRange(int firstElement, int length)
+    {
+        if (firstElement < 0 || length < 0 || (long) firstElement + length > (long) this.dimensions * this.count)
+        {
+            throw new IndexOutOfBoundsException("Elements " + firstElement + " through " + ((long) firstElement + length - 1)
+                + " are not in the vertex list (" + this.count + " vertices with " + this.dimensions + " dimensions).");
+        }
+    }
+
+    private void checkIndex(int index)
     {
         if (index < 0)
         {
@@ -102,6 +117,10 @@ class NativeShortVectorBuffer implements NativeVectorBuffer
         {
             throw new IndexOutOfBoundsException("Index (" + index + ") is greater than the size of the vertex list (" + this.count + ").");
         }
+    }
+
+    private void checkDimension(int dimension)
+    {
         if (dimension < 0)
         {
             throw new IndexOutOfBoundsException("Dimension cannot be negative.");
@@ -110,34 +129,161 @@ class NativeShortVectorBuffer implements NativeVectorBuffer
         {
             throw new IndexOutOfBoundsException("Dimension (" + dimension + ") is greater than the dimensions of the vertex list (" + this.dimensions + ").");
         }
-        return this.buffer.asShortBuffer().get(index * this.dimensions + dimension);
+    }
+
+    @Override
+    public Short get(int index, int dimension)
+    {
+        return this.buffer.getShort(getElementIndex(index, dimension) * 2);
     }
 
     public void set(int index, int dimension, short value)
     {
-        if (index < 0)
+        this.buffer.putShort(getElementIndex(index, dimension) * 2, value);
+    }
+
+    @Override
+    public void set(int index, int dimension, Number value)
+    {
+        this.set(index, dimension, value.shortValue());
+    }
+
+    @Override
+    public float getFloat(int index, int dimension)
+    {
+        return this.buffer.getShort(getElementIndex(index, dimension) * 2);
+    }
+
+    @Override
+    public void setFloat(int index, int dimension, float value)
+    {
+        this.buffer.putShort(getElementIndex(index, dimension) * 2, (short) value);
+    }
+
+    @Override
+    public int getInt(int index, int dimension)
+    {
+        return this.buffer.getShort(getElementIndex(index, dimension) * 2);
+    }
+
+    @Override
+    public void setInt(int index, int dimension, int value)
+    {
+        this.buffer.putShort(getElementIndex(index, dimension) * 2, (short) value);
+    }
+
+    @Override
+    public double getDouble(int index, int dimension)
+    {
+        return this.buffer.getShort(getElementIndex(index, dimension) * 2);
+    }
+
+    @Override
+    public void setDouble(int index, int dimension, double value)
+    {
+        this.buffer.putShort(getElementIndex(index, dimension) * 2, (short) value);
+    }
+
+    @Override
+    public void put(int firstElement, float[] src, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Index cannot be negative.");
+            this.buffer.putShort((firstElement + i) * 2, (short) src[offset + i]);
         }
-        if (index >= this.count)
+    }
+
+    @Override
+    public void get(int firstElement, float[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Index (" + index + ") is greater than the size of the vertex list (" + this.count + ").");
+            dst[offset + i] = this.buffer.getShort((firstElement + i) * 2);
         }
-        if (dimension < 0)
+    }
+
+    @Override
+    public void put(int firstElement, int[] src, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Dimension cannot be negative.");
+            this.buffer.putShort((firstElement + i) * 2, (short) src[offset + i]);
         }
-        if (dimension >= this.dimensions)
+    }
+
+    @Override
+    public void get(int firstElement, int[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Dimension (" + dimension + ") is greater than the dimensions of the vertex list (" + this.dimensions + ").");
+            dst[offset + i] = this.buffer.getShort((firstElement + i) * 2);
         }
-        this.buffer.asShortBuffer().put(index * this.dimensions + dimension, value);
     }
 
     @Override
-    public void set(int index, int dimension, Number value)
+    public void put(int firstElement, double[] src, int offset, int length)
     {
-        this.set(index, dimension, value.shortValue());
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
+        {
+            this.buffer.putShort((firstElement + i) * 2, (short) src[offset + i]);
+        }
+    }
+
+    @Override
+    public void get(int firstElement, double[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
+        {
+            dst[offset + i] = this.buffer.getShort((firstElement + i) * 2);
+        }
+    }
+
+    @Override
+    public void putRow(int index, float[] src, int offset)
+    {
+        checkIndex(index);
+        int firstElement = index * this.dimensions;
+        for (int d = 0; d < this.dimensions; d++)
+        {
+            this.buffer.putShort((firstElement + d) * 2, (short) src[offset + d]);
+        }
+    }
+
+    @Override
+    public void getRow(int index, float[] dst, int offset)
+    {
+        checkIndex(index);
+        int firstElement = index * this.dimensions;
+        for (int d = 0; d < this.dimensions; d++)
+        {
+            dst[offset + d] = this.buffer.getShort((firstElement + d) * 2);
+        }
+    }
+
+    @Override
+    public void putColumn(int dimension, float[] src, int offset)
+    {
+        checkDimension(dimension);
+        for (int i = 0; i < this.count; i++)
+        {
+            this.buffer.putShort((i * this.dimensions + dimension) * 2, (short) src[offset + i]);
+        }
+    }
+
+    @Override
+    public void getColumn(int dimension, float[] dst, int offset)
+    {
+        checkDimension(dimension);
+        for (int i = 0; i < this.count; i++)
+        {
+            dst[offset + i] = this.buffer.getShort((i * this.dimensions + dimension) * 2);
+        }
     }
 
     @Override
@@ -85,8 +85,23 @@ class NativeUnsignedByteVectorBuffer implements NativeVectorBuffer
         return count;
     }
 
-    @Override
-    public Integer get(int index, int dimension)
+    private int getElementIndex(int index, int dimension)
+    {
+        checkIndex(index);
+        checkDimension(dimension);
+        return index * this.dimensions + dimension;
+    }
+
+    private void checkRange(int firstElement, int length)
+    {
+        if (firstElement < 0 || length < 0 || (long) firstElement + length > (long) this.dimensions * this.count)
+        {
+            throw new IndexOutOfBoundsException("Elements " + firstElement + " through " + ((long) firstElement + length - 1)
+                + " are not in the vertex list (" + this.count + " vertices with " + this.dimensions + " dimensions).");
+        }
+    }
+
+    private void checkIndex(int index)
     {
         if (index < 0)
         {
@@ -96,6 +111,10 @@ class NativeUnsignedByteVectorBuffer implements NativeVectorBuffer
         {
             throw new IndexOutOfBoundsException("Index (" + index + ") is greater than the size of the vertex list (" + this.count + ").");
         }
+    }
+
+    private void checkDimension(int dimension)
+    {
         if (dimension < 0)
         {
             throw new IndexOutOfBoundsException("Dimension cannot be negative.");
@@ -104,34 +123,161 @@ class NativeUnsignedByteVectorBuffer implements NativeVectorBuffer
         {
             throw new IndexOutOfBoundsException("Dimension (" + dimension + ") is greater than the dimensions of the vertex list (" + this.dimensions + ").");
         }
-        return 0x000000FF & this.buffer.get(index * this.dimensions + dimension);
+    }
+
+    @Override
+    public Integer get(int index, int dimension)
+    {
+        return 0x000000FF & this.buffer.get(getElementIndex(index, dimension));
     }
 
     public void set(int index, int dimension, int value)
     {
-        if (index < 0)
+        this.buffer.put(getElementIndex(index, dimension), (byte)value);
+    }
+
+    @Override
+    public void set(int index, int dimension, Number value)
+    {
+        this.set(index, dimension, value.intValue());
+    }
+
+    @Override
+    public float getFloat(int index, int dimension)
+    {
+        return 0x000000FF & this.buffer.get(getElementIndex(index, dimension));
+    }
+
+    @Override
+    public void setFloat(int index, int dimension, float value)
+    {
+        this.buffer.put(getElementIndex(index, dimension), (byte) value);
+    }
+
+    @Override
+    public int getInt(int index, int dimension)
+    {
+        return 0x000000FF & this.buffer.get(getElementIndex(index, dimension));
+    }
+
+    @Override
+    public void setInt(int index, int dimension, int value)
+    {
+        this.buffer.put(getElementIndex(index, dimension), (byte) value);
+    }
+
+    @Override
+    public double getDouble(int index, int dimension)
+    {
+        return 0x000000FF & this.buffer.get(getElementIndex(index, dimension));
+    }
+
+    @Override
+    public void setDouble(int index, int dimension, double value)
+    {
+        this.buffer.put(getElementIndex(index, dimension), (byte) value);
+    }
+
+    @Override
+    public void put(int firstElement, float[] src, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Index cannot be negative.");
+            this.buffer.put(firstElement + i, (byte) src[offset + i]);
         }
-        if (index >= this.count)
+    }
+
+    @Override
+    public void get(int firstElement, float[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Index (" + index + ") is greater than the size of the vertex list (" + this.count + ").");
+            dst[offset + i] = 0x000000FF & this.buffer.get(firstElement + i);
         }
-        if (dimension < 0)
+    }
+
+    @Override
+    public void put(int firstElement, int[] src, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Dimension cannot be negative.");
+            this.buffer.put(firstElement + i, (byte) src[offset + i]);
         }
-        if (dimension >= this.dimensions)
+    }
+
+    @Override
+    public void get(int firstElement, int[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Dimension (" + dimension + ") is greater than the dimensions of the vertex list (" + this.dimensions + ").");
+            dst[offset + i] = 0x000000FF & this.buffer.get(firstElement + i);
         }
-        this.buffer.put(index * this.dimensions + dimension, (byte)value);
     }
 
     @Override
-    public void set(int index, int dimension, Number value)
+    public void put(int firstElement, double[] src, int offset, int length)
     {
-        this.set(index, dimension, value.intValue());
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
+        {
+            this.buffer.put(firstElement + i, (byte) src[offset + i]);
+        }
+    }
+
+    @Override
+    public void get(int firstElement, double[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
+        {
+            dst[offset + i] = 0x000000FF & this.buffer.get(firstElement + i);
+        }
+    }
+
+    @Override
+    public void putRow(int index, float[] src, int offset)
+    {
+        checkIndex(index);
+        int firstElement = index * this.dimensions;
+        for (int d = 0; d < this.dimensions; d++)
+        {
+            this.buffer.put(firstElement + d, (byte) src[offset + d]);
+        }
+    }
+
+    @Override
+    public void getRow(int index, float[] dst, int offset)
+    {
+        checkIndex(index);
+        int firstElement = index * this.dimensions;
+        for (int d = 0; d < this.dimensions; d++)
+        {
+            dst[offset + d] = 0x000000FF & this.buffer.get(firstElement + d);
+        }
+    }
+
+    @Override
+    public void putColumn(int dimension, float[] src, int offset)
+    {
+        checkDimension(dimension);
+        for (int i = 0; i < this.count; i++)
+        {
+            this.buffer.put(i * this.dimensions + dimension, (byte) src[offset + i]);
+        }
+    }
+
+    @Override
+    public void getColumn(int dimension, float[] dst, int offset)
+    {
+        checkDimension(dimension);
+        for (int i = 0; i < this.count; i++)
+        {
+            dst[offset + i] = 0x000000FF & this.buffer.get(i * this.dimensions + dimension);
+        }
     }
 
     @Override
@@ -14,6 +14,7 @@ package tetzlaff.gl.nativebuffer;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.Objects;
 
 import org.lwjgl.*;
@@ -91,8 +92,23 @@ class NativeUnsignedIntVectorBuffer implements NativeVectorBuffer
         return count;
     }
 
-    @Override
-    public Long get(int index, int dimension)
+    private int getElementIndex(int index, int dimension)
+    {
+        checkIndex(index);
+        checkDimension(dimension);
+        return index * this.dimensions + dimension;
+    }
+
+    private void checkRange(int firstElement, int length)
+    {
+        if (firstElement < 0 || length < 0 || (long) firstElement + length > (long) this.dimensions * this.count)
+        {
+            throw new IndexOutOfBoundsException("Elements " + firstElement + " through " + ((long) firstElement + length - 1)
+                + " are not in the vertex list (" + this.count + " vertices with " + this.dimensions + " dimensions).");
+        }
+    }
+
+    private void checkIndex(int index)
     {
         if (index < 0)
         {
@@ -102,6 +118,10 @@ class NativeUnsignedIntVectorBuffer implements NativeVectorBuffer
         {
             throw new IndexOutOfBoundsException("Index (" + index + ") is greater than the size of the vertex list (" + this.count + ").");
         }
+    }
+
+    private void checkDimension(int dimension)
+    {
         if (dimension < 0)
         {
             throw new IndexOutOfBoundsException("Dimension cannot be negative.");
@@ -110,34 +130,159 @@ class NativeUnsignedIntVectorBuffer implements NativeVectorBuffer
         {
             throw new IndexOutOfBoundsException("Dimension (" + dimension + ") is greater than the dimensions of the vertex list (" + this.dimensions + ").");
         }
-        return 0x00000000FFFFFFFFL & this.buffer.asIntBuffer().get(index * this.dimensions + dimension);
+    }
+
+    @Override
+    public Long get(int index, int dimension)
+    {
+        return 0x00000000FFFFFFFFL & this.buffer.getInt(getElementIndex(index, dimension) * 4);
     }
 
     public void set(int index, int dimension, long value)
     {
-        if (index < 0)
+        this.buffer.putInt(getElementIndex(index, dimension) * 4, (int)value);
+    }
+
+    @Override
+    public void set(int index, int dimension, Number value)
+    {
+        this.set(index, dimension, value.longValue());
+    }
+
+    @Override
+    public float getFloat(int index, int dimension)
+    {
+        return 0x00000000FFFFFFFFL & this.buffer.getInt(getElementIndex(index, dimension) * 4);
+    }
+
+    @Override
+    public void setFloat(int index, int dimension, float value)
+    {
+        this.buffer.putInt(getElementIndex(index, dimension) * 4, (int) (long) value);
+    }
+
+    @Override
+    public int getInt(int index, int dimension)
+    {
+        return this.buffer.getInt(getElementIndex(index, dimension) * 4);
+    }
+
+    @Override
+    public void setInt(int index, int dimension, int value)
+    {
+        this.buffer.putInt(getElementIndex(index, dimension) * 4, value);
+    }
+
+    @Override
+    public double getDouble(int index, int dimension)
+    {
+        return 0x00000000FFFFFFFFL & this.buffer.getInt(getElementIndex(index, dimension) * 4);
+    }
+
+    @Override
+    public void setDouble(int index, int dimension, double value)
+    {
+        this.buffer.putInt(getElementIndex(index, dimension) * 4, (int) (long) value);
+    }
+
+    @Override
+    public void put(int firstElement, float[] src, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Index cannot be negative.");
+            this.buffer.putInt((firstElement + i) * 4, (int) (long) src[offset + i]);
         }
-        if (index >= this.count)
+    }
+
+    @Override
+    public void get(int firstElement, float[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Index (" + index + ") is greater than the size of the vertex list (" + this.count + ").");
+            dst[offset + i] = 0x00000000FFFFFFFFL & this.buffer.getInt((firstElement + i) * 4);
         }
-        if (dimension < 0)
+    }
+
+    @Override
+    public void put(int firstElement, int[] src, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        IntBuffer view = this.buffer.asIntBuffer();
+        view.position(firstElement);
+        view.put(src, offset, length);
+    }
+
+    @Override
+    public void get(int firstElement, int[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        IntBuffer view = this.buffer.asIntBuffer();
+        view.position(firstElement);
+        view.get(dst, offset, length);
+    }
+
+    @Override
+    public void put(int firstElement, double[] src, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Dimension cannot be negative.");
+            this.buffer.putInt((firstElement + i) * 4, (int) (long) src[offset + i]);
         }
-        if (dimension >= this.dimensions)
+    }
+
+    @Override
+    public void get(int firstElement, double[] dst, int offset, int length)
+    {
+        checkRange(firstElement, length);
+        for (int i = 0; i < length; i++)
         {
-            throw new IndexOutOfBoundsException("Dimension (" + dimension + ") is greater than the dimensions of the vertex list (" + this.dimensions + ").");
+            dst[offset + i] = 0x00000000FFFFFFFFL & this.buffer.getInt((firstElement + i) * 4);
         }
-        this.buffer.asIntBuffer().put(index * this.dimensions + dimension, (int)value);
     }
 
     @Override
-    public void set(int index, int dimension, Number value)
+    public void putRow(int index, float[] src, int offset)
     {
-        this.set(index, dimension, value.longValue());
+        checkIndex(index);
+        int firstElement = index * this.dimensions;
+        for (int d = 0; d < this.dimensions; d++)
+        {
+            this.buffer.putInt((firstElement + d) * 4, (int) (long) src[offset + d]);
+        }
+    }
+
+    @Override
+    public void getRow(int index, float[] dst, int offset)
+    {
+        checkIndex(index);
+        int firstElement = index * this.dimensions;
+        for (int d = 0; d < this.dimensions; d++)
+        {
+            dst[offset + d] = 0x00000000FFFFFFFFL & this.buffer.getInt((firstElement + d) * 4);
+        }
+    }
+
+    @Override
+    public void putColumn(int dimension, float[] src, int offset)
+    {
+        checkDimension(dimension);
+        for (int i = 0; i < this.count; i++)
+        {
+            this.buffer.putInt((i * this.dimensions + dimension) * 4, (int) (long) src[offset + i]);
+        }
+    }
+
+    @Override
+    public void getColumn(int dimension, float[] dst, int offset)
+    {
+        checkDimension(dimension);
+        for (int i = 0; i < this.count; i++)
+        {
+            dst[offset + i] = 0x00000000FFFFFFFFL & this.buffer.getInt((i * this.dimensions + dimension) * 4);
+        }
     }
 
     @Override
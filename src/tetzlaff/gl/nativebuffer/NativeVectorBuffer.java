@@ -22,6 +22,49 @@ public interface NativeVectorBuffer
     Number get(int index, int dimension);
     void set(int index, int dimension, Number value);
 
+    // Unboxed accessors; values are converted exactly as by get(index, dimension).floatValue(), set(index, dimension, (Number) value), etc.
+    float getFloat(int index, int dimension);
+    void setFloat(int index, int dimension, float value);
+    int getInt(int index, int dimension);
+    void setInt(int index, int dimension, int value);
+    double getDouble(int index, int dimension);
+    void setDouble(int index, int dimension, double value);
+
+    /**
+     * Copies values from an array into consecutive elements of the buffer, converting them to the buffer's data type.
+     * Elements are numbered index-major: element (index * getDimensions() + dimension) is component "dimension" of vector "index".
+     * @param firstElement The first element of the buffer to be written.
+     * @param src The array containing the values.
+     * @param offset The index of the first value in the array.
+     * @param length The number of values to copy.
+     */
+    void put(int firstElement, float[] src, int offset, int length);
+    void put(int firstElement, int[] src, int offset, int length);
+    void put(int firstElement, double[] src, int offset, int length);
+
+    /**
+     * Copies consecutive elements of the buffer into an array.
+     * @param firstElement The first element of the buffer to be read.
+     * @param dst The array to receive the values.
+     * @param offset The index in the array where the first value is to be stored.
+     * @param length The number of values to copy.
+     */
+    void get(int firstElement, float[] dst, int offset, int length);
+    void get(int firstElement, int[] dst, int offset, int length);
+    void get(int firstElement, double[] dst, int offset, int length);
+
+    /**
+     * Copies getDimensions() values from an array into all components of a single vector.
+     */
+    void putRow(int index, float[] src, int offset);
+    void getRow(int index, float[] dst, int offset);
+
+    /**
+     * Copies getCount() values from an array into a single component of every vector.
+     */
+    void putColumn(int dimension, float[] src, int offset);
+    void getColumn(int dimension, float[] dst, int offset);
+
     ByteBuffer getBuffer();
     NativeDataType getDataType();
 }
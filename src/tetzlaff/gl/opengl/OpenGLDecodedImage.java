@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.opengl;
+
+import java.nio.ByteBuffer;
+
+import tetzlaff.gl.core.DecodedImage;
+
+/**
+ * An image that has been decoded into 8-bit BGRA pixels in native memory, ready to be passed to glTexSubImage*().
+ */
+final class OpenGLDecodedImage implements DecodedImage<OpenGLContext>
+{
+    private final int width;
+    private final int height;
+    private final ByteBuffer buffer;
+
+    OpenGLDecodedImage(int width, int height, ByteBuffer buffer)
+    {
+        this.width = width;
+        this.height = height;
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return width;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return height;
+    }
+
+    ByteBuffer getBuffer()
+    {
+        return buffer;
+    }
+}
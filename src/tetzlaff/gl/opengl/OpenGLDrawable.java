@@ -17,6 +17,7 @@ import java.util.TreeMap;
 
 import tetzlaff.gl.core.Drawable;
 import tetzlaff.gl.core.Framebuffer;
+import tetzlaff.gl.core.IndexBuffer;
 import tetzlaff.gl.core.PrimitiveMode;
 import tetzlaff.gl.core.VertexBuffer;
 import tetzlaff.gl.exceptions.UnrecognizedPrimitiveModeException;
@@ -174,6 +175,19 @@ class OpenGLDrawable implements Drawable<OpenGLContext>
         return this.addVertexBuffer(program.getVertexAttribLocation(name), buffer);
     }
 
+    @Override
+    public void setIndexBuffer(IndexBuffer<OpenGLContext> indexBuffer)
+    {
+        if (indexBuffer == null || indexBuffer instanceof OpenGLIndexBuffer)
+        {
+            this.vao.setIndexBuffer((OpenGLIndexBuffer)indexBuffer);
+        }
+        else
+        {
+            throw new IllegalArgumentException("'indexBuffer' must be of type OpenGLIndexBuffer.");
+        }
+    }
+
     @Override
     public boolean setVertexAttrib(int location, int value)
     {
@@ -16,6 +16,8 @@ import java.nio.ByteBuffer;
 
 import org.lwjgl.*;
 import tetzlaff.gl.core.IndexBuffer;
+import tetzlaff.gl.nativebuffer.NativeDataType;
+import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
 
 import static org.lwjgl.opengl.GL15.*;
 
@@ -61,4 +63,17 @@ class OpenGLIndexBuffer extends OpenGLBuffer implements IndexBuffer<OpenGLContex
         this.count = data.length;
         return this;
     }
+
+    @Override
+    public OpenGLIndexBuffer setData(NativeVectorBuffer data)
+    {
+        if (data.getDataType() != NativeDataType.INT && data.getDataType() != NativeDataType.UNSIGNED_INT)
+        {
+            throw new IllegalArgumentException("Index buffers must contain 32-bit integers.");
+        }
+
+        super.setData(data.getBuffer());
+        this.count = data.getCount() * data.getDimensions();
+        return this;
+    }
 }
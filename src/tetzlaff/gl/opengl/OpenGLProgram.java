@@ -13,8 +13,11 @@
 package tetzlaff.gl.opengl;
 
 import java.io.FileNotFoundException;
+import java.nio.FloatBuffer;
 import java.util.*;
 
+import org.lwjgl.*;
+
 import tetzlaff.gl.builders.base.ProgramBuilderBase;
 import tetzlaff.gl.core.Program;
 import tetzlaff.gl.core.Shader;
@@ -40,6 +43,11 @@ final class OpenGLProgram implements Program<OpenGLContext>
     private ResourceManager<OpenGLTexture> textureManager;
     private ResourceManager<OpenGLUniformBuffer> uniformBufferManager;
 
+    /**
+     * Scratch space for matrix uniforms, so that setting a matrix doesn't require a native buffer per matrix.
+     */
+    private final FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
+
     static class OpenGLProgramBuilder extends ProgramBuilderBase<OpenGLContext>
     {
         OpenGLProgramBuilder(OpenGLContext context)
@@ -494,7 +502,11 @@ final class OpenGLProgram implements Program<OpenGLContext>
         {
             this.useForUniformAssignment();
 
-            glUniformMatrix4fv(location, false, value.asFloatBuffer());
+            matrixBuffer.clear();
+            value.writeColumnMajor(matrixBuffer);
+            matrixBuffer.flip();
+
+            glUniformMatrix4fv(location, false, matrixBuffer);
             OpenGLContext.errorCheck();
 
             return true;
@@ -17,8 +17,11 @@ import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
 
 import org.lwjgl.*;
 import tetzlaff.gl.core.*;
@@ -35,6 +38,8 @@ import static org.lwjgl.opengl.GL44.*;
 
 abstract class OpenGLTexture implements Texture<OpenGLContext>, OpenGLFramebufferAttachment
 {
+    private static final int ROWS_PER_BAND = 64;
+
     protected final OpenGLContext context;
 
     private final int textureId;
@@ -303,57 +308,93 @@ abstract class OpenGLTexture implements Texture<OpenGLContext>, OpenGLFramebuffe
 
     static ByteBuffer bufferedImageToNativeBuffer(BufferedImage colorImg, BufferedImage maskImg, boolean flipVertical)
     {
-        ByteBuffer buffer = BufferUtils.createByteBuffer(colorImg.getWidth() * colorImg.getHeight() * 4);
-        IntBuffer intBuffer = buffer.asIntBuffer();
+        return bufferedImageToPackedNativeBuffer(colorImg, maskImg, flipVertical, null, 4);
+    }
 
-        if (maskImg == null)
+    /**
+     * Converts an image to a native buffer with one packed value per pixel, in parallel bands of rows.
+     * Pixels are read directly from the image's raster when possible (see RasterRowReader).
+     * @param colorImg The image.
+     * @param maskImg An optional mask, the green channel of which replaces the alpha channel of the image.  May be null.
+     * @param flipVertical Whether or not to flip the image vertically.
+     * @param mappingFunction Maps each pixel, given as an ARGB integer, to the value to store in the buffer.
+     *                        If null, the ARGB value is stored as is, which corresponds to BGRA byte order on little-endian platforms.
+     * @param mappedSize The number of bytes per pixel in the buffer: 1, 2 or 4.
+     *                   If less than 4, the mapped value is truncated to its low-order bytes.
+     * @return The buffer.
+     */
+    static ByteBuffer bufferedImageToPackedNativeBuffer(BufferedImage colorImg, BufferedImage maskImg, boolean flipVertical,
+        IntUnaryOperator mappingFunction, int mappedSize)
+    {
+        if (mappedSize != 1 && mappedSize != 2 && mappedSize != 4)
         {
-            if (flipVertical)
+            throw new IllegalArgumentException("Mapped pixels must be 1, 2 or 4 bytes in size.");
+        }
+
+        int width = colorImg.getWidth();
+        int height = colorImg.getHeight();
+
+        ByteBuffer buffer = BufferUtils.createByteBuffer(width * height * mappedSize);
+
+        RasterRowReader colorReader = RasterRowReader.forImage(colorImg);
+        RasterRowReader maskReader = maskImg == null ? null : RasterRowReader.forImage(maskImg);
+
+        int bandCount = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+
+        IntStream.range(0, bandCount).parallel().forEach(band ->
+        {
+            int[] row = new int[width];
+            int[] maskRow = maskReader == null ? null : new int[width];
+
+            // Each band writes through its own view of the buffer, since the position is not thread-safe.
+            ByteBuffer bandBuffer = buffer.duplicate().order(buffer.order());
+            IntBuffer intBuffer = mappedSize == 4 ? bandBuffer.asIntBuffer() : null;
+            ShortBuffer shortBuffer = mappedSize == 2 ? bandBuffer.asShortBuffer() : null;
+            short[] shortRow = mappedSize == 2 ? new short[width] : null;
+            byte[] byteRow = mappedSize == 1 ? new byte[width] : null;
+
+            int end = Math.min(height, (band + 1) * ROWS_PER_BAND);
+            for (int y = band * ROWS_PER_BAND; y < end; y++)
             {
-                for (int y = colorImg.getHeight() - 1; y >= 0; y--)
+                readRow(colorReader, maskReader, y, row, maskRow);
+
+                if (mappingFunction != null)
                 {
-                    for (int x = 0; x < colorImg.getWidth(); x++)
+                    for (int x = 0; x < width; x++)
                     {
-                        intBuffer.put(colorImg.getRGB(x, y));
+                        row[x] = mappingFunction.applyAsInt(row[x]);
                     }
                 }
-            }
-            else
-            {
-                for (int y = 0; y < colorImg.getHeight(); y++)
+
+                int rowStart = (flipVertical ? height - 1 - y : y) * width;
+
+                if (intBuffer != null)
                 {
-                    for (int x = 0; x < colorImg.getWidth(); x++)
-                    {
-                        intBuffer.put(colorImg.getRGB(x, y));
-                    }
+                    intBuffer.position(rowStart);
+                    intBuffer.put(row);
                 }
-            }
-        }
-        else
-        {
-            if (flipVertical)
-            {
-                for (int y = colorImg.getHeight() - 1; y >= 0; y--)
+                else if (shortBuffer != null)
                 {
-                    for (int x = 0; x < colorImg.getWidth(); x++)
+                    for (int x = 0; x < width; x++)
                     {
-                        // Use green channel of the mask image for alpha
-                        intBuffer.put((colorImg.getRGB(x, y) & 0x00ffffff) | ((maskImg.getRGB(x, y) & 0x0000ff00) << 16));
+                        shortRow[x] = (short) row[x];
                     }
+
+                    shortBuffer.position(rowStart);
+                    shortBuffer.put(shortRow);
                 }
-            }
-            else
-            {
-                for (int y = 0; y < colorImg.getHeight(); y++)
+                else
                 {
-                    for (int x = 0; x < colorImg.getWidth(); x++)
+                    for (int x = 0; x < width; x++)
                     {
-                        // Use green channel of the mask image for alpha
-                        intBuffer.put((colorImg.getRGB(x, y) & 0x00ffffff) | ((maskImg.getRGB(x, y) & 0x0000ff00) << 16));
+                        byteRow[x] = (byte) row[x];
                     }
+
+                    bandBuffer.position(rowStart);
+                    bandBuffer.put(byteRow);
                 }
             }
-        }
+        });
 
         return buffer;
     }
@@ -364,56 +405,40 @@ abstract class OpenGLTexture implements Texture<OpenGLContext>, OpenGLFramebuffe
         ByteBuffer buffer = BufferUtils.createByteBuffer(colorImg.getWidth() * colorImg.getHeight() * mappedColorLength);
         Consumer<Color> wrappedBuffer = bufferWrapperFunction.apply(buffer);
 
-        if (maskImg == null)
+        RasterRowReader colorReader = RasterRowReader.forImage(colorImg);
+        RasterRowReader maskReader = maskImg == null ? null : RasterRowReader.forImage(maskImg);
+
+        int[] row = new int[colorImg.getWidth()];
+        int[] maskRow = maskImg == null ? null : new int[colorImg.getWidth()];
+
+        // The wrapped buffer must be filled in order, so this can't be done in parallel.
+        for (int i = 0; i < colorImg.getHeight(); i++)
         {
-            if (flipVertical)
+            readRow(colorReader, maskReader, flipVertical ? colorImg.getHeight() - 1 - i : i, row, maskRow);
+
+            for (int argb : row)
             {
-                for (int y = colorImg.getHeight() - 1; y >= 0; y--)
-                {
-                    for (int x = 0; x < colorImg.getWidth(); x++)
-                    {
-                        wrappedBuffer.accept(new Color(colorImg.getRGB(x, y), true));
-                    }
-                }
-            }
-            else
-            {
-                for (int y = 0; y < colorImg.getHeight(); y++)
-                {
-                    for (int x = 0; x < colorImg.getWidth(); x++)
-                    {
-                        wrappedBuffer.accept(new Color(colorImg.getRGB(x, y), true));
-                    }
-                }
+                wrappedBuffer.accept(new Color(argb, true));
             }
         }
-        else
+
+        return buffer;
+    }
+
+    private static void readRow(RasterRowReader colorReader, RasterRowReader maskReader, int y, int[] row, int[] maskRow)
+    {
+        colorReader.readRow(y, row);
+
+        if (maskReader != null)
         {
-            if (flipVertical)
-            {
-                for (int y = colorImg.getHeight() - 1; y >= 0; y--)
-                {
-                    for (int x = 0; x < colorImg.getWidth(); x++)
-                    {
-                        // Use green channel of the mask image for alpha
-                        wrappedBuffer.accept(new Color((colorImg.getRGB(x, y) & 0x00ffffff) | ((maskImg.getRGB(x, y) & 0x0000ff00) << 16), true));
-                    }
-                }
-            }
-            else
+            maskReader.readRow(y, maskRow);
+
+            for (int x = 0; x < row.length; x++)
             {
-                for (int y = 0; y < colorImg.getHeight(); y++)
-                {
-                    for (int x = 0; x < colorImg.getWidth(); x++)
-                    {
-                        // Use green channel of the mask image for alpha
-                        wrappedBuffer.accept(new Color((colorImg.getRGB(x, y) & 0x00ffffff) | ((maskImg.getRGB(x, y) & 0x0000ff00) << 16), true));
-                    }
-                }
+                // Use green channel of the mask image for alpha
+                row[x] = (row[x] & 0x00ffffff) | ((maskRow[x] & 0x0000ff00) << 16);
             }
         }
-
-        return buffer;
     }
 
     static ByteBuffer hdrImageToNativeBuffer(Image colorImg, BufferedImage maskImg)
@@ -21,6 +21,7 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
 import javax.imageio.ImageIO;
 
 import tetzlaff.gl.builders.base.ColorTextureBuilderBase;
@@ -333,16 +334,25 @@ final class OpenGLTexture3D extends OpenGLTexture implements Texture3D<OpenGLCon
         }
     }
 
-    private BufferedImage validateAndScaleImage(int layerIndex, BufferedImage img) throws IOException
+    private void validateLayerIndex(int layerIndex)
     {
-        if(img == null)
+        if (layerIndex < 0 || layerIndex >= this.depth)
         {
-            throw new IOException("Error: Unsupported image format.");
+            throw new IllegalArgumentException("The layer index specified (" + layerIndex + ") is out of bounds (layer count: " + this.depth + ").");
         }
+    }
 
-        if (layerIndex < 0 || layerIndex >= this.depth)
+    private BufferedImage validateAndScaleImage(int layerIndex, BufferedImage img) throws IOException
+    {
+        validateLayerIndex(layerIndex);
+        return validateAndScaleImage(img);
+    }
+
+    private BufferedImage validateAndScaleImage(BufferedImage img) throws IOException
+    {
+        if(img == null)
         {
-            throw new IllegalArgumentException("The layer index specified (" + layerIndex + ") is out of bounds (layer count: " + this.depth + ").");
+            throw new IOException("Error: Unsupported image format.");
         }
 
         if (this.width == img.getWidth() && this.height == img.getHeight())
@@ -368,22 +378,8 @@ final class OpenGLTexture3D extends OpenGLTexture implements Texture3D<OpenGLCon
     @Override
     public void loadLayer(int layerIndex, InputStream fileStream, boolean flipVertical) throws IOException
     {
-        this.bind();
-
-        ByteBuffer buffer = OpenGLTexture.bufferedImageToNativeBuffer(validateAndScaleImage(layerIndex, ImageIO.read(fileStream)),
-            null, flipVertical);
-
-        glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
-        OpenGLContext.errorCheck();
-
-        glTexSubImage3D(this.openGLTextureTarget, 0, 0, 0, layerIndex, this.width, this.height, 1,
-            GL_BGRA, GL_UNSIGNED_BYTE, buffer);
-        OpenGLContext.errorCheck();
-
-        if (this.useMipmaps)
-        {
-            this.staleMipmaps = true;
-        }
+        validateLayerIndex(layerIndex);
+        loadLayer(layerIndex, decodeLayer(fileStream, null, flipVertical));
     }
 
     @Override
@@ -395,18 +391,63 @@ final class OpenGLTexture3D extends OpenGLTexture implements Texture3D<OpenGLCon
     @Override
     public void loadLayer(int layerIndex, InputStream imageStream, InputStream maskStream, boolean flipVertical) throws IOException
     {
-        this.bind();
+        validateLayerIndex(layerIndex);
+        loadLayer(layerIndex, decodeLayer(imageStream, maskStream, flipVertical));
+    }
+
+    @Override
+    public DecodedImage<OpenGLContext> decodeLayer(File file, boolean flipVertical) throws IOException
+    {
+        try(InputStream fileStream = new FileInputStream(file))
+        {
+            return decodeLayer(fileStream, null, flipVertical);
+        }
+    }
 
+    @Override
+    public DecodedImage<OpenGLContext> decodeLayer(File imageFile, File maskFile, boolean flipVertical) throws IOException
+    {
+        try(InputStream imageStream = new FileInputStream(imageFile);
+            InputStream maskStream = new FileInputStream(maskFile))
+        {
+            return decodeLayer(imageStream, maskStream, flipVertical);
+        }
+    }
+
+    private OpenGLDecodedImage decodeLayer(InputStream imageStream, InputStream maskStream, boolean flipVertical) throws IOException
+    {
+        // Only reads the dimensions of this texture, so this is safe to call from any thread.
         ByteBuffer buffer = bufferedImageToNativeBuffer(
-            validateAndScaleImage(layerIndex, ImageIO.read(imageStream)),
-            validateAndScaleImage(layerIndex, ImageIO.read(maskStream)),
+            validateAndScaleImage(ImageIO.read(imageStream)),
+            maskStream == null ? null : validateAndScaleImage(ImageIO.read(maskStream)),
             flipVertical);
 
+        return new OpenGLDecodedImage(this.width, this.height, buffer);
+    }
+
+    @Override
+    public void loadLayer(int layerIndex, DecodedImage<OpenGLContext> image)
+    {
+        if (!(image instanceof OpenGLDecodedImage))
+        {
+            throw new IllegalArgumentException("The decoded image must have been created by an OpenGL texture.");
+        }
+
+        if (image.getWidth() != this.width || image.getHeight() != this.height)
+        {
+            throw new IllegalArgumentException("The decoded image (" + image.getWidth() + 'x' + image.getHeight() +
+                ") does not match the size of the texture (" + this.width + 'x' + this.height + ").");
+        }
+
+        validateLayerIndex(layerIndex);
+
+        this.bind();
+
         glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
         OpenGLContext.errorCheck();
 
         glTexSubImage3D(this.openGLTextureTarget, 0, 0, 0, layerIndex, this.width, this.height, 1,
-            GL_BGRA, GL_UNSIGNED_BYTE, buffer);
+            GL_BGRA, GL_UNSIGNED_BYTE, ((OpenGLDecodedImage) image).getBuffer());
         OpenGLContext.errorCheck();
 
         if (this.useMipmaps)
@@ -465,6 +506,37 @@ final class OpenGLTexture3D extends OpenGLTexture implements Texture3D<OpenGLCon
         loadLayer(layerIndex, mappedType, buffer);
     }
 
+    @Override
+    public void loadMappedLayer(int layerIndex, File file, boolean flipVertical,
+        AbstractDataType<?> mappedType, IntUnaryOperator mappingFunction) throws IOException
+    {
+        BufferedImage img;
+        try(InputStream fileStream = new FileInputStream(file))
+        {
+            img = validateAndScaleImage(layerIndex, ImageIO.read(fileStream));
+        }
+
+        loadLayer(layerIndex, mappedType, OpenGLTexture.bufferedImageToPackedNativeBuffer(
+            img, null, flipVertical, mappingFunction, mappedType.getSizeInBytes()));
+    }
+
+    @Override
+    public void loadMappedLayer(int layerIndex, File imageFile, File maskFile, boolean flipVertical,
+        AbstractDataType<?> mappedType, IntUnaryOperator mappingFunction) throws IOException
+    {
+        BufferedImage img;
+        BufferedImage mask;
+        try(InputStream imageStream = new FileInputStream(imageFile);
+            InputStream maskStream = new FileInputStream(maskFile))
+        {
+            img = validateAndScaleImage(layerIndex, ImageIO.read(imageStream));
+            mask = validateAndScaleImage(layerIndex, ImageIO.read(maskStream));
+        }
+
+        loadLayer(layerIndex, mappedType, OpenGLTexture.bufferedImageToPackedNativeBuffer(
+            img, mask, flipVertical, mappingFunction, mappedType.getSizeInBytes()));
+    }
+
     @Override
     public void loadLayer(int layerIndex, NativeVectorBuffer data)
     {
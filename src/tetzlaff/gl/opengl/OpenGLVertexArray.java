@@ -24,9 +24,9 @@ class OpenGLVertexArray implements Resource
 {
     protected final OpenGLContext context;
 
-    private final boolean usesIndexing = false;
     private final int vaoId;
     private int count = Integer.MAX_VALUE;
+    private OpenGLIndexBuffer indexBuffer;
 
     OpenGLVertexArray(OpenGLContext context)
     {
@@ -45,19 +45,10 @@ class OpenGLVertexArray implements Resource
     {
         if (buffer instanceof OpenGLVertexBuffer)
         {
-            if (usesIndexing)
-            {
-                throw new IllegalStateException("Cannot add a vertex attribute without an index buffer: this VAO already contains other vertex buffers which use index buffers.");
-            }
-            else
-            {
-                glBindVertexArray(this.vaoId);
-                OpenGLContext.errorCheck();
-                glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
-                OpenGLContext.errorCheck();
-                ((OpenGLVertexBuffer)buffer).useAsVertexAttribute(attributeIndex);
-                this.count = Math.min(this.count, buffer.count());
-            }
+            glBindVertexArray(this.vaoId);
+            OpenGLContext.errorCheck();
+            ((OpenGLVertexBuffer)buffer).useAsVertexAttribute(attributeIndex);
+            this.count = Math.min(this.count, buffer.count());
         }
         else
         {
@@ -65,6 +56,25 @@ class OpenGLVertexArray implements Resource
         }
     }
 
+    void setIndexBuffer(OpenGLIndexBuffer indexBuffer)
+    {
+        // The element array buffer binding is part of the state of the vertex array object.
+        glBindVertexArray(this.vaoId);
+        OpenGLContext.errorCheck();
+
+        if (indexBuffer == null)
+        {
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+            OpenGLContext.errorCheck();
+        }
+        else
+        {
+            indexBuffer.bind();
+        }
+
+        this.indexBuffer = indexBuffer;
+    }
+
     void draw(int primitiveMode)
     {
         if (count == Integer.MAX_VALUE)
@@ -75,9 +85,11 @@ class OpenGLVertexArray implements Resource
         {
             glBindVertexArray(this.vaoId);
             OpenGLContext.errorCheck();
-            if (usesIndexing)
+            if (indexBuffer != null)
             {
-                glDrawElements(primitiveMode, this.count, GL_UNSIGNED_INT, 0);
+                // Rebind in case another index buffer was bound while this vertex array was active.
+                indexBuffer.bind();
+                glDrawElements(primitiveMode, indexBuffer.count(), GL_UNSIGNED_INT, 0);
                 OpenGLContext.errorCheck();
             }
             else
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.opengl;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+
+/**
+ * Reads rows of a BufferedImage as packed ARGB integers, producing exactly the same values as BufferedImage.getRGB().
+ * For the raster layouts produced by ImageIO for common file formats, the pixels are read directly from the image's DataBuffer,
+ * using lookup tables built from the image's color model for any conversion that is required.
+ * Other layouts fall back to BufferedImage.getRGB(), one row at a time.
+ * Rows may be read concurrently from multiple threads.
+ */
+abstract class RasterRowReader
+{
+    final int width;
+
+    private RasterRowReader(int width)
+    {
+        this.width = width;
+    }
+
+    /**
+     * Reads a row of the image.
+     * @param y The row to read.
+     * @param argbOut Receives the ARGB value of each pixel in the row; must have a length of at least the width of the image.
+     */
+    abstract void readRow(int y, int[] argbOut);
+
+    static RasterRowReader forImage(BufferedImage image)
+    {
+        WritableRaster raster = image.getRaster();
+        ColorModel colorModel = image.getColorModel();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+
+        RasterRowReader reader = null;
+
+        if (!colorModel.isAlphaPremultiplied())
+        {
+            if (colorModel instanceof DirectColorModel && sampleModel instanceof SinglePixelPackedSampleModel
+                && dataBuffer instanceof DataBufferInt && dataBuffer.getNumBanks() == 1)
+            {
+                reader = PackedIntReader.create(image, (DirectColorModel) colorModel, (SinglePixelPackedSampleModel) sampleModel,
+                    (DataBufferInt) dataBuffer);
+            }
+            else if (colorModel instanceof ComponentColorModel && sampleModel instanceof ComponentSampleModel
+                && (dataBuffer instanceof DataBufferByte || dataBuffer instanceof DataBufferUShort))
+            {
+                reader = ComponentReader.create(image, (ComponentColorModel) colorModel, (ComponentSampleModel) sampleModel, dataBuffer);
+            }
+            else if (colorModel instanceof IndexColorModel && sampleModel instanceof ComponentSampleModel
+                && dataBuffer instanceof DataBufferByte && sampleModel.getNumBands() == 1)
+            {
+                reader = ComponentReader.createIndexed(image, (IndexColorModel) colorModel, (ComponentSampleModel) sampleModel,
+                    (DataBufferByte) dataBuffer);
+            }
+        }
+
+        return reader != null ? reader : new FallbackReader(image);
+    }
+
+    /**
+     * Uses BufferedImage.getRGB() for color models that aren't handled by any of the other readers.
+     */
+    private static final class FallbackReader extends RasterRowReader
+    {
+        private final BufferedImage image;
+
+        FallbackReader(BufferedImage image)
+        {
+            super(image.getWidth());
+            this.image = image;
+        }
+
+        @Override
+        void readRow(int y, int[] argbOut)
+        {
+            image.getRGB(0, y, width, 1, argbOut, 0, width);
+        }
+    }
+
+    /**
+     * Handles images with one 32-bit integer per pixel and 8 bits per channel, such as TYPE_INT_ARGB, TYPE_INT_RGB and TYPE_INT_BGR.
+     */
+    private static final class PackedIntReader extends RasterRowReader
+    {
+        private final int[] data;
+        private final int offset;
+        private final int scanlineStride;
+        private final int redShift;
+        private final int greenShift;
+        private final int blueShift;
+        private final int alphaShift; // Negative if there is no alpha channel.
+
+        private PackedIntReader(int width, int[] data, int offset, int scanlineStride,
+            int redShift, int greenShift, int blueShift, int alphaShift)
+        {
+            super(width);
+            this.data = data;
+            this.offset = offset;
+            this.scanlineStride = scanlineStride;
+            this.redShift = redShift;
+            this.greenShift = greenShift;
+            this.blueShift = blueShift;
+            this.alphaShift = alphaShift;
+        }
+
+        static PackedIntReader create(BufferedImage image, DirectColorModel colorModel, SinglePixelPackedSampleModel sampleModel,
+            DataBufferInt dataBuffer)
+        {
+            if (!colorModel.getColorSpace().isCS_sRGB())
+            {
+                return null;
+            }
+
+            int redShift = getByteMaskShift(colorModel.getRedMask());
+            int greenShift = getByteMaskShift(colorModel.getGreenMask());
+            int blueShift = getByteMaskShift(colorModel.getBlueMask());
+            int alphaShift = colorModel.hasAlpha() ? getByteMaskShift(colorModel.getAlphaMask()) : -1;
+
+            if (redShift < 0 || greenShift < 0 || blueShift < 0 || colorModel.hasAlpha() && alphaShift < 0)
+            {
+                return null;
+            }
+
+            WritableRaster raster = image.getRaster();
+            int offset = dataBuffer.getOffset()
+                + sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+
+            return new PackedIntReader(image.getWidth(), dataBuffer.getData(), offset, sampleModel.getScanlineStride(),
+                redShift, greenShift, blueShift, alphaShift);
+        }
+
+        /**
+         * Gets the position of a mask that covers exactly 8 contiguous bits, or -1 if it is any other kind of mask.
+         */
+        private static int getByteMaskShift(int mask)
+        {
+            int shift = Integer.numberOfTrailingZeros(mask);
+            return shift <= 24 && mask >>> shift == 0xFF ? shift : -1;
+        }
+
+        @Override
+        void readRow(int y, int[] argbOut)
+        {
+            int start = offset + y * scanlineStride;
+
+            if (redShift == 16 && greenShift == 8 && blueShift == 0)
+            {
+                if (alphaShift == 24)
+                {
+                    System.arraycopy(data, start, argbOut, 0, width);
+                }
+                else
+                {
+                    for (int x = 0; x < width; x++)
+                    {
+                        argbOut[x] = 0xFF000000 | data[start + x];
+                    }
+                }
+            }
+            else
+            {
+                for (int x = 0; x < width; x++)
+                {
+                    int pixel = data[start + x];
+                    argbOut[x] = (alphaShift < 0 ? 0xFF000000 : (pixel >>> alphaShift & 0xFF) << 24)
+                        | (pixel >>> redShift & 0xFF) << 16
+                        | (pixel >>> greenShift & 0xFF) << 8
+                        | pixel >>> blueShift & 0xFF;
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles images where each channel is stored in a separate 8-bit or 16-bit sample, interleaved in a single bank,
+     * such as TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_BYTE_GRAY, TYPE_USHORT_GRAY, and the RGB, RGBA, gray and gray-alpha images read from PNG files.
+     * Also handles 8-bit palettized images.
+     * Each sample is converted using a lookup table that contains the corresponding bits of the ARGB value produced by the color model.
+     */
+    private static final class ComponentReader extends RasterRowReader
+    {
+        private final byte[] byteData;
+        private final short[] shortData;
+        private final int offset;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final int[] bandOffsets;
+        private final int[][] lookupTables;
+
+        private ComponentReader(int width, byte[] byteData, short[] shortData, int offset, int scanlineStride, int pixelStride,
+            int[] bandOffsets, int[][] lookupTables)
+        {
+            super(width);
+            this.byteData = byteData;
+            this.shortData = shortData;
+            this.offset = offset;
+            this.scanlineStride = scanlineStride;
+            this.pixelStride = pixelStride;
+            this.bandOffsets = bandOffsets;
+            this.lookupTables = lookupTables;
+        }
+
+        static ComponentReader create(BufferedImage image, ComponentColorModel colorModel, ComponentSampleModel sampleModel, DataBuffer dataBuffer)
+        {
+            ColorSpace colorSpace = colorModel.getColorSpace();
+            boolean gray = colorSpace == ColorSpace.getInstance(ColorSpace.CS_GRAY);
+            int bandCount = sampleModel.getNumBands();
+            int colorBandCount = gray ? 1 : 3;
+
+            if (!(gray || colorSpace.isCS_sRGB()) || !hasSingleBank(sampleModel)
+                || bandCount != colorModel.getNumComponents() || bandCount != colorBandCount + (colorModel.hasAlpha() ? 1 : 0))
+            {
+                return null;
+            }
+
+            int bits = dataBuffer instanceof DataBufferByte ? 8 : 16;
+            for (int b = 0; b < bandCount; b++)
+            {
+                if (colorModel.getComponentSize(b) != bits)
+                {
+                    return null;
+                }
+            }
+
+            // Since the color model is either gray or sRGB and alpha is not premultiplied,
+            // each channel of the ARGB value only depends on the corresponding sample, so it can be converted using a lookup table.
+            // Each table is filled by asking the color model to convert a pixel where only the corresponding sample varies.
+            int tableSize = 1 << bits;
+            int[][] lookupTables = new int[bandCount][tableSize];
+            Object pixel = bits == 8 ? new byte[bandCount] : new short[bandCount];
+
+            for (int b = 0; b < bandCount; b++)
+            {
+                boolean alpha = b == colorBandCount;
+
+                // The value returned for a color channel doesn't depend on alpha, but use opaque pixels anyway.
+                if (colorModel.hasAlpha() && !alpha)
+                {
+                    setSample(pixel, colorBandCount, tableSize - 1);
+                }
+
+                for (int value = 0; value < tableSize; value++)
+                {
+                    setSample(pixel, b, value);
+
+                    int argb = colorModel.getRGB(pixel);
+
+                    if (alpha)
+                    {
+                        lookupTables[b][value] = argb & 0xFF000000;
+                    }
+                    else if (gray)
+                    {
+                        lookupTables[b][value] = argb & 0x00FFFFFF;
+                    }
+                    else
+                    {
+                        lookupTables[b][value] = argb & (0x00FF0000 >>> (8 * b));
+                    }
+                }
+
+                setSample(pixel, b, 0);
+            }
+
+            if (!colorModel.hasAlpha())
+            {
+                // Make the first table responsible for setting alpha.
+                for (int value = 0; value < tableSize; value++)
+                {
+                    lookupTables[0][value] |= 0xFF000000;
+                }
+            }
+
+            return create(image, sampleModel, dataBuffer, lookupTables);
+        }
+
+        static ComponentReader createIndexed(BufferedImage image, IndexColorModel colorModel, ComponentSampleModel sampleModel,
+            DataBufferByte dataBuffer)
+        {
+            if (colorModel.getPixelSize() != 8 || sampleModel.getSampleSize(0) != 8)
+            {
+                return null;
+            }
+
+            int[] lookupTable = new int[256];
+            for (int value = 0; value < lookupTable.length; value++)
+            {
+                lookupTable[value] = colorModel.getRGB(value);
+            }
+
+            return create(image, sampleModel, dataBuffer, new int[][] { lookupTable });
+        }
+
+        private static ComponentReader create(BufferedImage image, ComponentSampleModel sampleModel, DataBuffer dataBuffer, int[][] lookupTables)
+        {
+            WritableRaster raster = image.getRaster();
+            int bank = sampleModel.getBankIndices()[0];
+            int offset = dataBuffer.getOffsets()[bank]
+                + sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY(), 0)
+                - sampleModel.getBandOffsets()[0];
+
+            return new ComponentReader(image.getWidth(),
+                dataBuffer instanceof DataBufferByte ? ((DataBufferByte) dataBuffer).getData(bank) : null,
+                dataBuffer instanceof DataBufferUShort ? ((DataBufferUShort) dataBuffer).getData(bank) : null,
+                offset, sampleModel.getScanlineStride(), sampleModel.getPixelStride(), sampleModel.getBandOffsets(), lookupTables);
+        }
+
+        private static boolean hasSingleBank(ComponentSampleModel sampleModel)
+        {
+            int[] bankIndices = sampleModel.getBankIndices();
+            for (int bankIndex : bankIndices)
+            {
+                if (bankIndex != bankIndices[0])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void setSample(Object pixel, int band, int value)
+        {
+            if (pixel instanceof byte[])
+            {
+                ((byte[]) pixel)[band] = (byte) value;
+            }
+            else
+            {
+                ((short[]) pixel)[band] = (short) value;
+            }
+        }
+
+        @Override
+        void readRow(int y, int[] argbOut)
+        {
+            int start = offset + y * scanlineStride;
+
+            if (byteData != null)
+            {
+                switch (lookupTables.length)
+                {
+                    case 1:
+                        readRow(byteData, start, bandOffsets[0], lookupTables[0], argbOut);
+                        break;
+                    case 3:
+                        readRow(byteData, start, bandOffsets[0], bandOffsets[1], bandOffsets[2],
+                            lookupTables[0], lookupTables[1], lookupTables[2], argbOut);
+                        break;
+                    default:
+                        readRow(byteData, start, argbOut);
+                        break;
+                }
+            }
+            else
+            {
+                readRow(shortData, start, argbOut);
+            }
+        }
+
+        private void readRow(byte[] data, int start, int offset0, int[] table0, int[] argbOut)
+        {
+            for (int x = 0, i = start + offset0; x < width; x++, i += pixelStride)
+            {
+                argbOut[x] = table0[data[i] & 0xFF];
+            }
+        }
+
+        private void readRow(byte[] data, int start, int offset0, int offset1, int offset2,
+            int[] table0, int[] table1, int[] table2, int[] argbOut)
+        {
+            for (int x = 0, i = start; x < width; x++, i += pixelStride)
+            {
+                argbOut[x] = table0[data[i + offset0] & 0xFF] | table1[data[i + offset1] & 0xFF] | table2[data[i + offset2] & 0xFF];
+            }
+        }
+
+        private void readRow(byte[] data, int start, int[] argbOut)
+        {
+            for (int x = 0, i = start; x < width; x++, i += pixelStride)
+            {
+                int argb = 0;
+                for (int b = 0; b < lookupTables.length; b++)
+                {
+                    argb |= lookupTables[b][data[i + bandOffsets[b]] & 0xFF];
+                }
+                argbOut[x] = argb;
+            }
+        }
+
+        private void readRow(short[] data, int start, int[] argbOut)
+        {
+            for (int x = 0, i = start; x < width; x++, i += pixelStride)
+            {
+                int argb = 0;
+                for (int b = 0; b < lookupTables.length; b++)
+                {
+                    argb |= lookupTables[b][data[i + bandOffsets[b]] & 0xFFFF];
+                }
+                argbOut[x] = argb;
+            }
+        }
+    }
+}
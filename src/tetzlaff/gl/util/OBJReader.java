@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import tetzlaff.util.ByteTokenizer;
+
+/**
+ * Reads the raw contents of a Wavefront OBJ file into primitive arrays.
+ * The file is memory-mapped and split into line-aligned chunks that are parsed in parallel and then merged in order.
+ * Only the subset of the format used by VertexGeometry is supported (triangles with positions, and optionally texture coordinates and normals).
+ */
+final class OBJReader
+{
+    /**
+     * The approximate number of bytes per chunk.  Each chunk is parsed by a single thread.
+     */
+    private static final int CHUNK_SIZE = 1 << 25; // 32 MiB
+
+    /**
+     * The number of bytes to read at a time when searching for the end of a line at a chunk boundary.
+     */
+    private static final int BOUNDARY_SEARCH_SIZE = 4096;
+
+    /**
+     * The contents of an OBJ file (or a chunk of one).
+     * All indices are 0-based; corners that did not specify a texture coordinate or normal have an index of -1.
+     */
+    static final class Data
+    {
+        float[] positions; // 3 per vertex
+        float[] texCoords; // 2 per texture coordinate
+        float[] normals; // 3 per normal, normalized to unit length
+        int positionCount;
+        int texCoordCount;
+        int normalCount;
+
+        int[] positionIndices; // 3 per face
+        int[] texCoordIndices; // 3 per face
+        int[] normalIndices; // 3 per face
+        int cornerCount;
+
+        boolean hasTexCoords = true;
+        boolean hasNormals = true;
+
+        String materialFileName;
+        String materialName;
+
+        int getFaceCount()
+        {
+            return cornerCount / 3;
+        }
+    }
+
+    private static final class FloatList
+    {
+        float[] array;
+        int size;
+
+        FloatList(int initialCapacity)
+        {
+            array = new float[initialCapacity];
+        }
+
+        void ensureCapacity(int capacity)
+        {
+            if (capacity > array.length)
+            {
+                array = Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+            }
+        }
+    }
+
+    private static final class IntList
+    {
+        int[] array;
+        int size;
+
+        IntList(int initialCapacity)
+        {
+            array = new int[initialCapacity];
+        }
+
+        void add(int value)
+        {
+            if (size == array.length)
+            {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[size++] = value;
+        }
+    }
+
+    /**
+     * The results of parsing a single chunk.
+     * Relative (negative) indices are resolved against the counts within the chunk and must be offset when merging.
+     */
+    private static final class Chunk
+    {
+        final FloatList positions;
+        final FloatList texCoords;
+        final FloatList normals;
+        final IntList positionIndices;
+        final IntList texCoordIndices;
+        final IntList normalIndices;
+
+        // Locations in the index lists that came from relative indices.
+        final IntList relativePositionIndices = new IntList(16);
+        final IntList relativeTexCoordIndices = new IntList(16);
+        final IntList relativeNormalIndices = new IntList(16);
+
+        boolean hasTexCoords = true;
+        boolean hasNormals = true;
+
+        String materialFileName;
+        String materialName;
+
+        Chunk(int byteCount)
+        {
+            // Rough estimates for a typical OBJ file; the lists will grow if necessary.
+            int estimatedVertices = Math.max(16, byteCount / 96);
+            positions = new FloatList(estimatedVertices * 3);
+            texCoords = new FloatList(estimatedVertices * 2);
+            normals = new FloatList(estimatedVertices * 3);
+            positionIndices = new IntList(estimatedVertices * 6);
+            texCoordIndices = new IntList(estimatedVertices * 6);
+            normalIndices = new IntList(estimatedVertices * 6);
+        }
+    }
+
+    private OBJReader()
+    {
+    }
+
+    /**
+     * Reads an OBJ file, parsing chunks of the file in parallel.
+     * @param file The OBJ file.
+     * @return The contents of the file.
+     * @throws IOException If the file could not be read.
+     */
+    static Data read(File file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long[] boundaries = findChunkBoundaries(channel);
+
+            List<MappedByteBuffer> buffers = new ArrayList<>(boundaries.length - 1);
+            for (int i = 0; i < boundaries.length - 1; i++)
+            {
+                buffers.add(channel.map(MapMode.READ_ONLY, boundaries[i], boundaries[i + 1] - boundaries[i]));
+            }
+
+            Chunk[] chunks = IntStream.range(0, buffers.size())
+                .parallel()
+                .mapToObj(i -> parseChunk(buffers.get(i)))
+                .toArray(Chunk[]::new);
+
+            return merge(chunks);
+        }
+    }
+
+    private static long[] findChunkBoundaries(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        int chunkCount = (int)Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+        long[] boundaries = new long[chunkCount + 1];
+        int boundaryCount = 1; // boundaries[0] = 0
+
+        ByteBuffer searchBuffer = ByteBuffer.allocate(BOUNDARY_SEARCH_SIZE);
+
+        for (int i = 1; i < chunkCount; i++)
+        {
+            long position = Math.max((long)i * CHUNK_SIZE, boundaries[boundaryCount - 1]);
+            long boundary = size;
+
+            // Advance to the beginning of the next line.
+            search:
+            while (position < size)
+            {
+                searchBuffer.clear();
+                int bytesRead = channel.read(searchBuffer, position);
+                if (bytesRead <= 0)
+                {
+                    break;
+                }
+
+                for (int j = 0; j < bytesRead; j++)
+                {
+                    if (searchBuffer.get(j) == '\n')
+                    {
+                        boundary = position + j + 1;
+                        break search;
+                    }
+                }
+
+                position += bytesRead;
+            }
+
+            if (boundary > boundaries[boundaryCount - 1] && boundary < size)
+            {
+                boundaries[boundaryCount] = boundary;
+                boundaryCount++;
+            }
+        }
+
+        boundaries[boundaryCount] = size;
+        return Arrays.copyOf(boundaries, boundaryCount + 1);
+    }
+
+    private static Chunk parseChunk(ByteBuffer buffer)
+    {
+        Chunk chunk = new Chunk(buffer.remaining());
+        ByteTokenizer tokenizer = new ByteTokenizer(buffer);
+
+        while (tokenizer.hasRemaining())
+        {
+            tokenizer.skipBlankLines();
+            if (!tokenizer.hasRemaining())
+            {
+                break;
+            }
+
+            int c0 = tokenizer.peek(0);
+            int c1 = tokenizer.peek(1);
+
+            if (c0 == 'v' && (c1 == ' ' || c1 == '\t'))
+            {
+                // Vertex position
+                tokenizer.skipToken();
+                chunk.positions.ensureCapacity(chunk.positions.size + 3);
+                chunk.positions.array[chunk.positions.size++] = tokenizer.nextFloat();
+                chunk.positions.array[chunk.positions.size++] = tokenizer.nextFloat();
+                chunk.positions.array[chunk.positions.size++] = tokenizer.nextFloat();
+            }
+            else if (c0 == 'f' && (c1 == ' ' || c1 == '\t'))
+            {
+                tokenizer.skipToken();
+                for (int i = 0; i < 3; i++) // Only support triangles
+                {
+                    parseCorner(tokenizer, chunk);
+                }
+            }
+            else if (c0 == 'v' && c1 == 't' && tokenizer.skipIfNextToken("vt"))
+            {
+                // Texture coordinate
+                chunk.texCoords.ensureCapacity(chunk.texCoords.size + 2);
+                chunk.texCoords.array[chunk.texCoords.size++] = tokenizer.nextFloat();
+                chunk.texCoords.array[chunk.texCoords.size++] = tokenizer.nextFloat();
+            }
+            else if (c0 == 'v' && c1 == 'n' && tokenizer.skipIfNextToken("vn"))
+            {
+                // Vertex normal
+                float nx = tokenizer.nextFloat();
+                float ny = tokenizer.nextFloat();
+                float nz = tokenizer.nextFloat();
+
+                // Normalize to unit length (using the same operations as Vector3.normalized())
+                float scale = 1.0f / (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+                chunk.normals.ensureCapacity(chunk.normals.size + 3);
+                chunk.normals.array[chunk.normals.size++] = scale * nx;
+                chunk.normals.array[chunk.normals.size++] = scale * ny;
+                chunk.normals.array[chunk.normals.size++] = scale * nz;
+            }
+            else if (c0 == 'm' && tokenizer.skipIfNextToken("mtllib"))
+            {
+                if (chunk.materialFileName == null)
+                {
+                    // Use first material filename found
+                    chunk.materialFileName = tokenizer.nextToken();
+                }
+            }
+            else if (c0 == 'u' && tokenizer.skipIfNextToken("usemtl"))
+            {
+                if (chunk.materialName == null)
+                {
+                    // Use first material found
+                    chunk.materialName = tokenizer.nextToken();
+                }
+            }
+
+            // Always advance to the next line.
+            tokenizer.skipLine();
+        }
+
+        return chunk;
+    }
+
+    private static void parseCorner(ByteTokenizer tokenizer, Chunk chunk)
+    {
+        // Process vertex position
+        addIndex(tokenizer.nextInt(), chunk.positions.size / 3, chunk.positionIndices, chunk.relativePositionIndices);
+
+        boolean hasTexCoord = false;
+        boolean hasNormal = false;
+
+        if (tokenizer.skipIfNext('/'))
+        {
+            if (tokenizer.peek() != '/' && isIndexStart(tokenizer.peek()))
+            {
+                // Process texture coordinate
+                addIndex(tokenizer.nextInt(), chunk.texCoords.size / 2, chunk.texCoordIndices, chunk.relativeTexCoordIndices);
+                hasTexCoord = true;
+            }
+
+            if (tokenizer.skipIfNext('/') && isIndexStart(tokenizer.peek()))
+            {
+                // Process vertex normal
+                addIndex(tokenizer.nextInt(), chunk.normals.size / 3, chunk.normalIndices, chunk.relativeNormalIndices);
+                hasNormal = true;
+            }
+        }
+
+        if (!hasTexCoord)
+        {
+            // No texture coordinate
+            chunk.hasTexCoords = false;
+            chunk.texCoordIndices.add(-1);
+        }
+
+        if (!hasNormal)
+        {
+            // No vertex normal
+            chunk.hasNormals = false;
+            chunk.normalIndices.add(-1);
+        }
+    }
+
+    private static boolean isIndexStart(int c)
+    {
+        return c == '-' || c == '+' || (c >= '0' && c <= '9');
+    }
+
+    private static void addIndex(int index, int currentCount, IntList indices, IntList relativeIndices)
+    {
+        if (index < 0)
+        {
+            // Relative index; will be offset by the number of elements in preceding chunks when merging.
+            relativeIndices.add(indices.size);
+            indices.add(currentCount + index);
+        }
+        else
+        {
+            // Absolute index
+            // 1-based -> 0-based indexing
+            indices.add(index - 1);
+        }
+    }
+
+    private static Data merge(Chunk... chunks)
+    {
+        Data data = new Data();
+
+        int positionFloats = 0;
+        int texCoordFloats = 0;
+        int normalFloats = 0;
+        int corners = 0;
+
+        for (Chunk chunk : chunks)
+        {
+            positionFloats += chunk.positions.size;
+            texCoordFloats += chunk.texCoords.size;
+            normalFloats += chunk.normals.size;
+            corners += chunk.positionIndices.size;
+
+            data.hasTexCoords = data.hasTexCoords && chunk.hasTexCoords;
+            data.hasNormals = data.hasNormals && chunk.hasNormals;
+
+            if (data.materialFileName == null)
+            {
+                data.materialFileName = chunk.materialFileName;
+            }
+
+            if (data.materialName == null)
+            {
+                data.materialName = chunk.materialName;
+            }
+        }
+
+        if (chunks.length == 1)
+        {
+            // Avoid copying if there was only one chunk (relative indices are already correct).
+            Chunk chunk = chunks[0];
+            data.positions = chunk.positions.array;
+            data.texCoords = chunk.texCoords.array;
+            data.normals = chunk.normals.array;
+            data.positionIndices = chunk.positionIndices.array;
+            data.texCoordIndices = chunk.texCoordIndices.array;
+            data.normalIndices = chunk.normalIndices.array;
+        }
+        else
+        {
+            data.positions = new float[positionFloats];
+            data.texCoords = new float[texCoordFloats];
+            data.normals = new float[normalFloats];
+            data.positionIndices = new int[corners];
+            data.texCoordIndices = new int[corners];
+            data.normalIndices = new int[corners];
+
+            int positionOffset = 0;
+            int texCoordOffset = 0;
+            int normalOffset = 0;
+            int cornerOffset = 0;
+
+            for (Chunk chunk : chunks)
+            {
+                System.arraycopy(chunk.positions.array, 0, data.positions, positionOffset, chunk.positions.size);
+                System.arraycopy(chunk.texCoords.array, 0, data.texCoords, texCoordOffset, chunk.texCoords.size);
+                System.arraycopy(chunk.normals.array, 0, data.normals, normalOffset, chunk.normals.size);
+                System.arraycopy(chunk.positionIndices.array, 0, data.positionIndices, cornerOffset, chunk.positionIndices.size);
+                System.arraycopy(chunk.texCoordIndices.array, 0, data.texCoordIndices, cornerOffset, chunk.texCoordIndices.size);
+                System.arraycopy(chunk.normalIndices.array, 0, data.normalIndices, cornerOffset, chunk.normalIndices.size);
+
+                offsetRelativeIndices(data.positionIndices, cornerOffset, chunk.relativePositionIndices, positionOffset / 3);
+                offsetRelativeIndices(data.texCoordIndices, cornerOffset, chunk.relativeTexCoordIndices, texCoordOffset / 2);
+                offsetRelativeIndices(data.normalIndices, cornerOffset, chunk.relativeNormalIndices, normalOffset / 3);
+
+                positionOffset += chunk.positions.size;
+                texCoordOffset += chunk.texCoords.size;
+                normalOffset += chunk.normals.size;
+                cornerOffset += chunk.positionIndices.size;
+            }
+        }
+
+        data.positionCount = positionFloats / 3;
+        data.texCoordCount = texCoordFloats / 2;
+        data.normalCount = normalFloats / 3;
+        data.cornerCount = corners;
+
+        return data;
+    }
+
+    private static void offsetRelativeIndices(int[] indices, int cornerOffset, IntList relativeIndices, int elementOffset)
+    {
+        for (int i = 0; i < relativeIndices.size; i++)
+        {
+            indices[cornerOffset + relativeIndices.array[i]] += elementOffset;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import tetzlaff.gl.core.Context;
+import tetzlaff.gl.core.DecodedImage;
+import tetzlaff.gl.core.Texture3D;
+
+/**
+ * Loads the layers of a texture array using a pool of worker threads to decode the images,
+ * while the calling thread (which must own the GL context) uploads the decoded layers in order.
+ * Only a limited number of layers are allowed to be decoded ahead of the upload,
+ * so the memory used by decoded images waiting to be uploaded stays bounded no matter how many layers there are.
+ */
+public final class ParallelLayerLoader
+{
+    /**
+     * Decodes the image for a particular layer.  This will be called from the worker threads, so it must not use the GL context.
+     */
+    @FunctionalInterface
+    public interface LayerDecoder<ContextType extends Context<ContextType>>
+    {
+        DecodedImage<ContextType> decode(int layerIndex) throws IOException;
+    }
+
+    /**
+     * The fraction of the maximum heap size that decoded images waiting to be uploaded are allowed to occupy.
+     * Decoded images are stored in direct buffers, which by default are limited to the same size as the heap.
+     */
+    private static final int MEMORY_FRACTION_DENOMINATOR = 4;
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final int threadCount;
+    private final int maxPendingLayers;
+
+    /**
+     * Creates a loader that uses one worker thread per available processor.
+     */
+    public ParallelLayerLoader()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a loader with a specific number of worker threads.
+     * Up to two layers per worker thread will be decoded ahead of the upload, if memory permits.
+     * @param threadCount The number of threads to use for decoding images.
+     */
+    public ParallelLayerLoader(int threadCount)
+    {
+        this(threadCount, 2 * threadCount);
+    }
+
+    /**
+     * Creates a loader with a specific number of worker threads and limit on the number of layers decoded ahead of the upload.
+     * @param threadCount The number of threads to use for decoding images.
+     * @param maxPendingLayers The maximum number of layers that can be decoding or waiting to be uploaded at any time.
+     */
+    public ParallelLayerLoader(int threadCount, int maxPendingLayers)
+    {
+        if (threadCount < 1)
+        {
+            throw new IllegalArgumentException("At least one thread is required.");
+        }
+
+        if (maxPendingLayers < 1)
+        {
+            throw new IllegalArgumentException("At least one pending layer must be allowed.");
+        }
+
+        this.threadCount = threadCount;
+        this.maxPendingLayers = maxPendingLayers;
+    }
+
+    /**
+     * Loads layers into a texture array.  This must be called on the thread that owns the texture's GL context.
+     * @param texture The texture to load.
+     * @param layerCount The number of layers to load, starting with layer 0.
+     * @param decoder Decodes the image for each layer.  Typically this calls texture.decodeLayer() with the appropriate file.
+     * @param progressCallback Called on the calling thread with the number of layers that have been uploaded after each layer is uploaded.
+     *                         May be null.
+     * @param <ContextType> The type of the GL context.
+     * @throws IOException If any of the layers fail to decode.  No further layers will be uploaded after a failure.
+     */
+    public <ContextType extends Context<ContextType>> void loadLayers(Texture3D<ContextType> texture, int layerCount,
+        LayerDecoder<ContextType> decoder, IntConsumer progressCallback) throws IOException
+    {
+        long layerSize = 4L * texture.getWidth() * texture.getHeight();
+        int window = (int) Math.max(1, Math.min(maxPendingLayers,
+            Runtime.getRuntime().maxMemory() / MEMORY_FRACTION_DENOMINATOR / Math.max(1, layerSize)));
+
+        String threadNamePrefix = "Layer decoder " + POOL_COUNTER.incrementAndGet() + '-';
+        AtomicInteger threadCounter = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, window), runnable ->
+        {
+            Thread thread = new Thread(runnable, threadNamePrefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try
+        {
+            List<Future<DecodedImage<ContextType>>> pending = new ArrayList<>(layerCount);
+            int submitted = 0;
+
+            for (int i = 0; i < layerCount; i++)
+            {
+                // Keep the window of layers being decoded or waiting to be uploaded full.
+                while (submitted < layerCount && submitted < i + window)
+                {
+                    int layerIndex = submitted;
+                    pending.add(executor.submit(() -> decoder.decode(layerIndex)));
+                    submitted++;
+                }
+
+                texture.loadLayer(i, getDecodedImage(pending.get(i)));
+
+                // Release the decoded image so that it can be garbage collected.
+                pending.set(i, null);
+
+                if (progressCallback != null)
+                {
+                    progressCallback.accept(i + 1);
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <ContextType extends Context<ContextType>> DecodedImage<ContextType> getDecodedImage(
+        Future<DecodedImage<ContextType>> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for an image to decode.");
+            interrupted.initCause(e);
+            throw interrupted;
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            else
+            {
+                throw new IOException(cause);
+            }
+        }
+    }
+}
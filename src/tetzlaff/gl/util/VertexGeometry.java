@@ -15,8 +15,12 @@ package tetzlaff.gl.util;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.stream.IntStream;
 
 import tetzlaff.gl.material.Material;
 import tetzlaff.gl.nativebuffer.NativeDataType;
@@ -37,6 +41,7 @@ public final class VertexGeometry
     private NativeVectorBuffer normals;
     private NativeVectorBuffer texCoords;
     private NativeVectorBuffer tangents;
+    private NativeVectorBuffer indices;
     private Vector3 centroid;
     private Vector3 boundingBoxCenter;
     private Vector3 boundingBoxSize;
@@ -50,6 +55,29 @@ public final class VertexGeometry
         this.filename = filename;
     }
 
+    /**
+     * Creates a mesh from attribute buffers that have already been prepared, i.e. by VertexGeometryCache.
+     */
+    VertexGeometry(File filename, NativeVectorBuffer vertices, NativeVectorBuffer normals, NativeVectorBuffer texCoords,
+        NativeVectorBuffer tangents, NativeVectorBuffer indices, Vector3 centroid, Vector3 boundingBoxCenter, Vector3 boundingBoxSize,
+        float boundingRadius, String materialFileName, String materialName)
+    {
+        this.filename = filename;
+        this.hasNormals = normals != null;
+        this.hasTexCoords = texCoords != null;
+        this.vertices = vertices;
+        this.normals = normals;
+        this.texCoords = texCoords;
+        this.tangents = tangents;
+        this.indices = indices;
+        this.centroid = centroid;
+        this.boundingBoxCenter = boundingBoxCenter;
+        this.boundingBoxSize = boundingBoxSize;
+        this.boundingRadius = boundingRadius;
+        this.materialFileName = materialFileName;
+        this.material = loadMaterial(filename, materialFileName, materialName);
+    }
+
     private static class NormalTexCoordPair
     {
         public final int normalIndex;
@@ -86,8 +114,459 @@ public final class VertexGeometry
 
     /**
      * Initializes the mesh from a file containing the mesh in Wavefront OBJ format.
+     * The file is memory-mapped and parsed in parallel without boxing any of the vertex attributes.
+     * Every corner of every face gets its own vertex; see createIndexedFromOBJFile() for a more compact alternative.
+     * After the first time a file is parsed, a binary cache is written next to it (see VertexGeometryCache)
+     * and subsequent loads memory-map the cache instead, as long as the OBJ file has not changed.
      */
     public static VertexGeometry createFromOBJFile(File file) throws FileNotFoundException
+    {
+        return createFromOBJFile(file, false, true);
+    }
+
+    /**
+     * Initializes the mesh from a file containing the mesh in Wavefront OBJ format, welding identical vertices.
+     * Face corners that share the same position, normal and texture coordinate are stored only once,
+     * and getIndices() returns a buffer of three indices per triangle that can be uploaded using Context.createIndexBuffer().
+     * The attributes of each unique vertex are identical to those that would be produced by createFromOBJFile().
+     * Like createFromOBJFile(), this uses and maintains a binary cache next to the OBJ file.
+     */
+    public static VertexGeometry createIndexedFromOBJFile(File file) throws FileNotFoundException
+    {
+        return createFromOBJFile(file, true, true);
+    }
+
+    static VertexGeometry createFromOBJFile(File file, boolean indexed, boolean useCache) throws FileNotFoundException
+    {
+        Date timestamp = new Date();
+
+        VertexGeometryCache.SourceStamp stamp;
+        OBJReader.Data data;
+
+        try
+        {
+            stamp = VertexGeometryCache.SourceStamp.of(file);
+
+            if (useCache)
+            {
+                VertexGeometry cached = readCache(file, stamp, indexed);
+                if (cached != null)
+                {
+                    System.out.println("Mesh loaded from cache in " + (new Date().getTime() - timestamp.getTime()) + " milliseconds.");
+                    return cached;
+                }
+            }
+
+            data = OBJReader.read(file);
+        }
+        catch (NoSuchFileException e)
+        {
+            FileNotFoundException notFound = new FileNotFoundException(file + " (No such file or directory)");
+            notFound.initCause(e);
+            throw notFound;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+
+        VertexGeometry inst = createFromOBJData(file, data, indexed);
+
+        System.out.println("Mesh loaded in " + (new Date().getTime() - timestamp.getTime()) + " milliseconds.");
+
+        // Indexed meshes are preferred for the cache since they are more compact and more commonly used,
+        // so an up-to-date cache of an indexed mesh is not replaced by a non-indexed one.
+        if (useCache && (indexed || !VertexGeometryCache.hasIndexedCache(file, stamp)))
+        {
+            try
+            {
+                VertexGeometryCache.write(file, stamp, inst, data.materialName);
+            }
+            catch (IOException e)
+            {
+                // The directory may not be writable, in which case the mesh will simply be parsed again next time.
+                System.err.println("Could not write mesh cache for " + file + ": " + e.getMessage());
+            }
+        }
+
+        return inst;
+    }
+
+    private static VertexGeometry readCache(File file, VertexGeometryCache.SourceStamp stamp, boolean indexed)
+    {
+        try
+        {
+            return VertexGeometryCache.read(file, stamp, indexed);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not read mesh cache for " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static VertexGeometry createFromOBJData(File file, OBJReader.Data data, boolean indexed)
+    {
+        VertexGeometry inst = new VertexGeometry(file);
+
+        inst.hasNormals = data.hasNormals;
+        inst.hasTexCoords = data.hasTexCoords;
+        inst.materialFileName = data.materialFileName;
+
+        // Sum sequentially in file order so that the result is identical to the Scanner-based path.
+        float sumX = 0.0f;
+        float sumY = 0.0f;
+        float sumZ = 0.0f;
+        for (int i = 0; i < data.positionCount; i++)
+        {
+            sumX += data.positions[3 * i];
+            sumY += data.positions[3 * i + 1];
+            sumZ += data.positions[3 * i + 2];
+        }
+
+        inst.centroid = new Vector3(sumX, sumY, sumZ).dividedBy(data.positionCount);
+
+        // For each vertex in the output, the index of a face corner that it was created from.
+        // If the geometry is not indexed, this is just the identity and is left null.
+        int[] vertexCorners;
+        int vertexCount;
+
+        if (indexed)
+        {
+            int[] cornerVertices = new int[data.cornerCount];
+            vertexCorners = weldVertices(data, cornerVertices);
+            vertexCount = vertexCorners.length;
+            inst.indices = NativeVectorBufferFactory.getInstance().createFromIntArray(true, 1, cornerVertices.length, cornerVertices);
+        }
+        else
+        {
+            vertexCorners = null;
+            vertexCount = data.cornerCount;
+        }
+
+        inst.vertices = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 3, vertexCount);
+        FloatBuffer vertexBuffer = inst.vertices.getBuffer().asFloatBuffer();
+
+        // Expand positions and compute the bounds in parallel, one block of corners at a time.
+        int blockSize = 1 << 16;
+        int blockCount = (vertexCount + blockSize - 1) / blockSize;
+        float[] blockBounds = new float[blockCount * 7];
+
+        IntStream.range(0, blockCount).parallel().forEach(block ->
+        {
+            // The bounding box always includes the origin.
+            float minX = 0.0f;
+            float minY = 0.0f;
+            float minZ = 0.0f;
+            float maxX = 0.0f;
+            float maxY = 0.0f;
+            float maxZ = 0.0f;
+            float radius = 0.0f;
+
+            int end = Math.min(vertexCount, (block + 1) * blockSize);
+            for (int i = block * blockSize; i < end; i++)
+            {
+                int k = data.positionIndices[vertexCorners == null ? i : vertexCorners[i]];
+                float x = data.positions[3 * k];
+                float y = data.positions[3 * k + 1];
+                float z = data.positions[3 * k + 2];
+
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                minZ = Math.min(minZ, z);
+
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+                maxZ = Math.max(maxZ, z);
+
+                float dx = x - inst.centroid.x;
+                float dy = y - inst.centroid.y;
+                float dz = z - inst.centroid.z;
+                radius = Math.max(radius, (float)Math.sqrt(dx * dx + dy * dy + dz * dz));
+
+                vertexBuffer.put(3 * i, x);
+                vertexBuffer.put(3 * i + 1, y);
+                vertexBuffer.put(3 * i + 2, z);
+            }
+
+            blockBounds[7 * block] = minX;
+            blockBounds[7 * block + 1] = minY;
+            blockBounds[7 * block + 2] = minZ;
+            blockBounds[7 * block + 3] = maxX;
+            blockBounds[7 * block + 4] = maxY;
+            blockBounds[7 * block + 5] = maxZ;
+            blockBounds[7 * block + 6] = radius;
+        });
+
+        float boundingBoxMinX = 0.0f;
+        float boundingBoxMinY = 0.0f;
+        float boundingBoxMinZ = 0.0f;
+        float boundingBoxMaxX = 0.0f;
+        float boundingBoxMaxY = 0.0f;
+        float boundingBoxMaxZ = 0.0f;
+        inst.boundingRadius = 0.0f;
+
+        for (int block = 0; block < blockCount; block++)
+        {
+            boundingBoxMinX = Math.min(boundingBoxMinX, blockBounds[7 * block]);
+            boundingBoxMinY = Math.min(boundingBoxMinY, blockBounds[7 * block + 1]);
+            boundingBoxMinZ = Math.min(boundingBoxMinZ, blockBounds[7 * block + 2]);
+            boundingBoxMaxX = Math.max(boundingBoxMaxX, blockBounds[7 * block + 3]);
+            boundingBoxMaxY = Math.max(boundingBoxMaxY, blockBounds[7 * block + 4]);
+            boundingBoxMaxZ = Math.max(boundingBoxMaxZ, blockBounds[7 * block + 5]);
+            inst.boundingRadius = Math.max(inst.boundingRadius, blockBounds[7 * block + 6]);
+        }
+
+        inst.boundingBoxCenter = new Vector3((boundingBoxMinX + boundingBoxMaxX) / 2, (boundingBoxMinY + boundingBoxMaxY) / 2, (boundingBoxMinZ + boundingBoxMaxZ) / 2);
+        inst.boundingBoxSize = new Vector3(boundingBoxMaxX - boundingBoxMinX, boundingBoxMaxY - boundingBoxMinY, boundingBoxMaxZ - boundingBoxMinZ);
+
+        if (inst.hasNormals)
+        {
+            inst.normals = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 3, vertexCount);
+            FloatBuffer normalBuffer = inst.normals.getBuffer().asFloatBuffer();
+            IntStream.range(0, vertexCount).parallel().forEach(i ->
+            {
+                int k = data.normalIndices[vertexCorners == null ? i : vertexCorners[i]];
+                normalBuffer.put(3 * i, data.normals[3 * k]);
+                normalBuffer.put(3 * i + 1, data.normals[3 * k + 1]);
+                normalBuffer.put(3 * i + 2, data.normals[3 * k + 2]);
+            });
+        }
+
+        if (inst.hasTexCoords)
+        {
+            inst.texCoords = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 2, vertexCount);
+            FloatBuffer texCoordBuffer = inst.texCoords.getBuffer().asFloatBuffer();
+            IntStream.range(0, vertexCount).parallel().forEach(i ->
+            {
+                int k = data.texCoordIndices[vertexCorners == null ? i : vertexCorners[i]];
+                texCoordBuffer.put(2 * i, data.texCoords[2 * k]);
+                texCoordBuffer.put(2 * i + 1, data.texCoords[2 * k + 1]);
+            });
+        }
+
+        if (inst.hasTexCoords && inst.hasNormals)
+        {
+            inst.tangents = computeOrthoTangents(data, vertexCorners, vertexCount);
+        }
+
+        inst.material = loadMaterial(file, inst.materialFileName, data.materialName);
+
+        return inst;
+    }
+
+    /**
+     * Finds the unique combinations of position, texture coordinate and normal among the face corners.
+     * Texture coordinates and normals are ignored if they are not present for every face.
+     * @param data The raw contents of the OBJ file.
+     * @param cornerVerticesOut Receives, for each face corner, the index of the unique vertex that it maps to.
+     * @return For each unique vertex, the first face corner where it was found.
+     */
+    private static int[] weldVertices(OBJReader.Data data, int[] cornerVerticesOut)
+    {
+        int[] positionIndices = data.positionIndices;
+        int[] texCoordIndices = data.hasTexCoords ? data.texCoordIndices : null;
+        int[] normalIndices = data.hasNormals ? data.normalIndices : null;
+
+        // Open-addressing hash table from a unique vertex to the first face corner where it was found (or -1 if empty).
+        // Keys are compared by looking up the corner in the index arrays, so no keys need to be stored.
+        int tableSize = Integer.highestOneBit(Math.max(16, data.cornerCount + data.cornerCount / 2)) << 1;
+        int tableMask = tableSize - 1;
+        int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+
+        int[] vertexCorners = new int[data.cornerCount];
+        int vertexCount = 0;
+
+        for (int i = 0; i < data.cornerCount; i++)
+        {
+            int p = positionIndices[i];
+            int t = texCoordIndices == null ? 0 : texCoordIndices[i];
+            int n = normalIndices == null ? 0 : normalIndices[i];
+
+            int h = ((p * 0x9E3779B1 + t) * 0x9E3779B1 + n) * 0x9E3779B1;
+            h = (h ^ (h >>> 16)) & tableMask;
+
+            while (true)
+            {
+                int corner = table[h];
+
+                if (corner < 0)
+                {
+                    // New unique vertex
+                    table[h] = i;
+                    vertexCorners[vertexCount] = i;
+                    cornerVerticesOut[i] = vertexCount;
+                    vertexCount++;
+                    break;
+                }
+                else if (positionIndices[corner] == p
+                    && (texCoordIndices == null || texCoordIndices[corner] == t)
+                    && (normalIndices == null || normalIndices[corner] == n))
+                {
+                    // Existing vertex; its index is stored with the first corner where it was found.
+                    cornerVerticesOut[i] = cornerVerticesOut[corner];
+                    break;
+                }
+                else
+                {
+                    h = (h + 1) & tableMask;
+                }
+            }
+        }
+
+        return Arrays.copyOf(vertexCorners, vertexCount);
+    }
+
+    /**
+     * Accumulates tangents and bitangents for each unique (normal, texture coordinate) pair and orthogonalizes them.
+     * Accumulation happens sequentially in face order so that the floating-point sums match the Scanner-based path exactly.
+     * @param data The raw contents of the OBJ file.
+     * @param vertexCorners For each output vertex, a face corner that it was created from, or null if there is one vertex per corner.
+     * @param vertexCount The number of output vertices.
+     */
+    private static NativeVectorBuffer computeOrthoTangents(OBJReader.Data data, int[] vertexCorners, int vertexCount)
+    {
+        int cornerCount = data.cornerCount;
+
+        // Open-addressing hash table from (normal index, texture coordinate index) to a slot in the accumulation arrays.
+        int tableSize = Integer.highestOneBit(Math.max(16, cornerCount + cornerCount / 2)) << 1;
+        int tableMask = tableSize - 1;
+        long[] tableKeys = new long[tableSize];
+        int[] tableSlots = new int[tableSize];
+        Arrays.fill(tableSlots, -1);
+
+        int[] cornerSlots = new int[cornerCount];
+        int[] slotNormalIndices = new int[cornerCount];
+        int slotCount = 0;
+
+        for (int i = 0; i < cornerCount; i++)
+        {
+            long key = ((long)data.normalIndices[i] << 32) | (data.texCoordIndices[i] & 0xFFFFFFFFL);
+            int h = (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & tableMask;
+
+            while (tableSlots[h] >= 0 && tableKeys[h] != key)
+            {
+                h = (h + 1) & tableMask;
+            }
+
+            if (tableSlots[h] < 0)
+            {
+                tableKeys[h] = key;
+                tableSlots[h] = slotCount;
+                slotNormalIndices[slotCount] = data.normalIndices[i];
+                slotCount++;
+            }
+
+            cornerSlots[i] = tableSlots[h];
+        }
+
+        float[] tangentSums = new float[slotCount * 3];
+        float[] bitangentSums = new float[slotCount * 3];
+
+        for (int f = 0; f < data.getFaceCount(); f++)
+        {
+            int p0 = 3 * data.positionIndices[3 * f];
+            int p1 = 3 * data.positionIndices[3 * f + 1];
+            int p2 = 3 * data.positionIndices[3 * f + 2];
+            int t0 = 2 * data.texCoordIndices[3 * f];
+            int t1 = 2 * data.texCoordIndices[3 * f + 1];
+            int t2 = 2 * data.texCoordIndices[3 * f + 2];
+
+            // Same sequence of float operations as computeTangents()
+            float s1 = data.texCoords[t1] - data.texCoords[t0];
+            float s2 = data.texCoords[t2] - data.texCoords[t0];
+            float tt1 = data.texCoords[t1 + 1] - data.texCoords[t0 + 1];
+            float tt2 = data.texCoords[t2 + 1] - data.texCoords[t0 + 1];
+
+            float r = 1.0f / (s1 * tt2 - s2 * tt1);
+
+            float q1x = data.positions[p1] - data.positions[p0];
+            float q1y = data.positions[p1 + 1] - data.positions[p0 + 1];
+            float q1z = data.positions[p1 + 2] - data.positions[p0 + 2];
+            float q2x = data.positions[p2] - data.positions[p0];
+            float q2y = data.positions[p2 + 1] - data.positions[p0 + 1];
+            float q2z = data.positions[p2 + 2] - data.positions[p0 + 2];
+
+            float tangentScale1 = r * tt2;
+            float tangentScale2 = r * -tt1;
+            float bitangentScale1 = r * -s2;
+            float bitangentScale2 = r * s1;
+
+            float tx = tangentScale1 * q1x + tangentScale2 * q2x;
+            float ty = tangentScale1 * q1y + tangentScale2 * q2y;
+            float tz = tangentScale1 * q1z + tangentScale2 * q2z;
+            float bx = bitangentScale1 * q1x + bitangentScale2 * q2x;
+            float by = bitangentScale1 * q1y + bitangentScale2 * q2y;
+            float bz = bitangentScale1 * q1z + bitangentScale2 * q2z;
+
+            for (int c = 0; c < 3; c++)
+            {
+                int slot = cornerSlots[3 * f + c];
+                tangentSums[3 * slot] += tx;
+                tangentSums[3 * slot + 1] += ty;
+                tangentSums[3 * slot + 2] += tz;
+                bitangentSums[3 * slot] += bx;
+                bitangentSums[3 * slot + 1] += by;
+                bitangentSums[3 * slot + 2] += bz;
+            }
+        }
+
+        float[] orthoTangents = new float[slotCount * 4];
+        IntStream.range(0, slotCount).parallel().forEach(slot ->
+        {
+            int n = 3 * slotNormalIndices[slot];
+            Vector4 orthoTangent = orthogonalizeTangent(
+                new Vector3(data.normals[n], data.normals[n + 1], data.normals[n + 2]),
+                new Vector3(tangentSums[3 * slot], tangentSums[3 * slot + 1], tangentSums[3 * slot + 2]),
+                new Vector3(bitangentSums[3 * slot], bitangentSums[3 * slot + 1], bitangentSums[3 * slot + 2]));
+
+            orthoTangents[4 * slot] = orthoTangent.x;
+            orthoTangents[4 * slot + 1] = orthoTangent.y;
+            orthoTangents[4 * slot + 2] = orthoTangent.z;
+            orthoTangents[4 * slot + 3] = orthoTangent.w;
+        });
+
+        NativeVectorBuffer tangents = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 4, vertexCount);
+        FloatBuffer tangentBuffer = tangents.getBuffer().asFloatBuffer();
+        IntStream.range(0, vertexCount).parallel().forEach(i ->
+        {
+            int slot = cornerSlots[vertexCorners == null ? i : vertexCorners[i]];
+            tangentBuffer.put(4 * i, orthoTangents[4 * slot]);
+            tangentBuffer.put(4 * i + 1, orthoTangents[4 * slot + 1]);
+            tangentBuffer.put(4 * i + 2, orthoTangents[4 * slot + 2]);
+            tangentBuffer.put(4 * i + 3, orthoTangents[4 * slot + 3]);
+        });
+
+        return tangents;
+    }
+
+    private static Material loadMaterial(File file, String materialFileName, String materialName)
+    {
+        if (materialFileName != null)
+        {
+            try
+            {
+                Dictionary<String, Material> materialLibrary = Material.loadFromMTLFile(new File(file.getParentFile(), materialFileName));
+                return materialLibrary.get(materialName);
+            }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Initializes the mesh from a file containing the mesh in Wavefront OBJ format using java.util.Scanner.
+     * This is the original (much slower) implementation, retained as a reference for validation and benchmarking.
+     */
+    static VertexGeometry createFromOBJFileWithScanner(File file) throws FileNotFoundException
     {
         VertexGeometry inst = new VertexGeometry(file);
 
@@ -311,9 +790,9 @@ public final class VertexGeometry
 
             inst.boundingRadius = Math.max(inst.boundingRadius, vertex.minus(inst.centroid).length());
 
-            inst.vertices.set(index, 0, vertex.x);
-            inst.vertices.set(index, 1, vertex.y);
-            inst.vertices.set(index, 2, vertex.z);
+            inst.vertices.setFloat(index, 0, vertex.x);
+            inst.vertices.setFloat(index, 1, vertex.y);
+            inst.vertices.setFloat(index, 2, vertex.z);
 
             index++;
         }
@@ -327,9 +806,9 @@ public final class VertexGeometry
             int i = 0;
             for (int k : normalIndexList)
             {
-                inst.normals.set(i, 0, normalList.get(k).x);
-                inst.normals.set(i, 1, normalList.get(k).y);
-                inst.normals.set(i, 2, normalList.get(k).z);
+                inst.normals.setFloat(i, 0, normalList.get(k).x);
+                inst.normals.setFloat(i, 1, normalList.get(k).y);
+                inst.normals.setFloat(i, 2, normalList.get(k).z);
                 i++;
             }
         }
@@ -340,8 +819,8 @@ public final class VertexGeometry
             int i = 0;
             for (int k : texCoordIndexList)
             {
-                inst.texCoords.set(i, 0, texCoordList.get(k).x);
-                inst.texCoords.set(i, 1, texCoordList.get(k).y);
+                inst.texCoords.setFloat(i, 0, texCoordList.get(k).x);
+                inst.texCoords.setFloat(i, 1, texCoordList.get(k).y);
                 i++;
             }
         }
@@ -351,10 +830,11 @@ public final class VertexGeometry
             inst.tangents = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 4, vertexCount);
             for (int i = 0; i < normalIndexList.size(); i++)
             {
-                inst.tangents.set(i, 0, orthoTangentsMap.get(new NormalTexCoordPair(normalIndexList.get(i), texCoordIndexList.get(i))).x);
-                inst.tangents.set(i, 1, orthoTangentsMap.get(new NormalTexCoordPair(normalIndexList.get(i), texCoordIndexList.get(i))).y);
-                inst.tangents.set(i, 2, orthoTangentsMap.get(new NormalTexCoordPair(normalIndexList.get(i), texCoordIndexList.get(i))).z);
-                inst.tangents.set(i, 3, orthoTangentsMap.get(new NormalTexCoordPair(normalIndexList.get(i), texCoordIndexList.get(i))).w);
+                Vector4 tangent = orthoTangentsMap.get(new NormalTexCoordPair(normalIndexList.get(i), texCoordIndexList.get(i)));
+                inst.tangents.setFloat(i, 0, tangent.x);
+                inst.tangents.setFloat(i, 1, tangent.y);
+                inst.tangents.setFloat(i, 2, tangent.z);
+                inst.tangents.setFloat(i, 3, tangent.w);
             }
         }
 
@@ -465,6 +945,24 @@ public final class VertexGeometry
         return tangents;
     }
 
+    /**
+     * Whether or not the vertices are shared between faces, in which case they must be drawn using the buffer returned by getIndices().
+     * @return True if the geometry is indexed, false if every three consecutive vertices form a triangle.
+     */
+    public boolean isIndexed()
+    {
+        return indices != null;
+    }
+
+    /**
+     * Gets the indices of the vertices of each triangle (three per triangle) if the geometry is indexed.
+     * @return A buffer of 32-bit unsigned integers, or null if the geometry is not indexed.
+     */
+    public NativeVectorBuffer getIndices()
+    {
+        return indices;
+    }
+
     public String getMaterialFileName()
     {
         return this.materialFileName;
@@ -0,0 +1,481 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+import tetzlaff.gl.nativebuffer.NativeDataType;
+import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
+import tetzlaff.gl.nativebuffer.NativeVectorBufferFactory;
+import tetzlaff.gl.vecmath.Vector3;
+
+/**
+ * Binary cache of a VertexGeometry, stored next to the OBJ file that it was parsed from.
+ * The vertex attributes are stored as little-endian arrays that can be memory-mapped and handed directly to OpenGL,
+ * so reopening a mesh does not require parsing or copying any of its data.
+ * The cache is only used if the size, modification time and a sampled checksum of the OBJ file all match those recorded when it was written.
+ *
+ * File layout (little-endian):
+ * <pre>
+ *   int     magic number
+ *   int     format version
+ *   long    source file size
+ *   long    source file modification time
+ *   long    source file checksum
+ *   int     flags (normals, texture coordinates, indexed)
+ *   int     vertex count
+ *   int     index count
+ *   float*3 centroid
+ *   float*3 bounding box center
+ *   float*3 bounding box size
+ *   float   bounding radius
+ *   long*5  offsets of the position, normal, texture coordinate, tangent and index arrays (0 if absent)
+ *   string  material file name (int length, or -1 if null, followed by UTF-8 bytes)
+ *   string  material name
+ * </pre>
+ * Each array begins at an offset aligned to 64 bytes.
+ */
+final class VertexGeometryCache
+{
+    private static final String FILE_EXTENSION = ".meshcache";
+
+    private static final int MAGIC_NUMBER = 0x48534D56; // "VMSH"
+    private static final int VERSION = 1;
+
+    private static final int HAS_NORMALS = 1;
+    private static final int HAS_TEX_COORDS = 2;
+    private static final int INDEXED = 4;
+
+    private static final int FIXED_HEADER_SIZE = 124;
+    private static final int ALIGNMENT = 64;
+    private static final int MAX_STRINGS_SIZE = 1 << 16;
+
+    private static final int CHECKSUM_SAMPLE_COUNT = 16;
+    private static final int CHECKSUM_SAMPLE_SIZE = 1 << 16;
+
+    private static final int POSITIONS = 0;
+    private static final int NORMALS = 1;
+    private static final int TEX_COORDS = 2;
+    private static final int TANGENTS = 3;
+    private static final int INDICES = 4;
+
+    private VertexGeometryCache()
+    {
+    }
+
+    /**
+     * Identifies the exact version of an OBJ file that a cache was created from.
+     */
+    static final class SourceStamp
+    {
+        final long size;
+        final long lastModified;
+        final long checksum;
+
+        private SourceStamp(long size, long lastModified, long checksum)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Stamps a source file.  The checksum only covers evenly spaced samples of the file (including the beginning and the end)
+         * so that validating the cache of a large mesh costs a few megabytes of I/O rather than a full read.
+         * @param file The source file.
+         * @return The stamp.
+         * @throws IOException If the file does not exist or cannot be read.
+         */
+        static SourceStamp of(File file) throws IOException
+        {
+            try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+            {
+                long size = channel.size();
+                long lastModified = Files.getLastModifiedTime(file.toPath()).toMillis();
+
+                CRC32 crc = new CRC32();
+                ByteBuffer sample = ByteBuffer.allocate(CHECKSUM_SAMPLE_SIZE);
+
+                if (size <= (long) CHECKSUM_SAMPLE_COUNT * CHECKSUM_SAMPLE_SIZE)
+                {
+                    for (long position = 0; position < size; position += CHECKSUM_SAMPLE_SIZE)
+                    {
+                        readSample(channel, position, sample);
+                        crc.update(sample);
+                    }
+                }
+                else
+                {
+                    long stride = (size - CHECKSUM_SAMPLE_SIZE) / (CHECKSUM_SAMPLE_COUNT - 1);
+                    for (int i = 0; i < CHECKSUM_SAMPLE_COUNT; i++)
+                    {
+                        readSample(channel, i * stride, sample);
+                        crc.update(sample);
+                    }
+                }
+
+                return new SourceStamp(size, lastModified, crc.getValue());
+            }
+        }
+
+        private static void readSample(FileChannel channel, long position, ByteBuffer sample) throws IOException
+        {
+            sample.clear();
+            while (sample.hasRemaining() && channel.read(sample, position + sample.position()) >= 0)
+            {
+                // Keep reading until the sample is full or the end of the file is reached.
+            }
+            sample.flip();
+        }
+    }
+
+    static File getCacheFile(File objFile)
+    {
+        return new File(objFile.getPath() + FILE_EXTENSION);
+    }
+
+    /**
+     * Whether or not caches can be used on this platform.
+     * The arrays are mapped directly into native vector buffers, which must be in the platform's byte order.
+     */
+    private static boolean isSupported()
+    {
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    }
+
+    /**
+     * Loads a mesh from the cache next to an OBJ file.
+     * @param objFile The OBJ file.
+     * @param stamp The stamp of the OBJ file as it is now.
+     * @param indexed Whether the mesh is required to be indexed.
+     * @return The mesh, or null if there is no valid cache for the OBJ file in the requested form.
+     * @throws IOException If the cache exists but cannot be read.
+     */
+    static VertexGeometry read(File objFile, SourceStamp stamp, boolean indexed) throws IOException
+    {
+        File cacheFile = getCacheFile(objFile);
+
+        if (!isSupported() || !cacheFile.isFile())
+        {
+            return null;
+        }
+
+        try(FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ))
+        {
+            long fileSize = channel.size();
+            ByteBuffer header = readHeader(channel, stamp);
+            if (header == null)
+            {
+                return null;
+            }
+
+            int flags = header.getInt();
+            if (((flags & INDEXED) != 0) != indexed)
+            {
+                return null;
+            }
+
+            int vertexCount = header.getInt();
+            int indexCount = header.getInt();
+
+            Vector3 centroid = new Vector3(header.getFloat(), header.getFloat(), header.getFloat());
+            Vector3 boundingBoxCenter = new Vector3(header.getFloat(), header.getFloat(), header.getFloat());
+            Vector3 boundingBoxSize = new Vector3(header.getFloat(), header.getFloat(), header.getFloat());
+            float boundingRadius = header.getFloat();
+
+            long[] offsets = new long[5];
+            for (int i = 0; i < offsets.length; i++)
+            {
+                offsets[i] = header.getLong();
+            }
+
+            if (vertexCount < 0 || indexCount < 0 || offsets[POSITIONS] < FIXED_HEADER_SIZE
+                || offsets[POSITIONS] > Math.min(fileSize, FIXED_HEADER_SIZE + MAX_STRINGS_SIZE))
+            {
+                return null;
+            }
+
+            ByteBuffer strings = ByteBuffer.allocate((int) (offsets[POSITIONS] - FIXED_HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, strings, FIXED_HEADER_SIZE);
+            String materialFileName = getString(strings);
+            String materialName = getString(strings);
+
+            NativeVectorBuffer vertices = map(channel, fileSize, offsets[POSITIONS], NativeDataType.FLOAT, 3, vertexCount);
+            NativeVectorBuffer normals = (flags & HAS_NORMALS) != 0 ?
+                map(channel, fileSize, offsets[NORMALS], NativeDataType.FLOAT, 3, vertexCount) : null;
+            NativeVectorBuffer texCoords = (flags & HAS_TEX_COORDS) != 0 ?
+                map(channel, fileSize, offsets[TEX_COORDS], NativeDataType.FLOAT, 2, vertexCount) : null;
+            NativeVectorBuffer tangents = (flags & HAS_NORMALS) != 0 && (flags & HAS_TEX_COORDS) != 0 ?
+                map(channel, fileSize, offsets[TANGENTS], NativeDataType.FLOAT, 4, vertexCount) : null;
+            NativeVectorBuffer indices = indexed ?
+                map(channel, fileSize, offsets[INDICES], NativeDataType.UNSIGNED_INT, 1, indexCount) : null;
+
+            if (vertices == null || (flags & HAS_NORMALS) != 0 && normals == null || (flags & HAS_TEX_COORDS) != 0 && texCoords == null
+                || (flags & HAS_NORMALS) != 0 && (flags & HAS_TEX_COORDS) != 0 && tangents == null || indexed && indices == null)
+            {
+                return null;
+            }
+
+            return new VertexGeometry(objFile, vertices, normals, texCoords, tangents, indices,
+                centroid, boundingBoxCenter, boundingBoxSize, boundingRadius, materialFileName, materialName);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Corrupt string or array bounds
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether there is a cache of an indexed mesh next to an OBJ file that is up to date.
+     * @param objFile The OBJ file.
+     * @param stamp The stamp of the OBJ file as it is now.
+     * @return True if the cache exists, matches the OBJ file and contains an indexed mesh.
+     */
+    static boolean hasIndexedCache(File objFile, SourceStamp stamp)
+    {
+        File cacheFile = getCacheFile(objFile);
+
+        if (!isSupported() || !cacheFile.isFile())
+        {
+            return false;
+        }
+
+        try(FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = readHeader(channel, stamp);
+            return header != null && (header.getInt() & INDEXED) != 0;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the fixed-size part of the header and checks that the cache is current.
+     * @return The header, positioned at the flags, or null if the cache is invalid or out of date.
+     */
+    private static ByteBuffer readHeader(FileChannel channel, SourceStamp stamp) throws IOException
+    {
+        if (channel.size() < FIXED_HEADER_SIZE)
+        {
+            return null;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, 0);
+
+        if (header.getInt() != MAGIC_NUMBER || header.getInt() != VERSION
+            || header.getLong() != stamp.size || header.getLong() != stamp.lastModified || header.getLong() != stamp.checksum)
+        {
+            return null;
+        }
+        else
+        {
+            return header;
+        }
+    }
+
+    /**
+     * Writes the cache for a mesh that was just parsed from an OBJ file.
+     * The cache is written to a temporary file first and then moved into place so that a partially written cache is never used.
+     * @param objFile The OBJ file.
+     * @param stamp The stamp of the OBJ file when it was parsed.
+     * @param geometry The mesh.
+     * @param materialName The name of the material used by the mesh.
+     * @throws IOException If the cache could not be written.
+     */
+    static void write(File objFile, SourceStamp stamp, VertexGeometry geometry, String materialName) throws IOException
+    {
+        if (!isSupported())
+        {
+            return;
+        }
+
+        NativeVectorBuffer[] arrays =
+        {
+            geometry.getVertices(),
+            geometry.hasNormals() ? geometry.getNormals() : null,
+            geometry.hasTexCoords() ? geometry.getTexCoords() : null,
+            geometry.getTangents(),
+            geometry.getIndices()
+        };
+
+        byte[] materialFileNameBytes = geometry.getMaterialFileName() == null ? null : geometry.getMaterialFileName().getBytes(StandardCharsets.UTF_8);
+        byte[] materialNameBytes = materialName == null ? null : materialName.getBytes(StandardCharsets.UTF_8);
+
+        long headerSize = FIXED_HEADER_SIZE + 8
+            + (materialFileNameBytes == null ? 0 : materialFileNameBytes.length)
+            + (materialNameBytes == null ? 0 : materialNameBytes.length);
+
+        long[] offsets = new long[arrays.length];
+        long nextOffset = align(headerSize);
+        for (int i = 0; i < arrays.length; i++)
+        {
+            if (arrays[i] != null)
+            {
+                offsets[i] = nextOffset;
+                nextOffset = align(nextOffset + getByteCount(arrays[i]));
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate((int) offsets[POSITIONS]).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC_NUMBER);
+        header.putInt(VERSION);
+        header.putLong(stamp.size);
+        header.putLong(stamp.lastModified);
+        header.putLong(stamp.checksum);
+        header.putInt((arrays[NORMALS] != null ? HAS_NORMALS : 0) | (arrays[TEX_COORDS] != null ? HAS_TEX_COORDS : 0)
+            | (arrays[INDICES] != null ? INDEXED : 0));
+        header.putInt(arrays[POSITIONS].getCount());
+        header.putInt(arrays[INDICES] != null ? arrays[INDICES].getCount() : 0);
+        putVector(header, geometry.getCentroid());
+        putVector(header, geometry.getBoundingBoxCenter());
+        putVector(header, geometry.getBoundingBoxSize());
+        header.putFloat(geometry.getBoundingRadius());
+        for (long offset : offsets)
+        {
+            header.putLong(offset);
+        }
+        putString(header, materialFileNameBytes);
+        putString(header, materialNameBytes);
+        header.clear();
+
+        File cacheFile = getCacheFile(objFile);
+        Path tempPath = new File(cacheFile.getPath() + ".tmp").toPath();
+
+        try
+        {
+            try(FileChannel channel = FileChannel.open(tempPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                writeFully(channel, header, 0);
+
+                for (int i = 0; i < arrays.length; i++)
+                {
+                    if (arrays[i] != null)
+                    {
+                        ByteBuffer data = arrays[i].getBuffer().duplicate();
+                        data.clear();
+                        data.limit((int) getByteCount(arrays[i]));
+                        writeFully(channel, data, offsets[i]);
+                    }
+                }
+            }
+
+            Files.move(tempPath, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private static NativeVectorBuffer map(FileChannel channel, long fileSize, long offset, NativeDataType dataType, int dimensions, int count)
+        throws IOException
+    {
+        long byteCount = (long) dataType.getSizeInBytes() * dimensions * count;
+
+        if (offset <= 0 || byteCount > Integer.MAX_VALUE || offset + byteCount > fileSize)
+        {
+            return null;
+        }
+
+        ByteBuffer buffer = channel.map(MapMode.READ_ONLY, offset, byteCount).order(ByteOrder.LITTLE_ENDIAN);
+        return NativeVectorBufferFactory.getInstance().createFromExistingBuffer(dataType, dimensions, count, buffer);
+    }
+
+    private static long getByteCount(NativeVectorBuffer buffer)
+    {
+        return (long) buffer.getDataType().getSizeInBytes() * buffer.getDimensions() * buffer.getCount();
+    }
+
+    private static long align(long offset)
+    {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static void putVector(ByteBuffer buffer, Vector3 vector)
+    {
+        buffer.putFloat(vector.x);
+        buffer.putFloat(vector.y);
+        buffer.putFloat(vector.z);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes)
+    {
+        if (bytes == null)
+        {
+            buffer.putInt(-1);
+        }
+        else
+        {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer)
+    {
+        if (buffer.remaining() < 4)
+        {
+            throw new IllegalArgumentException("Truncated string.");
+        }
+
+        int length = buffer.getInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        else if (length > buffer.remaining())
+        {
+            throw new IllegalArgumentException("Truncated string.");
+        }
+        else
+        {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of mesh cache.");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+}
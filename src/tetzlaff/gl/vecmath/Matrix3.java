@@ -22,9 +22,9 @@ public final class Matrix3
     public static final Matrix3 IDENTITY = scale(1.0f);
 
     /**
-     * The matrix data.
+     * The matrix data in row-major order: the entry at (row, col) is m[row * 3 + col].
      */
-    private final float[][] m;
+    private final float[] m;
 
     /**
      * Creates a new matrix by specifying each entry.
@@ -43,16 +43,7 @@ public final class Matrix3
         float m21, float m22, float m23,
         float m31, float m32, float m33)
     {
-        m = new float[3][3];
-        m[0][0] = m11;
-        m[1][0] = m21;
-        m[2][0] = m31;
-        m[0][1] = m12;
-        m[1][1] = m22;
-        m[2][1] = m32;
-        m[0][2] = m13;
-        m[1][2] = m23;
-        m[2][2] = m33;
+        m = new float[] { m11, m12, m13, m21, m22, m23, m31, m32, m33 };
     }
 
     public static Matrix3 fromColumns(Vector3 col1, Vector3 col2, Vector3 col3)
@@ -253,9 +244,9 @@ public final class Matrix3
     public Matrix3 plus(Matrix3 other)
     {
         return new Matrix3(
-            this.m[0][0] + other.m[0][0],    this.m[0][1] + other.m[0][1], this.m[0][2] + other.m[0][2],
-            this.m[1][0] + other.m[1][0],    this.m[1][1] + other.m[1][1], this.m[1][2] + other.m[1][2],
-            this.m[2][0] + other.m[2][0],    this.m[2][1] + other.m[2][1], this.m[2][2] + other.m[2][2]
+            this.m[0] + other.m[0],    this.m[1] + other.m[1], this.m[2] + other.m[2],
+            this.m[3] + other.m[3],    this.m[4] + other.m[4], this.m[5] + other.m[5],
+            this.m[6] + other.m[6],    this.m[7] + other.m[7], this.m[8] + other.m[8]
         );
     }
 
@@ -267,9 +258,9 @@ public final class Matrix3
     public Matrix3 minus(Matrix3 other)
     {
         return new Matrix3(
-            this.m[0][0] - other.m[0][0],    this.m[0][1] - other.m[0][1], this.m[0][2] - other.m[0][2],
-            this.m[1][0] - other.m[1][0],    this.m[1][1] - other.m[1][1], this.m[1][2] - other.m[1][2],
-            this.m[2][0] - other.m[2][0],    this.m[2][1] - other.m[2][1], this.m[2][2] - other.m[2][2]
+            this.m[0] - other.m[0],    this.m[1] - other.m[1], this.m[2] - other.m[2],
+            this.m[3] - other.m[3],    this.m[4] - other.m[4], this.m[5] - other.m[5],
+            this.m[6] - other.m[6],    this.m[7] - other.m[7], this.m[8] - other.m[8]
         );
     }
 
@@ -281,15 +272,15 @@ public final class Matrix3
     public Matrix3 times(Matrix3 other)
     {
         return new Matrix3(
-            this.m[0][0] * other.m[0][0] + this.m[0][1] * other.m[1][0] + this.m[0][2] * other.m[2][0],
-            this.m[0][0] * other.m[0][1] + this.m[0][1] * other.m[1][1] + this.m[0][2] * other.m[2][1],
-            this.m[0][0] * other.m[0][2] + this.m[0][1] * other.m[1][2] + this.m[0][2] * other.m[2][2],
-            this.m[1][0] * other.m[0][0] + this.m[1][1] * other.m[1][0] + this.m[1][2] * other.m[2][0],
-            this.m[1][0] * other.m[0][1] + this.m[1][1] * other.m[1][1] + this.m[1][2] * other.m[2][1],
-            this.m[1][0] * other.m[0][2] + this.m[1][1] * other.m[1][2] + this.m[1][2] * other.m[2][2],
-            this.m[2][0] * other.m[0][0] + this.m[2][1] * other.m[1][0] + this.m[2][2] * other.m[2][0],
-            this.m[2][0] * other.m[0][1] + this.m[2][1] * other.m[1][1] + this.m[2][2] * other.m[2][1],
-            this.m[2][0] * other.m[0][2] + this.m[2][1] * other.m[1][2] + this.m[2][2] * other.m[2][2]
+            this.m[0] * other.m[0] + this.m[1] * other.m[3] + this.m[2] * other.m[6],
+            this.m[0] * other.m[1] + this.m[1] * other.m[4] + this.m[2] * other.m[7],
+            this.m[0] * other.m[2] + this.m[1] * other.m[5] + this.m[2] * other.m[8],
+            this.m[3] * other.m[0] + this.m[4] * other.m[3] + this.m[5] * other.m[6],
+            this.m[3] * other.m[1] + this.m[4] * other.m[4] + this.m[5] * other.m[7],
+            this.m[3] * other.m[2] + this.m[4] * other.m[5] + this.m[5] * other.m[8],
+            this.m[6] * other.m[0] + this.m[7] * other.m[3] + this.m[8] * other.m[6],
+            this.m[6] * other.m[1] + this.m[7] * other.m[4] + this.m[8] * other.m[7],
+            this.m[6] * other.m[2] + this.m[7] * other.m[5] + this.m[8] * other.m[8]
         );
     }
 
@@ -301,9 +292,9 @@ public final class Matrix3
     public Vector3 times(Vector3 vector)
     {
         return new Vector3(
-            this.m[0][0] * vector.x + this.m[0][1] * vector.y + this.m[0][2] * vector.z,
-            this.m[1][0] * vector.x + this.m[1][1] * vector.y + this.m[1][2] * vector.z,
-            this.m[2][0] * vector.x + this.m[2][1] * vector.y + this.m[2][2] * vector.z
+            this.m[0] * vector.x + this.m[1] * vector.y + this.m[2] * vector.z,
+            this.m[3] * vector.x + this.m[4] * vector.y + this.m[5] * vector.z,
+            this.m[6] * vector.x + this.m[7] * vector.y + this.m[8] * vector.z
         );
     }
 
@@ -315,9 +306,9 @@ public final class Matrix3
     public Matrix3 times(float factor)
     {
         return new Matrix3(
-            this.m[0][0] * factor, this.m[0][1] * factor, this.m[0][2] * factor,
-            this.m[1][0] * factor, this.m[1][1] * factor, this.m[1][2] * factor,
-            this.m[2][0] * factor, this.m[2][1] * factor, this.m[2][2] * factor
+            this.m[0] * factor, this.m[1] * factor, this.m[2] * factor,
+            this.m[3] * factor, this.m[4] * factor, this.m[5] * factor,
+            this.m[6] * factor, this.m[7] * factor, this.m[8] * factor
         );
     }
 
@@ -328,9 +319,9 @@ public final class Matrix3
     public Matrix3 negate()
     {
         return new Matrix3(
-            -this.m[0][0], -this.m[0][1], -this.m[0][2],
-            -this.m[1][0], -this.m[1][1], -this.m[1][2],
-            -this.m[2][0], -this.m[2][1], -this.m[2][2]
+            -this.m[0], -this.m[1], -this.m[2],
+            -this.m[3], -this.m[4], -this.m[5],
+            -this.m[6], -this.m[7], -this.m[8]
         );
     }
 
@@ -341,9 +332,9 @@ public final class Matrix3
     public Matrix3 transpose()
     {
         return new Matrix3(
-            this.m[0][0], this.m[1][0], this.m[2][0],
-            this.m[0][1], this.m[1][1], this.m[2][1],
-            this.m[0][2], this.m[1][2], this.m[2][2]
+            this.m[0], this.m[3], this.m[6],
+            this.m[1], this.m[4], this.m[7],
+            this.m[2], this.m[5], this.m[8]
         );
     }
 
@@ -353,9 +344,9 @@ public final class Matrix3
      */
     public float determinant()
     {
-        return this.m[0][0] * (this.m[1][1] * this.m[2][2] - this.m[2][1] * this.m[1][2])
-                - this.m[0][1] * (this.m[1][0] * this.m[2][2] - this.m[2][0] * this.m[1][2])
-                + this.m[0][2] * (this.m[1][0] * this.m[2][1] - this.m[2][0] * this.m[1][1]);
+        return this.m[0] * (this.m[4] * this.m[8] - this.m[7] * this.m[5])
+                - this.m[1] * (this.m[3] * this.m[8] - this.m[6] * this.m[5])
+                + this.m[2] * (this.m[3] * this.m[7] - this.m[6] * this.m[4]);
     }
 
     /**
@@ -367,9 +358,9 @@ public final class Matrix3
         float det = this.determinant();
 
         return new Matrix3(
-            (m[1][1] * m[2][2] - m[1][2] * m[2][1]) / det, (m[0][2] * m[2][1] - m[0][1] * m[2][2]) / det, (m[0][1] * m[1][2] - m[0][2] * m[1][1]) / det,
-            (m[1][2] * m[2][0] - m[1][0] * m[2][2]) / det, (m[0][0] * m[2][2] - m[0][2] * m[2][0]) / det, (m[0][2] * m[1][0] - m[0][0] * m[1][2]) / det,
-            (m[1][0] * m[2][1] - m[1][1] * m[2][0]) / det, (m[0][1] * m[2][0] - m[0][0] * m[2][1]) / det, (m[0][0] * m[1][1] - m[0][1] * m[1][0]) / det);
+            (m[4] * m[8] - m[5] * m[7]) / det, (m[2] * m[7] - m[1] * m[8]) / det, (m[1] * m[5] - m[2] * m[4]) / det,
+            (m[5] * m[6] - m[3] * m[8]) / det, (m[0] * m[8] - m[2] * m[6]) / det, (m[2] * m[3] - m[0] * m[5]) / det,
+            (m[3] * m[7] - m[4] * m[6]) / det, (m[1] * m[6] - m[0] * m[7]) / det, (m[0] * m[4] - m[1] * m[3]) / det);
     }
 
     /**
@@ -380,7 +371,7 @@ public final class Matrix3
      */
     public float get(int row, int col)
     {
-        return this.m[row][col];
+        return this.m[row * 3 + col];
     }
 
     /**
@@ -390,7 +381,7 @@ public final class Matrix3
      */
     public Vector3 getRow(int row)
     {
-        return new Vector3(this.m[row][0], this.m[row][1], this.m[row][2]);
+        return new Vector3(this.m[row * 3], this.m[row * 3 + 1], this.m[row * 3 + 2]);
     }
 
     /**
@@ -400,6 +391,6 @@ public final class Matrix3
      */
     public Vector3 getColumn(int col)
     {
-        return new Vector3(this.m[0][col], this.m[1][col], this.m[2][col]);
+        return new Vector3(this.m[col], this.m[3 + col], this.m[6 + col]);
     }
 }
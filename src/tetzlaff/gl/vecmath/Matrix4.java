@@ -16,12 +16,30 @@ import java.nio.FloatBuffer;
 
 import org.lwjgl.*;
 
+/**
+ * A 4x4 matrix backed by 32-bit floats.  This is an immutable object.
+ * The entries are stored in a single array in column-major order, the same layout that OpenGL expects for uniforms.
+ * A native buffer for passing the matrix to OpenGL is only created if asFloatBuffer() is called;
+ * writeColumnMajor() can be used instead to copy the matrix into a buffer owned by the caller.
+ * MutableMatrix4 provides the same operations without allocating for use in hot loops.
+ * @author Michael Tetzlaff
+ *
+ */
 public final class Matrix4
 {
     public static final Matrix4 IDENTITY = scale(1.0f);
 
-    private final float[][] m;
-    private final FloatBuffer buffer;
+    /**
+     * The matrix data in column-major order: the entry at (row, col) is m[col * 4 + row].
+     */
+    final float[] m;
+
+    /**
+     * Lazily created by asFloatBuffer().
+     * Volatile so that a thread that sees the buffer also sees its contents, which are written before it is published.
+     * Since the matrix is immutable, a race between threads would then at worst create the buffer more than once.
+     */
+    private volatile FloatBuffer buffer;
 
     private Matrix4(
         float m11, float m12, float m13, float m14,
@@ -29,42 +47,21 @@ public final class Matrix4
         float m31, float m32, float m33, float m34,
         float m41, float m42, float m43, float m44)
     {
-        m = new float[4][4];
-        m[0][0] = m11;
-        m[1][0] = m21;
-        m[2][0] = m31;
-        m[3][0] = m41;
-        m[0][1] = m12;
-        m[1][1] = m22;
-        m[2][1] = m32;
-        m[3][1] = m42;
-        m[0][2] = m13;
-        m[1][2] = m23;
-        m[2][2] = m33;
-        m[3][2] = m43;
-        m[0][3] = m14;
-        m[1][3] = m24;
-        m[2][3] = m34;
-        m[3][3] = m44;
-        
-        buffer = BufferUtils.createFloatBuffer(16);
-        buffer.put(m11); 
-        buffer.put(m21); 
-        buffer.put(m31);
-        buffer.put(m41);
-        buffer.put(m12);
-        buffer.put(m22);
-        buffer.put(m32);
-        buffer.put(m42);
-        buffer.put(m13);
-        buffer.put(m23);
-        buffer.put(m33);
-        buffer.put(m43);
-        buffer.put(m14);
-        buffer.put(m24);
-        buffer.put(m34);
-        buffer.put(m44);
-        buffer.flip();
+        m = new float[]
+        {
+            m11, m21, m31, m41,
+            m12, m22, m32, m42,
+            m13, m23, m33, m43,
+            m14, m24, m34, m44
+        };
+    }
+
+    /**
+     * Creates a matrix that takes ownership of an array in column-major order.
+     */
+    Matrix4(float[] m)
+    {
+        this.m = m;
     }
 
     public static Matrix4 fromColumns(Vector4 column1, Vector4 column2, Vector4 column3, Vector4 column4)
@@ -95,9 +92,9 @@ public final class Matrix4
     public Matrix3 getUpperLeft3x3()
     {
         return Matrix3.fromRows(
-                new Vector3(this.get(0,0), this.get(0,1), this.get(0,2)),
-                new Vector3(this.get(1,0), this.get(1,1), this.get(1,2)),
-                new Vector3(this.get(2,0), this.get(2,1), this.get(2,2)) );
+                new Vector3(m[0], m[4], m[8]),
+                new Vector3(m[1], m[5], m[9]),
+                new Vector3(m[2], m[6], m[10]) );
     }
 
     public static Matrix4 fromDoublePrecision(DoubleMatrix4 m4)
@@ -229,76 +226,229 @@ public final class Matrix4
 
     public Matrix4 plus(Matrix4 other)
     {
-        return new Matrix4(
-            this.m[0][0] + other.m[0][0],    this.m[0][1] + other.m[0][1], this.m[0][2] + other.m[0][2], this.m[0][3] + other.m[0][3],
-            this.m[1][0] + other.m[1][0],    this.m[1][1] + other.m[1][1], this.m[1][2] + other.m[1][2], this.m[1][3] + other.m[1][3],
-            this.m[2][0] + other.m[2][0],    this.m[2][1] + other.m[2][1], this.m[2][2] + other.m[2][2], this.m[2][3] + other.m[2][3],
-            this.m[3][0] + other.m[3][0],    this.m[3][1] + other.m[3][1], this.m[3][2] + other.m[3][2], this.m[3][3] + other.m[3][3]
-        );
+        float[] result = new float[16];
+        for (int i = 0; i < 16; i++)
+        {
+            result[i] = this.m[i] + other.m[i];
+        }
+        return new Matrix4(result);
     }
 
     public Matrix4 minus(Matrix4 other)
     {
-        return new Matrix4(
-            this.m[0][0] - other.m[0][0],    this.m[0][1] - other.m[0][1], this.m[0][2] - other.m[0][2], this.m[0][3] - other.m[0][3],
-            this.m[1][0] - other.m[1][0],    this.m[1][1] - other.m[1][1], this.m[1][2] - other.m[1][2], this.m[1][3] - other.m[1][3],
-            this.m[2][0] - other.m[2][0],    this.m[2][1] - other.m[2][1], this.m[2][2] - other.m[2][2], this.m[2][3] - other.m[2][3],
-            this.m[3][0] - other.m[3][0],    this.m[3][1] - other.m[3][1], this.m[3][2] - other.m[3][2], this.m[3][3] - other.m[3][3]
-        );
+        float[] result = new float[16];
+        for (int i = 0; i < 16; i++)
+        {
+            result[i] = this.m[i] - other.m[i];
+        }
+        return new Matrix4(result);
     }
 
     public Matrix4 times(Matrix4 other)
     {
-        return new Matrix4(
-            this.m[0][0] * other.m[0][0] + this.m[0][1] * other.m[1][0] + this.m[0][2] * other.m[2][0] + this.m[0][3] * other.m[3][0],
-            this.m[0][0] * other.m[0][1] + this.m[0][1] * other.m[1][1] + this.m[0][2] * other.m[2][1] + this.m[0][3] * other.m[3][1],
-            this.m[0][0] * other.m[0][2] + this.m[0][1] * other.m[1][2] + this.m[0][2] * other.m[2][2] + this.m[0][3] * other.m[3][2],
-            this.m[0][0] * other.m[0][3] + this.m[0][1] * other.m[1][3] + this.m[0][2] * other.m[2][3] + this.m[0][3] * other.m[3][3],
-            this.m[1][0] * other.m[0][0] + this.m[1][1] * other.m[1][0] + this.m[1][2] * other.m[2][0] + this.m[1][3] * other.m[3][0],
-            this.m[1][0] * other.m[0][1] + this.m[1][1] * other.m[1][1] + this.m[1][2] * other.m[2][1] + this.m[1][3] * other.m[3][1],
-            this.m[1][0] * other.m[0][2] + this.m[1][1] * other.m[1][2] + this.m[1][2] * other.m[2][2] + this.m[1][3] * other.m[3][2],
-            this.m[1][0] * other.m[0][3] + this.m[1][1] * other.m[1][3] + this.m[1][2] * other.m[2][3] + this.m[1][3] * other.m[3][3],
-            this.m[2][0] * other.m[0][0] + this.m[2][1] * other.m[1][0] + this.m[2][2] * other.m[2][0] + this.m[2][3] * other.m[3][0],
-            this.m[2][0] * other.m[0][1] + this.m[2][1] * other.m[1][1] + this.m[2][2] * other.m[2][1] + this.m[2][3] * other.m[3][1],
-            this.m[2][0] * other.m[0][2] + this.m[2][1] * other.m[1][2] + this.m[2][2] * other.m[2][2] + this.m[2][3] * other.m[3][2],
-            this.m[2][0] * other.m[0][3] + this.m[2][1] * other.m[1][3] + this.m[2][2] * other.m[2][3] + this.m[2][3] * other.m[3][3],
-            this.m[3][0] * other.m[0][0] + this.m[3][1] * other.m[1][0] + this.m[3][2] * other.m[2][0] + this.m[3][3] * other.m[3][0],
-            this.m[3][0] * other.m[0][1] + this.m[3][1] * other.m[1][1] + this.m[3][2] * other.m[2][1] + this.m[3][3] * other.m[3][1],
-            this.m[3][0] * other.m[0][2] + this.m[3][1] * other.m[1][2] + this.m[3][2] * other.m[2][2] + this.m[3][3] * other.m[3][2],
-            this.m[3][0] * other.m[0][3] + this.m[3][1] * other.m[1][3] + this.m[3][2] * other.m[2][3] + this.m[3][3] * other.m[3][3]
-        );
+        float[] result = new float[16];
+        multiply(this.m, other.m, result);
+        return new Matrix4(result);
+    }
+
+    /**
+     * Multiplies this matrix by another one, storing the result in a mutable matrix rather than allocating a new matrix.
+     * @param other The matrix on the right side of the product.
+     * @param dest The matrix to receive the product.
+     * @return dest
+     */
+    public MutableMatrix4 mulInto(Matrix4 other, MutableMatrix4 dest)
+    {
+        multiply(this.m, other.m, dest.m);
+        return dest;
+    }
+
+    /**
+     * Multiplies this matrix by a mutable matrix, storing the result in dest (which may be the same object as other).
+     * @param other The matrix on the right side of the product.
+     * @param dest The matrix to receive the product.
+     * @return dest
+     */
+    public MutableMatrix4 mulInto(MutableMatrix4 other, MutableMatrix4 dest)
+    {
+        multiply(this.m, other.m, dest.m);
+        return dest;
+    }
+
+    /**
+     * Computes the product of two column-major 4x4 matrices.
+     * The result is computed into locals first so that dest may be the same array as a or b.
+     */
+    static void multiply(float[] a, float[] b, float[] dest)
+    {
+        float r00 = a[0] * b[0] + a[4] * b[1] + a[8] * b[2] + a[12] * b[3];
+        float r10 = a[1] * b[0] + a[5] * b[1] + a[9] * b[2] + a[13] * b[3];
+        float r20 = a[2] * b[0] + a[6] * b[1] + a[10] * b[2] + a[14] * b[3];
+        float r30 = a[3] * b[0] + a[7] * b[1] + a[11] * b[2] + a[15] * b[3];
+
+        float r01 = a[0] * b[4] + a[4] * b[5] + a[8] * b[6] + a[12] * b[7];
+        float r11 = a[1] * b[4] + a[5] * b[5] + a[9] * b[6] + a[13] * b[7];
+        float r21 = a[2] * b[4] + a[6] * b[5] + a[10] * b[6] + a[14] * b[7];
+        float r31 = a[3] * b[4] + a[7] * b[5] + a[11] * b[6] + a[15] * b[7];
+
+        float r02 = a[0] * b[8] + a[4] * b[9] + a[8] * b[10] + a[12] * b[11];
+        float r12 = a[1] * b[8] + a[5] * b[9] + a[9] * b[10] + a[13] * b[11];
+        float r22 = a[2] * b[8] + a[6] * b[9] + a[10] * b[10] + a[14] * b[11];
+        float r32 = a[3] * b[8] + a[7] * b[9] + a[11] * b[10] + a[15] * b[11];
+
+        float r03 = a[0] * b[12] + a[4] * b[13] + a[8] * b[14] + a[12] * b[15];
+        float r13 = a[1] * b[12] + a[5] * b[13] + a[9] * b[14] + a[13] * b[15];
+        float r23 = a[2] * b[12] + a[6] * b[13] + a[10] * b[14] + a[14] * b[15];
+        float r33 = a[3] * b[12] + a[7] * b[13] + a[11] * b[14] + a[15] * b[15];
+
+        dest[0] = r00;
+        dest[1] = r10;
+        dest[2] = r20;
+        dest[3] = r30;
+        dest[4] = r01;
+        dest[5] = r11;
+        dest[6] = r21;
+        dest[7] = r31;
+        dest[8] = r02;
+        dest[9] = r12;
+        dest[10] = r22;
+        dest[11] = r32;
+        dest[12] = r03;
+        dest[13] = r13;
+        dest[14] = r23;
+        dest[15] = r33;
     }
 
     public Vector4 times(Vector4 vector)
     {
         return new Vector4(
-            this.m[0][0] * vector.x + this.m[0][1] * vector.y + this.m[0][2] * vector.z + this.m[0][3] * vector.w,
-            this.m[1][0] * vector.x + this.m[1][1] * vector.y + this.m[1][2] * vector.z + this.m[1][3] * vector.w,
-            this.m[2][0] * vector.x + this.m[2][1] * vector.y + this.m[2][2] * vector.z + this.m[2][3] * vector.w,
-            this.m[3][0] * vector.x + this.m[3][1] * vector.y + this.m[3][2] * vector.z + this.m[3][3] * vector.w
+            this.m[0] * vector.x + this.m[4] * vector.y + this.m[8] * vector.z + this.m[12] * vector.w,
+            this.m[1] * vector.x + this.m[5] * vector.y + this.m[9] * vector.z + this.m[13] * vector.w,
+            this.m[2] * vector.x + this.m[6] * vector.y + this.m[10] * vector.z + this.m[14] * vector.w,
+            this.m[3] * vector.x + this.m[7] * vector.y + this.m[11] * vector.z + this.m[15] * vector.w
         );
     }
 
+    /**
+     * Transforms a point (with an implicit w-component of 1), ignoring the bottom row of the matrix.
+     * @return dest
+     */
+    public MutableVector3 transformPointInto(float x, float y, float z, MutableVector3 dest)
+    {
+        return transformPoint(this.m, x, y, z, dest);
+    }
+
+    /**
+     * Transforms a direction (with an implicit w-component of 0), ignoring the bottom row of the matrix.
+     * @return dest
+     */
+    public MutableVector3 transformDirectionInto(float x, float y, float z, MutableVector3 dest)
+    {
+        return transformDirection(this.m, x, y, z, dest);
+    }
+
+    static MutableVector3 transformPoint(float[] m, float x, float y, float z, MutableVector3 dest)
+    {
+        return dest.set(
+            m[0] * x + m[4] * y + m[8] * z + m[12],
+            m[1] * x + m[5] * y + m[9] * z + m[13],
+            m[2] * x + m[6] * y + m[10] * z + m[14]);
+    }
+
+    static MutableVector3 transformDirection(float[] m, float x, float y, float z, MutableVector3 dest)
+    {
+        return dest.set(
+            m[0] * x + m[4] * y + m[8] * z,
+            m[1] * x + m[5] * y + m[9] * z,
+            m[2] * x + m[6] * y + m[10] * z);
+    }
+
     public Matrix4 negate()
     {
-        return new Matrix4(
-            -this.m[0][0], -this.m[0][1], -this.m[0][2], -this.m[0][3],
-            -this.m[1][0], -this.m[1][1], -this.m[1][2], -this.m[1][3],
-            -this.m[2][0], -this.m[2][1], -this.m[2][2], -this.m[2][3],
-            -this.m[3][0], -this.m[3][1], -this.m[3][2], -this.m[3][3]
-        );
+        float[] result = new float[16];
+        for (int i = 0; i < 16; i++)
+        {
+            result[i] = -this.m[i];
+        }
+        return new Matrix4(result);
     }
 
     public Matrix4 transpose()
     {
         return new Matrix4(
-            this.m[0][0], this.m[1][0], this.m[2][0], this.m[3][0],
-            this.m[0][1], this.m[1][1], this.m[2][1], this.m[3][1],
-            this.m[0][2], this.m[1][2], this.m[2][2], this.m[3][2],
-            this.m[0][3], this.m[1][3], this.m[2][3], this.m[3][3]
+            this.m[0], this.m[1], this.m[2], this.m[3],
+            this.m[4], this.m[5], this.m[6], this.m[7],
+            this.m[8], this.m[9], this.m[10], this.m[11],
+            this.m[12], this.m[13], this.m[14], this.m[15]
         );
     }
 
+    /**
+     * Inverts an affine transformation (one whose bottom row is (0, 0, 0, 1)) without allocating a new matrix.
+     * Unlike quickInverse(), the upper-left 3x3 can be any invertible matrix, and no check is made that the bottom row is actually (0, 0, 0, 1).
+     * @param dest The matrix to receive the inverse.
+     * @return dest
+     */
+    public MutableMatrix4 invertAffineInto(MutableMatrix4 dest)
+    {
+        invertAffine(this.m, dest.m);
+        return dest;
+    }
+
+    /**
+     * Inverts a column-major affine transformation.
+     * The inputs are read into locals first so that dest may be the same array as src.
+     */
+    static void invertAffine(float[] src, float[] dest)
+    {
+        float a00 = src[0];
+        float a10 = src[1];
+        float a20 = src[2];
+        float a01 = src[4];
+        float a11 = src[5];
+        float a21 = src[6];
+        float a02 = src[8];
+        float a12 = src[9];
+        float a22 = src[10];
+        float tx = src[12];
+        float ty = src[13];
+        float tz = src[14];
+
+        // Cofactors of the upper-left 3x3
+        float c00 = a11 * a22 - a12 * a21;
+        float c01 = a12 * a20 - a10 * a22;
+        float c02 = a10 * a21 - a11 * a20;
+
+        float invDet = 1.0f / (a00 * c00 + a01 * c01 + a02 * c02);
+
+        float i00 = c00 * invDet;
+        float i01 = (a02 * a21 - a01 * a22) * invDet;
+        float i02 = (a01 * a12 - a02 * a11) * invDet;
+        float i10 = c01 * invDet;
+        float i11 = (a00 * a22 - a02 * a20) * invDet;
+        float i12 = (a02 * a10 - a00 * a12) * invDet;
+        float i20 = c02 * invDet;
+        float i21 = (a01 * a20 - a00 * a21) * invDet;
+        float i22 = (a00 * a11 - a01 * a10) * invDet;
+
+        dest[0] = i00;
+        dest[1] = i10;
+        dest[2] = i20;
+        dest[3] = 0.0f;
+        dest[4] = i01;
+        dest[5] = i11;
+        dest[6] = i21;
+        dest[7] = 0.0f;
+        dest[8] = i02;
+        dest[9] = i12;
+        dest[10] = i22;
+        dest[11] = 0.0f;
+        dest[12] = -(i00 * tx + i01 * ty + i02 * tz);
+        dest[13] = -(i10 * tx + i11 * ty + i12 * tz);
+        dest[14] = -(i20 * tx + i21 * ty + i22 * tz);
+        dest[15] = 1.0f;
+    }
+
     /**
      * Performs a quick inverse of the matrix if the upper-left 3x3 is the product of an orthogonal (rotation) matrix and uniform scaling, and the final row is identity.
      * Throws an exception if this condition is not met (up to a specified tolerance).
@@ -342,22 +492,40 @@ public final class Matrix4
 
     public float get(int row, int col)
     {
-        return this.m[row][col];
+        return this.m[col * 4 + row];
     }
 
     public Vector4 getRow(int row)
     {
-        return new Vector4(this.m[row][0], this.m[row][1], this.m[row][2], this.m[row][3]);
+        return new Vector4(this.m[row], this.m[4 + row], this.m[8 + row], this.m[12 + row]);
     }
 
     public Vector4 getColumn(int col)
     {
-        return new Vector4(this.m[0][col], this.m[1][col], this.m[2][col], this.m[3][col]);
+        return new Vector4(this.m[col * 4], this.m[col * 4 + 1], this.m[col * 4 + 2], this.m[col * 4 + 3]);
     }
 
     public FloatBuffer asFloatBuffer()
     {
-        return this.buffer.asReadOnlyBuffer();
+        FloatBuffer currentBuffer = this.buffer;
+        if (currentBuffer == null)
+        {
+            currentBuffer = BufferUtils.createFloatBuffer(16);
+            currentBuffer.put(this.m);
+            currentBuffer.flip();
+            this.buffer = currentBuffer;
+        }
+
+        return currentBuffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the matrix in column-major order into a buffer at its current position, advancing the position by 16.
+     * @param buffer The buffer to receive the matrix.
+     */
+    public void writeColumnMajor(FloatBuffer buffer)
+    {
+        buffer.put(this.m);
     }
 
     @Override
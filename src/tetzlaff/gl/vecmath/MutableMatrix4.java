@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package tetzlaff.gl.vecmath;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A 4x4 matrix backed by 32-bit floats that can be modified in place, stored in the same column-major layout as Matrix4.
+ * This is intended as scratch storage for per-frame or per-view matrix chains that would otherwise allocate a new Matrix4 for every product.
+ * The arithmetic is the same as the corresponding operations in Matrix4, so results are identical.
+ */
+public final class MutableMatrix4
+{
+    /**
+     * The matrix data in column-major order: the entry at (row, col) is m[col * 4 + row].
+     */
+    final float[] m = new float[16];
+
+    /**
+     * Constructs an identity matrix.
+     */
+    public MutableMatrix4()
+    {
+        setIdentity();
+    }
+
+    public MutableMatrix4 setIdentity()
+    {
+        for (int i = 0; i < 16; i++)
+        {
+            m[i] = i % 5 == 0 ? 1.0f : 0.0f;
+        }
+        return this;
+    }
+
+    public MutableMatrix4 set(Matrix4 other)
+    {
+        System.arraycopy(other.m, 0, this.m, 0, 16);
+        return this;
+    }
+
+    public MutableMatrix4 set(MutableMatrix4 other)
+    {
+        System.arraycopy(other.m, 0, this.m, 0, 16);
+        return this;
+    }
+
+    public float get(int row, int col)
+    {
+        return this.m[col * 4 + row];
+    }
+
+    /**
+     * Multiplies this matrix on the right by another one in place.
+     * @return This matrix.
+     */
+    public MutableMatrix4 mul(Matrix4 other)
+    {
+        Matrix4.multiply(this.m, other.m, this.m);
+        return this;
+    }
+
+    /**
+     * Multiplies this matrix on the right by another one in place.
+     * @return This matrix.
+     */
+    public MutableMatrix4 mul(MutableMatrix4 other)
+    {
+        Matrix4.multiply(this.m, other.m, this.m);
+        return this;
+    }
+
+    /**
+     * Multiplies this matrix on the right by another one, storing the product in dest (which may be this matrix).
+     * @return dest
+     */
+    public MutableMatrix4 mulInto(Matrix4 other, MutableMatrix4 dest)
+    {
+        Matrix4.multiply(this.m, other.m, dest.m);
+        return dest;
+    }
+
+    /**
+     * Multiplies this matrix on the right by another one, storing the product in dest (which may be either operand).
+     * @return dest
+     */
+    public MutableMatrix4 mulInto(MutableMatrix4 other, MutableMatrix4 dest)
+    {
+        Matrix4.multiply(this.m, other.m, dest.m);
+        return dest;
+    }
+
+    /**
+     * Inverts this matrix as an affine transformation, storing the inverse in dest (which may be this matrix).
+     * @see Matrix4#invertAffineInto(MutableMatrix4)
+     * @return dest
+     */
+    public MutableMatrix4 invertAffineInto(MutableMatrix4 dest)
+    {
+        Matrix4.invertAffine(this.m, dest.m);
+        return dest;
+    }
+
+    /**
+     * Transforms a point (with an implicit w-component of 1), ignoring the bottom row of the matrix.
+     * @return dest
+     */
+    public MutableVector3 transformPointInto(float x, float y, float z, MutableVector3 dest)
+    {
+        return Matrix4.transformPoint(this.m, x, y, z, dest);
+    }
+
+    /**
+     * Transforms a direction (with an implicit w-component of 0), ignoring the bottom row of the matrix.
+     * @return dest
+     */
+    public MutableVector3 transformDirectionInto(float x, float y, float z, MutableVector3 dest)
+    {
+        return Matrix4.transformDirection(this.m, x, y, z, dest);
+    }
+
+    /**
+     * Copies the matrix in column-major order into a buffer at its current position, advancing the position by 16.
+     * @param buffer The buffer to receive the matrix.
+     */
+    public void writeColumnMajor(FloatBuffer buffer)
+    {
+        buffer.put(this.m);
+    }
+
+    /**
+     * Creates an immutable copy of this matrix.
+     */
+    public Matrix4 toMatrix4()
+    {
+        return new Matrix4(this.m.clone());
+    }
+
+    @Override
+    public String toString()
+    {
+        return toMatrix4().toString();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package tetzlaff.gl.vecmath;
+
+/**
+ * A vector of three dimensions backed by 32-bit floats that can be modified in place.
+ * This is intended as scratch storage in loops that would otherwise allocate a new Vector3 for every intermediate result.
+ * Each operation modifies this vector and returns it so that operations can be chained.
+ * The arithmetic is the same as the corresponding operations in Vector3, so results are identical.
+ */
+public final class MutableVector3
+{
+    public float x;
+    public float y;
+    public float z;
+
+    /**
+     * Construct a zero vector.
+     */
+    public MutableVector3()
+    {
+    }
+
+    public MutableVector3(float x, float y, float z)
+    {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public MutableVector3 set(float x, float y, float z)
+    {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    public MutableVector3 set(Vector3 other)
+    {
+        return set(other.x, other.y, other.z);
+    }
+
+    public MutableVector3 set(MutableVector3 other)
+    {
+        return set(other.x, other.y, other.z);
+    }
+
+    public MutableVector3 add(float x, float y, float z)
+    {
+        return set(this.x + x, this.y + y, this.z + z);
+    }
+
+    public MutableVector3 add(Vector3 other)
+    {
+        return add(other.x, other.y, other.z);
+    }
+
+    public MutableVector3 add(MutableVector3 other)
+    {
+        return add(other.x, other.y, other.z);
+    }
+
+    public MutableVector3 subtract(float x, float y, float z)
+    {
+        return set(this.x - x, this.y - y, this.z - z);
+    }
+
+    public MutableVector3 subtract(Vector3 other)
+    {
+        return subtract(other.x, other.y, other.z);
+    }
+
+    public MutableVector3 subtract(MutableVector3 other)
+    {
+        return subtract(other.x, other.y, other.z);
+    }
+
+    public MutableVector3 scale(float s)
+    {
+        return set(this.x * s, this.y * s, this.z * s);
+    }
+
+    public MutableVector3 negate()
+    {
+        return set(-this.x, -this.y, -this.z);
+    }
+
+    /**
+     * Scales this vector to unit length.  CAUTION!  May cause divide by zero error.
+     * @return This vector.
+     */
+    public MutableVector3 normalize()
+    {
+        return scale(1.0f / this.length());
+    }
+
+    /**
+     * Sets this vector to the cross product of this vector and another vector.
+     * @return This vector.
+     */
+    public MutableVector3 cross(MutableVector3 other)
+    {
+        return set(
+            this.y * other.z - this.z * other.y,
+            this.z * other.x - this.x * other.z,
+            this.x * other.y - this.y * other.x);
+    }
+
+    public float dot(float x, float y, float z)
+    {
+        return this.x * x + this.y * y + this.z * z;
+    }
+
+    public float dot(Vector3 other)
+    {
+        return dot(other.x, other.y, other.z);
+    }
+
+    public float dot(MutableVector3 other)
+    {
+        return dot(other.x, other.y, other.z);
+    }
+
+    public float length()
+    {
+        return (float)Math.sqrt(this.dot(this));
+    }
+
+    public Vector3 toVector3()
+    {
+        return new Vector3(this.x, this.y, this.z);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "(" + x + ", " + y + ", " + z + ')';
+    }
+}
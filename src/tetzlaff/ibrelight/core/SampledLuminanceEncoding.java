@@ -74,7 +74,7 @@ public class SampledLuminanceEncoding
         NativeVectorBuffer sampledDecodeFunction = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 1, 256);
         for (int i = 0; i < 256; i++)
         {
-            sampledDecodeFunction.set(i, 0, (float)decodeFunction.applyAsDouble(i));
+            sampledDecodeFunction.setFloat(i, 0, (float)decodeFunction.applyAsDouble(i));
         }
 
         return sampledDecodeFunction;
@@ -85,7 +85,7 @@ public class SampledLuminanceEncoding
         NativeVectorBuffer sampledEncodeFunction = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 1, 256);
         for (int i = 0; i < 256; i++)
         {
-            sampledEncodeFunction.set(i, 0, (float)encodeFunction.applyAsDouble((double)i / 255.0 * decodeFunction.applyAsDouble(255.0)) / 255.0f);
+            sampledEncodeFunction.setFloat(i, 0, (float)encodeFunction.applyAsDouble((double)i / 255.0 * decodeFunction.applyAsDouble(255.0)) / 255.0f);
         }
 
         return sampledEncodeFunction;
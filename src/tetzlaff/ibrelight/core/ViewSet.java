@@ -13,7 +13,13 @@
 package tetzlaff.ibrelight.core;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
@@ -27,6 +33,7 @@ import tetzlaff.gl.vecmath.Matrix3;
 import tetzlaff.gl.vecmath.Matrix4;
 import tetzlaff.gl.vecmath.Vector3;
 import tetzlaff.gl.vecmath.Vector4;
+import tetzlaff.util.ByteTokenizer;
 
 /**
  * A class representing a collection of photographs, or views.
@@ -34,6 +41,8 @@ import tetzlaff.gl.vecmath.Vector4;
  */
 public final class ViewSet
 {
+    private static final boolean DEBUG = false;
+
     /**
      * A list of camera poses defining the transformation from object space to camera space for each view.
      * These are necessary to perform projective texture mapping.
@@ -135,7 +144,7 @@ public final class ViewSet
      */
     private int primaryViewIndex = 0;
 
-    private static class Parameters
+    static class Parameters
     {
         final List<Matrix4> cameraPoseList = new ArrayList<>(128);
         final List<Matrix4> cameraPoseInvList = new ArrayList<>(128);
@@ -161,7 +170,7 @@ public final class ViewSet
      * Creates a new view set object.
      * @param params The parameters defining the new view set.
      */
-    private ViewSet(Parameters params)
+    ViewSet(Parameters params)
     {
         this.cameraPoseList = params.cameraPoseList;
         this.cameraPoseInvList = params.cameraPoseInvList;
@@ -183,6 +192,19 @@ public final class ViewSet
         this.residualTextureFileName = params.residualTextureFileName;
     }
 
+    private static void flattenColumnMajor(Matrix4 matrix, float[] flattened)
+    {
+        int d = 0;
+        for (int col = 0; col < 4; col++) // column
+        {
+            for (int row = 0; row < 4; row++) // row
+            {
+                flattened[d] = matrix.get(row, col);
+                d++;
+            }
+        }
+    }
+
     public NativeVectorBuffer getCameraPoseData()
     {
         // Store the poses in a uniform buffer
@@ -190,18 +212,12 @@ public final class ViewSet
         {
             // Flatten the camera pose matrices into 16-component vectors and store them in the vertex list data structure.
             NativeVectorBuffer cameraPoseData = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 16, cameraPoseList.size());
+            float[] flattened = new float[16];
 
             for (int k = 0; k < cameraPoseList.size(); k++)
             {
-                int d = 0;
-                for (int col = 0; col < 4; col++) // column
-                {
-                    for (int row = 0; row < 4; row++) // row
-                    {
-                        cameraPoseData.set(k, d, cameraPoseList.get(k).get(row, col));
-                        d++;
-                    }
-                }
+                flattenColumnMajor(cameraPoseList.get(k), flattened);
+                cameraPoseData.putRow(k, flattened, 0);
             }
 
             return cameraPoseData;
@@ -219,19 +235,13 @@ public final class ViewSet
         {
             // Flatten the camera projection matrices into 16-component vectors and store them in the vertex list data structure.
             NativeVectorBuffer cameraProjectionData = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 16, cameraProjectionList.size());
+            float[] flattened = new float[16];
 
             for (int k = 0; k < cameraProjectionList.size(); k++)
             {
-                int d = 0;
-                for (int col = 0; col < 4; col++) // column
-                {
-                    for (int row = 0; row < 4; row++) // row
-                    {
-                        Matrix4 projection = cameraProjectionList.get(k).getProjectionMatrix(recommendedNearPlane, recommendedFarPlane);
-                        cameraProjectionData.set(k, d, projection.get(row, col));
-                        d++;
-                    }
-                }
+                Matrix4 projection = cameraProjectionList.get(k).getProjectionMatrix(recommendedNearPlane, recommendedFarPlane);
+                flattenColumnMajor(projection, flattened);
+                cameraProjectionData.putRow(k, flattened, 0);
             }
             return cameraProjectionData;
         }
@@ -267,10 +277,10 @@ public final class ViewSet
             NativeVectorBuffer lightPositionData = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 4, lightPositionList.size());
             for (int k = 0; k < lightPositionList.size(); k++)
             {
-                lightPositionData.set(k, 0, lightPositionList.get(k).x);
-                lightPositionData.set(k, 1, lightPositionList.get(k).y);
-                lightPositionData.set(k, 2, lightPositionList.get(k).z);
-                lightPositionData.set(k, 3, 1.0f);
+                lightPositionData.setFloat(k, 0, lightPositionList.get(k).x);
+                lightPositionData.setFloat(k, 1, lightPositionList.get(k).y);
+                lightPositionData.setFloat(k, 2, lightPositionList.get(k).z);
+                lightPositionData.setFloat(k, 3, 1.0f);
             }
 
             return lightPositionData;
@@ -289,10 +299,10 @@ public final class ViewSet
             NativeVectorBuffer lightIntensityData = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 4, lightIntensityList.size());
             for (int k = 0; k < lightPositionList.size(); k++)
             {
-                lightIntensityData.set(k, 0, lightIntensityList.get(k).x);
-                lightIntensityData.set(k, 1, lightIntensityList.get(k).y);
-                lightIntensityData.set(k, 2, lightIntensityList.get(k).z);
-                lightIntensityData.set(k, 3, 1.0f);
+                lightIntensityData.setFloat(k, 0, lightIntensityList.get(k).x);
+                lightIntensityData.setFloat(k, 1, lightIntensityList.get(k).y);
+                lightIntensityData.setFloat(k, 2, lightIntensityList.get(k).z);
+                lightIntensityData.setFloat(k, 3, 1.0f);
             }
             return lightIntensityData;
         }
@@ -380,14 +390,102 @@ public final class ViewSet
 
     /**
      * Loads a VSET file and creates a corresponding ViewSet object.
+     * If there is a binary companion file (see getBinaryFile()) that is newer than the VSET file, it is loaded instead.
+     * Otherwise, the binary companion is written after parsing a large VSET file so that subsequent loads are faster.
      * @param vsetFile The VSET file to load.
      * @return The newly created ViewSet object.
      * @throws FileNotFoundException Thrown if the view set file is not found.
      */
     public static ViewSet loadFromVSETFile(File vsetFile) throws FileNotFoundException
+    {
+        return loadFromVSETFile(vsetFile, true);
+    }
+
+    static ViewSet loadFromVSETFile(File vsetFile, boolean useBinaryFile) throws FileNotFoundException
     {
         Date timestamp = new Date();
 
+        File binaryFile = ViewSetBinaryFile.getBinaryFile(vsetFile);
+        Parameters params = null;
+
+        if (useBinaryFile && vsetFile.isFile() && binaryFile.isFile() && binaryFile.lastModified() >= vsetFile.lastModified())
+        {
+            try
+            {
+                params = ViewSetBinaryFile.read(binaryFile, vsetFile.length());
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not read binary view set " + binaryFile + ": " + e.getMessage());
+            }
+        }
+
+        if (params != null)
+        {
+            System.out.println("View Set file loaded from binary in " + (new Date().getTime() - timestamp.getTime()) + " milliseconds.");
+        }
+        else
+        {
+            try
+            {
+                params = parseVSETFile(vsetFile);
+            }
+            catch (NoSuchFileException e)
+            {
+                FileNotFoundException notFound = new FileNotFoundException(vsetFile + " (No such file or directory)");
+                notFound.initCause(e);
+                throw notFound;
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+
+            System.out.println("View Set file loaded in " + (new Date().getTime() - timestamp.getTime()) + " milliseconds.");
+
+            if (useBinaryFile && params.cameraPoseList.size() >= ViewSetBinaryFile.MIN_VIEW_COUNT)
+            {
+                try
+                {
+                    ViewSetBinaryFile.write(binaryFile, vsetFile.length(), params);
+                }
+                catch (IOException e)
+                {
+                    // The directory may not be writable, in which case the file will simply be parsed again next time.
+                    System.err.println("Could not write binary view set " + binaryFile + ": " + e.getMessage());
+                }
+            }
+        }
+
+        params.directory = vsetFile.getParentFile();
+        return new ViewSet(params);
+    }
+
+    private static float nextFloat(ByteTokenizer tokenizer)
+    {
+        // Like Scanner, allow numbers to continue on the next line.
+        tokenizer.skipBlankLines();
+        return tokenizer.nextFloat();
+    }
+
+    private static int nextInt(ByteTokenizer tokenizer)
+    {
+        tokenizer.skipBlankLines();
+        return tokenizer.nextInt();
+    }
+
+    private static double nextDouble(ByteTokenizer tokenizer)
+    {
+        tokenizer.skipBlankLines();
+        return tokenizer.nextDouble();
+    }
+
+    /**
+     * Parses a memory-mapped VSET file with a ByteTokenizer.
+     * Produces exactly the same results as the Scanner-based parser, but without regular expressions or locale-sensitive number parsing.
+     */
+    private static Parameters parseVSETFile(File vsetFile) throws IOException
+    {
         Parameters params = new Parameters();
 
         params.gamma = 2.2f;
@@ -400,7 +498,235 @@ public final class ViewSet
         List<Double> linearLuminanceList = new ArrayList<>(8);
         List<Byte> encodedLuminanceList = new ArrayList<>(8);
 
-        try(Scanner scanner = new Scanner(vsetFile))
+        try(FileChannel channel = FileChannel.open(vsetFile.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("View set file is too large: " + vsetFile);
+            }
+
+            ByteTokenizer tokenizer = new ByteTokenizer(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+
+            List<Matrix4> unorderedCameraPoseList = new ArrayList<>(128);
+            List<Matrix4> unorderedCameraPoseInvList = new ArrayList<>(128);
+
+            tokenizer.skipBlankLines();
+            while (tokenizer.hasRemaining())
+            {
+                String id = tokenizer.nextToken();
+                switch(id)
+                {
+                    case "c":
+                    {
+                        params.recommendedNearPlane = nextFloat(tokenizer);
+                        params.recommendedFarPlane = nextFloat(tokenizer);
+                        tokenizer.skipLine();
+                        break;
+                    }
+                    case "m":
+                    {
+                        params.geometryFileName = tokenizer.restOfLine();
+                        break;
+                    }
+                    case "i":
+                    {
+                        params.relativeImagePath = tokenizer.restOfLine();
+                        break;
+                    }
+                    case "r":
+                    {
+                        // Residual texture
+                        params.residualTextureFileName = tokenizer.restOfLine();
+                        break;
+                    }
+                    case "p":
+                    {
+                        // Pose from quaternion
+                        float x = nextFloat(tokenizer);
+                        float y = nextFloat(tokenizer);
+                        float z = nextFloat(tokenizer);
+                        float i = nextFloat(tokenizer);
+                        float j = nextFloat(tokenizer);
+                        float k = nextFloat(tokenizer);
+                        float qr = nextFloat(tokenizer);
+
+                        unorderedCameraPoseList.add(Matrix4.fromQuaternion(i, j, k, qr)
+                            .times(Matrix4.translate(-x, -y, -z)));
+
+                        unorderedCameraPoseInvList.add(Matrix4.translate(x, y, z)
+                            .times(Matrix3.fromQuaternion(i, j, k, qr).transpose().asMatrix4()));
+
+                        tokenizer.skipLine();
+                        break;
+                    }
+                    case "P":
+                    {
+                        // Pose from matrix
+                        Matrix4 newPose = Matrix4.fromRows(
+                            new Vector4(nextFloat(tokenizer), nextFloat(tokenizer), nextFloat(tokenizer), nextFloat(tokenizer)),
+                            new Vector4(nextFloat(tokenizer), nextFloat(tokenizer), nextFloat(tokenizer), nextFloat(tokenizer)),
+                            new Vector4(nextFloat(tokenizer), nextFloat(tokenizer), nextFloat(tokenizer), nextFloat(tokenizer)),
+                            new Vector4(nextFloat(tokenizer), nextFloat(tokenizer), nextFloat(tokenizer), nextFloat(tokenizer)));
+
+                        unorderedCameraPoseList.add(newPose);
+                        unorderedCameraPoseInvList.add(newPose.quickInverse(0.002f));
+                        break;
+                    }
+                    case "d":
+                    case "D":
+                    {
+                        // Skip "center/offset" parameters which are not consistent across all VSET files
+                        nextFloat(tokenizer);
+                        nextFloat(tokenizer);
+
+                        float aspect = nextFloat(tokenizer);
+                        float focalLength = nextFloat(tokenizer);
+
+                        float sensorWidth;
+                        float k1;
+                        float k2;
+                        float k3;
+                        if ("D".equals(id))
+                        {
+                            sensorWidth = nextFloat(tokenizer);
+                            k1 = nextFloat(tokenizer);
+                            k2 = nextFloat(tokenizer);
+                            k3 = nextFloat(tokenizer);
+                        }
+                        else
+                        {
+                            sensorWidth = 32.0f; // Default sensor width
+                            k1 = nextFloat(tokenizer);
+                            k2 = k3 = 0.0f;
+                        }
+
+                        float sensorHeight = sensorWidth / aspect;
+
+                        params.cameraProjectionList.add(new DistortionProjection(
+                            sensorWidth, sensorHeight,
+                            focalLength, focalLength,
+                            sensorWidth / 2, sensorHeight / 2, k1, k2, k3
+                        ));
+
+                        tokenizer.skipLine();
+                        break;
+                    }
+                    case "e":
+                    {
+                        // Non-linear encoding
+                        linearLuminanceList.add(nextDouble(tokenizer));
+                        encodedLuminanceList.add((byte)nextInt(tokenizer));
+                        tokenizer.skipLine();
+                        break;
+                    }
+                    case "g":
+                    {
+                        // Gamma
+                        params.gamma = nextFloat(tokenizer);
+                        tokenizer.skipLine();
+                        break;
+                    }
+                    case "f":
+                    {
+                        // Skip "center/offset" parameters which are not consistent across all VSET files
+                        tokenizer.skipBlankLines();
+                        tokenizer.skipToken();
+                        tokenizer.skipBlankLines();
+                        tokenizer.skipToken();
+
+                        float aspect = nextFloat(tokenizer);
+                        float fovy = (float)(nextFloat(tokenizer) * Math.PI / 180.0);
+
+                        params.cameraProjectionList.add(new SimpleProjection(aspect, fovy));
+
+                        tokenizer.skipLine();
+                        break;
+                    }
+                    case "l":
+                    {
+                        float x = nextFloat(tokenizer);
+                        float y = nextFloat(tokenizer);
+                        float z = nextFloat(tokenizer);
+                        params.lightPositionList.add(new Vector3(x, y, z));
+
+                        float r = nextFloat(tokenizer);
+                        float g = nextFloat(tokenizer);
+                        float b = nextFloat(tokenizer);
+                        params.lightIntensityList.add(new Vector3(r, g, b));
+
+                        // Skip the rest of the line
+                        tokenizer.skipLine();
+                        break;
+                    }
+
+                    case "v":
+                    {
+                        int poseId = nextInt(tokenizer);
+                        int projectionId = nextInt(tokenizer);
+                        int lightId = nextInt(tokenizer);
+
+                        String imgFilename = tokenizer.restOfLine();
+
+                        params.cameraPoseList.add(unorderedCameraPoseList.get(poseId));
+                        params.cameraPoseInvList.add(unorderedCameraPoseInvList.get(poseId));
+                        params.cameraProjectionIndexList.add(projectionId);
+                        params.lightIndexList.add(lightId);
+                        params.imageFileNames.add(imgFilename);
+                        break;
+                    }
+                    default:
+                        // Skip unrecognized line
+                        tokenizer.skipLine();
+                }
+
+                tokenizer.skipBlankLines();
+            }
+        }
+
+        params.linearLuminanceValues = new double[linearLuminanceList.size()];
+        for (int i = 0; i < params.linearLuminanceValues.length; i++)
+        {
+            params.linearLuminanceValues[i] = linearLuminanceList.get(i);
+        }
+
+        params.encodedLuminanceValues = new byte[encodedLuminanceList.size()];
+        for (int i = 0; i < params.encodedLuminanceValues.length; i++)
+        {
+            params.encodedLuminanceValues[i] = encodedLuminanceList.get(i);
+        }
+
+        int maxLightIndex = params.lightIndexList.stream().max(Comparator.naturalOrder()).orElse(-1);
+
+        for (int i = params.lightIntensityList.size(); i <= maxLightIndex; i++)
+        {
+            params.lightPositionList.add(Vector3.ZERO);
+            params.lightIntensityList.add(Vector3.ZERO);
+        }
+
+        return params;
+    }
+
+    /**
+     * Loads a VSET file using java.util.Scanner.
+     * This is the original (much slower) implementation, retained as a reference for validation and benchmarking.
+     */
+    static ViewSet loadFromVSETFileWithScanner(File vsetFile) throws FileNotFoundException
+    {
+        Date timestamp = new Date();
+
+        Parameters params = new Parameters();
+
+        params.gamma = 2.2f;
+        params.recommendedNearPlane = 0.0f;
+        params.recommendedFarPlane = Float.MAX_VALUE;
+
+        params.geometryFileName = "manifold.obj";
+        params.relativeImagePath = null;
+
+        List<Double> linearLuminanceList = new ArrayList<>(8);
+        List<Byte> encodedLuminanceList = new ArrayList<>(8);
+
+        try(Scanner scanner = new Scanner(vsetFile, StandardCharsets.UTF_8.name()))
         {
             List<Matrix4> unorderedCameraPoseList = new ArrayList<>(128);
             List<Matrix4> unorderedCameraPoseInvList = new ArrayList<>(128);
@@ -646,24 +972,38 @@ public final class ViewSet
         @SuppressWarnings("unused")
         int orientation;
 
-        Camera(String id)
-        {
-            this.id = id;
-        }
-
         Camera(String id, Sensor sensor, int lightIndex)
         {
             this.id = id;
             this.sensor = sensor;
             this.lightIndex = lightIndex;
         }
+    }
+
+    /**
+     * Parses the whitespace-separated numbers in the text of a transform, rotation or translation element.
+     */
+    private static float[] parseComponents(String text)
+    {
+        ByteTokenizer tokenizer = new ByteTokenizer(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+
+        float[] components = new float[16];
+        int count = 0;
 
-        @Override
-        public boolean equals(Object other)
+        tokenizer.skipBlankLines();
+        while (tokenizer.hasRemaining())
         {
-          Camera otherCam = (Camera)other;
-          return this.id.equals(otherCam.id);
+            if (count == components.length)
+            {
+                components = Arrays.copyOf(components, count * 2);
+            }
+
+            components[count] = tokenizer.nextFloat();
+            count++;
+            tokenizer.skipBlankLines();
         }
+
+        return Arrays.copyOf(components, count);
     }
 
     /**
@@ -674,8 +1014,9 @@ public final class ViewSet
      */
     public static ViewSet loadFromAgisoftXMLFile(File file) throws FileNotFoundException, XMLStreamException
     {
-        Map<String, Sensor> sensorSet = new Hashtable<>();
-        HashSet<Camera> cameraSet = new HashSet<>();
+        // Linked maps so that the views are in the same order as in the file.
+        Map<String, Sensor> sensorSet = new LinkedHashMap<>();
+        Map<String, Camera> cameraSet = new LinkedHashMap<>();
         
         Sensor sensor = null;
         Camera camera = null;
@@ -697,347 +1038,366 @@ public final class ViewSet
         
         XMLInputFactory factory = XMLInputFactory.newInstance();
 
-        InputStream xmlStream = new FileInputStream(file);
-        XMLStreamReader reader = factory.createXMLStreamReader(xmlStream);
-        while (reader.hasNext())
+        try(InputStream xmlStream = new BufferedInputStream(new FileInputStream(file)))
         {
-            int event = reader.next();
-            switch(event)
+            XMLStreamReader reader = factory.createXMLStreamReader(xmlStream);
+            while (reader.hasNext())
             {
-                case XMLStreamConstants.START_ELEMENT:
-                    switch (reader.getLocalName())
-                    {
-                        case "document":
-                            version = reader.getAttributeValue(null, "version");
-                            String[] verComponents = version.split("\\.");
-                            for (String verComponent : verComponents)
-                            {
-                                intVersion *= 10;
-                                intVersion += Integer.parseInt(verComponent);
-                            }
-                            System.out.printf("PhotoScan XML version %s (%d)\n", version, intVersion);
-                            break;
-                        case "chunk":
-                            chunkLabel = reader.getAttributeValue(null, "label");
-                            if(chunkLabel == null)
-                            {
-                                chunkLabel = "unnamed";
-                            }
-                            System.out.printf("Reading chunk '%s'\n", chunkLabel);
-                            break;
-                        case "group":
-                            groupLabel = reader.getAttributeValue(null, "label");
-                            System.out.printf("Reading group '%s'\n", groupLabel);
-                            lightIndex = nextLightIndex;
-                            nextLightIndex++;
-                            System.out.printf("Light index: " + lightIndex);
-                            break;
-                        case "sensor":
-                            sensorID = reader.getAttributeValue(null, "id");
-                            System.out.printf("\tAdding sensor '%s'\n", sensorID);
-                            sensor = new Sensor(sensorID);
-                            break;
-                        case "camera":
-                            cameraID = reader.getAttributeValue(null, "id");
-                            if(cameraID == null || cameraSet.contains(new Camera(cameraID)))
-                            {
-                               camera = null;
-                            }
-                            else
-                            {
-                                if (Objects.equals(reader.getAttributeValue(null, "enabled"), "true") ||
-                                    Objects.equals(reader.getAttributeValue(null, "enabled"), "1") ||
-                                    Objects.equals(reader.getAttributeValue(null, "enabled"), null))
+                int event = reader.next();
+                switch(event)
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        switch (reader.getLocalName())
+                        {
+                            case "document":
+                                version = reader.getAttributeValue(null, "version");
+                                String[] verComponents = version.split("\\.");
+                                for (String verComponent : verComponents)
                                 {
-                                    if (lightIndex < 0)
-                                    {
-                                        // Set default light index
-                                        lightIndex = defaultLightIndex = nextLightIndex;
-                                        nextLightIndex++;
-                                        System.out.println("Using default light index: " + lightIndex);
-                                    }
-
-                                    sensorID = reader.getAttributeValue(null, "sensor_id");
-                                    imageFile = reader.getAttributeValue(null, "label");
-                                    camera = new Camera(cameraID, sensorSet.get(sensorID), lightIndex);
-                                    camera.filename = imageFile;
+                                    intVersion *= 10;
+                                    intVersion += Integer.parseInt(verComponent);
                                 }
-                                else
+                                System.out.printf("PhotoScan XML version %s (%d)\n", version, intVersion);
+                                break;
+                            case "chunk":
+                                chunkLabel = reader.getAttributeValue(null, "label");
+                                if(chunkLabel == null)
                                 {
-                                    camera = null;
+                                    chunkLabel = "unnamed";
+                                }
+                                if (DEBUG)
+                                {
+                                    System.out.printf("Reading chunk '%s'\n", chunkLabel);
                                 }
-                            }
-                            break;
-                        case "orientation":
-                            if(camera != null)
-                            {
-                                camera.orientation = Integer.parseInt(reader.getElementText());
-                            }
-                            break;
-                        case "image":
-                            if (camera != null)
-                            {
-                                camera.filename = reader.getAttributeValue(null, "path");
-                            }
-                            break;
-                        case "resolution":
-                            if (sensor != null)
-                            {
-                                sensor.width = Float.parseFloat(reader.getAttributeValue(null, "width"));
-                                sensor.height = Float.parseFloat(reader.getAttributeValue(null, "height"));
-                            }
-                            break;
-                        case "f":
-                            if (sensor != null)
-                            {
-                                sensor.fx = Float.parseFloat(reader.getElementText());
-                                sensor.fy = sensor.fx;
-                            }
-                            break;
-                        case "fx":
-                            if (sensor != null)
-                            {
-                                sensor.fx = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-                        case "fy":
-                            if (sensor != null)
-                            {
-                                sensor.fy = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-                        case "cx":
-                            if (sensor != null)
-                            {
-                                sensor.cx = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-                        case "cy":
-                            if (sensor != null)
-                            {
-                                sensor.cy = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-                        case "p1":
-                            if (sensor != null)
-                            {
-                                sensor.p1 = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-                        case "p2":
-                            if (sensor != null)
-                            {
-                                sensor.p2 = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-                        case "k1":
-                            if (sensor != null)
-                            {
-                                sensor.k1 = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-                        case "k2":
-                            if (sensor != null)
-                            {
-                                sensor.k2 = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-                        case "k3":
-                            if (sensor != null)
-                            {
-                                sensor.k3 = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-                        case "k4":
-                            if (sensor != null)
-                            {
-                                sensor.k4 = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-                        case "skew":
-                            if (sensor != null)
-                            {
-                                sensor.skew = Float.parseFloat(reader.getElementText());
-                            }
-                            break;
-
-                        case "transform":
-                            if(camera == null && intVersion >= 110)
-                            {
                                 break;
-                            }
-
-                        case "rotation":
-                            {
-                                String[] components = reader.getElementText().split("\\s");
-                                if (("transform".equals(reader.getLocalName()) && components.length < 16) ||
-                                    ("rotation".equals(reader.getLocalName()) && components.length < 9))
+                            case "group":
+                                groupLabel = reader.getAttributeValue(null, "label");
+                                lightIndex = nextLightIndex;
+                                nextLightIndex++;
+                                if (DEBUG)
+                                {
+                                    System.out.printf("Reading group '%s'\n", groupLabel);
+                                    System.out.println("Light index: " + lightIndex);
+                                }
+                                break;
+                            case "sensor":
+                                sensorID = reader.getAttributeValue(null, "id");
+                                if (DEBUG)
+                                {
+                                    System.out.printf("\tAdding sensor '%s'\n", sensorID);
+                                }
+                                sensor = new Sensor(sensorID);
+                                break;
+                            case "camera":
+                                cameraID = reader.getAttributeValue(null, "id");
+                                if(cameraID == null || cameraSet.containsKey(cameraID))
                                 {
-                                    System.err.println("Error: Not enough components in the transform/rotation matrix");
+                                   camera = null;
                                 }
                                 else
                                 {
-                                    int expectedSize = 16;
-                                    if("rotation".equals(reader.getLocalName()))
+                                    if (Objects.equals(reader.getAttributeValue(null, "enabled"), "true") ||
+                                        Objects.equals(reader.getAttributeValue(null, "enabled"), "1") ||
+                                        Objects.equals(reader.getAttributeValue(null, "enabled"), null))
                                     {
-                                        expectedSize = 9;
-                                    }
+                                        if (lightIndex < 0)
+                                        {
+                                            // Set default light index
+                                            lightIndex = defaultLightIndex = nextLightIndex;
+                                            nextLightIndex++;
+                                            System.out.println("Using default light index: " + lightIndex);
+                                        }
 
-                                    if(components.length > expectedSize)
+                                        sensorID = reader.getAttributeValue(null, "sensor_id");
+                                        imageFile = reader.getAttributeValue(null, "label");
+                                        camera = new Camera(cameraID, sensorSet.get(sensorID), lightIndex);
+                                        camera.filename = imageFile;
+                                    }
+                                    else
                                     {
-                                        System.err.println("Warning: Too many components in the transform/rotation matrix, ignoring extras.");
+                                        camera = null;
                                     }
+                                }
+                                break;
+                            case "orientation":
+                                if(camera != null)
+                                {
+                                    camera.orientation = Integer.parseInt(reader.getElementText());
+                                }
+                                break;
+                            case "image":
+                                if (camera != null)
+                                {
+                                    camera.filename = reader.getAttributeValue(null, "path");
+                                }
+                                break;
+                            case "resolution":
+                                if (sensor != null)
+                                {
+                                    sensor.width = Float.parseFloat(reader.getAttributeValue(null, "width"));
+                                    sensor.height = Float.parseFloat(reader.getAttributeValue(null, "height"));
+                                }
+                                break;
+                            case "f":
+                                if (sensor != null)
+                                {
+                                    sensor.fx = Float.parseFloat(reader.getElementText());
+                                    sensor.fy = sensor.fx;
+                                }
+                                break;
+                            case "fx":
+                                if (sensor != null)
+                                {
+                                    sensor.fx = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+                            case "fy":
+                                if (sensor != null)
+                                {
+                                    sensor.fy = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+                            case "cx":
+                                if (sensor != null)
+                                {
+                                    sensor.cx = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+                            case "cy":
+                                if (sensor != null)
+                                {
+                                    sensor.cy = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+                            case "p1":
+                                if (sensor != null)
+                                {
+                                    sensor.p1 = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+                            case "p2":
+                                if (sensor != null)
+                                {
+                                    sensor.p2 = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+                            case "k1":
+                                if (sensor != null)
+                                {
+                                    sensor.k1 = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+                            case "k2":
+                                if (sensor != null)
+                                {
+                                    sensor.k2 = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+                            case "k3":
+                                if (sensor != null)
+                                {
+                                    sensor.k3 = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+                            case "k4":
+                                if (sensor != null)
+                                {
+                                    sensor.k4 = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+                            case "skew":
+                                if (sensor != null)
+                                {
+                                    sensor.skew = Float.parseFloat(reader.getElementText());
+                                }
+                                break;
+
+                            case "transform":
+                                if(camera == null && intVersion >= 110)
+                                {
+                                    break;
+                                }
 
-                                    float[] m = new float[expectedSize];
-                                    for (int i = 0; i < expectedSize; i++)
+                            case "rotation":
+                                {
+                                    float[] components = parseComponents(reader.getElementText());
+                                    if (("transform".equals(reader.getLocalName()) && components.length < 16) ||
+                                        ("rotation".equals(reader.getLocalName()) && components.length < 9))
                                     {
-                                        m[i] = Float.parseFloat(components[i]);
+                                        System.err.println("Error: Not enough components in the transform/rotation matrix");
                                     }
-
-                                    if (camera != null)
+                                    else
                                     {
-                                        // Negate 2nd and 3rd column to rotate 180 degrees around x-axis
-                                        // Invert matrix by transposing rotation and negating translation
-                                        Matrix4 trans;
-                                        if(expectedSize == 9)
+                                        int expectedSize = 16;
+                                        if("rotation".equals(reader.getLocalName()))
                                         {
-                                            trans = Matrix3.fromRows(
-                                                    new Vector3( m[0],  m[3],  m[6]),
-                                                    new Vector3(-m[1], -m[4], -m[7]),
-                                                    new Vector3(-m[2], -m[5], -m[8]))
-                                                .asMatrix4();
+                                            expectedSize = 9;
                                         }
-                                        else
+
+                                        if(components.length > expectedSize)
                                         {
-                                            trans = Matrix3.fromRows(
-                                                    new Vector3( m[0],     m[4],  m[8]),
-                                                    new Vector3(-m[1], -m[5], -m[9]),
-                                                    new Vector3(-m[2], -m[6], -m[10]))
-                                                .asMatrix4()
-                                                .times(Matrix4.translate(-m[3], -m[7], -m[11]));
+                                            System.err.println("Warning: Too many components in the transform/rotation matrix, ignoring extras.");
                                         }
 
-                                        camera.transform = trans;
-                                    }
-                                    else
-                                    {
-                                        if(expectedSize == 9)
+                                        float[] m = components;
+
+                                        if (camera != null)
                                         {
-                                            System.out.println("\tSetting global rotation.");
-                                            globalRotation = Matrix3.fromRows(
-                                                    new Vector3(m[0], m[3], m[6]),
-                                                    new Vector3(m[1], m[4], m[7]),
-                                                    new Vector3(m[2], m[5], m[8]))
-                                                .asMatrix4();
+                                            // Negate 2nd and 3rd column to rotate 180 degrees around x-axis
+                                            // Invert matrix by transposing rotation and negating translation
+                                            Matrix4 trans;
+                                            if(expectedSize == 9)
+                                            {
+                                                trans = Matrix3.fromRows(
+                                                        new Vector3( m[0],  m[3],  m[6]),
+                                                        new Vector3(-m[1], -m[4], -m[7]),
+                                                        new Vector3(-m[2], -m[5], -m[8]))
+                                                    .asMatrix4();
+                                            }
+                                            else
+                                            {
+                                                trans = Matrix3.fromRows(
+                                                        new Vector3( m[0],     m[4],  m[8]),
+                                                        new Vector3(-m[1], -m[5], -m[9]),
+                                                        new Vector3(-m[2], -m[6], -m[10]))
+                                                    .asMatrix4()
+                                                    .times(Matrix4.translate(-m[3], -m[7], -m[11]));
+                                            }
+
+                                            camera.transform = trans;
                                         }
                                         else
                                         {
-                                            System.out.println("\tSetting global transformation.");
-                                            globalRotation = Matrix3.fromRows(
-                                                    new Vector3(m[0], m[4], m[8]),
-                                                    new Vector3(m[1], m[5], m[9]),
-                                                    new Vector3(m[2], m[6], m[10]))
-                                                .asMatrix4()
-                                                .times(Matrix4.translate(m[3], m[7], m[11]));
+                                            if(expectedSize == 9)
+                                            {
+                                                    globalRotation = Matrix3.fromRows(
+                                                        new Vector3(m[0], m[3], m[6]),
+                                                        new Vector3(m[1], m[4], m[7]),
+                                                        new Vector3(m[2], m[5], m[8]))
+                                                    .asMatrix4();
+                                            }
+                                            else
+                                            {
+                                                    globalRotation = Matrix3.fromRows(
+                                                        new Vector3(m[0], m[4], m[8]),
+                                                        new Vector3(m[1], m[5], m[9]),
+                                                        new Vector3(m[2], m[6], m[10]))
+                                                    .asMatrix4()
+                                                    .times(Matrix4.translate(m[3], m[7], m[11]));
+                                            }
                                         }
                                     }
                                 }
-                            }
-                            break;
-
-                        case "translation":
-                            if (camera == null)
-                            {
-                                System.out.println("\tSetting global translate.");
-                                String[] components = reader.getElementText().split("\\s");
-                                globalTranslate = new Vector3(
-                                        -Float.parseFloat(components[0]),
-                                        -Float.parseFloat(components[1]),
-                                        -Float.parseFloat(components[2]));
-                            }
-                            break;
+                                break;
 
-                        case "scale":
-                            if (camera == null)
-                            {
-                                System.out.println("\tSetting global scale.");
-                                globalScale = 1.0f / Float.parseFloat(reader.getElementText());
-                            }
-                            break;
+                            case "translation":
+                                if (camera == null)
+                                {
+                                    float[] components = parseComponents(reader.getElementText());
+                                    globalTranslate = new Vector3(-components[0], -components[1], -components[2]);
+                                }
+                                break;
 
-                        case "property":
-                            if (sensor != null)
-                            {
-                                if (Objects.equals(reader.getAttributeValue(null, "name"), "pixel_width"))
+                            case "scale":
+                                if (camera == null)
                                 {
-                                    sensor.pixelWidth = Float.parseFloat(reader.getAttributeValue(null, "value"));
+                                    globalScale = 1.0f / Float.parseFloat(reader.getElementText());
                                 }
-                                else if (Objects.equals(reader.getAttributeValue(null, "name"), "pixel_height"))
+                                break;
+
+                            case "property":
+                                if (sensor != null)
                                 {
-                                    sensor.pixelHeight = Float.parseFloat(reader.getAttributeValue(null, "value"));
+                                    if (Objects.equals(reader.getAttributeValue(null, "name"), "pixel_width"))
+                                    {
+                                        sensor.pixelWidth = Float.parseFloat(reader.getAttributeValue(null, "value"));
+                                    }
+                                    else if (Objects.equals(reader.getAttributeValue(null, "name"), "pixel_height"))
+                                    {
+                                        sensor.pixelHeight = Float.parseFloat(reader.getAttributeValue(null, "value"));
+                                    }
                                 }
-                            }
+                                break;
+                            case "projections": case "depth":
+                            case "frames": case "frame": case "meta": case "R":
+                            case "size": case "center": case "region": case "settings":
+                            case "ground_control": case "mesh": case "texture":
+                            case "model": case "calibration": case "thumbnail":
+                            case "point_cloud": case "points": case "sensors":
+                            case "cameras":
+                               // These can all be safely ignored if version is >= 0.9.1
                             break;
-                        case "projections": case "depth":
-                        case "frames": case "frame": case "meta": case "R":
-                        case "size": case "center": case "region": case "settings":
-                        case "ground_control": case "mesh": case "texture":
-                        case "model": case "calibration": case "thumbnail":
-                        case "point_cloud": case "points": case "sensors":
-                        case "cameras":
-                           // These can all be safely ignored if version is >= 0.9.1
-                        break;
 
-                        case "photo": case "tracks": case "depth_maps":
-                        case "depth_map": case "dense_cloud":
-                           if(intVersion < 110)
-                           {
-                               System.out.printf("Unexpected tag '%s' for psz version %s\n",
-                                                   reader.getLocalName(), version);
-                           }
-                        break;
+                            case "photo": case "tracks": case "depth_maps":
+                            case "depth_map": case "dense_cloud":
+                               if(intVersion < 110)
+                               {
+                                   System.out.printf("Unexpected tag '%s' for psz version %s\n",
+                                                       reader.getLocalName(), version);
+                               }
+                            break;
 
-                        default:
-                           System.out.printf("Unexpected tag '%s'\n", reader.getLocalName());
-                           break;
-                    }
-                    break;
+                            default:
+                               System.out.printf("Unexpected tag '%s'\n", reader.getLocalName());
+                               break;
+                        }
+                        break;
 
-                case XMLStreamConstants.END_ELEMENT:
-                {
-                    switch (reader.getLocalName())
+                    case XMLStreamConstants.END_ELEMENT:
                     {
-                        case "chunk":
-                            System.out.printf("Finished chunk '%s'\n", chunkLabel);
-                            chunkLabel = "";
-                            break;
-                        case "group":
-                            System.out.printf("Finished group '%s'\n", groupLabel);
-                            groupLabel = "";
-                            lightIndex = defaultLightIndex;
-                            break;
-                        case "sensor":
-                            if(sensor != null)
-                            {
-                                sensorSet.put(sensor.id, sensor);
-                                sensor = null;
-                            }
-                            break;
-                        case "camera":
-                            if(camera != null && camera.transform != null)
-                            {
-                               cameraSet.add(camera);
-                               System.out.printf("\tAdding camera %s, with sensor %s and image %s\n",
-                                       cameraID, sensorID, imageFile);
-                               camera = null;
-                            }
-                            break;
+                        switch (reader.getLocalName())
+                        {
+                            case "chunk":
+                                if (DEBUG)
+                                {
+                                    System.out.printf("Finished chunk '%s'\n", chunkLabel);
+                                }
+                                chunkLabel = "";
+                                break;
+                            case "group":
+                                if (DEBUG)
+                                {
+                                    System.out.printf("Finished group '%s'\n", groupLabel);
+                                }
+                                groupLabel = "";
+                                lightIndex = defaultLightIndex;
+                                break;
+                            case "sensor":
+                                if(sensor != null)
+                                {
+                                    sensorSet.put(sensor.id, sensor);
+                                    sensor = null;
+                                }
+                                break;
+                            case "camera":
+                                if(camera != null && camera.transform != null)
+                                {
+                                   cameraSet.put(camera.id, camera);
+                                   if (DEBUG)
+                                   {
+                                       System.out.printf("\tAdding camera %s, with sensor %s and image %s\n",
+                                           cameraID, sensorID, imageFile);
+                                   }
+                                   camera = null;
+                                }
+                                break;
+                        }
                     }
+                    break;
                 }
-                break;
             }
+
+            reader.close();
         }
-        
+        catch (FileNotFoundException e)
+        {
+            throw e;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+
         Parameters params = new Parameters();
         
         Sensor[] sensors = sensorSet.values().toArray(new Sensor[0]);
@@ -1064,10 +1424,8 @@ public final class ViewSet
             ));
         }
                 
-        Camera[] cameras = cameraSet.toArray(new Camera[cameraSet.size()]);
-        
         // Fill out the camera pose, projection index, and light index lists
-        for (Camera cam : cameras)
+        for (Camera cam : cameraSet.values())
         {
             // Apply the global transform to each camera
             Matrix4 m1 = cam.transform;
@@ -1147,12 +1505,12 @@ public final class ViewSet
         System.out.println("Near and far planes: " + params.recommendedNearPlane + ", " + params.recommendedFarPlane);
 
         int primaryViewIndex = 0;
-        String primaryViewName = cameras[0].filename;
-        for (int i = 1; i < cameras.length; i++)
+        String primaryViewName = params.imageFileNames.get(0);
+        for (int i = 1; i < params.imageFileNames.size(); i++)
         {
-            if (cameras[i].filename.compareTo(primaryViewName) < 0)
+            if (params.imageFileNames.get(i).compareTo(primaryViewName) < 0)
             {
-                primaryViewName = cameras[i].filename;
+                primaryViewName = params.imageFileNames.get(i);
                 primaryViewIndex = i;
             }
         }
@@ -1207,7 +1565,8 @@ public final class ViewSet
 
     public void writeVSETFileToStream(OutputStream outputStream, Path parentDirectory)
     {
-        PrintStream out = new PrintStream(outputStream);
+        // VSET files are read as UTF-8, so write them that way regardless of the platform's default encoding.
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
         out.println("# Created by IBRelight");
 
         out.println("\n# Geometry file name (mesh)");
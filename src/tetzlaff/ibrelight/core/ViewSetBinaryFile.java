@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package tetzlaff.ibrelight.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+import tetzlaff.gl.vecmath.Matrix4;
+import tetzlaff.gl.vecmath.Vector3;
+import tetzlaff.gl.vecmath.Vector4;
+
+/**
+ * Binary companion of a VSET file, stored next to it with the extension ".vsetb".
+ * It contains the same information as the VSET file as packed little-endian arrays,
+ * so that view sets with many thousands of cameras can be reopened without any text parsing.
+ * The companion is only used if it is at least as new as the VSET file and the size of the VSET file matches the size recorded when it was written.
+ *
+ * File layout (little-endian):
+ * <pre>
+ *   int       magic number
+ *   int       format version
+ *   long      source file size
+ *   int       flags (infinite light sources)
+ *   int       view count
+ *   int       projection count
+ *   int       light count
+ *   int       luminance encoding count
+ *   float     gamma
+ *   float     recommended near plane
+ *   float     recommended far plane
+ *   float*32  per view: camera pose and inverse camera pose, both row-major
+ *   int*2     per view: projection index and light index
+ *   per projection: int type (0 = simple, 1 = distortion) followed by 13 floats
+ *   float*6   per light: position and intensity
+ *   double    per luminance encoding: linear luminance
+ *   byte      per luminance encoding: encoded luminance
+ *   string    geometry file name (int length, or -1 if null, followed by UTF-8 bytes)
+ *   string    relative image path
+ *   string    residual texture file name
+ *   string    per view: image file name
+ * </pre>
+ */
+final class ViewSetBinaryFile
+{
+    private static final String FILE_EXTENSION = ".vsetb";
+
+    private static final int MAGIC_NUMBER = 0x42545356; // "VSTB"
+    // Version 1 files may contain file names that were decoded as ASCII, so they are discarded and rebuilt.
+    private static final int VERSION = 2;
+
+    private static final int INFINITE_LIGHT_SOURCES = 1;
+
+    private static final int SIMPLE_PROJECTION = 0;
+    private static final int DISTORTION_PROJECTION = 1;
+    private static final int PROJECTION_PARAMETER_COUNT = 13;
+
+    private static final int FIXED_HEADER_SIZE = 48;
+
+    /**
+     * The minimum number of views for which a binary companion is written automatically.
+     * Smaller view sets parse quickly enough that an extra file next to them would not be worthwhile.
+     */
+    static final int MIN_VIEW_COUNT = 1024;
+
+    private ViewSetBinaryFile()
+    {
+    }
+
+    static File getBinaryFile(File vsetFile)
+    {
+        String path = vsetFile.getPath();
+        if (path.toLowerCase().endsWith(".vset"))
+        {
+            return new File(path.substring(0, path.length() - 5) + FILE_EXTENSION);
+        }
+        else
+        {
+            return new File(path + FILE_EXTENSION);
+        }
+    }
+
+    /**
+     * Loads the parameters of a view set from a binary companion file.
+     * The directory of the returned parameters is not set.
+     * @param binaryFile The binary companion file.
+     * @param sourceSize The current size of the VSET file.
+     * @return The view set parameters, or null if the file is not a valid companion of a VSET file of the specified size.
+     * @throws IOException If the file cannot be read.
+     */
+    static ViewSet.Parameters read(File binaryFile, long sourceSize) throws IOException
+    {
+        ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(binaryFile.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() < FIXED_HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+            {
+                return null;
+            }
+
+            buffer = channel.map(MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        if (buffer.getInt() != MAGIC_NUMBER || buffer.getInt() != VERSION || buffer.getLong() != sourceSize)
+        {
+            return null;
+        }
+
+        try
+        {
+            ViewSet.Parameters params = new ViewSet.Parameters();
+
+            int flags = buffer.getInt();
+            int viewCount = buffer.getInt();
+            int projectionCount = buffer.getInt();
+            int lightCount = buffer.getInt();
+            int luminanceCount = buffer.getInt();
+
+            params.infiniteLightSources = (flags & INFINITE_LIGHT_SOURCES) != 0;
+            params.gamma = buffer.getFloat();
+            params.recommendedNearPlane = buffer.getFloat();
+            params.recommendedFarPlane = buffer.getFloat();
+
+            for (int i = 0; i < viewCount; i++)
+            {
+                params.cameraPoseList.add(getMatrix(buffer));
+                params.cameraPoseInvList.add(getMatrix(buffer));
+            }
+
+            for (int i = 0; i < viewCount; i++)
+            {
+                params.cameraProjectionIndexList.add(buffer.getInt());
+                params.lightIndexList.add(buffer.getInt());
+            }
+
+            float[] projectionParameters = new float[PROJECTION_PARAMETER_COUNT];
+            for (int i = 0; i < projectionCount; i++)
+            {
+                int type = buffer.getInt();
+                buffer.asFloatBuffer().get(projectionParameters);
+                buffer.position(buffer.position() + PROJECTION_PARAMETER_COUNT * 4);
+
+                switch(type)
+                {
+                    case SIMPLE_PROJECTION:
+                        params.cameraProjectionList.add(new SimpleProjection(projectionParameters[0], projectionParameters[1]));
+                        break;
+                    case DISTORTION_PROJECTION:
+                        params.cameraProjectionList.add(new DistortionProjection(
+                            projectionParameters[0], projectionParameters[1],
+                            projectionParameters[2], projectionParameters[3],
+                            projectionParameters[4], projectionParameters[5],
+                            projectionParameters[6], projectionParameters[7], projectionParameters[8], projectionParameters[9],
+                            projectionParameters[10], projectionParameters[11], projectionParameters[12]));
+                        break;
+                    default:
+                        return null;
+                }
+            }
+
+            for (int i = 0; i < lightCount; i++)
+            {
+                params.lightPositionList.add(new Vector3(buffer.getFloat(), buffer.getFloat(), buffer.getFloat()));
+                params.lightIntensityList.add(new Vector3(buffer.getFloat(), buffer.getFloat(), buffer.getFloat()));
+            }
+
+            params.linearLuminanceValues = new double[luminanceCount];
+            buffer.asDoubleBuffer().get(params.linearLuminanceValues);
+            buffer.position(buffer.position() + luminanceCount * 8);
+
+            params.encodedLuminanceValues = new byte[luminanceCount];
+            buffer.get(params.encodedLuminanceValues);
+
+            params.geometryFileName = getString(buffer);
+            params.relativeImagePath = getString(buffer);
+            params.residualTextureFileName = getString(buffer);
+
+            for (int i = 0; i < viewCount; i++)
+            {
+                params.imageFileNames.add(getString(buffer));
+            }
+
+            return params;
+        }
+        catch (RuntimeException e)
+        {
+            // Truncated or otherwise corrupt file (BufferUnderflowException, IllegalArgumentException, etc.)
+            throw new IOException("Invalid binary view set: " + binaryFile, e);
+        }
+    }
+
+    /**
+     * Writes the binary companion of a VSET file.
+     * The file is written to a temporary file first and then moved into place so that a partially written file is never used.
+     * @param binaryFile The binary companion file.
+     * @param sourceSize The size of the VSET file that was parsed.
+     * @param params The parameters parsed from the VSET file.
+     * @throws IOException If the file could not be written.
+     */
+    static void write(File binaryFile, long sourceSize, ViewSet.Parameters params) throws IOException
+    {
+        int viewCount = params.cameraPoseList.size();
+
+        byte[][] stringBytes = new byte[3 + viewCount][];
+        stringBytes[0] = getBytes(params.geometryFileName);
+        stringBytes[1] = getBytes(params.relativeImagePath);
+        stringBytes[2] = getBytes(params.residualTextureFileName);
+        for (int i = 0; i < viewCount; i++)
+        {
+            stringBytes[3 + i] = getBytes(params.imageFileNames.get(i));
+        }
+
+        long size = FIXED_HEADER_SIZE
+            + viewCount * (32L * 4 + 2 * 4)
+            + params.cameraProjectionList.size() * (4L + PROJECTION_PARAMETER_COUNT * 4)
+            + params.lightPositionList.size() * 6L * 4
+            + params.linearLuminanceValues.length * 9L;
+
+        for (byte[] bytes : stringBytes)
+        {
+            size += 4 + (bytes == null ? 0 : bytes.length);
+        }
+
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IOException("View set is too large to be stored in a binary file.");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC_NUMBER);
+        buffer.putInt(VERSION);
+        buffer.putLong(sourceSize);
+        buffer.putInt(params.infiniteLightSources ? INFINITE_LIGHT_SOURCES : 0);
+        buffer.putInt(viewCount);
+        buffer.putInt(params.cameraProjectionList.size());
+        buffer.putInt(params.lightPositionList.size());
+        buffer.putInt(params.linearLuminanceValues.length);
+        buffer.putFloat(params.gamma);
+        buffer.putFloat(params.recommendedNearPlane);
+        buffer.putFloat(params.recommendedFarPlane);
+
+        for (int i = 0; i < viewCount; i++)
+        {
+            putMatrix(buffer, params.cameraPoseList.get(i));
+            putMatrix(buffer, params.cameraPoseInvList.get(i));
+        }
+
+        for (int i = 0; i < viewCount; i++)
+        {
+            buffer.putInt(params.cameraProjectionIndexList.get(i));
+            buffer.putInt(params.lightIndexList.get(i));
+        }
+
+        for (Projection projection : params.cameraProjectionList)
+        {
+            putProjection(buffer, projection);
+        }
+
+        for (int i = 0; i < params.lightPositionList.size(); i++)
+        {
+            putVector(buffer, params.lightPositionList.get(i));
+            putVector(buffer, params.lightIntensityList.get(i));
+        }
+
+        for (double value : params.linearLuminanceValues)
+        {
+            buffer.putDouble(value);
+        }
+        buffer.put(params.encodedLuminanceValues);
+
+        for (byte[] bytes : stringBytes)
+        {
+            putString(buffer, bytes);
+        }
+
+        buffer.flip();
+
+        Path tempPath = new File(binaryFile.getPath() + ".tmp").toPath();
+
+        try
+        {
+            try(FileChannel channel = FileChannel.open(tempPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+            }
+
+            Files.move(tempPath, binaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private static void putProjection(ByteBuffer buffer, Projection projection) throws IOException
+    {
+        if (projection instanceof DistortionProjection)
+        {
+            DistortionProjection distortion = (DistortionProjection) projection;
+            buffer.putInt(DISTORTION_PROJECTION);
+            buffer.putFloat(distortion.width);
+            buffer.putFloat(distortion.height);
+            buffer.putFloat(distortion.fx);
+            buffer.putFloat(distortion.fy);
+            buffer.putFloat(distortion.cx);
+            buffer.putFloat(distortion.cy);
+            buffer.putFloat(distortion.k1);
+            buffer.putFloat(distortion.k2);
+            buffer.putFloat(distortion.k3);
+            buffer.putFloat(distortion.k4);
+            buffer.putFloat(distortion.p1);
+            buffer.putFloat(distortion.p2);
+            buffer.putFloat(distortion.skew);
+        }
+        else if (projection instanceof SimpleProjection)
+        {
+            SimpleProjection simple = (SimpleProjection) projection;
+            buffer.putInt(SIMPLE_PROJECTION);
+            buffer.putFloat(simple.aspectRatio);
+            buffer.putFloat(simple.verticalFieldOfView);
+            for (int i = 2; i < PROJECTION_PARAMETER_COUNT; i++)
+            {
+                buffer.putFloat(0.0f);
+            }
+        }
+        else
+        {
+            throw new IOException("Unsupported projection type: " + projection.getClass().getName());
+        }
+    }
+
+    private static void putMatrix(ByteBuffer buffer, Matrix4 matrix)
+    {
+        for (int row = 0; row < 4; row++)
+        {
+            for (int col = 0; col < 4; col++)
+            {
+                buffer.putFloat(matrix.get(row, col));
+            }
+        }
+    }
+
+    private static Matrix4 getMatrix(ByteBuffer buffer)
+    {
+        return Matrix4.fromRows(
+            new Vector4(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat()),
+            new Vector4(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat()),
+            new Vector4(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat()),
+            new Vector4(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat()));
+    }
+
+    private static void putVector(ByteBuffer buffer, Vector3 vector)
+    {
+        buffer.putFloat(vector.x);
+        buffer.putFloat(vector.y);
+        buffer.putFloat(vector.z);
+    }
+
+    private static byte[] getBytes(String string)
+    {
+        return string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes)
+    {
+        if (bytes == null)
+        {
+            buffer.putInt(-1);
+        }
+        else
+        {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        else if (length > buffer.remaining())
+        {
+            throw new IllegalArgumentException("Truncated string.");
+        }
+        else
+        {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
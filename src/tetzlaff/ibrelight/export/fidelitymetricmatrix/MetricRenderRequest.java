@@ -54,6 +54,7 @@ class MetricRenderRequest
     {
         Drawable<ContextType> drawable = program.getContext().createDrawable(program);
         drawable.addVertexBuffer("position", resources.positionBuffer);
+        drawable.setIndexBuffer(resources.indexBuffer);
         drawable.addVertexBuffer("texCoord", resources.texCoordBuffer);
         drawable.addVertexBuffer("normal", resources.normalBuffer);
         drawable.addVertexBuffer("tangent", resources.tangentBuffer);
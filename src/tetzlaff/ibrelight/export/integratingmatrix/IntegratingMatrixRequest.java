@@ -68,6 +68,7 @@ public class IntegratingMatrixRequest implements IBRRequest
             {
                 Drawable<ContextType> shadowDrawable = resources.context.createDrawable(shadowProgram);
                 shadowDrawable.addVertexBuffer("position", resources.positionBuffer);
+                shadowDrawable.setIndexBuffer(resources.indexBuffer);
 
                 shadowProgram.setUniform("projection", projection);
                 shadowProgram.setUniform("model_view", modelView);
@@ -180,6 +181,7 @@ public class IntegratingMatrixRequest implements IBRRequest
         Drawable<ContextType> drawable = resources.context.createDrawable(program);
 
         drawable.addVertexBuffer("position", resources.positionBuffer);
+        drawable.setIndexBuffer(resources.indexBuffer);
 
         if (resources.normalBuffer != null)
         {
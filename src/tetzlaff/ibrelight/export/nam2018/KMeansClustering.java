@@ -0,0 +1,485 @@
+/*
+ *  Copyright (c) Michael Tetzlaff 2020
+ *  Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ *  Licensed under GPLv3
+ *  ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ *  This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.export.nam2018;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Clusters the colors of the valid texels of a texture using k-means.
+ * The centers are seeded using k-means|| (scalable k-means++, Bahmani et al. 2012), which picks candidates for many centers in
+ * each parallel pass over the texels, rather than making a serial pass over the texels for each center like k-means++.
+ * The candidates are then reduced to the requested number of centers with weighted k-means++, and the centers are refined
+ * with a few steps of Lloyd's algorithm on a sample of the texels.
+ * Texels are processed in fixed chunks, each with its own random number generator split off from the one provided,
+ * and partial results are combined in chunk order, so the results depend only on the seed and not on the number of threads.
+ */
+final class KMeansClustering
+{
+    /**
+     * The number of texels in each chunk processed by a single thread.
+     */
+    private static final int CHUNK_SIZE = 16384;
+
+    /**
+     * The number of passes used to pick candidate centers.
+     */
+    private static final int SEEDING_ROUNDS = 5;
+
+    /**
+     * The expected number of candidates picked in each pass, as a multiple of the number of centers.
+     */
+    private static final int OVERSAMPLING_FACTOR = 2;
+
+    /**
+     * The number of texels used to refine the centers at the end of seeding.
+     */
+    private static final int REFINEMENT_SAMPLE_SIZE = 1 << 18;
+
+    /**
+     * The number of steps of Lloyd's algorithm used to refine the centers at the end of seeding.
+     */
+    private static final int REFINEMENT_STEPS = 3;
+
+    /**
+     * The color of each valid texel, three components per texel.
+     */
+    private final float[] colors;
+
+    /**
+     * The index in the texture of each valid texel.
+     */
+    private final int[] texelIndices;
+
+    private final int colorCount;
+    private final int texelCount;
+
+    /**
+     * @param colorsAndVisibility The color (RGB) and visibility (A) of each texel.  Only texels with non-zero visibility are clustered.
+     */
+    KMeansClustering(float[] colorsAndVisibility)
+    {
+        texelCount = colorsAndVisibility.length / 4;
+
+        int validCount = 0;
+        for (int p = 0; p < texelCount; p++)
+        {
+            if (colorsAndVisibility[4 * p + 3] > 0.0)
+            {
+                validCount++;
+            }
+        }
+
+        colorCount = validCount;
+        colors = new float[3 * colorCount];
+        texelIndices = new int[colorCount];
+
+        int i = 0;
+        for (int p = 0; p < texelCount; p++)
+        {
+            if (colorsAndVisibility[4 * p + 3] > 0.0)
+            {
+                colors[3 * i] = colorsAndVisibility[4 * p];
+                colors[3 * i + 1] = colorsAndVisibility[4 * p + 1];
+                colors[3 * i + 2] = colorsAndVisibility[4 * p + 2];
+                texelIndices[i] = p;
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of valid texels that are being clustered.
+     */
+    int getColorCount()
+    {
+        return colorCount;
+    }
+
+    private int getChunkCount(int count)
+    {
+        return (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    private double getSquaredDistance(int i, double[] centers, int center)
+    {
+        double red = colors[3 * i] - centers[3 * center];
+        double green = colors[3 * i + 1] - centers[3 * center + 1];
+        double blue = colors[3 * i + 2] - centers[3 * center + 2];
+        return red * red + green * green + blue * blue;
+    }
+
+    private int findNearestCenter(int i, double[] centers, int centerCount)
+    {
+        int nearest = 0;
+        double minDistance = getSquaredDistance(i, centers, 0);
+
+        for (int c = 1; c < centerCount; c++)
+        {
+            double distance = getSquaredDistance(i, centers, c);
+            if (distance < minDistance)
+            {
+                minDistance = distance;
+                nearest = c;
+            }
+        }
+
+        return nearest;
+    }
+
+    private void copyColor(int i, double[] destination, int index)
+    {
+        destination[3 * index] = colors[3 * i];
+        destination[3 * index + 1] = colors[3 * i + 1];
+        destination[3 * index + 2] = colors[3 * i + 2];
+    }
+
+    /**
+     * Seeds the centers of the clusters.
+     * @param clusterCount The number of clusters.
+     * @param random The source of randomness; texel chunks will use generators split off from this one.
+     * @return The centers, three components per cluster.
+     */
+    double[] initializeCenters(int clusterCount, SplittableRandom random)
+    {
+        if (colorCount == 0)
+        {
+            return new double[3 * clusterCount];
+        }
+
+        int chunkCount = getChunkCount(colorCount);
+
+        // Randomly choose the first candidate.
+        int[] candidates = new int[1 + SEEDING_ROUNDS * OVERSAMPLING_FACTOR * clusterCount];
+        candidates[0] = random.nextInt(colorCount);
+        int candidateCount = 1;
+
+        double[] candidateColors = new double[3 * candidates.length];
+        copyColor(candidates[0], candidateColors, 0);
+
+        // The squared distance from each texel to the nearest candidate, and which candidate that is.
+        double[] squaredDistances = new double[colorCount];
+        int[] nearestCandidates = new int[colorCount];
+        IntStream.range(0, colorCount).parallel().forEach(i -> squaredDistances[i] = getSquaredDistance(i, candidateColors, 0));
+
+        for (int round = 0; round < SEEDING_ROUNDS; round++)
+        {
+            double cost = sumByChunk(squaredDistances, colorCount);
+
+            if (cost <= 0.0)
+            {
+                // Every texel is already a candidate.
+                break;
+            }
+
+            // Pick each texel as a candidate independently with probability proportional to its squared distance.
+            double scale = OVERSAMPLING_FACTOR * clusterCount / cost;
+            SplittableRandom[] chunkRandoms = splitByChunk(random, chunkCount);
+
+            int[][] picked = IntStream.range(0, chunkCount).parallel()
+                .mapToObj(chunk ->
+                {
+                    IntStream.Builder chunkPicked = IntStream.builder();
+                    int end = Math.min(colorCount, (chunk + 1) * CHUNK_SIZE);
+                    for (int i = chunk * CHUNK_SIZE; i < end; i++)
+                    {
+                        if (chunkRandoms[chunk].nextDouble() < scale * squaredDistances[i])
+                        {
+                            chunkPicked.add(i);
+                        }
+                    }
+                    return chunkPicked.build().toArray();
+                })
+                .toArray(int[][]::new);
+
+            int firstNewCandidate = candidateCount;
+            for (int[] chunkPicked : picked)
+            {
+                for (int i : chunkPicked)
+                {
+                    if (candidateCount == candidates.length)
+                    {
+                        candidates = Arrays.copyOf(candidates, 2 * candidates.length);
+                    }
+
+                    candidates[candidateCount] = i;
+                    candidateCount++;
+                }
+            }
+
+            if (candidateCount > firstNewCandidate)
+            {
+                double[] newCandidateColors = new double[3 * (candidateCount - firstNewCandidate)];
+                for (int c = firstNewCandidate; c < candidateCount; c++)
+                {
+                    copyColor(candidates[c], newCandidateColors, c - firstNewCandidate);
+                }
+
+                int newCandidateCount = candidateCount - firstNewCandidate;
+                IntStream.range(0, colorCount).parallel().forEach(i ->
+                {
+                    for (int c = 0; c < newCandidateCount; c++)
+                    {
+                        double distance = getSquaredDistance(i, newCandidateColors, c);
+                        if (distance < squaredDistances[i])
+                        {
+                            squaredDistances[i] = distance;
+                            nearestCandidates[i] = firstNewCandidate + c;
+                        }
+                    }
+                });
+            }
+        }
+
+        // Weight each candidate by the number of texels nearest to it.
+        double[] allCandidateColors = new double[3 * candidateCount];
+        for (int c = 0; c < candidateCount; c++)
+        {
+            copyColor(candidates[c], allCandidateColors, c);
+        }
+
+        int finalCandidateCount = candidateCount;
+        long[] candidateWeights = IntStream.range(0, chunkCount).parallel()
+            .mapToObj(chunk ->
+            {
+                long[] chunkWeights = new long[finalCandidateCount];
+                int end = Math.min(colorCount, (chunk + 1) * CHUNK_SIZE);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++)
+                {
+                    chunkWeights[nearestCandidates[i]]++;
+                }
+                return chunkWeights;
+            })
+            .reduce(new long[candidateCount], (a, b) ->
+            {
+                long[] sum = new long[a.length];
+                Arrays.setAll(sum, c -> a[c] + b[c]);
+                return sum;
+            });
+
+        double[] centers = reduceCandidates(allCandidateColors, candidateWeights, clusterCount, random);
+
+        // Refine the centers using a sample of the texels.
+        int[] sample;
+        if (colorCount <= REFINEMENT_SAMPLE_SIZE)
+        {
+            sample = null;
+        }
+        else
+        {
+            sample = new int[REFINEMENT_SAMPLE_SIZE];
+            Arrays.setAll(sample, i -> random.nextInt(colorCount));
+        }
+
+        for (int step = 0; step < REFINEMENT_STEPS; step++)
+        {
+            updateCenters(centers, clusterCount, sample);
+        }
+
+        return centers;
+    }
+
+    /**
+     * Chooses centers from weighted candidates using k-means++.
+     */
+    private static double[] reduceCandidates(double[] candidateColors, long[] candidateWeights, int clusterCount, SplittableRandom random)
+    {
+        int candidateCount = candidateWeights.length;
+        double[] centers = new double[3 * clusterCount];
+        double[] squaredDistances = new double[candidateCount];
+        Arrays.fill(squaredDistances, Double.POSITIVE_INFINITY);
+
+        for (int b = 0; b < clusterCount; b++)
+        {
+            // The first center is chosen in proportion to the weights alone.
+            double total = 0.0;
+            for (int c = 0; c < candidateCount; c++)
+            {
+                total += b == 0 ? candidateWeights[c] : candidateWeights[c] * squaredDistances[c];
+            }
+
+            int chosen = 0;
+
+            if (total > 0.0)
+            {
+                double x = random.nextDouble() * total;
+
+                double cumulative = 0.0;
+                for (int c = 0; c < candidateCount; c++)
+                {
+                    double weight = b == 0 ? candidateWeights[c] : candidateWeights[c] * squaredDistances[c];
+                    cumulative += weight;
+
+                    if (weight > 0.0)
+                    {
+                        chosen = c;
+
+                        if (x < cumulative)
+                        {
+                            break;
+                        }
+                    }
+                }
+            }
+            // Otherwise, there are fewer distinct colors than clusters, so the remaining centers will be duplicates.
+
+            System.arraycopy(candidateColors, 3 * chosen, centers, 3 * b, 3);
+
+            for (int c = 0; c < candidateCount; c++)
+            {
+                double red = candidateColors[3 * c] - centers[3 * b];
+                double green = candidateColors[3 * c + 1] - centers[3 * b + 1];
+                double blue = candidateColors[3 * c + 2] - centers[3 * b + 2];
+                squaredDistances[c] = Math.min(squaredDistances[c], red * red + green * green + blue * blue);
+            }
+        }
+
+        return centers;
+    }
+
+    /**
+     * Performs one step of Lloyd's algorithm using all of the texels: each center is moved to the average of the colors nearest to it.
+     * Centers with no colors nearest to them are left where they are.
+     * @param centers The centers, three components per cluster.  Will be updated.
+     * @param tolerance The distance that a center must move for it to be considered to have changed.
+     * @return Whether or not any of the centers changed.
+     */
+    boolean refineCenters(double[] centers, double tolerance)
+    {
+        return updateCenters(centers, centers.length / 3, null) > tolerance;
+    }
+
+    /**
+     * Performs one step of Lloyd's algorithm.
+     * @param sample The indices of the colors to use, or null to use all of them.
+     * @return The largest distance that any center moved.
+     */
+    private double updateCenters(double[] centers, int clusterCount, int[] sample)
+    {
+        int count = sample == null ? colorCount : sample.length;
+
+        double[][] chunkSums = IntStream.range(0, getChunkCount(count)).parallel()
+            .mapToObj(chunk ->
+            {
+                // Sums of red, green, blue, and the number of colors for each cluster.
+                double[] sums = new double[4 * clusterCount];
+                int end = Math.min(count, (chunk + 1) * CHUNK_SIZE);
+                for (int j = chunk * CHUNK_SIZE; j < end; j++)
+                {
+                    int i = sample == null ? j : sample[j];
+                    int b = findNearestCenter(i, centers, clusterCount);
+                    sums[4 * b] += colors[3 * i];
+                    sums[4 * b + 1] += colors[3 * i + 1];
+                    sums[4 * b + 2] += colors[3 * i + 2];
+                    sums[4 * b + 3] += 1.0;
+                }
+                return sums;
+            })
+            .toArray(double[][]::new);
+
+        // Add the chunks up in order so that the result doesn't depend on how the chunks were scheduled.
+        double[] sums = new double[4 * clusterCount];
+        for (double[] chunk : chunkSums)
+        {
+            for (int k = 0; k < sums.length; k++)
+            {
+                sums[k] += chunk[k];
+            }
+        }
+
+        double maxMovement = 0.0;
+
+        for (int b = 0; b < clusterCount; b++)
+        {
+            if (sums[4 * b + 3] > 0.0)
+            {
+                double red = sums[4 * b] / sums[4 * b + 3];
+                double green = sums[4 * b + 1] / sums[4 * b + 3];
+                double blue = sums[4 * b + 2] / sums[4 * b + 3];
+
+                double movement = Math.sqrt((red - centers[3 * b]) * (red - centers[3 * b])
+                    + (green - centers[3 * b + 1]) * (green - centers[3 * b + 1])
+                    + (blue - centers[3 * b + 2]) * (blue - centers[3 * b + 2]));
+                maxMovement = Math.max(maxMovement, movement);
+
+                centers[3 * b] = red;
+                centers[3 * b + 1] = green;
+                centers[3 * b + 2] = blue;
+            }
+        }
+
+        return maxMovement;
+    }
+
+    /**
+     * Finds the cluster that each texel belongs to.
+     * @param centers The centers, three components per cluster.
+     * @return The index of the nearest center for each texel in the texture, or -1 for texels that aren't valid.
+     */
+    int[] assignClusters(double[] centers)
+    {
+        int[] clusters = new int[texelCount];
+        Arrays.fill(clusters, -1);
+
+        IntStream.range(0, colorCount).parallel()
+            .forEach(i -> clusters[texelIndices[i]] = findNearestCenter(i, centers, centers.length / 3));
+
+        return clusters;
+    }
+
+    /**
+     * Gets the sum of the squared distances from each texel to the nearest center, which is what k-means minimizes.
+     * @param centers The centers, three components per cluster.
+     */
+    double getCost(double[] centers)
+    {
+        double[] squaredDistances = new double[colorCount];
+        IntStream.range(0, colorCount).parallel()
+            .forEach(i -> squaredDistances[i] = getSquaredDistance(i, centers, findNearestCenter(i, centers, centers.length / 3)));
+        return sumByChunk(squaredDistances, colorCount);
+    }
+
+    private static double sumByChunk(double[] values, int count)
+    {
+        double[] chunkSums = IntStream.range(0, (count + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel()
+            .mapToDouble(chunk ->
+            {
+                double sum = 0.0;
+                int end = Math.min(count, (chunk + 1) * CHUNK_SIZE);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++)
+                {
+                    sum += values[i];
+                }
+                return sum;
+            })
+            .toArray();
+
+        double sum = 0.0;
+        for (double chunkSum : chunkSums)
+        {
+            sum += chunkSum;
+        }
+        return sum;
+    }
+
+    private static SplittableRandom[] splitByChunk(SplittableRandom random, int chunkCount)
+    {
+        SplittableRandom[] chunkRandoms = new SplittableRandom[chunkCount];
+        for (int chunk = 0; chunk < chunkCount; chunk++)
+        {
+            chunkRandoms[chunk] = random.split();
+        }
+        return chunkRandoms;
+    }
+}
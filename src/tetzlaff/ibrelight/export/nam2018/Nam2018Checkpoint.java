@@ -0,0 +1,308 @@
+/*
+ *  Copyright (c) Michael Tetzlaff 2020
+ *  Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ *  Licensed under GPLv3
+ *  ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ *  This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.export.nam2018;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import tetzlaff.gl.vecmath.DoubleVector3;
+
+/**
+ * The state of a Nam 2018 fit at the end of an iteration: the basis BRDFs, the per-texel weights and normals,
+ * and the iteration count and error, so that the fit can be resumed, or warm-started with a different set of views.
+ *
+ * File layout (little-endian):
+ * <pre>
+ *   int     magic number
+ *   int     format version
+ *   int     texture width
+ *   int     texture height
+ *   int     basis count
+ *   int     microfacet distribution resolution
+ *   int     completed iterations
+ *   double  error after the last completed iteration
+ *   double  diffuse albedo (RGB) for each basis function
+ *   double  specular red, green and blue, each (resolution + 1) * basis count, row by row
+ *   byte    weight validity for each texel, packed eight texels to a byte
+ *   float   weights for each texel (basis count per texel)
+ *   float   normal (XYZ) for each texel
+ * </pre>
+ */
+final class Nam2018Checkpoint
+{
+    static final String FILE_NAME = "checkpoint.nam2018";
+
+    private static final int MAGIC_NUMBER = 0x4D414E43; // "CNAM"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    final int width;
+    final int height;
+    final int iteration;
+    final double error;
+
+    final DoubleVector3[] diffuseAlbedos;
+    final double[] specularRed;
+    final double[] specularGreen;
+    final double[] specularBlue;
+
+    final boolean[] weightsValidity;
+
+    /**
+     * The weights of each texel, one texel after another.
+     */
+    final float[] weights;
+
+    /**
+     * The normal of each texel (three components per texel).
+     */
+    final float[] normals;
+
+    Nam2018Checkpoint(int width, int height, int iteration, double error, DoubleVector3[] diffuseAlbedos,
+        double[] specularRed, double[] specularGreen, double[] specularBlue, boolean[] weightsValidity, float[] weights, float[] normals)
+    {
+        this.width = width;
+        this.height = height;
+        this.iteration = iteration;
+        this.error = error;
+        this.diffuseAlbedos = diffuseAlbedos;
+        this.specularRed = specularRed;
+        this.specularGreen = specularGreen;
+        this.specularBlue = specularBlue;
+        this.weightsValidity = weightsValidity;
+        this.weights = weights;
+        this.normals = normals;
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file first and then moves it into place,
+     * so that a fit that is killed while writing still leaves the previous checkpoint intact.
+     * @param file The checkpoint file.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    void write(File file) throws IOException
+    {
+        Path tempPath = new File(file.getPath() + ".tmp").toPath();
+
+        try
+        {
+            try(FileChannel channel = FileChannel.open(tempPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+                buffer.putInt(MAGIC_NUMBER);
+                buffer.putInt(VERSION);
+                buffer.putInt(width);
+                buffer.putInt(height);
+                buffer.putInt(Nam2018Request.BASIS_COUNT);
+                buffer.putInt(Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION);
+                buffer.putInt(iteration);
+                buffer.putDouble(error);
+
+                for (DoubleVector3 albedo : diffuseAlbedos)
+                {
+                    buffer.putDouble(albedo.x);
+                    buffer.putDouble(albedo.y);
+                    buffer.putDouble(albedo.z);
+                }
+
+                putDoubles(channel, buffer, specularRed);
+                putDoubles(channel, buffer, specularGreen);
+                putDoubles(channel, buffer, specularBlue);
+
+                for (int p = 0; p < weightsValidity.length; p += 8)
+                {
+                    int packed = 0;
+                    for (int i = 0; i < 8 && p + i < weightsValidity.length; i++)
+                    {
+                        packed |= weightsValidity[p + i] ? 1 << i : 0;
+                    }
+
+                    flushIfFull(channel, buffer, 1);
+                    buffer.put((byte) packed);
+                }
+
+                putFloats(channel, buffer, weights);
+                putFloats(channel, buffer, normals);
+
+                buffer.flip();
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+            }
+
+            Files.move(tempPath, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Reads a checkpoint.
+     * @param file The checkpoint file.
+     * @param width The texture width that the checkpoint must have been written for.
+     * @param height The texture height that the checkpoint must have been written for.
+     * @return The checkpoint.
+     * @throws IOException If the file could not be read, or is not a checkpoint for a fit of the same size.
+     */
+    static Nam2018Checkpoint read(File file, int width, int height) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+
+            ensureAvailable(channel, buffer, 36);
+
+            if (buffer.getInt() != MAGIC_NUMBER || buffer.getInt() != VERSION)
+            {
+                throw new IOException(file + " is not a Nam 2018 checkpoint or was written by a different version.");
+            }
+
+            int fileWidth = buffer.getInt();
+            int fileHeight = buffer.getInt();
+            int basisCount = buffer.getInt();
+            int resolution = buffer.getInt();
+
+            if (fileWidth != width || fileHeight != height
+                || basisCount != Nam2018Request.BASIS_COUNT || resolution != Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION)
+            {
+                throw new IOException(String.format("%s is a checkpoint for a %dx%d texture with %d basis functions at resolution %d; "
+                        + "expected %dx%d with %d at resolution %d.",
+                    file, fileWidth, fileHeight, basisCount, resolution,
+                    width, height, Nam2018Request.BASIS_COUNT, Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION));
+            }
+
+            int iteration = buffer.getInt();
+            double error = buffer.getDouble();
+
+            DoubleVector3[] diffuseAlbedos = new DoubleVector3[basisCount];
+            for (int b = 0; b < basisCount; b++)
+            {
+                ensureAvailable(channel, buffer, 24);
+                diffuseAlbedos[b] = new DoubleVector3(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+            }
+
+            double[] specularRed = getDoubles(channel, buffer, (resolution + 1) * basisCount);
+            double[] specularGreen = getDoubles(channel, buffer, (resolution + 1) * basisCount);
+            double[] specularBlue = getDoubles(channel, buffer, (resolution + 1) * basisCount);
+
+            boolean[] weightsValidity = new boolean[width * height];
+            for (int p = 0; p < weightsValidity.length; p += 8)
+            {
+                ensureAvailable(channel, buffer, 1);
+                int packed = buffer.get();
+                for (int i = 0; i < 8 && p + i < weightsValidity.length; i++)
+                {
+                    weightsValidity[p + i] = (packed & (1 << i)) != 0;
+                }
+            }
+
+            float[] weights = getFloats(channel, buffer, width * height * basisCount);
+            float[] normals = getFloats(channel, buffer, width * height * 3);
+
+            return new Nam2018Checkpoint(width, height, iteration, error, diffuseAlbedos,
+                specularRed, specularGreen, specularBlue, weightsValidity, weights, normals);
+        }
+    }
+
+    private static void flushIfFull(FileChannel channel, ByteBuffer buffer, int byteCount) throws IOException
+    {
+        if (buffer.remaining() < byteCount)
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static void putDoubles(FileChannel channel, ByteBuffer buffer, double[] values) throws IOException
+    {
+        for (double value : values)
+        {
+            flushIfFull(channel, buffer, Double.BYTES);
+            buffer.putDouble(value);
+        }
+    }
+
+    private static void putFloats(FileChannel channel, ByteBuffer buffer, float[] values) throws IOException
+    {
+        for (int start = 0; start < values.length; )
+        {
+            flushIfFull(channel, buffer, Float.BYTES);
+            int count = Math.min(values.length - start, buffer.remaining() / Float.BYTES);
+            buffer.asFloatBuffer().put(values, start, count);
+            buffer.position(buffer.position() + count * Float.BYTES);
+            start += count;
+        }
+    }
+
+    /**
+     * Makes sure that at least the given number of bytes can be read from the buffer, reading more from the file if necessary.
+     */
+    private static void ensureAvailable(FileChannel channel, ByteBuffer buffer, int byteCount) throws IOException
+    {
+        if (buffer.remaining() < byteCount)
+        {
+            buffer.compact();
+            while (buffer.position() < byteCount)
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    throw new EOFException("Unexpected end of checkpoint file.");
+                }
+            }
+            buffer.flip();
+        }
+    }
+
+    private static double[] getDoubles(FileChannel channel, ByteBuffer buffer, int count) throws IOException
+    {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++)
+        {
+            ensureAvailable(channel, buffer, Double.BYTES);
+            values[i] = buffer.getDouble();
+        }
+        return values;
+    }
+
+    private static float[] getFloats(FileChannel channel, ByteBuffer buffer, int count) throws IOException
+    {
+        float[] values = new float[count];
+        for (int start = 0; start < count; )
+        {
+            ensureAvailable(channel, buffer, Float.BYTES);
+            int available = Math.min(count - start, buffer.remaining() / Float.BYTES);
+            buffer.asFloatBuffer().get(values, start, available);
+            buffer.position(buffer.position() + available * Float.BYTES);
+            start += available;
+        }
+        return values;
+    }
+}
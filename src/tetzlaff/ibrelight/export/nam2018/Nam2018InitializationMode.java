@@ -0,0 +1,33 @@
+/*
+ *  Copyright (c) Michael Tetzlaff 2020
+ *  Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ *  Licensed under GPLv3
+ *  ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ *  This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.export.nam2018;
+
+public enum Nam2018InitializationMode
+{
+    CLUSTERING("Initialize weights by clustering"),
+    RESUME("Resume from a checkpoint"),
+    WARM_START("Warm start from a checkpoint (e.g. with new views)");
+
+    private final String description;
+
+    Nam2018InitializationMode(String description)
+    {
+        this.description = description;
+    }
+
+    @Override
+    public String toString()
+    {
+        return description;
+    }
+}
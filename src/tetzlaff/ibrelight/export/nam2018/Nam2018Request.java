@@ -15,8 +15,10 @@ package tetzlaff.ibrelight.export.nam2018;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
-import java.security.SecureRandom;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
@@ -34,7 +36,9 @@ import tetzlaff.gl.vecmath.DoubleVector4;
 import tetzlaff.ibrelight.core.*;
 import tetzlaff.ibrelight.rendering.IBRResources;
 import tetzlaff.models.ReadonlySettingsModel;
+import tetzlaff.util.HoleFilling;
 import tetzlaff.util.NonNegativeLeastSquares;
+import tetzlaff.util.NonNegativeLeastSquaresBatch;
 
 import static java.lang.Math.PI;
 
@@ -46,10 +50,15 @@ public class Nam2018Request implements IBRRequest
     static final int BASIS_COUNT = 8;
     static final int MICROFACET_DISTRIBUTION_RESOLUTION = 90;
 
+    // Each texel's weights are fit with one extra row and column for the constraint that the weights sum to one.
+    static final int WEIGHT_SYSTEM_SIZE = BASIS_COUNT + 1;
+
     private static final int BRDF_MATRIX_SIZE = BASIS_COUNT * (MICROFACET_DISTRIBUTION_RESOLUTION + 1);
     private static final double K_MEANS_TOLERANCE = 0.0001;
+    private static final long K_MEANS_SEED = 0;
     private static final double NNLS_TOLERANCE_SCALE = 0.000000000001;
     private static final double CONVERGENCE_TOLERANCE = 0.0001;
+    private static final int MAX_ITERATIONS = 100;
     private static final double GAMMA = 2.2;
 
     private static final boolean NORMAL_REFINEMENT = true;
@@ -57,10 +66,14 @@ public class Nam2018Request implements IBRRequest
     private static final boolean DEBUG = true;
     private static final int MAX_RUNNING_THREADS = 5;
 
+    private static final AtomicInteger ACCUMULATOR_POOL_COUNTER = new AtomicInteger();
+
     private final int width;
     private final int height;
     private final File outputDirectory;
     private final ReadonlySettingsModel settingsModel;
+    private final Nam2018InitializationMode initializationMode;
+    private final File initialCheckpointFile;
     private final double metallicity = 0.0f; // Implemented and minimally tested but doesn't seem to make much difference.
 
     private double error = Double.POSITIVE_INFINITY;
@@ -75,55 +88,156 @@ public class Nam2018Request implements IBRRequest
     private final SimpleMatrix specularGreen = new SimpleMatrix(MICROFACET_DISTRIBUTION_RESOLUTION + 1, BASIS_COUNT, DMatrixRMaj.class);
     private final SimpleMatrix specularBlue = new SimpleMatrix(MICROFACET_DISTRIBUTION_RESOLUTION + 1, BASIS_COUNT, DMatrixRMaj.class);
 
-    private final SimpleMatrix[] weightsQTQAugmented;
-    private final SimpleMatrix[] weightsQTrAugmented;
+    /**
+     * The augmented normal equations (Q'Q and Q'r) for each texel's weights, and the weights themselves
+     * (followed by the Lagrange multiplier for the constraint).
+     */
+    private final NonNegativeLeastSquaresBatch weightSystems;
     private final boolean[] weightsValidity;
-    private final SimpleMatrix[] weightSolutions;
 
-    private final Object threadsRunningLock = new Object();
-    private int threadsRunning = 0;
+    /**
+     * The temporary file in which the weight systems are stored if they are too large for the heap, or null if they are on the heap.
+     */
+    private File weightSystemsFile;
+
+    /**
+     * The samples read back from the GPU for one view, waiting to be added to the reflectance matrix.
+     */
+    private static final class ReflectanceView
+    {
+        /**
+         * Marks the end of the views.
+         */
+        static final ReflectanceView END = new ReflectanceView(-1, null, null);
+
+        final int index;
+        final float[] colorAndVisibility;
+        final float[] halfwayAndGeom;
+
+        ReflectanceView(int index, float[] colorAndVisibility, float[] halfwayAndGeom)
+        {
+            this.index = index;
+            this.colorAndVisibility = colorAndVisibility;
+            this.halfwayAndGeom = halfwayAndGeom;
+        }
+    }
+
+    /**
+     * A running total of the reflectance matrix and vectors, owned by a single worker thread.
+     */
+    private static final class ReflectanceAccumulator
+    {
+        final SimpleMatrix ata = new SimpleMatrix(BRDF_MATRIX_SIZE, BRDF_MATRIX_SIZE, DMatrixRMaj.class);
+        final SimpleMatrix atyRed = new SimpleMatrix(BRDF_MATRIX_SIZE, 1, DMatrixRMaj.class);
+        final SimpleMatrix atyGreen = new SimpleMatrix(BRDF_MATRIX_SIZE, 1, DMatrixRMaj.class);
+        final SimpleMatrix atyBlue = new SimpleMatrix(BRDF_MATRIX_SIZE, 1, DMatrixRMaj.class);
+
+        void add(ReflectanceAccumulator other)
+        {
+            CommonOps_DDRM.addEquals(ata.getMatrix(), other.ata.getMatrix());
+            CommonOps_DDRM.addEquals(atyRed.getMatrix(), other.atyRed.getMatrix());
+            CommonOps_DDRM.addEquals(atyGreen.getMatrix(), other.atyGreen.getMatrix());
+            CommonOps_DDRM.addEquals(atyBlue.getMatrix(), other.atyBlue.getMatrix());
+        }
+    }
 
     public Nam2018Request(int width, int height, File outputDirectory, ReadonlySettingsModel settingsModel)
+    {
+        this(width, height, outputDirectory, settingsModel, Nam2018InitializationMode.CLUSTERING, null);
+    }
+
+    /**
+     * @param initializationMode Whether to start by clustering, or from a checkpoint written by a previous fit.
+     * A resumed fit continues with the iteration count and error of the checkpoint;
+     * a warm-started fit only keeps its basis functions, weights and normals, since the error is not comparable if the views have changed.
+     * @param initialCheckpointFile The checkpoint to start from; ignored when clustering.
+     * Checkpoints are written to the output directory after every iteration.
+     */
+    public Nam2018Request(int width, int height, File outputDirectory, ReadonlySettingsModel settingsModel,
+        Nam2018InitializationMode initializationMode, File initialCheckpointFile)
     {
         this.width = width;
         this.height = height;
         this.outputDirectory = outputDirectory;
         this.settingsModel = settingsModel;
+        this.initializationMode = initializationMode;
+        this.initialCheckpointFile = initialCheckpointFile;
 
-        weightSolutions = IntStream.range(0, width * height)
-            .mapToObj(p -> new SimpleMatrix(BASIS_COUNT + 1, 1, DMatrixRMaj.class))
-            .toArray(SimpleMatrix[]::new);
+        weightSystems = createWeightSystems(width * height);
 
-        weightsQTQAugmented = IntStream.range(0, width * height)
-            .mapToObj(p ->
+        IntStream.range(0, width * height).parallel().forEach(p ->
+        {
+            // Set up equality constraint.
+            for (int b = 0; b < BASIS_COUNT; b++)
             {
-                SimpleMatrix mQTQAugmented = new SimpleMatrix(BASIS_COUNT + 1, BASIS_COUNT + 1, DMatrixRMaj.class);
+                weightSystems.setMatrixElement(p, b, BASIS_COUNT, 1.0);
+            }
 
-                // Set up equality constraint.
-                for (int b = 0; b < BASIS_COUNT; b++)
-                {
-                    mQTQAugmented.set(b, BASIS_COUNT, 1.0);
-                    mQTQAugmented.set(BASIS_COUNT, b, 1.0);
-                }
+            weightSystems.setVectorElement(p, BASIS_COUNT, 1.0);
+        });
+
+        weightsValidity = new boolean[width * height];
+    }
 
-                return mQTQAugmented;
-            })
-            .toArray(SimpleMatrix[]::new);
+    private NonNegativeLeastSquaresBatch createWeightSystems(int texelCount)
+    {
+        long byteCount = NonNegativeLeastSquaresBatch.getByteCount(texelCount, BASIS_COUNT, 1);
 
-        weightsQTrAugmented = IntStream.range(0, width * height)
-            .mapToObj(p ->
+        // Spill to disk if the weight systems would take up too much of the heap.
+        if (byteCount > Runtime.getRuntime().maxMemory() / 4)
+        {
+            try
             {
-                SimpleMatrix mQTrAugmented = new SimpleMatrix(BASIS_COUNT + 1, 1, DMatrixRMaj.class);
-                mQTrAugmented.set(BASIS_COUNT, 1.0); // Set up equality constraint
-                return mQTrAugmented;
-            })
-            .toArray(SimpleMatrix[]::new);
+                weightSystemsFile = File.createTempFile("nam2018-weights", ".bin");
 
-        weightsValidity = new boolean[width * height];
+                // In case the request is never executed.
+                weightSystemsFile.deleteOnExit();
+
+                System.out.println("Storing weight fitting matrices in " + weightSystemsFile + " (" + (byteCount >> 20) + " MB)");
+                return NonNegativeLeastSquaresBatch.createMemoryMapped(texelCount, BASIS_COUNT, 1, weightSystemsFile);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+                deleteWeightSystemsFile();
+                return NonNegativeLeastSquaresBatch.createOffHeap(texelCount, BASIS_COUNT, 1);
+            }
+        }
+        else
+        {
+            return NonNegativeLeastSquaresBatch.createOnHeap(texelCount, BASIS_COUNT, 1);
+        }
+    }
+
+    private void deleteWeightSystemsFile()
+    {
+        if (weightSystemsFile != null)
+        {
+            if (!weightSystemsFile.delete() && weightSystemsFile.exists())
+            {
+                System.err.println("Could not delete " + weightSystemsFile);
+            }
+
+            weightSystemsFile = null;
+        }
     }
 
     @Override
     public <ContextType extends Context<ContextType>> void executeRequest(IBRRenderable<ContextType> renderable, LoadingMonitor callback)
+    {
+        try
+        {
+            fit(renderable, callback);
+        }
+        finally
+        {
+            // The weight systems can take up a lot of memory or disk space, so don't wait for the garbage collector or for exit.
+            weightSystems.close();
+            deleteWeightSystemsFile();
+        }
+    }
+
+    private <ContextType extends Context<ContextType>> void fit(IBRRenderable<ContextType> renderable, LoadingMonitor callback)
     {
         IBRResources<ContextType> resources = renderable.getResources();
         resources.context.getState().disableBackFaceCulling();
@@ -140,6 +254,23 @@ public class Nam2018Request implements IBRRequest
             return;
         }
 
+        Nam2018Checkpoint initialCheckpoint = null;
+
+        if (initializationMode != Nam2018InitializationMode.CLUSTERING)
+        {
+            try
+            {
+                System.out.println("Loading checkpoint " + initialCheckpointFile + "...");
+                initialCheckpoint = Nam2018Checkpoint.read(initialCheckpointFile, width, height);
+                System.out.println("DONE!");
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+                return;
+            }
+        }
+
         Projection defaultProj = resources.viewSet.getCameraProjection(resources.viewSet.getCameraProjectionIndex(
             resources.viewSet.getPrimaryViewIndex()));
 
@@ -235,9 +366,12 @@ public class Nam2018Request implements IBRRequest
             weightMaps.setTextureWrap(TextureWrapMode.None, TextureWrapMode.None, TextureWrapMode.None);
             basisMaps.setTextureWrap(TextureWrapMode.None, TextureWrapMode.None);
 
-            Drawable<ContextType> averageDrawable = createDrawable(averageProgram, resources);
+            if (initialCheckpoint == null)
+            {
+                Drawable<ContextType> averageDrawable = createDrawable(averageProgram, resources);
 
-            initializeClusters(averageDrawable, framebuffer);
+                initializeClusters(averageDrawable, framebuffer);
+            }
 
             normalFramebuffer1.clearColorBuffer(0, 0.5f, 0.5f, 1.0f, 1.0f);
             normalFramebuffer2.clearColorBuffer(0, 0.5f, 0.5f, 1.0f, 1.0f);
@@ -279,7 +413,28 @@ public class Nam2018Request implements IBRRequest
             // Set initial assumption for roughness when calculating masking/shadowing.
             specularTexFramebuffer.clearColorBuffer(1, 1.0f, 1.0f, 1.0f,1.0f);
 
-            Arrays.fill(diffuseAlbedos, DoubleVector3.ZERO);
+            int iteration = 0;
+
+            if (initialCheckpoint == null)
+            {
+                Arrays.fill(diffuseAlbedos, DoubleVector3.ZERO);
+            }
+            else
+            {
+                restoreCheckpoint(initialCheckpoint, frontNormalFramebuffer);
+                updateGraphicsResources(weightMaps, weightMask, basisMaps, diffuseUniformBuffer);
+
+                // Recover the roughness estimate for masking/shadowing from the restored basis functions and weights.
+                specularTexFramebuffer.clearColorBuffer(0, 0.0f, 0.0f, 0.0f,0.0f);
+                specularTexFramebuffer.clearColorBuffer(1, 0.0f, 0.0f, 0.0f,0.0f);
+                specularFitDrawable.draw(PrimitiveMode.TRIANGLE_FAN, specularTexFramebuffer);
+
+                if (initializationMode == Nam2018InitializationMode.RESUME)
+                {
+                    iteration = initialCheckpoint.iteration;
+                    error = initialCheckpoint.error;
+                }
+            }
 
             int viewCount = resources.viewSet.getCameraPoseCount();
 
@@ -468,8 +623,14 @@ public class Nam2018Request implements IBRRequest
                 {
                     e.printStackTrace();
                 }
+
+                iteration++;
+                saveCheckpoint(iteration, frontNormalFramebuffer);
             }
-            while (/*previousWeightedError - weightedError > CONVERGENCE_TOLERANCE*/ previousError - error > CONVERGENCE_TOLERANCE);
+            while (/*previousWeightedError - weightedError > CONVERGENCE_TOLERANCE*/ previousError - error > CONVERGENCE_TOLERANCE
+                && iteration < MAX_ITERATIONS);
+
+            System.out.println("Finished fitting after " + iteration + " iterations.");
 
             try (PrintStream rmseOut = new PrintStream(new File(outputDirectory, "rmse.txt")))
             {
@@ -778,6 +939,7 @@ public class Nam2018Request implements IBRRequest
     {
         Drawable<ContextType> drawable = program.getContext().createDrawable(program);
         drawable.addVertexBuffer("position", resources.positionBuffer);
+        drawable.setIndexBuffer(resources.indexBuffer);
         drawable.addVertexBuffer("texCoord", resources.texCoordBuffer);
         drawable.addVertexBuffer("normal", resources.normalBuffer);
         drawable.addVertexBuffer("tangent", resources.tangentBuffer);
@@ -808,160 +970,43 @@ public class Nam2018Request implements IBRRequest
 
         float[] averages = framebuffer.readFloatingPointColorBufferRGBA(0);
 
-        // k-means++ initialization
-        Random random = new SecureRandom();
+        KMeansClustering clustering = new KMeansClustering(averages);
 
-        // Randomly choose the first center.
-        int firstCenterIndex;
-
-        do
-        {
-            firstCenterIndex = random.nextInt(width * height);
-        }
-        while(averages[4 * firstCenterIndex + 3] < 1.0); // Make sure the center chosen is valid.
-
-        DoubleVector3[] centers = new DoubleVector3[BASIS_COUNT];
-        centers[0] = new DoubleVector3(averages[4 * firstCenterIndex], averages[4 * firstCenterIndex + 1], averages[4 * firstCenterIndex + 2]);
-
-        // Populate a CDF for the purpose of randomly selecting from a weighted probability distribution.
-        double[] cdf = new double[width * height + 1];
-
-        for (int b = 1; b < BASIS_COUNT; b++)
-        {
-            cdf[0] = 0.0;
-
-            for (int p = 0; p < width * height; p++)
-            {
-                if (averages[4 * p + 3] > 0.0)
-                {
-                    double minDistance = Double.MAX_VALUE;
-
-                    for (int b2 = 0; b2 < b; b2++)
-                    {
-                        minDistance = Math.min(minDistance, centers[b2].distance(new DoubleVector3(averages[4 * p], averages[4 * p + 1], averages[4 * p + 2])));
-                    }
-
-                    cdf[p + 1] = cdf[p] + minDistance * minDistance;
-                }
-            }
-
-            double x = random.nextDouble() * cdf[width * height - 1];
-
-            //noinspection FloatingPointEquality
-            if (x >= cdf[width * height - 1]) // It's possible but extremely unlikely that floating-point rounding would cause this to happen.
-            {
-                // In that extremely rare case, just set x to 0.0.
-                x = 0.0;
-            }
-
-            // binarySearch returns index of a match if its found, or -insertionPoint - 1 if not (the more likely scenario).
-            // insertionPoint is defined to be the index of the first element greater than the number searched for (the randomly generated value).
-            int index = Arrays.binarySearch(cdf, x);
-
-            if (index < 0) // The vast majority of the time this condition will be true, since floating-point matches are unlikely.
-            {
-                // We actually want insertionPoint - 1 since the CDF is offset by one from the actual array of colors.
-                // i.e. if the random value falls between indices 3 and 4 in the CDF, the differential between those two indices is due to the color
-                // at index 3, so we want to use 3 as are index.
-                index = -index - 2;
-            }
-
-            assert index < cdf.length - 1;
-
-            // If the index was actually positive to begin with, that's probably fine; just make sure that it's a valid location.
-            // It's also possible in theory for the index to be zero if the random number generator produced 0.0.
-            while (index < 0 || averages[4 * index + 3] == 0.0)
-            {
-                // Search forward until a valid index is found.
-                index++;
-
-                // We shouldn't ever fail to find an index since x should have been less than the final (un-normalized) CDF total.
-                // This means that there has to be some place where the CDF went up, corresponding to a valid index.
-                assert index < cdf.length - 1;
-            }
-
-            // We've found a new center.
-            centers[b] = new DoubleVector3(averages[4 * index], averages[4 * index + 1], averages[4 * index + 2]);
-        }
+        // Seed the random number generator so that runs are reproducible.
+        double[] centers = clustering.initializeCenters(BASIS_COUNT, new SplittableRandom(K_MEANS_SEED));
 
         System.out.println("Initial centers:");
         for (int b = 0; b < BASIS_COUNT; b++)
         {
-            System.out.println(centers[b]);
+            System.out.println(new DoubleVector3(centers[3 * b], centers[3 * b + 1], centers[3 * b + 2]));
         }
 
         // Initialization is done; now it's time to iterate.
         boolean changed;
         do
         {
-            // Initialize sums to zero.
-            DoubleVector4[] sums = IntStream.range(0, BASIS_COUNT).mapToObj(i -> DoubleVector4.ZERO_DIRECTION).toArray(DoubleVector4[]::new);
-
-            for (int p = 0; p < width * height; p++)
-            {
-                if (averages[4 * p + 3] > 0.0)
-                {
-                    int bMin = -1;
-
-                    double minDistance = Double.MAX_VALUE;
-
-                    for (int b = 0; b < BASIS_COUNT; b++)
-                    {
-                        double distance = centers[b].distance(new DoubleVector3(averages[4 * p], averages[4 * p + 1], averages[4 * p + 2]));
-                        if (distance < minDistance)
-                        {
-                            minDistance = distance;
-                            bMin = b;
-                        }
-                    }
-
-                    sums[bMin] = sums[bMin].plus(new DoubleVector4(averages[4 * p], averages[4 * p + 1], averages[4 * p + 2], 1.0f));
-                }
-            }
-
-            changed = false;
-            for (int b = 0; b < BASIS_COUNT; b++)
-            {
-                if (sums[b].w > 0.0)
-                {
-                    DoubleVector3 newCenter = sums[b].getXYZ().dividedBy(sums[b].w);
-                    changed = changed || newCenter.distance(centers[b]) > K_MEANS_TOLERANCE;
-                    centers[b] = newCenter;
-                }
-            }
+            changed = clustering.refineCenters(centers, K_MEANS_TOLERANCE);
         }
         while (changed);
 
-        for (int p = 0; p < width * height; p++)
+        int[] clusters = clustering.assignClusters(centers);
+
+        IntStream.range(0, width * height).parallel().forEach(p ->
         {
             // Initialize weights to zero.
-            weightSolutions[p].zero();
+            weightSystems.clearSolution(p);
 
-            if (averages[4 * p + 3] > 0.0)
+            if (clusters[p] >= 0)
             {
-                int bMin = -1;
-
-                double minDistance = Double.MAX_VALUE;
-
-                for (int b = 0; b < BASIS_COUNT; b++)
-                {
-                    double distance = centers[b].distance(new DoubleVector3(averages[4 * p], averages[4 * p + 1], averages[4 * p + 2]));
-                    if (distance < minDistance)
-                    {
-                        minDistance = distance;
-                        bMin = b;
-                    }
-                }
-
                 // Set weight to one for the cluster that each pixel belongs to.
-                weightSolutions[p].set(bMin, 1.0);
+                weightSystems.setSolutionElement(p, clusters[p], 1.0);
             }
-        }
+        });
 
         System.out.println("Refined centers:");
         for (int b = 0; b < BASIS_COUNT; b++)
         {
-            System.out.println(centers[b]);
+            System.out.println(new DoubleVector3(centers[3 * b], centers[3 * b + 1], centers[3 * b + 2]));
         }
 
         if (DEBUG)
@@ -970,26 +1015,12 @@ public class Nam2018Request implements IBRRequest
             int[] weightDataPacked = new int[width * height];
             for (int p = 0; p < width * height; p++)
             {
-                if (averages[4 * p + 3] > 0.0)
+                if (clusters[p] >= 0)
                 {
-                    int bMin = -1;
-
-                    double minDistance = Double.MAX_VALUE;
-
-                    for (int b = 0; b < BASIS_COUNT; b++)
-                    {
-                        double distance = centers[b].distance(new DoubleVector3(averages[4 * p], averages[4 * p + 1], averages[4 * p + 2]));
-                        if (distance < minDistance)
-                        {
-                            minDistance = distance;
-                            bMin = b;
-                        }
-                    }
-
                     // Flip vertically
                     int weightDataIndex = p % width + width * (height - p / width - 1);
 
-                    switch(bMin)
+                    switch(clusters[p])
                     {
                         case 0: weightDataPacked[weightDataIndex] = Color.RED.getRGB(); break;
                         case 1: weightDataPacked[weightDataIndex] = Color.GREEN.getRGB(); break;
@@ -1116,127 +1147,97 @@ public class Nam2018Request implements IBRRequest
 
     private <ContextType extends Context<ContextType>> void buildReflectanceMatrix(Drawable<ContextType> drawable, Framebuffer<ContextType> framebuffer, int viewCount)
     {
-        // Reinitialize matrices to zero.
-        brdfATA.zero();
-        brdfATyRed.zero();
-        brdfATyGreen.zero();
-        brdfATyBlue.zero();
+        // Each view waiting to be processed holds a copy of the framebuffer, so the number of workers is limited to keep memory use reasonable.
+        int threadCount = Math.min(MAX_RUNNING_THREADS, Runtime.getRuntime().availableProcessors());
 
-        for (int k = 0; k < viewCount; k++)
+        // Holding at most one view in the queue lets the next view be read back while the workers are busy with the previous ones.
+        BlockingQueue<ReflectanceView> pendingViews = new ArrayBlockingQueue<>(1);
+
+        String threadNamePrefix = "Reflectance accumulator " + ACCUMULATOR_POOL_COUNTER.incrementAndGet() + '-';
+        AtomicInteger threadCounter = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, runnable ->
         {
-            synchronized (threadsRunningLock)
+            Thread thread = new Thread(runnable, threadNamePrefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try
+        {
+            // Each worker adds the contributions of many views into a single accumulator.
+            List<Future<ReflectanceAccumulator>> accumulatorFutures = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; i++)
             {
-                // Make sure that we don't have too many threads running.
-                // Wait until a thread finishes if we're at the max.
-                while (threadsRunning >= MAX_RUNNING_THREADS)
-                {
-                    try
-                    {
-                        threadsRunningLock.wait(30000); // Double check every 30 seconds if notifyAll() was not called
-                    }
-                    catch (InterruptedException e)
-                    {
-                        e.printStackTrace();
-                    }
-                }
+                accumulatorFutures.add(executor.submit(() -> accumulateReflectance(pendingViews)));
             }
 
-            // Clear framebuffer
-            framebuffer.clearColorBuffer(0, 0.0f, 0.0f, 0.0f, 0.0f);
-            framebuffer.clearColorBuffer(1, 0.0f, 0.0f, 0.0f, 0.0f);
+            for (int k = 0; k < viewCount; k++)
+            {
+                // Clear framebuffer
+                framebuffer.clearColorBuffer(0, 0.0f, 0.0f, 0.0f, 0.0f);
+                framebuffer.clearColorBuffer(1, 0.0f, 0.0f, 0.0f, 0.0f);
 
-            // Run shader program to fill framebuffer with per-pixel information.
-            drawable.program().setUniform("viewIndex", k);
-            drawable.draw(PrimitiveMode.TRIANGLES, framebuffer);
+                // Run shader program to fill framebuffer with per-pixel information.
+                drawable.program().setUniform("viewIndex", k);
+                drawable.draw(PrimitiveMode.TRIANGLES, framebuffer);
 
-//            if (DEBUG)
-//            {
-//                try
+//                if (DEBUG)
 //                {
-//                    framebuffer.saveColorBufferToFile(0, "PNG", new File(outputDirectory, String.format("%02d.png", k)));
-//                    framebuffer.saveColorBufferToFile(1, "PNG", new File(outputDirectory, String.format("%02d_geom.png", k)));
+//                    try
+//                    {
+//                        framebuffer.saveColorBufferToFile(0, "PNG", new File(outputDirectory, String.format("%02d.png", k)));
+//                        framebuffer.saveColorBufferToFile(1, "PNG", new File(outputDirectory, String.format("%02d_geom.png", k)));
+//                    }
+//                    catch (IOException e)
+//                    {
+//                        e.printStackTrace();
+//                    }
 //                }
-//                catch (IOException e)
-//                {
-//                    e.printStackTrace();
-//                }
-//            }
 
-            // Copy framebuffer from GPU to main memory.
-            float[] colorAndVisibility = framebuffer.readFloatingPointColorBufferRGBA(0);
-            float[] halfwayAndGeom = framebuffer.readFloatingPointColorBufferRGBA(1);
+                // Copy framebuffer from GPU to main memory.
+                float[] colorAndVisibility = framebuffer.readFloatingPointColorBufferRGBA(0);
+                float[] halfwayAndGeom = framebuffer.readFloatingPointColorBufferRGBA(1);
 
-            synchronized (threadsRunningLock)
-            {
-                threadsRunning++;
+                // Wait for a worker to be ready for another view.
+                pendingViews.put(new ReflectanceView(k, colorAndVisibility, halfwayAndGeom));
             }
 
-            int kCopy = k;
-
-            Thread contributionThread = new Thread(() ->
+            // Tell each worker that there are no more views.
+            for (int i = 0; i < threadCount; i++)
             {
-                try
-                {
-                    // Create scratch space for the thread handling this view.
-                    SimpleMatrix contributionATA = new SimpleMatrix(BRDF_MATRIX_SIZE, BRDF_MATRIX_SIZE, DMatrixRMaj.class);
-                    SimpleMatrix contributionATyRed = new SimpleMatrix(BRDF_MATRIX_SIZE, 1, DMatrixRMaj.class);
-                    SimpleMatrix contributionATyGreen = new SimpleMatrix(BRDF_MATRIX_SIZE, 1, DMatrixRMaj.class);
-                    SimpleMatrix contributionATyBlue = new SimpleMatrix(BRDF_MATRIX_SIZE, 1, DMatrixRMaj.class);
-
-                    // Get the contributions from the current view.
-                    new ReflectanceMatrixBuilder(colorAndVisibility, halfwayAndGeom, weightSolutions, contributionATA,
-                        contributionATyRed, contributionATyGreen, contributionATyBlue, metallicity).execute();
-
-                    // Add the contribution into the main matrix and vectors.
-                    synchronized (brdfATA)
-                    {
-                        CommonOps_DDRM.addEquals(brdfATA.getMatrix(), contributionATA.getMatrix());
-                    }
-
-                    synchronized (brdfATyRed)
-                    {
-                        CommonOps_DDRM.addEquals(brdfATyRed.getMatrix(), contributionATyRed.getMatrix());
-                    }
-
-                    synchronized (brdfATyGreen)
-                    {
-                        CommonOps_DDRM.addEquals(brdfATyGreen.getMatrix(), contributionATyGreen.getMatrix());
-                    }
+                pendingViews.put(ReflectanceView.END);
+            }
 
-                    synchronized (brdfATyBlue)
-                    {
-                        CommonOps_DDRM.addEquals(brdfATyBlue.getMatrix(), contributionATyBlue.getMatrix());
-                    }
-                }
-                finally
-                {
-                    synchronized (threadsRunningLock)
-                    {
-                        threadsRunning--;
-                        threadsRunningLock.notifyAll();
-                    }
+            ReflectanceAccumulator[] accumulators = new ReflectanceAccumulator[threadCount];
+            for (int i = 0; i < threadCount; i++)
+            {
+                accumulators[i] = getAccumulator(accumulatorFutures.get(i));
+            }
 
-                    System.out.println("Finished view " + kCopy + '.');
-                }
-            });
+            // Combine the accumulators pairwise, in parallel.
+            for (int stride = 1; stride < threadCount; stride *= 2)
+            {
+                int strideCopy = stride;
+                IntStream.range(0, (threadCount - 1) / (2 * stride) + 1).parallel()
+                    .map(i -> 2 * strideCopy * i)
+                    .filter(i -> i + strideCopy < threadCount)
+                    .forEach(i -> accumulators[i].add(accumulators[i + strideCopy]));
+            }
 
-            contributionThread.start();
+            brdfATA.set(accumulators[0].ata);
+            brdfATyRed.set(accumulators[0].atyRed);
+            brdfATyGreen.set(accumulators[0].atyGreen);
+            brdfATyBlue.set(accumulators[0].atyBlue);
         }
-
-        // Wait for all the threads to finish.
-        synchronized (threadsRunningLock)
+        catch (InterruptedException e)
         {
-            while (threadsRunning > 0)
-            {
-                try
-                {
-                    threadsRunningLock.wait(30000); // Double check every 30 seconds if notifyAll() was not called
-                }
-                catch (InterruptedException e)
-                {
-                    e.printStackTrace();
-                }
-            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the reflectance matrix.", e);
+        }
+        finally
+        {
+            executor.shutdownNow();
         }
 
         if (DEBUG)
@@ -1280,6 +1281,76 @@ public class Nam2018Request implements IBRRequest
         }
     }
 
+    /**
+     * Adds the contributions of views from a queue into a new accumulator until the end of the views is reached.
+     * Continues to take views from the queue after a failure (including an Error such as OutOfMemoryError)
+     * so that the thread providing the views doesn't block; the failure is rethrown once the end is reached.
+     */
+    private ReflectanceAccumulator accumulateReflectance(BlockingQueue<ReflectanceView> pendingViews) throws InterruptedException
+    {
+        ReflectanceAccumulator accumulator = new ReflectanceAccumulator();
+        Throwable failure = null;
+
+        for (ReflectanceView view = pendingViews.take(); view != ReflectanceView.END; view = pendingViews.take())
+        {
+            if (failure == null)
+            {
+                try
+                {
+                    // Get the contributions from the current view.
+                    new ReflectanceMatrixBuilder(view.colorAndVisibility, view.halfwayAndGeom, weightSystems, accumulator.ata,
+                        accumulator.atyRed, accumulator.atyGreen, accumulator.atyBlue, metallicity).execute();
+
+                    System.out.println("Finished view " + view.index + '.');
+                }
+                catch (Throwable e)
+                {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure instanceof RuntimeException)
+        {
+            throw (RuntimeException) failure;
+        }
+        else if (failure instanceof Error)
+        {
+            throw (Error) failure;
+        }
+        else if (failure != null)
+        {
+            throw new IllegalStateException(failure);
+        }
+
+        return accumulator;
+    }
+
+    private static ReflectanceAccumulator getAccumulator(Future<ReflectanceAccumulator> future) throws InterruptedException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            else
+            {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
     private <ContextType extends Context<ContextType>> void reconstructWeights(
         Drawable<ContextType> drawable, Framebuffer<ContextType> framebuffer, int viewCount)
     {
@@ -1290,16 +1361,8 @@ public class Nam2018Request implements IBRRequest
 
         System.out.println("Finished building matrices; solving now...");
 
-        for (int p = 0; p < width * height; p++)
-        {
-            if (weightsValidity[p])
-            {
-                double median = IntStream.range(0, weightsQTrAugmented[p].getNumElements()).mapToDouble(weightsQTrAugmented[p]::get)
-                    .sorted().skip(weightsQTrAugmented[p].getNumElements() / 2).filter(x -> x > 0).findFirst().orElse(1.0);
-                weightSolutions[p] = NonNegativeLeastSquares.solvePremultipliedWithEqualityConstraints(
-                    weightsQTQAugmented[p], weightsQTrAugmented[p], median * NNLS_TOLERANCE_SCALE, 1);
-            }
-        }
+        // Solve for every valid texel in parallel; the tolerance for each texel is relative to the median of its Q'r vector.
+        weightSystems.solve(weightsValidity, NNLS_TOLERANCE_SCALE);
 
         System.out.println("DONE!");
 
@@ -1318,6 +1381,9 @@ public class Nam2018Request implements IBRRequest
         // Initially assume that all texels are invalid.
         Arrays.fill(weightsValidity, false);
 
+        WeightMatrixBuilder weightMatrixBuilder = new WeightMatrixBuilder(diffuseAlbedos, specularRed, specularGreen, specularBlue,
+            metallicity, weightSystems, weightsValidity);
+
         for (int k = 0; k < viewCount; k++)
         {
             // Clear framebuffer
@@ -1333,81 +1399,7 @@ public class Nam2018Request implements IBRRequest
             float[] halfwayAndGeomAndWeights = framebuffer.readFloatingPointColorBufferRGBA(1);
 
             // Update matrix for each pixel.
-            IntStream.range(0, width * height).parallel().forEach(p ->
-            {
-                // Skip samples that aren't visible or are otherwise invalid.
-                if (colorAndVisibility[4 * p + 3] > 0)
-                {
-                    // Any time we have a visible, valid sample, mark that the corresponding texel is valid.
-                    weightsValidity[p] = true;
-
-                    // Precalculate frequently used values.
-
-                    // For original Nam 2018 version, weights were optimized against reflectance, not reflected radiance,
-                    // so we don't want to multiply by n dot l when attempting to reproduce that version.
-                    double nDotLSquared = ORIGINAL_NAM_METHOD ? 1.0 : halfwayAndGeomAndWeights[4 * p + 3] * halfwayAndGeomAndWeights[4 * p + 3];
-
-                    double weightSquared = halfwayAndGeomAndWeights[4 * p + 2] * halfwayAndGeomAndWeights[4 * p + 2];
-                    double geomFactor = halfwayAndGeomAndWeights[4 * p + 1];
-                    double mExact = halfwayAndGeomAndWeights[4 * p] * MICROFACET_DISTRIBUTION_RESOLUTION;
-                    int m1 = (int)Math.floor(mExact);
-                    int m2 = m1 + 1;
-                    double t = mExact - m1;
-                    DoubleVector3 fActual = new DoubleVector3(colorAndVisibility[4 * p], colorAndVisibility[4 * p + 1], colorAndVisibility[4 * p + 2]);
-
-                    for (int b1 = 0; b1 < BASIS_COUNT; b1++)
-                    {
-                        // Evaluate the first basis BRDF.
-                        DoubleVector3 f1 = diffuseAlbedos[b1].dividedBy(PI);
-
-                        if (m1 < MICROFACET_DISTRIBUTION_RESOLUTION)
-                        {
-                            f1 = f1.plus(new DoubleVector3(specularRed.get(m1, b1), specularGreen.get(m1, b1), specularBlue.get(m1, b1))
-                                .times(1.0 - t)
-                                .plus(new DoubleVector3(specularRed.get(m2, b1), specularGreen.get(m2, b1), specularBlue.get(m2, b1))
-                                    .times(t))
-                                .times(geomFactor));
-                        }
-                        else if (metallicity > 0.0f)
-                        {
-                            f1 = f1.plus(new DoubleVector3(
-                                    specularRed.get(MICROFACET_DISTRIBUTION_RESOLUTION, b1),
-                                    specularGreen.get(MICROFACET_DISTRIBUTION_RESOLUTION, b1),
-                                    specularBlue.get(MICROFACET_DISTRIBUTION_RESOLUTION, b1))
-                                .times(geomFactor));
-                        }
-
-                        // Store the weighted product of the basis BRDF and the actual BRDF in the vector.
-                        weightsQTrAugmented[p].set(b1, weightsQTrAugmented[p].get(b1) + weightSquared * nDotLSquared * f1.dot(fActual));
-
-                        for (int b2 = 0; b2 < BASIS_COUNT; b2++)
-                        {
-                            // Evaluate the second basis BRDF.
-                            DoubleVector3 f2 = diffuseAlbedos[b2].dividedBy(PI);
-
-                            if (m1 < MICROFACET_DISTRIBUTION_RESOLUTION)
-                            {
-                                f2 = f2.plus(new DoubleVector3(specularRed.get(m1, b2), specularGreen.get(m1, b2), specularBlue.get(m1, b2))
-                                    .times(1.0 - t)
-                                    .plus(new DoubleVector3(specularRed.get(m2, b2), specularGreen.get(m2, b2), specularBlue.get(m2, b2))
-                                        .times(t))
-                                    .times(geomFactor));
-                            }
-                            else if (metallicity > 0.0f)
-                            {
-                                f2 = f2.plus(new DoubleVector3(
-                                        specularRed.get(MICROFACET_DISTRIBUTION_RESOLUTION, b2),
-                                        specularGreen.get(MICROFACET_DISTRIBUTION_RESOLUTION, b2),
-                                        specularBlue.get(MICROFACET_DISTRIBUTION_RESOLUTION, b2))
-                                    .times(geomFactor));
-                            }
-
-                            // Store the weighted product of the two BRDFs in the matrix.
-                            weightsQTQAugmented[p].set(b1, b2, weightsQTQAugmented[p].get(b1, b2) + weightSquared * nDotLSquared * f1.dot(f2));
-                        }
-                    }
-                }
-            });
+            weightMatrixBuilder.addView(colorAndVisibility, halfwayAndGeomAndWeights);
 
             System.out.println("Finished view " + k + '.');
         }
@@ -1424,7 +1416,7 @@ public class Nam2018Request implements IBRRequest
         // Load weight mask first.
         for (int p = 0; p < width * height; p++)
         {
-            weightMapBuffer.set(p, 0, weightsValidity[p] ? 1.0 : 0.0);
+            weightMapBuffer.setFloat(p, 0, weightsValidity[p] ? 1.0f : 0.0f);
         }
 
         weightMask.load(weightMapBuffer);
@@ -1434,7 +1426,7 @@ public class Nam2018Request implements IBRRequest
             // Copy weights from the individual solutions into the weight buffer laid out in texture space to be sent to the GPU.
             for (int p = 0; p < width * height; p++)
             {
-                weightMapBuffer.set(p, 0, weightSolutions[p].get(b));
+                weightMapBuffer.setDouble(p, 0, weightSystems.getSolutionElement(p, b));
             }
 
             // Immediately load the weight map so that we can reuse the local memory buffer.
@@ -1444,16 +1436,16 @@ public class Nam2018Request implements IBRRequest
             for (int m = 0; m <= MICROFACET_DISTRIBUTION_RESOLUTION; m++)
             {
                 // Format necessary for OpenGL is essentially transposed from the storage in the solution vectors.
-                basisMapBuffer.set(m + (MICROFACET_DISTRIBUTION_RESOLUTION + 1) * b, 0, specularRed.get(m, b));
-                basisMapBuffer.set(m + (MICROFACET_DISTRIBUTION_RESOLUTION + 1) * b, 1, specularGreen.get(m, b));
-                basisMapBuffer.set(m + (MICROFACET_DISTRIBUTION_RESOLUTION + 1) * b, 2, specularBlue.get(m, b));
+                basisMapBuffer.setDouble(m + (MICROFACET_DISTRIBUTION_RESOLUTION + 1) * b, 0, specularRed.get(m, b));
+                basisMapBuffer.setDouble(m + (MICROFACET_DISTRIBUTION_RESOLUTION + 1) * b, 1, specularGreen.get(m, b));
+                basisMapBuffer.setDouble(m + (MICROFACET_DISTRIBUTION_RESOLUTION + 1) * b, 2, specularBlue.get(m, b));
             }
 
             // Store each channel of the diffuse albedo in the local buffer.
-            diffuseNativeBuffer.set(b, 0, diffuseAlbedos[b].x);
-            diffuseNativeBuffer.set(b, 1, diffuseAlbedos[b].y);
-            diffuseNativeBuffer.set(b, 2, diffuseAlbedos[b].z);
-            diffuseNativeBuffer.set(b, 3, 1.0f);
+            diffuseNativeBuffer.setDouble(b, 0, diffuseAlbedos[b].x);
+            diffuseNativeBuffer.setDouble(b, 1, diffuseAlbedos[b].y);
+            diffuseNativeBuffer.setDouble(b, 2, diffuseAlbedos[b].z);
+            diffuseNativeBuffer.setFloat(b, 3, 1.0f);
         }
 
         // Send the basis functions to the GPU.
@@ -1538,73 +1530,85 @@ public class Nam2018Request implements IBRRequest
 
     private void fillHoles()
     {
-        // Fill holes
-        // TODO Quick hack; should be replaced with something more robust.
+        // Fill holes with the weights of the nearest texel that has valid weights.
         System.out.println("Filling holes...");
 
-        for (int i = 0; i < Math.max(width, height); i++)
-        {
-            Collection<Integer> filledPositions = new HashSet<>(256);
-            for (int p = 0; p < weightsValidity.length; p++)
+        int[] nearestValidTexels = HoleFilling.findNearestValidTexels(width, height, p -> weightsValidity[p]);
+
+        IntStream.range(0, weightsValidity.length).parallel()
+            .filter(p -> !weightsValidity[p] && nearestValidTexels[p] >= 0)
+            .forEach(p ->
             {
-                if (!weightsValidity[p])
+                for (int b = 0; b < BASIS_COUNT; b++)
                 {
-                    int left = (weightsValidity.length + p - 1) % weightsValidity.length;
-                    int right = (p + 1) % weightsValidity.length;
-                    int up = (weightsValidity.length + p - width) % weightsValidity.length;
-                    int down = (p + width) % weightsValidity.length;
+                    weightSystems.setSolutionElement(p, b, weightSystems.getSolutionElement(nearestValidTexels[p], b));
+                }
+            });
 
-                    int count = 0;
+        IntStream.range(0, weightsValidity.length).parallel()
+            .forEach(p -> weightsValidity[p] = nearestValidTexels[p] >= 0);
 
-                    for (int b = 0; b < BASIS_COUNT; b++)
-                    {
-                        count = 0;
-                        double sum = 0.0;
+        System.out.println("DONE!");
+    }
 
-                        if (weightsValidity[left])
-                        {
-                            sum += weightSolutions[left].get(b);
-                            count++;
-                        }
+    private <ContextType extends Context<ContextType>> void saveCheckpoint(int iteration, Framebuffer<ContextType> normalFramebuffer)
+    {
+        System.out.println("Saving checkpoint...");
 
-                        if (weightsValidity[right])
-                        {
-                            sum += weightSolutions[right].get(b);
-                            count++;
-                        }
+        float[] weights = new float[width * height * BASIS_COUNT];
+        IntStream.range(0, width * height).parallel().forEach(p ->
+        {
+            for (int b = 0; b < BASIS_COUNT; b++)
+            {
+                weights[p * BASIS_COUNT + b] = (float)weightSystems.getSolutionElement(p, b);
+            }
+        });
 
-                        if (weightsValidity[up])
-                        {
-                            sum += weightSolutions[up].get(b);
-                            count++;
-                        }
+        float[] normalsRGBA = normalFramebuffer.readFloatingPointColorBufferRGBA(0);
+        float[] normals = new float[width * height * 3];
+        for (int p = 0; p < width * height; p++)
+        {
+            System.arraycopy(normalsRGBA, 4 * p, normals, 3 * p, 3);
+        }
 
-                        if (weightsValidity[down])
-                        {
-                            sum += weightSolutions[down].get(b);
-                            count++;
-                        }
+        Nam2018Checkpoint checkpoint = new Nam2018Checkpoint(width, height, iteration, error, diffuseAlbedos.clone(),
+            specularRed.<DMatrixRMaj>getMatrix().getData().clone(),
+            specularGreen.<DMatrixRMaj>getMatrix().getData().clone(),
+            specularBlue.<DMatrixRMaj>getMatrix().getData().clone(),
+            weightsValidity.clone(), weights, normals);
 
-                        if (sum > 0.0)
-                        {
-                            weightSolutions[p].set(b, sum / count);
-                        }
-                    }
+        try
+        {
+            checkpoint.write(new File(outputDirectory, Nam2018Checkpoint.FILE_NAME));
+            System.out.println("DONE!");
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
 
-                    if (count > 0)
-                    {
-                        filledPositions.add(p);
-                    }
-                }
-            }
+    private <ContextType extends Context<ContextType>> void restoreCheckpoint(
+        Nam2018Checkpoint checkpoint, FramebufferObject<ContextType> normalFramebuffer)
+    {
+        System.arraycopy(checkpoint.diffuseAlbedos, 0, diffuseAlbedos, 0, BASIS_COUNT);
+        System.arraycopy(checkpoint.specularRed, 0, specularRed.<DMatrixRMaj>getMatrix().getData(), 0, checkpoint.specularRed.length);
+        System.arraycopy(checkpoint.specularGreen, 0, specularGreen.<DMatrixRMaj>getMatrix().getData(), 0, checkpoint.specularGreen.length);
+        System.arraycopy(checkpoint.specularBlue, 0, specularBlue.<DMatrixRMaj>getMatrix().getData(), 0, checkpoint.specularBlue.length);
+        System.arraycopy(checkpoint.weightsValidity, 0, weightsValidity, 0, weightsValidity.length);
 
-            for (int p : filledPositions)
+        IntStream.range(0, width * height).parallel().forEach(p ->
+        {
+            weightSystems.clearSolution(p);
+
+            for (int b = 0; b < BASIS_COUNT; b++)
             {
-                weightsValidity[p] = true;
+                weightSystems.setSolutionElement(p, b, checkpoint.weights[p * BASIS_COUNT + b]);
             }
-        }
+        });
 
-        System.out.println("DONE!");
+        NativeVectorBuffer normalBuffer = NativeVectorBufferFactory.getInstance().createFromFloatArray(3, width * height, checkpoint.normals);
+        normalFramebuffer.getColorAttachmentTexture(0).load(normalBuffer);
     }
 
     private <ContextType extends Context<ContextType>> void saveBasisFunctions(Drawable<ContextType> drawable, Framebuffer<ContextType> framebuffer)
@@ -1671,7 +1675,7 @@ public class Nam2018Request implements IBRRequest
 
             for (int p = 0; p < width * height; p++)
             {
-                float weight = (float)weightSolutions[p].get(b);
+                float weight = (float)weightSystems.getSolutionElement(p, b);
 
                 // Flip vertically
                 int dataBufferIndex = p % width + width * (height - p / width - 1);
@@ -1702,7 +1706,7 @@ public class Nam2018Request implements IBRRequest
             for (int b = 0; b < BASIS_COUNT; b++)
             {
                 diffuseSum = diffuseSum.plus(diffuseAlbedos[b].asVector4(1.0)
-                    .times(weightSolutions[p].get(b)));
+                    .times(weightSystems.getSolutionElement(p, b)));
             }
 
             if (diffuseSum.w > 0)
@@ -23,9 +23,12 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.TextField;
 import javafx.scene.image.Image;
 import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
+import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
 import javafx.stage.Window;
 import tetzlaff.ibrelight.core.IBRRequest;
@@ -38,9 +41,13 @@ public class Nam2018RequestUI implements IBRRequestUI
     @FXML private TextField widthTextField;
     @FXML private TextField heightTextField;
     @FXML private TextField exportDirectoryField;
+    @FXML private ComboBox<Nam2018InitializationMode> initializationModeComboBox;
+    @FXML private TextField checkpointFileField;
+    @FXML private Button checkpointFileButton;
     @FXML private Button runButton;
 
     private final DirectoryChooser directoryChooser = new DirectoryChooser();
+    private final FileChooser checkpointFileChooser = new FileChooser();
 
     private IBRelightModels modelAccess;
     private Stage stage;
@@ -64,6 +71,10 @@ public class Nam2018RequestUI implements IBRRequestUI
         svdRequestUI.stage.setScene(new Scene(parent));
         svdRequestUI.stage.initOwner(window);
 
+        svdRequestUI.checkpointFileChooser.getExtensionFilters().add(
+            new ExtensionFilter("Nam 2018 checkpoint", "*" + Nam2018Checkpoint.FILE_NAME.substring(Nam2018Checkpoint.FILE_NAME.indexOf('.'))));
+        svdRequestUI.initializationModeComboBoxAction();
+
         return svdRequestUI;
     }
 
@@ -91,6 +102,34 @@ public class Nam2018RequestUI implements IBRRequestUI
         }
     }
 
+    @FXML
+    private void checkpointFileButtonAction()
+    {
+        this.checkpointFileChooser.setTitle("Choose a checkpoint to start from");
+        if (!checkpointFileField.getText().isEmpty())
+        {
+            File currentValue = new File(checkpointFileField.getText());
+            this.checkpointFileChooser.setInitialDirectory(currentValue.getParentFile());
+        }
+        else if (!exportDirectoryField.getText().isEmpty())
+        {
+            this.checkpointFileChooser.setInitialDirectory(new File(exportDirectoryField.getText()));
+        }
+        File file = this.checkpointFileChooser.showOpenDialog(stage.getOwner());
+        if (file != null)
+        {
+            checkpointFileField.setText(file.toString());
+        }
+    }
+
+    @FXML
+    private void initializationModeComboBoxAction()
+    {
+        boolean fromCheckpoint = initializationModeComboBox.getValue() != Nam2018InitializationMode.CLUSTERING;
+        checkpointFileField.setDisable(!fromCheckpoint);
+        checkpointFileButton.setDisable(!fromCheckpoint);
+    }
+
     @FXML
     public void cancelButtonAction(ActionEvent actionEvent)
     {
@@ -106,11 +145,19 @@ public class Nam2018RequestUI implements IBRRequestUI
         {
             //stage.close();
 
+            File exportDirectory = new File(exportDirectoryField.getText());
+
+            // Default to the checkpoint left in the export directory by a previous fit.
+            File checkpointFile = checkpointFileField.getText().isEmpty() ?
+                new File(exportDirectory, Nam2018Checkpoint.FILE_NAME) : new File(checkpointFileField.getText());
+
             IBRRequest request = new Nam2018Request(
                 Integer.parseInt(widthTextField.getText()),
                 Integer.parseInt(heightTextField.getText()),
-                new File(exportDirectoryField.getText()),
-                modelAccess.getSettingsModel());
+                exportDirectory,
+                modelAccess.getSettingsModel(),
+                initializationModeComboBox.getValue(),
+                checkpointFile);
 
             requestHandler.accept(request);
         });
@@ -12,52 +12,70 @@
 
 package tetzlaff.ibrelight.export.nam2018;
 
-import java.util.stream.IntStream;
+import java.util.Arrays;
 
 import org.ejml.data.DMatrixRMaj;
 import org.ejml.simple.SimpleMatrix;
+import tetzlaff.util.NonNegativeLeastSquaresBatch;
 
 import static org.ejml.dense.row.CommonOps_DDRM.multTransA;
 
 /**
  * A helper class to maintain state necessary to efficiently build the matrix that can solve for reflectance.
+ * The matrix and vectors are accumulated directly in their backing arrays.
+ * Since ATA is symmetric, only the upper triangle (and the full blocks along the diagonal) is accumulated,
+ * and it is copied to the lower triangle once all of the samples have been visited.
  */
 final class ReflectanceMatrixBuilder
 {
     // Set to true to validate the implementation (should generally be turned off for much better efficiency).
     private static final boolean VALIDATE = false;
 
+    private static final int BASIS_COUNT = Nam2018Request.BASIS_COUNT;
+    private static final int MATRIX_SIZE = BASIS_COUNT * (Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION + 1);
+
+    // The number of bits of the sort key handled by each pass of the radix sort.
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
     private int mPrevious = 0;
 
     /**
      * Stores a running total (for each pair of basis functions) of the weighted sum of geometric factors.
+     * Indexed by b1 * BASIS_COUNT + b2.
      */
-    private final SimpleMatrix weightedGeomSum = new SimpleMatrix(Nam2018Request.BASIS_COUNT, Nam2018Request.BASIS_COUNT, DMatrixRMaj.class);
+    private final double[] weightedGeomSum = new double[BASIS_COUNT * BASIS_COUNT];
 
     /**
      * Stores a running total (for each pair of basis functions) of the weighted sum of squared geometric factors.
      */
-    private final SimpleMatrix weightedGeomSquaredSum = new SimpleMatrix(Nam2018Request.BASIS_COUNT, Nam2018Request.BASIS_COUNT, DMatrixRMaj.class);
+    private final double[] weightedGeomSquaredSum = new double[BASIS_COUNT * BASIS_COUNT];
 
     /**
      *  Stores a running total (for each pair of basis functions) of the weighted sum of squared geometric factors with additional linear interpolation weights.
      */
-    private final SimpleMatrix weightedGeomSquaredBlendedSum = new SimpleMatrix(Nam2018Request.BASIS_COUNT, Nam2018Request.BASIS_COUNT, DMatrixRMaj.class);
+    private final double[] weightedGeomSquaredBlendedSum = new double[BASIS_COUNT * BASIS_COUNT];
 
     /**
      * Stores a running total (for each basis function of the weighted sum of reflectance measurements by color channel (red).
      */
-    private final SimpleMatrix weightedGeomRedSum = new SimpleMatrix(Nam2018Request.BASIS_COUNT, 1, DMatrixRMaj.class);
+    private final double[] weightedGeomRedSum = new double[BASIS_COUNT];
 
     /**
      * Stores a running total (for each basis function of the weighted sum of reflectance measurements by color channel (green).
      */
-    private final SimpleMatrix weightedGeomGreenSum = new SimpleMatrix(Nam2018Request.BASIS_COUNT, 1, DMatrixRMaj.class);
+    private final double[] weightedGeomGreenSum = new double[BASIS_COUNT];
 
     /**
      * Stores a running total (for each basis function of the weighted sum of reflectance measurements by color channel (blue).
      */
-    private final SimpleMatrix weightedGeomBlueSum = new SimpleMatrix(Nam2018Request.BASIS_COUNT, 1, DMatrixRMaj.class);
+    private final double[] weightedGeomBlueSum = new double[BASIS_COUNT];
+
+    /**
+     * The product of the weights for each pair of basis functions for the sample currently being processed,
+     * multiplied by the sample's additional weight squared.
+     */
+    private final double[] weightProducts = new double[BASIS_COUNT * BASIS_COUNT];
 
     /**
      * LHS
@@ -79,6 +97,34 @@ final class ReflectanceMatrixBuilder
      */
     private final SimpleMatrix contributionATyBlue;
 
+    /**
+     * Copies of the LHS and RHS before any contributions were added (only used for validation).
+     */
+    private final SimpleMatrix initialATA;
+    private final SimpleMatrix initialATyRed;
+    private final SimpleMatrix initialATyGreen;
+    private final SimpleMatrix initialATyBlue;
+
+    /**
+     * Row-major elements of the LHS.
+     */
+    private final double[] ata;
+
+    /**
+     * Elements of the RHS for red.
+     */
+    private final double[] atyRed;
+
+    /**
+     * Elements of the RHS for green.
+     */
+    private final double[] atyGreen;
+
+    /**
+     * Elements of the RHS for blue.
+     */
+    private final double[] atyBlue;
+
     /**
      * Color and visibility components of the samples
      */
@@ -92,7 +138,12 @@ final class ReflectanceMatrixBuilder
     /**
      * Weight solution from the previous iteration.
      */
-    private final SimpleMatrix[] weightSolutions;
+    private final NonNegativeLeastSquaresBatch weightSystems;
+
+    /**
+     * The weights for the sample currently being processed.
+     */
+    private final double[] weights = new double[BASIS_COUNT];
 
     /**
      * Assumed metallicity of the material (affects handling of diffuse reflectance).
@@ -101,12 +152,13 @@ final class ReflectanceMatrixBuilder
 
     /**
      * Construct by accepting matrices where the final results will be stored.
+     * The results are added to any existing contents, which must be symmetric in the case of the LHS.
      * @param contributionATA LHS
      * @param contributionATyRed RHS for red
      * @param contributionATyGreen RHS for green
      * @param contributionATyBlue RHS for blue
      */
-    ReflectanceMatrixBuilder(float[] colorAndVisibility, float[] halfwayAndGeom, SimpleMatrix[] weightSolutions, SimpleMatrix contributionATA,
+    ReflectanceMatrixBuilder(float[] colorAndVisibility, float[] halfwayAndGeom, NonNegativeLeastSquaresBatch weightSystems, SimpleMatrix contributionATA,
         SimpleMatrix contributionATyRed, SimpleMatrix contributionATyGreen, SimpleMatrix contributionATyBlue, double metallicity)
     {
         this.contributionATA = contributionATA;
@@ -114,7 +166,17 @@ final class ReflectanceMatrixBuilder
         this.contributionATyGreen = contributionATyGreen;
         this.contributionATyBlue = contributionATyBlue;
 
-        this.weightSolutions = weightSolutions;
+        this.initialATA = VALIDATE ? contributionATA.copy() : null;
+        this.initialATyRed = VALIDATE ? contributionATyRed.copy() : null;
+        this.initialATyGreen = VALIDATE ? contributionATyGreen.copy() : null;
+        this.initialATyBlue = VALIDATE ? contributionATyBlue.copy() : null;
+
+        this.ata = contributionATA.<DMatrixRMaj>getMatrix().getData();
+        this.atyRed = contributionATyRed.<DMatrixRMaj>getMatrix().getData();
+        this.atyGreen = contributionATyGreen.<DMatrixRMaj>getMatrix().getData();
+        this.atyBlue = contributionATyBlue.<DMatrixRMaj>getMatrix().getData();
+
+        this.weightSystems = weightSystems;
 
         //noinspection AssignmentOrReturnOfFieldWithMutableType
         this.colorAndVisibility = colorAndVisibility;
@@ -128,11 +190,24 @@ final class ReflectanceMatrixBuilder
     public void execute()
     {
         // Sort pixel samples within a view by the halfway direction so that we avoid repeating the same additions over and over again
-        IntStream.range(0, halfwayAndGeom.length / 4)
-            .filter(p -> colorAndVisibility[4 * p + 3] > 0) // Eliminate pixels without valid samples
-            .boxed() // Box integers to use custom sorting function
-            .sorted((p1, p2) -> Float.compare(halfwayAndGeom[4 * p1], halfwayAndGeom[4 * p2])) // Should sort ascending to visit low m values first
-            .forEachOrdered(this::processSample);
+        int[] sortedSamples = sortSamples();
+
+        for (int p : sortedSamples)
+        {
+            processSample(p);
+        }
+
+        // Flush out the running totals for the last m-value visited and any m-values after it.
+        updateContributionFromRunningTotals(Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION - 1);
+
+        // Copy the upper triangle of ATA to the lower triangle.
+        for (int i = 0; i < MATRIX_SIZE; i++)
+        {
+            for (int j = i + 1; j < MATRIX_SIZE; j++)
+            {
+                ata[j * MATRIX_SIZE + i] = ata[i * MATRIX_SIZE + j];
+            }
+        }
 
         if (VALIDATE)
         {
@@ -140,6 +215,86 @@ final class ReflectanceMatrixBuilder
         }
     }
 
+    /**
+     * Gets a key for a floating-point value whose unsigned integer order is the same as the order of Float.compare().
+     */
+    private static int getSortKey(float value)
+    {
+        int bits = Float.floatToIntBits(value);
+
+        // Flip the sign bit of positive values, and every bit of negative values.
+        return bits ^ (bits >> 31 | Integer.MIN_VALUE);
+    }
+
+    /**
+     * Finds the pixels with valid samples and sorts them in ascending order of halfway angle (so that low m-values are visited first).
+     * Uses a stable least-significant-digit radix sort, so pixels with the same halfway angle stay in order.
+     * @return The sorted pixel indices.
+     */
+    private int[] sortSamples()
+    {
+        int pixelCount = halfwayAndGeom.length / 4;
+
+        int[] keys = new int[pixelCount];
+        int[] indices = new int[pixelCount];
+        int sampleCount = 0;
+
+        for (int p = 0; p < pixelCount; p++)
+        {
+            if (colorAndVisibility[4 * p + 3] > 0) // Eliminate pixels without valid samples
+            {
+                keys[sampleCount] = getSortKey(halfwayAndGeom[4 * p]);
+                indices[sampleCount] = p;
+                sampleCount++;
+            }
+        }
+
+        int[] sortedKeys = new int[sampleCount];
+        int[] sortedIndices = new int[sampleCount];
+        int[] offsets = new int[RADIX_MASK + 1];
+
+        for (int shift = 0; shift < Integer.SIZE; shift += RADIX_BITS)
+        {
+            Arrays.fill(offsets, 0);
+
+            for (int s = 0; s < sampleCount; s++)
+            {
+                offsets[keys[s] >>> shift & RADIX_MASK]++;
+            }
+
+            // Skip passes where every key has the same digit, which is common for the highest digits.
+            if (offsets[keys[0] >>> shift & RADIX_MASK] == sampleCount)
+            {
+                continue;
+            }
+
+            int total = 0;
+            for (int digit = 0; digit <= RADIX_MASK; digit++)
+            {
+                int count = offsets[digit];
+                offsets[digit] = total;
+                total += count;
+            }
+
+            for (int s = 0; s < sampleCount; s++)
+            {
+                int destination = offsets[keys[s] >>> shift & RADIX_MASK]++;
+                sortedKeys[destination] = keys[s];
+                sortedIndices[destination] = indices[s];
+            }
+
+            int[] tempKeys = keys;
+            keys = sortedKeys;
+            sortedKeys = tempKeys;
+
+            int[] tempIndices = indices;
+            indices = sortedIndices;
+            sortedIndices = tempIndices;
+        }
+
+        return indices.length == sampleCount ? indices : Arrays.copyOf(indices, sampleCount);
+    }
+
     private double getDiffuseFactor(double geomRatio)
     {
         return metallicity * geomRatio + (1 - metallicity) / Math.PI;
@@ -159,99 +314,131 @@ final class ReflectanceMatrixBuilder
 
             // Zero out the blended sum after every time that mFloor changes,
             // since it should only apply to a single m-value (as opposed to the other sums which continue to accumulate).
-            weightedGeomSquaredBlendedSum.zero();
+            Arrays.fill(weightedGeomSquaredBlendedSum, 0.0);
+
+            // Update holder of previous mFloor value.
+            mPrevious = mFloor;
         }
 
         // When floor and exact are the same, t = 1.0.  When exact is almost a whole increment greater than floor, t approaches 0.0.
         // If mFloor is clamped to MICROFACET_DISTRIBUTION_RESOLUTION -1, then mExact will be much larger, so t = 0.0.
         double t = Math.max(0.0, 1.0 + mFloor - mExact);
 
+        double geom = halfwayAndGeom[4 * p + 1];
         double addlWeightSquared = halfwayAndGeom[4 * p + 2] * halfwayAndGeom[4 * p + 2];
 
-        double diffuseFactor = getDiffuseFactor(halfwayAndGeom[4 * p + 1]);
+        double diffuseFactor = getDiffuseFactor(geom);
         double diffuseFactorSquared = diffuseFactor * diffuseFactor;
 
-        // Regardless of whether mFloor changed: Update running total for each pair of basis functions,
-        // and add blended samples to elements where no work is saved by deferring the update to the matrix or vector.
-        for (int b1 = 0; b1 < Nam2018Request.BASIS_COUNT; b1++)
+        boolean specular = mExact < Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION;
+
+        // The first row and column of the block of the matrix corresponding to the current m-value.
+        int specularOffset = BASIS_COUNT * (mFloor + 1);
+
+        weightSystems.getSolution(p, weights);
+
+        // Regardless of whether mFloor changed: Update running total for each basis function,
+        // and add blended samples to elements where no work is saved by deferring the update to the vector.
+        for (int b = 0; b < BASIS_COUNT; b++)
         {
             // Updates to ATy
 
-            double weightedReflectanceRed   = weightSolutions[p].get(b1) * addlWeightSquared * colorAndVisibility[4 * p];
-            double weightedReflectanceGreen = weightSolutions[p].get(b1) * addlWeightSquared * colorAndVisibility[4 * p + 1];
-            double weightedReflectanceBlue  = weightSolutions[p].get(b1) * addlWeightSquared * colorAndVisibility[4 * p + 2];
+            double weightedReflectanceRed   = weights[b] * addlWeightSquared * colorAndVisibility[4 * p];
+            double weightedReflectanceGreen = weights[b] * addlWeightSquared * colorAndVisibility[4 * p + 1];
+            double weightedReflectanceBlue  = weights[b] * addlWeightSquared * colorAndVisibility[4 * p + 2];
 
             // For each basis function: update the vector.
             // Top partition of the vector corresponds to diffuse coefficients
-            contributionATyRed.set(b1, 0, contributionATyRed.get(b1, 0) + weightedReflectanceRed * diffuseFactor);
-            contributionATyGreen.set(b1, 0, contributionATyGreen.get(b1, 0) + weightedReflectanceGreen * diffuseFactor);
-            contributionATyBlue.set(b1, 0, contributionATyBlue.get(b1, 0) + weightedReflectanceBlue * diffuseFactor);
-
-            int i = Nam2018Request.BASIS_COUNT * (mFloor + 1) + b1;
+            atyRed[b] += weightedReflectanceRed * diffuseFactor;
+            atyGreen[b] += weightedReflectanceGreen * diffuseFactor;
+            atyBlue[b] += weightedReflectanceBlue * diffuseFactor;
 
-            if (mExact < Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION)
+            if (specular)
             {
-                double weightedGeomReflectanceRed = halfwayAndGeom[4 * p + 1] * weightedReflectanceRed;
-                double weightedGeomReflectanceGreen = halfwayAndGeom[4 * p + 1] * weightedReflectanceGreen;
-                double weightedGeomReflectanceBlue = halfwayAndGeom[4 * p + 1] * weightedReflectanceBlue;
+                double weightedGeomReflectanceRed = geom * weightedReflectanceRed;
+                double weightedGeomReflectanceGreen = geom * weightedReflectanceGreen;
+                double weightedGeomReflectanceBlue = geom * weightedReflectanceBlue;
 
                 // Bottom partition of the vector corresponds to specular coefficients.
                 // Scale contribution due to current m-value by blending weight t to account for linear interpolation.
                 // Accumulation due to greater m-values should already have been added to the vector the last time an m-value changed
-                contributionATyRed.set(i, 0, contributionATyRed.get(i, 0) + t * weightedGeomReflectanceRed);
-                contributionATyGreen.set(i, 0, contributionATyGreen.get(i, 0) + t * weightedGeomReflectanceGreen);
-                contributionATyBlue.set(i, 0, contributionATyBlue.get(i, 0) + t * weightedGeomReflectanceBlue);
+                atyRed[specularOffset + b] += t * weightedGeomReflectanceRed;
+                atyGreen[specularOffset + b] += t * weightedGeomReflectanceGreen;
+                atyBlue[specularOffset + b] += t * weightedGeomReflectanceBlue;
 
                 // Update running totals.
-                weightedGeomRedSum.set(b1, 0, weightedGeomRedSum.get(b1, 0) + weightedGeomReflectanceRed);
-                weightedGeomGreenSum.set(b1, 0, weightedGeomGreenSum.get(b1, 0) + weightedGeomReflectanceGreen);
-                weightedGeomBlueSum.set(b1, 0, weightedGeomBlueSum.get(b1, 0) + weightedGeomReflectanceBlue);
+                weightedGeomRedSum[b] += weightedGeomReflectanceRed;
+                weightedGeomGreenSum[b] += weightedGeomReflectanceGreen;
+                weightedGeomBlueSum[b] += weightedGeomReflectanceBlue;
             }
+        }
 
-            for (int b2 = 0; b2 < Nam2018Request.BASIS_COUNT; b2++)
+        // Updates to ATA
+        for (int b1 = 0; b1 < BASIS_COUNT; b1++)
+        {
+            for (int b2 = 0; b2 < BASIS_COUNT; b2++)
             {
-                // Updates to ATA
+                weightProducts[b1 * BASIS_COUNT + b2] = weights[b1] * weights[b2] * addlWeightSquared;
+            }
+        }
 
-                // Top left partition of the matrix: row and column both correspond to diffuse coefficients
-                double weightProduct = weightSolutions[p].get(b1) * weightSolutions[p].get(b2) * addlWeightSquared;
-                contributionATA.set(b1, b2, contributionATA.get(b1, b2) + weightProduct * diffuseFactorSquared);
+        // Top left partition of the matrix: row and column both correspond to diffuse coefficients
+        for (int b1 = 0; b1 < BASIS_COUNT; b1++)
+        {
+            int row = b1 * MATRIX_SIZE;
 
-                if (mExact < Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION)
-                {
-                    // Update non-squared total without blending weight.
-                    double weightedGeom = weightProduct * halfwayAndGeom[4 * p + 1];
-                    weightedGeomSum.set(b1, b2, weightedGeomSum.get(b1, b2) + weightedGeom);
+            for (int b2 = 0; b2 < BASIS_COUNT; b2++)
+            {
+                ata[row + b2] += weightProducts[b1 * BASIS_COUNT + b2] * diffuseFactorSquared;
+            }
+        }
+
+        if (specular)
+        {
+            // Update running totals for each pair of basis functions.
+            for (int k = 0; k < BASIS_COUNT * BASIS_COUNT; k++)
+            {
+                double weightedGeom = weightProducts[k] * geom;
+                double weightedGeomSquared = weightedGeom * geom;
+
+                // Update non-squared total without blending weight.
+                weightedGeomSum[k] += weightedGeom;
+
+                // Update squared total without blending weight.
+                weightedGeomSquaredSum[k] += weightedGeomSquared;
 
-                    // Update squared total without blending weight.
-                    double weightedGeomSquared = weightedGeom * halfwayAndGeom[4 * p + 1];
-                    weightedGeomSquaredSum.set(b1, b2, weightedGeomSquaredSum.get(b1, b2) + weightedGeomSquared);
+                // Update squared total with blending weight.
+                weightedGeomSquaredBlendedSum[k] += t * weightedGeomSquared;
+            }
+
+            for (int b1 = 0; b1 < BASIS_COUNT; b1++)
+            {
+                int diffuseRow = b1 * MATRIX_SIZE + specularOffset;
+                int specularRow = (specularOffset + b1) * MATRIX_SIZE + specularOffset;
 
-                    // Update squared total with blending weight.
-                    double weightedGeomSquaredBlended = t * weightedGeomSquared;
-                    weightedGeomSquaredBlendedSum.set(b1, b2, weightedGeomSquaredBlendedSum.get(b1, b2) + weightedGeomSquaredBlended);
+                for (int b2 = 0; b2 < BASIS_COUNT; b2++)
+                {
+                    double weightedGeom = weightProducts[b1 * BASIS_COUNT + b2] * geom;
+                    double weightedGeomSquaredBlended = t * (weightedGeom * geom);
 
-                    // Top right and bottom left partitions of the matrix:
-                    // row corresponds to diffuse coefficients and column corresponds to specular, or vice-versa.
-                    contributionATA.set(i, b2, contributionATA.get(i, b2) + t * weightedGeom * diffuseFactor);
-                    contributionATA.set(b2, i, contributionATA.get(b2, i) + t * weightedGeom  * diffuseFactor);
+                    // Top right partition of the matrix: row corresponds to diffuse coefficients and column corresponds to specular.
+                    // (The bottom left partition will be filled in by symmetry; the weight products are symmetric, so swapping b1 and b2 doesn't matter.)
+                    ata[diffuseRow + b2] += t * weightedGeom * diffuseFactor;
 
                     // Bottom right partition of the matrix: row and column both correspond to specular.
                     // Update "corner" element with squared blending weight.
-                    int j = Nam2018Request.BASIS_COUNT * (mFloor + 1) + b2;
-                    contributionATA.set(i, j, contributionATA.get(i, j) + t * weightedGeomSquaredBlended);
+                    ata[specularRow + b2] += t * weightedGeomSquaredBlended;
                 }
             }
         }
-
-        // Update holder of previous mFloor value.
-        mPrevious = mFloor;
     }
 
     /**
      * Updates the contribution matrix and vectors for a particular range of m-values, given certain running totals.
      * Usually called when building the reflectance matrix, after the m-value changes.
      * Also called at the end of that process to flush out the final set of running totals.
-     * @param mCurrent The current "m" value of the sample that is being processed. Samples are to be visited in order of decreasing "m".
+     * Only the upper triangle of the matrix and the blocks along its diagonal are updated.
+     * @param mCurrent The current "m" value of the sample that is being processed. Samples are to be visited in order of increasing "m".
      */
     private void updateContributionFromRunningTotals(int mCurrent)
     {
@@ -259,45 +446,41 @@ final class ReflectanceMatrixBuilder
         // as well as any m-values skipped over.
         // These elements also need to get some more contributions that have blending weights that are yet to be visited,
         // but that will be handled later, when a sample is visited for some matrix elements, or the next time m changes for others.
-        for (int b1 = 0; b1 < Nam2018Request.BASIS_COUNT; b1++)
+        // This loop usually would only one once, but could run multiple times if we skipped a few m values.
+        for (int m1 = mPrevious + 1; m1 <= mCurrent; m1++)
         {
-            // This loop usually would only one once, but could run multiple times if we skipped a few m values.
-            for (int m1 = mPrevious + 1; m1 <= mCurrent; m1++)
-            {
-                int i = Nam2018Request.BASIS_COUNT * (m1 + 1) + b1;
+            int offset = BASIS_COUNT * (m1 + 1);
 
-                // Update ATy vector
-                contributionATyRed.set(i, 0, contributionATyRed.get(i, 0) + weightedGeomRedSum.get(b1, 0));
-                contributionATyGreen.set(i, 0, contributionATyGreen.get(i, 0) + weightedGeomGreenSum.get(b1, 0));
-                contributionATyBlue.set(i, 0, contributionATyBlue.get(i, 0) + weightedGeomBlueSum.get(b1, 0));
+            // Update ATy vector
+            for (int b = 0; b < BASIS_COUNT; b++)
+            {
+                atyRed[offset + b] += weightedGeomRedSum[b];
+                atyGreen[offset + b] += weightedGeomGreenSum[b];
+                atyBlue[offset + b] += weightedGeomBlueSum[b];
+            }
 
-                // Update ATA matrix
-                for (int b2 = 0; b2 < Nam2018Request.BASIS_COUNT; b2++)
+            // Update ATA matrix
+            for (int b1 = 0; b1 < BASIS_COUNT; b1++)
+            {
+                // Top right partition of the matrix: row corresponds to diffuse coefficients and column corresponds to specular.
+                // The bottom left partition will be filled in by symmetry.
+                int diffuseRow = b1 * MATRIX_SIZE + offset;
+                for (int b2 = 0; b2 < BASIS_COUNT; b2++)
                 {
-                    // Top right and bottom left partitions of the matrix:
-                    // row corresponds to diffuse coefficients and column corresponds to specular, or vice-versa.
-                    // The matrix is symmetric so we also need to swap row and column and update that way.
-                    contributionATA.set(i, b2, contributionATA.get(i, b2) +
-                        metallicity * weightedGeomSquaredSum.get(b1, b2) + (1 - metallicity) * weightedGeomSum.get(b1, b2) / Math.PI);
-                    contributionATA.set(b2, i, contributionATA.get(b2, i) +
-                        metallicity * weightedGeomSquaredSum.get(b2, b1) + (1 - metallicity) * weightedGeomSum.get(b2, b1) / Math.PI);
-
-                    // Bottom right partition of the matrix: row and column both correspond to specular.
-
-                    // Handle "corner" case where m1 = m2 (don't want to repeat with row and column swapped as elements would then be duplicated).
-                    int j = Nam2018Request.BASIS_COUNT * (m1 + 1) + b2;
-                    contributionATA.set(i, j, contributionATA.get(i, j) + weightedGeomSquaredSum.get(b1, b2));
+                    ata[diffuseRow + b2] += metallicity * weightedGeomSquaredSum[b1 * BASIS_COUNT + b2]
+                        + (1 - metallicity) * weightedGeomSum[b1 * BASIS_COUNT + b2] / Math.PI;
+                }
 
-                    // Visit every element of the microfacet distribution that comes after m1.
-                    // This is because the form of ATA is such that the values in the matrix are determined by the lower of the two m-values.
-                    for (int m2 = m1 + 1; m2 < Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION; m2++)
+                // Bottom right partition of the matrix: row and column both correspond to specular.
+                // The "corner" case where m1 = m2 comes first, followed by every element of the microfacet distribution that comes after m1.
+                // This is because the form of ATA is such that the values in the matrix are determined by the lower of the two m-values.
+                int specularRow = (offset + b1) * MATRIX_SIZE;
+                for (int j = offset; j < MATRIX_SIZE; j += BASIS_COUNT)
+                {
+                    // Add the current value of the running total to the appropriate location in the matrix.
+                    for (int b2 = 0; b2 < BASIS_COUNT; b2++)
                     {
-                        j = Nam2018Request.BASIS_COUNT * (m2 + 1) + b2;
-
-                        // Add the current value of the running total to the appropriate location in the matrix.
-                        // The matrix is symmetric so we also need to swap row and column and update that way.
-                        contributionATA.set(i, j, contributionATA.get(i, j) + weightedGeomSquaredSum.get(b1, b2));
-                        contributionATA.set(j, i, contributionATA.get(j, i) + weightedGeomSquaredSum.get(b2, b1));
+                        ata[specularRow + j + b2] += weightedGeomSquaredSum[b1 * BASIS_COUNT + b2];
                     }
                 }
             }
@@ -305,25 +488,20 @@ final class ReflectanceMatrixBuilder
 
         // Add the total of recently visited samples with blending weights to elements of the ATA matrix corresponding to the old m.
         // Bottom right partition of the matrix: row and column both correspond to specular.
-        for (int b1 = 0; b1 < Nam2018Request.BASIS_COUNT; b1++)
+        // The "corner case" was handled immediately when a sample was visited as it only affects a single element of the
+        // matrix and thus no work is saved by waiting for m to change.
+        int previousOffset = BASIS_COUNT * (mPrevious + 1);
+        for (int b1 = 0; b1 < BASIS_COUNT; b1++)
         {
-            int i = Nam2018Request.BASIS_COUNT * (mPrevious + 1) + b1;
+            int specularRow = (previousOffset + b1) * MATRIX_SIZE;
 
-            for (int b2 = 0; b2 < Nam2018Request.BASIS_COUNT; b2++)
+            // Visit every element of the microfacet distribution that comes after mPrevious.
+            for (int j = previousOffset + BASIS_COUNT; j < MATRIX_SIZE; j += BASIS_COUNT)
             {
-                // The "corner case" was handled immediately when a sample was visited as it only affects a single element of the
-                // matrix and thus no work is saved by waiting for m to change.
-
-                // Visit every element of the microfacet distribution that comes after mPrevious.
-                // This is because the form of ATA is such that the values in the matrix are determined by the lower of the two m-values.
-                for (int m2 = mPrevious + 1; m2 < Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION; m2++)
+                // Add the current value of the running total with blending (linear interpolation) weights to the appropriate location in the matrix.
+                for (int b2 = 0; b2 < BASIS_COUNT; b2++)
                 {
-                    int j = Nam2018Request.BASIS_COUNT * (m2 + 1) + b2;
-
-                    // Add the current value of the running total with blending (linear interpolation) weights to the appropriate location in the matrix.
-                    // The matrix is symmetric so we also need to swap row and column and update that way.
-                    contributionATA.set(i, j, contributionATA.get(i, j) + weightedGeomSquaredBlendedSum.get(b1, b2));
-                    contributionATA.set(j, i, contributionATA.get(j, i) + weightedGeomSquaredBlendedSum.get(b2, b1));
+                    ata[specularRow + j + b2] += weightedGeomSquaredBlendedSum[b1 * BASIS_COUNT + b2];
                 }
             }
         }
@@ -341,6 +519,8 @@ final class ReflectanceMatrixBuilder
         {
             if (colorAndVisibility[4 * p + 3] > 0)
             {
+                weightSystems.getSolution(p, weights);
+
                 yRed.set(p, halfwayAndGeom[4 * p + 2] * colorAndVisibility[4 * p]);
                 yGreen.set(p, halfwayAndGeom[4 * p + 2] * colorAndVisibility[4 * p + 1]);
                 yBlue.set(p, halfwayAndGeom[4 * p + 2] * colorAndVisibility[4 * p + 2]);
@@ -358,20 +538,20 @@ final class ReflectanceMatrixBuilder
                 for (int b = 0; b < Nam2018Request.BASIS_COUNT; b++)
                 {
                     // diffuse
-                    mA.set(p, b, halfwayAndGeom[4 * p + 2] * weightSolutions[p].get(b) * diffuseFactor);
+                    mA.set(p, b, halfwayAndGeom[4 * p + 2] * weights[b] * diffuseFactor);
 
                     if (mExact < Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION)
                     {
                         int j = Nam2018Request.BASIS_COUNT * (mFloor + 1) + b;
 
                         // specular with blending for first non-zero element
-                        mA.set(p, j, t * halfwayAndGeom[4 * p + 2] * halfwayAndGeom[4 * p + 1] * weightSolutions[p].get(b));
+                        mA.set(p, j, t * halfwayAndGeom[4 * p + 2] * halfwayAndGeom[4 * p + 1] * weights[b]);
 
                         for (int m = mFloor + 1; m < Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION; m++)
                         {
                             j = Nam2018Request.BASIS_COUNT * (m + 1) + b;
                             // specular (no blending)
-                            mA.set(p, j, halfwayAndGeom[4 * p + 2] * halfwayAndGeom[4 * p + 1] * weightSolutions[p].get(b));
+                            mA.set(p, j, halfwayAndGeom[4 * p + 2] * halfwayAndGeom[4 * p + 1] * weights[b]);
                         }
                     }
                 }
@@ -391,13 +571,14 @@ final class ReflectanceMatrixBuilder
 
         for (int i = 0; i < mATA.numRows(); i++)
         {
-            assert Math.abs(vATyRed.get(i, 0) - contributionATyRed.get(i, 0)) <= vATyRed.get(i, 0) * 0.001;
-            assert Math.abs(vATyGreen.get(i, 0) - contributionATyGreen.get(i, 0)) <= vATyGreen.get(i, 0) * 0.001;
-            assert Math.abs(vATyBlue.get(i, 0) - contributionATyBlue.get(i, 0)) <= vATyBlue.get(i, 0) * 0.001;
+            // Only compare what was added, since contributions from other views may already have been accumulated.
+            assert Math.abs(vATyRed.get(i, 0) - (contributionATyRed.get(i, 0) - initialATyRed.get(i, 0))) <= vATyRed.get(i, 0) * 0.001;
+            assert Math.abs(vATyGreen.get(i, 0) - (contributionATyGreen.get(i, 0) - initialATyGreen.get(i, 0))) <= vATyGreen.get(i, 0) * 0.001;
+            assert Math.abs(vATyBlue.get(i, 0) - (contributionATyBlue.get(i, 0) - initialATyBlue.get(i, 0))) <= vATyBlue.get(i, 0) * 0.001;
 
             for (int j = 0; j < mATA.numCols(); j++)
             {
-                assert Math.abs(mATA.get(i, j) - contributionATA.get(i, j)) <= mATA.get(i, j) * 0.001;
+                assert Math.abs(mATA.get(i, j) - (contributionATA.get(i, j) - initialATA.get(i, j))) <= mATA.get(i, j) * 0.001;
             }
         }
     }
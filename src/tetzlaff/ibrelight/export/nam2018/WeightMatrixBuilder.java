@@ -0,0 +1,190 @@
+/*
+ *  Copyright (c) Michael Tetzlaff 2020
+ *  Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ *  Licensed under GPLv3
+ *  ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ *  This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.export.nam2018;
+
+import java.util.stream.IntStream;
+
+import org.ejml.simple.SimpleMatrix;
+import tetzlaff.gl.vecmath.DoubleVector3;
+import tetzlaff.util.NonNegativeLeastSquaresBatch;
+
+import static java.lang.Math.PI;
+
+/**
+ * A helper class to add the contributions of each view to the systems that are solved for each texel's weights.
+ * The basis BRDFs are copied into flat tables once so that evaluating them for each sample doesn't allocate anything.
+ */
+final class WeightMatrixBuilder
+{
+    /**
+     * The number of consecutive texels processed together by a single thread.
+     */
+    private static final int TILE_SIZE = 4096;
+
+    private static final int TRIANGLE_SIZE = Nam2018Request.WEIGHT_SYSTEM_SIZE * (Nam2018Request.WEIGHT_SYSTEM_SIZE + 1) / 2;
+
+    /**
+     * The diffuse albedo of each basis BRDF divided by pi, indexed by 3 * b + channel.
+     */
+    private final double[] diffuseTable = new double[3 * Nam2018Request.BASIS_COUNT];
+
+    /**
+     * The specular component of each basis BRDF at each discrete m-value, indexed by 3 * (m * BASIS_COUNT + b) + channel.
+     */
+    private final double[] specularTable = new double[3 * (Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION + 1) * Nam2018Request.BASIS_COUNT];
+
+    /**
+     * Assumed metallicity of the material (affects handling of samples past the end of the microfacet distribution).
+     */
+    private final double metallicity;
+
+    private final NonNegativeLeastSquaresBatch weightSystems;
+    private final boolean[] weightsValidity;
+
+    /**
+     * @param diffuseAlbedos The diffuse albedo of each basis BRDF.
+     * @param specularRed The red channel of the specular component of each basis BRDF, with a row for each m-value and a column for each basis function.
+     * @param specularGreen The green channel of the specular component.
+     * @param specularBlue The blue channel of the specular component.
+     * @param metallicity Assumed metallicity of the material.
+     * @param weightSystems The systems to which contributions will be added.
+     * @param weightsValidity Will be set to true for every texel with a valid sample.
+     */
+    WeightMatrixBuilder(DoubleVector3[] diffuseAlbedos, SimpleMatrix specularRed, SimpleMatrix specularGreen, SimpleMatrix specularBlue,
+        double metallicity, NonNegativeLeastSquaresBatch weightSystems, boolean[] weightsValidity)
+    {
+        for (int b = 0; b < Nam2018Request.BASIS_COUNT; b++)
+        {
+            DoubleVector3 diffuse = diffuseAlbedos[b].dividedBy(PI);
+            diffuseTable[3 * b] = diffuse.x;
+            diffuseTable[3 * b + 1] = diffuse.y;
+            diffuseTable[3 * b + 2] = diffuse.z;
+
+            for (int m = 0; m <= Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION; m++)
+            {
+                int index = 3 * (m * Nam2018Request.BASIS_COUNT + b);
+                specularTable[index] = specularRed.get(m, b);
+                specularTable[index + 1] = specularGreen.get(m, b);
+                specularTable[index + 2] = specularBlue.get(m, b);
+            }
+        }
+
+        this.metallicity = metallicity;
+        this.weightSystems = weightSystems;
+
+        //noinspection AssignmentOrReturnOfFieldWithMutableType
+        this.weightsValidity = weightsValidity;
+    }
+
+    /**
+     * Adds the contributions of a single view.
+     * @param colorAndVisibility The color (RGB) and visibility (A) of each texel in the view.
+     * @param halfwayAndGeomAndWeights The halfway angle, geometric factor, additional weight, and n dot l of each texel in the view.
+     */
+    void addView(float[] colorAndVisibility, float[] halfwayAndGeomAndWeights)
+    {
+        int texelCount = weightSystems.getProblemCount();
+
+        IntStream.range(0, (texelCount + TILE_SIZE - 1) / TILE_SIZE).parallel().forEach(tile ->
+        {
+            // Scratch space, reused for each texel in the tile.
+            double[] basisValues = new double[3 * Nam2018Request.BASIS_COUNT];
+            double[] contributionQTr = new double[Nam2018Request.BASIS_COUNT];
+
+            // The constraint row and column are never written, so they stay zero.
+            double[] contributionQTQ = new double[TRIANGLE_SIZE];
+
+            int end = Math.min(texelCount, (tile + 1) * TILE_SIZE);
+            for (int p = tile * TILE_SIZE; p < end; p++)
+            {
+                // Skip samples that aren't visible or are otherwise invalid.
+                if (colorAndVisibility[4 * p + 3] > 0)
+                {
+                    // Any time we have a visible, valid sample, mark that the corresponding texel is valid.
+                    weightsValidity[p] = true;
+
+                    addSample(colorAndVisibility, halfwayAndGeomAndWeights, p, basisValues, contributionQTr, contributionQTQ);
+
+                    weightSystems.addToVector(p, contributionQTr);
+                    weightSystems.addToMatrix(p, contributionQTQ);
+                }
+            }
+        });
+    }
+
+    private void addSample(float[] colorAndVisibility, float[] halfwayAndGeomAndWeights, int p,
+        double[] basisValues, double[] contributionQTr, double[] contributionQTQ)
+    {
+        // Precalculate frequently used values.
+
+        // For original Nam 2018 version, weights were optimized against reflectance, not reflected radiance,
+        // so we don't want to multiply by n dot l when attempting to reproduce that version.
+        double nDotLSquared = Nam2018Request.ORIGINAL_NAM_METHOD ? 1.0 : halfwayAndGeomAndWeights[4 * p + 3] * halfwayAndGeomAndWeights[4 * p + 3];
+
+        double weightSquared = halfwayAndGeomAndWeights[4 * p + 2] * halfwayAndGeomAndWeights[4 * p + 2];
+        double geomFactor = halfwayAndGeomAndWeights[4 * p + 1];
+        double mExact = halfwayAndGeomAndWeights[4 * p] * Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION;
+        int m1 = (int)Math.floor(mExact);
+        double t = mExact - m1;
+
+        double actualRed = colorAndVisibility[4 * p];
+        double actualGreen = colorAndVisibility[4 * p + 1];
+        double actualBlue = colorAndVisibility[4 * p + 2];
+
+        // Evaluate each basis BRDF.
+        if (m1 < Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION)
+        {
+            int offset1 = 3 * m1 * Nam2018Request.BASIS_COUNT;
+            int offset2 = offset1 + 3 * Nam2018Request.BASIS_COUNT; // m2 = m1 + 1
+
+            for (int i = 0; i < 3 * Nam2018Request.BASIS_COUNT; i++)
+            {
+                basisValues[i] = diffuseTable[i]
+                    + geomFactor * ((1.0 - t) * specularTable[offset1 + i] + t * specularTable[offset2 + i]);
+            }
+        }
+        else if (metallicity > 0.0f)
+        {
+            int offset = 3 * Nam2018Request.MICROFACET_DISTRIBUTION_RESOLUTION * Nam2018Request.BASIS_COUNT;
+
+            for (int i = 0; i < 3 * Nam2018Request.BASIS_COUNT; i++)
+            {
+                basisValues[i] = diffuseTable[i] + geomFactor * specularTable[offset + i];
+            }
+        }
+        else
+        {
+            System.arraycopy(diffuseTable, 0, basisValues, 0, 3 * Nam2018Request.BASIS_COUNT);
+        }
+
+        double sampleWeight = weightSquared * nDotLSquared;
+
+        for (int b1 = 0; b1 < Nam2018Request.BASIS_COUNT; b1++)
+        {
+            double red1 = basisValues[3 * b1];
+            double green1 = basisValues[3 * b1 + 1];
+            double blue1 = basisValues[3 * b1 + 2];
+
+            // Store the weighted product of the basis BRDF and the actual BRDF in the vector.
+            contributionQTr[b1] = sampleWeight * (red1 * actualRed + green1 * actualGreen + blue1 * actualBlue);
+
+            // Store the weighted product of the two BRDFs in the upper triangle of the matrix (which is symmetric).
+            int rowStart = NonNegativeLeastSquaresBatch.getTriangleIndex(Nam2018Request.WEIGHT_SYSTEM_SIZE, b1, 0);
+            for (int b2 = b1; b2 < Nam2018Request.BASIS_COUNT; b2++)
+            {
+                contributionQTQ[rowStart + b2] = sampleWeight
+                    * (red1 * basisValues[3 * b2] + green1 * basisValues[3 * b2 + 1] + blue1 * basisValues[3 * b2 + 2]);
+            }
+        }
+    }
+}
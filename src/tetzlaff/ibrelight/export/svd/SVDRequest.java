@@ -16,12 +16,16 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.nio.FloatBuffer;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.IntStream;
 import javax.imageio.ImageIO;
 
@@ -38,35 +42,59 @@ import tetzlaff.ibrelight.rendering.IBRResources;
 import tetzlaff.models.ReadonlySettingsModel;
 import tetzlaff.util.FastPartialSVD;
 
+/**
+ * Decomposes the reflectance in each 32x32 block of the texture into a few singular vectors.
+ * Blocks flow through a three-stage pipeline:
+ * the samples for each block are read back from the GPU on the thread that owns the GL context,
+ * the blocks are decomposed on a pool of worker threads, and a writer thread copies the results into the output images in block order.
+ * Only a fixed number of blocks can be in flight at any time, so memory use doesn't depend on the size of the texture
+ * (apart from the output images themselves, which are stored as 8-bit fixed point),
+ * and the results don't depend on the number of threads.
+ */
 public class SVDRequest implements IBRRequest
 {
     private static final boolean DEBUG = false;
 
     private static final int BLOCK_SIZE = 32;
     private static final int SAVED_SINGULAR_VALUES = 16;
-    private static final int MAX_RUNNING_THREADS = 3;
     private static final boolean PUT_COLOR_IN_VIEW_FACTOR = true;
     private static final boolean DIFFUSE_MODE = false;
 
+    // The number of channels in each texture and view image.
+    private static final int TEXTURE_CHANNELS = PUT_COLOR_IN_VIEW_FACTOR ? 1 : 3;
+    private static final int VIEW_CHANNELS = PUT_COLOR_IN_VIEW_FACTOR ? 3 : 1;
+
+    /**
+     * The number of blocks that can be in flight (being read back, decomposed, or waiting to be written) for each worker thread.
+     */
+    private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 2;
+
     private final int texWidth;
     private final int texHeight;
     private final File exportPath;
     private final ReadonlySettingsModel settings;
-
-    private int activeBlockCount = 0;
-    private final Object activeBlockCountChangeHandle = new Object();
-
-    private final Queue<SimpleMatrix> allocatedMatrices;
-    private final Queue<FloatBuffer> allocatedFloatBuffers;
+    private final int threadCount;
 
     public SVDRequest(int texWidth, int texHeight, File exportPath, ReadonlySettingsModel settings)
     {
+        this(texWidth, texHeight, exportPath, settings, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threadCount The number of worker threads to use for decomposing blocks.
+     */
+    public SVDRequest(int texWidth, int texHeight, File exportPath, ReadonlySettingsModel settings, int threadCount)
+    {
+        if (threadCount < 1)
+        {
+            throw new IllegalArgumentException("At least one thread is required.");
+        }
+
         this.exportPath = exportPath;
         this.texWidth = texWidth;
         this.texHeight = texHeight;
         this.settings = settings;
-        this.allocatedMatrices = new LinkedList<>();
-        this.allocatedFloatBuffers = new LinkedList<>();
+        this.threadCount = threadCount;
     }
 
     private static int convertToFixedPoint(double value)
@@ -74,6 +102,207 @@ public class SVDRequest implements IBRRequest
         return Double.isNaN(value) ? 0 : (int) Math.max(1, Math.min(255, Math.round(value * 127 + 128)));
     }
 
+    /**
+     * Storage for one block in flight: the samples read back from the GPU, and the matrix that is decomposed.
+     */
+    private static final class BlockWorkspace
+    {
+        final FloatBuffer colorStorage;
+        final SimpleMatrix matrix;
+
+        BlockWorkspace(int viewCount)
+        {
+            colorStorage = BufferUtils.createFloatBuffer(BLOCK_SIZE * BLOCK_SIZE * viewCount * 4);
+
+            if (PUT_COLOR_IN_VIEW_FACTOR)
+            {
+                matrix = new SimpleMatrix(BLOCK_SIZE * BLOCK_SIZE, viewCount * 3, FMatrixRMaj.class);
+            }
+            else
+            {
+                matrix = new SimpleMatrix(BLOCK_SIZE * BLOCK_SIZE * 3, viewCount, FMatrixRMaj.class);
+            }
+        }
+
+        long getByteCount()
+        {
+            return 4L * (colorStorage.capacity() + matrix.getNumElements());
+        }
+    }
+
+    /**
+     * The decomposition of one block, in the form that is written to the output images.
+     */
+    private static final class BlockResult
+    {
+        final int blockX;
+        final int blockY;
+        int effectiveSingularValues;
+
+        /**
+         * Singular vector values for each pixel in the block (row-major, starting from the bottom), NaN where there was no data.
+         */
+        final float[][] textureValues = new float[SAVED_SINGULAR_VALUES][BLOCK_SIZE * BLOCK_SIZE * TEXTURE_CHANNELS];
+
+        /**
+         * Singular vector values for each view.
+         */
+        final float[][] viewValues;
+
+        final double[][] importanceBySingularValues;
+        final double[] squaredErrorByView;
+
+        BlockResult(int blockX, int blockY, int viewCount)
+        {
+            this.blockX = blockX;
+            this.blockY = blockY;
+            this.viewValues = new float[viewCount][SAVED_SINGULAR_VALUES * VIEW_CHANNELS];
+            this.importanceBySingularValues = new double[viewCount][SAVED_SINGULAR_VALUES];
+            this.squaredErrorByView = new double[viewCount];
+        }
+    }
+
+    /**
+     * Counters for monitoring the throughput and memory use of the pipeline.
+     */
+    private static final class PipelineStatistics
+    {
+        final AtomicLong readbackNanos = new AtomicLong();
+        final AtomicLong decompositionNanos = new AtomicLong();
+        final AtomicLong writeNanos = new AtomicLong();
+        final AtomicInteger blocksDecomposed = new AtomicInteger();
+        final AtomicInteger blocksFailed = new AtomicInteger();
+        final AtomicInteger blocksInFlight = new AtomicInteger();
+        final AtomicInteger maxBlocksInFlight = new AtomicInteger();
+        final AtomicLong maxHeapUsed = new AtomicLong();
+
+        void blockStarted()
+        {
+            int inFlight = blocksInFlight.incrementAndGet();
+            maxBlocksInFlight.accumulateAndGet(inFlight, Math::max);
+        }
+
+        void blockFinished()
+        {
+            blocksInFlight.decrementAndGet();
+        }
+
+        void sampleHeap()
+        {
+            Runtime runtime = Runtime.getRuntime();
+            maxHeapUsed.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max);
+        }
+
+        void print(Duration duration, int blockCount, long workspaceBytes, long outputBytes)
+        {
+            double seconds = duration.getSeconds() + duration.getNano() * 1.0e-9;
+            System.out.println("Blocks: " + blockCount + " total, " + blocksDecomposed.get() + " decomposed, " + blocksFailed.get() + " failed ("
+                + blockCount / seconds + " blocks per second)");
+            System.out.println("Readback: " + readbackNanos.get() * 1.0e-9 + " s; decomposition: " + decompositionNanos.get() * 1.0e-9
+                + " s (total across " + "worker threads); output: " + writeNanos.get() * 1.0e-9 + " s");
+            System.out.println("Max blocks in flight: " + maxBlocksInFlight.get() + " (" + (workspaceBytes >> 20) + " MB of workspace); output images: "
+                + (outputBytes >> 20) + " MB; max heap used: " + (maxHeapUsed.get() >> 20) + " MB");
+        }
+    }
+
+    /**
+     * The output images (stored as 8-bit fixed point) and statistics, which are filled in one block at a time by the writer stage.
+     */
+    private final class SVDOutput
+    {
+        final int blockCountX;
+        final int blockCountY;
+        final int svLayoutWidth;
+        final int svLayoutHeight;
+
+        final byte[][] textureImages;
+        final byte[][] viewImages;
+
+        final double[] squaredErrorByView;
+        final double[] viewImportance;
+        final double[][] viewImportanceBySingularValues;
+
+        SVDOutput(int blockCountX, int blockCountY, int svLayoutWidth, int svLayoutHeight, int viewCount)
+        {
+            this.blockCountX = blockCountX;
+            this.blockCountY = blockCountY;
+            this.svLayoutWidth = svLayoutWidth;
+            this.svLayoutHeight = svLayoutHeight;
+
+            // Texels and views that are never written are treated as if they were zero.
+            byte zero = (byte) convertToFixedPoint(0.0);
+
+            textureImages = new byte[SAVED_SINGULAR_VALUES][texWidth * texHeight * TEXTURE_CHANNELS];
+            for (byte[] image : textureImages)
+            {
+                Arrays.fill(image, zero);
+            }
+
+            viewImages = new byte[viewCount][blockCountX * blockCountY * svLayoutWidth * svLayoutHeight * VIEW_CHANNELS];
+            for (byte[] image : viewImages)
+            {
+                Arrays.fill(image, zero);
+            }
+
+            squaredErrorByView = new double[viewCount];
+            viewImportance = new double[viewCount];
+            viewImportanceBySingularValues = new double[viewCount][SAVED_SINGULAR_VALUES];
+        }
+
+        long getByteCount()
+        {
+            return (long) textureImages.length * textureImages[0].length + (long) viewImages.length * viewImages[0].length;
+        }
+
+        void addBlock(BlockResult result)
+        {
+            for (int svIndex = 0; svIndex < SAVED_SINGULAR_VALUES; svIndex++)
+            {
+                for (int y = 0; y < BLOCK_SIZE && result.blockY * BLOCK_SIZE + y < texHeight; y++)
+                {
+                    for (int x = 0; x < BLOCK_SIZE && result.blockX * BLOCK_SIZE + x < texWidth; x++)
+                    {
+                        int blockPixelIndex = y * BLOCK_SIZE + x;
+                        int texturePixelIndex = (texHeight - result.blockY * BLOCK_SIZE - y - 1) * texWidth + result.blockX * BLOCK_SIZE + x;
+
+                        for (int c = 0; c < TEXTURE_CHANNELS; c++)
+                        {
+                            textureImages[svIndex][texturePixelIndex * TEXTURE_CHANNELS + c] =
+                                (byte) convertToFixedPoint(result.textureValues[svIndex][blockPixelIndex * TEXTURE_CHANNELS + c]);
+                        }
+                    }
+                }
+            }
+
+            for (int k = 0; k < viewImages.length; k++)
+            {
+                for (int i = 0; i < svLayoutHeight; i++)
+                {
+                    for (int j = 0; j < svLayoutWidth; j++)
+                    {
+                        int svIndex = i * svLayoutWidth + j;
+                        if (svIndex < result.effectiveSingularValues)
+                        {
+                            int viewPixelIndex =
+                                ((svLayoutHeight * (blockCountY - result.blockY) - i - 1) * blockCountX + result.blockX) * svLayoutWidth + j;
+
+                            for (int c = 0; c < VIEW_CHANNELS; c++)
+                            {
+                                viewImages[k][viewPixelIndex * VIEW_CHANNELS + c] =
+                                    (byte) convertToFixedPoint(result.viewValues[k][svIndex * VIEW_CHANNELS + c]);
+                            }
+
+                            viewImportanceBySingularValues[k][svIndex] += result.importanceBySingularValues[k][svIndex];
+                            viewImportance[k] += result.importanceBySingularValues[k][svIndex];
+                        }
+                    }
+                }
+
+                squaredErrorByView[k] += result.squaredErrorByView[k];
+            }
+        }
+    }
+
     @Override
     public <ContextType extends Context<ContextType>> void executeRequest(IBRRenderable<ContextType> renderable, LoadingMonitor callback)
         throws IOException
@@ -82,9 +311,11 @@ public class SVDRequest implements IBRRequest
         Instant start = Instant.now();
 
         IBRResources<ContextType> resources = renderable.getResources();
+        int viewCount = resources.viewSet.getCameraPoseCount();
 
         int blockCountX = (texWidth - 1) / BLOCK_SIZE + 1; // should equal ceil(texWidth / BLOCK_SIZE)
         int blockCountY = (texHeight - 1) / BLOCK_SIZE + 1; // should equal ceil(texHeight / BLOCK_SIZE)
+        int blockCount = blockCountX * blockCountY;
 
         int svLayoutWidth = (int)Math.ceil(Math.sqrt(SAVED_SINGULAR_VALUES));
         int svLayoutHeight = (SAVED_SINGULAR_VALUES - 1) / svLayoutWidth + 1; // should equal ceil(SAVED_SINGULAR_VALUES / svLayoutWidth)
@@ -92,39 +323,57 @@ public class SVDRequest implements IBRRequest
         System.out.println("SV Layout width: " + svLayoutWidth);
         System.out.println("SV Layout height: " + svLayoutHeight);
 
-        float[][][] textureData;
-        float[][][] viewData;
+        SVDOutput output = new SVDOutput(blockCountX, blockCountY, svLayoutWidth, svLayoutHeight, viewCount);
+        PipelineStatistics statistics = new PipelineStatistics();
 
-        if (PUT_COLOR_IN_VIEW_FACTOR)
+        // Workspaces are recycled as soon as a block has been decomposed, so the number of workspaces limits the number of blocks
+        // being read back or decomposed.  Results waiting to be written are limited separately by the size of the result queue.
+        int maxBlocksInFlight = BLOCKS_IN_FLIGHT_PER_THREAD * threadCount;
+        BlockingQueue<BlockWorkspace> freeWorkspaces = new ArrayBlockingQueue<>(maxBlocksInFlight);
+        for (int i = 0; i < maxBlocksInFlight; i++)
         {
-            textureData = new float[SAVED_SINGULAR_VALUES][texWidth * texHeight][1];
-            viewData = new float[resources.viewSet.getCameraPoseCount()][blockCountX * blockCountY * svLayoutWidth * svLayoutHeight][3];
-        }
-        else
-        {
-            textureData = new float[SAVED_SINGULAR_VALUES][texWidth * texHeight][3];
-            viewData = new float[resources.viewSet.getCameraPoseCount()][blockCountX * blockCountY * svLayoutWidth * svLayoutHeight][1];
+            freeWorkspaces.add(new BlockWorkspace(viewCount));
         }
 
-        double[] squaredErrorByView = new double[resources.viewSet.getCameraPoseCount()];
-        double[] viewImportance = new double[resources.viewSet.getCameraPoseCount()];
-        double[][] viewImportanceBySingularValues = new double[resources.viewSet.getCameraPoseCount()][SAVED_SINGULAR_VALUES];
+        long workspaceBytes = maxBlocksInFlight * freeWorkspaces.peek().getByteCount();
 
-        for (int i = 0; i < 2 * MAX_RUNNING_THREADS; i++)
+        System.out.println("Finished allocating memory.");
+
+        // Results are queued in block order so that the writer applies them in the same order regardless of which finishes first.
+        BlockingQueue<Future<BlockResult>> pendingResults = new ArrayBlockingQueue<>(maxBlocksInFlight);
+        AtomicReference<Throwable> writerFailure = new AtomicReference<>();
+
+        Thread writerThread = new Thread(() ->
         {
-            if (PUT_COLOR_IN_VIEW_FACTOR)
+            try
             {
-                allocatedMatrices.add(new SimpleMatrix(BLOCK_SIZE * BLOCK_SIZE, resources.viewSet.getCameraPoseCount() * 3, FMatrixRMaj.class));
+                for (int i = 0; i < blockCount; i++)
+                {
+                    BlockResult result = pendingResults.take().get();
+
+                    if (result != null)
+                    {
+                        long writeStart = System.nanoTime();
+                        output.addBlock(result);
+                        statistics.writeNanos.addAndGet(System.nanoTime() - writeStart);
+                    }
+
+                    statistics.sampleHeap();
+                }
             }
-            else
+            catch (InterruptedException e)
             {
-                allocatedMatrices.add(new SimpleMatrix(BLOCK_SIZE * BLOCK_SIZE * 3, resources.viewSet.getCameraPoseCount(), FMatrixRMaj.class));
+                Thread.currentThread().interrupt();
+                writerFailure.set(e);
             }
+            catch (ExecutionException | RuntimeException e)
+            {
+                writerFailure.set(e);
+            }
+        }, "SVD writer");
+        writerThread.setDaemon(true);
 
-            allocatedFloatBuffers.add(BufferUtils.createFloatBuffer(BLOCK_SIZE * BLOCK_SIZE * resources.viewSet.getCameraPoseCount() * 4));
-        }
-
-        System.out.println("Finished allocating memory.");
+        ForkJoinPool svdPool = new ForkJoinPool(threadCount);
 
         try
         (
@@ -150,7 +399,7 @@ public class SVDRequest implements IBRRequest
         {
             System.out.println("Finished compiling programs and creating framebuffer objects.");
 
-            Queue<Thread> taskQueue = new LinkedList<>();
+            writerThread.start();
 
             for (int blockY = 0; blockY < blockCountY; blockY++)
             {
@@ -164,520 +413,353 @@ public class SVDRequest implements IBRRequest
                         Math.min(1.0f, (blockX + 1) * BLOCK_SIZE * 1.0f / texWidth),
                         Math.min(1.0f, (blockY + 1) * BLOCK_SIZE * 1.0f / texHeight));
 
-                    FloatBuffer colorStorage;
+                    // Wait for a workspace to be freed up if too many blocks are in flight.
+                    BlockWorkspace workspace = freeWorkspaces.take();
+                    statistics.blockStarted();
+
+                    long readbackStart = System.nanoTime();
+                    boolean hasValidEntries = getMatrix(resources, deferredProgram, projTexProgram, geometryFramebuffer, colorFramebuffer,
+                        minTexCoords, maxTexCoords, workspace.colorStorage);
+                    statistics.readbackNanos.addAndGet(System.nanoTime() - readbackStart);
+
+                    Future<BlockResult> result;
 
-                    synchronized (allocatedFloatBuffers)
+                    if (hasValidEntries)
                     {
-                        while(allocatedFloatBuffers.isEmpty())
+                        int currentBlockX = blockX;
+                        int currentBlockY = blockY;
+
+                        result = CompletableFuture.supplyAsync(() ->
                         {
+                            long decompositionStart = System.nanoTime();
+
                             try
                             {
-                                allocatedFloatBuffers.wait(30000); // Double check every 30 seconds if notifyAll() was not called
+                                BlockResult blockResult = decomposeBlock(workspace, currentBlockX, currentBlockY, viewCount);
+                                statistics.blocksDecomposed.incrementAndGet();
+                                return blockResult;
                             }
-                            catch (InterruptedException e)
+                            catch (RuntimeException e)
                             {
+                                System.err.println("Block " + currentBlockX + ", " + currentBlockY + " failed.");
                                 e.printStackTrace();
+                                statistics.blocksFailed.incrementAndGet();
+                                return null;
                             }
-                        }
-
-                        colorStorage = allocatedFloatBuffers.poll();
+                            finally
+                            {
+                                statistics.decompositionNanos.addAndGet(System.nanoTime() - decompositionStart);
+                                statistics.blockFinished();
+                                freeWorkspaces.add(workspace);
+                            }
+                        },
+                        svdPool);
                     }
-
-                    boolean hasValidEntries = getMatrix(resources, deferredProgram, projTexProgram, geometryFramebuffer, colorFramebuffer,
-                        minTexCoords, maxTexCoords, colorStorage);
-
-                    if (hasValidEntries)
+                    else
                     {
-                        int currentBlockX = blockX;
-                        int currentBlockY = blockY;
+                        statistics.blockFinished();
+                        freeWorkspaces.add(workspace);
+                        result = CompletableFuture.completedFuture(null);
+                    }
 
-                        Thread svdThread = new Thread(() ->
+                    // Wait for the writer to catch up if too many results are waiting to be written.
+                    while (!pendingResults.offer(result, 1, TimeUnit.SECONDS))
+                    {
+                        if (!writerThread.isAlive())
                         {
-                            if (currentBlockX == 0)
-                            {
-                                System.out.println("Started row " + currentBlockY + "...");
-                            }
+                            throw new IOException("SVD writer stopped unexpectedly.", writerFailure.get());
+                        }
+                    }
+                }
+            }
 
-                            SimpleMatrix matrix;
+            // Wait for all blocks to be decomposed and written.
+            writerThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while decomposing blocks.");
+            interrupted.initCause(e);
+            throw interrupted;
+        }
+        finally
+        {
+            svdPool.shutdownNow();
+            writerThread.interrupt();
+        }
 
-                            synchronized (allocatedMatrices)
-                            {
-                                while(allocatedMatrices.isEmpty())
-                                {
-                                    try
-                                    {
-                                        allocatedMatrices.wait(30000); // Double check every 30 seconds if notifyAll() was not called
-                                    }
-                                    catch (InterruptedException e)
-                                    {
-                                        e.printStackTrace();
-                                    }
-                                }
+        if (writerFailure.get() != null)
+        {
+            throw new IOException("Failed to write SVD results.", writerFailure.get());
+        }
 
-                                matrix = allocatedMatrices.poll();
-                            }
+        Duration duration = Duration.between(start, Instant.now());
+        System.out.println("SVD finished in " + (duration.getSeconds() + duration.getNano() * 1.0e-9) + " seconds.");
+        statistics.print(duration, blockCount, workspaceBytes, output.getByteCount());
 
-                            try
-                            {
-                                matrix.zero();
+        writeImportance(resources, output);
+        writeImages(resources, output);
+    }
 
-                                boolean[] pixelMasks = new boolean[BLOCK_SIZE * BLOCK_SIZE];
-//                                int[] validPixelCounts = new int[resources.viewSet.getCameraPoseCount()];
+    private BlockResult decomposeBlock(BlockWorkspace workspace, int currentBlockX, int currentBlockY, int viewCount)
+    {
+        if (currentBlockX == 0)
+        {
+            System.out.println("Started row " + currentBlockY + "...");
+        }
 
-                                for (int k = 0; k < resources.viewSet.getCameraPoseCount(); k++)
-                                {
-//                                    validPixelCounts[k] = 0;
+        SimpleMatrix matrix = workspace.matrix;
+        FloatBuffer colorStorage = workspace.colorStorage;
+        BlockResult result = new BlockResult(currentBlockX, currentBlockY, viewCount);
 
-                                    colorStorage.position(BLOCK_SIZE * BLOCK_SIZE * 4 * k);
+        matrix.zero();
 
-                                    FloatBuffer colorSlice = colorStorage.slice();
-                                    colorSlice.limit(BLOCK_SIZE * BLOCK_SIZE * 4);
+        boolean[] pixelMasks = new boolean[BLOCK_SIZE * BLOCK_SIZE];
 
-                                    for (int i = 0; 4 * i + 3 < colorSlice.limit(); i++)
-                                    {
-                                        if (colorSlice.get(4 * i + 3) > 0.0 && !Double.isNaN(colorSlice.get(4 * i))
-                                            && !Double.isNaN(colorSlice.get(4 * i + 1)) && !Double.isNaN(colorSlice.get(4 * i + 2)))
-                                        {
-                                            if (PUT_COLOR_IN_VIEW_FACTOR)
-                                            {
-                                                matrix.set(i, 3 * k, colorSlice.get(4 * i));
-                                                matrix.set(i, 3 * k + 1, colorSlice.get(4 * i + 1));
-                                                matrix.set(i, 3 * k + 2, colorSlice.get(4 * i + 2));
-                                            }
-                                            else
-                                            {
-                                                matrix.set(3 * i, k, colorSlice.get(4 * i));
-                                                matrix.set(3 * i + 1, k, colorSlice.get(4 * i + 1));
-                                                matrix.set(3 * i + 2, k, colorSlice.get(4 * i + 2));
-                                            }
-
-//                                            validPixelCounts[k]++;
-                                            pixelMasks[i] = true;
-                                        }
-                                    }
-                                }
+        for (int k = 0; k < viewCount; k++)
+        {
+            colorStorage.position(BLOCK_SIZE * BLOCK_SIZE * 4 * k);
 
-                                //SimpleSVD<SimpleMatrix> svd = matrix.svd(true);
-                                FastPartialSVD svd = FastPartialSVD.compute(matrix, SAVED_SINGULAR_VALUES, 0.05f, 16, 3);
+            FloatBuffer colorSlice = colorStorage.slice();
+            colorSlice.limit(BLOCK_SIZE * BLOCK_SIZE * 4);
 
-                                for (int k = 0; k < resources.viewSet.getCameraPoseCount(); k++)
-                                {
-                                    double squaredError;
-                                    SimpleMatrix error = svd.getError();
+            for (int i = 0; 4 * i + 3 < colorSlice.limit(); i++)
+            {
+                if (colorSlice.get(4 * i + 3) > 0.0 && !Double.isNaN(colorSlice.get(4 * i))
+                    && !Double.isNaN(colorSlice.get(4 * i + 1)) && !Double.isNaN(colorSlice.get(4 * i + 2)))
+                {
+                    if (PUT_COLOR_IN_VIEW_FACTOR)
+                    {
+                        matrix.set(i, 3 * k, colorSlice.get(4 * i));
+                        matrix.set(i, 3 * k + 1, colorSlice.get(4 * i + 1));
+                        matrix.set(i, 3 * k + 2, colorSlice.get(4 * i + 2));
+                    }
+                    else
+                    {
+                        matrix.set(3 * i, k, colorSlice.get(4 * i));
+                        matrix.set(3 * i + 1, k, colorSlice.get(4 * i + 1));
+                        matrix.set(3 * i + 2, k, colorSlice.get(4 * i + 2));
+                    }
 
-                                    if (PUT_COLOR_IN_VIEW_FACTOR)
-                                    {
-                                        int firstColumn = 3 * k;
-                                        squaredError = IntStream.range(0, error.numRows())
-                                            .filter(i -> pixelMasks[i])
-                                            .mapToDouble(i -> error.get(i, firstColumn) * error.get(i, firstColumn)
-                                                + error.get(i, firstColumn + 1) * error.get(i, firstColumn + 1)
-                                                + error.get(i, firstColumn + 2) * error.get(i, firstColumn + 2))
-                                            .sum();
-                                    }
-                                    else
-                                    {
-                                        int column = k;
-                                        squaredError = IntStream.range(0, error.numRows())
-                                            .filter(i -> pixelMasks[i / 3])
-                                            .mapToDouble(i -> error.get(i, column) * error.get(i, column))
-                                            .sum();
-                                    }
+                    pixelMasks[i] = true;
+                }
+            }
+        }
 
-                                    synchronized (squaredErrorByView)
-                                    {
-                                        if (PUT_COLOR_IN_VIEW_FACTOR)
-                                        {
-                                            squaredErrorByView[k] += squaredError / (double) (3 * texWidth * texHeight);
-                                        }
-                                        else
-                                        {
-                                            squaredErrorByView[k] += squaredError / (double) (texWidth * texHeight);
-                                        }
-                                    }
-                                }
+        colorStorage.rewind();
 
-                                float[] singularValues = svd.getSingularValues();
-                                int effectiveSingularValues = Math.min(SAVED_SINGULAR_VALUES, singularValues.length);
+        // Each block is decomposed on a single thread since there are already several blocks being decomposed at once.
+        FastPartialSVD svd = FastPartialSVD.computeRandomized(matrix, SAVED_SINGULAR_VALUES);
 
-                                SimpleMatrix uMatrix = svd.getU();
-                                SimpleMatrix vMatrix = svd.getV();
+        SimpleMatrix error = svd.getError();
 
-                                double[] scale = new double[effectiveSingularValues];
-                                for (int svIndex = 0; svIndex < effectiveSingularValues; svIndex++)
-                                {
-                                    for (int k = 0; k < vMatrix.numRows(); k++)
-                                    {
-                                        scale[svIndex] = Math.max(scale[svIndex], Math.abs(vMatrix.get(k, svIndex)));
-                                    }
+        for (int k = 0; k < viewCount; k++)
+        {
+            double squaredError;
 
-                                    for (int k = 0; k < uMatrix.numRows(); k++)
-                                    {
-                                        scale[svIndex] = Math.min(scale[svIndex], 1.0 / (singularValues[svIndex] * Math.abs(uMatrix.get(k, svIndex))));
-                                    }
+            if (PUT_COLOR_IN_VIEW_FACTOR)
+            {
+                int firstColumn = 3 * k;
+                squaredError = IntStream.range(0, error.numRows())
+                    .filter(i -> pixelMasks[i])
+                    .mapToDouble(i -> error.get(i, firstColumn) * error.get(i, firstColumn)
+                        + error.get(i, firstColumn + 1) * error.get(i, firstColumn + 1)
+                        + error.get(i, firstColumn + 2) * error.get(i, firstColumn + 2))
+                    .sum();
+
+                result.squaredErrorByView[k] = squaredError / (double) (3 * texWidth * texHeight);
+            }
+            else
+            {
+                int column = k;
+                squaredError = IntStream.range(0, error.numRows())
+                    .filter(i -> pixelMasks[i / 3])
+                    .mapToDouble(i -> error.get(i, column) * error.get(i, column))
+                    .sum();
 
-                                    scale[svIndex] *= Math.signum(uMatrix.elementSum());
+                result.squaredErrorByView[k] = squaredError / (double) (texWidth * texHeight);
+            }
+        }
 
-                                    for (int y = 0; y < BLOCK_SIZE; y++)
-                                    {
-                                        for (int x = 0; x < BLOCK_SIZE; x++)
-                                        {
-                                            int blockPixelIndex = y * BLOCK_SIZE + x;
-                                            int texturePixelIndex =
-                                                (texHeight - currentBlockY * BLOCK_SIZE - y - 1) * texWidth + currentBlockX * BLOCK_SIZE + x;
-
-                                            if (PUT_COLOR_IN_VIEW_FACTOR)
-                                            {
-                                                if (pixelMasks[blockPixelIndex])
-                                                {
-                                                    textureData[svIndex][texturePixelIndex][0] =
-                                                        (float) (uMatrix.get(blockPixelIndex, svIndex)
-                                                            * scale[svIndex] * singularValues[svIndex]);
-                                                }
-                                                else
-                                                {
-                                                    textureData[svIndex][texturePixelIndex][0] = Float.NaN;
-                                                }
-                                            }
-                                            else
-                                            {
-                                                if (pixelMasks[blockPixelIndex])
-                                                {
-                                                    textureData[svIndex][texturePixelIndex][0] =
-                                                        (float) (uMatrix.get(3 * blockPixelIndex, svIndex)
-                                                            * scale[svIndex] * singularValues[svIndex]);
-                                                    textureData[svIndex][texturePixelIndex][1] =
-                                                        (float) (uMatrix.get(3 * blockPixelIndex + 1, svIndex)
-                                                            * scale[svIndex] * singularValues[svIndex]);
-                                                    textureData[svIndex][texturePixelIndex][2] =
-                                                        (float) (uMatrix.get(3 * blockPixelIndex + 2, svIndex)
-                                                            * scale[svIndex] * singularValues[svIndex]);
-                                                }
-                                                else
-                                                {
-                                                    textureData[svIndex][texturePixelIndex][0] = Float.NaN;
-                                                    textureData[svIndex][texturePixelIndex][1] = Float.NaN;
-                                                    textureData[svIndex][texturePixelIndex][2] = Float.NaN;
-                                                }
-                                            }
-                                        }
-                                    }
+        float[] singularValues = svd.getSingularValues();
+        int effectiveSingularValues = Math.min(SAVED_SINGULAR_VALUES, singularValues.length);
+        result.effectiveSingularValues = effectiveSingularValues;
 
-                                    // Hole fill
-                                    for (int subBlockSize = 2; subBlockSize <= BLOCK_SIZE; subBlockSize *= 2)
-                                    {
-                                        for (int y0 = 0; y0 < BLOCK_SIZE; y0 += subBlockSize)
-                                        {
-                                            for (int x0 = 0; x0 < BLOCK_SIZE; x0 += subBlockSize)
-                                            {
-                                                float sum = 0.0f;
-                                                int count = 0;
-
-                                                // First pass: compute average
-                                                for (int y = y0; y < y0 + subBlockSize; y++)
-                                                {
-                                                    for (int x = x0; x < x0 + subBlockSize; x++)
-                                                    {
-                                                        int texturePixelIndex =
-                                                            (texHeight - currentBlockY * BLOCK_SIZE - y - 1) * texWidth + currentBlockX * BLOCK_SIZE + x;
-
-                                                        if (PUT_COLOR_IN_VIEW_FACTOR)
-                                                        {
-                                                            if (!Float.isNaN(textureData[svIndex][texturePixelIndex][0]))
-                                                            {
-                                                                sum += textureData[svIndex][texturePixelIndex][0];
-                                                                count++;
-                                                            }
-                                                        }
-                                                        else
-                                                        {
-                                                            if (!Float.isNaN(textureData[svIndex][texturePixelIndex][0]))
-                                                            {
-                                                                sum += textureData[svIndex][texturePixelIndex][0];
-                                                                count++;
-                                                            }
-
-                                                            if (!Float.isNaN(textureData[svIndex][texturePixelIndex][1]))
-                                                            {
-                                                                sum += textureData[svIndex][texturePixelIndex][1];
-                                                                count++;
-                                                            }
-
-                                                            if (!Float.isNaN(textureData[svIndex][texturePixelIndex][2]))
-                                                            {
-                                                                sum += textureData[svIndex][texturePixelIndex][2];
-                                                                count++;
-                                                            }
-                                                        }
-                                                    }
-                                                }
-
-                                                if (count > 0)
-                                                {
-                                                    // Second pass: replace NaN with average.
-                                                    for (int y = y0; y < y0 + subBlockSize; y++)
-                                                    {
-                                                        for (int x = x0; x < x0 + subBlockSize; x++)
-                                                        {
-                                                            int texturePixelIndex =
-                                                                (texHeight - currentBlockY * BLOCK_SIZE - y - 1) * texWidth + currentBlockX * BLOCK_SIZE + x;
-
-                                                            if (PUT_COLOR_IN_VIEW_FACTOR)
-                                                            {
-                                                                if (Float.isNaN(textureData[svIndex][texturePixelIndex][0]))
-                                                                {
-                                                                    textureData[svIndex][texturePixelIndex][0] = sum / count;
-                                                                }
-                                                            }
-                                                            else
-                                                            {
-                                                                if (Float.isNaN(textureData[svIndex][texturePixelIndex][0]))
-                                                                {
-                                                                    textureData[svIndex][texturePixelIndex][0] = sum / count;
-                                                                }
-
-                                                                if (Float.isNaN(textureData[svIndex][texturePixelIndex][1]))
-                                                                {
-                                                                    textureData[svIndex][texturePixelIndex][1] = sum / count;
-                                                                }
-
-                                                                if (Float.isNaN(textureData[svIndex][texturePixelIndex][2]))
-                                                                {
-                                                                    textureData[svIndex][texturePixelIndex][2] = sum / count;
-                                                                }
-                                                            }
-                                                        }
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
+        SimpleMatrix uMatrix = svd.getU();
+        SimpleMatrix vMatrix = svd.getV();
 
-                                for (int svIndex = effectiveSingularValues; svIndex < SAVED_SINGULAR_VALUES; svIndex++)
-                                {
-                                    // Fill in with NaN for singular values that are zero.
-                                    for (int y = 0; y < BLOCK_SIZE; y++)
-                                    {
-                                        for (int x = 0; x < BLOCK_SIZE; x++)
-                                        {
-                                            int texturePixelIndex =
-                                                (texHeight - currentBlockY * BLOCK_SIZE - y - 1) * texWidth + currentBlockX * BLOCK_SIZE + x;
-
-                                            if (PUT_COLOR_IN_VIEW_FACTOR)
-                                            {
-                                                textureData[svIndex][texturePixelIndex][0] = Float.NaN;
-                                            }
-                                            else
-                                            {
-                                                textureData[svIndex][texturePixelIndex][0] = Float.NaN;
-                                                textureData[svIndex][texturePixelIndex][1] = Float.NaN;
-                                                textureData[svIndex][texturePixelIndex][2] = Float.NaN;
-                                            }
-                                        }
-                                    }
-                                }
+        double[] scale = new double[effectiveSingularValues];
+        for (int svIndex = 0; svIndex < effectiveSingularValues; svIndex++)
+        {
+            for (int k = 0; k < vMatrix.numRows(); k++)
+            {
+                scale[svIndex] = Math.max(scale[svIndex], Math.abs(vMatrix.get(k, svIndex)));
+            }
 
-                                for (int k = 0; k < renderable.getActiveViewSet().getCameraPoseCount(); k++)
-                                {
-                                    for (int i = 0; i < svLayoutHeight; i++)
-                                    {
-                                        for (int j = 0; j < svLayoutWidth; j++)
-                                        {
-                                            int svIndex = i * svLayoutWidth + j;
-                                            if (svIndex < effectiveSingularValues)
-                                            {
-                                                int texturePixelIndex =
-                                                    ((svLayoutHeight * (blockCountY - currentBlockY) - i - 1) * blockCountX + currentBlockX)
-                                                        * svLayoutWidth + j;
-
-                                                double blockImportance;
-
-                                                if (PUT_COLOR_IN_VIEW_FACTOR)
-                                                {
-                                                    viewData[k][texturePixelIndex][0] =
-                                                        (float) (vMatrix.get(3 * k, svIndex) / scale[svIndex]);
-                                                    viewData[k][texturePixelIndex][1] =
-                                                        (float) (vMatrix.get(3 * k + 1, svIndex) / scale[svIndex]);
-                                                    viewData[k][texturePixelIndex][2] =
-                                                        (float) (vMatrix.get(3 * k + 2, svIndex) / scale[svIndex]);
-
-                                                    blockImportance = 1.0 / (double) (texWidth * texHeight)
-                                                        * singularValues[svIndex] * singularValues[svIndex]
-                                                        * (vMatrix.get(3 * k, svIndex) * vMatrix.get(3 * k, svIndex)
-                                                        + vMatrix.get(3 * k + 1, svIndex) * vMatrix.get(3 * k + 1, svIndex)
-                                                        + vMatrix.get(3 * k + 2, svIndex) * vMatrix.get(3 * k + 2, svIndex)) / 3;
-                                                }
-                                                else
-                                                {
-                                                    viewData[k][texturePixelIndex][0] =
-                                                        (float) (vMatrix.get(k, svIndex) / scale[svIndex]);
-
-                                                    blockImportance = 1.0 / (double) (texWidth * texHeight)
-                                                        * singularValues[svIndex] * singularValues[svIndex]
-                                                        * vMatrix.get(k, svIndex) * vMatrix.get(k, svIndex);
-                                                }
-
-                                                synchronized (viewImportanceBySingularValues)
-                                                {
-                                                    viewImportanceBySingularValues[k][svIndex] += blockImportance;
-                                                }
-
-                                                synchronized (viewImportance)
-                                                {
-                                                    viewImportance[k] += blockImportance;
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
+            for (int k = 0; k < uMatrix.numRows(); k++)
+            {
+                scale[svIndex] = Math.min(scale[svIndex], 1.0 / (singularValues[svIndex] * Math.abs(uMatrix.get(k, svIndex))));
+            }
 
-                                //System.out.println("Finished block " + currentBlockX + ", " + currentBlockY + '.');
-                            }
-                            catch (RuntimeException e)
-                            {
-                                System.err.println("Block " + currentBlockX + ", " + currentBlockY + " failed.");
-                                e.printStackTrace();
-                            }
-                            finally
-                            {
-                                synchronized (activeBlockCountChangeHandle)
-                                {
-                                    activeBlockCount--;
-                                    activeBlockCountChangeHandle.notifyAll();
-                                }
+            scale[svIndex] *= Math.signum(uMatrix.elementSum());
 
-                                synchronized(allocatedMatrices)
-                                {
-                                    allocatedMatrices.add(matrix);
-                                    allocatedMatrices.notifyAll();
-                                }
+            float[] textureValues = result.textureValues[svIndex];
 
-                                synchronized(allocatedFloatBuffers)
-                                {
-                                    allocatedFloatBuffers.add(colorStorage);
-                                    allocatedFloatBuffers.notifyAll();
-                                }
-                            }
-                        });
+            for (int blockPixelIndex = 0; blockPixelIndex < BLOCK_SIZE * BLOCK_SIZE; blockPixelIndex++)
+            {
+                for (int c = 0; c < TEXTURE_CHANNELS; c++)
+                {
+                    if (pixelMasks[blockPixelIndex])
+                    {
+                        textureValues[blockPixelIndex * TEXTURE_CHANNELS + c] =
+                            (float) (uMatrix.get(TEXTURE_CHANNELS * blockPixelIndex + c, svIndex) * scale[svIndex] * singularValues[svIndex]);
+                    }
+                    else
+                    {
+                        textureValues[blockPixelIndex * TEXTURE_CHANNELS + c] = Float.NaN;
+                    }
+                }
+            }
 
-                        taskQueue.add(svdThread);
+            // Hole fill
+            for (int subBlockSize = 2; subBlockSize <= BLOCK_SIZE; subBlockSize *= 2)
+            {
+                for (int y0 = 0; y0 < BLOCK_SIZE; y0 += subBlockSize)
+                {
+                    for (int x0 = 0; x0 < BLOCK_SIZE; x0 += subBlockSize)
+                    {
+                        float sum = 0.0f;
+                        int count = 0;
 
-                        do
+                        // First pass: compute average
+                        for (int y = y0; y < y0 + subBlockSize; y++)
                         {
-                            synchronized (activeBlockCountChangeHandle)
+                            for (int x = x0; x < x0 + subBlockSize; x++)
                             {
-                                // Add any tasks that are in the queue as long as there are less than the max number of threads running.
-                                while (!taskQueue.isEmpty() && activeBlockCount < MAX_RUNNING_THREADS)
+                                for (int c = 0; c < TEXTURE_CHANNELS; c++)
                                 {
-                                    taskQueue.poll().start();
-                                    activeBlockCount++;
+                                    float value = textureValues[(y * BLOCK_SIZE + x) * TEXTURE_CHANNELS + c];
+                                    if (!Float.isNaN(value))
+                                    {
+                                        sum += value;
+                                        count++;
+                                    }
                                 }
+                            }
+                        }
 
-                                // Two situations in which we need to sleep: if the task queue is full and we're waiting to start another thread
-                                // before adding more to it, or if we've finished setting up the last block and are just running out the queue.
-                                if (taskQueue.size() == MAX_RUNNING_THREADS || (blockX == blockCountX - 1 && blockY == blockCountY - 1))
+                        if (count > 0)
+                        {
+                            // Second pass: replace NaN with average.
+                            for (int y = y0; y < y0 + subBlockSize; y++)
+                            {
+                                for (int x = x0; x < x0 + subBlockSize; x++)
                                 {
-                                    try
-                                    {
-                                        activeBlockCountChangeHandle.wait(30000); // Double check every 30 seconds if notify() was not called
-                                    }
-                                    catch (InterruptedException e)
+                                    for (int c = 0; c < TEXTURE_CHANNELS; c++)
                                     {
-                                        e.printStackTrace();
+                                        int index = (y * BLOCK_SIZE + x) * TEXTURE_CHANNELS + c;
+                                        if (Float.isNaN(textureValues[index]))
+                                        {
+                                            textureValues[index] = sum / count;
+                                        }
                                     }
                                 }
                             }
                         }
-                        // If the task queue is full and we had to wait for a running task to finish, then loop through a second time to start
-                        // at least one task and free up space in the queue.
-                        // Also, if we've just finished setting up the last block, keep looping until the task queue is empty.
-                        while (taskQueue.size() == MAX_RUNNING_THREADS
-                            || (!taskQueue.isEmpty() && blockX == blockCountX - 1 && blockY == blockCountY - 1));
-                    }
-                    else
-                    {
-                        synchronized(allocatedFloatBuffers)
-                        {
-                            allocatedFloatBuffers.add(colorStorage);
-                            allocatedFloatBuffers.notifyAll();
-                        }
                     }
                 }
             }
         }
 
-        // Wait for all threads to finish
-        boolean proceed = false;
-        while (!proceed)
+        for (int svIndex = effectiveSingularValues; svIndex < SAVED_SINGULAR_VALUES; svIndex++)
         {
-            synchronized (activeBlockCountChangeHandle)
+            // Fill in with NaN for singular values that are zero.
+            Arrays.fill(result.textureValues[svIndex], Float.NaN);
+        }
+
+        for (int k = 0; k < viewCount; k++)
+        {
+            for (int svIndex = 0; svIndex < effectiveSingularValues; svIndex++)
             {
-                if (activeBlockCount == 0)
+                if (PUT_COLOR_IN_VIEW_FACTOR)
                 {
-                    proceed = true;
+                    result.viewValues[k][3 * svIndex] = (float) (vMatrix.get(3 * k, svIndex) / scale[svIndex]);
+                    result.viewValues[k][3 * svIndex + 1] = (float) (vMatrix.get(3 * k + 1, svIndex) / scale[svIndex]);
+                    result.viewValues[k][3 * svIndex + 2] = (float) (vMatrix.get(3 * k + 2, svIndex) / scale[svIndex]);
+
+                    result.importanceBySingularValues[k][svIndex] = 1.0 / (double) (texWidth * texHeight)
+                        * singularValues[svIndex] * singularValues[svIndex]
+                        * (vMatrix.get(3 * k, svIndex) * vMatrix.get(3 * k, svIndex)
+                        + vMatrix.get(3 * k + 1, svIndex) * vMatrix.get(3 * k + 1, svIndex)
+                        + vMatrix.get(3 * k + 2, svIndex) * vMatrix.get(3 * k + 2, svIndex)) / 3;
                 }
                 else
                 {
-                    try
-                    {
-                        activeBlockCountChangeHandle.wait(30000); // Double check every 30 seconds if notify() was not called
-                    }
-                    catch (InterruptedException e)
-                    {
-                        e.printStackTrace();
-                    }
+                    result.viewValues[k][svIndex] = (float) (vMatrix.get(k, svIndex) / scale[svIndex]);
+
+                    result.importanceBySingularValues[k][svIndex] = 1.0 / (double) (texWidth * texHeight)
+                        * singularValues[svIndex] * singularValues[svIndex]
+                        * vMatrix.get(k, svIndex) * vMatrix.get(k, svIndex);
                 }
             }
         }
 
-        Duration duration = Duration.between(start, Instant.now());
-        System.out.println("SVD finished in " + (duration.getSeconds() + duration.getNano() * 1.0e-9) + " seconds.");
+        return result;
+    }
 
+    private <ContextType extends Context<ContextType>> void writeImportance(IBRResources<ContextType> resources, SVDOutput output)
+        throws IOException
+    {
         try(PrintStream importanceFilePrintStream = new PrintStream(new File(exportPath, "importance.txt")))
         {
             for (int i = 0; i < resources.viewSet.getCameraPoseCount(); i++)
             {
                 importanceFilePrintStream.print(resources.viewSet.getImageFileName(i));
                 importanceFilePrintStream.print('\t');
-                importanceFilePrintStream.print(viewImportance[i]);
+                importanceFilePrintStream.print(output.viewImportance[i]);
 
                 for (int j = 0; j < SAVED_SINGULAR_VALUES; j++)
                 {
                     importanceFilePrintStream.print('\t');
-                    importanceFilePrintStream.print(viewImportanceBySingularValues[i][j]);
+                    importanceFilePrintStream.print(output.viewImportanceBySingularValues[i][j]);
                 }
 
                 importanceFilePrintStream.print('\t');
-                importanceFilePrintStream.print(squaredErrorByView[i]);
+                importanceFilePrintStream.print(output.squaredErrorByView[i]);
 
                 importanceFilePrintStream.println();
             }
         }
+    }
 
-        for (int i = 0; i < svLayoutHeight; i++)
+    private <ContextType extends Context<ContextType>> void writeImages(IBRResources<ContextType> resources, SVDOutput output)
+        throws IOException
+    {
+        for (int i = 0; i < output.svLayoutHeight; i++)
         {
-            for (int j = 0; j < svLayoutWidth; j++)
+            for (int j = 0; j < output.svLayoutWidth; j++)
             {
-                int svIndex = i * svLayoutWidth + j;
+                int svIndex = i * output.svLayoutWidth + j;
                 if (svIndex < SAVED_SINGULAR_VALUES)
                 {
+                    byte[] textureData = output.textureImages[svIndex];
                     BufferedImage textureImg = new BufferedImage(texWidth, texHeight, BufferedImage.TYPE_INT_ARGB);
-                    int[] textureDataPacked = new int[textureData[svIndex].length];
-                    for (int pixelIndex = 0; pixelIndex < textureData[svIndex].length; pixelIndex++)
+                    int[] textureDataPacked = new int[texWidth * texHeight];
+                    for (int pixelIndex = 0; pixelIndex < textureDataPacked.length; pixelIndex++)
                     {
                         if (PUT_COLOR_IN_VIEW_FACTOR)
                         {
-                            int fixedPointValue = convertToFixedPoint(textureData[svIndex][pixelIndex][0]);
+                            int fixedPointValue = Byte.toUnsignedInt(textureData[pixelIndex]);
                             textureDataPacked[pixelIndex] = new Color(
                                 fixedPointValue, fixedPointValue, fixedPointValue,
                                 fixedPointValue == 0 ? 0 : 255).getRGB();
                         }
                         else
                         {
-                            int fixedPointRed = convertToFixedPoint(textureData[svIndex][pixelIndex][0]);
-                            int fixedPointGreen = convertToFixedPoint(textureData[svIndex][pixelIndex][1]);
-                            int fixedPointBlue = convertToFixedPoint(textureData[svIndex][pixelIndex][2]);
+                            int fixedPointRed = Byte.toUnsignedInt(textureData[3 * pixelIndex]);
+                            int fixedPointGreen = Byte.toUnsignedInt(textureData[3 * pixelIndex + 1]);
+                            int fixedPointBlue = Byte.toUnsignedInt(textureData[3 * pixelIndex + 2]);
 
                             textureDataPacked[pixelIndex] = new Color(
                                 fixedPointRed, fixedPointGreen, fixedPointBlue,
@@ -693,21 +775,23 @@ public class SVDRequest implements IBRRequest
 
         for (int k = 0; k < resources.viewSet.getCameraPoseCount(); k++)
         {
-            BufferedImage viewImg = new BufferedImage(blockCountX * svLayoutWidth, blockCountY * svLayoutHeight, BufferedImage.TYPE_INT_ARGB);
-            int[] viewDataPacked = new int[viewData[k].length];
-            for (int pixelIndex = 0; pixelIndex < viewData[k].length; pixelIndex++)
+            byte[] viewData = output.viewImages[k];
+            BufferedImage viewImg = new BufferedImage(output.blockCountX * output.svLayoutWidth, output.blockCountY * output.svLayoutHeight,
+                BufferedImage.TYPE_INT_ARGB);
+            int[] viewDataPacked = new int[viewImg.getWidth() * viewImg.getHeight()];
+            for (int pixelIndex = 0; pixelIndex < viewDataPacked.length; pixelIndex++)
             {
                 if (PUT_COLOR_IN_VIEW_FACTOR)
                 {
                     viewDataPacked[pixelIndex] = new Color(
-                        convertToFixedPoint(viewData[k][pixelIndex][0]),
-                        convertToFixedPoint(viewData[k][pixelIndex][1]),
-                        convertToFixedPoint(viewData[k][pixelIndex][2])
+                        Byte.toUnsignedInt(viewData[3 * pixelIndex]),
+                        Byte.toUnsignedInt(viewData[3 * pixelIndex + 1]),
+                        Byte.toUnsignedInt(viewData[3 * pixelIndex + 2])
                     ).getRGB();
                 }
                 else
                 {
-                    int fixedPointValue = convertToFixedPoint(viewData[k][pixelIndex][0]);
+                    int fixedPointValue = Byte.toUnsignedInt(viewData[pixelIndex]);
                     viewDataPacked[pixelIndex] = new Color(fixedPointValue, fixedPointValue, fixedPointValue).getRGB();
                 }
             }
@@ -730,6 +814,7 @@ public class SVDRequest implements IBRRequest
 
         Drawable<ContextType> deferredDrawable = resources.context.createDrawable(deferredProgram);
         deferredDrawable.addVertexBuffer("position", resources.positionBuffer);
+        deferredDrawable.setIndexBuffer(resources.indexBuffer);
         deferredDrawable.addVertexBuffer("texCoord", resources.texCoordBuffer);
         deferredDrawable.addVertexBuffer("normal", resources.normalBuffer);
         deferredDrawable.addVertexBuffer("tangent", resources.tangentBuffer);
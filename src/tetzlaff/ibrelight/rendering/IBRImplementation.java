@@ -96,6 +96,8 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
     private EnvironmentMap newEnvironmentData;
     private boolean environmentMapUnloadRequested = false;
     private Cubemap<ContextType> environmentMap;
+    private Cubemap<ContextType> diffuseEnvironmentMap;
+    private List<Cubemap<ContextType>> specularEnvironmentMaps;
     private File currentEnvironmentFile;
     private long environmentLastModified;
     private final Object loadEnvironmentLock = new Object();
@@ -138,6 +140,7 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
     private VertexBuffer<ContextType> refScenePositions;
     private VertexBuffer<ContextType> refSceneTexCoords;
     private VertexBuffer<ContextType> refSceneNormals;
+    private IndexBuffer<ContextType> refSceneIndices;
     private Texture2D<ContextType> refSceneTexture;
     
     private final String[] sceneObjectNameList;
@@ -255,6 +258,7 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
 
             this.mainDrawable = context.createDrawable(program);
             this.mainDrawable.addVertexBuffer("position", this.resources.positionBuffer);
+            this.mainDrawable.setIndexBuffer(this.resources.indexBuffer);
 
             if (this.resources.eigentextures != null)
             {
@@ -369,11 +373,11 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
                     double y = j * 2.0 / 63.0 - 1.0;
 
                     double rSq = x*x + y*y;
-                    lightTextureData.set(k, 0, (float)(Math.cos(Math.min(Math.sqrt(rSq), 1.0) * Math.PI) + 1.0) * 0.5f);
+                    lightTextureData.setFloat(k, 0, (float)(Math.cos(Math.min(Math.sqrt(rSq), 1.0) * Math.PI) + 1.0) * 0.5f);
 
                     if (rSq <= 1.0)
                     {
-                        lightCenterTextureData.set(k, 0, 1.0f);
+                        lightCenterTextureData.setFloat(k, 0, 1.0f);
                     }
 
                     k++;
@@ -393,6 +397,7 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
                     .createTexture();
 
             shadowDrawable.addVertexBuffer("position", resources.positionBuffer);
+            shadowDrawable.setIndexBuffer(resources.indexBuffer);
 
             shadowMaps = context.getTextureFactory().build2DDepthTextureArray(2048, 2048, lightingModel.getLightCount()).createTexture();
             shadowFramebuffer = context.buildFramebufferObject(2048, 2048)
@@ -473,6 +478,7 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
         {
             this.environmentMap.close();
             this.environmentMap = null;
+            this.closePrefilteredEnvironmentMaps();
             this.environmentMapUnloadRequested = false;
         }
 
@@ -487,47 +493,42 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
         {
             try
             {
-                Cubemap<ContextType> newEnvironmentTexture = null;
+                EnvironmentMap environmentData;
 
                 synchronized(loadEnvironmentLock)
                 {
-                    if (this.newEnvironmentData != null)
-                    {
-                        EnvironmentMap environmentData = this.newEnvironmentData;
-                        this.newEnvironmentData = null;
-
-                        float[][] sides = environmentData.getData();
-
-                        newEnvironmentTexture = context.getTextureFactory().buildColorCubemap(environmentData.getSide())
-                            .loadFace(CubemapFace.POSITIVE_X, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
-                                sides[EnvironmentMap.PX].length / 3, sides[EnvironmentMap.PX]))
-                            .loadFace(CubemapFace.NEGATIVE_X, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
-                                sides[EnvironmentMap.NX].length / 3, sides[EnvironmentMap.NX]))
-                            .loadFace(CubemapFace.POSITIVE_Y, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
-                                sides[EnvironmentMap.PY].length / 3, sides[EnvironmentMap.PY]))
-                            .loadFace(CubemapFace.NEGATIVE_Y, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
-                                sides[EnvironmentMap.NY].length / 3, sides[EnvironmentMap.NY]))
-                            .loadFace(CubemapFace.POSITIVE_Z, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
-                                sides[EnvironmentMap.PZ].length / 3, sides[EnvironmentMap.PZ]))
-                            .loadFace(CubemapFace.NEGATIVE_Z, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
-                                sides[EnvironmentMap.NZ].length / 3, sides[EnvironmentMap.NZ]))
-                            .setInternalFormat(ColorFormat.RGB32F)
-                            .setMipmapsEnabled(true)
-                            .setLinearFilteringEnabled(true)
-                            .createTexture();
-
-                        newEnvironmentTexture.setTextureWrap(TextureWrapMode.Repeat, TextureWrapMode.None);
-                    }
+                    environmentData = this.newEnvironmentData;
+                    this.newEnvironmentData = null;
                 }
 
-                if (newEnvironmentTexture != null)
+                if (environmentData != null)
                 {
+                    // The mipmaps of the full environment map are still used by shaders that don't use the prefiltered maps.
+                    Cubemap<ContextType> newEnvironmentTexture =
+                        createEnvironmentCubemap(environmentData.getData(), environmentData.getSide(), true);
+
+                    // Already prefiltered by the thread that loaded the environment map.
+                    Cubemap<ContextType> newDiffuseTexture =
+                        createEnvironmentCubemap(environmentData.getDiffuseIrradiance(), EnvironmentMap.DIR_SIDE, false);
+
+                    // The last level is the unfiltered environment map, so it isn't uploaded again.
+                    List<Cubemap<ContextType>> newSpecularTextures = new ArrayList<>(EnvironmentMap.SPEC_COUNT - 1);
+                    for (int m = 0; m < EnvironmentMap.SPEC_COUNT - 1; m++)
+                    {
+                        newSpecularTextures.add(createEnvironmentCubemap(
+                            environmentData.getSpecularIrradiance(m), environmentData.getSpecularSide(m), false));
+                    }
+
                     if (this.environmentMap != null)
                     {
                         this.environmentMap.close();
                     }
 
+                    this.closePrefilteredEnvironmentMaps();
+
                     this.environmentMap = newEnvironmentTexture;
+                    this.diffuseEnvironmentMap = newDiffuseTexture;
+                    this.specularEnvironmentMaps = newSpecularTextures;
                 }
             }
             catch (RuntimeException e)
@@ -631,6 +632,12 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
                     this.refSceneNormals = null;
                 }
 
+                if (this.refSceneIndices != null)
+                {
+                    this.refSceneIndices.close();
+                    this.refSceneIndices = null;
+                }
+
                 if (this.refSceneTexture != null)
                 {
                     this.refSceneTexture.close();
@@ -640,6 +647,12 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
                 this.refScenePositions = context.createVertexBuffer().setData(referenceScene.getVertices());
                 this.refSceneTexCoords = context.createVertexBuffer().setData(referenceScene.getTexCoords());
                 this.refSceneNormals = context.createVertexBuffer().setData(referenceScene.getNormals());
+
+                if (referenceScene.isIndexed())
+                {
+                    this.refSceneIndices = context.createIndexBuffer().setData(referenceScene.getIndices());
+                }
+
                 this.refSceneTexture = context.getTextureFactory().build2DColorTextureFromFile(
                         new File(referenceScene.getFilename().getParentFile(), referenceScene.getMaterial().getDiffuseMap().getMapName()), true)
                     .setMipmapsEnabled(true)
@@ -653,6 +666,49 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
         }
     }
 
+    private Cubemap<ContextType> createEnvironmentCubemap(float[][] sides, int side, boolean mipmapsEnabled)
+    {
+        Cubemap<ContextType> cubemap = context.getTextureFactory().buildColorCubemap(side)
+            .loadFace(CubemapFace.POSITIVE_X, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
+                sides[EnvironmentMap.PX].length / 3, sides[EnvironmentMap.PX]))
+            .loadFace(CubemapFace.NEGATIVE_X, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
+                sides[EnvironmentMap.NX].length / 3, sides[EnvironmentMap.NX]))
+            .loadFace(CubemapFace.POSITIVE_Y, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
+                sides[EnvironmentMap.PY].length / 3, sides[EnvironmentMap.PY]))
+            .loadFace(CubemapFace.NEGATIVE_Y, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
+                sides[EnvironmentMap.NY].length / 3, sides[EnvironmentMap.NY]))
+            .loadFace(CubemapFace.POSITIVE_Z, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
+                sides[EnvironmentMap.PZ].length / 3, sides[EnvironmentMap.PZ]))
+            .loadFace(CubemapFace.NEGATIVE_Z, NativeVectorBufferFactory.getInstance().createFromFloatArray(3,
+                sides[EnvironmentMap.NZ].length / 3, sides[EnvironmentMap.NZ]))
+            .setInternalFormat(ColorFormat.RGB32F)
+            .setMipmapsEnabled(mipmapsEnabled)
+            .setLinearFilteringEnabled(true)
+            .createTexture();
+
+        cubemap.setTextureWrap(TextureWrapMode.Repeat, TextureWrapMode.None);
+        return cubemap;
+    }
+
+    private void closePrefilteredEnvironmentMaps()
+    {
+        if (this.diffuseEnvironmentMap != null)
+        {
+            this.diffuseEnvironmentMap.close();
+            this.diffuseEnvironmentMap = null;
+        }
+
+        if (this.specularEnvironmentMaps != null)
+        {
+            for (Cubemap<ContextType> specularEnvironmentMap : this.specularEnvironmentMaps)
+            {
+                specularEnvironmentMap.close();
+            }
+
+            this.specularEnvironmentMaps = null;
+        }
+    }
+
     @Override
     public Optional<Cubemap<ContextType>> getEnvironmentMap()
     {
@@ -675,6 +731,8 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
         if (this.environmentMap == null || !lightingModel.isEnvironmentMappingEnabled())
         {
             program.setTexture("environmentMap", context.getTextureFactory().getNullTexture(SamplerType.FLOAT_CUBE_MAP));
+            program.setTexture("diffuseEnvironmentMap", context.getTextureFactory().getNullTexture(SamplerType.FLOAT_CUBE_MAP));
+            program.setTexture("specularEnvironmentMap", context.getTextureFactory().getNullTexture(SamplerType.FLOAT_CUBE_MAP));
         }
         else
         {
@@ -689,6 +747,14 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
                             / Math.log(2.0)))));
             program.setUniform("diffuseEnvironmentMipMapLevel", this.environmentMap.getMipmapLevelCount() - 1);
 
+            program.setTexture("diffuseEnvironmentMap", this.diffuseEnvironmentMap);
+
+            // Each view stands in for the environment over about 1 / viewCount of the sphere, scaled by the filtering bias (in mipmap levels).
+            int specularLevel = EnvironmentMap.getSpecularLevel(4 * Math.PI / resources.viewSet.getCameraPoseCount()
+                * Math.pow(4.0, this.lightingModel.getEnvironmentMapFilteringBias()));
+            program.setTexture("specularEnvironmentMap", specularLevel < this.specularEnvironmentMaps.size() ?
+                this.specularEnvironmentMaps.get(specularLevel) : this.environmentMap);
+
             Matrix4 envMapMatrix = this.getEnvironmentMapMatrix();
             program.setUniform("envMapMatrix", envMapMatrix);
         }
@@ -1021,6 +1087,7 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
             Drawable<ContextType> drawable = context.createDrawable(referenceSceneProgram);
             drawable.addVertexBuffer("position", refScenePositions);
             drawable.addVertexBuffer("normal", refSceneNormals);
+            drawable.setIndexBuffer(refSceneIndices);
 
             if (refSceneTexture != null && refSceneTexCoords != null)
             {
@@ -1853,6 +1920,12 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
             this.refSceneNormals = null;
         }
 
+        if (this.refSceneIndices != null)
+        {
+            this.refSceneIndices.close();
+            this.refSceneIndices = null;
+        }
+
         if (this.refSceneTexture != null)
         {
             this.refSceneTexture.close();
@@ -1871,6 +1944,8 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
             this.environmentMap = null;
         }
 
+        this.closePrefilteredEnvironmentMaps();
+
         if (this.backplateTexture != null)
         {
             this.backplateTexture.close();
@@ -2047,6 +2122,7 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
             long lastModified = environmentFile.lastModified();
             boolean readCompleted = false;
 
+            EnvironmentMap environmentData = null;
             int width = 0;
             int height = 0;
             float[] pixels = null;
@@ -2062,11 +2138,11 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
                     try
                     {
                         // Use Michael Ludwig's code to convert to a cube map (supports either cross or panorama input)
-                        this.newEnvironmentData = EnvironmentMap.createFromHDRFile(environmentFile);
+                        environmentData = EnvironmentMap.createFromHDRFile(environmentFile);
                         this.currentEnvironmentFile = environmentFile;
-                        width = newEnvironmentData.getSide() * 4;
-                        height = newEnvironmentData.getSide() * 2;
-                        pixels = EnvironmentMap.toPanorama(newEnvironmentData.getData(), newEnvironmentData.getSide(), width, height);
+                        width = environmentData.getSide() * 4;
+                        height = environmentData.getSide() * 2;
+                        pixels = EnvironmentMap.toPanorama(environmentData.getData(), environmentData.getSide(), width, height);
                         readCompleted = true;
                     }
                     catch (FileNotFoundException e)
@@ -2080,6 +2156,22 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
                 }
             }
 
+            if (readCompleted)
+            {
+                // Prefiltering a new environment takes a few seconds, so it is done without holding the lock,
+                // and before the environment is handed to the render thread so that uploading it doesn't wait for it.
+                environmentData.prefilter();
+
+                synchronized(loadEnvironmentLock)
+                {
+                    // Unless a different environment has been loaded in the meantime
+                    if (Objects.equals(environmentFile, currentEnvironmentFile))
+                    {
+                        this.newEnvironmentData = environmentData;
+                    }
+                }
+            }
+
             this.newEnvironmentDataAvailable = this.newEnvironmentDataAvailable || readCompleted;
 
             if (readCompleted)
@@ -2270,6 +2362,7 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
 
         this.mainDrawable = context.createDrawable(program);
         this.mainDrawable.addVertexBuffer("position", this.resources.positionBuffer);
+        this.mainDrawable.setIndexBuffer(this.resources.indexBuffer);
 
         if (this.environmentWeightsProgram != null)
         {
@@ -2370,6 +2463,7 @@ public class IBRImplementation<ContextType extends Context<ContextType>> impleme
                 defineMap.put("VIRTUAL_LIGHT_COUNT", Optional.of(lightingModel.getLightCount()));
                 defineMap.put("ENVIRONMENT_ILLUMINATION_ENABLED", Optional.of(!Objects.equals(lightingModel.getAmbientLightColor(), Vector3.ZERO)));
                 defineMap.put("ENVIRONMENT_TEXTURE_ENABLED", Optional.of(this.environmentMap != null && lightingModel.isEnvironmentMappingEnabled()));
+                defineMap.put("PREFILTERED_ENVIRONMENT_ENABLED", Optional.of(this.diffuseEnvironmentMap != null && lightingModel.isEnvironmentMappingEnabled()));
             }
         }
 
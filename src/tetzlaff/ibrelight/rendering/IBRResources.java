@@ -29,6 +29,7 @@ import tetzlaff.gl.nativebuffer.NativeDataType;
 import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
 import tetzlaff.gl.nativebuffer.NativeVectorBufferFactory;
 import tetzlaff.gl.types.AbstractDataTypeFactory;
+import tetzlaff.gl.util.ParallelLayerLoader;
 import tetzlaff.gl.util.VertexGeometry;
 import tetzlaff.gl.vecmath.IntVector2;
 import tetzlaff.gl.vecmath.IntVector3;
@@ -100,6 +101,13 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
     public final VertexBuffer<ContextType> texCoordBuffer;
     public final VertexBuffer<ContextType> normalBuffer;
     public final VertexBuffer<ContextType> tangentBuffer;
+
+    /**
+     * The indices of the vertices of each triangle, if the geometry is indexed; otherwise null.
+     * This should be set on every drawable that uses the vertex buffers above.
+     */
+    public final IndexBuffer<ContextType> indexBuffer;
+
     public final Texture3D<ContextType> depthTextures;
     public final Texture2D<ContextType> diffuseTexture;
     public final Texture2D<ContextType> normalTexture;
@@ -165,7 +173,7 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
         public Builder<ContextType> loadVSETFile(File vsetFile) throws FileNotFoundException
         {
             this.viewSet = ViewSet.loadFromVSETFile(vsetFile);
-            this.geometry = VertexGeometry.createFromOBJFile(this.viewSet.getGeometryFile());
+            this.geometry = VertexGeometry.createIndexedFromOBJFile(this.viewSet.getGeometryFile());
             return this;
         }
 
@@ -176,7 +184,7 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
             Path parentDirectory = cameraFile.getParentFile().toPath();
             if (geometryFile != null)
             {
-                this.geometry = VertexGeometry.createFromOBJFile(geometryFile);
+                this.geometry = VertexGeometry.createIndexedFromOBJFile(geometryFile);
                 this.viewSet.setGeometryFileName(parentDirectory.relativize(geometryFile.toPath()).toString());
             }
             if (undistortedImageDirectory != null)
@@ -290,18 +298,15 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
                         //.setMaxAnisotropy(16.0f)
                         .createTexture();
 
-                    int eigentextureIndex = 0;
-                    for (int i = 0; i < svdViewWeightPacking.x; i++)
-                    {
-                        for (int j = 0; j < svdViewWeightPacking.y; j++)
-                        {
-                            eigentexturesTemp.loadLayer(
-                                eigentextureIndex,
-                                new File(viewSet.getImageFilePath(), String.format("sv_%04d_%02d_%02d.png", eigentextureIndex, i, j)),
-                                true);
-                            eigentextureIndex++;
-                        }
-                    }
+                    Texture3D<ContextType> eigentexturesTarget = eigentexturesTemp;
+                    int packingHeight = svdViewWeightPacking.y;
+
+                    new ParallelLayerLoader().loadLayers(eigentexturesTemp, svdViewWeightPacking.x * svdViewWeightPacking.y,
+                        eigentextureIndex -> eigentexturesTarget.decodeLayer(
+                            new File(viewSet.getImageFilePath(), String.format("sv_%04d_%02d_%02d.png",
+                                eigentextureIndex, eigentextureIndex / packingHeight, eigentextureIndex % packingHeight)),
+                            true),
+                        null);
                 }
                 catch (IOException e)
                 {
@@ -372,31 +377,20 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
                 loadingMonitor.setMaximum(viewSet.getCameraPoseCount());
             }
 
+            // Images are decoded in parallel on worker threads, while this thread uploads them to the GPU in order.
             int m = viewSet.getCameraPoseCount();
-            for (int i = 0; i < viewSet.getCameraPoseCount(); i++)
-            {
-                System.out.printf("%d/%d", i, m);
-                System.out.println();
-                imageFile = findImageFile(i);
-
-                if (this.eigentextures == null)
+            new ParallelLayerLoader().loadLayers(this.colorTextures, m,
+                i -> this.colorTextures.decodeLayer(findImageFile(i), true),
+                loadedCount ->
                 {
-                    this.colorTextures.loadLayer(i, imageFile, true);
-                }
-                else
-                {
-                    this.colorTextures.loadLayer(i, imageFile, true );// ,
-//                        AbstractDataTypeFactory.getInstance().getSingleComponentDataType(NativeDataType.UNSIGNED_SHORT),
-//                        color -> ((0x7F & (Math.max(-63, Math.min(63, Math.round((color.getGreen() - 128) * 63.0 / 127.0))) + 64)) << 9)
-//                            | ((0x1F & (Math.max(-15, Math.min(15, Math.round((color.getBlue() - color.getGreen()) * 31.5 / 127.0))) + 16)) << 4)
-//                            | (0x0F & (Math.max(-7, Math.min(7, Math.round((color.getRed() - color.getGreen()) * 31.5 / 127.0))) + 8)));
-                }
+                    System.out.printf("%d/%d", loadedCount, m);
+                    System.out.println();
 
-                if(loadingMonitor != null)
-                {
-                    loadingMonitor.setProgress(i+1);
-                }
-            }
+                    if(loadingMonitor != null)
+                    {
+                        loadingMonitor.setProgress(loadedCount);
+                    }
+                });
 
             System.out.println("View Set textures loaded in " + (new Date().getTime() - timestamp.getTime()) + " milliseconds.");
         }
@@ -488,6 +482,15 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
             inverseLuminanceMap = null;
         }
 
+        if (geometry != null && geometry.isIndexed())
+        {
+            this.indexBuffer = context.createIndexBuffer().setData(geometry.getIndices());
+        }
+        else
+        {
+            this.indexBuffer = null;
+        }
+
         if (geometry != null && loadOptions.getDepthImageWidth() != 0 && loadOptions.getDepthImageHeight() != 0)
         {
             this.positionBuffer = context.createVertexBuffer().setData(geometry.getVertices());
@@ -508,6 +511,7 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
             {
                 Drawable<ContextType> depthDrawable = context.createDrawable(depthRenderingProgram);
                 depthDrawable.addVertexBuffer("position", positionBuffer);
+                depthDrawable.setIndexBuffer(indexBuffer);
 
                 double minDepth = viewSet.getRecommendedFarPlane();
 
@@ -853,6 +857,7 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
                 Drawable<ContextType> deferredDrawable = context.createDrawable(deferredProgram);
 
                 deferredDrawable.addVertexBuffer("position", this.positionBuffer);
+                deferredDrawable.setIndexBuffer(this.indexBuffer);
                 deferredDrawable.addVertexBuffer("texCoord", this.texCoordBuffer);
                 deferredDrawable.addVertexBuffer("normal", this.normalBuffer);
                 deferredDrawable.addVertexBuffer("tangent", this.tangentBuffer);
@@ -918,14 +923,14 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
 
                         if (positionSum[3] > 0.0)
                         {
-                            blockPositionBuffer.set(k, 0, positionSum[0] / positionSum[3]);
-                            blockPositionBuffer.set(k, 1, positionSum[1] / positionSum[3]);
-                            blockPositionBuffer.set(k, 2, positionSum[2] / positionSum[3]);
+                            blockPositionBuffer.setFloat(k, 0, positionSum[0] / positionSum[3]);
+                            blockPositionBuffer.setFloat(k, 1, positionSum[1] / positionSum[3]);
+                            blockPositionBuffer.setFloat(k, 2, positionSum[2] / positionSum[3]);
 
                             Vector3 normal = new Vector3(normalSum[0], normalSum[1], normalSum[2]).normalized();
-                            blockNormalBuffer.set(k, 0, normal.x);
-                            blockNormalBuffer.set(k, 1, normal.y);
-                            blockNormalBuffer.set(k, 2, normal.z);
+                            blockNormalBuffer.setFloat(k, 0, normal.x);
+                            blockNormalBuffer.setFloat(k, 1, normal.y);
+                            blockNormalBuffer.setFloat(k, 2, normal.z);
                         }
 
                         k++;
@@ -1049,6 +1054,7 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
             {
                 Drawable<ContextType> depthDrawable = context.createDrawable(depthRenderingProgram);
                 depthDrawable.addVertexBuffer("position", this.positionBuffer);
+                depthDrawable.setIndexBuffer(this.indexBuffer);
 
                 // Flatten the camera pose matrices into 16-component vectors and store them in the vertex list data structure.
                 NativeVectorBuffer flattenedShadowMatrices = NativeVectorBufferFactory.getInstance().createEmpty(NativeDataType.FLOAT, 16, this.viewSet.getCameraPoseCount());
@@ -1090,7 +1096,7 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
                     {
                         for (int row = 0; row < 4; row++) // row
                         {
-                            flattenedShadowMatrices.set(i, d, fullTransform.get(row, col));
+                            flattenedShadowMatrices.setFloat(i, d, fullTransform.get(row, col));
                             d++;
                         }
                     }
@@ -1450,6 +1456,11 @@ public final class IBRResources<ContextType extends Context<ContextType>> implem
             this.tangentBuffer.close();
         }
 
+        if (this.indexBuffer != null)
+        {
+            this.indexBuffer.close();
+        }
+
         if (this.colorTextures != null)
         {
             this.colorTextures.close();
@@ -17,7 +17,10 @@ import java.util.PriorityQueue;
 import java.util.Queue;
 
 import tetzlaff.gl.vecmath.Matrix4;
+import tetzlaff.gl.vecmath.MutableVector3;
 import tetzlaff.gl.vecmath.Vector3;
+import tetzlaff.gl.vecmath.Vector4;
+import tetzlaff.ibrelight.core.ViewSet;
 import tetzlaff.ibrelight.rendering.IBRResources;
 
 public class KNNViewWeightGenerator implements ViewWeightGenerator
@@ -64,20 +67,36 @@ public class KNNViewWeightGenerator implements ViewWeightGenerator
     @Override
     public float[] generateWeights(IBRResources<?> resources, Iterable<Integer> activeViewIndexList, Matrix4 targetView)
     {
-        float[] viewWeights = new float[resources.viewSet.getCameraPoseCount()];
+        return generateWeights(resources.viewSet, resources.geometry.getCentroid(), activeViewIndexList, targetView);
+    }
+
+    /**
+     * Generates view weights without requiring graphics resources.
+     * @param viewSet The view set containing the camera poses.
+     * @param centroid The centroid of the geometry.
+     * @param activeViewIndexList The views to consider.
+     * @param targetView The view matrix for which to generate weights.
+     * @return An array of weights, indexed by camera pose.
+     */
+    public float[] generateWeights(ViewSet viewSet, Vector3 centroid, Iterable<Integer> activeViewIndexList, Matrix4 targetView)
+    {
+        float[] viewWeights = new float[viewSet.getCameraPoseCount()];
         float viewWeightSum = 0.0f;
 
-        Queue<WeightedView> viewPriority = new PriorityQueue<>(resources.viewSet.getCameraPoseCount(), Comparator.reverseOrder());
+        Queue<WeightedView> viewPriority = new PriorityQueue<>(viewSet.getCameraPoseCount(), Comparator.reverseOrder());
+
+        // The target position doesn't depend on the view, and its offset from the centroid is a direction (w = 0).
+        Vector4 targetOffset = targetView.quickInverse(0.01f).getColumn(3).minus(centroid.asPosition());
+
+        // Scratch vectors to avoid allocating for every view.
+        MutableVector3 viewDir = new MutableVector3();
+        MutableVector3 targetDir = new MutableVector3();
 
         for (int i : activeViewIndexList)
         {
-            Vector3 viewDir = resources.viewSet.getCameraPose(i).times(
-                    resources.geometry.getCentroid().asPosition())
-                .getXYZ().negated().normalized();
-
-            Vector3 targetDir = resources.viewSet.getCameraPose(i).times(
-                    targetView.quickInverse(0.01f).getColumn(3).minus(resources.geometry.getCentroid().asPosition()))
-                .getXYZ().normalized();
+            Matrix4 cameraPose = viewSet.getCameraPose(i);
+            cameraPose.transformPointInto(centroid.x, centroid.y, centroid.z, viewDir).negate().normalize();
+            cameraPose.transformDirectionInto(targetOffset.x, targetOffset.y, targetOffset.z, targetDir).normalize();
 
             viewPriority.add(new WeightedView(i, targetDir.dot(viewDir)));
         }
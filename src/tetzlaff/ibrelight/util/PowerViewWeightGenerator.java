@@ -13,7 +13,10 @@
 package tetzlaff.ibrelight.util;
 
 import tetzlaff.gl.vecmath.Matrix4;
+import tetzlaff.gl.vecmath.MutableVector3;
 import tetzlaff.gl.vecmath.Vector3;
+import tetzlaff.gl.vecmath.Vector4;
+import tetzlaff.ibrelight.core.ViewSet;
 import tetzlaff.ibrelight.rendering.IBRResources;
 
 public class PowerViewWeightGenerator implements ViewWeightGenerator
@@ -28,18 +31,34 @@ public class PowerViewWeightGenerator implements ViewWeightGenerator
     @Override
     public float[] generateWeights(IBRResources<?> resources, Iterable<Integer> activeViewIndexList, Matrix4 targetView)
     {
-        float[] viewWeights = new float[resources.viewSet.getCameraPoseCount()];
+        return generateWeights(resources.viewSet, resources.geometry.getCentroid(), activeViewIndexList, targetView);
+    }
+
+    /**
+     * Generates view weights without requiring graphics resources.
+     * @param viewSet The view set containing the camera poses.
+     * @param centroid The centroid of the geometry.
+     * @param activeViewIndexList The views to consider.
+     * @param targetView The view matrix for which to generate weights.
+     * @return An array of weights, indexed by camera pose.
+     */
+    public float[] generateWeights(ViewSet viewSet, Vector3 centroid, Iterable<Integer> activeViewIndexList, Matrix4 targetView)
+    {
+        float[] viewWeights = new float[viewSet.getCameraPoseCount()];
         float viewWeightSum = 0.0f;
 
+        // The target position doesn't depend on the view, and its offset from the centroid is a direction (w = 0).
+        Vector4 targetOffset = targetView.quickInverse(0.01f).getColumn(3).minus(centroid.asPosition());
+
+        // Scratch vectors to avoid allocating for every view.
+        MutableVector3 viewDir = new MutableVector3();
+        MutableVector3 targetDir = new MutableVector3();
+
         for (int viewIndex : activeViewIndexList)
         {
-            Vector3 viewDir = resources.viewSet.getCameraPose(viewIndex).times(
-                    resources.geometry.getCentroid().asPosition())
-                .getXYZ().negated().normalized();
-
-            Vector3 targetDir = resources.viewSet.getCameraPose(viewIndex).times(
-                    targetView.quickInverse(0.01f).getColumn(3).minus(resources.geometry.getCentroid().asPosition()))
-                .getXYZ().normalized();
+            Matrix4 cameraPose = viewSet.getCameraPose(viewIndex);
+            cameraPose.transformPointInto(centroid.x, centroid.y, centroid.z, viewDir).negate().normalize();
+            cameraPose.transformDirectionInto(targetOffset.x, targetOffset.y, targetOffset.z, targetDir).normalize();
 
             viewWeights[viewIndex] = 1.0f / (float) Math.max(0.000001, 1.0 - Math.pow(Math.max(0.0, targetDir.dot(viewDir)), power)) - 1.0f;
             viewWeightSum += viewWeights[viewIndex];
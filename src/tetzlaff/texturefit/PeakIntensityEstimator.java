@@ -18,7 +18,6 @@ import java.io.IOException;
 import java.nio.FloatBuffer;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -28,6 +27,7 @@ import org.lwjgl.*;
 import tetzlaff.gl.core.*;
 import tetzlaff.gl.vecmath.*;
 import tetzlaff.ibrelight.core.ViewSet;
+import tetzlaff.util.HoleFilling;
 
 class PeakIntensityEstimator<ContextType extends Context<ContextType>>
 {
@@ -378,7 +378,7 @@ class PeakIntensityEstimator<ContextType extends Context<ContextType>>
         Map<CharacteristicBin, List<PeakCandidate>> greenSorted = new HashMap<>(peakCandidates.size());
         Map<CharacteristicBin, List<PeakCandidate>> blueSorted = new HashMap<>(peakCandidates.size());
 
-        for (Entry<CharacteristicBin, List<PeakCandidate>> bin : peakCandidates.entrySet())
+        for (Map.Entry<CharacteristicBin, List<PeakCandidate>> bin : peakCandidates.entrySet())
         {
             redSorted.put(bin.getKey(), bin.getValue().stream()
                 .parallel()
@@ -563,95 +563,11 @@ class PeakIntensityEstimator<ContextType extends Context<ContextType>>
         System.out.println();
         System.out.println("Filling holes...");
 
-        Queue<IntVector2> holes = new ArrayDeque<>(texHeight * texWidth / 4);
-        Map<IntVector2, Vector3> changes = new HashMap<>(texHeight * texWidth / 16);
+        int[] nearestPeaks = HoleFilling.findNearestValidTexels(texWidth, texHeight, i -> !Objects.equals(estimatedPeaks[i], Vector3.ZERO));
 
-        for (int y = 0; y < texHeight; y++)
-        {
-            for (int x = 0; x < texWidth; x++)
-            {
-                if (Objects.equals(estimatedPeaks[y * texWidth + x], Vector3.ZERO))
-                {
-                    holes.add(new IntVector2(x, y));
-                }
-            }
-        }
-
-        Collection<IntVector2> remainingHoles = new ArrayDeque<>(holes.size());
-
-        do
-        {
-            while (!holes.isEmpty())
-            {
-                IntVector2 hole = holes.poll();
-
-                Vector3 sum = Vector3.ZERO;
-                int count = 0;
-
-                if (hole.y > 0)
-                {
-                    Vector3 sample = estimatedPeaks[(hole.y - 1) * texWidth + hole.x];
-
-                    if (!Objects.equals(sample, Vector3.ZERO))
-                    {
-                        sum = sum.plus(sample);
-                        count++;
-                    }
-                }
-
-                if (hole.y < texHeight - 1)
-                {
-                    Vector3 sample = estimatedPeaks[(hole.y + 1) * texWidth + hole.x];
-
-                    if (!Objects.equals(sample, Vector3.ZERO))
-                    {
-                        sum = sum.plus(sample);
-                        count++;
-                    }
-                }
-
-                if (hole.x > 0)
-                {
-                    Vector3 sample = estimatedPeaks[hole.y * texWidth + hole.x - 1];
-
-                    if (!Objects.equals(sample, Vector3.ZERO))
-                    {
-                        sum = sum.plus(sample);
-                        count++;
-                    }
-                }
-
-                if (hole.x < texWidth - 1)
-                {
-                    Vector3 sample = estimatedPeaks[hole.y * texWidth + hole.x + 1];
-
-                    if (!Objects.equals(sample, Vector3.ZERO))
-                    {
-                        sum = sum.plus(sample);
-                        count++;
-                    }
-                }
-
-                if (count == 0)
-                {
-                    remainingHoles.add(hole);
-                }
-                else
-                {
-                    changes.put(hole, sum.dividedBy(count));
-                }
-            }
-
-            for (Entry<IntVector2, Vector3> change : changes.entrySet())
-            {
-                estimatedPeaks[change.getKey().y * texWidth + change.getKey().x] = change.getValue();
-            }
-
-            holes.addAll(remainingHoles);
-            remainingHoles.clear();
-            changes.clear();
-        }
-        while(!holes.isEmpty());
+        IntStream.range(0, texWidth * texHeight).parallel()
+            .filter(i -> nearestPeaks[i] >= 0 && nearestPeaks[i] != i)
+            .forEach(i -> estimatedPeaks[i] = estimatedPeaks[nearestPeaks[i]]);
 
         System.out.println("Filtering samples...");
 
@@ -753,98 +669,11 @@ class PeakIntensityEstimator<ContextType extends Context<ContextType>>
         System.out.println();
         System.out.println("Filling holes...");
 
-        Queue<IntVector2> roughnessHoles = new ArrayDeque<>(texHeight * texWidth / 4);
-        Map<IntVector2, Double> roughnessChanges = new HashMap<>(texHeight * texWidth / 16);
+        int[] nearestRoughness = HoleFilling.findNearestValidTexels(texWidth, texHeight, i -> estimatedRoughness[i] != 0.0);
 
-        for (int y = 0; y < texHeight; y++)
-        {
-            for (int x = 0; x < texWidth; x++)
-            {
-                if (estimatedRoughness[y * texWidth + x] == 0.0)
-                {
-                    roughnessHoles.add(new IntVector2(x, y));
-                }
-            }
-        }
-
-        Collection<IntVector2> remainingRoughnessHoles = new ArrayDeque<>(roughnessHoles.size());
-        int previousHoleCount;
-
-        do
-        {
-            previousHoleCount = roughnessHoles.size();
-
-            while (!roughnessHoles.isEmpty())
-            {
-                IntVector2 hole = roughnessHoles.poll();
-
-                double sum = 0.0;
-                int count = 0;
-
-                if (hole.y > 0)
-                {
-                    double sample = estimatedRoughness[(hole.y - 1) * texWidth + hole.x];
-
-                    if (sample > 0.0)
-                    {
-                        sum += sample;
-                        count++;
-                    }
-                }
-
-                if (hole.y < texHeight - 1)
-                {
-                    double sample = estimatedRoughness[(hole.y + 1) * texWidth + hole.x];
-
-                    if (sample > 0.0)
-                    {
-                        sum += sample;
-                        count++;
-                    }
-                }
-
-                if (hole.x > 0)
-                {
-                    double sample = estimatedRoughness[hole.y * texWidth + hole.x - 1];
-
-                    if (sample > 0.0)
-                    {
-                        sum += sample;
-                        count++;
-                    }
-                }
-
-                if (hole.x < texWidth - 1)
-                {
-                    double sample = estimatedRoughness[hole.y * texWidth + hole.x + 1];
-
-                    if (sample > 0.0)
-                    {
-                        sum += sample;
-                        count++;
-                    }
-                }
-
-                if (count == 0)
-                {
-                    remainingRoughnessHoles.add(hole);
-                }
-                else
-                {
-                    roughnessChanges.put(hole, sum / count);
-                }
-            }
-
-            for (Entry<IntVector2, Double> change : roughnessChanges.entrySet())
-            {
-                estimatedRoughness[change.getKey().y * texWidth + change.getKey().x] = change.getValue();
-            }
-
-            roughnessHoles.addAll(remainingRoughnessHoles);
-            remainingRoughnessHoles.clear();
-            roughnessChanges.clear();
-        }
-        while(!roughnessHoles.isEmpty() || roughnessHoles.size() == previousHoleCount);
+        IntStream.range(0, texWidth * texHeight).parallel()
+            .filter(i -> nearestRoughness[i] >= 0 && nearestRoughness[i] != i)
+            .forEach(i -> estimatedRoughness[i] = estimatedRoughness[nearestRoughness[i]]);
 
         System.out.println("Finished.");
 
@@ -28,6 +28,7 @@ import tetzlaff.gl.core.*;
 import tetzlaff.gl.nativebuffer.NativeDataType;
 import tetzlaff.gl.nativebuffer.NativeVectorBuffer;
 import tetzlaff.gl.nativebuffer.NativeVectorBufferFactory;
+import tetzlaff.gl.util.ParallelLayerLoader;
 import tetzlaff.gl.util.VertexGeometry;
 import tetzlaff.gl.vecmath.Matrix4;
 import tetzlaff.gl.vecmath.Vector2;
@@ -70,6 +71,7 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
     private VertexBuffer<ContextType> texCoordBuffer;
     private VertexBuffer<ContextType> normalBuffer;
     private VertexBuffer<ContextType> tangentBuffer;
+    private IndexBuffer<ContextType> indexBuffer;
     private Vector3 center;
 
     private UniformBuffer<ContextType> lightPositionBuffer;
@@ -231,6 +233,11 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
         {
             tangentBuffer.close();
         }
+
+        if (indexBuffer != null)
+        {
+            indexBuffer.close();
+        }
     }
 
 
@@ -442,6 +449,7 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
             Drawable<ContextType> drawable = context.createDrawable(program);
 
             drawable.addVertexBuffer("position", positionBuffer);
+            drawable.setIndexBuffer(indexBuffer);
             drawable.addVertexBuffer("texCoord", texCoordBuffer);
             drawable.addVertexBuffer("normal", normalBuffer);
             drawable.addVertexBuffer("tangent", tangentBuffer);
@@ -557,6 +565,7 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
                         {
                             Drawable<ContextType> shadowDrawable = context.createDrawable(depthRenderingProgram);
                             shadowDrawable.addVertexBuffer("position", positionBuffer);
+                            shadowDrawable.setIndexBuffer(indexBuffer);
 
                             depthRenderingProgram.setUniform("model_view", shadowModelView);
                             depthRenderingProgram.setUniform("projection", shadowProjection);
@@ -580,6 +589,7 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
             {
                 Drawable<ContextType> depthDrawable = context.createDrawable(depthRenderingProgram);
                 depthDrawable.addVertexBuffer("position", positionBuffer);
+                depthDrawable.setIndexBuffer(indexBuffer);
 
                 depthRenderingProgram.setUniform("model_view", viewSet.getCameraPose(viewIndex));
                 depthRenderingProgram.setUniform("projection",
@@ -630,11 +640,12 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
 
     private VertexGeometry loadMesh() throws IOException
     {
-        VertexGeometry mesh = VertexGeometry.createFromOBJFile(objFile);
+        VertexGeometry mesh = VertexGeometry.createIndexedFromOBJFile(objFile);
         positionBuffer = context.createVertexBuffer().setData(mesh.getVertices());
         texCoordBuffer = context.createVertexBuffer().setData(mesh.getTexCoords());
         normalBuffer = context.createVertexBuffer().setData(mesh.getNormals());
         tangentBuffer = context.createVertexBuffer().setData(mesh.getTangents());
+        indexBuffer = context.createIndexBuffer().setData(mesh.getIndices());
         center = mesh.getCentroid();
         materialFileName = mesh.getMaterialFileName();
 
@@ -664,6 +675,7 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
         Drawable<ContextType> drawable = context.createDrawable(lightFitProgram);
 
         drawable.addVertexBuffer("position", positionBuffer);
+        drawable.setIndexBuffer(indexBuffer);
         drawable.addVertexBuffer("texCoord", texCoordBuffer);
         drawable.addVertexBuffer("normal", normalBuffer);
 
@@ -879,6 +891,7 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
     void setupCommonShaderInputs(Drawable<ContextType> drawable)
     {
         drawable.addVertexBuffer("position", positionBuffer);
+        drawable.setIndexBuffer(indexBuffer);
         drawable.addVertexBuffer("texCoord", texCoordBuffer);
         drawable.addVertexBuffer("normal", normalBuffer);
         drawable.addVertexBuffer("tangent", tangentBuffer);
@@ -1104,22 +1117,26 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
                 .setMipmapsEnabled(true)
                 .createTexture();
 
-            for (int i = 0; i < viewSet.getCameraPoseCount(); i++)
-            {
-                imageFile = IBRResources.findImageFile(new File(imageDir, viewSet.getImageFileName(i)));
+            // Images are decoded in parallel on worker threads, while this thread uploads them to the GPU in order.
+            File viewImageDir = imageDir;
+            File viewMaskDir = maskDir;
 
-                if (maskDir == null)
+            new ParallelLayerLoader().loadLayers(viewTextures, viewSet.getCameraPoseCount(),
+                i ->
                 {
-                    viewTextures.loadLayer(i, imageFile, true);
-                }
-                else
-                {
-                    File maskFile = IBRResources.findImageFile(new File(maskDir, viewSet.getImageFileName(i)));
-                    viewTextures.loadLayer(i, imageFile, maskFile, true);
-                }
+                    File viewImageFile = IBRResources.findImageFile(new File(viewImageDir, viewSet.getImageFileName(i)));
 
-                System.out.println((i+1) + "/" + viewSet.getCameraPoseCount() + " images loaded.");
-            }
+                    if (viewMaskDir == null)
+                    {
+                        return viewTextures.decodeLayer(viewImageFile, true);
+                    }
+                    else
+                    {
+                        File maskFile = IBRResources.findImageFile(new File(viewMaskDir, viewSet.getImageFileName(i)));
+                        return viewTextures.decodeLayer(viewImageFile, maskFile, true);
+                    }
+                },
+                loadedCount -> System.out.println(loadedCount + "/" + viewSet.getCameraPoseCount() + " images loaded."));
 
             System.out.println("Image loading completed in " + (new Date().getTime() - timestamp.getTime()) + " milliseconds.");
 
@@ -1136,6 +1153,7 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
             {
                 Drawable<ContextType> depthRenderable = context.createDrawable(depthRenderingProgram);
                 depthRenderable.addVertexBuffer("position", positionBuffer);
+                depthRenderable.setIndexBuffer(indexBuffer);
 
                 double minDepth = viewSet.getRecommendedFarPlane();
 
@@ -1220,14 +1238,14 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
                     System.out.println("Light position: " + lightPosition.x + ' ' + lightPosition.y + ' ' + lightPosition.z);
                     System.out.println("(Light intensity from fit: " + lightFit.getIntensity().x + ' ' + lightFit.getIntensity().y + ' ' + lightFit.getIntensity().z + ')');
 
-                    lightPositionList.set(i, 0, lightPosition.x);
-                    lightPositionList.set(i, 1, lightPosition.y);
-                    lightPositionList.set(i, 2, lightPosition.z);
-                    lightPositionList.set(i, 3, 1.0f);
+                    lightPositionList.setFloat(i, 0, lightPosition.x);
+                    lightPositionList.setFloat(i, 1, lightPosition.y);
+                    lightPositionList.setFloat(i, 2, lightPosition.z);
+                    lightPositionList.setFloat(i, 3, 1.0f);
 
-                    lightIntensityList.set(i, 0, lightIntensity.x);
-                    lightIntensityList.set(i, 1, lightIntensity.y);
-                    lightIntensityList.set(i, 2, lightIntensity.z);
+                    lightIntensityList.setFloat(i, 0, lightIntensity.x);
+                    lightIntensityList.setFloat(i, 1, lightIntensity.y);
+                    lightIntensityList.setFloat(i, 2, lightIntensity.z);
 
                     viewSet.setLightPosition(i, lightPosition);
                     viewSet.setLightIntensity(i, lightIntensity);
@@ -1247,9 +1265,9 @@ class TextureFitResources<ContextType extends Context<ContextType>> implements A
 
                 for (int i = 0; i < viewSet.getLightCount(); i++)
                 {
-                    lightIntensityList.set(i, 0, lightIntensity.x);
-                    lightIntensityList.set(i, 1, lightIntensity.y);
-                    lightIntensityList.set(i, 2, lightIntensity.z);
+                    lightIntensityList.setFloat(i, 0, lightIntensity.x);
+                    lightIntensityList.setFloat(i, 1, lightIntensity.y);
+                    lightIntensityList.setFloat(i, 2, lightIntensity.z);
 
                     viewSet.setLightIntensity(i, lightIntensity);
                 }
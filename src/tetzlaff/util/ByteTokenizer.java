@@ -0,0 +1,665 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * A line-oriented tokenizer for UTF-8 text (including plain ASCII) that reads directly from a ByteBuffer (which may be memory-mapped).
+ * Numbers are parsed by hand without creating intermediate strings, and without any regular expressions or locale lookups.
+ * Tokens are separated by spaces, tabs, or carriage returns; line feeds are only skipped by skipLine() or skipBlankLines(),
+ * so that callers can detect the end of a line.
+ * This class is not thread-safe, but multiple tokenizers may share the same underlying buffer
+ * since only absolute get operations are used.
+ */
+public final class ByteTokenizer
+{
+    private static final float[] FLOAT_POWERS_OF_TEN =
+    {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    private static final double[] DOUBLE_POWERS_OF_TEN =
+    {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Largest mantissa that can be represented exactly by each floating-point type.
+    private static final long MAX_EXACT_FLOAT_MANTISSA = 1L << 24;
+    private static final long MAX_EXACT_DOUBLE_MANTISSA = 1L << 53;
+
+    private final ByteBuffer buffer;
+    private final int end;
+    private int position;
+
+    /**
+     * Creates a tokenizer over the remaining bytes of a buffer (from its current position to its limit).
+     * The position of the buffer itself is not modified.
+     * @param buffer The buffer containing UTF-8 text.
+     */
+    public ByteTokenizer(ByteBuffer buffer)
+    {
+        this(buffer, buffer.position(), buffer.limit());
+    }
+
+    /**
+     * Creates a tokenizer over a range of bytes in a buffer.
+     * @param buffer The buffer containing UTF-8 text.
+     * @param start The absolute index of the first byte to be tokenized.
+     * @param end The absolute index one past the last byte to be tokenized.
+     */
+    public ByteTokenizer(ByteBuffer buffer, int start, int end)
+    {
+        if (start < 0 || end > buffer.limit() || start > end)
+        {
+            throw new IndexOutOfBoundsException("Invalid range [" + start + ", " + end + ") for a buffer with limit " + buffer.limit() + '.');
+        }
+
+        this.buffer = buffer;
+        this.position = start;
+        this.end = end;
+    }
+
+    private static boolean isSpace(int c)
+    {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isDelimiter(int c)
+    {
+        return isSpace(c) || c == '\n';
+    }
+
+    /**
+     * Gets the absolute index of the next byte to be read.
+     * @return The current position.
+     */
+    public int getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Whether there are any bytes left to be read.
+     * @return True if the end of the input has not been reached.
+     */
+    public boolean hasRemaining()
+    {
+        return position < end;
+    }
+
+    /**
+     * Skips spaces and tabs, but not line feeds.
+     */
+    public void skipSpaces()
+    {
+        while (position < end && isSpace(buffer.get(position)))
+        {
+            position++;
+        }
+    }
+
+    /**
+     * Skips all whitespace, including any number of line feeds.
+     */
+    public void skipBlankLines()
+    {
+        while (position < end && isDelimiter(buffer.get(position)))
+        {
+            position++;
+        }
+    }
+
+    /**
+     * Advances to the beginning of the next line, discarding anything left on the current line.
+     */
+    public void skipLine()
+    {
+        while (position < end && buffer.get(position) != '\n')
+        {
+            position++;
+        }
+
+        if (position < end)
+        {
+            position++; // Skip the line feed itself.
+        }
+    }
+
+    /**
+     * Skips any spaces and then determines if there are any tokens left on the current line.
+     * @return True if the end of the line or the end of the input has been reached.
+     */
+    public boolean isAtLineEnd()
+    {
+        skipSpaces();
+        return position >= end || buffer.get(position) == '\n';
+    }
+
+    /**
+     * Returns the byte at an offset from the current position without consuming it.
+     * @param offset The offset from the current position.
+     * @return The byte at the requested position, or zero if that position is past the end of the input.
+     */
+    public int peek(int offset)
+    {
+        int index = position + offset;
+        return index < end ? buffer.get(index) : 0;
+    }
+
+    /**
+     * Returns the next byte without consuming it.
+     * @return The next byte, or zero if the end of the input has been reached.
+     */
+    public int peek()
+    {
+        return peek(0);
+    }
+
+    /**
+     * Consumes the next byte if it is equal to the specified character.
+     * @param c The character to test for.
+     * @return True if the character was found and consumed; false otherwise.
+     */
+    public boolean skipIfNext(char c)
+    {
+        if (position < end && buffer.get(position) == c)
+        {
+            position++;
+            return true;
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Skips spaces and then consumes the next token if it exactly matches a keyword.
+     * No strings are allocated to make this comparison.
+     * @param keyword The keyword to match.
+     * @return True if the keyword was found and consumed; false otherwise (in which case the position is unchanged).
+     */
+    public boolean skipIfNextToken(String keyword)
+    {
+        skipSpaces();
+
+        int length = keyword.length();
+        if (position + length > end)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            if (buffer.get(position + i) != keyword.charAt(i))
+            {
+                return false;
+            }
+        }
+
+        if (position + length < end && !isDelimiter(buffer.get(position + length)))
+        {
+            return false;
+        }
+
+        position += length;
+        return true;
+    }
+
+    /**
+     * Skips the next token on the current line.
+     */
+    public void skipToken()
+    {
+        skipSpaces();
+        while (position < end && !isDelimiter(buffer.get(position)))
+        {
+            position++;
+        }
+    }
+
+    /**
+     * Reads the next token on the current line as a string.
+     * @return The next token.
+     */
+    public String nextToken()
+    {
+        skipSpaces();
+        int start = position;
+        skipToken();
+
+        if (start == position)
+        {
+            throw new NoSuchElementException("Expected a token at position " + start + '.');
+        }
+
+        return substring(start, position);
+    }
+
+    /**
+     * Reads the remainder of the current line as a string, excluding leading and trailing whitespace and the line feed.
+     * The position is advanced to the beginning of the next line.
+     * @return The remainder of the line.
+     */
+    public String restOfLine()
+    {
+        skipSpaces();
+        int start = position;
+        int lastNonSpace = position;
+
+        while (position < end && buffer.get(position) != '\n')
+        {
+            if (!isSpace(buffer.get(position)))
+            {
+                lastNonSpace = position + 1;
+            }
+            position++;
+        }
+
+        String result = substring(start, lastNonSpace);
+        skipLine();
+        return result;
+    }
+
+    private String substring(int start, int stop)
+    {
+        byte[] bytes = new byte[stop - start];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = buffer.get(start + i);
+        }
+        // Delimiters are all ASCII, and every byte of a multi-byte UTF-8 character is outside of the ASCII range,
+        // so tokens never split a character and can be decoded independently.
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the next token on the current line as a signed decimal integer.
+     * Parsing stops at the first character that is not a digit, so that compound tokens (i.e. "1/2/3") can be processed
+     * one number at a time along with skipIfNext().
+     * @return The parsed integer.
+     */
+    public int nextInt()
+    {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+        {
+            throw new InputMismatchException("Value out of range for an int: " + value);
+        }
+        return (int)value;
+    }
+
+    /**
+     * Reads the next token on the current line as a signed decimal long integer.
+     * Parsing stops at the first character that is not a digit.
+     * @return The parsed integer.
+     */
+    public long nextLong()
+    {
+        skipSpaces();
+
+        int start = position;
+        boolean negative = false;
+
+        if (position < end)
+        {
+            int c = buffer.get(position);
+            if (c == '-')
+            {
+                negative = true;
+                position++;
+            }
+            else if (c == '+')
+            {
+                position++;
+            }
+        }
+
+        int digitStart = position;
+        long value = 0;
+        while (position < end)
+        {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9)
+            {
+                break;
+            }
+
+            if (value > (Long.MAX_VALUE - digit) / 10)
+            {
+                throw new InputMismatchException("Integer overflow at position " + start + '.');
+            }
+
+            value = value * 10 + digit;
+            position++;
+        }
+
+        if (position == digitStart)
+        {
+            position = start;
+            throw mismatch(start);
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads the next token on the current line as a 32-bit floating-point number.
+     * The result is always identical to Float.parseFloat() on the same token:
+     * common short decimals are computed exactly using a single correctly-rounded float division,
+     * and anything else falls back to the standard library.
+     * @return The parsed number.
+     */
+    public float nextFloat()
+    {
+        skipSpaces();
+
+        int start = position;
+        boolean negative = false;
+
+        if (position < end)
+        {
+            int c = buffer.get(position);
+            if (c == '-')
+            {
+                negative = true;
+                position++;
+            }
+            else if (c == '+')
+            {
+                position++;
+            }
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int totalDigits = 0;
+        int exponent = 0;
+        boolean exact = true;
+
+        // Integer part
+        while (position < end)
+        {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9)
+            {
+                break;
+            }
+
+            if (mantissa != 0 || digit != 0)
+            {
+                significantDigits++;
+            }
+
+            if (significantDigits <= 18)
+            {
+                mantissa = mantissa * 10 + digit;
+            }
+            else
+            {
+                exact = false;
+            }
+
+            totalDigits++;
+            position++;
+        }
+
+        // Fractional part
+        if (position < end && buffer.get(position) == '.')
+        {
+            position++;
+            while (position < end)
+            {
+                int digit = buffer.get(position) - '0';
+                if (digit < 0 || digit > 9)
+                {
+                    break;
+                }
+
+                if (mantissa != 0 || digit != 0)
+                {
+                    significantDigits++;
+                }
+
+                if (significantDigits <= 18)
+                {
+                    mantissa = mantissa * 10 + digit;
+                    exponent--;
+                }
+                else
+                {
+                    exact = false;
+                }
+
+                totalDigits++;
+                position++;
+            }
+        }
+
+        if (totalDigits == 0)
+        {
+            // Possibly "NaN" or "Infinity", or simply invalid.
+            position = start;
+            return Float.parseFloat(nextNumberToken(start));
+        }
+
+        // Exponent
+        if (position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E'))
+        {
+            int exponentStart = position;
+            position++;
+
+            boolean negativeExponent = false;
+            if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+'))
+            {
+                negativeExponent = buffer.get(position) == '-';
+                position++;
+            }
+
+            int explicitExponent = 0;
+            int exponentDigits = 0;
+            while (position < end)
+            {
+                int digit = buffer.get(position) - '0';
+                if (digit < 0 || digit > 9)
+                {
+                    break;
+                }
+
+                if (explicitExponent < 100000)
+                {
+                    explicitExponent = explicitExponent * 10 + digit;
+                }
+
+                exponentDigits++;
+                position++;
+            }
+
+            if (exponentDigits == 0)
+            {
+                // Not actually an exponent; leave it for the caller.
+                position = exponentStart;
+            }
+            else
+            {
+                exponent += negativeExponent ? -explicitExponent : explicitExponent;
+            }
+        }
+
+        if (position < end && !isDelimiter(buffer.get(position)) && buffer.get(position) != '/')
+        {
+            // Something like "1.0f" or "0x10" - let the standard library decide.
+            position = start;
+            return Float.parseFloat(nextNumberToken(start));
+        }
+
+        if (exact && mantissa < MAX_EXACT_FLOAT_MANTISSA && exponent >= -10 && exponent <= 10)
+        {
+            // Both the mantissa and the power of ten are exactly representable as floats,
+            // so a single IEEE multiplication or division is correctly rounded.
+            float value = exponent < 0 ? mantissa / FLOAT_POWERS_OF_TEN[-exponent] : mantissa * FLOAT_POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        else
+        {
+            return Float.parseFloat(substring(start, position));
+        }
+    }
+
+    /**
+     * Reads the next token on the current line as a 64-bit floating-point number.
+     * The result is always identical to Double.parseDouble() on the same token.
+     * @return The parsed number.
+     */
+    public double nextDouble()
+    {
+        skipSpaces();
+
+        int start = position;
+        boolean negative = false;
+
+        if (position < end)
+        {
+            int c = buffer.get(position);
+            if (c == '-')
+            {
+                negative = true;
+                position++;
+            }
+            else if (c == '+')
+            {
+                position++;
+            }
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int totalDigits = 0;
+        int exponent = 0;
+        boolean exact = true;
+
+        while (position < end)
+        {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9)
+            {
+                break;
+            }
+
+            if (mantissa != 0 || digit != 0)
+            {
+                significantDigits++;
+            }
+
+            if (significantDigits <= 18)
+            {
+                mantissa = mantissa * 10 + digit;
+            }
+            else
+            {
+                exact = false;
+            }
+
+            totalDigits++;
+            position++;
+        }
+
+        if (position < end && buffer.get(position) == '.')
+        {
+            position++;
+            while (position < end)
+            {
+                int digit = buffer.get(position) - '0';
+                if (digit < 0 || digit > 9)
+                {
+                    break;
+                }
+
+                if (mantissa != 0 || digit != 0)
+                {
+                    significantDigits++;
+                }
+
+                if (significantDigits <= 18)
+                {
+                    mantissa = mantissa * 10 + digit;
+                    exponent--;
+                }
+                else
+                {
+                    exact = false;
+                }
+
+                totalDigits++;
+                position++;
+            }
+        }
+
+        if (totalDigits == 0 || (position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E')))
+        {
+            // Special values and exponential notation are rare enough to defer to the standard library.
+            position = start;
+            return Double.parseDouble(nextNumberToken(start));
+        }
+
+        if (position < end && !isDelimiter(buffer.get(position)) && buffer.get(position) != '/')
+        {
+            position = start;
+            return Double.parseDouble(nextNumberToken(start));
+        }
+
+        if (exact && mantissa < MAX_EXACT_DOUBLE_MANTISSA && exponent >= -22)
+        {
+            double value = mantissa / DOUBLE_POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+        else
+        {
+            return Double.parseDouble(substring(start, position));
+        }
+    }
+
+    private String nextNumberToken(int start)
+    {
+        position = start;
+        while (position < end && !isDelimiter(buffer.get(position)) && buffer.get(position) != '/')
+        {
+            position++;
+        }
+
+        if (position == start)
+        {
+            throw mismatch(start);
+        }
+
+        return substring(start, position);
+    }
+
+    private InputMismatchException mismatch(int start)
+    {
+        int stop = start;
+        while (stop < end && !isDelimiter(buffer.get(stop)))
+        {
+            stop++;
+        }
+
+        return new InputMismatchException(start < end ?
+            "Expected a number at position " + start + " but found \"" + substring(start, stop) + "\"." :
+            "Expected a number but reached the end of the input.");
+    }
+}
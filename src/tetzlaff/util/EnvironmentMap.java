@@ -12,6 +12,19 @@
 package tetzlaff.util;
 
 import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
 import javax.swing.*;
 import javax.swing.filechooser.FileFilter;
 
@@ -19,9 +32,37 @@ import tetzlaff.gl.vecmath.DoubleVector3;
 import tetzlaff.util.RadianceImageLoader.Image;
 
 /**
+ * A cube map environment, converted from a Radiance (.hdr) cross or panorama, or loaded from an .env file.
  *
+ * The .env format (little-endian):
+ * <pre>
+ *   int   magic number
+ *   int   format version
+ *   long  size of the .hdr file it was converted from (0 if not a cache)
+ *   long  modification time of the .hdr file it was converted from (0 if not a cache)
+ *   int   cube map side length
+ *   int   diffuse irradiance side length
+ *   int   number of specular levels
+ *   int   block count
+ *   (long offset, int float count) for each block
+ * </pre>
+ * followed by one block for each face of the environment, the diffuse irradiance and each specular level, in that order.
+ * Each block is a contiguous array of floats beginning at an offset aligned to 64 bytes.
+ * Older .env files, which have no magic number and store each float in big-endian order, can still be read.
  */
 public final class EnvironmentMap {
+  private static final String CACHE_FILE_EXTENSION = ".envcache";
+  private static final int MAGIC_NUMBER = 0x4D564E45; // "ENVM"
+  private static final int VERSION = 2;
+  private static final int FIXED_HEADER_SIZE = 40;
+  private static final int BLOCK_ENTRY_SIZE = 12;
+  private static final int ALIGNMENT = 64;
+  private static final int WRITE_CHUNK_SIZE = 1 << 20;
+
+  private static final int SH_PROJECTION_MAX_SIDE = 128;
+  private static final int SH_COEFFICIENT_COUNT = 9;
+  private static final int SPECULAR_SAMPLE_COUNT = 64;
+
   public static final int DIR_SIDE = 32;
   public static final int NX = 3;
   public static final int NY = 4;
@@ -41,6 +82,12 @@ public final class EnvironmentMap {
   private final int side;
   private final float[][][] spec;
 
+  // Whether diff and spec hold the prefiltered environment, and where to cache the results once they have been computed.
+  private boolean prefiltered;
+  private File pendingCacheFile;
+  private long pendingCacheSourceSize;
+  private long pendingCacheSourceLastModified;
+
   //private final List<StructuredImportanceSampler.Zone> zones;
 
   //private transient double[][] envSH;
@@ -62,14 +109,39 @@ public final class EnvironmentMap {
     //zones = new ArrayList<>();
   }
 
+  /**
+   * Converts an .hdr file to a cube map.
+   * The result is cached next to the .hdr file once it has been prefiltered (see prefilter()),
+   * so converting the same file again only needs to load the cache.
+   */
   public static EnvironmentMap createFromHDRFile(
       File hdrFile/*, boolean computeIrradiance, boolean computeStructuredImportance*/) throws
       IOException {
-    Image hdr;
-    try (BufferedInputStream stream = new BufferedInputStream(new FileInputStream(hdrFile))) {
-      hdr = new RadianceImageLoader().read(stream);
+    File cacheFile = getCacheFile(hdrFile);
+    long sourceSize = hdrFile.length();
+    long sourceLastModified = hdrFile.lastModified();
+
+    if (hdrFile.isFile() && cacheFile.isFile()) {
+      try {
+        EnvironmentMap cached = readEnvFile(cacheFile, sourceSize, sourceLastModified);
+        if (cached != null) {
+          return cached;
+        }
+      } catch (IOException e) {
+        System.err.println("Could not read environment cache " + cacheFile + ": " + e.getMessage());
+      }
     }
 
+    EnvironmentMap map = convertHDRFile(hdrFile);
+    map.pendingCacheFile = cacheFile;
+    map.pendingCacheSourceSize = sourceSize;
+    map.pendingCacheSourceLastModified = sourceLastModified;
+    return map;
+  }
+
+  private static EnvironmentMap convertHDRFile(File hdrFile) throws IOException {
+    Image hdr = new RadianceImageLoader().read(hdrFile);
+
 //    boolean isPanorama = false;
     EnvironmentMap map;
     if (hdrFile.getName().endsWith("_zvc.hdr")) {
@@ -86,11 +158,6 @@ public final class EnvironmentMap {
       convertPanorama(map.side, map.env, hdr);
     }
 
-//    if (computeIrradiance) {
-//      map.computeDiffuseIrradiance();
-//      map.computeSpecularIrradiance();
-//    }
-//
 //    if (computeStructuredImportance) {
 //      if (isPanorama) {
 //        map.computeStructuredImportanceFromPano(hdr);
@@ -102,7 +169,98 @@ public final class EnvironmentMap {
     return map;
   }
 
+  public static File getCacheFile(File hdrFile) {
+    return new File(hdrFile.getPath() + CACHE_FILE_EXTENSION);
+  }
+
   public static EnvironmentMap loadFromEnvFile(File cachedData) throws IOException {
+    EnvironmentMap map = readEnvFile(cachedData, -1, -1);
+    if (map == null) {
+      return loadFromLegacyEnvFile(cachedData);
+    } else {
+      return map;
+    }
+  }
+
+  /**
+   * Reads a versioned .env file.
+   * @param sourceSize The size of the .hdr file that the .env file must have been converted from, or -1 to accept any .env file.
+   * @param sourceLastModified The modification time of the .hdr file that the .env file must have been converted from.
+   * @return The environment map, or null if the file is not a versioned .env file or was converted from a different .hdr file.
+   */
+  private static EnvironmentMap readEnvFile(File data, long sourceSize, long sourceLastModified)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(data.toPath(), StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      if (fileSize < FIXED_HEADER_SIZE) {
+        return null;
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, header, 0);
+
+      if (header.getInt() != MAGIC_NUMBER) {
+        return null;
+      }
+
+      int version = header.getInt();
+      long size = header.getLong();
+      long lastModified = header.getLong();
+
+      if (sourceSize >= 0 && (version != VERSION || size != sourceSize || lastModified != sourceLastModified)) {
+        return null;
+      } else if (version != VERSION) {
+        throw new IOException("Unsupported environment map version " + version + " in " + data);
+      }
+
+      int side = header.getInt();
+      int dirSide = header.getInt();
+      int specCount = header.getInt();
+      int blockCount = header.getInt();
+
+      if (side <= 0 || side > 0x8000 || dirSide != DIR_SIDE || specCount != SPEC_COUNT
+          || blockCount != 6 * (2 + SPEC_COUNT)) {
+        throw new IOException("Unexpected environment map layout in " + data);
+      }
+
+      ByteBuffer blockTable = ByteBuffer.allocate(blockCount * BLOCK_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, blockTable, FIXED_HEADER_SIZE);
+
+      EnvironmentMap map = new EnvironmentMap(side);
+      float[][] blocks = map.getBlocks();
+      long[] offsets = new long[blockCount];
+
+      for (int i = 0; i < blockCount; i++) {
+        offsets[i] = blockTable.getLong();
+        int floatCount = blockTable.getInt();
+
+        if (floatCount != blocks[i].length || offsets[i] < FIXED_HEADER_SIZE
+            || offsets[i] + 4L * floatCount > fileSize) {
+          throw new IOException("Corrupt environment map block " + i + " in " + data);
+        }
+      }
+
+      // Each face is mapped separately, since the whole file can be larger than a single mapping.
+      IOException[] error = new IOException[1];
+      IntStream.range(0, blockCount).parallel().forEach(i -> {
+        try {
+          channel.map(MapMode.READ_ONLY, offsets[i], 4L * blocks[i].length)
+              .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(blocks[i]);
+        } catch (IOException e) {
+          error[0] = e;
+        }
+      });
+
+      if (error[0] != null) {
+        throw error[0];
+      }
+
+      map.prefiltered = true;
+      return map;
+    }
+  }
+
+  private static EnvironmentMap loadFromLegacyEnvFile(File cachedData) throws IOException {
     try (
         DataInputStream in = new DataInputStream(
             new BufferedInputStream(new FileInputStream(cachedData)))) {
@@ -299,18 +457,45 @@ public final class EnvironmentMap {
 
   public static float[] toPanorama(float[][] env, int side, int newWidth, int newHeight) {
     float[] pano = new float[newWidth * newHeight * 3];
-    DoubleVector3 dir = DoubleVector3.ZERO;
-    DoubleVector3 color = DoubleVector3.ZERO;
-    for (int y = 0; y < newHeight; y++) {
-      for (int x = 0; x < newWidth; x++) {
-        dir = toVectorFromPanorama(x, y, newWidth, newHeight);
+    SampleTable table = getSampleTable(false, side, newWidth, newHeight);
+    double[][] panoramaAngles = table == null ? getPanoramaAngles(newWidth, newHeight) : null;
+    int faceSize = side * side;
+
+    IntStream.range(0, newHeight).parallel().forEach(y -> {
+      int[] offsets;
+      float[] weights;
+      byte[] faces;
+      int start;
+
+      if (table != null) {
+        offsets = table.offsets;
+        weights = table.weights;
+        faces = table.faces;
+        start = y * newWidth;
+      } else {
+        offsets = new int[newWidth];
+        weights = new float[2 * newWidth];
+        faces = new byte[newWidth];
+        start = 0;
+        computeCubeMapSamples(side, newWidth, y, panoramaAngles, offsets, weights, faces, 0);
+      }
 
-        color = sample(env, side, dir);
-        pano[y * newWidth * 3 + x * 3 + 0] = (float)color.x;
-        pano[y * newWidth * 3 + x * 3 + 1] = (float)color.y;
-        pano[y * newWidth * 3 + x * 3 + 2] = (float)color.z;
+      for (int x = 0; x < newWidth; x++) {
+        float[] face = env[faces[start + x]];
+        float s = weights[2 * (start + x)];
+        float t = weights[2 * (start + x) + 1];
+        int o1 = 3 * offsets[start + x];
+        int o2 = o1 + 3;
+        int o3 = o1 + 3 * side;
+        int o4 = o3 + 3;
+        int panoIndex = 3 * (y * newWidth + x);
+
+        for (int c = 0; c < 3; c++) {
+          pano[panoIndex + c] = (1 - t) * ((1 - s) * face[o1 + c] + s * face[o2 + c])
+              + t * ((1 - s) * face[o3 + c] + s * face[o4 + c]);
+        }
       }
-    }
+    });
 
     return pano;
   }
@@ -368,66 +553,390 @@ public final class EnvironmentMap {
     return new DoubleVector3(Math.cos(lon) * Math.cos(lat), Math.sin(lat), Math.sin(lon) * Math.cos(lat));
   }
 
-//  public void computeDiffuseIrradiance() {
-//    computeDiffuseIrradiance(new Convolution.AshikhminDiffuse());
-//  }
-//
-//  public void computeDiffuseIrradiance(Convolution.ConvolutionFunction func) {
-//    buildEnvSHSamplesMaybe();
-//    Convolution conv = new Convolution(func, DIR_SIDE, diff);
-//    conv.convolveSH(envSH, NUM_SH_BANDS);
-//    //                conv.convolve(env, side);
-//  }
-//
-//  public TextureCubeMap computeOneSpecularIrradiance(
-//      Framework framework, Convolution.ConvolutionFunction func) {
-//    buildEnvSHSamplesMaybe();
-//    Convolution conv = new Convolution(func, SPEC_SIDE[0], spec[0]);
-//    conv.convolveSH(envSH, NUM_SH_BANDS);
-//    //        conv.convolve(env, side);
-//
-//    TextureCubeMapBuilder cmb = framework.newTextureCubeMap();
-//    cmb.side(SPEC_SIDE[0]).wrap(Sampler.WrapMode.CLAMP).interpolated();
-//    CubeImageData<? extends TextureBuilder.BasicColorData> data = cmb.rgb();
-//    data.positiveX(0).from(spec[0][PX]);
-//    data.positiveY(0).from(spec[0][PY]);
-//    data.positiveZ(0).from(spec[0][PZ]);
-//    data.negativeX(0).from(spec[0][NX]);
-//    data.negativeY(0).from(spec[0][NY]);
-//    data.negativeZ(0).from(spec[0][NZ]);
-//
-//    return cmb.build();
-//  }
-//
-//  public void computeSpecularIrradiance() {
-//    buildEnvSHSamplesMaybe();
-//    for (int i = 1; i < spec.length - 1; i++) {
-//      double exp = SPEC_EXP[i];
-//      int s = SPEC_SIDE[i];
-//      Convolution conv = new Convolution(
-//          new Convolution.AshikhminIsotropicSpecular(exp), s, spec[i]);
-//      conv.convolveSH(envSH, NUM_SH_BANDS);
-//    }
-//
-//    // compute environment map scaled by solid angle, which approximates the highest specularity
-//    float[][] scaled = spec[SPEC_COUNT - 1];
-//    for (int i = 0; i < 6; i++) {
-//      for (int y = 0; y < side; y++) {
-//        for (int x = 0; x < side; x++) {
-//          float dsa = (float) texelCoordSolidAngle(x, y, side);
-//          scaled[i][y * side * 3 + x * 3] = dsa * env[i][y * side * 3 + x * 3];
-//          scaled[i][y * side * 3 + x * 3 + 1] = dsa * env[i][y * side * 3 + x * 3 + 1];
-//          scaled[i][y * side * 3 + x * 3 + 2] = dsa * env[i][y * side * 3 + x * 3 + 2];
-//        }
-//      }
-//    }
-//
-//    // duplicate 0th level from 1st
-//    for (int i = 0; i < 6; i++) {
-//      System.arraycopy(spec[1][i], 0, spec[0][i], 0, spec[1][i].length);
-//    }
-//  }
-//
+  /**
+   * Computes the diffuse irradiance from the environment using a 9 coefficient (order 2) spherical harmonic projection,
+   * after Ramamoorthi and Hanrahan, "An Efficient Representation for Irradiance Environment Maps" (2001).
+   * The result is divided by pi so that it is the radiance reflected by a white Lambertian surface with each normal.
+   */
+  private void computeDiffuseIrradiance() {
+    List<float[][]> mipmaps = buildMipmaps(env, side);
+
+    // Low-order spherical harmonics are so smooth that projecting a downsampled environment gives the same result.
+    int level = 0;
+    int levelSide = side;
+    while (levelSide > SH_PROJECTION_MAX_SIDE) {
+      level++;
+      levelSide = Math.max(1, (levelSide + 1) / 2);
+    }
+
+    float[][] faces = mipmaps.get(level);
+    int projectionSide = levelSide;
+
+    double[] sh = IntStream.range(0, 6 * projectionSide).parallel()
+        .mapToObj(row -> {
+          int face = row / projectionSide;
+          int y = row % projectionSide;
+          double[] direction = new double[3];
+          double[] basis = new double[SH_COEFFICIENT_COUNT];
+          double[] rowSum = new double[3 * SH_COEFFICIENT_COUNT];
+
+          for (int x = 0; x < projectionSide; x++) {
+            getCubeMapDirection(face, x, y, projectionSide, direction);
+            evaluateSHBasis(direction[0], direction[1], direction[2], basis);
+            double solidAngle = texelCoordSolidAngle(x, y, projectionSide);
+            int k = 3 * (y * projectionSide + x);
+
+            for (int i = 0; i < SH_COEFFICIENT_COUNT; i++) {
+              double weight = basis[i] * solidAngle;
+              rowSum[3 * i] += weight * faces[face][k];
+              rowSum[3 * i + 1] += weight * faces[face][k + 1];
+              rowSum[3 * i + 2] += weight * faces[face][k + 2];
+            }
+          }
+
+          return rowSum;
+        })
+        .reduce(new double[3 * SH_COEFFICIENT_COUNT], (sum1, sum2) -> {
+          double[] sum = new double[sum1.length];
+          for (int i = 0; i < sum.length; i++) {
+            sum[i] = sum1[i] + sum2[i];
+          }
+          return sum;
+        });
+
+    // Convolve with the clamped cosine lobe (A0 = pi, A1 = 2pi/3, A2 = pi/4), then divide by pi.
+    for (int i = 0; i < SH_COEFFICIENT_COUNT; i++) {
+      double band = i == 0 ? 1.0 : i < 4 ? 2.0 / 3.0 : 0.25;
+      sh[3 * i] *= band;
+      sh[3 * i + 1] *= band;
+      sh[3 * i + 2] *= band;
+    }
+
+    IntStream.range(0, 6 * DIR_SIDE).parallel().forEach(row -> {
+      int face = row / DIR_SIDE;
+      int y = row % DIR_SIDE;
+      double[] direction = new double[3];
+      double[] basis = new double[SH_COEFFICIENT_COUNT];
+
+      for (int x = 0; x < DIR_SIDE; x++) {
+        getCubeMapDirection(face, x, y, DIR_SIDE, direction);
+        evaluateSHBasis(direction[0], direction[1], direction[2], basis);
+        int k = 3 * (y * DIR_SIDE + x);
+
+        for (int c = 0; c < 3; c++) {
+          double irradiance = 0.0;
+          for (int i = 0; i < SH_COEFFICIENT_COUNT; i++) {
+            irradiance += sh[3 * i + c] * basis[i];
+          }
+
+          // Ringing can make the truncated projection slightly negative opposite a bright light source.
+          diff[face][k + c] = (float) Math.max(0.0, irradiance);
+        }
+      }
+    });
+  }
+
+  /**
+   * Prefilters the environment with a normalized Phong lobe for each of the exponents in SPEC_EXP, at the resolution given by SPEC_SIDE.
+   * Each texel is estimated from a fixed set of importance sampled directions, each read from the mipmap level whose texels cover about
+   * the same solid angle as the sample (Colbert and Krivanek, "GPU-Based Importance Sampling", GPU Gems 3, 2007),
+   * which keeps the results smooth with a small number of samples.
+   * The first level is a copy of the second, and the last level (an infinite exponent) is the environment itself.
+   */
+  private void computeSpecularIrradiance() {
+    List<float[][]> mipmaps = buildMipmaps(env, side);
+    double baseTexelSolidAngle = 4.0 * Math.PI / (6.0 * side * side);
+
+    for (int m = 1; m < SPEC_COUNT - 1; m++) {
+      double exponent = SPEC_EXP[m];
+      int specSide = SPEC_SIDE[m];
+      float[][] specFaces = spec[m];
+
+      // Directions relative to the reflection vector, shared by all texels
+      double[] sampleDirections = new double[3 * SPECULAR_SAMPLE_COUNT];
+      float[] sampleLevels = new float[SPECULAR_SAMPLE_COUNT];
+      for (int k = 0; k < SPECULAR_SAMPLE_COUNT; k++) {
+        double cosTheta = Math.pow((k + 0.5) / SPECULAR_SAMPLE_COUNT, 1.0 / (exponent + 1.0));
+        double sinTheta = Math.sqrt(Math.max(0.0, 1.0 - cosTheta * cosTheta));
+        double phi = 2.0 * Math.PI * radicalInverse(k);
+        sampleDirections[3 * k] = sinTheta * Math.cos(phi);
+        sampleDirections[3 * k + 1] = sinTheta * Math.sin(phi);
+        sampleDirections[3 * k + 2] = cosTheta;
+
+        double pdf = (exponent + 1.0) / (2.0 * Math.PI) * Math.pow(cosTheta, exponent);
+        double sampleSolidAngle = 1.0 / (SPECULAR_SAMPLE_COUNT * pdf);
+        sampleLevels[k] = (float) Math.max(0.0, Math.min(mipmaps.size() - 1,
+            0.5 * Math.log(sampleSolidAngle / baseTexelSolidAngle) / Math.log(2.0)));
+      }
+
+      IntStream.range(0, 6 * specSide).parallel().forEach(row -> {
+        int face = row / specSide;
+        int y = row % specSide;
+        double[] reflection = new double[3];
+        float[] color = new float[3];
+
+        for (int x = 0; x < specSide; x++) {
+          getCubeMapDirection(face, x, y, specSide, reflection);
+          double rx = reflection[0];
+          double ry = reflection[1];
+          double rz = reflection[2];
+
+          // Tangent frame around the reflection vector
+          double tx;
+          double ty;
+          double tz;
+          if (Math.abs(ry) < 0.999) {
+            // normalize(cross(up, r)) with up = (0, 1, 0)
+            double invLength = 1.0 / Math.sqrt(rz * rz + rx * rx);
+            tx = rz * invLength;
+            ty = 0.0;
+            tz = -rx * invLength;
+          } else {
+            // normalize(cross(right, r)) with right = (1, 0, 0)
+            double invLength = 1.0 / Math.sqrt(rz * rz + ry * ry);
+            tx = 0.0;
+            ty = -rz * invLength;
+            tz = ry * invLength;
+          }
+          double bx = ry * tz - rz * ty;
+          double by = rz * tx - rx * tz;
+          double bz = rx * ty - ry * tx;
+
+          color[0] = 0.0f;
+          color[1] = 0.0f;
+          color[2] = 0.0f;
+
+          for (int k = 0; k < SPECULAR_SAMPLE_COUNT; k++) {
+            double u = sampleDirections[3 * k];
+            double v = sampleDirections[3 * k + 1];
+            double w = sampleDirections[3 * k + 2];
+            sampleMipmaps(mipmaps, side,
+                u * tx + v * bx + w * rx, u * ty + v * by + w * ry, u * tz + v * bz + w * rz,
+                sampleLevels[k], 1.0f / SPECULAR_SAMPLE_COUNT, color);
+          }
+
+          int k = 3 * (y * specSide + x);
+          specFaces[face][k] = color[0];
+          specFaces[face][k + 1] = color[1];
+          specFaces[face][k + 2] = color[2];
+        }
+      });
+    }
+
+    for (int i = 0; i < 6; i++) {
+      // duplicate 0th level from 1st
+      System.arraycopy(spec[1][i], 0, spec[0][i], 0, spec[1][i].length);
+
+      // the highest specularity is a perfect mirror
+      System.arraycopy(env[i], 0, spec[SPEC_COUNT - 1][i], 0, env[i].length);
+    }
+  }
+
+  /**
+   * Builds a mipmap chain for a cube map by averaging 2x2 blocks of texels, down to a side length of one.
+   * The first level is the cube map itself.
+   */
+  private static List<float[][]> buildMipmaps(float[][] faces, int side) {
+    List<float[][]> mipmaps = new ArrayList<>();
+    mipmaps.add(faces);
+
+    float[][] previous = faces;
+    int previousSide = side;
+    while (previousSide > 1) {
+      int levelSide = (previousSide + 1) / 2;
+      float[][] level = new float[6][levelSide * levelSide * 3];
+      float[][] source = previous;
+      int sourceSide = previousSide;
+
+      IntStream.range(0, 6 * levelSide).parallel().forEach(row -> {
+        int face = row / levelSide;
+        int y = row % levelSide;
+        int y0 = 2 * y;
+        int y1 = Math.min(y0 + 1, sourceSide - 1);
+
+        for (int x = 0; x < levelSide; x++) {
+          int x0 = 2 * x;
+          int x1 = Math.min(x0 + 1, sourceSide - 1);
+
+          for (int c = 0; c < 3; c++) {
+            level[face][3 * (y * levelSide + x) + c] = 0.25f * (
+                source[face][3 * (y0 * sourceSide + x0) + c] + source[face][3 * (y0 * sourceSide + x1) + c]
+                    + source[face][3 * (y1 * sourceSide + x0) + c] + source[face][3 * (y1 * sourceSide + x1) + c]);
+          }
+        }
+      });
+
+      mipmaps.add(level);
+      previous = level;
+      previousSide = levelSide;
+    }
+
+    return mipmaps;
+  }
+
+  /**
+   * Adds a trilinearly filtered sample of a mipmapped cube map in a particular direction, which does not need to be normalized, to a color.
+   */
+  private static void sampleMipmaps(List<float[][]> mipmaps, int side, double dx, double dy, double dz,
+      float level, float weight, float[] color) {
+    int level0 = (int) level;
+    float blend = level - level0;
+
+    sampleLevel(mipmaps.get(level0), getMipmapSide(side, level0), dx, dy, dz, weight * (1.0f - blend), color);
+    if (blend > 0.0f) {
+      sampleLevel(mipmaps.get(level0 + 1), getMipmapSide(side, level0 + 1), dx, dy, dz, weight * blend, color);
+    }
+  }
+
+  private static int getMipmapSide(int side, int level) {
+    int levelSide = side;
+    for (int i = 0; i < level; i++) {
+      levelSide = (levelSide + 1) / 2;
+    }
+    return levelSide;
+  }
+
+  /**
+   * Adds a bilinearly filtered sample of a cube map in a particular direction to a color, using the same face orientations as sample().
+   */
+  private static void sampleLevel(float[][] faces, int side, double dx, double dy, double dz, float weight, float[] color) {
+    double sc;
+    double tc;
+    double ma;
+    int face;
+
+    if (Math.abs(dx) > Math.abs(dy) && Math.abs(dx) > Math.abs(dz)) {
+      if (dx >= 0.0) {
+        ma = dx;
+        sc = -dz;
+        tc = -dy;
+        face = PX;
+      } else {
+        ma = -dx;
+        sc = dz;
+        tc = -dy;
+        face = NX;
+      }
+    } else if (Math.abs(dy) > Math.abs(dx) && Math.abs(dy) > Math.abs(dz)) {
+      if (dy >= 0) {
+        ma = dy;
+        sc = dx;
+        tc = dz;
+        face = PY;
+      } else {
+        ma = -dy;
+        sc = dx;
+        tc = -dz;
+        face = NY;
+      }
+    } else {
+      if (dz >= 0) {
+        ma = dz;
+        sc = dx;
+        tc = -dy;
+        face = PZ;
+      } else {
+        ma = -dz;
+        sc = -dx;
+        tc = -dy;
+        face = NZ;
+      }
+    }
+
+    // texel centers are at half-integer coordinates
+    double s = Math.max(0.0, Math.min(0.5 * (sc / ma + 1.0) * side - 0.5, side - 1));
+    double t = Math.max(0.0, Math.min(0.5 * (tc / ma + 1.0) * side - 0.5, side - 1));
+
+    int x0 = (int) s;
+    int y0 = (int) t;
+    int x1 = Math.min(x0 + 1, side - 1);
+    int y1 = Math.min(y0 + 1, side - 1);
+    float as = (float) (s - x0);
+    float at = (float) (t - y0);
+
+    float[] data = faces[face];
+    int o1 = 3 * (y0 * side + x0);
+    int o2 = 3 * (y0 * side + x1);
+    int o3 = 3 * (y1 * side + x0);
+    int o4 = 3 * (y1 * side + x1);
+
+    for (int c = 0; c < 3; c++) {
+      color[c] += weight * ((1 - at) * ((1 - as) * data[o1 + c] + as * data[o2 + c])
+          + at * ((1 - as) * data[o3 + c] + as * data[o4 + c]));
+    }
+  }
+
+  /**
+   * Computes the normalized direction through the center of a cube map texel without allocating; equivalent to toVectorFromCubeMap().
+   */
+  private static void getCubeMapDirection(int face, int tx, int ty, int side, double[] direction) {
+    float sc = 2f * (tx + 0.5f) / (float) side - 1f;
+    float tc = 2f * (ty + 0.5f) / (float) side - 1f;
+
+    double dx;
+    double dy;
+    double dz;
+    switch (face) {
+    case PX:
+      dx = 1.0;
+      dy = -tc;
+      dz = -sc;
+      break;
+    case PY:
+      dx = sc;
+      dy = 1.0;
+      dz = tc;
+      break;
+    case PZ:
+      dx = sc;
+      dy = -tc;
+      dz = 1.0;
+      break;
+    case NX:
+      dx = -1.0;
+      dy = -tc;
+      dz = sc;
+      break;
+    case NY:
+      dx = sc;
+      dy = -1.0;
+      dz = -tc;
+      break;
+    default: // NZ
+      dx = -sc;
+      dy = -tc;
+      dz = -1.0;
+      break;
+    }
+
+    double invLength = 1.0 / Math.sqrt(dx * dx + dy * dy + dz * dz);
+    direction[0] = dx * invLength;
+    direction[1] = dy * invLength;
+    direction[2] = dz * invLength;
+  }
+
+  /**
+   * Evaluates the real spherical harmonic basis functions for bands 0, 1 and 2 in a normalized direction.
+   */
+  private static void evaluateSHBasis(double x, double y, double z, double[] basis) {
+    basis[0] = 0.282095;
+    basis[1] = 0.488603 * y;
+    basis[2] = 0.488603 * z;
+    basis[3] = 0.488603 * x;
+    basis[4] = 1.092548 * x * y;
+    basis[5] = 1.092548 * y * z;
+    basis[6] = 0.315392 * (3.0 * z * z - 1.0);
+    basis[7] = 1.092548 * x * z;
+    basis[8] = 0.546274 * (x * x - y * y);
+  }
+
+  /**
+   * The van der Corput radical inverse in base 2, which together with (k + 0.5) / n gives the Hammersley point set.
+   */
+  private static double radicalInverse(int k) {
+    return (Integer.reverse(k) & 0xFFFFFFFFL) / 4294967296.0;
+  }
+
 //  public TextureCubeMap createDiffuseMap(Framework framework) {
 //    TextureCubeMapBuilder cmb = framework.newTextureCubeMap();
 //    cmb.side(DIR_SIDE).wrap(Sampler.WrapMode.CLAMP).interpolated();
@@ -552,43 +1061,177 @@ public final class EnvironmentMap {
     return side;
   }
 
+  /**
+   * Computes the diffuse irradiance and the prefiltered specular levels, unless they have already been computed or loaded from a cache.
+   * This takes a few seconds for a large environment, so it is not done until the results are needed;
+   * call it from a background thread to avoid waiting for it later.
+   * If the environment was converted from an .hdr file, the cache next to the .hdr file is written afterwards.
+   */
+  public synchronized void prefilter() {
+    if (!prefiltered) {
+      computeDiffuseIrradiance();
+      computeSpecularIrradiance();
+      prefiltered = true;
+
+      if (pendingCacheFile != null) {
+        try {
+          write(pendingCacheFile, pendingCacheSourceSize, pendingCacheSourceLastModified);
+        } catch (IOException e) {
+          System.err.println("Could not write environment cache " + pendingCacheFile + ": " + e.getMessage());
+        }
+
+        pendingCacheFile = null;
+      }
+    }
+  }
+
+  /**
+   * @return The diffuse irradiance (divided by pi) for each face, with a side length of DIR_SIDE.
+   */
+  public float[][] getDiffuseIrradiance() {
+    prefilter();
+    return diff;
+  }
+
+  /**
+   * @param level The index of the specular exponent in SPEC_EXP.
+   * @return The environment prefiltered with a Phong lobe with the given exponent, for each face.
+   */
+  public float[][] getSpecularIrradiance(int level) {
+    prefilter();
+    return spec[level];
+  }
+
+  /**
+   * Finds the prefiltered specular level whose lobe best matches a solid angle, such as the solid angle covered by each view of an object.
+   * A normalized Phong lobe with exponent n has a peak of (n + 1) / (2 pi), so it covers a solid angle of about 2 pi / (n + 1).
+   * @param solidAngle The solid angle, in steradians.
+   * @return The index of the level in SPEC_EXP, from 1 to SPEC_COUNT - 1.  The last level is the unfiltered environment.
+   */
+  public static int getSpecularLevel(double solidAngle) {
+    double exponent = 2.0 * Math.PI / solidAngle - 1.0;
+
+    if (exponent > 2.0 * SPEC_EXP[SPEC_COUNT - 2]) {
+      // Much narrower than the sharpest prefiltered lobe
+      return SPEC_COUNT - 1;
+    }
+
+    int bestLevel = 1;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    for (int m = 1; m < SPEC_COUNT - 1; m++) {
+      double distance = Math.abs(Math.log(Math.max(1.0e-6, exponent + 1.0) / (SPEC_EXP[m] + 1.0)));
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        bestLevel = m;
+      }
+    }
+
+    return bestLevel;
+  }
+
+  /**
+   * @param level The index of the specular exponent in SPEC_EXP.
+   * @return The side length of the prefiltered environment for the given exponent.
+   */
+  public int getSpecularSide(int level) {
+    return SPEC_SIDE[level] < 0 ? side : SPEC_SIDE[level];
+  }
+
 //  public List<StructuredImportanceSampler.Zone> getZones() {
 //    return zones;
 //  }
 
   public void write(File data) throws IOException {
-    try (
-        DataOutputStream out = new DataOutputStream(
-            new BufferedOutputStream(new FileOutputStream(data)))) {
-      out.writeInt(side);
-      for (int i = 0; i < 6; i++) {
-        for (int j = 0; j < env[i].length; j++) {
-          out.writeFloat(env[i][j]);
-        }
-      }
+    prefilter();
+    write(data, 0, 0);
+  }
 
-      out.writeInt(DIR_SIDE);
-      for (int i = 0; i < 6; i++) {
-        for (int j = 0; j < diff[i].length; j++) {
-          out.writeFloat(diff[i][j]);
-        }
-      }
+  /**
+   * Writes an .env file, first to a temporary file which is then moved into place so that a partially written file is never read.
+   */
+  private void write(File data, long sourceSize, long sourceLastModified) throws IOException {
+    float[][] blocks = getBlocks();
+
+    long[] offsets = new long[blocks.length];
+    long nextOffset = align(FIXED_HEADER_SIZE + (long) blocks.length * BLOCK_ENTRY_SIZE);
+    for (int i = 0; i < blocks.length; i++) {
+      offsets[i] = nextOffset;
+      nextOffset = align(nextOffset + 4L * blocks[i].length);
+    }
 
-      for (float[][] aSpec : spec)
-      {
-        for (int i = 0; i < 6; i++)
-        {
-          for (int j = 0; j < aSpec[i].length; j++)
-          {
-            out.writeFloat(aSpec[i][j]);
+    ByteBuffer header = ByteBuffer.allocate((int) offsets[0]).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC_NUMBER);
+    header.putInt(VERSION);
+    header.putLong(sourceSize);
+    header.putLong(sourceLastModified);
+    header.putInt(side);
+    header.putInt(DIR_SIDE);
+    header.putInt(SPEC_COUNT);
+    header.putInt(blocks.length);
+    for (int i = 0; i < blocks.length; i++) {
+      header.putLong(offsets[i]);
+      header.putInt(blocks[i].length);
+    }
+    header.clear();
+
+    Path tempPath = new File(data.getPath() + ".tmp").toPath();
+
+    try {
+      try (FileChannel channel = FileChannel.open(tempPath,
+          StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        writeFully(channel, header, 0);
+
+        ByteBuffer chunk = ByteBuffer.allocateDirect(WRITE_CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer chunkFloats = chunk.asFloatBuffer();
+
+        for (int i = 0; i < blocks.length; i++) {
+          for (int j = 0; j < blocks[i].length; j += chunkFloats.capacity()) {
+            int count = Math.min(chunkFloats.capacity(), blocks[i].length - j);
+            chunkFloats.clear();
+            chunkFloats.put(blocks[i], j, count);
+            chunk.clear();
+            chunk.limit(4 * count);
+            writeFully(channel, chunk, offsets[i] + 4L * j);
           }
         }
       }
 
-//      out.writeInt(zones.size());
-//      for (StructuredImportanceSampler.Zone z : zones) {
-//        z.write(out);
-//      }
+      Files.move(tempPath, data.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempPath);
+    }
+  }
+
+  /**
+   * @return The faces of the environment, the diffuse irradiance and each specular level, in the order they are stored in an .env file.
+   */
+  private float[][] getBlocks() {
+    float[][] blocks = new float[6 * (2 + SPEC_COUNT)][];
+    System.arraycopy(env, 0, blocks, 0, 6);
+    System.arraycopy(diff, 0, blocks, 6, 6);
+    for (int m = 0; m < SPEC_COUNT; m++) {
+      System.arraycopy(spec[m], 0, blocks, 6 * (2 + m), 6);
+    }
+    return blocks;
+  }
+
+  private static long align(long offset) {
+    return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of environment map file.");
+      }
+    }
+    buffer.flip();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    long start = position - buffer.position();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, start + buffer.position());
     }
   }
 
@@ -722,59 +1365,261 @@ public final class EnvironmentMap {
     }
   }
 
-  private static void convertPanorama(int side, float[][] env, Image pano) {
+  static void convertPanorama(int side, float[][] env, Image pano) {
     // assumes equirectangular projection
-    DoubleVector3 dir = DoubleVector3.ZERO;
-    double[] p = new double[2];
-    for (int i = 0; i < 6; i++) {
-      for (int y = 0; y < side; y++) {
-        for (int x = 0; x < side; x++) {
-          dir = toVectorFromCubeMap(i, x, y, side);
-          // geographic lat/lon spherical coordinates uses elevation angle from xy plane
-
-          toPanoramaCoord(dir, pano.width, pano.height, p);
-
-          double px = p[0];
-          double py = p[1];
-          double ax = px - Math.floor(px);
-          double ay = py - Math.floor(py);
-
-          int o1 =
-              3 * (int) (Math.max(0, Math.min(pano.height - 1, Math.floor(py))) * pano.width + Math
-                  .max(0, Math.min(pano.width - 1, Math.floor(px))));
-          int o2 =
-              3 * (int) (Math.max(0, Math.min(pano.height - 1, Math.floor(py))) * pano.width + Math
-                  .max(0, Math.min(pano.width - 1, Math.floor(px + 1))));
-          int o3 =
-              3 * (int) (Math.max(0, Math.min(pano.height - 1, Math.floor(py + 1))) * pano.width
-                  + Math.max(0, Math.min(pano.width - 1, Math.floor(px))));
-          int o4 =
-              3 * (int) (Math.max(0, Math.min(pano.height - 1, Math.floor(py + 1))) * pano.width
-                  + Math.max(0, Math.min(pano.width - 1, Math.floor(px + 1))));
-
-          int faceIndex = 3 * (y * side + x);
-          env[i][faceIndex] = (float) (
-              (1.0 - ay) * ((1.0 - ax) * pano.data[o1] + ax * pano.data[o2]) + ay * (
-                  (1.0 - ax) * pano.data[o3] + ax * pano.data[o4]));
-          faceIndex++;
-          o1++;
-          o2++;
-          o3++;
-          o4++;
-          env[i][faceIndex] = (float) (
-              (1.0 - ay) * ((1.0 - ax) * pano.data[o1] + ax * pano.data[o2]) + ay * (
-                  (1.0 - ax) * pano.data[o3] + ax * pano.data[o4]));
-          faceIndex++;
-          o1++;
-          o2++;
-          o3++;
-          o4++;
-          env[i][faceIndex] = (float) (
-              (1.0 - ay) * ((1.0 - ax) * pano.data[o1] + ax * pano.data[o2]) + ay * (
-                  (1.0 - ax) * pano.data[o3] + ax * pano.data[o4]));
-          faceIndex++;
+    SampleTable table = getSampleTable(true, side, pano.width, pano.height);
+
+    IntStream.range(0, 6 * side).parallel().forEach(row -> {
+      int i = row / side;
+      int y = row % side;
+      int[] offsets;
+      float[] weights;
+      int start;
+
+      if (table != null) {
+        offsets = table.offsets;
+        weights = table.weights;
+        start = row * side;
+      } else {
+        offsets = new int[side];
+        weights = new float[2 * side];
+        start = 0;
+        computePanoramaSamples(side, pano.width, pano.height, i, y, offsets, weights, 0);
+      }
+
+      for (int x = 0; x < side; x++) {
+        float ax = weights[2 * (start + x)];
+        float ay = weights[2 * (start + x) + 1];
+        int o1 = 3 * offsets[start + x];
+        int o2 = o1 + 3;
+        int o3 = o1 + 3 * pano.width;
+        int o4 = o3 + 3;
+        int faceIndex = 3 * (y * side + x);
+
+        for (int c = 0; c < 3; c++) {
+          env[i][faceIndex + c] = (1 - ay) * ((1 - ax) * pano.data[o1 + c] + ax * pano.data[o2 + c])
+              + ay * ((1 - ax) * pano.data[o3 + c] + ax * pano.data[o4 + c]);
         }
       }
+    });
+  }
+
+  /**
+   * Bilinear sampling positions for converting between a panorama and a cube map of a particular resolution.
+   * For each destination texel, stores the index of the first of the four source texels, the horizontal and vertical interpolation weights,
+   * and for a cube map source, the face to sample.
+   * Tables are expensive to compute (several inverse trigonometric functions per texel) but are reused as long as the resolution stays the same.
+   */
+  private static final class SampleTable {
+    private final int side;
+    private final int width;
+    private final int height;
+    private final int[] offsets;
+    private final float[] weights;
+    private final byte[] faces;
+
+    private SampleTable(int side, int width, int height, int sampleCount, boolean toCubeMap) {
+      this.side = side;
+      this.width = width;
+      this.height = height;
+      this.offsets = new int[sampleCount];
+      this.weights = new float[2 * sampleCount];
+      this.faces = toCubeMap ? null : new byte[sampleCount];
+    }
+
+    private boolean matches(int side, int width, int height) {
+      return this.side == side && this.width == width && this.height == height;
+    }
+  }
+
+  private static final Object SAMPLE_TABLE_LOCK = new Object();
+  private static SoftReference<SampleTable> panoramaToCubeMapTable = new SoftReference<>(null);
+  private static SoftReference<SampleTable> cubeMapToPanoramaTable = new SoftReference<>(null);
+
+  /**
+   * Gets the sample table for converting a panorama to a cube map or vice versa, building it if necessary.
+   * The most recently used table in each direction is kept until memory runs low.
+   * @return The table, or null if it would take too much memory, in which case samples should be computed on the fly.
+   */
+  private static SampleTable getSampleTable(boolean toCubeMap, int side, int width, int height) {
+    long sampleCount = toCubeMap ? 6L * side * side : (long) width * height;
+    long byteCount = sampleCount * (toCubeMap ? 12 : 13);
+
+    synchronized (SAMPLE_TABLE_LOCK) {
+      SampleTable table = (toCubeMap ? panoramaToCubeMapTable : cubeMapToPanoramaTable).get();
+      if (table != null && table.matches(side, width, height)) {
+        return table;
+      }
+
+      if (byteCount > Runtime.getRuntime().maxMemory() / 8) {
+        return null;
+      }
+
+      SampleTable newTable = new SampleTable(side, width, height, (int) sampleCount, toCubeMap);
+
+      if (toCubeMap) {
+        IntStream.range(0, 6 * side).parallel().forEach(row ->
+            computePanoramaSamples(side, width, height, row / side, row % side,
+                newTable.offsets, newTable.weights, row * side));
+        panoramaToCubeMapTable = new SoftReference<>(newTable);
+      } else {
+        double[][] panoramaAngles = getPanoramaAngles(width, height);
+        IntStream.range(0, height).parallel().forEach(y ->
+            computeCubeMapSamples(side, width, y, panoramaAngles,
+                newTable.offsets, newTable.weights, newTable.faces, y * width));
+        cubeMapToPanoramaTable = new SoftReference<>(newTable);
+      }
+
+      return newTable;
+    }
+  }
+
+  /**
+   * Discards the cached sample tables.
+   */
+  static void clearSampleTables() {
+    synchronized (SAMPLE_TABLE_LOCK) {
+      panoramaToCubeMapTable.clear();
+      cubeMapToPanoramaTable.clear();
+    }
+  }
+
+  /**
+   * Computes where each texel in one row of a cube map face samples a panorama;
+   * equivalent to toVectorFromCubeMap() followed by toPanoramaCoord().
+   */
+  private static void computePanoramaSamples(int side, int width, int height, int face, int y,
+      int[] offsets, float[] weights, int start) {
+    double[] direction = new double[3];
+
+    for (int x = 0; x < side; x++) {
+      getCubeMapDirection(face, x, y, side, direction);
+      double dx = direction[0];
+      double dy = direction[1];
+      double dz = direction[2];
+
+      // geographic lat/lon spherical coordinates uses elevation angle from xy plane
+      double lat = Math.asin(Math.max(-1.0, Math.min(1.0, dy)));
+      double lon = Math.acos(Math.max(-1.0, Math.min(1.0, dx / Math.cos(lat))));
+      if (dz < 0.0) {
+        lon = 2.0 * Math.PI - lon;
+      }
+
+      double px = (width - 1.0) * lon / (2.0 * Math.PI);
+      double py = (height - 1.0) * (lat + Math.PI / 2.0) / Math.PI;
+
+      int column = (int) Math.max(0, Math.min(width - 1, Math.floor(px)));
+      int row = (int) Math.max(0, Math.min(height - 1, Math.floor(py)));
+      float ax = (float) (px - Math.floor(px));
+      float ay = (float) (py - Math.floor(py));
+
+      // On the last column or row, sample the same texels from the other side so that the neighbor is in bounds.
+      if (column == width - 1) {
+        column--;
+        ax = 1.0f;
+      }
+      if (row == height - 1) {
+        row--;
+        ay = 1.0f;
+      }
+
+      offsets[start + x] = row * width + column;
+      weights[2 * (start + x)] = ax;
+      weights[2 * (start + x) + 1] = ay;
+    }
+  }
+
+  /**
+   * @return The cosine and sine of the longitude of each panorama column and of the latitude of each panorama row, as in toVectorFromPanorama().
+   */
+  private static double[][] getPanoramaAngles(int width, int height) {
+    double[][] angles = new double[4][];
+    angles[0] = new double[width];
+    angles[1] = new double[width];
+    angles[2] = new double[height];
+    angles[3] = new double[height];
+
+    for (int x = 0; x < width; x++) {
+      double lon = 2.0 * Math.PI * (x / (width - 1.0));
+      angles[0][x] = Math.cos(lon);
+      angles[1][x] = Math.sin(lon);
+    }
+
+    for (int y = 0; y < height; y++) {
+      double lat = Math.PI * (y / (height - 1.0)) - Math.PI / 2.0;
+      angles[2][y] = Math.cos(lat);
+      angles[3][y] = Math.sin(lat);
+    }
+
+    return angles;
+  }
+
+  /**
+   * Computes where each texel in one row of a panorama samples a cube map; equivalent to toVectorFromPanorama() followed by sample().
+   */
+  private static void computeCubeMapSamples(int side, int width, int y, double[][] panoramaAngles,
+      int[] offsets, float[] weights, byte[] faces, int start) {
+    double cosLat = panoramaAngles[2][y];
+    double sinLat = panoramaAngles[3][y];
+
+    for (int x = 0; x < width; x++) {
+      double dx = panoramaAngles[0][x] * cosLat;
+      double dy = sinLat;
+      double dz = panoramaAngles[1][x] * cosLat;
+
+      double sc;
+      double tc;
+      double ma;
+      int face;
+
+      if (Math.abs(dx) > Math.abs(dy) && Math.abs(dx) > Math.abs(dz)) {
+        if (dx >= 0.0) {
+          ma = dx;
+          sc = -dz;
+          tc = -dy;
+          face = PX;
+        } else {
+          ma = -dx;
+          sc = dz;
+          tc = -dy;
+          face = NX;
+        }
+      } else if (Math.abs(dy) > Math.abs(dx) && Math.abs(dy) > Math.abs(dz)) {
+        if (dy >= 0) {
+          ma = dy;
+          sc = dx;
+          tc = dz;
+          face = PY;
+        } else {
+          ma = -dy;
+          sc = dx;
+          tc = -dz;
+          face = NY;
+        }
+      } else {
+        if (dz >= 0) {
+          ma = dz;
+          sc = dx;
+          tc = -dy;
+          face = PZ;
+        } else {
+          ma = -dz;
+          sc = -dx;
+          tc = -dy;
+          face = NZ;
+        }
+      }
+
+      double s = Math.max(0.0, Math.min(0.5 * (sc / ma + 1.0) * side, side - 2));
+      double t = Math.max(0.0, Math.min(0.5 * (tc / ma + 1.0) * side, side - 2));
+
+      int column = (int) Math.floor(s);
+      int row = (int) Math.floor(t);
+
+      offsets[start + x] = row * side + column;
+      weights[2 * (start + x)] = (float) (s - column);
+      weights[2 * (start + x) + 1] = (float) (t - row);
+      faces[start + x] = (byte) face;
     }
   }
 
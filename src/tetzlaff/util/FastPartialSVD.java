@@ -15,9 +15,14 @@ package tetzlaff.util;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 import org.ejml.data.FMatrix;
 import org.ejml.data.FMatrixRMaj;
+import org.ejml.dense.row.SingularOps_FDRM;
+import org.ejml.dense.row.factory.DecompositionFactory_FDRM;
+import org.ejml.interfaces.decomposition.SingularValueDecomposition_F32;
 import org.ejml.simple.SimpleMatrix;
 
 import static org.ejml.dense.row.CommonOps_FDRM.*;
@@ -25,9 +30,32 @@ import static org.ejml.dense.row.CommonOps_FDRM.*;
 /**
  * Fast SVD using power iterations for when only a few singular values are needed.
  * Fairly standard algorithm; implemented using the appendix of Chen et al., "Light Field Mapping" for reference.
+ * computeRandomized() instead finds all of the singular vectors at once using a randomized range finder with block power iterations
+ * (Halko, Martinsson and Tropp, "Finding Structure with Randomness", algorithms 4.4 and 5.1).
  */
 public final class FastPartialSVD
 {
+    public static final int DEFAULT_OVERSAMPLING = 8;
+
+    /**
+     * For blocks like those in the SVD export (1024 x 384, 16 singular values), one power iteration brings the residual
+     * to within 0.01% of the optimal rank 16 residual, for singular values decaying by factors from 0.7 to 0.95 and with noise;
+     * more iterations make no measurable difference, while none leaves a residual up to 13% larger than optimal.
+     * (FastPartialSVDTest checks this.)
+     */
+    public static final int DEFAULT_POWER_ITERATIONS = 1;
+
+    /**
+     * The number of rows of the output computed by each task in the matrix products used by computeRandomized().
+     */
+    private static final int PRODUCT_BLOCK_SIZE = 64;
+
+    /**
+     * Trial vectors that shrink by more than this factor when orthogonalized against the previous ones are considered to be
+     * linearly dependent (i.e. the matrix has a lower rank than the number of trial vectors) and are dropped.
+     */
+    private static final double RANK_TOLERANCE = 1.0e-5;
+
     private final SimpleMatrix matrix;
     private int singularValueCount;
     private final float tolerance;
@@ -39,6 +67,11 @@ public final class FastPartialSVD
     private final SimpleMatrix v;
     private final float[] singularValues;
 
+    /**
+     * The residual after subtracting the partial SVD, or null if it hasn't been calculated.
+     */
+    private SimpleMatrix error;
+
     public static FastPartialSVD compute(SimpleMatrix matrix, int singularValueCount)
     {
         return compute(matrix, singularValueCount, Math.ulp(1.0f), 1000, 3);
@@ -51,6 +84,42 @@ public final class FastPartialSVD
         return svd;
     }
 
+    /**
+     * Computes a partial SVD using a randomized range finder, which multiplies the matrix by all of the trial vectors at once
+     * rather than iterating on one singular vector at a time.
+     * Uses the default oversampling and number of power iterations, a fixed seed, and a single thread,
+     * and replaces the matrix with the residual like compute() does.
+     * @param matrix The matrix to decompose.
+     * @param singularValueCount The number of singular values to find.
+     * @return The partial SVD.
+     */
+    public static FastPartialSVD computeRandomized(SimpleMatrix matrix, int singularValueCount)
+    {
+        return computeRandomized(matrix, singularValueCount, DEFAULT_OVERSAMPLING, DEFAULT_POWER_ITERATIONS, 0L, true, false);
+    }
+
+    /**
+     * Computes a partial SVD using a randomized range finder, which multiplies the matrix by all of the trial vectors at once
+     * rather than iterating on one singular vector at a time.
+     * @param matrix The matrix to decompose.
+     * @param singularValueCount The number of singular values to find.
+     * @param oversampling The number of extra trial vectors beyond the number of singular values, which improves accuracy.
+     * @param powerIterations The number of times to multiply the trial vectors by M'M, which improves accuracy
+     *                        when the singular values decay slowly.
+     * @param seed The seed for the random trial vectors, so that results are reproducible.
+     * @param inPlace If true, the matrix is replaced with the residual (as with compute()); if false, the matrix is left unmodified
+     *                and getError() calculates the residual separately.
+     * @param parallel Whether to split the matrix products across threads.
+     * @return The partial SVD.
+     */
+    public static FastPartialSVD computeRandomized(SimpleMatrix matrix, int singularValueCount, int oversampling, int powerIterations,
+        long seed, boolean inPlace, boolean parallel)
+    {
+        FastPartialSVD svd = new FastPartialSVD(matrix, singularValueCount, 0.0f, 0, 0);
+        svd.computeRandomized(oversampling, powerIterations, seed, inPlace, parallel);
+        return svd;
+    }
+
     public SimpleMatrix getU()
     {
         return transpose ? v : u;
@@ -63,7 +132,14 @@ public final class FastPartialSVD
 
     public SimpleMatrix getError()
     {
-        return this.matrix;
+        if (error == null)
+        {
+            // Non-destructive randomized SVD; calculate the residual on demand.
+            error = matrix.copy();
+            subtractApproximation(error.getMatrix(), false);
+        }
+
+        return error;
     }
 
     public float[] getSingularValues()
@@ -87,8 +163,33 @@ public final class FastPartialSVD
         this.singularValues = new float[singularValueCount];
     }
 
+    /**
+     * Subtracts U * S * V' from a matrix with the same shape as the original (using the first singularValueCount singular values).
+     */
+    private void subtractApproximation(FMatrixRMaj target, boolean parallel)
+    {
+        // Scale the columns of U by the singular values.
+        FMatrixRMaj uScaled = u.getMatrix().copy();
+        for (int i = 0; i < uScaled.numRows; i++)
+        {
+            for (int k = 0; k < uScaled.numCols; k++)
+            {
+                uScaled.unsafe_set(i, k, k < singularValueCount ? uScaled.unsafe_get(i, k) * singularValues[k] : 0.0f);
+            }
+        }
+
+        FMatrixRMaj left = transpose ? v.getMatrix() : uScaled;
+        FMatrixRMaj right = transpose ? uScaled : v.getMatrix();
+
+        FMatrixRMaj approximation = new FMatrixRMaj(target.numRows, target.numCols);
+        multiply(left, transpose(right, null), approximation, parallel);
+        subtractEquals(target, approximation);
+    }
+
     private void compute()
     {
+        this.error = this.matrix;
+
         if (this.matrix != null)
         {
             Random random = new SecureRandom();
@@ -213,4 +314,277 @@ public final class FastPartialSVD
             }
         }
     }
+
+    private void computeRandomized(int oversampling, int powerIterations, long seed, boolean inPlace, boolean parallel)
+    {
+        FMatrixRMaj m = matrix.getMatrix();
+
+        // Work with A = M, or A = M' if M is wide, so that A is m x n with m >= n.
+        int rowCount = u.numRows();
+        int columnCount = v.numRows();
+        int sampleCount = Math.min(singularValueCount + oversampling, columnCount);
+
+        // Random trial vectors (n x l).
+        SplittableRandom random = new SplittableRandom(seed);
+        FMatrixRMaj omega = new FMatrixRMaj(columnCount, sampleCount);
+        for (int i = 0; i < omega.data.length; i++)
+        {
+            omega.data[i] = (float)random.nextDouble(-1.0, 1.0);
+        }
+
+        FMatrixRMaj rangeBasis = new FMatrixRMaj(rowCount, sampleCount); // Q (m x l)
+        FMatrixRMaj corangeBasis = new FMatrixRMaj(columnCount, sampleCount); // n x l
+
+        // Y = A * omega; Q = orth(Y)
+        multiplyA(m, omega, rangeBasis, parallel);
+        orthonormalize(rangeBasis);
+
+        for (int i = 0; i < powerIterations; i++)
+        {
+            // Re-orthonormalize after every product so that the smaller singular values aren't lost to round-off.
+            multiplyATranspose(m, rangeBasis, corangeBasis, parallel);
+            orthonormalize(corangeBasis);
+            multiplyA(m, corangeBasis, rangeBasis, parallel);
+            orthonormalize(rangeBasis);
+        }
+
+        // B' = A' * Q (n x l); if B' = W * S * Z', then A ~= Q * B = (Q * Z) * S * W'
+        multiplyATranspose(m, rangeBasis, corangeBasis, parallel);
+
+        SingularValueDecomposition_F32<FMatrixRMaj> smallSVD = DecompositionFactory_FDRM.svd(columnCount, sampleCount, true, true, true);
+        if (!smallSVD.decompose(corangeBasis))
+        {
+            throw new RuntimeException("SVD of the projected matrix failed.");
+        }
+
+        FMatrixRMaj w = smallSVD.getU(null, false);
+        FMatrixRMaj s = smallSVD.getW(null);
+        FMatrixRMaj z = smallSVD.getV(null, false);
+        SingularOps_FDRM.descendingOrder(w, false, s, z, false);
+
+        int foundCount = Math.min(singularValueCount, sampleCount);
+        FMatrixRMaj uSmall = new FMatrixRMaj(rowCount, foundCount);
+        multiply(rangeBasis, extract(z, 0, sampleCount, 0, foundCount), uSmall, parallel);
+
+        FMatrixRMaj uMatrix = u.getMatrix();
+        FMatrixRMaj vMatrix = v.getMatrix();
+
+        for (int k = 0; k < foundCount; k++)
+        {
+            singularValues[k] = s.get(k, k);
+
+            for (int i = 0; i < rowCount; i++)
+            {
+                uMatrix.unsafe_set(i, k, uSmall.unsafe_get(i, k));
+            }
+
+            for (int i = 0; i < columnCount; i++)
+            {
+                vMatrix.unsafe_set(i, k, w.unsafe_get(i, k));
+            }
+        }
+
+        // Like compute(), stop at the first singular value of zero.
+        singularValueCount = foundCount;
+        for (int k = 0; k < foundCount; k++)
+        {
+            if (singularValues[k] == 0.0f)
+            {
+                singularValueCount = k;
+                break;
+            }
+        }
+
+        if (inPlace)
+        {
+            subtractApproximation(m, parallel);
+            error = matrix;
+        }
+    }
+
+    /**
+     * Orthonormalizes the columns of a matrix in place using Gram-Schmidt with reorthogonalization, in double precision.
+     * Columns that are linearly dependent on the previous columns are set to zero, so this works for matrices that aren't full rank.
+     */
+    private static void orthonormalize(FMatrixRMaj basis)
+    {
+        int rowCount = basis.numRows;
+        int columnCount = basis.numCols;
+
+        // Transpose so that each column is contiguous.
+        double[] columns = new double[rowCount * columnCount];
+        for (int i = 0; i < rowCount; i++)
+        {
+            for (int j = 0; j < columnCount; j++)
+            {
+                columns[j * rowCount + i] = basis.data[i * columnCount + j];
+            }
+        }
+
+        for (int j = 0; j < columnCount; j++)
+        {
+            int start = j * rowCount;
+            double originalNorm = Math.sqrt(dotColumns(columns, start, start, rowCount));
+
+            // Orthogonalizing twice is enough to preserve orthogonality in finite precision.
+            for (int pass = 0; pass < 2; pass++)
+            {
+                for (int k = 0; k < j; k++)
+                {
+                    int previousStart = k * rowCount;
+                    double projection = dotColumns(columns, previousStart, start, rowCount);
+                    for (int i = 0; i < rowCount; i++)
+                    {
+                        columns[start + i] -= projection * columns[previousStart + i];
+                    }
+                }
+            }
+
+            double norm = Math.sqrt(dotColumns(columns, start, start, rowCount));
+            double scale = norm > originalNorm * RANK_TOLERANCE ? 1.0 / norm : 0.0;
+            for (int i = 0; i < rowCount; i++)
+            {
+                columns[start + i] *= scale;
+            }
+        }
+
+        for (int i = 0; i < rowCount; i++)
+        {
+            for (int j = 0; j < columnCount; j++)
+            {
+                basis.data[i * columnCount + j] = (float)columns[j * rowCount + i];
+            }
+        }
+    }
+
+    private static double dotColumns(double[] columns, int start1, int start2, int length)
+    {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++)
+        {
+            sum += columns[start1 + i] * columns[start2 + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates A * x, where A is the matrix being decomposed (or its transpose, if it is wider than it is tall).
+     */
+    private void multiplyA(FMatrixRMaj m, FMatrixRMaj x, FMatrixRMaj result, boolean parallel)
+    {
+        if (transpose)
+        {
+            multiplyTransposeA(m, x, result, parallel);
+        }
+        else
+        {
+            multiply(m, x, result, parallel);
+        }
+    }
+
+    /**
+     * Calculates A' * x, where A is the matrix being decomposed (or its transpose, if it is wider than it is tall).
+     */
+    private void multiplyATranspose(FMatrixRMaj m, FMatrixRMaj x, FMatrixRMaj result, boolean parallel)
+    {
+        if (transpose)
+        {
+            multiply(m, x, result, parallel);
+        }
+        else
+        {
+            multiplyTransposeA(m, x, result, parallel);
+        }
+    }
+
+    /**
+     * result = a * b, split into blocks of rows of the result.
+     */
+    private static void multiply(FMatrixRMaj a, FMatrixRMaj b, FMatrixRMaj result, boolean parallel)
+    {
+        IntStream blocks = IntStream.range(0, (a.numRows + PRODUCT_BLOCK_SIZE - 1) / PRODUCT_BLOCK_SIZE);
+        (parallel ? blocks.parallel() : blocks).forEach(block ->
+            combineRows(a.data, a.numCols, 1, a.numCols, b, result,
+                block * PRODUCT_BLOCK_SIZE, Math.min(a.numRows, (block + 1) * PRODUCT_BLOCK_SIZE)));
+    }
+
+    /**
+     * result = a' * b, split into blocks of rows of the result (columns of a).
+     */
+    private static void multiplyTransposeA(FMatrixRMaj a, FMatrixRMaj b, FMatrixRMaj result, boolean parallel)
+    {
+        IntStream blocks = IntStream.range(0, (a.numCols + PRODUCT_BLOCK_SIZE - 1) / PRODUCT_BLOCK_SIZE);
+        (parallel ? blocks.parallel() : blocks).forEach(block ->
+            combineRows(a.data, 1, a.numCols, a.numRows, b, result,
+                block * PRODUCT_BLOCK_SIZE, Math.min(a.numCols, (block + 1) * PRODUCT_BLOCK_SIZE)));
+    }
+
+    /**
+     * Calculates rows of a product where each row of the result is a linear combination of the rows of b:
+     * result[i] = sum over k of coefficients[i * rowStride + k * innerStride] * b[k].
+     * Four rows are calculated at a time in local accumulators so that each row of b is loaded once for all four,
+     * and the inner loop runs along rows so that it can be vectorized.
+     */
+    private static void combineRows(float[] coefficients, int rowStride, int innerStride, int innerCount, FMatrixRMaj b, FMatrixRMaj result,
+        int startRow, int endRow)
+    {
+        int width = b.numCols;
+        float[] bData = b.data;
+
+        float[] sum0 = new float[width];
+        float[] sum1 = new float[width];
+        float[] sum2 = new float[width];
+        float[] sum3 = new float[width];
+
+        int i = startRow;
+        for (; i + 3 < endRow; i += 4)
+        {
+            Arrays.fill(sum0, 0.0f);
+            Arrays.fill(sum1, 0.0f);
+            Arrays.fill(sum2, 0.0f);
+            Arrays.fill(sum3, 0.0f);
+
+            for (int k = 0; k < innerCount; k++)
+            {
+                int coefficientIndex = i * rowStride + k * innerStride;
+                float c0 = coefficients[coefficientIndex];
+                float c1 = coefficients[coefficientIndex + rowStride];
+                float c2 = coefficients[coefficientIndex + 2 * rowStride];
+                float c3 = coefficients[coefficientIndex + 3 * rowStride];
+
+                int bStart = k * width;
+                for (int j = 0; j < width; j++)
+                {
+                    float bValue = bData[bStart + j];
+                    sum0[j] += c0 * bValue;
+                    sum1[j] += c1 * bValue;
+                    sum2[j] += c2 * bValue;
+                    sum3[j] += c3 * bValue;
+                }
+            }
+
+            System.arraycopy(sum0, 0, result.data, i * width, width);
+            System.arraycopy(sum1, 0, result.data, (i + 1) * width, width);
+            System.arraycopy(sum2, 0, result.data, (i + 2) * width, width);
+            System.arraycopy(sum3, 0, result.data, (i + 3) * width, width);
+        }
+
+        // Remaining rows
+        for (; i < endRow; i++)
+        {
+            Arrays.fill(sum0, 0.0f);
+
+            for (int k = 0; k < innerCount; k++)
+            {
+                float c0 = coefficients[i * rowStride + k * innerStride];
+                int bStart = k * width;
+                for (int j = 0; j < width; j++)
+                {
+                    sum0[j] += c0 * bData[bStart + j];
+                }
+            }
+
+            System.arraycopy(sum0, 0, result.data, i * width, width);
+        }
+    }
 }
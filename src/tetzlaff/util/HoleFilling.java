@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Fills the holes in a texture map (texels with no valid data, such as the gaps between UV charts)
+ * with the value of the nearest valid texel in Euclidean distance.
+ * The nearest valid texels are found with an exact distance transform (Felzenszwalb and Huttenlocher 2012):
+ * a pass down each column followed by a lower envelope of parabolas along each row,
+ * so the cost is linear in the number of texels no matter how large the holes are.
+ */
+public final class HoleFilling
+{
+    /**
+     * The number of columns swept together in the column pass, so that each row of the strip is read contiguously.
+     */
+    private static final int STRIP_WIDTH = 64;
+
+    /**
+     * The number of rows handled by each task in the row pass, which share the same scratch arrays.
+     */
+    private static final int ROWS_PER_TASK = 16;
+
+    /**
+     * Finds the nearest valid texel to every texel in a row-major texture map.
+     * The validity test is called exactly once for each texel, possibly from several threads at once.
+     * @param width The width of the texture map.
+     * @param height The height of the texture map.
+     * @param valid Whether the texel at a given index has valid data.
+     * @return The index of the nearest valid texel for each texel (its own index if it is valid),
+     * or -1 for every texel if there are no valid texels at all.
+     */
+    public static int[] findNearestValidTexels(int width, int height, IntPredicate valid)
+    {
+        int[] nearest = new int[width * height];
+
+        if (nearest.length == 0)
+        {
+            return nearest;
+        }
+
+        // Column pass: the nearest valid row within the same column, or -1 if the column has no valid texels.
+        IntStream.range(0, (width + STRIP_WIDTH - 1) / STRIP_WIDTH).parallel().forEach(strip ->
+        {
+            int start = strip * STRIP_WIDTH;
+            int end = Math.min(width, start + STRIP_WIDTH);
+
+            for (int x = start; x < end; x++)
+            {
+                nearest[x] = valid.test(x) ? 0 : -1;
+            }
+
+            for (int y = 1; y < height; y++)
+            {
+                for (int x = start; x < end; x++)
+                {
+                    int index = y * width + x;
+                    nearest[index] = valid.test(index) ? y : nearest[index - width];
+                }
+            }
+
+            for (int y = height - 2; y >= 0; y--)
+            {
+                for (int x = start; x < end; x++)
+                {
+                    int index = y * width + x;
+                    int below = nearest[index + width];
+
+                    // Take the valid texel below if there is none above, or if it is closer.
+                    if (below > y && (nearest[index] < 0 || below - y < y - nearest[index]))
+                    {
+                        nearest[index] = below;
+                    }
+                }
+            }
+        });
+
+        // Row pass: for each texel, the column whose nearest valid texel is closest overall.
+        IntStream.range(0, (height + ROWS_PER_TASK - 1) / ROWS_PER_TASK).parallel().forEach(task ->
+        {
+            int[] rowCopy = new int[width];
+            int[] envelopeColumns = new int[width];
+            double[] envelopeBoundaries = new double[width + 1];
+
+            for (int y = task * ROWS_PER_TASK; y < Math.min(height, (task + 1) * ROWS_PER_TASK); y++)
+            {
+                System.arraycopy(nearest, y * width, rowCopy, 0, width);
+                fillRow(y, width, rowCopy, envelopeColumns, envelopeBoundaries, nearest);
+            }
+        });
+
+        return nearest;
+    }
+
+    private static void fillRow(int y, int width, int[] nearestRows, int[] envelopeColumns, double[] envelopeBoundaries, int[] nearest)
+    {
+        // Each column with a valid texel contributes the parabola (x - column)^2 + (y - nearestRow)^2.
+        // Build the lower envelope of those parabolas from left to right.
+        int envelopeSize = 0;
+
+        for (int column = 0; column < width; column++)
+        {
+            if (nearestRows[column] >= 0)
+            {
+                double offset = getParabolaOffset(y, nearestRows, column);
+
+                while (envelopeSize > 0)
+                {
+                    int previous = envelopeColumns[envelopeSize - 1];
+                    double intersection = (offset - getParabolaOffset(y, nearestRows, previous)) / (2.0 * (column - previous));
+
+                    if (intersection > envelopeBoundaries[envelopeSize - 1])
+                    {
+                        envelopeColumns[envelopeSize] = column;
+                        envelopeBoundaries[envelopeSize] = intersection;
+                        envelopeSize++;
+                        break;
+                    }
+                    else
+                    {
+                        envelopeSize--;
+                    }
+                }
+
+                if (envelopeSize == 0)
+                {
+                    envelopeColumns[0] = column;
+                    envelopeBoundaries[0] = Double.NEGATIVE_INFINITY;
+                    envelopeSize = 1;
+                }
+            }
+        }
+
+        if (envelopeSize == 0)
+        {
+            // No valid texels anywhere, since every column was empty.
+            for (int x = 0; x < width; x++)
+            {
+                nearest[y * width + x] = -1;
+            }
+        }
+        else
+        {
+            envelopeBoundaries[envelopeSize] = Double.POSITIVE_INFINITY;
+
+            int k = 0;
+            for (int x = 0; x < width; x++)
+            {
+                while (envelopeBoundaries[k + 1] < x)
+                {
+                    k++;
+                }
+
+                int column = envelopeColumns[k];
+                nearest[y * width + x] = nearestRows[column] * width + column;
+            }
+        }
+    }
+
+    /**
+     * The height of a column's parabola plus the square of its position, which is all that is needed to intersect two parabolas.
+     */
+    private static double getParabolaOffset(int y, int[] nearestRows, int column)
+    {
+        double verticalDistance = y - nearestRows[column];
+        return verticalDistance * verticalDistance + (double) column * column;
+    }
+}
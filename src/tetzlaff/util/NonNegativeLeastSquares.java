@@ -16,6 +16,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.IntStream;
 
+import org.ejml.data.DMatrixRMaj;
 import org.ejml.data.SingularMatrixException;
 import org.ejml.dense.row.CommonOps_DDRM;
 import org.ejml.simple.SimpleMatrix;
@@ -133,9 +134,32 @@ public final class NonNegativeLeastSquares
      *                        then it is assumed that the first n-k rows and columns are the premultiplied matrix A'A,
      *                        and the final k rows and columns are where the constraints are provided.
      * @return The non-negative least squares solution, augmented with the Lagrange multipliers for the equality constraints.
+     * If the system becomes singular and is still singular after backing out the last variable added to the passive set
+     * (for example, if A'A is zero), this returns all zeros, which will not satisfy the equality constraints.
+     * (Non-square or non-DMatrixRMaj systems, which use the original LU implementation, throw a SingularMatrixException instead.)
      */
     public static SimpleMatrix solvePremultipliedWithEqualityConstraints(
         SimpleMatrix augmentedATA, SimpleMatrix augmentedATb, double epsilon, int constraintCount)
+    {
+        if (augmentedATA.getMatrix() instanceof DMatrixRMaj && augmentedATb.getMatrix() instanceof DMatrixRMaj
+            && augmentedATA.numCols() == augmentedATA.numRows())
+        {
+            // To solve many problems of the same size, create a NonNegativeLeastSquaresSolver once and reuse it instead.
+            return new NonNegativeLeastSquaresSolver(augmentedATA.numRows() - constraintCount, constraintCount)
+                .solve(augmentedATA, augmentedATb, epsilon);
+        }
+        else
+        {
+            return solvePremultipliedWithEqualityConstraintsUsingLU(augmentedATA, augmentedATb, epsilon, constraintCount);
+        }
+    }
+
+    /**
+     * This is the original implementation, which solves each passive subproblem from scratch with an LU decomposition.
+     * It is used for matrices that are not double precision, and is retained as a reference for validation and benchmarking.
+     */
+    static SimpleMatrix solvePremultipliedWithEqualityConstraintsUsingLU(
+        SimpleMatrix augmentedATA, SimpleMatrix augmentedATb, double epsilon, int constraintCount)
     {
         if (augmentedATA.numCols() != augmentedATA.numRows())
         {
@@ -0,0 +1,558 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package tetzlaff.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A large set of small non-negative least squares problems of the same size in premultiplied form (A'A x = A'b),
+ * such as the per-texel weight problems in the Nam 2018 fit.
+ * Each problem's augmented matrix is symmetric, so only its upper triangle is stored, packed row by row.
+ * The matrices, right-hand sides and solutions are each stored contiguously, one problem after another,
+ * either on the Java heap, in direct buffers off the heap, or in a memory-mapped file for problem sets too large to fit in memory.
+ * The storage is split into chunks of whole problems so that no single array or buffer exceeds 1 GB.
+ * Problems can be updated concurrently as long as no two threads update the same problem at the same time.
+ * Closing the batch releases its storage (including any file mapping) immediately, rather than waiting for garbage collection.
+ */
+public final class NonNegativeLeastSquaresBatch implements AutoCloseable
+{
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    /**
+     * The number of problems solved by each task in solve().
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    private final int problemCount;
+    private final int variableCount;
+    private final int constraintCount;
+
+    /**
+     * The number of rows and columns in each augmented matrix (variables plus constraints).
+     */
+    private final int size;
+
+    /**
+     * The number of elements stored for each matrix: size * (size + 1) / 2.
+     */
+    private final int triangleSize;
+
+    private final int chunkShift;
+    private final int chunkMask;
+
+    private final Store matrices;
+    private final Store vectors;
+    private final Store solutions;
+
+    private NonNegativeLeastSquaresBatch(int problemCount, int variableCount, int constraintCount, StoreFactory storeFactory) throws IOException
+    {
+        this.problemCount = problemCount;
+        this.variableCount = variableCount;
+        this.constraintCount = constraintCount;
+        this.size = variableCount + constraintCount;
+        this.triangleSize = size * (size + 1) / 2;
+
+        // Largest power of two number of problems that fits in a chunk.
+        int problemsPerChunk = Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE, MAX_CHUNK_BYTES / (triangleSize * Double.BYTES)));
+        this.chunkShift = Integer.numberOfTrailingZeros(problemsPerChunk);
+        this.chunkMask = problemsPerChunk - 1;
+
+        int chunkCount = (problemCount + problemsPerChunk - 1) / problemsPerChunk;
+        int[] chunkProblemCounts = new int[chunkCount];
+        for (int i = 0; i < chunkCount; i++)
+        {
+            chunkProblemCounts[i] = Math.min(problemsPerChunk, problemCount - i * problemsPerChunk);
+        }
+
+        this.matrices = storeFactory.create(chunkProblemCounts, triangleSize);
+        this.vectors = storeFactory.create(chunkProblemCounts, size);
+        this.solutions = storeFactory.create(chunkProblemCounts, size);
+    }
+
+    /**
+     * Creates a batch of problems stored in arrays on the Java heap.  All elements are initially zero.
+     * @param problemCount The number of problems.
+     * @param variableCount The number of variables in each problem, not including constraints.
+     * @param constraintCount The number of equality constraints appended to each problem.
+     * @return The new batch.
+     */
+    public static NonNegativeLeastSquaresBatch createOnHeap(int problemCount, int variableCount, int constraintCount)
+    {
+        try
+        {
+            return new NonNegativeLeastSquaresBatch(problemCount, variableCount, constraintCount, ArrayStore::new);
+        }
+        catch (IOException e)
+        {
+            // Not possible for heap storage.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a batch of problems stored in direct buffers outside of the Java heap.  All elements are initially zero.
+     * @param problemCount The number of problems.
+     * @param variableCount The number of variables in each problem, not including constraints.
+     * @param constraintCount The number of equality constraints appended to each problem.
+     * @return The new batch.
+     */
+    public static NonNegativeLeastSquaresBatch createOffHeap(int problemCount, int variableCount, int constraintCount)
+    {
+        try
+        {
+            return new NonNegativeLeastSquaresBatch(problemCount, variableCount, constraintCount,
+                (chunkProblemCounts, stride) -> new BufferStore(chunkProblemCounts, stride, ByteBuffer::allocateDirect));
+        }
+        catch (IOException e)
+        {
+            // Not possible for off-heap storage.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a batch of problems stored in a memory-mapped file, so that the operating system can page the problems
+     * to and from disk as they are used.  Any existing contents of the file are discarded and all elements are initially zero.
+     * The file remains mapped until the batch is closed; the caller is responsible for deleting it afterwards.
+     * @param problemCount The number of problems.
+     * @param variableCount The number of variables in each problem, not including constraints.
+     * @param constraintCount The number of equality constraints appended to each problem.
+     * @param file The file in which to store the problems.
+     * @return The new batch.
+     * @throws IOException If the file could not be created or mapped.
+     */
+    public static NonNegativeLeastSquaresBatch createMemoryMapped(int problemCount, int variableCount, int constraintCount, File file)
+        throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            long[] position = { 0 };
+
+            // Mappings remain valid after the channel is closed.
+            return new NonNegativeLeastSquaresBatch(problemCount, variableCount, constraintCount,
+                (chunkProblemCounts, stride) -> new BufferStore(chunkProblemCounts, stride, byteCount ->
+                {
+                    ByteBuffer buffer = channel.map(MapMode.READ_WRITE, position[0], byteCount);
+                    position[0] += byteCount;
+                    return buffer;
+                }));
+        }
+    }
+
+    /**
+     * Gets the total number of bytes needed to store a batch of problems, which can be used to choose between the storage options.
+     * @param problemCount The number of problems.
+     * @param variableCount The number of variables in each problem, not including constraints.
+     * @param constraintCount The number of equality constraints appended to each problem.
+     * @return The number of bytes.
+     */
+    public static long getByteCount(int problemCount, int variableCount, int constraintCount)
+    {
+        int size = variableCount + constraintCount;
+        return (long) problemCount * (size * (size + 1) / 2 + 2 * size) * Double.BYTES;
+    }
+
+    public int getProblemCount()
+    {
+        return problemCount;
+    }
+
+    public int getVariableCount()
+    {
+        return variableCount;
+    }
+
+    public int getConstraintCount()
+    {
+        return constraintCount;
+    }
+
+    /**
+     * Gets the position of an element of the upper triangle within a packed matrix.
+     * @param size The number of rows and columns in the matrix.
+     * @param row The row, which must be less than or equal to the column.
+     * @param column The column.
+     * @return The index within the packed upper triangle.
+     */
+    public static int getTriangleIndex(int size, int row, int column)
+    {
+        return row * (2 * size - row - 1) / 2 + column;
+    }
+
+    private int getMatrixIndex(int problem, int row, int column)
+    {
+        int offset = (problem & chunkMask) * triangleSize;
+        return row <= column ? offset + getTriangleIndex(size, row, column) : offset + getTriangleIndex(size, column, row);
+    }
+
+    public double getMatrixElement(int problem, int row, int column)
+    {
+        return matrices.get(problem >>> chunkShift, getMatrixIndex(problem, row, column));
+    }
+
+    public void setMatrixElement(int problem, int row, int column, double value)
+    {
+        matrices.set(problem >>> chunkShift, getMatrixIndex(problem, row, column), value);
+    }
+
+    public void addToMatrixElement(int problem, int row, int column, double value)
+    {
+        matrices.add(problem >>> chunkShift, getMatrixIndex(problem, row, column), value);
+    }
+
+    /**
+     * Adds a packed upper triangle (as laid out by getTriangleIndex()) to the matrix for a problem.
+     * @param problem The problem to update.
+     * @param triangle The values to add; must have at least size * (size + 1) / 2 elements.
+     */
+    public void addToMatrix(int problem, double[] triangle)
+    {
+        matrices.add(problem >>> chunkShift, (problem & chunkMask) * triangleSize, triangle, triangleSize);
+    }
+
+    public double getVectorElement(int problem, int index)
+    {
+        return vectors.get(problem >>> chunkShift, (problem & chunkMask) * size + index);
+    }
+
+    public void setVectorElement(int problem, int index, double value)
+    {
+        vectors.set(problem >>> chunkShift, (problem & chunkMask) * size + index, value);
+    }
+
+    public void addToVectorElement(int problem, int index, double value)
+    {
+        vectors.add(problem >>> chunkShift, (problem & chunkMask) * size + index, value);
+    }
+
+    /**
+     * Adds to the first elements of the right-hand side for a problem.
+     * @param problem The problem to update.
+     * @param values The values to add; the number of elements updated is the length of this array.
+     */
+    public void addToVector(int problem, double[] values)
+    {
+        vectors.add(problem >>> chunkShift, (problem & chunkMask) * size, values, values.length);
+    }
+
+    public double getSolutionElement(int problem, int index)
+    {
+        return solutions.get(problem >>> chunkShift, (problem & chunkMask) * size + index);
+    }
+
+    public void setSolutionElement(int problem, int index, double value)
+    {
+        solutions.set(problem >>> chunkShift, (problem & chunkMask) * size + index, value);
+    }
+
+    /**
+     * Copies the solution for a problem (the variables followed by a Lagrange multiplier for each constraint).
+     * @param problem The problem.
+     * @param destination The array to copy into; the number of elements copied is the length of this array.
+     */
+    public void getSolution(int problem, double[] destination)
+    {
+        solutions.get(problem >>> chunkShift, (problem & chunkMask) * size, destination, destination.length);
+    }
+
+    /**
+     * Sets every element of the solution for a problem to zero.
+     * @param problem The problem.
+     */
+    public void clearSolution(int problem)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            setSolutionElement(problem, i, 0.0);
+        }
+    }
+
+    /**
+     * Solves every problem in parallel, replacing the stored solutions.
+     * The tolerance for each problem is the specified scale times the median of its right-hand side,
+     * or the first positive value after the median if the median isn't positive.
+     * @param mask Which problems to solve; problems that are masked out keep their previous solutions.  May be null to solve every problem.
+     * @param toleranceScale The tolerance for each problem, relative to its right-hand side.
+     */
+    public void solve(boolean[] mask, double toleranceScale)
+    {
+        if (mask != null && mask.length < problemCount)
+        {
+            throw new IllegalArgumentException("Mask is too small for " + problemCount + " problems.");
+        }
+
+        int blockCount = (problemCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+        IntStream.range(0, blockCount).parallel().forEach(block ->
+        {
+            NonNegativeLeastSquaresSolver solver = new NonNegativeLeastSquaresSolver(variableCount, constraintCount);
+            double[] triangle = new double[triangleSize];
+            double[] mATA = new double[size * size];
+            double[] vATb = new double[size];
+            double[] sortedATb = new double[size];
+            double[] solution = new double[size];
+
+            int end = Math.min(problemCount, (block + 1) * BLOCK_SIZE);
+            for (int p = block * BLOCK_SIZE; p < end; p++)
+            {
+                if (mask == null || mask[p])
+                {
+                    int chunk = p >>> chunkShift;
+                    int problemInChunk = p & chunkMask;
+
+                    // Unpack the upper triangle into a full matrix for the solver.
+                    matrices.get(chunk, problemInChunk * triangleSize, triangle, triangleSize);
+                    int k = 0;
+                    for (int row = 0; row < size; row++)
+                    {
+                        for (int column = row; column < size; column++)
+                        {
+                            mATA[row * size + column] = triangle[k];
+                            mATA[column * size + row] = triangle[k];
+                            k++;
+                        }
+                    }
+
+                    vectors.get(chunk, problemInChunk * size, vATb, size);
+                    System.arraycopy(vATb, 0, sortedATb, 0, size);
+                    double tolerance = toleranceScale * NonNegativeLeastSquaresSolver.medianForTolerance(sortedATb);
+
+                    solver.solve(mATA, 0, vATb, 0, tolerance, solution, 0);
+                    solutions.set(chunk, problemInChunk * size, solution, size);
+                }
+            }
+        });
+    }
+
+    /**
+     * Releases the storage for all of the problems.  For a memory-mapped batch, this unmaps the file so that it can be deleted.
+     * The batch must not be used after it has been closed.
+     */
+    @Override
+    public void close()
+    {
+        matrices.release();
+        vectors.release();
+        solutions.release();
+    }
+
+    @FunctionalInterface
+    private interface StoreFactory
+    {
+        Store create(int[] chunkProblemCounts, int stride) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface BufferAllocator
+    {
+        ByteBuffer allocate(int byteCount) throws IOException;
+    }
+
+    /**
+     * Chunked storage for one kind of per-problem data, addressed by chunk and index within the chunk.
+     */
+    private abstract static class Store
+    {
+        abstract double get(int chunk, int index);
+        abstract void set(int chunk, int index, double value);
+        abstract void add(int chunk, int index, double value);
+        abstract void get(int chunk, int index, double[] destination, int length);
+        abstract void set(int chunk, int index, double[] source, int length);
+        abstract void add(int chunk, int index, double[] source, int length);
+        abstract void release();
+    }
+
+    private static final class ArrayStore extends Store
+    {
+        private final double[][] chunks;
+
+        ArrayStore(int[] chunkProblemCounts, int stride)
+        {
+            chunks = new double[chunkProblemCounts.length][];
+            for (int i = 0; i < chunks.length; i++)
+            {
+                chunks[i] = new double[chunkProblemCounts[i] * stride];
+            }
+        }
+
+        @Override
+        double get(int chunk, int index)
+        {
+            return chunks[chunk][index];
+        }
+
+        @Override
+        void set(int chunk, int index, double value)
+        {
+            chunks[chunk][index] = value;
+        }
+
+        @Override
+        void add(int chunk, int index, double value)
+        {
+            chunks[chunk][index] += value;
+        }
+
+        @Override
+        void get(int chunk, int index, double[] destination, int length)
+        {
+            System.arraycopy(chunks[chunk], index, destination, 0, length);
+        }
+
+        @Override
+        void set(int chunk, int index, double[] source, int length)
+        {
+            System.arraycopy(source, 0, chunks[chunk], index, length);
+        }
+
+        @Override
+        void add(int chunk, int index, double[] source, int length)
+        {
+            double[] data = chunks[chunk];
+            for (int i = 0; i < length; i++)
+            {
+                data[index + i] += source[i];
+            }
+        }
+
+        @Override
+        void release()
+        {
+            Arrays.fill(chunks, null);
+        }
+    }
+
+    private static final class BufferStore extends Store
+    {
+        private final ByteBuffer[] buffers;
+        private final DoubleBuffer[] chunks;
+
+        BufferStore(int[] chunkProblemCounts, int stride, BufferAllocator allocator) throws IOException
+        {
+            buffers = new ByteBuffer[chunkProblemCounts.length];
+            chunks = new DoubleBuffer[chunkProblemCounts.length];
+            for (int i = 0; i < chunks.length; i++)
+            {
+                buffers[i] = allocator.allocate(chunkProblemCounts[i] * stride * Double.BYTES);
+                chunks[i] = buffers[i].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            }
+        }
+
+        @Override
+        double get(int chunk, int index)
+        {
+            return chunks[chunk].get(index);
+        }
+
+        @Override
+        void set(int chunk, int index, double value)
+        {
+            chunks[chunk].put(index, value);
+        }
+
+        @Override
+        void add(int chunk, int index, double value)
+        {
+            DoubleBuffer data = chunks[chunk];
+            data.put(index, data.get(index) + value);
+        }
+
+        @Override
+        void get(int chunk, int index, double[] destination, int length)
+        {
+            DoubleBuffer data = chunks[chunk];
+            for (int i = 0; i < length; i++)
+            {
+                destination[i] = data.get(index + i);
+            }
+        }
+
+        @Override
+        void set(int chunk, int index, double[] source, int length)
+        {
+            DoubleBuffer data = chunks[chunk];
+            for (int i = 0; i < length; i++)
+            {
+                data.put(index + i, source[i]);
+            }
+        }
+
+        @Override
+        void add(int chunk, int index, double[] source, int length)
+        {
+            DoubleBuffer data = chunks[chunk];
+            for (int i = 0; i < length; i++)
+            {
+                data.put(index + i, data.get(index + i) + source[i]);
+            }
+        }
+
+        @Override
+        void release()
+        {
+            Arrays.fill(chunks, null);
+            for (int i = 0; i < buffers.length; i++)
+            {
+                if (buffers[i] instanceof MappedByteBuffer)
+                {
+                    unmap(buffers[i]);
+                }
+
+                buffers[i] = null;
+            }
+        }
+
+        /**
+         * Unmaps a mapped buffer without waiting for it to be garbage collected, which is necessary to delete the file on Windows.
+         * There is no public API for this, so if it isn't possible on this JVM, the mapping is left for the garbage collector.
+         */
+        private static void unmap(ByteBuffer buffer)
+        {
+            try
+            {
+                // Java 9 and later
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+                unsafeField.setAccessible(true);
+                unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafeField.get(null), buffer);
+            }
+            catch (ReflectiveOperationException | RuntimeException e)
+            {
+                try
+                {
+                    // Java 8
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+                catch (ReflectiveOperationException | RuntimeException e2)
+                {
+                    e2.printStackTrace();
+                }
+            }
+        }
+    }
+}
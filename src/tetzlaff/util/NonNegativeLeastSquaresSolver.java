@@ -0,0 +1,618 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package tetzlaff.util;
+
+import java.util.Arrays;
+
+import org.ejml.UtilEjml;
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * A reusable solver for non-negative least squares problems in premultiplied form (A'A x = A'b), optionally with equality constraints,
+ * using the same active set algorithm as NonNegativeLeastSquares.
+ * Rather than solving each passive subproblem from scratch, this keeps a Cholesky factor of the passive block of A'A
+ * and updates it as variables enter and leave the passive set.
+ * Equality constraints are handled with the Schur complement of the passive block, which is only as large as the number of constraints.
+ * All workspace is allocated up front, so one solver can be reused for many problems of the same size without allocating.
+ * A solver is not thread-safe; use one per thread.
+ */
+public final class NonNegativeLeastSquaresSolver
+{
+    /**
+     * The number of rows and columns in the augmented system (variables plus constraints).
+     */
+    private final int size;
+
+    private final int variableCount;
+    private final int constraintCount;
+
+    /**
+     * Whether each variable is in the passive set (free) rather than fixed at zero.
+     */
+    private final boolean[] passive;
+
+    /**
+     * The variable corresponding to each row and column of the Cholesky factor, in the order that they were added.
+     */
+    private final int[] passiveOrder;
+
+    /**
+     * The row and column of the Cholesky factor for each variable in the passive set.
+     */
+    private final int[] factorPosition;
+
+    private int passiveCount;
+
+    /**
+     * The lower triangular Cholesky factor of the passive block of A'A, stored row-major with a stride of variableCount.
+     */
+    private final double[] factor;
+
+    private final double[] x;
+    private final double[] s;
+    private final double[] w;
+
+    // Scratch space for solving the passive subproblem, indexed by position in the factor.
+    private final double[] passiveSolution;
+    private final double[] updateVector;
+
+    // Scratch space for the equality constraints.
+    private final double[] constraintSolutions;
+    private final double[] schurComplement;
+    private final double[] multipliers;
+
+    // The problem currently being solved.
+    private double[] mATA;
+    private int mATAOffset;
+    private double[] vATb;
+    private int vATbOffset;
+
+    /**
+     * Creates a solver for problems with the specified number of variables and equality constraints.
+     * @param variableCount The number of variables (the size of A'A, not including constraints).
+     * @param constraintCount The number of equality constraints appended to the system.
+     */
+    public NonNegativeLeastSquaresSolver(int variableCount, int constraintCount)
+    {
+        this.variableCount = variableCount;
+        this.constraintCount = constraintCount;
+        this.size = variableCount + constraintCount;
+
+        passive = new boolean[variableCount];
+        passiveOrder = new int[variableCount];
+        factorPosition = new int[variableCount];
+        factor = new double[variableCount * variableCount];
+
+        x = new double[size];
+        s = new double[size];
+        w = new double[size];
+
+        passiveSolution = new double[variableCount];
+        updateVector = new double[variableCount];
+
+        constraintSolutions = new double[constraintCount * variableCount];
+        schurComplement = new double[constraintCount * constraintCount];
+        multipliers = new double[constraintCount];
+    }
+
+    /**
+     * Finds the first positive value at or after the median, or one if there isn't one.  Sorts the array in place.
+     */
+    static double medianForTolerance(double[] values)
+    {
+        Arrays.sort(values);
+        for (int i = values.length / 2; i < values.length; i++)
+        {
+            if (values[i] > 0)
+            {
+                return values[i];
+            }
+        }
+        return 1.0;
+    }
+
+    public int getVariableCount()
+    {
+        return variableCount;
+    }
+
+    public int getConstraintCount()
+    {
+        return constraintCount;
+    }
+
+    /**
+     * Solves a non-negative least squares problem in premultiplied form.
+     * The arguments are the same as NonNegativeLeastSquares.solvePremultipliedWithEqualityConstraints(),
+     * and the result is the same up to round-off error.
+     * If the system is singular even after backing out the last variable added to the passive set, the solution is all zeros.
+     * @param augmentedATA The augmented matrix A'A (see NonNegativeLeastSquares), which must be backed by a DMatrixRMaj.
+     * @param augmentedATb The augmented vector A'b, which must be backed by a DMatrixRMaj.
+     * @param epsilon The allowed tolerance at which the algorithm will terminate.
+     * @return The non-negative least squares solution, augmented with the Lagrange multipliers for the equality constraints.
+     */
+    public SimpleMatrix solve(SimpleMatrix augmentedATA, SimpleMatrix augmentedATb, double epsilon)
+    {
+        if (augmentedATA.numRows() != size || augmentedATA.numCols() != size)
+        {
+            throw new IllegalArgumentException("A'A must be a square matrix with one row and column for each variable and constraint.");
+        }
+
+        if (augmentedATb.numCols() != 1 || augmentedATb.numRows() != size)
+        {
+            throw new IllegalArgumentException("A'b must be a column vector with the same number of rows as matrix A'A.");
+        }
+
+        SimpleMatrix solution = new SimpleMatrix(size, 1, DMatrixRMaj.class);
+        DMatrixRMaj mATA = augmentedATA.getMatrix();
+        DMatrixRMaj vATb = augmentedATb.getMatrix();
+        DMatrixRMaj result = solution.getMatrix();
+        solve(mATA.data, vATb.data, epsilon, result.data);
+        return solution;
+    }
+
+    /**
+     * Solves a non-negative least squares problem in premultiplied form, without allocating any memory.
+     * @param augmentedATA The augmented matrix A'A (see NonNegativeLeastSquares) in row-major order.
+     * @param augmentedATb The augmented vector A'b.
+     * @param epsilon The allowed tolerance at which the algorithm will terminate.
+     * @param solution An array to receive the solution, augmented with the Lagrange multipliers for the equality constraints.
+     * @return solution
+     */
+    public double[] solve(double[] augmentedATA, double[] augmentedATb, double epsilon, double[] solution)
+    {
+        solve(augmentedATA, 0, augmentedATb, 0, epsilon, solution, 0);
+        return solution;
+    }
+
+    /**
+     * Solves a non-negative least squares problem in premultiplied form that is stored within larger arrays, without allocating any memory.
+     * @param augmentedATA An array containing the augmented matrix A'A (see NonNegativeLeastSquares) in row-major order.
+     * @param ataOffset The index of the first element of A'A.
+     * @param augmentedATb An array containing the augmented vector A'b.
+     * @param atbOffset The index of the first element of A'b.
+     * @param epsilon The allowed tolerance at which the algorithm will terminate.
+     * @param solution An array to receive the solution, augmented with the Lagrange multipliers for the equality constraints.
+     * @param solutionOffset The index at which to store the solution.
+     */
+    public void solve(double[] augmentedATA, int ataOffset, double[] augmentedATb, int atbOffset,
+        double epsilon, double[] solution, int solutionOffset)
+    {
+        if (ataOffset < 0 || augmentedATA.length - ataOffset < size * size
+            || atbOffset < 0 || augmentedATb.length - atbOffset < size
+            || solutionOffset < 0 || solution.length - solutionOffset < size)
+        {
+            throw new IllegalArgumentException("Arrays are too small for a system with " + size + " rows and columns.");
+        }
+
+        if (epsilon <= 0.0)
+        {
+            throw new IllegalArgumentException("Epsilon must be greater than zero.");
+        }
+
+        mATA = augmentedATA;
+        mATAOffset = ataOffset;
+        vATb = augmentedATb;
+        vATbOffset = atbOffset;
+
+        Arrays.fill(passive, false);
+        passiveCount = 0;
+        Arrays.fill(x, 0.0);
+        System.arraycopy(augmentedATb, atbOffset, w, 0, size);
+
+        int k = -1;
+        double maxW;
+
+        do
+        {
+            maxW = -1.0;
+
+            for (int i = 0; i < variableCount; i++)
+            {
+                double value = w[i];
+                if (!passive[i] && value > maxW)
+                {
+                    k = i;
+                    maxW = value;
+                }
+            }
+
+            // Iterate until effectively no values of w are positive.
+            if (maxW > epsilon || passiveCount == 0)
+            {
+                boolean singular = !addPassive(k) || !solvePassive();
+
+                // Make sure that none of the free variables went negative.
+                while (!singular && passiveCount > 0 && minPassiveSolution() <= 0.0)
+                {
+                    double alpha = 1.0;
+                    int j = -1;
+                    for (int i = 0; i < variableCount; i++)
+                    {
+                        if (passive[i] && s[i] <= 0.0)
+                        {
+                            double alphaCandidate = x[i] / (x[i] - s[i]);
+                            if (alphaCandidate <= alpha)
+                            {
+                                alpha = alphaCandidate;
+                                j = i;
+                            }
+                        }
+                    }
+
+                    if (j < 0)
+                    {
+                        // Only possible if the solution is NaN; give up.
+                        maxW = 0.0;
+                        break;
+                    }
+
+                    // x = x + alpha * (s - x)
+                    for (int i = 0; i < size; i++)
+                    {
+                        x[i] += alpha * (s[i] - x[i]);
+                    }
+
+                    // Make sure that at least one previously positive value is set to zero.
+                    // Because of round-off error, this is not necessarily guaranteed.
+                    removePassive(j);
+                    x[j] = 0.0;
+
+                    if (j == k)
+                    {
+                        // Avoid an infinite loop; treat all remaining values in w as insignificant.
+                        maxW = 0.0;
+                    }
+                    else
+                    {
+                        for (int i = 0; i < variableCount; i++)
+                        {
+                            if (passive[i] && x[i] <= 0.0)
+                            {
+                                removePassive(i);
+                                x[i] = 0.0; // Just in case it went slightly negative due to round-off error.
+                            }
+                        }
+                    }
+
+                    singular = !solvePassive();
+                }
+
+                if (singular)
+                {
+                    // Roll back and finish.
+                    if (k >= 0 && passive[k])
+                    {
+                        removePassive(k);
+                    }
+                    x[k] = 0.0;
+
+                    if (!solvePassive())
+                    {
+                        Arrays.fill(s, 0.0);
+                    }
+
+                    // Avoid an infinite loop; treat all remaining values in w as insignificant.
+                    maxW = 0.0;
+                }
+
+                System.arraycopy(s, 0, x, 0, size);
+                updateGradient();
+            }
+        }
+        while(passiveCount < variableCount && maxW > epsilon);
+        // The second condition makes the loop terminate if the earlier if-statement with the same condition evaluated to false.
+
+        System.arraycopy(x, 0, solution, solutionOffset, size);
+
+        // Don't hold on to the problem.
+        mATA = null;
+        vATb = null;
+    }
+
+    private double minPassiveSolution()
+    {
+        double min = Double.POSITIVE_INFINITY;
+        for (int position = 0; position < passiveCount; position++)
+        {
+            min = Math.min(min, s[passiveOrder[position]]);
+        }
+        return min;
+    }
+
+    /**
+     * w = A'b - A'A x, using the fact that x is zero outside of the passive set and the constraints.
+     */
+    private void updateGradient()
+    {
+        for (int i = 0; i < variableCount; i++)
+        {
+            int rowStart = i * size;
+            double sum = vATb[vATbOffset + i];
+
+            for (int position = 0; position < passiveCount; position++)
+            {
+                int j = passiveOrder[position];
+                sum -= mATA[mATAOffset + rowStart + j] * x[j];
+            }
+
+            for (int c = variableCount; c < size; c++)
+            {
+                sum -= mATA[mATAOffset + rowStart + c] * x[c];
+            }
+
+            w[i] = sum;
+        }
+    }
+
+    /**
+     * Adds a variable to the passive set, appending a row to the Cholesky factor.
+     * @return false if the passive block would become singular, in which case the variable is not added.
+     */
+    private boolean addPassive(int variable)
+    {
+        int m = passiveCount;
+        int newRow = m * variableCount;
+        int variableRow = variable * size;
+
+        double sumOfSquares = 0.0;
+        for (int position = 0; position < m; position++)
+        {
+            int row = position * variableCount;
+            double sum = mATA[mATAOffset + variableRow + passiveOrder[position]];
+            for (int q = 0; q < position; q++)
+            {
+                sum -= factor[newRow + q] * factor[row + q];
+            }
+
+            double value = sum / factor[row + position];
+            factor[newRow + position] = value;
+            sumOfSquares += value * value;
+        }
+
+        double diagonal = mATA[mATAOffset + variableRow + variable];
+        double pivotSquared = diagonal - sumOfSquares;
+
+        if (!(pivotSquared > UtilEjml.EPS * Math.abs(diagonal)))
+        {
+            return false;
+        }
+
+        factor[newRow + m] = Math.sqrt(pivotSquared);
+        passiveOrder[m] = variable;
+        factorPosition[variable] = m;
+        passive[variable] = true;
+        passiveCount++;
+        return true;
+    }
+
+    /**
+     * Removes a variable from the passive set.
+     * Deleting its row and column from the Cholesky factor leaves the trailing block short by a rank-one term,
+     * which is restored with a rank-one update.
+     */
+    private void removePassive(int variable)
+    {
+        int r = factorPosition[variable];
+        int m = passiveCount;
+        int trailingCount = m - 1 - r;
+
+        // Save the column being removed, below the diagonal.
+        for (int a = 0; a < trailingCount; a++)
+        {
+            updateVector[a] = factor[(r + 1 + a) * variableCount + r];
+        }
+
+        // Shift rows up and columns left to delete row and column r.
+        for (int i = r + 1; i < m; i++)
+        {
+            int source = i * variableCount;
+            int destination = (i - 1) * variableCount;
+            System.arraycopy(factor, source, factor, destination, r);
+            System.arraycopy(factor, source + r + 1, factor, destination + r, i - r);
+
+            passiveOrder[i - 1] = passiveOrder[i];
+            factorPosition[passiveOrder[i - 1]] = i - 1;
+        }
+
+        // Rank-one update of the trailing block using Givens rotations.
+        for (int a = 0; a < trailingCount; a++)
+        {
+            int diagonalIndex = (r + a) * variableCount + r + a;
+            double diagonal = factor[diagonalIndex];
+            double updated = Math.sqrt(diagonal * diagonal + updateVector[a] * updateVector[a]);
+            double cos = updated / diagonal;
+            double sin = updateVector[a] / diagonal;
+            factor[diagonalIndex] = updated;
+
+            for (int b = a + 1; b < trailingCount; b++)
+            {
+                int index = (r + b) * variableCount + r + a;
+                factor[index] = (factor[index] + sin * updateVector[b]) / cos;
+                updateVector[b] = cos * updateVector[b] - sin * factor[index];
+            }
+        }
+
+        passive[variable] = false;
+        passiveCount--;
+    }
+
+    /**
+     * Solves L L' y = rhs in place, where L is the current Cholesky factor.
+     */
+    private void solveFactored(double[] rhs, int offset)
+    {
+        int m = passiveCount;
+
+        for (int i = 0; i < m; i++)
+        {
+            int row = i * variableCount;
+            double sum = rhs[offset + i];
+            for (int q = 0; q < i; q++)
+            {
+                sum -= factor[row + q] * rhs[offset + q];
+            }
+            rhs[offset + i] = sum / factor[row + i];
+        }
+
+        for (int i = m - 1; i >= 0; i--)
+        {
+            double sum = rhs[offset + i];
+            for (int q = i + 1; q < m; q++)
+            {
+                sum -= factor[q * variableCount + i] * rhs[offset + q];
+            }
+            rhs[offset + i] = sum / factor[i * variableCount + i];
+        }
+    }
+
+    /**
+     * Solves the system restricted to the passive set (and the equality constraints), storing the result in s.
+     * @return false if the system is singular.
+     */
+    private boolean solvePassive()
+    {
+        int m = passiveCount;
+        Arrays.fill(s, 0.0);
+
+        for (int position = 0; position < m; position++)
+        {
+            passiveSolution[position] = vATb[vATbOffset + passiveOrder[position]];
+        }
+        solveFactored(passiveSolution, 0);
+
+        if (constraintCount > 0)
+        {
+            // With constraint matrix C, the system is [G C'; C D] [x; lambda] = [b; d], where G is the passive block of A'A.
+            // Then x = G^-1 (b - C' lambda), and (C G^-1 C' - D) lambda = C G^-1 b - d.
+            for (int c = 0; c < constraintCount; c++)
+            {
+                int offset = c * variableCount;
+                for (int position = 0; position < m; position++)
+                {
+                    constraintSolutions[offset + position] = mATA[mATAOffset + passiveOrder[position] * size + variableCount + c];
+                }
+                solveFactored(constraintSolutions, offset);
+            }
+
+            for (int c1 = 0; c1 < constraintCount; c1++)
+            {
+                int constraintRow = (variableCount + c1) * size;
+                double rhs = -vATb[vATbOffset + variableCount + c1];
+                for (int position = 0; position < m; position++)
+                {
+                    rhs += mATA[mATAOffset + constraintRow + passiveOrder[position]] * passiveSolution[position];
+                }
+                multipliers[c1] = rhs;
+
+                for (int c2 = 0; c2 < constraintCount; c2++)
+                {
+                    double sum = -mATA[mATAOffset + constraintRow + variableCount + c2];
+                    int offset = c2 * variableCount;
+                    for (int position = 0; position < m; position++)
+                    {
+                        sum += mATA[mATAOffset + constraintRow + passiveOrder[position]] * constraintSolutions[offset + position];
+                    }
+                    schurComplement[c1 * constraintCount + c2] = sum;
+                }
+            }
+
+            if (!solveSchurComplement())
+            {
+                return false;
+            }
+
+            for (int c = 0; c < constraintCount; c++)
+            {
+                int offset = c * variableCount;
+                double multiplier = multipliers[c];
+                for (int position = 0; position < m; position++)
+                {
+                    passiveSolution[position] -= constraintSolutions[offset + position] * multiplier;
+                }
+                s[variableCount + c] = multiplier;
+            }
+        }
+
+        for (int position = 0; position < m; position++)
+        {
+            s[passiveOrder[position]] = passiveSolution[position];
+        }
+
+        return true;
+    }
+
+    /**
+     * Solves the (small) Schur complement system for the Lagrange multipliers in place, using Gaussian elimination with partial pivoting.
+     * @return false if the system is singular.
+     */
+    private boolean solveSchurComplement()
+    {
+        int n = constraintCount;
+        double[] a = schurComplement;
+
+        for (int col = 0; col < n; col++)
+        {
+            int pivotRow = col;
+            for (int row = col + 1; row < n; row++)
+            {
+                if (Math.abs(a[row * n + col]) > Math.abs(a[pivotRow * n + col]))
+                {
+                    pivotRow = row;
+                }
+            }
+
+            // Same criterion as EJML's LU decomposition.
+            if (!(Math.abs(a[pivotRow * n + col]) >= UtilEjml.EPS))
+            {
+                return false;
+            }
+
+            if (pivotRow != col)
+            {
+                for (int q = 0; q < n; q++)
+                {
+                    double temp = a[col * n + q];
+                    a[col * n + q] = a[pivotRow * n + q];
+                    a[pivotRow * n + q] = temp;
+                }
+
+                double temp = multipliers[col];
+                multipliers[col] = multipliers[pivotRow];
+                multipliers[pivotRow] = temp;
+            }
+
+            for (int row = col + 1; row < n; row++)
+            {
+                double scale = a[row * n + col] / a[col * n + col];
+                for (int q = col; q < n; q++)
+                {
+                    a[row * n + q] -= scale * a[col * n + q];
+                }
+                multipliers[row] -= scale * multipliers[col];
+            }
+        }
+
+        for (int row = n - 1; row >= 0; row--)
+        {
+            double sum = multipliers[row];
+            for (int q = row + 1; q < n; q++)
+            {
+                sum -= a[row * n + q] * multipliers[q];
+            }
+            multipliers[row] = sum / a[row * n + row];
+        }
+
+        return true;
+    }
+}
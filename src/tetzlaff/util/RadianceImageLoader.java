@@ -12,22 +12,48 @@
 package tetzlaff.util;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 /**
  * RadianceImageLoader loads 2D textures in high dynamic range from the Radiance (.hdr) file format.
+ * The whole file is read (or memory-mapped) up front.  The boundaries of the scanlines are found in a quick sequential pass,
+ * after which the scanlines are decoded in parallel.
  */
 public class RadianceImageLoader
 {
     private static final Pattern COMMON_RES = Pattern.compile("-Y (\\d+) \\+X (\\d+)");
     private static final Pattern ANY_RES = Pattern.compile("[-\\+]Y \\d+ [-\\+]X \\d+");
 
+    private static final int MAX_MAGIC_NUMBER_LENGTH = 10;
+    private static final int ROWS_PER_BAND = 16;
+
+    /**
+     * The scale factor for each possible exponent byte, with the factor of 1/256 for the mantissa folded in.
+     */
+    private static final float[] EXPONENT_SCALES = new float[256];
+
+    static
+    {
+        // An exponent of 0 is reserved for black.
+        for (int e = 1; e < 256; e++)
+        {
+            EXPONENT_SCALES[e] = (float) Math.pow(2.0, e - 128) / 256f;
+        }
+    }
+
     public static class Image
     {
         public final int width;
@@ -49,14 +75,63 @@ public class RadianceImageLoader
 
     public Image read(BufferedInputStream stream, boolean topToBottom, boolean leftToRight) throws IOException
     {
-        stream.mark(128);
-        if (!processMagicNumber(stream))
+        stream.mark(MAX_MAGIC_NUMBER_LENGTH);
+        byte[] magic = new byte[MAX_MAGIC_NUMBER_LENGTH];
+        int magicLength = readUpTo(stream, magic);
+        stream.reset();
+
+        if (!processMagicNumber(ByteBuffer.wrap(magic, 0, magicLength)))
         {
-            stream.reset();
             return null;
         }
 
-        Map<String, String> vars = processVariables(stream);
+        ByteArrayOutputStream contents = new ByteArrayOutputStream(Math.max(stream.available(), 1 << 16));
+        byte[] chunk = new byte[1 << 16];
+        int read;
+        while ((read = stream.read(chunk)) >= 0)
+        {
+            contents.write(chunk, 0, read);
+        }
+
+        return read(ByteBuffer.wrap(contents.toByteArray()), topToBottom, leftToRight);
+    }
+
+    public Image read(File file) throws IOException
+    {
+        return this.read(file, true, true);
+    }
+
+    /**
+     * Reads an image from a file by memory-mapping it.
+     * @param file The file to read.
+     * @param topToBottom Whether the scanlines should be reversed, so that the bottom row of the image comes first (as in OpenGL).
+     * @param leftToRight Whether pixels should be stored in the same horizontal order as in the file.
+     * @return The image, or null if the file is not a Radiance image.
+     * @throws IOException If the file could not be read or is malformed.
+     */
+    public Image read(File file, boolean topToBottom, boolean leftToRight) throws IOException
+    {
+        // RandomAccessFile reports a missing file with FileNotFoundException, like FileInputStream did.
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel())
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("File is too large: " + file);
+            }
+
+            return read(channel.map(MapMode.READ_ONLY, 0, channel.size()), topToBottom, leftToRight);
+        }
+    }
+
+    private Image read(ByteBuffer buffer, boolean topToBottom, boolean leftToRight) throws IOException
+    {
+        if (!processMagicNumber(buffer))
+        {
+            return null;
+        }
+
+        Map<String, String> vars = processVariables(buffer);
         if (!"32-bit_rle_rgbe".equals(vars.get("FORMAT")))
         {
             throw new IOException("Format must be 32-bit_rle_rgbe, not: " + vars.get("FORMAT"));
@@ -64,130 +139,194 @@ public class RadianceImageLoader
 
         int width = Integer.parseInt(vars.get("WIDTH"));
         int height = Integer.parseInt(vars.get("HEIGHT"));
-        float[] data = readImage(width, height, topToBottom, true, stream);
+        float[] data = readImage(width, height, topToBottom, leftToRight, buffer);
 
         return new Image(width, height, data);
     }
 
-    private float[] readImage(int width, int height, boolean topToBottom, boolean leftToRight, InputStream in)
+    private float[] readImage(int width, int height, boolean topToBottom, boolean leftToRight, ByteBuffer buffer)
         throws IOException
     {
-        byte[] scan = new byte[width * 4];
+        int[] scanLineOffsets = findScanLines(width, height, buffer);
+
         float[] img = new float[width * height * 3];
-        for (int y = 0; y < height; y++)
+
+        IntStream.range(0, (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND).parallel().forEach(band ->
         {
-            // we're using OpenGL's coordinate frame where bottom is 0
-            readScanLine(img, topToBottom ? height - y - 1 : y, width, leftToRight, scan, in);
-        }
+            // Each band reads through its own view of the buffer, since the position is not thread-safe.
+            ByteBuffer bandBuffer = buffer.duplicate();
+            byte[] scan = new byte[width * 4];
+
+            for (int y = band * ROWS_PER_BAND; y < Math.min(height, (band + 1) * ROWS_PER_BAND); y++)
+            {
+                // we're using OpenGL's coordinate frame where bottom is 0
+                readScanLine(img, topToBottom ? height - y - 1 : y, width, leftToRight, scan, bandBuffer, scanLineOffsets[y]);
+            }
+        });
+
         return img;
     }
 
-    private void readScanLine(float[] image, int imgY, int imgWidth, boolean leftToRight, byte[] scan,
-        InputStream in) throws IOException
+    /**
+     * Finds where each scanline starts without decoding any pixels.
+     * This also validates the run lengths, so that the scanlines can be decoded afterwards without any further checks.
+     */
+    private static int[] findScanLines(int width, int height, ByteBuffer buffer) throws IOException
     {
-        int baseOffset = 3 * imgY * imgWidth;
+        int[] offsets = new int[height];
+        boolean rleAllowed = width >= 8 && width <= 0x7fff;
+        int limit = buffer.limit();
+        int p = buffer.position();
 
-        Arrays.fill(scan, (byte) 0);
-        // read the first pixel
-        readAll(in, scan, 0, 4);
-        boolean rle = true;
-        if (imgWidth < 8 || imgWidth > 0x7fff)
-        {
-            rle = false; // image is too small
-        }
-        if (scan[0] != 2 || scan[1] != 2 || (scan[2] & 0x80) != 0)
+        for (int y = 0; y < height; y++)
         {
-            rle = false; // not an rle scanline
-        }
+            offsets[y] = p;
 
-        if (rle)
-        {
-            // since we know scan[2]'s 8th bit is a 0, we don't need to mask it to properly preserve unsigned byte-ness
-            // this is not the case for scan[3]
-            int scanWidth = (scan[2] << 8) | (0xff & scan[3]);
-            if (scanWidth != imgWidth)
+            if (p + 4 > limit)
             {
-                throw new IOException("Wrong scanline width: " + scanWidth);
+                throw new IOException("Unexpected end of stream");
             }
 
+            if (rleAllowed && isRLEScanLine(buffer, p))
+            {
+                // since we know the 8th bit of the third byte is a 0, we don't need to mask it to properly preserve unsigned byte-ness
+                // this is not the case for the fourth byte
+                int scanWidth = (buffer.get(p + 2) << 8) | (0xff & buffer.get(p + 3));
+                if (scanWidth != width)
+                {
+                    throw new IOException("Wrong scanline width: " + scanWidth);
+                }
+
+                p += 4;
+
+                for (int i = 0; i < 4; i++)
+                {
+                    int remaining = width;
+                    while (remaining > 0)
+                    {
+                        if (p >= limit)
+                        {
+                            throw new IOException("Unexpected end of stream");
+                        }
+
+                        int len = 0xff & buffer.get(p);
+                        if (len > 128)
+                        {
+                            // run of same value (which is the next byte)
+                            len -= 128;
+                            p += 2;
+                        }
+                        else
+                        {
+                            // dump of channel
+                            p += 1 + len;
+                        }
+
+                        if (len == 0 || len > remaining)
+                        {
+                            throw new IOException("Invalid run length in scanline " + y);
+                        }
+
+                        remaining -= len;
+                    }
+                }
+
+                if (p > limit)
+                {
+                    throw new IOException("Unexpected end of stream");
+                }
+            }
+            else
+            {
+                // scanline is flat
+                if ((long) p + 4L * width > limit)
+                {
+                    throw new IOException("Unexpected end of stream");
+                }
+
+                p += 4 * width;
+            }
+        }
+
+        return offsets;
+    }
+
+    private static boolean isRLEScanLine(ByteBuffer buffer, int offset)
+    {
+        return buffer.get(offset) == 2 && buffer.get(offset + 1) == 2 && (buffer.get(offset + 2) & 0x80) == 0;
+    }
+
+    private static void readScanLine(float[] image, int imgY, int imgWidth, boolean leftToRight, byte[] scan,
+        ByteBuffer in, int offset)
+    {
+        int baseOffset = 3 * imgY * imgWidth;
+
+        if (imgWidth >= 8 && imgWidth <= 0x7fff && isRLEScanLine(in, offset))
+        {
+            in.position(offset + 4);
+
             // read each channel of the RGBE data into scan
             int p = 0;
             for (int i = 0; i < 4; i++)
             {
                 while (p < (i + 1) * imgWidth)
                 {
-                    int len = in.read();
+                    int len = 0xff & in.get();
                     if (len > 128)
                     {
                         len -= 128;
                         // run of same value (which is the next byte)
-                        Arrays.fill(scan, p, p + len, (byte) in.read());
+                        Arrays.fill(scan, p, p + len, in.get());
                         p += len;
                     }
                     else
                     {
                         // dump of channel
-                        readAll(in, scan, p, len);
+                        in.get(scan, p, len);
                         p += len;
                     }
                 }
             }
 
-            //            System.out.println(Arrays.toString(scan));
-
             // interpret the channels into pixels
-            byte[] pixel = new byte[4];
             for (int x = 0; x < imgWidth; x++)
             {
-                pixel[0] = scan[x];
-                pixel[1] = scan[x + imgWidth];
-                pixel[2] = scan[x + 2 * imgWidth];
-                pixel[3] = scan[x + 3 * imgWidth];
+                int imgOffset = baseOffset + (leftToRight ? 3 * x : 3 * (imgWidth - x - 1));
+                float v = EXPONENT_SCALES[0xff & scan[x + 3 * imgWidth]];
 
-                int xOffset = leftToRight ? 3 * x : 3 * (imgWidth - x - 1);
-                convertRGBE(image, baseOffset + xOffset, pixel, 0);
+                // these are meant to be unsigned bytes
+                image[imgOffset] = v * (0xff & scan[x]);
+                image[imgOffset + 1] = v * (0xff & scan[x + imgWidth]);
+                image[imgOffset + 2] = v * (0xff & scan[x + 2 * imgWidth]);
             }
-            //            System.out.println();
         }
         else
         {
             // scanline is flat so read it fully
-            readAll(in, scan, 4);
+            in.position(offset);
+            in.get(scan, 0, 4 * imgWidth);
+
             for (int x = 0; x < imgWidth; x++)
             {
-                int xOffset = leftToRight ? 3 * x : 3 * (imgWidth - x - 1);
-                convertRGBE(image, baseOffset + xOffset, scan, x * 4);
+                int imgOffset = baseOffset + (leftToRight ? 3 * x : 3 * (imgWidth - x - 1));
+                float v = EXPONENT_SCALES[0xff & scan[4 * x + 3]];
+
+                image[imgOffset] = v * (0xff & scan[4 * x]);
+                image[imgOffset + 1] = v * (0xff & scan[4 * x + 1]);
+                image[imgOffset + 2] = v * (0xff & scan[4 * x + 2]);
             }
         }
     }
 
-    private void convertRGBE(float[] image, int imgOffset, byte[] rgbe, int offset)
+    private static boolean processMagicNumber(ByteBuffer in)
     {
-        if (rgbe[offset + 3] != 0)
-        {
-            // real pixel
-            float v = (float) Math.pow(2.0, (0xff & rgbe[offset + 3]) - 128) / 256f;
-            // these are meant to be unsigned bytes
-            // FIXME rereading the text, there might need to be a + 0.5
-            // inside the expression multiplied by v
-            image[imgOffset] = v * (0xff & rgbe[offset]);
-            image[imgOffset + 1] = v * (0xff & rgbe[offset + 1]);
-            image[imgOffset + 2] = v * (0xff & rgbe[offset + 2]);
-        }
-        else
+        if (in.remaining() < 6)
         {
-            // black
-            image[imgOffset] = 0f;
-            image[imgOffset + 1] = 0f;
-            image[imgOffset + 2] = 0f;
+            return false;
         }
-    }
 
-    private boolean processMagicNumber(InputStream in) throws IOException
-    {
-        // FIXME if we have fewer than this many bytes, we'll throw an exception and that breaks the whole thing
         byte[] magic = new byte[6];
-        readAll(in, magic);
+        in.get(magic);
         if (magic[0] != '#' || magic[1] != '?')
         {
             return false;
@@ -198,10 +337,10 @@ public class RadianceImageLoader
             return true;
         }
         // else read a few more bytes and check for RADIANCE
-        if (magic[2] == 'R' && magic[3] == 'A' && magic[4] == 'D' && magic[5] == 'I')
+        if (magic[2] == 'R' && magic[3] == 'A' && magic[4] == 'D' && magic[5] == 'I' && in.remaining() >= 4)
         {
             magic = new byte[4];
-            readAll(in, magic);
+            in.get(magic);
             if (magic[0] == 'A' && magic[1] == 'N' && magic[2] == 'C' && magic[3] == 'E')
             {
                 return true;
@@ -211,14 +350,14 @@ public class RadianceImageLoader
         return false;
     }
 
-    private Map<String, String> processVariables(InputStream in) throws IOException
+    private static Map<String, String> processVariables(ByteBuffer in) throws IOException
     {
         Map<String, String> vars = new HashMap<>();
 
         StringBuilder sb = new StringBuilder();
-        int b;
-        while ((b = in.read()) >= 0)
+        while (in.hasRemaining())
         {
+            int b = 0xff & in.get();
             if (b == '\n')
             {
                 // move onto next variable
@@ -266,32 +405,15 @@ public class RadianceImageLoader
         throw new IOException("Did not encounter resolution specification");
     }
 
-    private static void readAll(InputStream in, byte[] array) throws IOException
-    {
-        readAll(in, array, 0, array.length);
-    }
-
-    private static void readAll(InputStream in, byte[] array, int offset) throws IOException
+    // read bytes from the given stream until the array is full or the end of the stream is reached
+    private static int readUpTo(InputStream in, byte[] array) throws IOException
     {
-        readAll(in, array, offset, array.length - offset);
-    }
-
-    // read bytes from the given stream until the array has filled with length
-    // fails if the end-of-stream happens before length has been read
-    private static void readAll(InputStream in, byte[] array, int offset, int length) throws IOException
-    {
-        int currentOffset = offset;
-        int remaining = length;
+        int currentOffset = 0;
         int read;
-        while (remaining > 0)
+        while (currentOffset < array.length && (read = in.read(array, currentOffset, array.length - currentOffset)) >= 0)
         {
-            read = in.read(array, currentOffset, remaining);
-            if (read < 0)
-            {
-                throw new IOException("Unexpected end of stream");
-            }
             currentOffset += read;
-            remaining -= read;
         }
+        return currentOffset;
     }
-}
\ No newline at end of file
+}
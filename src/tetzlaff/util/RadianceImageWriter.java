@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package tetzlaff.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+
+import tetzlaff.util.RadianceImageLoader.Image;
+
+/**
+ * RadianceImageWriter saves high dynamic range images in the Radiance (.hdr) file format, using run-length encoded scanlines.
+ * Images written by this class can be read by RadianceImageLoader, and converting a loaded image back and forth is lossless.
+ */
+public class RadianceImageWriter
+{
+    private static final int MIN_RUN_LENGTH = 4;
+    private static final int MAX_RUN_LENGTH = 127;
+    private static final int MAX_DUMP_LENGTH = 128;
+    private static final int ROWS_PER_BAND = 256;
+    private static final int MAX_EXPONENT = 127;
+
+    public void write(Image image, File file) throws IOException
+    {
+        try(OutputStream out = new FileOutputStream(file))
+        {
+            this.write(image, out);
+        }
+    }
+
+    public void write(Image image, OutputStream out) throws IOException
+    {
+        this.write(image, out, true);
+    }
+
+    /**
+     * Writes an image with three components per pixel.
+     * @param image The image to write.
+     * @param out The stream to write to.
+     * @param topToBottom Whether the bottom row of the image comes first (as in OpenGL, and as returned by RadianceImageLoader by default),
+     *                    in which case the rows are reversed since Radiance files store the top row first.
+     * @throws IOException If the image could not be written.
+     */
+    public void write(Image image, OutputStream out, boolean topToBottom) throws IOException
+    {
+        this.write(image.width, image.height, image.data, 3, out, topToBottom);
+    }
+
+    /**
+     * Writes floating-point pixel data, such as the result of Framebuffer.readFloatingPointColorBufferRGBA().
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param data The pixel data, with the red, green and blue components of each pixel stored first.
+     *             Negative values and NaN are written as zero.
+     * @param componentCount The number of components per pixel (at least 3); any components after the first three are ignored.
+     * @param out The stream to write to.
+     * @param topToBottom Whether the bottom row of the image comes first (as in OpenGL),
+     *                    in which case the rows are reversed since Radiance files store the top row first.
+     * @throws IOException If the image could not be written.
+     */
+    public void write(int width, int height, float[] data, int componentCount, OutputStream out, boolean topToBottom) throws IOException
+    {
+        if (componentCount < 3)
+        {
+            throw new IllegalArgumentException("At least three components per pixel are required.");
+        }
+
+        if (data.length < (long) width * height * componentCount)
+        {
+            throw new IllegalArgumentException("Not enough pixel data for a " + width + 'x' + height + " image.");
+        }
+
+        OutputStream bufferedOut = new BufferedOutputStream(out, 1 << 16);
+
+        bufferedOut.write(("#?RADIANCE\nFORMAT=32-bit_rle_rgbe\n\n-Y " + height + " +X " + width + '\n').getBytes(StandardCharsets.US_ASCII));
+
+        // Encode a band of scanlines in parallel, then write them in order.
+        byte[][] encodedScanLines = new byte[Math.min(height, ROWS_PER_BAND)][];
+
+        for (int bandStart = 0; bandStart < height; bandStart += ROWS_PER_BAND)
+        {
+            int bandOffset = bandStart;
+            int bandSize = Math.min(ROWS_PER_BAND, height - bandStart);
+
+            IntStream.range(0, bandSize).parallel().forEach(i ->
+            {
+                int y = bandOffset + i;
+                encodedScanLines[i] = encodeScanLine(data, topToBottom ? height - y - 1 : y, width, componentCount);
+            });
+
+            for (int i = 0; i < bandSize; i++)
+            {
+                bufferedOut.write(encodedScanLines[i]);
+            }
+        }
+
+        bufferedOut.flush();
+    }
+
+    private static byte[] encodeScanLine(float[] data, int imgY, int width, int componentCount)
+    {
+        byte[] rgbe = new byte[4 * width];
+        int baseOffset = imgY * width * componentCount;
+
+        for (int x = 0; x < width; x++)
+        {
+            int offset = baseOffset + x * componentCount;
+            convertToRGBE(data[offset], data[offset + 1], data[offset + 2], rgbe, 4 * x);
+        }
+
+        if (width < 8 || width > 0x7fff)
+        {
+            // run-length encoding is not allowed, so write the scanline flat
+            return rgbe;
+        }
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(4 * width + 16);
+        encoded.write(2);
+        encoded.write(2);
+        encoded.write(width >> 8);
+        encoded.write(width & 0xff);
+
+        // Write each channel separately
+        byte[] channel = new byte[width];
+        for (int i = 0; i < 4; i++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                channel[x] = rgbe[4 * x + i];
+            }
+
+            encodeChannel(channel, encoded);
+        }
+
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Run-length encodes one channel of a scanline, in the same way as the reference Radiance implementation.
+     * Runs of at least MIN_RUN_LENGTH identical bytes are written as runs; everything else is written as literal dumps.
+     */
+    private static void encodeChannel(byte[] channel, ByteArrayOutputStream out)
+    {
+        int current = 0;
+        while (current < channel.length)
+        {
+            // Find the next run that is long enough to be worth encoding
+            int runStart = current;
+            int runLength = 0;
+            int previousRunLength = 0;
+            while (runLength < MIN_RUN_LENGTH && runStart < channel.length)
+            {
+                runStart += runLength;
+                previousRunLength = runLength;
+                runLength = 1;
+                while (runStart + runLength < channel.length && runLength < MAX_RUN_LENGTH
+                    && channel[runStart] == channel[runStart + runLength])
+                {
+                    runLength++;
+                }
+            }
+
+            // If the data before the next long run is a short run, write it as a run
+            if (previousRunLength > 1 && previousRunLength == runStart - current)
+            {
+                out.write(128 + previousRunLength);
+                out.write(channel[current]);
+                current = runStart;
+            }
+
+            // Write literal bytes until the start of the next long run
+            while (current < runStart)
+            {
+                int dumpLength = Math.min(MAX_DUMP_LENGTH, runStart - current);
+                out.write(dumpLength);
+                out.write(channel, current, dumpLength);
+                current += dumpLength;
+            }
+
+            // Write the long run, if one was found
+            if (runLength >= MIN_RUN_LENGTH)
+            {
+                out.write(128 + runLength);
+                out.write(channel[runStart]);
+                current += runLength;
+            }
+        }
+    }
+
+    private static void convertToRGBE(float red, float green, float blue, byte[] rgbe, int offset)
+    {
+        // Treat negative values and NaN as black, and clamp infinity to the largest representable value.
+        float r = red > 0 ? Math.min(red, Float.MAX_VALUE) : 0.0f;
+        float g = green > 0 ? Math.min(green, Float.MAX_VALUE) : 0.0f;
+        float b = blue > 0 ? Math.min(blue, Float.MAX_VALUE) : 0.0f;
+
+        float max = Math.max(r, Math.max(g, b));
+
+        if (max < 1e-32f)
+        {
+            rgbe[offset] = 0;
+            rgbe[offset + 1] = 0;
+            rgbe[offset + 2] = 0;
+            rgbe[offset + 3] = 0;
+        }
+        else
+        {
+            // max = mantissa * 2^exponent, with the mantissa in [0.5, 1)
+            // Values of 2^127 or more would need an exponent byte of 256, so clamp them to the brightest representable color
+            // rather than letting the exponent wrap around to black.
+            int exponent = Math.min(Math.getExponent(max) + 1, MAX_EXPONENT);
+
+            // Multiplying by a power of two is exact, so this truncates exactly like the reference implementation.
+            float scale = Math.scalb(256.0f, -exponent);
+
+            rgbe[offset] = (byte) Math.min((int) (r * scale), 255);
+            rgbe[offset + 1] = (byte) Math.min((int) (g * scale), 255);
+            rgbe[offset + 2] = (byte) Math.min((int) (b * scale), 255);
+            rgbe[offset + 3] = (byte) (exponent + 128);
+        }
+    }
+}
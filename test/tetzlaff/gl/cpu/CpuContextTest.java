@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.gl.cpu;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tetzlaff.gl.core.*;
+import tetzlaff.gl.core.AlphaBlendingFunction.Weight;
+import tetzlaff.gl.nativebuffer.NativeVectorBufferFactory;
+import tetzlaff.gl.util.ParallelLayerLoader;
+import tetzlaff.gl.vecmath.Vector3;
+
+import static org.junit.Assert.*;
+
+public class CpuContextTest
+{
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 100;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private CpuContext context;
+    private FramebufferObject<CpuContext> framebuffer;
+
+    /**
+     * Passes through a clip space position and an RGB color, and writes the color to the first two attachments
+     * and the pixel coordinates to the third (integer) attachment.
+     */
+    private static class ColorShader implements CpuShader
+    {
+        @Override
+        public int getVaryingCount()
+        {
+            return 3;
+        }
+
+        @Override
+        public void shadeVertex(CpuVertexInput input, float[] position, float[] varyings)
+        {
+            input.getFloats(0, position);
+            varyings[0] = input.getFloat(1, 0);
+            varyings[1] = input.getFloat(1, 1);
+            varyings[2] = input.getFloat(1, 2);
+        }
+
+        @Override
+        public boolean shadeFragment(float[] varyings, CpuFragment fragment)
+        {
+            fragment.setColor(0, varyings[0], varyings[1], varyings[2], 1.0f);
+            fragment.setColor(1, varyings[0], varyings[1], varyings[2], 1.0f);
+            fragment.setIntegerColor(2, fragment.getX(), fragment.getY(), 0, 1);
+            return true;
+        }
+    }
+
+    @Before
+    public void setUp()
+    {
+        context = new CpuContext(WIDTH, HEIGHT);
+        framebuffer = context.buildFramebufferObject(WIDTH, HEIGHT)
+            .addColorAttachment(ColorFormat.RGBA8)
+            .addColorAttachment(ColorFormat.RGBA32F)
+            .addColorAttachment(ColorFormat.RGBA32I)
+            .addDepthAttachment()
+            .createFramebufferObject();
+    }
+
+    private Drawable<CpuContext> createDrawable(float[] positions, Vector3 color)
+    {
+        Drawable<CpuContext> drawable = context.createDrawable(context.createProgram(new ColorShader()));
+        drawable.addVertexBuffer(0, context.createVertexBuffer()
+            .setData(NativeVectorBufferFactory.getInstance().createFromFloatArray(4, positions.length / 4, positions)));
+        drawable.setVertexAttrib(1, color);
+        return drawable;
+    }
+
+    private static float[] createQuad(float depth)
+    {
+        // Counter-clockwise, in the order of a triangle fan
+        return new float[]
+        {
+            -1, -1, depth, 1,
+             1, -1, depth, 1,
+             1,  1, depth, 1,
+            -1,  1, depth, 1
+        };
+    }
+
+    private int countPixels(float red)
+    {
+        float[] colors = framebuffer.readFloatingPointColorBufferRGBA(1);
+        int count = 0;
+        for (int i = 0; i < WIDTH * HEIGHT; i++)
+        {
+            if (colors[4 * i] == red)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void clearAndReadBack()
+    {
+        framebuffer.clearColorBuffer(0, 1.0f, 0.5f, 0.0f, 1.0f);
+        framebuffer.clearColorBuffer(1, 0.25f, -2.0f, 1000.0f, 1.0f);
+        framebuffer.clearIntegerColorBuffer(2, -7, 3, 1 << 20, 1);
+        framebuffer.clearDepthBuffer(0.5f);
+
+        int[] argb = framebuffer.readColorBufferARGB(0);
+        assertEquals(WIDTH * HEIGHT, argb.length);
+        assertEquals(0xFFFF8000, argb[0]);
+        assertEquals(0xFFFF8000, argb[argb.length - 1]);
+
+        float[] floats = framebuffer.readFloatingPointColorBufferRGBA(1, 10, 20, 2, 2);
+        assertArrayEquals(new float[] { 0.25f, -2.0f, 1000.0f, 1.0f }, java.util.Arrays.copyOfRange(floats, 12, 16), 0.0f);
+
+        int[] ints = framebuffer.readIntegerColorBufferRGBA(2);
+        assertArrayEquals(new int[] { -7, 3, 1 << 20, 1 }, java.util.Arrays.copyOfRange(ints, 0, 4));
+
+        short[] depth = framebuffer.readDepthBuffer();
+        assertEquals(32768, depth[0] & 0xFFFF, 1);
+    }
+
+    @Test
+    public void drawWithIndexBufferToMultipleRenderTargets()
+    {
+        framebuffer.clearColorBuffer(0, 0.0f, 0.0f, 0.0f, 0.0f);
+        framebuffer.clearColorBuffer(1, 0.0f, 0.0f, 0.0f, 0.0f);
+        framebuffer.clearIntegerColorBuffer(2, -1, -1, -1, -1);
+
+        Drawable<CpuContext> drawable = createDrawable(createQuad(0.0f), new Vector3(1.0f, 0.5f, 0.25f));
+        drawable.setIndexBuffer(context.createIndexBuffer().setData(0, 1, 2, 0, 2, 3));
+        drawable.draw(PrimitiveMode.TRIANGLES, framebuffer);
+
+        int[] argb = framebuffer.readColorBufferARGB(0);
+        float[] floats = framebuffer.readFloatingPointColorBufferRGBA(1);
+        int[] ints = framebuffer.readIntegerColorBufferRGBA(2);
+
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            for (int x = 0; x < WIDTH; x++)
+            {
+                int i = y * WIDTH + x;
+                assertEquals(0xFFFF8040, argb[i]);
+                assertEquals(0.5f, floats[4 * i + 1], 0.0f);
+                assertEquals(0.25f, floats[4 * i + 2], 0.0f);
+
+                // The first row read back is the bottom row.
+                assertEquals(x, ints[4 * i]);
+                assertEquals(y, ints[4 * i + 1]);
+            }
+        }
+    }
+
+    @Test
+    public void drawTriangleFanAndStrip()
+    {
+        framebuffer.clearColorBuffer(1, 0.0f, 0.0f, 0.0f, 0.0f);
+        createDrawable(createQuad(0.0f), new Vector3(1.0f, 0.0f, 0.0f)).draw(PrimitiveMode.TRIANGLE_FAN, framebuffer);
+        assertEquals(WIDTH * HEIGHT, countPixels(1.0f));
+
+        // The same quad in strip order; the second triangle of the strip is reversed to keep the winding consistent.
+        float[] quad = createQuad(0.0f);
+        float[] strip = new float[16];
+        System.arraycopy(quad, 0, strip, 0, 8);
+        System.arraycopy(quad, 12, strip, 8, 4);
+        System.arraycopy(quad, 8, strip, 12, 4);
+
+        context.getState().enableBackFaceCulling();
+        createDrawable(strip, new Vector3(2.0f, 0.0f, 0.0f)).draw(PrimitiveMode.TRIANGLE_STRIP, framebuffer);
+        assertEquals(WIDTH * HEIGHT, countPixels(2.0f));
+    }
+
+    @Test
+    public void sharedEdgesAreCoveredExactlyOnce()
+    {
+        // A fan of thin triangles around an off-center point, drawn with additive blending
+        int segmentCount = 500;
+        float[] fan = new float[4 * (segmentCount + 2)];
+        fan[0] = 0.0123f;
+        fan[1] = -0.0456f;
+        fan[3] = 1.0f;
+        for (int i = 0; i <= segmentCount; i++)
+        {
+            double angle = 2 * Math.PI * (i % segmentCount) / segmentCount;
+            fan[4 * (i + 1)] = (float)(1.5 * Math.cos(angle));
+            fan[4 * (i + 1) + 1] = (float)(1.5 * Math.sin(angle));
+            fan[4 * (i + 1) + 3] = 1.0f;
+        }
+
+        framebuffer.clearColorBuffer(1, 0.0f, 0.0f, 0.0f, 0.0f);
+        context.getState().setAlphaBlendingFunction(new AlphaBlendingFunction(Weight.ONE, Weight.ONE));
+        createDrawable(fan, new Vector3(1.0f, 0.0f, 0.0f)).draw(PrimitiveMode.TRIANGLE_FAN, framebuffer);
+        assertEquals(WIDTH * HEIGHT, countPixels(1.0f));
+    }
+
+    @Test
+    public void depthTest()
+    {
+        framebuffer.clearColorBuffer(1, 0.0f, 0.0f, 0.0f, 0.0f);
+        framebuffer.clearDepthBuffer();
+        context.getState().enableDepthTest();
+
+        createDrawable(createQuad(0.5f), new Vector3(1.0f, 0.0f, 0.0f)).draw(PrimitiveMode.TRIANGLE_FAN, framebuffer);
+        createDrawable(createQuad(0.75f), new Vector3(2.0f, 0.0f, 0.0f)).draw(PrimitiveMode.TRIANGLE_FAN, framebuffer);
+        assertEquals(WIDTH * HEIGHT, countPixels(1.0f));
+
+        // Window space depth is (z + 1) / 2.
+        assertEquals(0.75 * 65535, framebuffer.readDepthBuffer()[0] & 0xFFFF, 1.0);
+
+        createDrawable(createQuad(-0.5f), new Vector3(3.0f, 0.0f, 0.0f)).draw(PrimitiveMode.TRIANGLE_FAN, framebuffer);
+        assertEquals(WIDTH * HEIGHT, countPixels(3.0f));
+    }
+
+    @Test
+    public void perspectiveCorrectInterpolation()
+    {
+        // A quad whose right edge is four times as far away, with the varying set to the distance.
+        float[] positions = { -1, -1, 0, 1,   4, -4, 0, 4,   4, 4, 0, 4,   -1, 1, 0, 1 };
+        float[] distances = { 1, 0, 0,   4, 0, 0,   4, 0, 0,   1, 0, 0 };
+
+        Drawable<CpuContext> drawable = context.createDrawable(context.createProgram(new ColorShader()));
+        drawable.addVertexBuffer(0, context.createVertexBuffer()
+            .setData(NativeVectorBufferFactory.getInstance().createFromFloatArray(4, 4, positions)));
+        drawable.addVertexBuffer(1, context.createVertexBuffer()
+            .setData(NativeVectorBufferFactory.getInstance().createFromFloatArray(3, 4, distances)));
+
+        framebuffer.clearColorBuffer(1, 0.0f, 0.0f, 0.0f, 0.0f);
+        drawable.draw(PrimitiveMode.TRIANGLE_FAN, framebuffer);
+
+        float[] colors = framebuffer.readFloatingPointColorBufferRGBA(1);
+        for (int x = 0; x < WIDTH; x++)
+        {
+            // 1 / distance is linear in screen space.
+            double s = (x + 0.5) / WIDTH;
+            double expected = 1.0 / (1.0 - s + s / 4.0);
+            assertEquals(expected, colors[4 * (HEIGHT / 2 * WIDTH + x)], 1.0e-4 * expected);
+        }
+    }
+
+    @Test
+    public void registeredShaderProgram() throws FileNotFoundException
+    {
+        context.registerShader(defines -> new ColorShader(), new File("shaders/common/texspace.vert"), new File("shaders/common/solid.frag"));
+
+        Program<CpuContext> program = context.getShaderProgramBuilder()
+            .addShader(ShaderType.VERTEX, new File("shaders/common/texspace.vert"))
+            .addShader(ShaderType.FRAGMENT, new File("shaders/common/../common/solid.frag"))
+            .createProgram();
+
+        Drawable<CpuContext> drawable = context.createDrawable(program);
+        drawable.addVertexBuffer("position", context.createVertexBuffer()
+            .setData(NativeVectorBufferFactory.getInstance().createFromFloatArray(4, 4, createQuad(0.0f))));
+        drawable.setVertexAttrib("color", new Vector3(0.0f, 1.0f, 0.0f));
+
+        DoubleFramebuffer<CpuContext> defaultFramebuffer = context.getDefaultFramebuffer();
+        defaultFramebuffer.clearColorBuffer(0, 0.0f, 0.0f, 0.0f, 1.0f);
+        drawable.draw(PrimitiveMode.TRIANGLE_FAN, context);
+        defaultFramebuffer.swapBuffers();
+
+        int[] argb = defaultFramebuffer.readColorBufferARGB(0);
+        assertEquals(0xFF00FF00, argb[0]);
+        assertEquals(0xFF00FF00, argb[argb.length - 1]);
+    }
+
+    /**
+     * Writes an image whose top half is one color and whose bottom half is another.
+     */
+    private File writeImage(String name, int width, int height, int topARGB, int bottomARGB) throws IOException
+    {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                image.setRGB(x, y, y < height / 2 ? topARGB : bottomARGB);
+            }
+        }
+
+        File file = temporaryFolder.newFile(name);
+        ImageIO.write(image, "PNG", file);
+        return file;
+    }
+
+    private static void assertSample(CpuTexture3D texture, float t, int layer, int expectedARGB)
+    {
+        float[] rgba = new float[4];
+        texture.sample(0.5f, t, layer, rgba);
+        assertEquals((expectedARGB >>> 16 & 0xFF) / 255.0f, rgba[0], 0.002f);
+        assertEquals((expectedARGB >>> 8 & 0xFF) / 255.0f, rgba[1], 0.002f);
+        assertEquals((expectedARGB & 0xFF) / 255.0f, rgba[2], 0.002f);
+        assertEquals((expectedARGB >>> 24) / 255.0f, rgba[3], 0.002f);
+    }
+
+    @Test
+    public void loadTextureArrayInParallel() throws IOException
+    {
+        int layerCount = 6;
+        File[] imageFiles = new File[layerCount];
+        int[] topColors = new int[layerCount];
+        int[] bottomColors = new int[layerCount];
+
+        for (int i = 0; i < layerCount; i++)
+        {
+            topColors[i] = 0xFFFF0000 | (40 * i) << 8;
+            bottomColors[i] = 0xFF0000FF | (40 * i) << 8;
+
+            // The last layer is twice as large as the texture and should be scaled down.
+            int scale = i == layerCount - 1 ? 2 : 1;
+            imageFiles[i] = writeImage(i + ".png", 8 * scale, 4 * scale, topColors[i], bottomColors[i]);
+        }
+
+        // The mask for the first layer replaces its alpha channel with its green channel.
+        File maskFile = writeImage("mask.png", 8, 4, 0xFF008000, 0xFF00FF00);
+
+        CpuTexture3D texture = (CpuTexture3D) context.getTextureFactory().build2DColorTextureArray(8, 4, layerCount)
+            .setInternalFormat(ColorFormat.RGBA8)
+            .createTexture();
+
+        int[] progress = { 0 };
+
+        // The same way that IBRResources loads the view images.
+        new ParallelLayerLoader(3, 2).loadLayers(texture, layerCount,
+            i -> i == 0 ? texture.decodeLayer(imageFiles[i], maskFile, true) : texture.decodeLayer(imageFiles[i], true),
+            layersLoaded -> assertEquals(++progress[0], layersLoaded));
+
+        assertEquals(layerCount, progress[0]);
+
+        // Flipped vertically, so the bottom of the image is at the bottom of the texture (t = 0).
+        assertSample(texture, 0.125f, 0, bottomColors[0] & 0x00FFFFFF | 0xFF000000);
+        assertSample(texture, 0.875f, 0, topColors[0] & 0x00FFFFFF | 0x80000000);
+
+        for (int i = 1; i < layerCount; i++)
+        {
+            assertSample(texture, 0.125f, i, bottomColors[i]);
+            assertSample(texture, 0.875f, i, topColors[i]);
+        }
+    }
+}
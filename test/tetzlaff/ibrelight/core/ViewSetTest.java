@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ViewSetTest
+{
+    // Enough views for the binary companion file to be written.
+    private static final int VIEW_COUNT = ViewSetBinaryFile.MIN_VIEW_COUNT;
+
+    private static final String GEOMETRY_FILE_NAME = "mod\u00e8le.obj";
+    private static final String IMAGE_PATH = "images/\u00dcberblick";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static String getImageFileName(int index)
+    {
+        return "vue_" + index + "_\u65e5\u672c\u8a9e.png";
+    }
+
+    private File writeVSETFile() throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+        text.append("m ").append(GEOMETRY_FILE_NAME).append('\n');
+        text.append("i ").append(IMAGE_PATH).append('\n');
+        text.append("c 0.1 100\n");
+        text.append("f 0 0 1.5 45\n");
+        text.append("P 1 0 0 0 0 1 0 0 0 0 1 -5 0 0 0 1\n");
+        text.append("l 0 0 0 1 1 1\n");
+        for (int i = 0; i < VIEW_COUNT; i++)
+        {
+            text.append("v 0 0 0 ").append(getImageFileName(i)).append('\n');
+        }
+
+        File file = temporaryFolder.newFile("test.vset");
+        Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static void assertNames(ViewSet viewSet)
+    {
+        assertEquals(GEOMETRY_FILE_NAME, viewSet.getGeometryFileName());
+        assertEquals(IMAGE_PATH, viewSet.getRelativeImagePathName());
+        assertEquals(VIEW_COUNT, viewSet.getCameraPoseCount());
+        for (int i = 0; i < VIEW_COUNT; i++)
+        {
+            assertEquals(getImageFileName(i), viewSet.getImageFileName(i));
+        }
+    }
+
+    @Test
+    public void nonASCIIFileNames() throws IOException
+    {
+        File vsetFile = writeVSETFile();
+
+        // Parsed from text, which also writes the binary file.
+        assertNames(ViewSet.loadFromVSETFile(vsetFile));
+        assertTrue(ViewSetBinaryFile.getBinaryFile(vsetFile).isFile());
+
+        // Read back from the binary file.
+        assertNames(ViewSet.loadFromVSETFile(vsetFile));
+
+        // The reference parser should agree.
+        assertNames(ViewSet.loadFromVSETFileWithScanner(vsetFile));
+
+        // Writing the view set out again should preserve the names.
+        File rewrittenFile = temporaryFolder.newFile("rewritten.vset");
+        try(OutputStream out = new FileOutputStream(rewrittenFile))
+        {
+            ViewSet.loadFromVSETFile(vsetFile).writeVSETFileToStream(out);
+        }
+        assertNames(ViewSet.loadFromVSETFile(rewrittenFile, false));
+    }
+}
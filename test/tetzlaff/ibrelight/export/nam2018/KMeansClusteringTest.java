@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.ibrelight.export.nam2018;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KMeansClusteringTest
+{
+    private static final int CLUSTER_COUNT = 8;
+    private static final double TOLERANCE = 0.0001;
+    private static final int DATA_SET_COUNT = 4;
+    private static final int SEED_COUNT = 9;
+    private static final int TEXEL_COUNT = 50000;
+    private static final int BLOB_COUNT = 12;
+
+    /**
+     * Creates texels whose colors are drawn from a mixture of Gaussian blobs of different sizes and spreads,
+     * with more blobs than clusters, and with some texels not visible.
+     */
+    private static float[] generateTexels(int texelCount, int blobCount, long seed)
+    {
+        Random random = new Random(seed);
+
+        double[] blobCenters = new double[3 * blobCount];
+        double[] blobSpreads = new double[blobCount];
+        double[] blobWeights = new double[blobCount];
+        double totalWeight = 0.0;
+        for (int k = 0; k < blobCount; k++)
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                blobCenters[3 * k + i] = random.nextDouble();
+            }
+            blobSpreads[k] = 0.01 + 0.05 * random.nextDouble();
+            blobWeights[k] = Math.pow(10.0, -2.0 * random.nextDouble()); // Some blobs are up to 100 times smaller than others
+            totalWeight += blobWeights[k];
+        }
+
+        float[] colorsAndVisibility = new float[4 * texelCount];
+        for (int p = 0; p < texelCount; p++)
+        {
+            double x = random.nextDouble() * totalWeight;
+            int k = 0;
+            while (k < blobCount - 1 && x >= blobWeights[k])
+            {
+                x -= blobWeights[k];
+                k++;
+            }
+
+            for (int i = 0; i < 3; i++)
+            {
+                colorsAndVisibility[4 * p + i] = (float)(blobCenters[3 * k + i] + blobSpreads[k] * random.nextGaussian());
+            }
+
+            colorsAndVisibility[4 * p + 3] = random.nextInt(10) == 0 ? 0.0f : 1.0f;
+        }
+
+        return colorsAndVisibility;
+    }
+
+    /**
+     * The k-means++ seeding that Nam2018Request used before k-means||: each center is chosen from all of the texels
+     * with probability proportional to the squared distance to the nearest center chosen so far.
+     */
+    private static double[] initializeCentersWithKMeansPlusPlus(float[] colorsAndVisibility, int clusterCount, Random random)
+    {
+        int texelCount = colorsAndVisibility.length / 4;
+        int firstCenter;
+        do
+        {
+            firstCenter = random.nextInt(texelCount);
+        }
+        while (colorsAndVisibility[4 * firstCenter + 3] == 0.0f);
+
+        double[] centers = new double[3 * clusterCount];
+        for (int i = 0; i < 3; i++)
+        {
+            centers[i] = colorsAndVisibility[4 * firstCenter + i];
+        }
+
+        double[] squaredDistances = new double[texelCount];
+        for (int b = 1; b < clusterCount; b++)
+        {
+            double total = 0.0;
+            for (int p = 0; p < texelCount; p++)
+            {
+                if (colorsAndVisibility[4 * p + 3] > 0.0f)
+                {
+                    double minDistance = Double.POSITIVE_INFINITY;
+                    for (int b2 = 0; b2 < b; b2++)
+                    {
+                        double distance = 0.0;
+                        for (int i = 0; i < 3; i++)
+                        {
+                            double difference = colorsAndVisibility[4 * p + i] - centers[3 * b2 + i];
+                            distance += difference * difference;
+                        }
+                        minDistance = Math.min(minDistance, distance);
+                    }
+                    squaredDistances[p] = minDistance;
+                    total += minDistance;
+                }
+            }
+
+            double x = random.nextDouble() * total;
+            int chosen = -1;
+            for (int p = 0; p < texelCount && x >= 0.0; p++)
+            {
+                if (colorsAndVisibility[4 * p + 3] > 0.0f && squaredDistances[p] > 0.0)
+                {
+                    chosen = p;
+                    x -= squaredDistances[p];
+                }
+            }
+
+            for (int i = 0; i < 3; i++)
+            {
+                centers[3 * b + i] = colorsAndVisibility[4 * chosen + i];
+            }
+        }
+
+        return centers;
+    }
+
+    /**
+     * Runs Lloyd's algorithm to convergence, as Nam2018Request does, and returns the final cost.
+     */
+    private static double converge(KMeansClustering clustering, double[] centers)
+    {
+        int iterations = 0;
+        while (clustering.refineCenters(centers, TOLERANCE))
+        {
+            iterations++;
+            assertTrue("k-means did not converge", iterations < 1000);
+        }
+
+        return clustering.getCost(centers);
+    }
+
+    private static double median(double[] values)
+    {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Both seedings occasionally converge to a poor local minimum, so the median cost over several seeds is compared for each texture.
+     * The median converged cost with k-means|| must be no more than 10% higher than with k-means++.
+     */
+    @Test
+    public void convergedCostIsComparableToKMeansPlusPlus()
+    {
+        for (int data = 0; data < DATA_SET_COUNT; data++)
+        {
+            float[] texels = generateTexels(TEXEL_COUNT, BLOB_COUNT, data);
+            KMeansClustering clustering = new KMeansClustering(texels);
+
+            double[] scalableCosts = new double[SEED_COUNT];
+            double[] serialCosts = new double[SEED_COUNT];
+            for (int seed = 0; seed < SEED_COUNT; seed++)
+            {
+                scalableCosts[seed] = converge(clustering, clustering.initializeCenters(CLUSTER_COUNT, new SplittableRandom(seed)));
+                serialCosts[seed] = converge(clustering, initializeCentersWithKMeansPlusPlus(texels, CLUSTER_COUNT, new Random(seed)));
+            }
+
+            assertTrue("Median cost " + median(scalableCosts) + " with k-means|| vs. " + median(serialCosts) + " with k-means++",
+                median(scalableCosts) <= 1.1 * median(serialCosts));
+        }
+    }
+
+    @Test
+    public void invisibleTexelsAreNotClustered()
+    {
+        float[] texels = generateTexels(1000, BLOB_COUNT, 0);
+        KMeansClustering clustering = new KMeansClustering(texels);
+        int[] clusters = clustering.assignClusters(clustering.initializeCenters(CLUSTER_COUNT, new SplittableRandom(0)));
+
+        int visibleCount = 0;
+        for (int p = 0; p < 1000; p++)
+        {
+            if (texels[4 * p + 3] > 0.0f)
+            {
+                visibleCount++;
+                assertTrue(clusters[p] >= 0 && clusters[p] < CLUSTER_COUNT);
+            }
+            else
+            {
+                assertEquals(-1, clusters[p]);
+            }
+        }
+
+        assertEquals(visibleCount, clustering.getColorCount());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.data.FMatrixRMaj;
+import org.ejml.dense.row.factory.DecompositionFactory_DDRM;
+import org.ejml.interfaces.decomposition.SingularValueDecomposition_F64;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FastPartialSVDTest
+{
+    private static final int PIXEL_COUNT = 32 * 32;
+    private static final int COLUMN_COUNT = 3 * 128;
+    private static final int RANK = 24;
+    private static final int SINGULAR_VALUE_COUNT = 16;
+
+    /**
+     * A low-rank matrix plus noise, the same shape as one block of the SVD export (see FastPartialSVDBenchmark).
+     */
+    private static SimpleMatrix generateBlock(long seed, double decay, double noise)
+    {
+        Random random = new Random(seed);
+
+        SimpleMatrix left = new SimpleMatrix(PIXEL_COUNT, RANK, FMatrixRMaj.class);
+        SimpleMatrix right = new SimpleMatrix(RANK, COLUMN_COUNT, FMatrixRMaj.class);
+
+        for (int r = 0; r < RANK; r++)
+        {
+            double scale = Math.pow(decay, r);
+            for (int i = 0; i < PIXEL_COUNT; i++)
+            {
+                left.set(i, r, scale * random.nextGaussian());
+            }
+            for (int j = 0; j < COLUMN_COUNT; j++)
+            {
+                right.set(r, j, random.nextGaussian());
+            }
+        }
+
+        SimpleMatrix block = left.mult(right);
+        for (int i = 0; i < PIXEL_COUNT; i++)
+        {
+            for (int j = 0; j < COLUMN_COUNT; j++)
+            {
+                block.set(i, j, block.get(i, j) + noise * random.nextGaussian());
+            }
+        }
+
+        return block;
+    }
+
+    /**
+     * The Frobenius norm of the residual of the best possible approximation with the specified rank, using a full SVD.
+     */
+    private static double getOptimalResidual(SimpleMatrix matrix, int rank)
+    {
+        DMatrixRMaj copy = new DMatrixRMaj(matrix.numRows(), matrix.numCols());
+        for (int i = 0; i < matrix.numRows(); i++)
+        {
+            for (int j = 0; j < matrix.numCols(); j++)
+            {
+                copy.set(i, j, matrix.get(i, j));
+            }
+        }
+
+        SingularValueDecomposition_F64<DMatrixRMaj> svd =
+            DecompositionFactory_DDRM.svd(copy.numRows, copy.numCols, false, false, true);
+        assertTrue(svd.decompose(copy));
+
+        double[] singularValues = Arrays.copyOf(svd.getSingularValues(), svd.numberOfSingularValues());
+        Arrays.sort(singularValues);
+
+        double sumSquared = 0.0;
+        for (int i = 0; i < singularValues.length - rank; i++)
+        {
+            sumSquared += singularValues[i] * singularValues[i];
+        }
+
+        return Math.sqrt(sumSquared);
+    }
+
+    private static void checkDefaultAccuracy(double decay, double noise)
+    {
+        SimpleMatrix block = generateBlock(0, decay, noise);
+        double optimalResidual = getOptimalResidual(block, SINGULAR_VALUE_COUNT);
+
+        SimpleMatrix randomizedResidual = block.copy();
+        FastPartialSVD randomized = FastPartialSVD.computeRandomized(randomizedResidual, SINGULAR_VALUE_COUNT);
+        assertEquals(SINGULAR_VALUE_COUNT, randomized.getSingularValues().length);
+
+        // Within 0.1% of the best possible approximation (about 0.01% is typical).
+        assertEquals(optimalResidual, randomizedResidual.normF(), 0.001 * optimalResidual);
+
+        // At least as accurate as the power method, with the parameters that the SVD export used.
+        SimpleMatrix powerMethodResidual = block.copy();
+        FastPartialSVD.compute(powerMethodResidual, SINGULAR_VALUE_COUNT, 0.05f, 16, 3);
+        assertTrue(randomizedResidual.normF() <= powerMethodResidual.normF() * 1.0001);
+    }
+
+    @Test
+    public void randomizedDefaultsAreNearOptimalForFastDecay()
+    {
+        checkDefaultAccuracy(0.7, 0.001);
+    }
+
+    @Test
+    public void randomizedDefaultsAreNearOptimalForSlowDecay()
+    {
+        checkDefaultAccuracy(0.95, 0.01);
+    }
+
+    @Test
+    public void nonDestructiveErrorMatchesInPlaceResidual()
+    {
+        SimpleMatrix block = generateBlock(1, 0.85, 0.01);
+        SimpleMatrix inPlace = block.copy();
+        FastPartialSVD.computeRandomized(inPlace, SINGULAR_VALUE_COUNT);
+
+        FastPartialSVD svd = FastPartialSVD.computeRandomized(block, SINGULAR_VALUE_COUNT, FastPartialSVD.DEFAULT_OVERSAMPLING,
+            FastPartialSVD.DEFAULT_POWER_ITERATIONS, 0L, false, false);
+        assertEquals(inPlace.normF(), svd.getError().normF(), 1.0e-4 * inPlace.normF());
+    }
+}
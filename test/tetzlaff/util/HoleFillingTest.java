@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HoleFillingTest
+{
+    private static long getSquaredDistance(int width, int index1, int index2)
+    {
+        long dx = index1 % width - index2 % width;
+        long dy = index1 / width - index2 / width;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Checks the result against a brute force search.  Ties may be broken either way, so only the distances are compared.
+     */
+    private static void checkAgainstBruteForce(int width, int height, boolean[] valid)
+    {
+        AtomicIntegerArray testCounts = new AtomicIntegerArray(width * height);
+        int[] nearest = HoleFilling.findNearestValidTexels(width, height, i ->
+        {
+            testCounts.incrementAndGet(i);
+            return valid[i];
+        });
+
+        assertEquals(width * height, nearest.length);
+
+        boolean anyValid = false;
+        for (int i = 0; i < width * height; i++)
+        {
+            assertEquals("Validity should be tested exactly once per texel", 1, testCounts.get(i));
+            anyValid = anyValid || valid[i];
+        }
+
+        for (int i = 0; i < width * height; i++)
+        {
+            if (!anyValid)
+            {
+                assertEquals(-1, nearest[i]);
+            }
+            else if (valid[i])
+            {
+                assertEquals(i, nearest[i]);
+            }
+            else
+            {
+                long bruteForceDistance = Long.MAX_VALUE;
+                for (int j = 0; j < width * height; j++)
+                {
+                    if (valid[j])
+                    {
+                        bruteForceDistance = Math.min(bruteForceDistance, getSquaredDistance(width, i, j));
+                    }
+                }
+
+                assertTrue("Texel " + i + " should map to a valid texel", nearest[i] >= 0 && valid[nearest[i]]);
+                assertEquals("Distance for texel " + i + " in a " + width + 'x' + height + " image",
+                    bruteForceDistance, getSquaredDistance(width, i, nearest[i]));
+            }
+        }
+    }
+
+    @Test
+    public void randomImagesMatchBruteForce()
+    {
+        Random random = new Random(0);
+        for (int trial = 0; trial < 300; trial++)
+        {
+            // Wider than the column strips in some cases, and taller than the row tasks.
+            int width = 1 + random.nextInt(trial % 10 == 0 ? 150 : 40);
+            int height = 1 + random.nextInt(40);
+
+            // Some images are mostly holes, others mostly valid.
+            double density = Math.pow(random.nextDouble(), 3);
+            boolean[] valid = new boolean[width * height];
+            for (int i = 0; i < valid.length; i++)
+            {
+                valid[i] = random.nextDouble() < density;
+            }
+
+            checkAgainstBruteForce(width, height, valid);
+        }
+    }
+
+    @Test
+    public void singleValidTexel()
+    {
+        boolean[] valid = new boolean[70 * 30];
+        valid[29 * 70 + 69] = true;
+        checkAgainstBruteForce(70, 30, valid);
+    }
+
+    @Test
+    public void noValidTexels()
+    {
+        checkAgainstBruteForce(70, 33, new boolean[70 * 33]);
+    }
+
+    @Test
+    public void singleRowAndColumn()
+    {
+        Random random = new Random(1);
+        for (int length = 1; length <= 100; length++)
+        {
+            boolean[] valid = new boolean[length];
+            valid[random.nextInt(length)] = true;
+            valid[random.nextInt(length)] = true;
+
+            checkAgainstBruteForce(length, 1, valid);
+            checkAgainstBruteForce(1, length, valid);
+        }
+    }
+
+    @Test
+    public void emptyImage()
+    {
+        assertEquals(0, HoleFilling.findNearestValidTexels(0, 0, i -> true).length);
+        assertEquals(0, HoleFilling.findNearestValidTexels(10, 0, i -> true).length);
+        assertEquals(0, HoleFilling.findNearestValidTexels(0, 10, i -> true).length);
+    }
+
+    @Test
+    public void allValid()
+    {
+        boolean[] valid = new boolean[64 * 17];
+        Arrays.fill(valid, true);
+        checkAgainstBruteForce(64, 17, valid);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.util.Random;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Test;
+
+import static org.ejml.dense.row.CommonOps_DDRM.multTransA;
+import static org.junit.Assert.*;
+
+/**
+ * Compares NonNegativeLeastSquaresSolver against the original LU-based implementation
+ * on the two shapes of problem solved when fitting the Nam 2018 model (see NonNegativeLeastSquaresBenchmark).
+ */
+public class NonNegativeLeastSquaresSolverTest
+{
+    private static final int BASIS_COUNT = 8;
+    private static final int BRDF_MATRIX_SIZE = BASIS_COUNT * 91;
+    private static final double EPSILON = 1e-12;
+
+    /**
+     * Generates the premultiplied form of a random problem with a sparse non-negative solution, so that some constraints are active.
+     */
+    private static SimpleMatrix[] generateProblem(Random random, int rowCount, int columnCount)
+    {
+        SimpleMatrix mA = new SimpleMatrix(rowCount, columnCount, DMatrixRMaj.class);
+        for (int i = 0; i < rowCount; i++)
+        {
+            for (int j = 0; j < columnCount; j++)
+            {
+                mA.set(i, j, random.nextDouble());
+            }
+        }
+
+        SimpleMatrix x = new SimpleMatrix(columnCount, 1, DMatrixRMaj.class);
+        for (int j = 0; j < columnCount; j++)
+        {
+            x.set(j, random.nextInt(3) == 0 ? random.nextDouble() : 0.0);
+        }
+
+        SimpleMatrix b = mA.mult(x);
+        for (int i = 0; i < rowCount; i++)
+        {
+            b.set(i, b.get(i) + 0.05 * random.nextGaussian());
+        }
+
+        SimpleMatrix mATA = new SimpleMatrix(columnCount, columnCount, DMatrixRMaj.class);
+        SimpleMatrix vATb = new SimpleMatrix(columnCount, 1, DMatrixRMaj.class);
+        multTransA(mA.getMatrix(), mA.getMatrix(), mATA.getMatrix());
+        multTransA(mA.getMatrix(), b.getMatrix(), vATb.getMatrix());
+        return new SimpleMatrix[] { mATA, vATb };
+    }
+
+    /**
+     * Augments a problem with the constraint that the variables sum to one, the same way that Nam2018Request does.
+     */
+    private static SimpleMatrix[] addSumToOneConstraint(SimpleMatrix[] problem)
+    {
+        int n = problem[0].numRows();
+        SimpleMatrix augmentedATA = new SimpleMatrix(n + 1, n + 1, DMatrixRMaj.class);
+        SimpleMatrix augmentedATb = new SimpleMatrix(n + 1, 1, DMatrixRMaj.class);
+        augmentedATA.insertIntoThis(0, 0, problem[0]);
+        augmentedATb.insertIntoThis(0, 0, problem[1]);
+        for (int b = 0; b < n; b++)
+        {
+            augmentedATA.set(b, n, 1.0);
+            augmentedATA.set(n, b, 1.0);
+        }
+        augmentedATb.set(n, 1.0);
+        return new SimpleMatrix[] { augmentedATA, augmentedATb };
+    }
+
+    private static void assertSolutionsEqual(SimpleMatrix expected, double[] actual, double tolerance)
+    {
+        assertEquals(expected.numRows(), actual.length);
+
+        double scale = 1.0;
+        for (int i = 0; i < actual.length; i++)
+        {
+            scale = Math.max(scale, Math.abs(expected.get(i)));
+        }
+
+        for (int i = 0; i < actual.length; i++)
+        {
+            assertEquals("Element " + i, expected.get(i), actual[i], tolerance * scale);
+        }
+    }
+
+    private static double[] toArray(SimpleMatrix vector)
+    {
+        return ((DMatrixRMaj)vector.getMatrix()).data.clone();
+    }
+
+    @Test
+    public void weightProblemsMatchLU()
+    {
+        Random random = new Random(0);
+
+        // One solver reused for every problem, as in Nam2018Request
+        NonNegativeLeastSquaresSolver solver = new NonNegativeLeastSquaresSolver(BASIS_COUNT, 1);
+        double[] solution = new double[BASIS_COUNT + 1];
+
+        for (int p = 0; p < 1000; p++)
+        {
+            SimpleMatrix[] problem = addSumToOneConstraint(generateProblem(random, 64, BASIS_COUNT));
+            assertEquals(9, problem[0].numRows());
+
+            SimpleMatrix expected = NonNegativeLeastSquares.solvePremultipliedWithEqualityConstraintsUsingLU(problem[0], problem[1], EPSILON, 1);
+            solver.solve(((DMatrixRMaj)problem[0].getMatrix()).data, ((DMatrixRMaj)problem[1].getMatrix()).data, EPSILON, solution);
+            assertSolutionsEqual(expected, solution, 1e-9);
+
+            double sum = 0.0;
+            for (int b = 0; b < BASIS_COUNT; b++)
+            {
+                assertTrue(solution[b] >= 0.0);
+                sum += solution[b];
+            }
+            assertEquals(1.0, sum, 1e-9);
+
+            // The public entry point should give the same result.
+            assertSolutionsEqual(expected,
+                toArray(NonNegativeLeastSquares.solvePremultipliedWithEqualityConstraints(problem[0], problem[1], EPSILON, 1)), 1e-9);
+        }
+    }
+
+    @Test
+    public void brdfProblemMatchesLU()
+    {
+        SimpleMatrix[] problem = generateProblem(new Random(1), 2 * BRDF_MATRIX_SIZE, BRDF_MATRIX_SIZE);
+        assertEquals(728, problem[0].numRows());
+
+        SimpleMatrix expected = NonNegativeLeastSquares.solvePremultipliedWithEqualityConstraintsUsingLU(problem[0], problem[1], EPSILON, 0);
+        double[] actual = toArray(NonNegativeLeastSquares.solvePremultiplied(problem[0], problem[1], EPSILON));
+        assertSolutionsEqual(expected, actual, 1e-8);
+
+        int positiveCount = 0;
+        for (double value : actual)
+        {
+            assertTrue(value >= 0.0);
+            if (value > 0.0)
+            {
+                positiveCount++;
+            }
+        }
+
+        // Make sure that the non-negativity constraints were exercised.
+        assertTrue(positiveCount > 0 && positiveCount < BRDF_MATRIX_SIZE);
+    }
+
+    @Test
+    public void singularConstrainedProblemReturnsZero()
+    {
+        // With A'A = 0, every passive subproblem is singular, including the one with no passive variables.
+        SimpleMatrix[] problem = addSumToOneConstraint(new SimpleMatrix[]
+        {
+            new SimpleMatrix(BASIS_COUNT, BASIS_COUNT, DMatrixRMaj.class),
+            new SimpleMatrix(BASIS_COUNT, 1, DMatrixRMaj.class).plus(1.0)
+        });
+
+        double[] solution = toArray(NonNegativeLeastSquares.solvePremultipliedWithEqualityConstraints(problem[0], problem[1], EPSILON, 1));
+        assertArrayEquals(new double[BASIS_COUNT + 1], solution, 0.0);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Michael Tetzlaff 2019
+ * Copyright (c) The Regents of the University of Minnesota 2019
+ *
+ * Licensed under GPLv3
+ * ( http://www.gnu.org/licenses/gpl-3.0.html )
+ *
+ * This code is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+
+package tetzlaff.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+import tetzlaff.util.RadianceImageLoader.Image;
+
+import static org.junit.Assert.*;
+
+public class RadianceImageWriterTest
+{
+    private static byte[] write(Image image) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RadianceImageWriter().write(image, out);
+        return out.toByteArray();
+    }
+
+    private static Image read(byte[] bytes) throws IOException
+    {
+        return new RadianceImageLoader().read(new BufferedInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * Creates an image with a mix of constant regions (which should be run-length encoded) and noise (which should not).
+     */
+    private static Image createTestImage(int width, int height, long seed)
+    {
+        Random random = new Random(seed);
+        float[] data = new float[width * height * 3];
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int offset = 3 * (y * width + x);
+                if (x < width / 3)
+                {
+                    data[offset] = 0.5f;
+                    data[offset + 1] = 0.25f;
+                    data[offset + 2] = 1.0f;
+                }
+                else if (x < 2 * width / 3)
+                {
+                    for (int i = 0; i < 3; i++)
+                    {
+                        data[offset + i] = (float)Math.exp(10 * random.nextGaussian());
+                    }
+                }
+                else
+                {
+                    // Black, including a negative value which should be written as zero.
+                    data[offset] = -1.0f;
+                }
+            }
+        }
+
+        return new Image(width, height, data);
+    }
+
+    private static void assertRoundTrip(Image original) throws IOException
+    {
+        Image loaded = read(write(original));
+
+        assertEquals(original.width, loaded.width);
+        assertEquals(original.height, loaded.height);
+        assertEquals(original.data.length, loaded.data.length);
+
+        for (int p = 0; p < original.width * original.height; p++)
+        {
+            // Each component is stored with 8 bits of mantissa relative to the brightest component.
+            float max = 0.0f;
+            for (int i = 0; i < 3; i++)
+            {
+                max = Math.max(max, original.data[3 * p + i]);
+            }
+
+            for (int i = 0; i < 3; i++)
+            {
+                assertEquals(Math.max(0.0f, original.data[3 * p + i]), loaded.data[3 * p + i], max / 128);
+            }
+        }
+
+        // Writing an image that was just loaded should reproduce it exactly.
+        assertArrayEquals(loaded.data, read(write(loaded)).data, 0.0f);
+    }
+
+    @Test
+    public void runLengthEncodedRoundTrip() throws IOException
+    {
+        // Tall enough to span several bands of scanlines in both the writer and the loader.
+        Image image = createTestImage(300, 600, 0);
+        assertRoundTrip(image);
+
+        // The constant and black regions should compress.
+        assertTrue(write(image).length < 4 * image.width * image.height * 5 / 6);
+    }
+
+    @Test
+    public void flatScanLineRoundTrip() throws IOException
+    {
+        // Scanlines narrower than 8 pixels cannot be run-length encoded.
+        Image image = createTestImage(6, 40, 1);
+        byte[] bytes = write(image);
+        assertRoundTrip(image);
+
+        String header = "#?RADIANCE\nFORMAT=32-bit_rle_rgbe\n\n-Y 40 +X 6\n";
+        assertEquals(header.length() + 4 * image.width * image.height, bytes.length);
+    }
+
+    @Test
+    public void rowOrder() throws IOException
+    {
+        Image image = new Image(8, 2,
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+            2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RadianceImageWriter().write(image, out, false);
+        Image flipped = read(out.toByteArray());
+        assertEquals(2.0f, flipped.data[0], 0.0f);
+        assertEquals(1.0f, flipped.data[flipped.data.length - 1], 0.0f);
+
+        Image unflipped = read(write(image));
+        assertEquals(1.0f, unflipped.data[0], 0.0f);
+        assertEquals(2.0f, unflipped.data[unflipped.data.length - 1], 0.0f);
+    }
+
+    @Test
+    public void veryBrightPixelsAreClamped() throws IOException
+    {
+        float[] values = { 1.0e30f, (float)Math.scalb(1.0, 127), 3.0e38f, Float.MAX_VALUE, Float.POSITIVE_INFINITY };
+
+        float[] data = new float[8 * 3];
+        for (int i = 0; i < values.length; i++)
+        {
+            data[3 * i] = values[i];
+            data[3 * i + 1] = values[i] / 2;
+            data[3 * i + 2] = 1.0f;
+        }
+
+        Image loaded = read(write(new Image(8, 1, data)));
+
+        for (int i = 0; i < values.length; i++)
+        {
+            // The largest representable value is 255/256 * 2^127.
+            float expected = Math.min(values[i], (float)Math.scalb(255.0 / 256.0, 127));
+            assertEquals(expected, loaded.data[3 * i], expected / 128);
+            assertTrue(loaded.data[3 * i + 1] > 0.0f);
+        }
+    }
+}